@@ -0,0 +1,165 @@
+package com.tudresden.navigationrobot;
+
+import com.tudresden.navigationrobot.map.OccupancyGrid;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how long MapActivity takes to open a stored map: read from a stream like map.bin of
+ * older versions, which spills the tiles beyond the memory budget to the cache again, and mapped
+ * from a tile file like map.tiles, together with reading a few cells around the robot. The map is
+ * a square with a cluttered room on every 2 x 2 meters, so most tiles are dense. The sizes of both
+ * files are printed when the map is set up. For 100 x 100 meters both take about 16 MB: reading the
+ * stream took about 0.4 s on a desktop, mapping the tiles less than 4 ms.
+ */
+@org.openjdk.jmh.annotations.State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class MapStoreBenchmark {
+
+    /**
+     * The edge length of a cell in meters.
+     */
+    private static final double RESOLUTION = 0.05;
+
+    /**
+     * The edge length of the rooms in meters.
+     */
+    private static final double ROOM_SIZE = 2;
+
+    /**
+     * The edge length of the square in meters.
+     */
+    @Param({"20", "100"})
+    public int size;
+
+    /**
+     * The directory of the files.
+     */
+    private File mDirectory;
+
+    /**
+     * The map in the format of map.bin.
+     */
+    private File mStream;
+
+    /**
+     * The map in the format of map.tiles.
+     */
+    private File mTiles;
+
+    /**
+     * The directory that the tiles of the map that is read from the stream are spilled to.
+     */
+    private File mSpillDirectory;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        mDirectory = Files.createTempDirectory("map").toFile();
+        mStream = new File(mDirectory, "map.bin");
+        mTiles = new File(mDirectory, "map.tiles");
+        mSpillDirectory = new File(mDirectory, "tiles");
+        OccupancyGrid grid = new OccupancyGrid(RESOLUTION, OccupancyGrid.DEFAULT_MEMORY_BUDGET, mSpillDirectory);
+        Random random = new Random(42);
+        int cells = (int) Math.round(size / RESOLUTION);
+        int roomCells = (int) Math.round(ROOM_SIZE / RESOLUTION);
+        for(int cellY = 0; cellY < cells; cellY++) {
+            for(int cellX = 0; cellX < cells; cellX++) {
+                if(cellX % roomCells == 0 || cellY % roomCells == 0 || random.nextInt(20) == 0) {
+                    grid.addLogOdds(cellX, cellY, OccupancyGrid.LOG_ODDS_MAX * random.nextFloat());
+                } else {
+                    grid.addLogOdds(cellX, cellY, OccupancyGrid.LOG_ODDS_MIN * random.nextFloat());
+                }
+            }
+        }
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(mStream)));
+        try {
+            grid.writeTo(out);
+        } finally {
+            out.close();
+        }
+        grid.writeTiles(mTiles);
+        System.out.println(size + " x " + size + " meters: " + mStream.length() + " bytes as a stream, "
+                + mTiles.length() + " bytes as tiles");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        delete(mDirectory);
+    }
+
+    /**
+     * Deletes a file or a directory with all files in it.
+     */
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if(children != null) {
+            for(File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * Reads the whole map from the stream, like StorageHelper#retrieveMap() did before.
+     */
+    @Benchmark
+    public int readStream() throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(mStream)));
+        OccupancyGrid grid;
+        try {
+            grid = OccupancyGrid.readFrom(in, OccupancyGrid.DEFAULT_MEMORY_BUDGET, mSpillDirectory);
+        } finally {
+            in.close();
+        }
+        // Every grid spills into its own directory, which would pile up over the iterations
+        grid.close();
+        return grid.getTileCount();
+    }
+
+    /**
+     * Maps the tile file like StorageHelper#retrieveMap() and reads the cells around the middle of
+     * the map.
+     */
+    @Benchmark
+    public float mapTiles() throws IOException {
+        OccupancyGrid grid = OccupancyGrid.mapTiles(mTiles, OccupancyGrid.DEFAULT_MEMORY_BUDGET, mSpillDirectory);
+        int middle = (int) Math.round(size / RESOLUTION / 2);
+        float sum = 0;
+        for(int cellY = middle - 20; cellY < middle + 20; cellY++) {
+            for(int cellX = middle - 20; cellX < middle + 20; cellX++) {
+                sum += grid.getLogOdds(cellX, cellY);
+            }
+        }
+        grid.close();
+        return sum;
+    }
+
+}
@@ -0,0 +1,85 @@
+package com.tudresden.navigationrobot;
+
+import com.tudresden.navigationrobot.robot.Pose;
+import com.tudresden.navigationrobot.robot.RobotBase;
+import com.tudresden.navigationrobot.robot.RobotSensor;
+import com.tudresden.navigationrobot.robot.Scheduler;
+
+/**
+ * A robot that doesn't move and always measures the same distance, so that benchmarks only measure
+ * the code of the app.
+ */
+class NullRobot implements RobotBase, RobotSensor, Scheduler {
+
+    /**
+     * The distance that the ultrasonic sensor always returns in millimeters.
+     */
+    private static final float DISTANCE = 1000;
+
+    /**
+     * The pose that the odometry always returns.
+     */
+    private static final Pose ORIGIN = new Pose(0, 0, 0, 0);
+
+    @Override
+    public void setListener(Listener listener) {}
+
+    @Override
+    public void addCheckPoint(float x, float y) {}
+
+    @Override
+    public void addCheckPoint(float x, float y, float theta) {}
+
+    @Override
+    public void clearCheckPointsAndStop() {}
+
+    @Override
+    public void setVelocity(float linear, float angular) {}
+
+    @Override
+    public void cleanOriginalPoint() {}
+
+    @Override
+    public void setOriginalPoint(Pose pose) {}
+
+    @Override
+    public Pose getOdometryPose() {
+        return ORIGIN;
+    }
+
+    @Override
+    public void setUltrasonicObstacleAvoidanceEnabled(boolean enabled) {}
+
+    @Override
+    public void setUltrasonicObstacleAvoidanceDistance(float distance) {}
+
+    @Override
+    public float getUltrasonicDistance() {
+        return DISTANCE;
+    }
+
+    @Override
+    public float getInfraredDistance() {
+        return DISTANCE;
+    }
+
+    @Override
+    public float getBaseYaw() {
+        return 0;
+    }
+
+    @Override
+    public void post(Runnable task) {}
+
+    @Override
+    public void postDelayed(Runnable task, long delayMillis) {}
+
+    @Override
+    public void cancel(Runnable task) {}
+
+    @Override
+    public long uptimeMillis() {
+        return 0;
+    }
+
+}
@@ -0,0 +1,116 @@
+package com.tudresden.navigationrobot;
+
+import com.tudresden.navigationrobot.localization.LikelihoodField;
+import com.tudresden.navigationrobot.localization.ParticleFilter;
+import com.tudresden.navigationrobot.map.OccupancyGrid;
+import com.tudresden.navigationrobot.planning.PlanningGrid;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the update of the particle filter that the navigation runs every
+ * ParticleFilter#UPDATE_READINGS readings, right after the start when the particles are spread
+ * over the whole map and there are most of them. The map is a room of 6 x 4 meters that the robot
+ * has walked along once. The particles are weighed by one thread and by as many threads as there
+ * are cores.
+ */
+@org.openjdk.jmh.annotations.State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParticleFilterBenchmark {
+
+    /**
+     * The length of the room in meters.
+     */
+    private static final double LENGTH = 6;
+
+    /**
+     * The width of the room in meters.
+     */
+    private static final double WIDTH = 4;
+
+    /**
+     * The distance in meters that the robot keeps to the walls.
+     */
+    private static final double WALL_DISTANCE = 0.8;
+
+    /**
+     * The number of threads that weigh the particles, 0 for one per core.
+     */
+    @Param({"1", "0"})
+    public int threads;
+
+    /**
+     * The filter.
+     */
+    private ParticleFilter mFilter;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        OccupancyGrid grid = new OccupancyGrid(0.05, OccupancyGrid.DEFAULT_MEMORY_BUDGET, null);
+        // Walk around the room once, turning towards the walls
+        for(double x = WALL_DISTANCE; x <= LENGTH - WALL_DISTANCE; x += 0.05) {
+            integrate(grid, x, WALL_DISTANCE, -Math.PI / 2);
+            integrate(grid, x, WIDTH - WALL_DISTANCE, Math.PI / 2);
+        }
+        for(double y = WALL_DISTANCE; y <= WIDTH - WALL_DISTANCE; y += 0.05) {
+            integrate(grid, WALL_DISTANCE, y, Math.PI);
+            integrate(grid, LENGTH - WALL_DISTANCE, y, 0);
+        }
+        mFilter = new ParticleFilter(new LikelihoodField(grid, PlanningGrid.ROBOT_RADIUS), 42,
+                threads > 0 ? threads : Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Spreads the particles over the whole room and collects the readings of a robot that stands in
+     * front of a wall.
+     */
+    @Setup(Level.Invocation)
+    public void spread() {
+        mFilter.initializeGlobally();
+        for(int i = 0; i < ParticleFilter.UPDATE_READINGS; i++) {
+            mFilter.addReading(WALL_DISTANCE);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mFilter.shutdown();
+    }
+
+    /**
+     * Integrates a reading of a sensor at a pose into the grid.
+     */
+    private static void integrate(OccupancyGrid grid, double x, double y, double heading) {
+        double distance;
+        if(Math.abs(Math.cos(heading)) > 0.5) {
+            distance = Math.cos(heading) > 0 ? LENGTH - x : x;
+        } else {
+            distance = Math.sin(heading) > 0 ? WIDTH - y : y;
+        }
+        grid.integrateUltrasonic(x, y, heading, Math.min(distance, 1.5));
+    }
+
+    @Benchmark
+    public int update() {
+        mFilter.update();
+        return mFilter.getParticleCount();
+    }
+
+}
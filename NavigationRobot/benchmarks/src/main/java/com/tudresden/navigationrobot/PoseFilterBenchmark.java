@@ -0,0 +1,86 @@
+package com.tudresden.navigationrobot;
+
+import com.tudresden.navigationrobot.localization.PoseFilter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures a step of the filter that fuses the odometry with the IMU, which runs every time the
+ * PoseTracker samples the odometry. The steps come from a robot that drives straight, turns in
+ * place and stands, with noisy readings of the gyroscope.
+ */
+@org.openjdk.jmh.annotations.State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PoseFilterBenchmark {
+
+    /**
+     * The number of steps per invocation.
+     */
+    private static final int STEPS = 1000;
+
+    /**
+     * The time between two steps in seconds, the sample period of the PoseTracker.
+     */
+    private static final double DT = 0.02;
+
+    /**
+     * The filter.
+     */
+    private PoseFilter mFilter = new PoseFilter();
+
+    /**
+     * The distances that the odometry drives in every step.
+     */
+    private double[] mDistances = new double[STEPS];
+
+    /**
+     * The angles that the odometry turns in every step.
+     */
+    private double[] mOdometryTurns = new double[STEPS];
+
+    /**
+     * The angles that the gyroscope turns in every step.
+     */
+    private double[] mGyroTurns = new double[STEPS];
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        for(int i = 0; i < STEPS; i++) {
+            // 2 seconds straight ahead, 2 seconds turning, 1 second standing
+            int phase = i / 50 % 5;
+            double distance = phase < 2 ? 0.5 * DT : 0;
+            double turn = phase == 2 || phase == 3 ? 0.8 * DT : 0;
+            mDistances[i] = distance;
+            mOdometryTurns[i] = turn * 1.01;
+            mGyroTurns[i] = turn + 0.001 * DT + 0.0005 * Math.sqrt(DT) * random.nextGaussian();
+        }
+        mFilter.reset(0, 0, 0);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(STEPS)
+    public double update() {
+        for(int i = 0; i < STEPS; i++) {
+            mFilter.update(mDistances[i], mOdometryTurns[i], mGyroTurns[i], DT);
+        }
+        return mFilter.getHeading();
+    }
+
+}
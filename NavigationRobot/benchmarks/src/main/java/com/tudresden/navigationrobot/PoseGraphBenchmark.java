@@ -0,0 +1,136 @@
+package com.tudresden.navigationrobot;
+
+import com.tudresden.navigationrobot.localization.PoseGraph;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the optimization of the pose graph that the LoopCloser runs after every loop closure.
+ * The robot walks the same rectangular room many times in steps of half a meter, its odometry
+ * drifts, and every fourth pose is connected to the same pose of the previous lap, like the loop
+ * closures of the wall following strategy every two meters.
+ */
+@org.openjdk.jmh.annotations.State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PoseGraphBenchmark {
+
+    /**
+     * The length of a step in meters.
+     */
+    private static final double STEP = 0.5;
+
+    /**
+     * The number of steps along the long walls of the room.
+     */
+    private static final int LENGTH = 20;
+
+    /**
+     * The number of steps along the short walls of the room.
+     */
+    private static final int WIDTH = 12;
+
+    /**
+     * The number of poses per lap.
+     */
+    private static final int LAP = 2 * (LENGTH + WIDTH);
+
+    /**
+     * The number of poses between two loop closures.
+     */
+    private static final int CLOSURE_SPACING = 4;
+
+    /**
+     * The number of poses.
+     */
+    @Param({"1000", "5000"})
+    public int size;
+
+    /**
+     * The graph.
+     */
+    private PoseGraph mGraph = new PoseGraph();
+
+    /**
+     * The poses from the odometry before the optimization, three values per pose.
+     */
+    private double[] mOdometry;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        mOdometry = new double[3 * size];
+        double x = 0;
+        double y = 0;
+        double heading = 0;
+        mGraph.addPose(x, y, heading);
+        for(int i = 1; i < size; i++) {
+            // Turn left at the corners of the room, the odometry drifts a little with every step
+            int step = (i - 1) % LAP;
+            boolean corner = step == LENGTH - 1 || step == LENGTH + WIDTH - 1
+                    || step == 2 * LENGTH + WIDTH - 1 || step == LAP - 1;
+            double forward = STEP * (1 + 0.02 * random.nextGaussian());
+            double turn = (corner ? Math.PI / 2 : 0) + 0.005 + 0.01 * random.nextGaussian();
+            x += forward * Math.cos(heading);
+            y += forward * Math.sin(heading);
+            heading += turn;
+            mGraph.addPose(x, y, heading);
+            mGraph.addEdge(i - 1, i, forward, 0, turn, 400, 400, 2500);
+            mOdometry[3 * i] = x;
+            mOdometry[3 * i + 1] = y;
+            mOdometry[3 * i + 2] = heading;
+        }
+        // The same place one lap later lies along the same wall, which hardly tells how far along it
+        for(int i = LAP; i < size; i += CLOSURE_SPACING) {
+            mGraph.addEdge(i - LAP, i, 0, 0, 0, 0, 1, 400, 400);
+        }
+    }
+
+    /**
+     * Optimizes the graph from the poses of the odometry, with the order of the poses and the
+     * structure of the Cholesky factor already computed.
+     */
+    @Benchmark
+    public int optimize() {
+        reset();
+        return mGraph.optimize(10);
+    }
+
+    /**
+     * Adds a loop closure, optimizes the graph and drops the loop closure again, which computes the
+     * order of the poses and the structure of the factor again, like a loop closure that is rejected.
+     */
+    @Benchmark
+    public int closeLoop() {
+        reset();
+        mGraph.addEdge(size - 1 - LAP, size - 1, 0, 0, 0, 0, 1, 400, 400);
+        int iterations = mGraph.optimize(10);
+        mGraph.removeLastEdge();
+        return iterations;
+    }
+
+    /**
+     * Moves all poses back to the odometry.
+     */
+    private void reset() {
+        for(int i = 0; i < size; i++) {
+            mGraph.setPose(i, mOdometry[3 * i], mOdometry[3 * i + 1], mOdometry[3 * i + 2]);
+        }
+    }
+
+}
@@ -0,0 +1,108 @@
+package com.tudresden.navigationrobot;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how long StorageHelper takes to convert the positions of an exploration to the content
+ * of the file and back, without the file access: as JSON like in positions.json of older versions
+ * and in the binary format of positions.bin. The sizes of both are printed when the positions are
+ * set up. For 10000 positions the JSON takes 606 kB and the binary format 45 kB.
+ */
+@org.openjdk.jmh.annotations.State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PositionSerializerBenchmark {
+
+    /**
+     * The number of positions.
+     */
+    @Param({"1000", "10000", "100000"})
+    public int size;
+
+    /**
+     * The serializer.
+     */
+    private PositionSerializer mSerializer = new PositionSerializer();
+
+    /**
+     * The positions that are serialized.
+     */
+    private LinkedList<Position> mPositions;
+
+    /**
+     * The content of positions.json for mPositions.
+     */
+    private String mJson;
+
+    /**
+     * The content of positions.bin for mPositions.
+     */
+    private byte[] mBinary;
+
+    @Setup
+    public void setUp() throws IOException {
+        mPositions = Trajectories.randomWalk(size, 42);
+        mJson = mSerializer.toJson(mPositions);
+        mBinary = writeBinary();
+        System.out.println(size + " positions: " + mJson.getBytes(StandardCharsets.UTF_8).length
+                + " bytes of JSON, " + mBinary.length + " bytes binary");
+    }
+
+    /**
+     * Converts the positions to the bytes that StorageHelper#storePositions(LinkedList) writes.
+     */
+    @Benchmark
+    public byte[] serialize() {
+        return mSerializer.toJson(mPositions).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Converts the content of positions.json back to positions, like
+     * StorageHelper#convertPositions().
+     */
+    @Benchmark
+    public LinkedList<Position> deserialize() {
+        return mSerializer.fromJson(mJson);
+    }
+
+    /**
+     * Converts the positions to the bytes that StorageHelper#storePositions(LinkedList) writes now.
+     */
+    @Benchmark
+    public byte[] writeBinary() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PositionWriter writer = new PositionWriter(out);
+        writer.writeAll(mPositions);
+        writer.close();
+        return out.toByteArray();
+    }
+
+    /**
+     * Reads the positions back from the content of positions.bin, like
+     * StorageHelper#convertPositions().
+     */
+    @Benchmark
+    public LinkedList<Position> readBinary() throws IOException {
+        return new PositionReader(new ByteArrayInputStream(mBinary)).readAll();
+    }
+
+}
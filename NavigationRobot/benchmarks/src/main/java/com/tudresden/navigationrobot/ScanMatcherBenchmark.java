@@ -0,0 +1,127 @@
+package com.tudresden.navigationrobot;
+
+import com.tudresden.navigationrobot.localization.ScanMatcher;
+import com.tudresden.navigationrobot.map.OccupancyGrid;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the matching of a batch of readings against the occupancy grid, which Exploration runs
+ * every ScanMatcher#BATCH_SIZE readings. The grid holds the walls of a room of 6 x 4 meters that
+ * the robot has walked along once. The batch is measured in a corner of the room by a robot whose
+ * map pose has drifted by 10 centimeters and 2°.
+ */
+@org.openjdk.jmh.annotations.State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScanMatcherBenchmark {
+
+    /**
+     * The length of the room in meters.
+     */
+    private static final double LENGTH = 6;
+
+    /**
+     * The width of the room in meters.
+     */
+    private static final double WIDTH = 4;
+
+    /**
+     * The distance in meters that the robot keeps to the walls.
+     */
+    private static final double WALL_DISTANCE = 0.8;
+
+    /**
+     * The grid with the walls of the room.
+     */
+    private OccupancyGrid mGrid = new OccupancyGrid(0.05, OccupancyGrid.DEFAULT_MEMORY_BUDGET, null);
+
+    /**
+     * The matcher.
+     */
+    private ScanMatcher mMatcher = new ScanMatcher();
+
+    /**
+     * The map poses of the readings of the batch, three values per reading.
+     */
+    private double[] mPoses = new double[3 * ScanMatcher.BATCH_SIZE];
+
+    /**
+     * The distances of the readings of the batch.
+     */
+    private double[] mDistances = new double[ScanMatcher.BATCH_SIZE];
+
+    @Setup
+    public void setUp() {
+        // Walk around the room once, with the wall on the right and the sensor turned towards it
+        for(double x = WALL_DISTANCE; x <= LENGTH - WALL_DISTANCE; x += 0.05) {
+            integrate(x, WALL_DISTANCE, -Math.PI / 2);
+            integrate(x, WIDTH - WALL_DISTANCE, Math.PI / 2);
+        }
+        for(double y = WALL_DISTANCE; y <= WIDTH - WALL_DISTANCE; y += 0.05) {
+            integrate(WALL_DISTANCE, y, Math.PI);
+            integrate(LENGTH - WALL_DISTANCE, y, 0);
+        }
+        // The batch is measured along two walls of a corner, the map pose has drifted
+        double angle = Math.toRadians(2);
+        for(int i = 0; i < ScanMatcher.BATCH_SIZE; i++) {
+            double along = 0.1 * (i / 2);
+            double x = LENGTH - WALL_DISTANCE - along;
+            double y = WALL_DISTANCE;
+            double heading = i % 2 == 0 ? -Math.PI / 2 : 0;
+            double dx = x - LENGTH / 2;
+            double dy = y - WIDTH / 2;
+            mPoses[3 * i] = LENGTH / 2 + Math.cos(angle) * dx - Math.sin(angle) * dy + 0.1;
+            mPoses[3 * i + 1] = WIDTH / 2 + Math.sin(angle) * dx + Math.cos(angle) * dy - 0.05;
+            mPoses[3 * i + 2] = heading + angle;
+            mDistances[i] = distanceToWall(x, y, heading);
+        }
+    }
+
+    /**
+     * Integrates a reading of a sensor at a pose into the grid.
+     */
+    private void integrate(double x, double y, double heading) {
+        mGrid.integrateUltrasonic(x, y, heading, distanceToWall(x, y, heading));
+    }
+
+    /**
+     * @return the distance from a pose to the wall that a sensor in the direction of one of the
+     * axes hits, at most the range of the sensor
+     */
+    private static double distanceToWall(double x, double y, double heading) {
+        double distance;
+        if(Math.abs(Math.cos(heading)) > 0.5) {
+            distance = Math.cos(heading) > 0 ? LENGTH - x : x;
+        } else {
+            distance = Math.sin(heading) > 0 ? WIDTH - y : y;
+        }
+        return Math.min(distance, 1.5);
+    }
+
+    @Benchmark
+    public boolean match() {
+        for(int i = 0; i < ScanMatcher.BATCH_SIZE; i++) {
+            mMatcher.addReading(mPoses[3 * i], mPoses[3 * i + 1], mPoses[3 * i + 2], mDistances[i]);
+        }
+        double pivotX = mPoses[3 * ScanMatcher.BATCH_SIZE - 3];
+        double pivotY = mPoses[3 * ScanMatcher.BATCH_SIZE - 2];
+        boolean accepted = mMatcher.match(mGrid, pivotX, pivotY);
+        mMatcher.clearReadings();
+        return accepted;
+    }
+
+}
@@ -0,0 +1,79 @@
+package com.tudresden.navigationrobot;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.LinkedList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the conversion of the positions of an exploration to screen positions that
+ * MapView#calculateScreenPositions(int, int) performs before the map is drawn.
+ */
+@org.openjdk.jmh.annotations.State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScreenTransformBenchmark {
+
+    /**
+     * The width of the screen of the Loomo.
+     */
+    private static final int WIDTH = 1024;
+
+    /**
+     * The height of the screen of the Loomo without the action bar.
+     */
+    private static final int HEIGHT = 552;
+
+    /**
+     * The number of positions of the trajectory.
+     */
+    @Param({"10000", "100000", "1000000"})
+    public int size;
+
+    /**
+     * The positions of the trajectory.
+     */
+    private LinkedList<Position> mPositions;
+
+    /**
+     * The transform that is fitted to the trajectory.
+     */
+    private ScreenTransform mTransform = new ScreenTransform();
+
+    @Setup
+    public void setUp() {
+        mPositions = Trajectories.randomWalk(size, 42);
+        mTransform.fit(mPositions, null, WIDTH, HEIGHT);
+    }
+
+    /**
+     * Only finds the scale, which needs one pass over the positions.
+     */
+    @Benchmark
+    public double fit() {
+        mTransform.fit(mPositions, null, WIDTH, HEIGHT);
+        return mTransform.getDistanceBetweenPoints();
+    }
+
+    /**
+     * Finds the scale and converts every position, like MapView#calculateScreenPositions(int, int).
+     */
+    @Benchmark
+    public LinkedList<Position> calculateScreenPositions() {
+        mTransform.fit(mPositions, null, WIDTH, HEIGHT);
+        return mTransform.toScreen(mPositions);
+    }
+
+}
@@ -0,0 +1,43 @@
+package com.tudresden.navigationrobot;
+
+import java.util.LinkedList;
+import java.util.Random;
+
+/**
+ * Creates trajectories like the ones that the wall following strategy records: steps of half a
+ * meter in one of the four orientations, with a turn now and then.
+ */
+final class Trajectories {
+
+    /**
+     * The length of a step in meters.
+     */
+    private static final double STEP = 0.5;
+
+    private Trajectories() {}
+
+    /**
+     * @param size the number of positions
+     * @param seed the seed of the turns
+     * @return the positions of a random walk that starts at (0,0)
+     */
+    static LinkedList<Position> randomWalk(int size, long seed) {
+        Random random = new Random(seed);
+        Orientation[] orientations = Orientation.values();
+        LinkedList<Position> positions = new LinkedList<>();
+        double x = 0.0;
+        double y = 0.0;
+        int orientation = 0;
+        for(int i = 0; i < size; i++) {
+            positions.add(new Position(x, y, orientations[orientation]));
+            if(random.nextInt(4) == 0) {
+                orientation = (orientation + (random.nextBoolean() ? 1 : orientations.length - 1)) % orientations.length;
+            }
+            double heading = orientations[orientation].getHeading();
+            x += STEP * Math.cos(heading);
+            y += STEP * Math.sin(heading);
+        }
+        return positions;
+    }
+
+}
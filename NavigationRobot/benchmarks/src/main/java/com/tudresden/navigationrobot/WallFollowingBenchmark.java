@@ -0,0 +1,92 @@
+package com.tudresden.navigationrobot;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.LinkedList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput of the coordinate and orientation updates of the wall following strategy,
+ * which run every time the robot reaches a checkpoint. The updates of the coordinates are
+ * interleaved with left turns, so the robot walks in a square and the map doesn't grow.
+ */
+@org.openjdk.jmh.annotations.State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WallFollowingBenchmark {
+
+    /**
+     * The positions that the exploration keeps are cleared when there are more than this many, so
+     * that the measurement doesn't depend on the length of the exploration.
+     */
+    private static final int MAX_POSITIONS = 4096;
+
+    /**
+     * The state of the strategy. Walking only samples the odometry and records the position, an
+     * obstacle also reads the sensor and integrates the reading into the occupancy grid.
+     */
+    @Param({"WALKING", "CORNER_DONE", "OBSTACLE_DETECTED"})
+    public String state;
+
+    /**
+     * The strategy.
+     */
+    private WallFollowingStrategy mStrategy;
+
+    /**
+     * The exploration.
+     */
+    private Exploration mExploration;
+
+    /**
+     * The positions of the exploration.
+     */
+    private LinkedList<Position> mPositions;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        NullRobot robot = new NullRobot();
+        Exploration exploration = new Exploration(robot, robot, robot, null);
+        mStrategy = new WallFollowingStrategy(exploration);
+        mStrategy.setState(State.valueOf(state));
+        exploration.setStrategy(mStrategy);
+        mExploration = exploration;
+        mPositions = exploration.getPositions();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(4)
+    public void updateCoordinates() {
+        for(int i = 0; i < 4; i++) {
+            mStrategy.updateCoordinates();
+            mStrategy.updateOrientation(WallFollowingStrategy.LEFT_TURN);
+        }
+        if(mPositions.size() > MAX_POSITIONS) {
+            mExploration.clearPositions();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(4)
+    public void updateOrientation() {
+        mStrategy.updateOrientation(WallFollowingStrategy.LEFT_TURN);
+        mStrategy.updateOrientation(WallFollowingStrategy.RIGHT_TURN);
+        mStrategy.updateOrientation(WallFollowingStrategy.RIGHT_TURN);
+        mStrategy.updateOrientation(WallFollowingStrategy.LEFT_TURN);
+    }
+
+}
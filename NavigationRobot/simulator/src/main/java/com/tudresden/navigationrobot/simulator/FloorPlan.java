@@ -0,0 +1,246 @@
+package com.tudresden.navigationrobot.simulator;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * The walls and obstacles of a simulated room as line segments in meters. A floor plan is read from
+ * a text file with one entry per line:
+ * <pre>
+ * # a comment
+ * start x y heading          the pose of the robot at the start, the heading in degrees
+ * polygon x1 y1 x2 y2 ...    a closed polygon, e.g. the outline of the room or a table
+ * wall x1 y1 x2 y2           a single segment
+ * </pre>
+ */
+public class FloorPlan {
+
+    /**
+     * The coordinates of the segments, four values (x1, y1, x2, y2) per segment.
+     */
+    private double[] mSegments = new double[64];
+
+    /**
+     * The number of segments.
+     */
+    private int mSegmentCount = 0;
+
+    /**
+     * The x-coordinate of the robot at the start.
+     */
+    private double mStartX = 0;
+
+    /**
+     * The y-coordinate of the robot at the start.
+     */
+    private double mStartY = 0;
+
+    /**
+     * The heading of the robot at the start in radians.
+     */
+    private double mStartHeading = 0;
+
+    /**
+     * Reads a floor plan from a file.
+     * @param file the file
+     * @return the floor plan
+     * @throws IOException if the file can't be read or contains an invalid line
+     */
+    public static FloorPlan read(File file) throws IOException {
+        FloorPlan plan = new FloorPlan();
+        try(BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            int lineNumber = 0;
+            while((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if(line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] tokens = line.split("\\s+");
+                double[] values = new double[tokens.length - 1];
+                try {
+                    for(int i = 0; i < values.length; i++) {
+                        values[i] = Double.parseDouble(tokens[i + 1]);
+                    }
+                } catch(NumberFormatException e) {
+                    throw new IOException(file + ":" + lineNumber + ": invalid number", e);
+                }
+                switch(tokens[0]) {
+                    case "start":
+                        if(values.length != 3) {
+                            throw new IOException(file + ":" + lineNumber + ": start needs x, y and heading");
+                        }
+                        plan.setStart(values[0], values[1], Math.toRadians(values[2]));
+                        break;
+                    case "polygon":
+                        if(values.length < 6 || values.length % 2 != 0) {
+                            throw new IOException(file + ":" + lineNumber + ": polygon needs at least 3 points");
+                        }
+                        plan.addPolygon(values);
+                        break;
+                    case "wall":
+                        if(values.length != 4) {
+                            throw new IOException(file + ":" + lineNumber + ": wall needs 2 points");
+                        }
+                        plan.addWall(values[0], values[1], values[2], values[3]);
+                        break;
+                    default:
+                        throw new IOException(file + ":" + lineNumber + ": unknown entry " + tokens[0]);
+                }
+            }
+        }
+        return plan;
+    }
+
+    /**
+     * @param x the x-coordinate of the robot at the start
+     * @param y the y-coordinate of the robot at the start
+     * @param heading the heading of the robot at the start in radians
+     */
+    public void setStart(double x, double y, double heading) {
+        mStartX = x;
+        mStartY = y;
+        mStartHeading = heading;
+    }
+
+    /**
+     * Adds a closed polygon.
+     * @param points the coordinates of the corners, alternating x and y
+     */
+    public void addPolygon(double[] points) {
+        int n = points.length / 2;
+        for(int i = 0; i < n; i++) {
+            int j = (i + 1) % n;
+            addWall(points[2 * i], points[2 * i + 1], points[2 * j], points[2 * j + 1]);
+        }
+    }
+
+    /**
+     * Adds a single segment.
+     */
+    public void addWall(double x1, double y1, double x2, double y2) {
+        if(4 * (mSegmentCount + 1) > mSegments.length) {
+            mSegments = Arrays.copyOf(mSegments, mSegments.length * 2);
+        }
+        int i = 4 * mSegmentCount++;
+        mSegments[i] = x1;
+        mSegments[i + 1] = y1;
+        mSegments[i + 2] = x2;
+        mSegments[i + 3] = y2;
+    }
+
+    public double getStartX() {
+        return mStartX;
+    }
+
+    public double getStartY() {
+        return mStartY;
+    }
+
+    public double getStartHeading() {
+        return mStartHeading;
+    }
+
+    public int getSegmentCount() {
+        return mSegmentCount;
+    }
+
+    /**
+     * @return true if the point lies within the bounding box of all segments
+     */
+    public boolean contains(double x, double y) {
+        if(mSegmentCount == 0) {
+            return false;
+        }
+        double minX = Double.POSITIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        for(int i = 0; i < 4 * mSegmentCount; i += 2) {
+            minX = Math.min(minX, mSegments[i]);
+            maxX = Math.max(maxX, mSegments[i]);
+            minY = Math.min(minY, mSegments[i + 1]);
+            maxY = Math.max(maxY, mSegments[i + 1]);
+        }
+        return x >= minX && x <= maxX && y >= minY && y <= maxY;
+    }
+
+    /**
+     * Casts a ray and returns the distance to the first segment that it hits.
+     * @param x the x-coordinate of the origin
+     * @param y the y-coordinate of the origin
+     * @param angle the direction of the ray in radians
+     * @param maxRange the longest distance that is returned
+     * @return the distance to the first segment or maxRange if there is none within that range
+     */
+    public double raycast(double x, double y, double angle, double maxRange) {
+        double dx = Math.cos(angle);
+        double dy = Math.sin(angle);
+        double best = maxRange;
+        for(int i = 0; i < 4 * mSegmentCount; i += 4) {
+            double ex = mSegments[i + 2] - mSegments[i];
+            double ey = mSegments[i + 3] - mSegments[i + 1];
+            double denominator = dx * ey - dy * ex;
+            if(Math.abs(denominator) < 1e-12) {
+                // The ray is parallel to the segment
+                continue;
+            }
+            double wx = mSegments[i] - x;
+            double wy = mSegments[i + 1] - y;
+            double t = (wx * ey - wy * ex) / denominator;
+            double u = (wx * dy - wy * dx) / denominator;
+            if(t >= 0 && t < best && u >= 0 && u <= 1) {
+                best = t;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Casts a fan of rays and returns the shortest distance, which approximates the cone of an
+     * ultrasonic sensor.
+     * @param x the x-coordinate of the origin
+     * @param y the y-coordinate of the origin
+     * @param heading the direction of the axis of the cone in radians
+     * @param halfAngle half the opening angle of the cone in radians
+     * @param rays the number of rays, at least 2
+     * @param maxRange the longest distance that is returned
+     * @return the distance to the closest segment in the cone or maxRange if there is none within
+     * that range
+     */
+    public double castCone(double x, double y, double heading, double halfAngle, int rays, double maxRange) {
+        double best = maxRange;
+        for(int i = 0; i < rays; i++) {
+            double angle = heading - halfAngle + 2 * halfAngle * i / (rays - 1);
+            best = Math.min(best, raycast(x, y, angle, best));
+        }
+        return best;
+    }
+
+    /**
+     * @return the distance from the point to the closest segment
+     */
+    public double distanceTo(double x, double y) {
+        double best = Double.POSITIVE_INFINITY;
+        for(int i = 0; i < 4 * mSegmentCount; i += 4) {
+            double ex = mSegments[i + 2] - mSegments[i];
+            double ey = mSegments[i + 3] - mSegments[i + 1];
+            double wx = x - mSegments[i];
+            double wy = y - mSegments[i + 1];
+            double lengthSquared = ex * ex + ey * ey;
+            double t = lengthSquared > 0 ? Math.max(0, Math.min(1, (wx * ex + wy * ey) / lengthSquared)) : 0;
+            double px = wx - t * ex;
+            double py = wy - t * ey;
+            best = Math.min(best, Math.sqrt(px * px + py * py));
+        }
+        return best;
+    }
+
+}
@@ -0,0 +1,342 @@
+package com.tudresden.navigationrobot.simulator;
+
+import com.tudresden.navigationrobot.Position;
+import com.tudresden.navigationrobot.control.PurePursuitFollower;
+import com.tudresden.navigationrobot.control.Trajectory;
+import com.tudresden.navigationrobot.map.OccupancyGrid;
+import com.tudresden.navigationrobot.planning.AStarPlanner;
+import com.tudresden.navigationrobot.planning.PlanningGrid;
+import com.tudresden.navigationrobot.robot.CheckPointScheduler;
+import com.tudresden.navigationrobot.robot.Pose;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Measures how long the robot takes to drive along planned paths, once from checkpoint to
+ * checkpoint like the frontier strategy and once with the pure pursuit follower. The room is
+ * explored with the frontier strategy first, then paths from the start to random goals are planned
+ * on that map. Paths that pass closer to the true walls than the robot may, e.g. through unknown
+ * space, are skipped. Every path is driven by a fresh base with the same seed in both modes. The obstacle
+ * avoidance is disabled, so only the motion itself is compared.
+ * <p>
+ * Usage: GoalBenchmark floorplan [goals] [seed]
+ */
+public class GoalBenchmark {
+
+    /**
+     * The longest virtual time in milliseconds for exploring the room.
+     */
+    private static final long EXPLORATION_TIME_LIMIT = 30 * 60000;
+
+    /**
+     * The longest virtual time in milliseconds for driving to a goal.
+     */
+    private static final long GOAL_TIME_LIMIT = 120000;
+
+    /**
+     * The shortest distance in meters between the start and a goal.
+     */
+    private static final double MIN_GOAL_DISTANCE = 2.0;
+
+    /**
+     * The closest distance in meters that a path may pass the true walls, the radius of the
+     * simulated robot with a small margin.
+     */
+    private static final double MIN_CLEARANCE = 0.27;
+
+    /**
+     * The length of the steps in the checkpoint mode, the same as in the frontier strategy.
+     */
+    private static final double STEP_LENGTH = 0.5;
+
+    /**
+     * The result of driving to a goal.
+     */
+    private static class Result {
+
+        /**
+         * True if the robot reported that it reached the goal.
+         */
+        private boolean mReached = false;
+
+        /**
+         * True if the robot gave up.
+         */
+        private boolean mFailed = false;
+
+        /**
+         * The virtual time in milliseconds until the robot reached the goal.
+         */
+        private long mTime = 0;
+    }
+
+    /**
+     * The totals of all goals in one mode.
+     */
+    private static class Totals {
+
+        /**
+         * The number of goals that were reached.
+         */
+        private int mReached = 0;
+
+        /**
+         * The total time to reach the goals in milliseconds.
+         */
+        private long mTime = 0;
+
+        /**
+         * The total distance between the true position at the end and the goals in meters.
+         */
+        private double mError = 0;
+
+        /**
+         * The total number of collisions.
+         */
+        private int mCollisions = 0;
+    }
+
+    /**
+     * The room that the robot drives in.
+     */
+    private final FloorPlan mFloorPlan;
+
+    /**
+     * The seed of the noise of the odometry.
+     */
+    private final long mSeed;
+
+    /**
+     * @param floorPlan the room that the robot drives in
+     * @param seed the seed of the noise of the odometry
+     */
+    public GoalBenchmark(FloorPlan floorPlan, long seed) {
+        this.mFloorPlan = floorPlan;
+        this.mSeed = seed;
+    }
+
+    /**
+     * Drives along a path from checkpoint to checkpoint.
+     * @param path the waypoints in the coordinate system of the odometry
+     * @param base the base that drives
+     * @param scheduler the scheduler of the base
+     * @return the result
+     */
+    private static Result driveCheckPoints(LinkedList<Position> path, SimulatedBase base, SimulatedScheduler scheduler) {
+        final Result result = new Result();
+        final CheckPointScheduler checkPoints = new CheckPointScheduler(base, scheduler);
+        checkPoints.setListener(new CheckPointScheduler.Listener() {
+            @Override
+            public void onCheckPointArrived(Pose realPose, boolean isLast) {
+                if(isLast) {
+                    result.mReached = true;
+                }
+            }
+
+            @Override
+            public void onCheckPointFailed() {
+                result.mFailed = true;
+            }
+
+            @Override
+            public void onObstacleStateChanged(boolean appeared) {}
+        });
+        checkPoints.resetOriginalPoint();
+        double x = 0;
+        double y = 0;
+        for(Position waypoint : path) {
+            double distance = Math.hypot(waypoint.getX() - x, waypoint.getY() - y);
+            int steps = (int) Math.ceil(distance / STEP_LENGTH);
+            for(int i = 1; i <= steps; i++) {
+                checkPoints.addCheckPoint((float) (x + (waypoint.getX() - x) * i / steps),
+                        (float) (y + (waypoint.getY() - y) * i / steps));
+            }
+            x = waypoint.getX();
+            y = waypoint.getY();
+        }
+        run(result, base, scheduler);
+        return result;
+    }
+
+    /**
+     * Drives along a path with the pure pursuit follower.
+     * @param path the waypoints in the coordinate system of the odometry
+     * @param base the base that drives
+     * @param scheduler the scheduler of the base
+     * @return the result
+     */
+    private static Result drivePursuit(LinkedList<Position> path, SimulatedBase base, SimulatedScheduler scheduler) {
+        final Result result = new Result();
+        double[] x = new double[path.size() + 1];
+        double[] y = new double[path.size() + 1];
+        int i = 1;
+        for(Position waypoint : path) {
+            x[i] = waypoint.getX();
+            y[i] = waypoint.getY();
+            i++;
+        }
+        PurePursuitFollower follower = new PurePursuitFollower(base, scheduler);
+        follower.follow(Trajectory.fromPolyline(x, y, 0), new PurePursuitFollower.Listener() {
+            @Override
+            public void onProgress() {}
+
+            @Override
+            public void onGoalReached() {
+                result.mReached = true;
+            }
+
+            @Override
+            public void onBlocked() {
+                result.mFailed = true;
+            }
+        });
+        run(result, base, scheduler);
+        return result;
+    }
+
+    /**
+     * Runs the simulation until the robot has reached the goal, has given up or the time limit is
+     * reached.
+     */
+    private static void run(Result result, SimulatedBase base, SimulatedScheduler scheduler) {
+        long time = 0;
+        while(!result.mReached && !result.mFailed && time < GOAL_TIME_LIMIT) {
+            time += SimulatedBase.TICK;
+            scheduler.runUntil(time);
+        }
+        result.mTime = time;
+    }
+
+    /**
+     * Explores the room, drives to the given number of random goals in both modes and prints the
+     * results.
+     * @param goals the number of goals
+     */
+    public void run(int goals) {
+        Simulation exploration = new Simulation(mFloorPlan, "frontier", mSeed);
+        exploration.run(EXPLORATION_TIME_LIMIT, null);
+        OccupancyGrid map = exploration.getExploration().getMap();
+        PlanningGrid grid = new PlanningGrid(PlanningGrid.ROBOT_RADIUS);
+        grid.update(map);
+        AStarPlanner planner = new AStarPlanner(grid);
+        Random random = new Random(mSeed);
+        Totals checkPointTotals = new Totals();
+        Totals pursuitTotals = new Totals();
+        double pathLength = 0;
+        int attempts = 0;
+        int planned = 0;
+        while(planned < goals && attempts < 1000 * goals) {
+            attempts++;
+            int goal = random.nextInt(grid.size());
+            if(!grid.isTraversable(goal)
+                    || Math.hypot(grid.worldX(goal), grid.worldY(goal)) < MIN_GOAL_DISTANCE) {
+                continue;
+            }
+            LinkedList<Position> path = planner.plan(0, 0, grid.worldX(goal), grid.worldY(goal));
+            if(path == null || !isClear(path)) {
+                continue;
+            }
+            planned++;
+            double x = 0;
+            double y = 0;
+            for(Position waypoint : path) {
+                pathLength += Math.hypot(waypoint.getX() - x, waypoint.getY() - y);
+                x = waypoint.getX();
+                y = waypoint.getY();
+            }
+            SimulatedScheduler scheduler = new SimulatedScheduler();
+            SimulatedBase base = new SimulatedBase(scheduler, mFloorPlan, mSeed + planned);
+            add(checkPointTotals, driveCheckPoints(path, base, scheduler), base, x, y);
+            scheduler = new SimulatedScheduler();
+            base = new SimulatedBase(scheduler, mFloorPlan, mSeed + planned);
+            add(pursuitTotals, drivePursuit(path, base, scheduler), base, x, y);
+        }
+        System.out.println(String.format(Locale.ROOT, "%d goals, %.2f m average path length", planned,
+                planned > 0 ? pathLength / planned : 0));
+        print("checkpoints", checkPointTotals);
+        print("pursuit", pursuitTotals);
+    }
+
+    /**
+     * @param path the waypoints in the coordinate system of the odometry, starting at the origin
+     * @return true if the path keeps MIN_CLEARANCE to the walls of the floor plan
+     */
+    private boolean isClear(LinkedList<Position> path) {
+        double x = 0;
+        double y = 0;
+        for(Position waypoint : path) {
+            double distance = Math.hypot(waypoint.getX() - x, waypoint.getY() - y);
+            int samples = (int) Math.ceil(distance / 0.05);
+            for(int i = 1; i <= samples; i++) {
+                double sampleX = x + (waypoint.getX() - x) * i / samples;
+                double sampleY = y + (waypoint.getY() - y) * i / samples;
+                if(!mFloorPlan.contains(toFloorPlanX(sampleX, sampleY), toFloorPlanY(sampleX, sampleY))
+                        || mFloorPlan.distanceTo(toFloorPlanX(sampleX, sampleY), toFloorPlanY(sampleX, sampleY)) < MIN_CLEARANCE) {
+                    return false;
+                }
+            }
+            x = waypoint.getX();
+            y = waypoint.getY();
+        }
+        return true;
+    }
+
+    /**
+     * @return the x-coordinate in the floor plan of a position in the coordinate system of the
+     * odometry, which starts at the start pose of the floor plan
+     */
+    private double toFloorPlanX(double x, double y) {
+        return mFloorPlan.getStartX() + Math.cos(mFloorPlan.getStartHeading()) * x
+                - Math.sin(mFloorPlan.getStartHeading()) * y;
+    }
+
+    /**
+     * @return the y-coordinate in the floor plan of a position in the coordinate system of the
+     * odometry
+     */
+    private double toFloorPlanY(double x, double y) {
+        return mFloorPlan.getStartY() + Math.sin(mFloorPlan.getStartHeading()) * x
+                + Math.cos(mFloorPlan.getStartHeading()) * y;
+    }
+
+    /**
+     * Adds a result to the totals.
+     * @param goalX the x-coordinate of the goal in the coordinate system of the odometry
+     * @param goalY the y-coordinate of the goal
+     */
+    private void add(Totals totals, Result result, SimulatedBase base, double goalX, double goalY) {
+        if(!result.mReached) {
+            return;
+        }
+        totals.mReached++;
+        totals.mTime += result.mTime;
+        totals.mError += Math.hypot(base.getTrueX() - toFloorPlanX(goalX, goalY),
+                base.getTrueY() - toFloorPlanY(goalX, goalY));
+        totals.mCollisions += base.getCollisionCount();
+    }
+
+    /**
+     * Prints the totals of a mode.
+     */
+    private static void print(String mode, Totals totals) {
+        int reached = Math.max(1, totals.mReached);
+        System.out.println(String.format(Locale.ROOT, "  %-12s %d reached, %.2f s average, error %.3f m average, %d collisions",
+                mode, totals.mReached, totals.mTime / 1000.0 / reached, totals.mError / reached, totals.mCollisions));
+    }
+
+    public static void main(String[] args) throws IOException {
+        if(args.length < 1) {
+            System.err.println("Usage: GoalBenchmark floorplan [goals] [seed]");
+            System.exit(1);
+        }
+        FloorPlan floorPlan = FloorPlan.read(new File(args[0]));
+        int goals = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 1;
+        new GoalBenchmark(floorPlan, seed).run(goals);
+    }
+
+}
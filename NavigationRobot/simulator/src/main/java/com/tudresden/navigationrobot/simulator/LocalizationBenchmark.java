@@ -0,0 +1,287 @@
+package com.tudresden.navigationrobot.simulator;
+
+import com.tudresden.navigationrobot.localization.LikelihoodField;
+import com.tudresden.navigationrobot.localization.Localizer;
+import com.tudresden.navigationrobot.localization.ParticleFilter;
+import com.tudresden.navigationrobot.map.OccupancyGrid;
+import com.tudresden.navigationrobot.planning.PlanningGrid;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Measures how quickly the particle filter finds the robot in a map that was explored before. The
+ * room is explored with one of the strategies first. Then the robot is put down at random
+ * poses, like after a restart, and walks along the walls with a fresh exploration while the
+ * particle filter localizes it in the stored map from the odometry and the ultrasonic sensor. Every
+ * pose is localized once from a rough guess, like the last pose of the exploration, and once
+ * without any knowledge of the pose.
+ * <p>
+ * Usage: LocalizationBenchmark floorplan [frontier|wall] [trials] [seed]
+ * <p>
+ * The quality of the map decides how well the filter does, so the strategy that explores the room
+ * should be the one that maps it best.
+ */
+public class LocalizationBenchmark {
+
+    /**
+     * The longest virtual time in milliseconds for exploring the room.
+     */
+    private static final long EXPLORATION_TIME_LIMIT = 30 * 60000;
+
+    /**
+     * The virtual time in milliseconds that the robot walks in every trial.
+     */
+    private static final long TRIAL_TIME = 180000;
+
+    /**
+     * The shortest distance in meters between a start pose and the walls.
+     */
+    private static final double MIN_CLEARANCE = 0.4;
+
+    /**
+     * The standard deviation in meters of the error of the guessed position.
+     */
+    private static final double GUESS_POSITION_ERROR = 0.3;
+
+    /**
+     * The standard deviation of the error of the guessed heading.
+     */
+    private static final double GUESS_HEADING_ERROR = Math.toRadians(10);
+
+    /**
+     * The distance in meters from the true position within which a converged filter counts as
+     * correct.
+     */
+    private static final double MAX_POSITION_ERROR = 0.3;
+
+    /**
+     * The angle from the true heading within which a converged filter counts as correct.
+     */
+    private static final double MAX_HEADING_ERROR = Math.toRadians(15);
+
+    /**
+     * The totals of all trials in one mode.
+     */
+    private static class Totals {
+
+        /**
+         * The number of trials in which the filter converged.
+         */
+        private int mConverged = 0;
+
+        /**
+         * The number of trials in which the filter converged at the true pose.
+         */
+        private int mCorrect = 0;
+
+        /**
+         * The total virtual time in milliseconds until the filter converged.
+         */
+        private long mTime = 0;
+
+        /**
+         * The number of trials in which the filter was converged at the true pose at the end.
+         */
+        private int mCorrectAtEnd = 0;
+
+        /**
+         * The total distance between the true position at the end and the estimate in meters, of
+         * the trials that were correct at the end.
+         */
+        private double mError = 0;
+
+        /**
+         * The total number of particles at the end.
+         */
+        private long mParticles = 0;
+
+        /**
+         * The longest time in milliseconds that an update of the filter took.
+         */
+        private double mMaxUpdateTime = 0;
+    }
+
+    /**
+     * The room that the robot drives in.
+     */
+    private final FloorPlan mFloorPlan;
+
+    /**
+     * The name of the strategy that explores the room.
+     */
+    private final String mStrategy;
+
+    /**
+     * The seed of the noise.
+     */
+    private final long mSeed;
+
+    /**
+     * The x-coordinate in the floor plan of the origin of the map.
+     */
+    private double mMapX;
+
+    /**
+     * The y-coordinate in the floor plan of the origin of the map.
+     */
+    private double mMapY;
+
+    /**
+     * The direction in the floor plan of the x-axis of the map.
+     */
+    private double mMapHeading;
+
+    /**
+     * @param floorPlan the room that the robot drives in
+     * @param strategy the name of the strategy that explores the room, "frontier" or "wall"
+     * @param seed the seed of the noise
+     */
+    public LocalizationBenchmark(FloorPlan floorPlan, String strategy, long seed) {
+        this.mFloorPlan = floorPlan;
+        this.mStrategy = strategy;
+        this.mSeed = seed;
+    }
+
+    /**
+     * Explores the room, localizes the robot at the given number of random poses in both modes and
+     * prints the results.
+     * @param trials the number of poses
+     */
+    public void run(int trials) {
+        Simulation exploration = new Simulation(mFloorPlan, mStrategy, mSeed);
+        exploration.run(EXPLORATION_TIME_LIMIT, null);
+        OccupancyGrid map = exploration.getExploration().getMap();
+        // The map starts at the start pose of the exploration
+        mMapX = mFloorPlan.getStartX();
+        mMapY = mFloorPlan.getStartY();
+        mMapHeading = mFloorPlan.getStartHeading();
+        long start = System.nanoTime();
+        LikelihoodField field = new LikelihoodField(map, PlanningGrid.ROBOT_RADIUS);
+        System.out.println(String.format(Locale.ROOT, "likelihood field with %d free cells built in %.1f ms",
+                field.getFreeCellCount(), (System.nanoTime() - start) / 1e6));
+        Random random = new Random(mSeed);
+        Totals guessTotals = new Totals();
+        Totals globalTotals = new Totals();
+        for(int trial = 1; trial <= trials; trial++) {
+            double x;
+            double y;
+            do {
+                x = mMapX + (random.nextDouble() - 0.5) * 40;
+                y = mMapY + (random.nextDouble() - 0.5) * 40;
+            } while(!mFloorPlan.contains(x, y) || mFloorPlan.distanceTo(x, y) < MIN_CLEARANCE);
+            double heading = (2 * random.nextDouble() - 1) * Math.PI;
+            double guessX = x + GUESS_POSITION_ERROR * random.nextGaussian();
+            double guessY = y + GUESS_POSITION_ERROR * random.nextGaussian();
+            double guessHeading = heading + GUESS_HEADING_ERROR * random.nextGaussian();
+            ParticleFilter filter = new ParticleFilter(field, mSeed + trial);
+            filter.initialize(toMapX(guessX, guessY), toMapY(guessX, guessY), guessHeading - mMapHeading,
+                    2 * GUESS_POSITION_ERROR, 2 * GUESS_HEADING_ERROR);
+            localize(filter, x, y, heading, trial, guessTotals);
+            filter = new ParticleFilter(field, mSeed + trial);
+            filter.initializeGlobally();
+            localize(filter, x, y, heading, trial, globalTotals);
+        }
+        print("guess", guessTotals, trials);
+        print("global", globalTotals, trials);
+    }
+
+    /**
+     * Puts the robot down at a pose and lets it walk along the walls while the filter localizes it.
+     * The filter is fed by a Localizer, the same way as in the navigation.
+     * @param x the x-coordinate in the floor plan
+     * @param y the y-coordinate in the floor plan
+     * @param heading the heading in the floor plan
+     * @param trial the number of the trial, which seeds the noise of the robot
+     */
+    private void localize(ParticleFilter filter, double x, double y, double heading, int trial, Totals totals) {
+        mFloorPlan.setStart(x, y, heading);
+        Simulation simulation = new Simulation(mFloorPlan, "wall", mSeed + 100 * trial);
+        SimulatedBase base = simulation.getBase();
+        Localizer localizer = new Localizer(filter, base, simulation.getSensor());
+        simulation.getExploration().startExploration();
+        boolean converged = false;
+        for(long time = 0; time <= TRIAL_TIME; time += Localizer.INTERVAL) {
+            simulation.getScheduler().runUntil(time);
+            if(localizer.step() && !converged && filter.isConverged()) {
+                converged = true;
+                totals.mConverged++;
+                totals.mTime += time;
+                if(isCorrect(filter, base)) {
+                    totals.mCorrect++;
+                }
+            }
+        }
+        if(filter.isConverged() && isCorrect(filter, base)) {
+            totals.mCorrectAtEnd++;
+            totals.mError += Math.hypot(toMapX(base.getTrueX(), base.getTrueY()) - filter.getX(),
+                    toMapY(base.getTrueX(), base.getTrueY()) - filter.getY());
+        }
+        totals.mParticles += filter.getParticleCount();
+        totals.mMaxUpdateTime = Math.max(totals.mMaxUpdateTime, filter.getMaxUpdateTime());
+        filter.shutdown();
+    }
+
+    /**
+     * @return true if the estimate of the filter is close to the true pose of the robot
+     */
+    private boolean isCorrect(ParticleFilter filter, SimulatedBase base) {
+        double error = Math.hypot(toMapX(base.getTrueX(), base.getTrueY()) - filter.getX(),
+                toMapY(base.getTrueX(), base.getTrueY()) - filter.getY());
+        double headingError = normalizeAngle(base.getTrueHeading() - mMapHeading - filter.getHeading());
+        return error <= MAX_POSITION_ERROR && Math.abs(headingError) <= MAX_HEADING_ERROR;
+    }
+
+    /**
+     * @return the x-coordinate in the map of a position in the floor plan
+     */
+    private double toMapX(double x, double y) {
+        return Math.cos(mMapHeading) * (x - mMapX) + Math.sin(mMapHeading) * (y - mMapY);
+    }
+
+    /**
+     * @return the y-coordinate in the map of a position in the floor plan
+     */
+    private double toMapY(double x, double y) {
+        return -Math.sin(mMapHeading) * (x - mMapX) + Math.cos(mMapHeading) * (y - mMapY);
+    }
+
+    /**
+     * @return the angle mapped to the range from -pi to pi
+     */
+    private static double normalizeAngle(double angle) {
+        while(angle > Math.PI) {
+            angle -= 2 * Math.PI;
+        }
+        while(angle < -Math.PI) {
+            angle += 2 * Math.PI;
+        }
+        return angle;
+    }
+
+    /**
+     * Prints the totals of a mode.
+     */
+    private static void print(String mode, Totals totals, int trials) {
+        int converged = Math.max(1, totals.mConverged);
+        int correct = Math.max(1, totals.mCorrectAtEnd);
+        System.out.println(String.format(Locale.ROOT, "  %-7s %d of %d converged (%d correct) after %.1f s average, %d correct at the end with error %.3f m average, %d particles average, updated in %.1f ms max",
+                mode, totals.mConverged, trials, totals.mCorrect, totals.mTime / 1000.0 / converged,
+                totals.mCorrectAtEnd, totals.mError / correct, totals.mParticles / trials, totals.mMaxUpdateTime));
+    }
+
+    public static void main(String[] args) throws IOException {
+        if(args.length < 1) {
+            System.err.println("Usage: LocalizationBenchmark floorplan [frontier|wall] [trials] [seed]");
+            System.exit(1);
+        }
+        FloorPlan floorPlan = FloorPlan.read(new File(args[0]));
+        String strategy = args.length > 1 ? args[1] : "frontier";
+        int trials = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : 1;
+        new LocalizationBenchmark(floorPlan, strategy, seed).run(trials);
+    }
+
+}
@@ -0,0 +1,149 @@
+package com.tudresden.navigationrobot.simulator;
+
+import com.tudresden.navigationrobot.Exploration;
+import com.tudresden.navigationrobot.Position;
+import com.tudresden.navigationrobot.robot.Pose;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Measures how much of an exploration is saved by resuming it after an interruption instead of
+ * starting over. The room is explored once without interruption. Then the exploration is stopped
+ * after a while, its session is saved and the robot is pushed aside by up to the given distance
+ * and turned a little, like a robot that was carried off the charger. A fresh simulation reads the
+ * session and resumes the exploration from there, while the scan matcher corrects the pose against
+ * the saved map.
+ * <p>
+ * Usage: ResumeBenchmark floorplan [frontier|wall] [minutes before the interruption] [push] [trials] [seed]
+ */
+public class ResumeBenchmark {
+
+    /**
+     * The longest virtual time in milliseconds for an exploration.
+     */
+    private static final long TIME_LIMIT = 60 * 60000;
+
+    /**
+     * The largest angle by which the robot is turned while it is pushed aside.
+     */
+    private static final double MAX_PUSH_TURN = Math.toRadians(10);
+
+    /**
+     * The shortest distance in meters between the place that the robot is pushed to and the walls.
+     */
+    private static final double MIN_CLEARANCE = 0.4;
+
+    /**
+     * The room that the robot drives in.
+     */
+    private final FloorPlan mFloorPlan;
+
+    /**
+     * The name of the strategy.
+     */
+    private final String mStrategy;
+
+    /**
+     * The seed of the noise.
+     */
+    private final long mSeed;
+
+    /**
+     * @param floorPlan the room that the robot drives in
+     * @param strategy the name of the strategy
+     * @param seed the seed of the noise
+     */
+    public ResumeBenchmark(FloorPlan floorPlan, String strategy, long seed) {
+        this.mFloorPlan = floorPlan;
+        this.mStrategy = strategy;
+        this.mSeed = seed;
+    }
+
+    /**
+     * Runs the exploration without interruption and then interrupted and resumed in every trial and
+     * prints the results.
+     * @param interruption the virtual time in milliseconds after which the exploration is stopped
+     * @param push the largest distance in meters that the robot is pushed aside
+     * @param trials the number of interruptions
+     */
+    public void run(long interruption, double push, int trials) throws IOException {
+        Simulation whole = new Simulation(mFloorPlan, mStrategy, mSeed);
+        long wholeTime = whole.run(TIME_LIMIT, null);
+        print("whole", wholeTime, whole);
+        double startX = mFloorPlan.getStartX();
+        double startY = mFloorPlan.getStartY();
+        double startHeading = mFloorPlan.getStartHeading();
+        Random random = new Random(mSeed);
+        for(int trial = 1; trial <= trials; trial++) {
+            mFloorPlan.setStart(startX, startY, startHeading);
+            Simulation first = new Simulation(mFloorPlan, mStrategy, mSeed + trial);
+            long firstTime = first.run(interruption, null);
+            Exploration interrupted = first.getExploration();
+            interrupted.stopExploration();
+            first.getScheduler().runUntil(firstTime + SimulatedBase.TICK);
+            ByteArrayOutputStream session = new ByteArrayOutputStream();
+            interrupted.writeSession(new DataOutputStream(session));
+            LinkedList<Position> positions = new LinkedList<>(interrupted.getPositions());
+            // Push the robot aside to a place that isn't closer to the walls than it already was
+            SimulatedBase base = first.getBase();
+            double clearance = Math.min(MIN_CLEARANCE, mFloorPlan.distanceTo(base.getTrueX(), base.getTrueY()));
+            double x;
+            double y;
+            do {
+                double angle = 2 * Math.PI * random.nextDouble();
+                double distance = push * random.nextDouble();
+                x = base.getTrueX() + distance * Math.cos(angle);
+                y = base.getTrueY() + distance * Math.sin(angle);
+            } while(!mFloorPlan.contains(x, y) || mFloorPlan.distanceTo(x, y) < clearance);
+            double heading = base.getTrueHeading() + MAX_PUSH_TURN * (2 * random.nextDouble() - 1);
+            mFloorPlan.setStart(x, y, heading);
+            Simulation second = new Simulation(mFloorPlan, mStrategy, mSeed + 100 * trial);
+            // The map keeps the origin of the first part, so the errors are measured from there
+            mFloorPlan.setStart(startX, startY, startHeading);
+            second.getExploration().readSession(new DataInputStream(new ByteArrayInputStream(session.toByteArray())),
+                    positions);
+            long secondTime = second.resume(TIME_LIMIT - firstTime, null);
+            print(String.format(Locale.ROOT, "trial %d", trial), firstTime, first);
+            print("resumed", secondTime, second);
+            System.out.println(String.format(Locale.ROOT, "           %d:%02d in total, session %d bytes, pushed by %.2f m",
+                    (firstTime + secondTime) / 60000, (firstTime + secondTime) / 1000 % 60, session.size(),
+                    Math.hypot(x - base.getTrueX(), y - base.getTrueY())));
+        }
+        mFloorPlan.setStart(startX, startY, startHeading);
+    }
+
+    /**
+     * Prints the time, the mapped area and the error of the map pose at the end of a simulation.
+     */
+    private static void print(String name, long time, Simulation simulation) {
+        Pose pose = simulation.getExploration().getMapPose();
+        SimulatedBase base = simulation.getBase();
+        System.out.println(String.format(Locale.ROOT, "  %-8s %3d:%02d  %7.2f m^2, %7.2f m^2 inside, %4d positions, pose error %.2f m %.1f degrees",
+                name, time / 60000, time / 1000 % 60, simulation.getMappedArea(), simulation.getMappedArea(true),
+                simulation.getExploration().getPositions().size(), base.getPositionError(pose.getX(), pose.getY()),
+                Math.toDegrees(Math.abs(base.getHeadingError(pose.getTheta())))));
+    }
+
+    public static void main(String[] args) throws IOException {
+        if(args.length < 1) {
+            System.err.println("Usage: ResumeBenchmark floorplan [frontier|wall] [minutes before the interruption] [push] [trials] [seed]");
+            System.exit(1);
+        }
+        FloorPlan floorPlan = FloorPlan.read(new File(args[0]));
+        String strategy = args.length > 1 ? args[1] : "frontier";
+        long interruption = (long) ((args.length > 2 ? Double.parseDouble(args[2]) : 3) * 60000);
+        double push = args.length > 3 ? Double.parseDouble(args[3]) : 0.2;
+        int trials = args.length > 4 ? Integer.parseInt(args[4]) : 5;
+        long seed = args.length > 5 ? Long.parseLong(args[5]) : 1;
+        new ResumeBenchmark(floorPlan, strategy, seed).run(interruption, push, trials);
+    }
+
+}
@@ -0,0 +1,683 @@
+package com.tudresden.navigationrobot.simulator;
+
+import com.tudresden.navigationrobot.robot.Pose;
+import com.tudresden.navigationrobot.robot.RobotBase;
+
+import java.util.LinkedList;
+import java.util.Random;
+
+/**
+ * The base of the simulated robot. Like the base of the Loomo in navigation mode it drives to the
+ * checkpoints one after another, controlled by its odometry, and stops in front of obstacles when
+ * the obstacle avoidance is enabled. The robot moves in a differential drive model at a fixed tick
+ * rate; the true pose follows the commands exactly while the odometry accumulates Gaussian noise,
+ * so the odometry drifts away from the true pose just like on the robot. Like on the robot, the
+ * heading of the odometry also has systematic errors that are drawn once per run: it drifts while
+ * the robot drives straight and turns by a slightly wrong angle. The IMU of the base integrates the
+ * true turns with a small scale error, a constant bias and noise. Walls stop the robot.
+ * Like the raw mode of the Loomo the base can also be driven with velocities, which it keeps until
+ * new ones are set or a checkpoint is added.
+ * All events are posted to the scheduler.
+ */
+public class SimulatedBase implements RobotBase {
+
+    /**
+     * The time between two ticks of the simulation in milliseconds.
+     */
+    static final int TICK = 20;
+
+    /**
+     * The highest speed in meters per second.
+     */
+    private static final double MAX_LINEAR_VELOCITY = 0.5;
+
+    /**
+     * The highest turning speed in radians per second.
+     */
+    private static final double MAX_ANGULAR_VELOCITY = 1.2;
+
+    /**
+     * The lowest speed in meters per second, so that the robot doesn't crawl towards a checkpoint.
+     */
+    private static final double MIN_LINEAR_VELOCITY = 0.05;
+
+    /**
+     * The lowest turning speed in radians per second.
+     */
+    private static final double MIN_ANGULAR_VELOCITY = 0.1;
+
+    /**
+     * The gain of the heading controller per second.
+     */
+    private static final double ANGULAR_GAIN = 3.0;
+
+    /**
+     * The gain of the speed controller per second, which slows the robot down near a checkpoint.
+     */
+    private static final double LINEAR_GAIN = 1.5;
+
+    /**
+     * The robot turns in place before it drives off if the checkpoint is further than this angle
+     * away from its heading.
+     */
+    private static final double TURN_IN_PLACE_ANGLE = Math.toRadians(20);
+
+    /**
+     * A checkpoint counts as reached when the robot is closer than this distance in meters.
+     */
+    private static final double POSITION_TOLERANCE = 0.03;
+
+    /**
+     * The heading at a checkpoint counts as reached when it differs by less than this angle.
+     */
+    private static final double HEADING_TOLERANCE = Math.toRadians(0.1);
+
+    /**
+     * The radius of the robot in meters, which is used for detecting collisions with walls.
+     */
+    private static final double ROBOT_RADIUS = 0.25;
+
+    /**
+     * The time in milliseconds after which the base gives up a checkpoint that it can't reach,
+     * because it is pushing against a wall or waiting in front of an obstacle.
+     */
+    private static final int BLOCKED_TIMEOUT = 5000;
+
+    /**
+     * The standard deviation of the odometry error relative to the distance driven.
+     */
+    private static final double LINEAR_NOISE = 0.02;
+
+    /**
+     * The standard deviation of the odometry error relative to the angle turned.
+     */
+    private static final double ANGULAR_NOISE = 0.02;
+
+    /**
+     * The standard deviation of the systematic drift of the heading of the odometry in radians per
+     * meter driven, e.g. from wheels of slightly different sizes.
+     */
+    private static final double ODOMETRY_DRIFT = Math.toRadians(0.5);
+
+    /**
+     * The standard deviation of the systematic scale error of the turns of the odometry.
+     */
+    private static final double ODOMETRY_TURN_SCALE = 0.01;
+
+    /**
+     * The standard deviation of the scale error of the gyroscope.
+     */
+    private static final double GYRO_SCALE = 0.002;
+
+    /**
+     * The standard deviation of the constant bias of the gyroscope in radians per second.
+     */
+    private static final double GYRO_BIAS = 0.001;
+
+    /**
+     * The noise density of the gyroscope in radians per second per square root of a hertz.
+     */
+    private static final double GYRO_NOISE = 0.0005;
+
+    /**
+     * The time in milliseconds until an event of the base reaches the listener. On the Loomo the
+     * events come from the service of the SDK through a binder call.
+     */
+    private static final long EVENT_LATENCY = 100;
+
+    /**
+     * A checkpoint in the coordinate system of the odometry.
+     */
+    private static class CheckPoint {
+
+        /**
+         * The x-coordinate of the checkpoint.
+         */
+        private final double mX;
+
+        /**
+         * The y-coordinate of the checkpoint.
+         */
+        private final double mY;
+
+        /**
+         * The heading at the checkpoint or NaN if the heading doesn't matter.
+         */
+        private final double mTheta;
+
+        /**
+         * True if the robot has reached the position and only needs to turn.
+         */
+        private boolean mPositionReached = false;
+
+        private CheckPoint(double x, double y, double theta) {
+            this.mX = x;
+            this.mY = y;
+            this.mTheta = theta;
+        }
+    }
+
+    /**
+     * The scheduler that ticks the simulation and receives the events.
+     */
+    private final SimulatedScheduler mScheduler;
+
+    /**
+     * The room that the robot drives in.
+     */
+    private final FloorPlan mFloorPlan;
+
+    /**
+     * The source of the odometry noise.
+     */
+    private final Random mRandom;
+
+    /**
+     * The source of the systematic errors and of the noise of the IMU, separate from the noise of
+     * the odometry.
+     */
+    private final Random mImuRandom;
+
+    /**
+     * The drift of the heading of the odometry in radians per meter in this run.
+     */
+    private final double mOdometryDrift;
+
+    /**
+     * The scale error of the turns of the odometry in this run.
+     */
+    private final double mOdometryTurnScale;
+
+    /**
+     * The scale error of the gyroscope in this run.
+     */
+    private final double mGyroScale;
+
+    /**
+     * The bias of the gyroscope in radians per second in this run.
+     */
+    private final double mGyroBias;
+
+    /**
+     * The yaw that the IMU has integrated, starting at 0.
+     */
+    private double mImuYaw = 0;
+
+    /**
+     * The sensor that the obstacle avoidance reads or null to use the exact distance to the walls.
+     */
+    private SimulatedSensor mSensor = null;
+
+    /**
+     * The listener that receives the events or null.
+     */
+    private Listener mListener = null;
+
+    /**
+     * The checkpoints that the robot still has to reach.
+     */
+    private LinkedList<CheckPoint> mCheckPoints = new LinkedList<>();
+
+    /**
+     * True if the robot is driven with velocities instead of checkpoints.
+     */
+    private boolean mVelocityMode = false;
+
+    /**
+     * The linear velocity that was set in meters per second.
+     */
+    private double mLinearVelocity = 0;
+
+    /**
+     * The angular velocity that was set in radians per second.
+     */
+    private double mAngularVelocity = 0;
+
+    /**
+     * The original point that new checkpoints are relative to or null if there is none.
+     */
+    private Pose mOriginalPoint = null;
+
+    /**
+     * True if the robot stops in front of obstacles.
+     */
+    private boolean mObstacleAvoidanceEnabled = false;
+
+    /**
+     * The distance in meters at which the robot stops in front of obstacles.
+     */
+    private double mObstacleAvoidanceDistance = 0.5;
+
+    /**
+     * True if the obstacle avoidance has reported an obstacle that hasn't disappeared yet.
+     */
+    private boolean mObstaclePresent = false;
+
+    /**
+     * The true x-coordinate of the robot in the coordinate system of the floor plan.
+     */
+    private double mTrueX;
+
+    /**
+     * The true y-coordinate of the robot in the coordinate system of the floor plan.
+     */
+    private double mTrueY;
+
+    /**
+     * The true heading of the robot in the coordinate system of the floor plan.
+     */
+    private double mTrueHeading;
+
+    /**
+     * The x-coordinate that the odometry has measured. The odometry starts at the origin.
+     */
+    private double mOdometryX = 0;
+
+    /**
+     * The y-coordinate that the odometry has measured.
+     */
+    private double mOdometryY = 0;
+
+    /**
+     * The heading that the odometry has measured.
+     */
+    private double mOdometryHeading = 0;
+
+    /**
+     * The time in milliseconds for which the robot has been blocked while trying to reach the
+     * current checkpoint.
+     */
+    private long mBlockedTime = 0;
+
+    /**
+     * The total distance that the robot has driven in meters.
+     */
+    private double mDistanceDriven = 0;
+
+    /**
+     * The time in milliseconds that the robot has stood without a checkpoint before it got the next
+     * one.
+     */
+    private long mIdleTime = 0;
+
+    /**
+     * The time in milliseconds that the robot has stood without a checkpoint since the last one.
+     */
+    private long mCurrentIdleTime = 0;
+
+    /**
+     * The number of times that the robot has run into a wall.
+     */
+    private int mCollisionCount = 0;
+
+    /**
+     * True if the robot was touching a wall in the last tick.
+     */
+    private boolean mColliding = false;
+
+    /**
+     * Advances the simulation by one tick and schedules the next one.
+     */
+    private Runnable mTick = new Runnable() {
+        @Override
+        public void run() {
+            tick(TICK / 1000.0);
+            mScheduler.postDelayed(this, TICK);
+        }
+    };
+
+    /**
+     * Creates the base at the start pose of the floor plan and starts the simulation.
+     * @param scheduler the scheduler that ticks the simulation and receives the events
+     * @param floorPlan the room that the robot drives in
+     * @param seed the seed of the odometry noise
+     */
+    public SimulatedBase(SimulatedScheduler scheduler, FloorPlan floorPlan, long seed) {
+        this.mScheduler = scheduler;
+        this.mFloorPlan = floorPlan;
+        this.mRandom = new Random(seed);
+        this.mImuRandom = new Random(~seed);
+        this.mOdometryDrift = ODOMETRY_DRIFT * mImuRandom.nextGaussian();
+        this.mOdometryTurnScale = ODOMETRY_TURN_SCALE * mImuRandom.nextGaussian();
+        this.mGyroScale = GYRO_SCALE * mImuRandom.nextGaussian();
+        this.mGyroBias = GYRO_BIAS * mImuRandom.nextGaussian();
+        this.mTrueX = floorPlan.getStartX();
+        this.mTrueY = floorPlan.getStartY();
+        this.mTrueHeading = floorPlan.getStartHeading();
+        mScheduler.postDelayed(mTick, TICK);
+    }
+
+    /**
+     * @param sensor the sensor that the obstacle avoidance reads or null to use the exact distance
+     *               to the walls
+     */
+    public void setSensor(SimulatedSensor sensor) {
+        mSensor = sensor;
+    }
+
+    @Override
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    @Override
+    public void addCheckPoint(float x, float y) {
+        addCheckPoint(x, y, Double.NaN);
+    }
+
+    @Override
+    public void addCheckPoint(float x, float y, float theta) {
+        addCheckPoint(x, y, (double) theta);
+    }
+
+    /**
+     * Transforms a checkpoint from the coordinate system of the original point into the coordinate
+     * system of the odometry and adds it.
+     */
+    private void addCheckPoint(double x, double y, double theta) {
+        mVelocityMode = false;
+        mIdleTime += mCurrentIdleTime;
+        mCurrentIdleTime = 0;
+        Pose origin = mOriginalPoint != null ? mOriginalPoint : new Pose(0, 0, 0, 0);
+        double cos = Math.cos(origin.getTheta());
+        double sin = Math.sin(origin.getTheta());
+        mCheckPoints.add(new CheckPoint(origin.getX() + cos * x - sin * y, origin.getY() + sin * x + cos * y,
+                origin.getTheta() + theta));
+    }
+
+    @Override
+    public void clearCheckPointsAndStop() {
+        mCheckPoints.clear();
+        mLinearVelocity = 0;
+        mAngularVelocity = 0;
+        mBlockedTime = 0;
+        mObstaclePresent = false;
+    }
+
+    @Override
+    public void setVelocity(float linear, float angular) {
+        if(!mVelocityMode) {
+            clearCheckPointsAndStop();
+            mVelocityMode = true;
+        }
+        mLinearVelocity = Math.max(-MAX_LINEAR_VELOCITY, Math.min(MAX_LINEAR_VELOCITY, linear));
+        mAngularVelocity = Math.max(-MAX_ANGULAR_VELOCITY, Math.min(MAX_ANGULAR_VELOCITY, angular));
+        if(mLinearVelocity != 0 || mAngularVelocity != 0) {
+            mIdleTime += mCurrentIdleTime;
+            mCurrentIdleTime = 0;
+        }
+    }
+
+    @Override
+    public void cleanOriginalPoint() {
+        mOriginalPoint = null;
+    }
+
+    @Override
+    public void setOriginalPoint(Pose pose) {
+        mOriginalPoint = pose;
+    }
+
+    @Override
+    public Pose getOdometryPose() {
+        return new Pose((float) mOdometryX, (float) mOdometryY, (float) mOdometryHeading, mScheduler.uptimeMillis());
+    }
+
+    @Override
+    public void setUltrasonicObstacleAvoidanceEnabled(boolean enabled) {
+        mObstacleAvoidanceEnabled = enabled;
+    }
+
+    @Override
+    public void setUltrasonicObstacleAvoidanceDistance(float distance) {
+        mObstacleAvoidanceDistance = distance;
+    }
+
+    /**
+     * Drives towards the current checkpoint or with the velocities that were set for one tick.
+     * @param dt the length of the tick in seconds
+     */
+    private void tick(double dt) {
+        // The IMU measures while the robot stands, too
+        mImuYaw += mGyroBias * dt + GYRO_NOISE * Math.sqrt(dt) * mImuRandom.nextGaussian();
+        if(mVelocityMode) {
+            if(mLinearVelocity == 0 && mAngularVelocity == 0) {
+                mCurrentIdleTime += TICK;
+                return;
+            }
+            double v = mLinearVelocity;
+            if(v > 0 && checkObstacle()) {
+                // The robot may still turn away from the obstacle
+                v = 0;
+            }
+            move(v * dt, mAngularVelocity * dt);
+            return;
+        }
+        if(mCheckPoints.isEmpty()) {
+            mCurrentIdleTime += TICK;
+            return;
+        }
+        CheckPoint checkPoint = mCheckPoints.getFirst();
+        double v = 0;
+        double w = 0;
+        double dx = checkPoint.mX - mOdometryX;
+        double dy = checkPoint.mY - mOdometryY;
+        double distance = Math.sqrt(dx * dx + dy * dy);
+        if(!checkPoint.mPositionReached && distance > POSITION_TOLERANCE) {
+            double error = normalizeAngle(Math.atan2(dy, dx) - mOdometryHeading);
+            w = turnRate(error, dt);
+            if(Math.abs(error) < TURN_IN_PLACE_ANGLE) {
+                v = Math.max(MIN_LINEAR_VELOCITY, Math.min(MAX_LINEAR_VELOCITY, LINEAR_GAIN * distance));
+                v = Math.min(v, distance / dt);
+            }
+        } else {
+            checkPoint.mPositionReached = true;
+            double error = Double.isNaN(checkPoint.mTheta) ? 0 : normalizeAngle(checkPoint.mTheta - mOdometryHeading);
+            if(Math.abs(error) > HEADING_TOLERANCE) {
+                w = turnRate(error, dt);
+            } else {
+                mCheckPoints.removeFirst();
+                mBlockedTime = 0;
+                final Pose pose = getOdometryPose();
+                final boolean isLast = mCheckPoints.isEmpty();
+                mScheduler.postDelayed(new Runnable() {
+                    @Override
+                    public void run() {
+                        if(mListener != null) {
+                            mListener.onCheckPointArrived(pose, isLast);
+                        }
+                    }
+                }, EVENT_LATENCY);
+                return;
+            }
+        }
+        if(v > 0 && checkObstacle()) {
+            // The robot stands still until the obstacle disappears or the checkpoints are cleared
+            v = 0;
+            w = 0;
+        }
+        move(v * dt, w * dt);
+        if(v == 0 && w == 0) {
+            mBlockedTime += TICK;
+        }
+        if(mBlockedTime >= BLOCKED_TIMEOUT) {
+            mCheckPoints.clear();
+            mBlockedTime = 0;
+            final Pose pose = getOdometryPose();
+            mScheduler.postDelayed(new Runnable() {
+                @Override
+                public void run() {
+                    if(mListener != null) {
+                        mListener.onCheckPointMiss(pose, true);
+                    }
+                }
+            }, EVENT_LATENCY);
+        }
+    }
+
+    /**
+     * Reads the obstacle avoidance and reports changes to the listener.
+     * @return true if the obstacle avoidance holds the robot
+     */
+    private boolean checkObstacle() {
+        if(!mObstacleAvoidanceEnabled) {
+            return false;
+        }
+        // The base reads the same ultrasonic sensor as the app, including its noise
+        boolean obstacle = mSensor != null ? mSensor.sample() / 1000 < mObstacleAvoidanceDistance
+                : mFloorPlan.castCone(mTrueX, mTrueY, mTrueHeading, SimulatedSensor.CONE_HALF_ANGLE,
+                SimulatedSensor.CONE_RAYS, mObstacleAvoidanceDistance) < mObstacleAvoidanceDistance;
+        if(obstacle != mObstaclePresent) {
+            mObstaclePresent = obstacle;
+            final boolean appeared = obstacle;
+            mScheduler.postDelayed(new Runnable() {
+                @Override
+                public void run() {
+                    if(mListener != null) {
+                        mListener.onObstacleStateChanged(appeared);
+                    }
+                }
+            }, EVENT_LATENCY);
+        }
+        return obstacle;
+    }
+
+    /**
+     * Moves the robot and updates the odometry. The robot doesn't move into walls.
+     * @param distance the distance to drive forward in meters
+     * @param angle the angle to turn in radians
+     */
+    private void move(double distance, double angle) {
+        double x = mTrueX + distance * Math.cos(mTrueHeading + angle / 2);
+        double y = mTrueY + distance * Math.sin(mTrueHeading + angle / 2);
+        double clearance = mFloorPlan.distanceTo(x, y);
+        if(distance != 0 && clearance < ROBOT_RADIUS && clearance < mFloorPlan.distanceTo(mTrueX, mTrueY)) {
+            if(!mColliding) {
+                mCollisionCount++;
+                mColliding = true;
+            }
+            // The wheels spin, but the robot doesn't get closer to the wall
+            distance = 0;
+            mBlockedTime += TICK;
+        } else {
+            if(distance != 0) {
+                mColliding = false;
+                mBlockedTime = 0;
+            }
+            mTrueX = x;
+            mTrueY = y;
+        }
+        mTrueHeading = normalizeAngle(mTrueHeading + angle);
+        mDistanceDriven += Math.abs(distance);
+        double measuredDistance = distance * (1 + LINEAR_NOISE * mRandom.nextGaussian());
+        double measuredAngle = angle * (1 + ANGULAR_NOISE * mRandom.nextGaussian() + mOdometryTurnScale)
+                + mOdometryDrift * Math.abs(distance);
+        mImuYaw += angle * (1 + mGyroScale);
+        mOdometryX += measuredDistance * Math.cos(mOdometryHeading + measuredAngle / 2);
+        mOdometryY += measuredDistance * Math.sin(mOdometryHeading + measuredAngle / 2);
+        mOdometryHeading = normalizeAngle(mOdometryHeading + measuredAngle);
+    }
+
+    /**
+     * @return the yaw that the IMU has integrated in radians between -pi and pi
+     */
+    double getImuYaw() {
+        return normalizeAngle(mImuYaw);
+    }
+
+    /**
+     * @return true if the robot has checkpoints left to reach or velocities to drive with
+     */
+    public boolean isMoving() {
+        if(mVelocityMode) {
+            return mLinearVelocity != 0 || mAngularVelocity != 0;
+        }
+        return !mCheckPoints.isEmpty();
+    }
+
+    public double getTrueX() {
+        return mTrueX;
+    }
+
+    public double getTrueY() {
+        return mTrueY;
+    }
+
+    public double getTrueHeading() {
+        return mTrueHeading;
+    }
+
+    public double getDistanceDriven() {
+        return mDistanceDriven;
+    }
+
+    /**
+     * @return the time in milliseconds that the robot has stood between two checkpoints, waiting
+     * for the exploration to set the next one
+     */
+    public long getIdleTime() {
+        return mIdleTime;
+    }
+
+    public int getCollisionCount() {
+        return mCollisionCount;
+    }
+
+    /**
+     * @return the distance in meters between the true position of the robot and the position that
+     * the odometry has measured, both relative to the start pose
+     */
+    public double getOdometryError() {
+        return getPositionError(mOdometryX, mOdometryY);
+    }
+
+    /**
+     * @param x an x-coordinate relative to the start pose, e.g. an estimate of the app
+     * @param y the y-coordinate
+     * @return the distance in meters between the true position of the robot and the given one
+     */
+    public double getPositionError(double x, double y) {
+        double dx = mTrueX - mFloorPlan.getStartX();
+        double dy = mTrueY - mFloorPlan.getStartY();
+        double cos = Math.cos(mFloorPlan.getStartHeading());
+        double sin = Math.sin(mFloorPlan.getStartHeading());
+        double ex = cos * dx + sin * dy - x;
+        double ey = -sin * dx + cos * dy - y;
+        return Math.sqrt(ex * ex + ey * ey);
+    }
+
+    /**
+     * @param heading a heading in the coordinate system of the odometry, e.g. an estimate of the app
+     * @return the angle in radians between the true heading and the given one, relative to the start
+     * pose
+     */
+    public double getHeadingError(double heading) {
+        return normalizeAngle(mTrueHeading - mFloorPlan.getStartHeading() - heading);
+    }
+
+    /**
+     * @return the angle in radians between the true heading and the heading that the odometry has
+     * measured
+     */
+    public double getOdometryHeadingError() {
+        return getHeadingError(mOdometryHeading);
+    }
+
+    /**
+     * @param error the angle between the current and the desired heading
+     * @param dt the length of the tick in seconds
+     * @return the turning speed that reduces the error without overshooting it
+     */
+    private static double turnRate(double error, double dt) {
+        double rate = Math.min(MAX_ANGULAR_VELOCITY, Math.max(MIN_ANGULAR_VELOCITY, ANGULAR_GAIN * Math.abs(error)));
+        return Math.copySign(Math.min(rate, Math.abs(error) / dt), error);
+    }
+
+    /**
+     * @return the angle mapped to the range from -pi to pi
+     */
+    private static double normalizeAngle(double angle) {
+        return Math.IEEEremainder(angle, 2 * Math.PI);
+    }
+
+}
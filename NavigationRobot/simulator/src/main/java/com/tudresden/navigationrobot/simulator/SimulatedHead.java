@@ -0,0 +1,85 @@
+package com.tudresden.navigationrobot.simulator;
+
+import com.tudresden.navigationrobot.robot.RobotHead;
+
+import java.util.Random;
+
+/**
+ * The head of the simulated robot. It turns instantly and its depth camera measures the distance
+ * to the closest wall in a narrow cone in the middle of its view, with Gaussian noise and limited
+ * to the range that is used from the real camera.
+ */
+public class SimulatedHead implements RobotHead {
+
+    /**
+     * Half the opening angle of the part of the view that the distance is taken from.
+     */
+    static final double CONE_HALF_ANGLE = Math.toRadians(5);
+
+    /**
+     * The number of rays that are cast across the cone.
+     */
+    static final int CONE_RAYS = 5;
+
+    /**
+     * The shortest distance that the camera returns in millimeters.
+     */
+    private static final float MIN_DISTANCE = 300;
+
+    /**
+     * The longest distance that the camera returns in millimeters.
+     */
+    private static final float MAX_DISTANCE = 3000;
+
+    /**
+     * The standard deviation of the noise of a reading in millimeters.
+     */
+    private static final double NOISE = 10;
+
+    /**
+     * The room that the robot is in.
+     */
+    private FloorPlan mFloorPlan;
+
+    /**
+     * The base whose true pose the readings are taken at.
+     */
+    private SimulatedBase mBase;
+
+    /**
+     * The source of the noise.
+     */
+    private Random mRandom;
+
+    /**
+     * The angle of the head relative to the base in radians.
+     */
+    private float mYaw = 0;
+
+    /**
+     * @param floorPlan the room that the robot is in
+     * @param base the base whose true pose the readings are taken at
+     * @param seed the seed of the noise
+     */
+    public SimulatedHead(FloorPlan floorPlan, SimulatedBase base, long seed) {
+        this.mFloorPlan = floorPlan;
+        this.mBase = base;
+        this.mRandom = new Random(seed);
+    }
+
+    @Override
+    public void setYaw(float yaw) {
+        mYaw = yaw;
+    }
+
+    @Override
+    public float getRangeDistance() {
+        double distance = mFloorPlan.castCone(mBase.getTrueX(), mBase.getTrueY(), mBase.getTrueHeading() + mYaw,
+                CONE_HALF_ANGLE, CONE_RAYS, MAX_DISTANCE / 1000.0) * 1000;
+        if(distance < MAX_DISTANCE) {
+            distance += mRandom.nextGaussian() * NOISE;
+        }
+        return (float) Math.max(MIN_DISTANCE, Math.min(MAX_DISTANCE, distance));
+    }
+
+}
@@ -0,0 +1,117 @@
+package com.tudresden.navigationrobot.simulator;
+
+import com.tudresden.navigationrobot.robot.Scheduler;
+
+import java.util.Iterator;
+import java.util.PriorityQueue;
+
+/**
+ * A scheduler with a virtual clock. Tasks are run in the order of their due time when the clock is
+ * advanced, so delays don't take any real time and every run with the same inputs is identical.
+ * Tasks that are due at the same time are run in the order in which they were posted.
+ */
+public class SimulatedScheduler implements Scheduler {
+
+    /**
+     * A task that is due at a certain time.
+     */
+    private static class Entry implements Comparable<Entry> {
+
+        /**
+         * The virtual time in milliseconds at which the task is due.
+         */
+        private final long mDueTime;
+
+        /**
+         * The number of tasks that were posted before this one, which breaks ties.
+         */
+        private final long mSequence;
+
+        /**
+         * The task.
+         */
+        private final Runnable mTask;
+
+        private Entry(long dueTime, long sequence, Runnable task) {
+            this.mDueTime = dueTime;
+            this.mSequence = sequence;
+            this.mTask = task;
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            if(mDueTime != other.mDueTime) {
+                return mDueTime < other.mDueTime ? -1 : 1;
+            }
+            return mSequence < other.mSequence ? -1 : (mSequence == other.mSequence ? 0 : 1);
+        }
+    }
+
+    /**
+     * The pending tasks.
+     */
+    private PriorityQueue<Entry> mQueue = new PriorityQueue<>();
+
+    /**
+     * The current virtual time in milliseconds.
+     */
+    private long mNow = 0;
+
+    /**
+     * The number of tasks that were posted so far.
+     */
+    private long mSequence = 0;
+
+    /**
+     * The number of tasks that were run so far.
+     */
+    private long mTaskCount = 0;
+
+    @Override
+    public void post(Runnable task) {
+        postDelayed(task, 0);
+    }
+
+    @Override
+    public void postDelayed(Runnable task, long delayMillis) {
+        mQueue.add(new Entry(mNow + Math.max(0, delayMillis), mSequence++, task));
+    }
+
+    @Override
+    public void cancel(Runnable task) {
+        Iterator<Entry> iterator = mQueue.iterator();
+        while(iterator.hasNext()) {
+            if(iterator.next().mTask == task) {
+                iterator.remove();
+            }
+        }
+    }
+
+    @Override
+    public long uptimeMillis() {
+        return mNow;
+    }
+
+    /**
+     * Runs all tasks that are due up to the given time, including the tasks that they post, and
+     * advances the clock to that time.
+     * @param time the virtual time in milliseconds
+     */
+    public void runUntil(long time) {
+        while(!mQueue.isEmpty() && mQueue.peek().mDueTime <= time) {
+            Entry entry = mQueue.poll();
+            mNow = entry.mDueTime;
+            mTaskCount++;
+            entry.mTask.run();
+        }
+        mNow = Math.max(mNow, time);
+    }
+
+    /**
+     * @return the number of tasks that were run so far
+     */
+    public long getTaskCount() {
+        return mTaskCount;
+    }
+
+}
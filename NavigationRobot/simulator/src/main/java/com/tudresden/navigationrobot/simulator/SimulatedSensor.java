@@ -0,0 +1,127 @@
+package com.tudresden.navigationrobot.simulator;
+
+import com.tudresden.navigationrobot.robot.RobotSensor;
+
+import java.util.Random;
+
+/**
+ * The distance sensors of the simulated robot. A reading of the ultrasonic sensor is the distance
+ * to the closest wall in a cone of 30° in front of the robot, the infrared sensors see along a
+ * narrow beam. Both readings have Gaussian noise and are limited to the range of the real sensors.
+ * The yaw of the IMU comes from the simulated base, which integrates it every tick.
+ */
+public class SimulatedSensor implements RobotSensor {
+
+    /**
+     * Half the opening angle of the cone of the sensor.
+     */
+    static final double CONE_HALF_ANGLE = Math.toRadians(15);
+
+    /**
+     * The number of rays that are cast across the cone.
+     */
+    static final int CONE_RAYS = 7;
+
+    /**
+     * Half the opening angle of the beam of the infrared sensors.
+     */
+    static final double INFRARED_HALF_ANGLE = Math.toRadians(2);
+
+    /**
+     * The number of rays that are cast across the beam of the infrared sensors.
+     */
+    static final int INFRARED_RAYS = 3;
+
+    /**
+     * The shortest distance that the sensor returns in millimeters.
+     */
+    private static final float MIN_DISTANCE = 250;
+
+    /**
+     * The shortest distance that the infrared sensors return in millimeters.
+     */
+    private static final float INFRARED_MIN_DISTANCE = 100;
+
+    /**
+     * The longest distance that the sensor returns in millimeters.
+     */
+    private static final float MAX_DISTANCE = 1500;
+
+    /**
+     * The standard deviation of the noise of a reading in millimeters.
+     */
+    private static final double NOISE = 15;
+
+    /**
+     * The room that the robot is in.
+     */
+    private FloorPlan mFloorPlan;
+
+    /**
+     * The base whose true pose the readings are taken at.
+     */
+    private SimulatedBase mBase;
+
+    /**
+     * The source of the noise.
+     */
+    private Random mRandom;
+
+    /**
+     * The number of readings so far.
+     */
+    private long mReadingCount = 0;
+
+    /**
+     * @param floorPlan the room that the robot is in
+     * @param base the base whose true pose the readings are taken at
+     * @param seed the seed of the noise
+     */
+    public SimulatedSensor(FloorPlan floorPlan, SimulatedBase base, long seed) {
+        this.mFloorPlan = floorPlan;
+        this.mBase = base;
+        this.mRandom = new Random(seed);
+    }
+
+    @Override
+    public float getUltrasonicDistance() {
+        mReadingCount++;
+        return sample();
+    }
+
+    @Override
+    public float getInfraredDistance() {
+        double distance = mFloorPlan.castCone(mBase.getTrueX(), mBase.getTrueY(), mBase.getTrueHeading(),
+                INFRARED_HALF_ANGLE, INFRARED_RAYS, MAX_DISTANCE / 1000.0) * 1000;
+        if(distance < MAX_DISTANCE) {
+            distance += mRandom.nextGaussian() * NOISE;
+        }
+        return (float) Math.max(INFRARED_MIN_DISTANCE, Math.min(MAX_DISTANCE, distance));
+    }
+
+    @Override
+    public float getBaseYaw() {
+        return (float) mBase.getImuYaw();
+    }
+
+    /**
+     * Takes a reading without counting it, e.g. for the obstacle avoidance of the base.
+     * @return the distance in millimeters
+     */
+    float sample() {
+        double distance = mFloorPlan.castCone(mBase.getTrueX(), mBase.getTrueY(), mBase.getTrueHeading(),
+                CONE_HALF_ANGLE, CONE_RAYS, MAX_DISTANCE / 1000.0) * 1000;
+        if(distance < MAX_DISTANCE) {
+            distance += mRandom.nextGaussian() * NOISE;
+        }
+        return (float) Math.max(MIN_DISTANCE, Math.min(MAX_DISTANCE, distance));
+    }
+
+    /**
+     * @return the number of readings so far
+     */
+    public long getReadingCount() {
+        return mReadingCount;
+    }
+
+}
@@ -0,0 +1,328 @@
+package com.tudresden.navigationrobot.simulator;
+
+import com.tudresden.navigationrobot.Exploration;
+import com.tudresden.navigationrobot.ExplorationStrategy;
+import com.tudresden.navigationrobot.FrontierStrategy;
+import com.tudresden.navigationrobot.WallFollowingStrategy;
+import com.tudresden.navigationrobot.control.PurePursuitFollower;
+import com.tudresden.navigationrobot.localization.LoopCloser;
+import com.tudresden.navigationrobot.localization.ScanMatcher;
+import com.tudresden.navigationrobot.map.OccupancyGrid;
+import com.tudresden.navigationrobot.robot.CheckPointScheduler;
+import com.tudresden.navigationrobot.robot.Pose;
+import com.tudresden.navigationrobot.robot.RangeSampler;
+import com.tudresden.navigationrobot.robot.RobotHead;
+import com.tudresden.navigationrobot.robot.RobotLog;
+import com.tudresden.navigationrobot.robot.TraceRecorder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Locale;
+
+/**
+ * Runs an exploration in a simulated room without the robot. The exploration code is the same that
+ * runs on the robot, only the base, the sensor and the scheduler are simulated. The virtual clock
+ * makes a run take a fraction of the real time and with the same seed every run is identical.
+ * <p>
+ * Usage: Simulation floorplan [frontier|pursuit|wall|wallhead|both] [minutes] [seed] [-v]
+ * <p>
+ * "pursuit" is the frontier strategy that follows its paths as smoothed curves with velocity
+ * commands. "wallhead" is the wall follower with a head that watches the wall while the robot walks.
+ */
+public class Simulation {
+
+    /**
+     * The exploration counts as finished when the robot has had no checkpoints for this long.
+     */
+    private static final long IDLE_TIMEOUT = 10000;
+
+    /**
+     * The virtual time between two progress reports in milliseconds.
+     */
+    private static final long REPORT_INTERVAL = 60000;
+
+    /**
+     * The room that is explored.
+     */
+    private final FloorPlan mFloorPlan;
+
+    /**
+     * The scheduler with the virtual clock.
+     */
+    private final SimulatedScheduler mScheduler = new SimulatedScheduler();
+
+    /**
+     * The simulated base.
+     */
+    private final SimulatedBase mBase;
+
+    /**
+     * The simulated sensor.
+     */
+    private final SimulatedSensor mSensor;
+
+    /**
+     * The exploration that is simulated.
+     */
+    private final Exploration mExploration;
+
+    /**
+     * The recorder between the exploration and the simulated robot or null.
+     */
+    private final TraceRecorder mRecorder;
+
+    /**
+     * Prepares a simulation.
+     * @param floorPlan the room that is explored
+     * @param strategy the name of the strategy, "frontier", "pursuit", "wall" or "wallhead"
+     * @param seed the seed of the noise of the odometry and the sensor
+     */
+    public Simulation(FloorPlan floorPlan, String strategy, long seed) {
+        this(floorPlan, strategy, seed, false);
+    }
+
+    /**
+     * Prepares a simulation whose readings and events can be recorded.
+     * @param floorPlan the room that is explored
+     * @param strategy the name of the strategy, "frontier", "pursuit", "wall" or "wallhead"
+     * @param seed the seed of the noise of the odometry and the sensor
+     * @param record true if the exploration reads the simulated robot through a TraceRecorder,
+     *               which has to be started before the simulation runs
+     */
+    public Simulation(FloorPlan floorPlan, String strategy, long seed, boolean record) {
+        this.mFloorPlan = floorPlan;
+        this.mBase = new SimulatedBase(mScheduler, floorPlan, seed);
+        this.mSensor = new SimulatedSensor(floorPlan, mBase, seed + 1);
+        mBase.setSensor(mSensor);
+        this.mRecorder = record ? new TraceRecorder(mScheduler) : null;
+        if(record) {
+            this.mExploration = new Exploration(mRecorder.wrapBase(mBase), mRecorder.wrapSensor(mSensor), mScheduler, null);
+        } else {
+            this.mExploration = new Exploration(mBase, mSensor, mScheduler, null);
+        }
+        if(strategy.equals("wallhead")) {
+            RobotHead head = new SimulatedHead(floorPlan, mBase, seed + 2);
+            mExploration.setHead(record ? mRecorder.wrapHead(head) : head);
+        }
+        mExploration.setStrategy(createStrategy(strategy, mExploration));
+    }
+
+    /**
+     * @return the strategy with the given name for the exploration
+     */
+    static ExplorationStrategy createStrategy(String name, Exploration exploration) {
+        switch(name) {
+            case "frontier":
+                return new FrontierStrategy(exploration);
+            case "pursuit":
+                FrontierStrategy strategy = new FrontierStrategy(exploration);
+                strategy.setContinuous(true);
+                return strategy;
+            case "wall":
+            case "wallhead":
+                return new WallFollowingStrategy(exploration);
+            default:
+                throw new IllegalArgumentException("Unknown strategy " + name);
+        }
+    }
+
+    public SimulatedScheduler getScheduler() {
+        return mScheduler;
+    }
+
+    public SimulatedBase getBase() {
+        return mBase;
+    }
+
+    public SimulatedSensor getSensor() {
+        return mSensor;
+    }
+
+    public Exploration getExploration() {
+        return mExploration;
+    }
+
+    /**
+     * @return the recorder between the exploration and the simulated robot or null if the
+     * simulation isn't recorded
+     */
+    public TraceRecorder getRecorder() {
+        return mRecorder;
+    }
+
+    /**
+     * Starts the exploration and runs the simulation until the robot has stopped or the time limit
+     * is reached.
+     * @param timeLimit the longest virtual time in milliseconds
+     * @param out the stream that the progress is reported to or null
+     * @return the virtual time in milliseconds that the exploration took
+     */
+    public long run(long timeLimit, PrintStream out) {
+        mExploration.startExploration();
+        return runUntilIdle(timeLimit, out);
+    }
+
+    /**
+     * Resumes the exploration from the session that it has read and runs the simulation until the
+     * robot has stopped or the time limit is reached.
+     * @param timeLimit the longest virtual time in milliseconds
+     * @param out the stream that the progress is reported to or null
+     * @return the virtual time in milliseconds that the resumed exploration took
+     */
+    public long resume(long timeLimit, PrintStream out) {
+        mExploration.resumeExploration();
+        return runUntilIdle(timeLimit, out);
+    }
+
+    /**
+     * Runs the simulation until the robot has stopped or the time limit is reached. The readings
+     * that wait for the scan matcher are integrated at the end, like when the app collects the
+     * result of the exploration.
+     * @return the virtual time in milliseconds until the robot stopped
+     */
+    private long runUntilIdle(long timeLimit, PrintStream out) {
+        // The simulation may have run before, e.g. when an exploration is resumed in it
+        long start = mScheduler.uptimeMillis();
+        long idleSince = 0;
+        long nextReport = REPORT_INTERVAL;
+        long time = 0;
+        while(time < timeLimit) {
+            time += SimulatedBase.TICK;
+            mScheduler.runUntil(start + time);
+            if(mBase.isMoving()) {
+                idleSince = time;
+            } else if(time - idleSince >= IDLE_TIMEOUT) {
+                time = idleSince;
+                break;
+            }
+            if(out != null && time >= nextReport) {
+                out.println(String.format(Locale.ROOT, "  %3d:%02d  %7.2f m^2  %4d positions",
+                        time / 60000, time / 1000 % 60, getMappedArea(), mExploration.getPositions().size()));
+                nextReport += REPORT_INTERVAL;
+            }
+        }
+        mExploration.flushScanMatch();
+        return time;
+    }
+
+    /**
+     * @return the area in square meters of the cells of the map that are known to be free or
+     * occupied
+     */
+    public double getMappedArea() {
+        return getMappedArea(false);
+    }
+
+    /**
+     * Measures the area that is known in the map. The map is built from the pose that the
+     * exploration believes the robot to be in, so if that drifts away from the true pose, walls are
+     * smeared and the map may reach far outside the room.
+     * @param insideOnly true to only count the cells that lie within the bounding box of the floor
+     *                   plan when the map is placed at the true start pose
+     * @return the area in square meters of the cells of the map that are known to be free or
+     * occupied
+     */
+    public double getMappedArea(boolean insideOnly) {
+        OccupancyGrid map = mExploration.getMap();
+        if(map.isEmpty()) {
+            return 0;
+        }
+        double cos = Math.cos(mFloorPlan.getStartHeading());
+        double sin = Math.sin(mFloorPlan.getStartHeading());
+        long known = 0;
+        for(int cellY = map.getMinCellY(); cellY <= map.getMaxCellY(); cellY++) {
+            for(int cellX = map.getMinCellX(); cellX <= map.getMaxCellX(); cellX++) {
+                if(map.isUnknown(cellX, cellY)) {
+                    continue;
+                }
+                if(insideOnly) {
+                    double x = map.toWorldX(cellX);
+                    double y = map.toWorldY(cellY);
+                    if(!mFloorPlan.contains(mFloorPlan.getStartX() + cos * x - sin * y,
+                            mFloorPlan.getStartY() + sin * x + cos * y)) {
+                        continue;
+                    }
+                }
+                known++;
+            }
+        }
+        return known * map.getResolution() * map.getResolution();
+    }
+
+    /**
+     * Runs one strategy and prints the summary.
+     */
+    private static void simulate(FloorPlan floorPlan, String strategy, long timeLimit, long seed, PrintStream out) {
+        out.println(strategy + ":");
+        Simulation simulation = new Simulation(floorPlan, strategy, seed);
+        long start = System.nanoTime();
+        long time = simulation.run(timeLimit, out);
+        double wallTime = (System.nanoTime() - start) / 1e9;
+        double area = simulation.getMappedArea();
+        SimulatedBase base = simulation.getBase();
+        out.println(String.format(Locale.ROOT, "  finished after %d:%02d virtual, %.2f s real (%.0fx)",
+                time / 60000, time / 1000 % 60, wallTime, time / 1000.0 / wallTime));
+        out.println(String.format(Locale.ROOT, "  mapped %.2f m^2, %.2f m^2 per minute, %.2f m^2 inside the floor plan",
+                area, time > 0 ? area / (time / 60000.0) : 0, simulation.getMappedArea(true)));
+        out.println(String.format(Locale.ROOT, "  driven %.2f m, %d collisions, %d readings, odometry error %.3f m",
+                base.getDistanceDriven(), base.getCollisionCount(), simulation.mSensor.getReadingCount(),
+                base.getOdometryError()));
+        Pose estimate = simulation.getExploration().getPoseTracker().getLatest();
+        Pose mapPose = simulation.getExploration().getMapPose();
+        if(estimate != null) {
+            out.println(String.format(Locale.ROOT, "  heading error %.1f deg odometry, %.1f deg estimated, %.1f deg in the map, %d gyro updates, %d wall corrections",
+                    Math.toDegrees(base.getOdometryHeadingError()), Math.toDegrees(base.getHeadingError(estimate.getTheta())),
+                    Math.toDegrees(base.getHeadingError(mapPose.getTheta())),
+                    simulation.getExploration().getPoseTracker().getFilter().getGyroUpdateCount(),
+                    simulation.getExploration().getHeadingCorrector().getCorrectionCount()));
+        }
+        LoopCloser loopCloser = simulation.getExploration().getLoopCloser();
+        out.println(String.format(Locale.ROOT, "  position error %.3f m in the map, %d loop closures, %d rejected, optimized in %.1f ms max",
+                base.getPositionError(mapPose.getX(), mapPose.getY()), loopCloser.getClosureCount(),
+                loopCloser.getRejectedCount(), loopCloser.getMaxOptimizationTime()));
+        ScanMatcher scanMatcher = simulation.getExploration().getScanMatcher();
+        out.println(String.format(Locale.ROOT, "  %d scan matches, %d rejected, matched in %.2f ms max",
+                scanMatcher.getMatchCount(), scanMatcher.getRejectedCount(), scanMatcher.getMaxMatchTime()));
+        CheckPointScheduler checkPoints = simulation.getExploration().getCheckPointScheduler();
+        out.println(String.format(Locale.ROOT, "  %d checkpoints, %d retries, %d failed, latency %d ms average, %d ms max",
+                checkPoints.getCompletedCount(), checkPoints.getRetryCount(), checkPoints.getFailedCount(),
+                checkPoints.getAverageLatency(), checkPoints.getMaxLatency()));
+        out.println(String.format(Locale.ROOT, "  idle %.1f s between checkpoints", base.getIdleTime() / 1000.0));
+        PurePursuitFollower follower = simulation.getExploration().getFollower();
+        if(follower.getTickCount() > 0) {
+            out.println(String.format(Locale.ROOT, "  %d control ticks, jitter %.1f ms average, %.1f ms deviation, %d ms max, %d overruns",
+                    follower.getTickCount(), follower.getAverageJitter(), follower.getJitterDeviation(),
+                    follower.getMaxJitter(), follower.getOverrunCount()));
+        }
+        RangeSampler sampler = simulation.getExploration().getRangeSampler();
+        out.println(String.format(Locale.ROOT, "  %d samples, %d confirmations, waited %.0f ms average, %d ms max",
+                sampler.getSampleCount(), sampler.getResultCount(), sampler.getAverageWait(), sampler.getMaxWait()));
+    }
+
+    public static void main(String[] args) throws IOException {
+        if(args.length < 1) {
+            System.err.println("Usage: Simulation floorplan [frontier|pursuit|wall|wallhead|both] [minutes] [seed] [-v]");
+            System.exit(1);
+        }
+        FloorPlan floorPlan = FloorPlan.read(new File(args[0]));
+        String strategy = args.length > 1 ? args[1] : "both";
+        long timeLimit = (args.length > 2 ? Long.parseLong(args[2]) : 30) * 60000;
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : 1;
+        if(args.length > 4 && args[4].equals("-v")) {
+            RobotLog.setSink(new RobotLog.Sink() {
+                @Override
+                public void log(String tag, String message) {
+                    System.out.println("    " + tag + ": " + message);
+                }
+            });
+        }
+        if(strategy.equals("both")) {
+            simulate(floorPlan, "frontier", timeLimit, seed, System.out);
+            simulate(floorPlan, "wall", timeLimit, seed, System.out);
+        } else {
+            simulate(floorPlan, strategy, timeLimit, seed, System.out);
+        }
+    }
+
+}
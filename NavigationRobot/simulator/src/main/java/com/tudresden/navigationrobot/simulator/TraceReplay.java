@@ -0,0 +1,174 @@
+package com.tudresden.navigationrobot.simulator;
+
+import com.tudresden.navigationrobot.Exploration;
+import com.tudresden.navigationrobot.map.OccupancyGrid;
+import com.tudresden.navigationrobot.robot.RobotLog;
+import com.tudresden.navigationrobot.robot.TracePlayer;
+import com.tudresden.navigationrobot.robot.TraceRecorder;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+
+/**
+ * Plays a trace that was recorded on the robot back to the exploration on the virtual clock of the
+ * simulator, so a bad run can be reproduced, stepped through with the log or run under a profiler.
+ * The strategy has to be the one that ran on the robot. The speed is a multiple of the real time,
+ * 0 plays the trace as fast as possible.
+ * <p>
+ * A trace can also be recorded from a simulation, which shows that a replay does exactly what the
+ * recorded exploration did: both report the same positions and the same mapped area.
+ * <p>
+ * Usage: TraceReplay trace [frontier|pursuit|wall|wallhead] [speed] [-v]
+ * <br>
+ * Usage: TraceReplay record floorplan trace [frontier|pursuit|wall|wallhead] [minutes] [seed]
+ */
+public class TraceReplay {
+
+    /**
+     * The virtual time in milliseconds by which the clock is advanced in one step.
+     */
+    private static final long STEP = SimulatedBase.TICK;
+
+    /**
+     * The virtual time between two progress reports in milliseconds.
+     */
+    private static final long REPORT_INTERVAL = 60000;
+
+    private TraceReplay() {}
+
+    /**
+     * Replays a trace and prints the progress and the summary.
+     * @param trace the file of the trace
+     * @param strategy the name of the strategy that explored while the trace was recorded
+     * @param speed the multiple of the real time that the trace is played at or 0 for as fast as
+     *              possible
+     */
+    private static void replay(File trace, String strategy, double speed) throws IOException, InterruptedException {
+        TracePlayer player;
+        InputStream in = new FileInputStream(trace);
+        try {
+            player = TracePlayer.read(in);
+        } finally {
+            in.close();
+        }
+        System.out.println(String.format(Locale.ROOT, "%d records, %d:%02d long, %.1f bytes per record",
+                player.getRecordCount(), player.getDuration() / 60000, player.getDuration() / 1000 % 60,
+                (double) trace.length() / Math.max(1, player.getRecordCount())));
+        SimulatedScheduler scheduler = new SimulatedScheduler();
+        Exploration exploration = new Exploration(player, player, scheduler, null);
+        if(player.hasHead()) {
+            exploration.setHead(player);
+        }
+        exploration.setStrategy(Simulation.createStrategy(strategy, exploration));
+        player.start(scheduler);
+        exploration.startExploration();
+        long start = System.nanoTime();
+        long nextReport = REPORT_INTERVAL;
+        long time = 0;
+        while(time < player.getDuration()) {
+            time += STEP;
+            scheduler.runUntil(time);
+            if(speed > 0) {
+                long ahead = (long) (time / speed) - (System.nanoTime() - start) / 1000000;
+                if(ahead > 0) {
+                    Thread.sleep(ahead);
+                }
+            }
+            if(time >= nextReport) {
+                System.out.println(String.format(Locale.ROOT, "  %3d:%02d  %7.2f m^2  %4d positions",
+                        time / 60000, time / 1000 % 60, getMappedArea(exploration.getMap()),
+                        exploration.getPositions().size()));
+                nextReport += REPORT_INTERVAL;
+            }
+        }
+        // Like when the app collects the result of the exploration
+        exploration.flushScanMatch();
+        double wallTime = (System.nanoTime() - start) / 1e9;
+        System.out.println(String.format(Locale.ROOT, "  replayed %d:%02d in %.2f s real (%.0fx), %d tasks",
+                time / 60000, time / 1000 % 60, wallTime, time / 1000.0 / wallTime, scheduler.getTaskCount()));
+        System.out.println(String.format(Locale.ROOT, "  %d of %d events delivered, %d of %d readings read, %d stray reads, %d commands ignored",
+                player.getDeliveredEventCount(), player.getEventCount(), player.getReadCount(),
+                player.getReadingCount(), player.getStrayCount(), player.getCommandCount()));
+        printResult(exploration);
+    }
+
+    /**
+     * Runs a simulation, records it to a trace and prints the summary.
+     * @param floorPlan the room that is explored
+     * @param trace the file that the trace is written to
+     * @param strategy the name of the strategy
+     * @param timeLimit the longest virtual time in milliseconds
+     * @param seed the seed of the noise
+     */
+    private static void record(FloorPlan floorPlan, File trace, String strategy, long timeLimit, long seed) throws IOException {
+        Simulation simulation = new Simulation(floorPlan, strategy, seed, true);
+        TraceRecorder recorder = simulation.getRecorder();
+        recorder.start(new BufferedOutputStream(new FileOutputStream(trace)));
+        long time = simulation.run(timeLimit, System.out);
+        recorder.stop();
+        System.out.println(String.format(Locale.ROOT, "  recorded %d:%02d, %d records in %d bytes, %.1f bytes per record",
+                time / 60000, time / 1000 % 60, recorder.getRecordCount(), recorder.getByteCount(),
+                (double) recorder.getByteCount() / Math.max(1, recorder.getRecordCount())));
+        printResult(simulation.getExploration());
+    }
+
+    /**
+     * Prints what the exploration has found.
+     */
+    private static void printResult(Exploration exploration) {
+        System.out.println(String.format(Locale.ROOT, "  %d positions, mapped %.2f m^2",
+                exploration.getPositions().size(), getMappedArea(exploration.getMap())));
+    }
+
+    /**
+     * @return the area in square meters of the cells of the map that are known to be free or
+     * occupied
+     */
+    private static double getMappedArea(OccupancyGrid map) {
+        if(map.isEmpty()) {
+            return 0;
+        }
+        long known = 0;
+        for(int cellY = map.getMinCellY(); cellY <= map.getMaxCellY(); cellY++) {
+            for(int cellX = map.getMinCellX(); cellX <= map.getMaxCellX(); cellX++) {
+                if(!map.isUnknown(cellX, cellY)) {
+                    known++;
+                }
+            }
+        }
+        return known * map.getResolution() * map.getResolution();
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if(args.length >= 3 && args[0].equals("record")) {
+            FloorPlan floorPlan = FloorPlan.read(new File(args[1]));
+            String strategy = args.length > 3 ? args[3] : "frontier";
+            long timeLimit = (args.length > 4 ? Long.parseLong(args[4]) : 30) * 60000;
+            long seed = args.length > 5 ? Long.parseLong(args[5]) : 1;
+            record(floorPlan, new File(args[2]), strategy, timeLimit, seed);
+            return;
+        }
+        if(args.length < 1 || args[0].equals("record")) {
+            System.err.println("Usage: TraceReplay trace [frontier|pursuit|wall|wallhead] [speed] [-v]");
+            System.err.println("       TraceReplay record floorplan trace [frontier|pursuit|wall|wallhead] [minutes] [seed]");
+            System.exit(1);
+        }
+        String strategy = args.length > 1 ? args[1] : "frontier";
+        double speed = args.length > 2 ? Double.parseDouble(args[2]) : 0;
+        if(args.length > 3 && args[3].equals("-v")) {
+            RobotLog.setSink(new RobotLog.Sink() {
+                @Override
+                public void log(String tag, String message) {
+                    System.out.println("    " + tag + ": " + message);
+                }
+            });
+        }
+        replay(new File(args[0]), strategy, speed);
+    }
+
+}
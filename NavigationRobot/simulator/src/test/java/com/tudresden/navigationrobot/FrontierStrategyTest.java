@@ -0,0 +1,72 @@
+package com.tudresden.navigationrobot;
+
+import com.tudresden.navigationrobot.robot.CheckPointScheduler;
+import com.tudresden.navigationrobot.simulator.FloorPlan;
+import com.tudresden.navigationrobot.simulator.Simulation;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Explores the simulated room of 6 x 4 meters with a table in the middle until no frontier is left.
+ */
+public class FrontierStrategyTest {
+
+    /**
+     * The longest virtual time in milliseconds that an exploration of the room may take.
+     */
+    private static final long TIME_LIMIT = 10 * 60000;
+
+    /**
+     * The area in square meters that has to be known within the room, which has 23 m^2 without the
+     * table.
+     */
+    private static final double MIN_AREA = 18;
+
+    @Test
+    public void exploresRoom() throws IOException {
+        assertExplores("frontier");
+    }
+
+    @Test
+    public void exploresRoomWithPurePursuit() throws IOException {
+        assertExplores("pursuit");
+    }
+
+    @Test
+    public void sameSeedGivesSameExploration() throws IOException {
+        Simulation first = new Simulation(readRoom(), "frontier", 3);
+        Simulation second = new Simulation(readRoom(), "frontier", 3);
+        assertEquals(first.run(TIME_LIMIT, null), second.run(TIME_LIMIT, null));
+        assertEquals(first.getMappedArea(), second.getMappedArea(), 0);
+        assertEquals(first.getBase().getTrueX(), second.getBase().getTrueX(), 0);
+        assertEquals(first.getBase().getTrueY(), second.getBase().getTrueY(), 0);
+    }
+
+    /**
+     * Checks that a strategy maps the room before the time limit and never hits a wall.
+     */
+    private static void assertExplores(String strategy) throws IOException {
+        Simulation simulation = new Simulation(readRoom(), strategy, 1);
+        long time = simulation.run(TIME_LIMIT, null);
+        assertTrue("took " + time + " ms", time < TIME_LIMIT);
+        assertTrue(simulation.getMappedArea(true) > MIN_AREA);
+        assertEquals(0, simulation.getBase().getCollisionCount());
+        CheckPointScheduler checkPoints = simulation.getExploration().getCheckPointScheduler();
+        assertEquals(0, checkPoints.getFailedCount());
+        assertTrue(simulation.getExploration().getPositions().size() > 1);
+    }
+
+    /**
+     * @return the floor plan of the room, relative to the simulator module where the tests run
+     */
+    static FloorPlan readRoom() throws IOException {
+        return FloorPlan.read(new File("floorplans/room.txt"));
+    }
+
+}
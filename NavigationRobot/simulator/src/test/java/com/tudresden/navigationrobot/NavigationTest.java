@@ -0,0 +1,226 @@
+package com.tudresden.navigationrobot;
+
+import com.tudresden.navigationrobot.map.OccupancyGrid;
+import com.tudresden.navigationrobot.robot.Pose;
+import com.tudresden.navigationrobot.robot.RobotBase;
+import com.tudresden.navigationrobot.simulator.FloorPlan;
+import com.tudresden.navigationrobot.simulator.SimulatedBase;
+import com.tudresden.navigationrobot.simulator.SimulatedScheduler;
+import com.tudresden.navigationrobot.simulator.SimulatedSensor;
+import com.tudresden.navigationrobot.simulator.Simulation;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.LinkedList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Explores the simulated room and then lets the navigation drive the robot around the table to the
+ * other side of the room on the map, or turn around next to a wall to localize itself.
+ */
+public class NavigationTest {
+
+    /**
+     * The longest virtual time in milliseconds that the exploration of the room may take.
+     */
+    private static final long EXPLORATION_TIME_LIMIT = 10 * 60000;
+
+    /**
+     * The virtual time in milliseconds that the robot gets for turning around and localizing itself.
+     */
+    private static final long LOCALIZATION_TIME = 20000;
+
+    /**
+     * The virtual time in milliseconds that the robot gets for driving to the target.
+     */
+    private static final long DRIVING_TIME = 120000;
+
+    /**
+     * The distance in meters from the target within which the robot counts as arrived.
+     */
+    private static final double MAX_POSITION_ERROR = 0.3;
+
+    /**
+     * The distance in meters at which the base reports an obstacle, the same as in the navigation.
+     */
+    private static final double OBSTACLE_DISTANCE = 0.5;
+
+    /**
+     * A base that reports obstacles in front of the robot while it turns on the spot, like the
+     * ultrasonic obstacle avoidance of the Loomo does. The simulated base only looks for obstacles
+     * while it drives forward.
+     */
+    private static class WallReportingBase implements RobotBase {
+
+        private final SimulatedBase mBase;
+
+        private final FloorPlan mRoom;
+
+        private Listener mListener;
+
+        private boolean mObstacle = false;
+
+        private int mObstacleCount = 0;
+
+        private WallReportingBase(SimulatedBase base, FloorPlan room, final SimulatedScheduler scheduler) {
+            this.mBase = base;
+            this.mRoom = room;
+            scheduler.post(new Runnable() {
+                @Override
+                public void run() {
+                    boolean obstacle = mRoom.raycast(mBase.getTrueX(), mBase.getTrueY(), mBase.getTrueHeading(),
+                            OBSTACLE_DISTANCE) < OBSTACLE_DISTANCE;
+                    if(obstacle != mObstacle && mListener != null) {
+                        mObstacle = obstacle;
+                        if(obstacle) {
+                            mObstacleCount++;
+                        }
+                        mListener.onObstacleStateChanged(obstacle);
+                    }
+                    scheduler.postDelayed(this, 100);
+                }
+            });
+        }
+
+        @Override
+        public void setListener(Listener listener) {
+            mListener = listener;
+            mBase.setListener(listener);
+        }
+
+        @Override
+        public void addCheckPoint(float x, float y) {
+            mBase.addCheckPoint(x, y);
+        }
+
+        @Override
+        public void addCheckPoint(float x, float y, float theta) {
+            mBase.addCheckPoint(x, y, theta);
+        }
+
+        @Override
+        public void clearCheckPointsAndStop() {
+            mBase.clearCheckPointsAndStop();
+        }
+
+        @Override
+        public void setVelocity(float linear, float angular) {
+            mBase.setVelocity(linear, angular);
+        }
+
+        @Override
+        public void cleanOriginalPoint() {
+            mBase.cleanOriginalPoint();
+        }
+
+        @Override
+        public void setOriginalPoint(Pose pose) {
+            mBase.setOriginalPoint(pose);
+        }
+
+        @Override
+        public Pose getOdometryPose() {
+            return mBase.getOdometryPose();
+        }
+
+        @Override
+        public void setUltrasonicObstacleAvoidanceEnabled(boolean enabled) {
+            mBase.setUltrasonicObstacleAvoidanceEnabled(enabled);
+        }
+
+        @Override
+        public void setUltrasonicObstacleAvoidanceDistance(float distance) {
+            mBase.setUltrasonicObstacleAvoidanceDistance(distance);
+        }
+    }
+
+    @Test
+    public void drivesAroundTableToTarget() throws IOException {
+        FloorPlan room = FrontierStrategyTest.readRoom();
+        OccupancyGrid map = explore(room);
+
+        // The robot is put down at the start of the exploration again, where the map has its origin
+        SimulatedScheduler scheduler = new SimulatedScheduler();
+        SimulatedBase base = new SimulatedBase(scheduler, room, 2);
+        SimulatedSensor sensor = new SimulatedSensor(room, base, 3);
+        base.setSensor(sensor);
+        Navigation navigation = new Navigation(base, sensor, scheduler, map,
+                new Position(0.0, 0.0, Orientation.FORWARD), 4);
+        scheduler.runUntil(LOCALIZATION_TIME);
+        assertNotNull(navigation.getFilter());
+        assertFalse(navigation.isDriving());
+
+        // The table lies on the straight line between the robot and the target
+        final LinkedList<LinkedList<Position>> paths = new LinkedList<>();
+        navigation.navigateTo(new Position(4.0, 2.0), new Navigation.PathListener() {
+            @Override
+            public void onPathPlanned(Position start, LinkedList<Position> path) {
+                paths.add(path);
+            }
+        });
+        scheduler.runUntil(LOCALIZATION_TIME + DRIVING_TIME);
+
+        assertFalse(paths.isEmpty());
+        assertNotNull(paths.getFirst());
+        assertFalse(navigation.isDriving());
+        assertEquals(0, base.getCollisionCount());
+        assertEquals(0, navigation.getCheckPointScheduler().getFailedCount());
+        Position position = navigation.getPosition();
+        assertTrue(Math.hypot(position.getX() - 4.0, position.getY() - 2.0) < MAX_POSITION_ERROR);
+        // The room looks almost the same when turned around, so the filter may not agree on a pose
+        // and the robot is off by the drift of the odometry at most
+        double error = base.getPositionError(position.getX(), position.getY());
+        assertTrue("off by " + error + " m", error < base.getOdometryError() + MAX_POSITION_ERROR);
+
+        navigation.quit();
+        scheduler.runUntil(LOCALIZATION_TIME + DRIVING_TIME + 1000);
+        assertFalse(base.isMoving());
+    }
+
+    /**
+     * Replanning on the obstacle events during the turn stopped the turn for good, and the robot
+     * never came to rest.
+     */
+    @Test(timeout = 60000)
+    public void turnsAroundNextToWall() throws IOException {
+        FloorPlan room = FrontierStrategyTest.readRoom();
+        OccupancyGrid map = explore(room);
+
+        // The robot faces the left wall of the room from 0.45 m, so the base reports the wall for
+        // the first and the last part of the turn; the map has its origin at (1, 1)
+        room.setStart(0.45, 2.0, Math.PI);
+        SimulatedScheduler scheduler = new SimulatedScheduler();
+        SimulatedBase simulatedBase = new SimulatedBase(scheduler, room, 2);
+        SimulatedSensor sensor = new SimulatedSensor(room, simulatedBase, 3);
+        simulatedBase.setSensor(sensor);
+        WallReportingBase base = new WallReportingBase(simulatedBase, room, scheduler);
+        Navigation navigation = new Navigation(base, sensor, scheduler, map,
+                new Position(-0.55, 1.0, Orientation.BACKWARD), 4);
+        scheduler.runUntil(LOCALIZATION_TIME);
+
+        assertTrue(base.mObstacleCount > 0);
+        assertFalse(navigation.isDriving());
+        // All four quarter turns were finished
+        assertEquals(4, navigation.getCheckPointScheduler().getCompletedCount());
+        assertEquals(0, simulatedBase.getCollisionCount());
+        assertTrue(simulatedBase.getDistanceDriven() < 0.1);
+        navigation.quit();
+        scheduler.runUntil(LOCALIZATION_TIME + 1000);
+    }
+
+    /**
+     * Explores the room from its start pose, which becomes the origin of the map.
+     * @return the occupancy grid of the room
+     */
+    private static OccupancyGrid explore(FloorPlan room) {
+        Simulation exploration = new Simulation(room, "frontier", 1);
+        exploration.run(EXPLORATION_TIME_LIMIT, null);
+        return exploration.getExploration().getMap();
+    }
+
+}
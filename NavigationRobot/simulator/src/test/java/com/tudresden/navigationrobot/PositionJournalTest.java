@@ -0,0 +1,97 @@
+package com.tudresden.navigationrobot;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Writes positions through a PositionJournal and reads the journal back with PositionReader,
+ * including replacements that compact the journal.
+ */
+public class PositionJournalTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void appendedPositionsAreReadInOrder() throws IOException {
+        File file = new File(mFolder.getRoot(), "positions.journal");
+        List<Position> positions = PositionReaderTest.randomPositions(new Random(1), 100);
+        PositionJournal journal = new PositionJournal(file);
+        for(Position position : positions) {
+            journal.append(position);
+        }
+        journal.close();
+        assertEquals(positions.size(), journal.getCommitCount());
+        assertTrue(journal.getBatchCount() >= 1);
+        PositionReaderTest.assertPositions(positions, readAll(file));
+    }
+
+    @Test
+    public void replacementsCompactJournal() throws IOException {
+        File file = new File(mFolder.getRoot(), "positions.journal");
+        Random random = new Random(2);
+        PositionJournal journal = new PositionJournal(file);
+        List<Position> replacement = new ArrayList<>();
+        long written = 0;
+        // Every replacement drops the previous one, so the journal consists of dropped positions
+        // after a few of them
+        while(written < 4 * PositionJournal.MIN_COMPACTION_SIZE) {
+            replacement = PositionReaderTest.randomPositions(random, 200);
+            journal.replaceAll(replacement);
+            // Every position takes a few bytes at least
+            written += replacement.size() * 4;
+        }
+        List<Position> appended = PositionReaderTest.randomPositions(random, 20);
+        for(Position position : appended) {
+            journal.append(position);
+        }
+        journal.close();
+
+        assertTrue(journal.getCompactionCount() > 0);
+        // The compacted journal replaced the file, no other files are left behind
+        assertEquals(1, mFolder.getRoot().listFiles().length);
+        List<Position> expected = new ArrayList<>(replacement);
+        expected.addAll(appended);
+        PositionReaderTest.assertPositions(expected, readAll(file));
+    }
+
+    @Test
+    public void finishRenamesJournal() throws IOException {
+        File file = new File(mFolder.getRoot(), "positions.journal");
+        File target = new File(mFolder.getRoot(), "positions.bin");
+        List<Position> positions = PositionReaderTest.randomPositions(new Random(3), 10);
+        PositionJournal journal = new PositionJournal(file);
+        for(Position position : positions) {
+            journal.append(position);
+        }
+        journal.finish(target);
+        assertFalse(file.exists());
+        PositionReaderTest.assertPositions(positions, readAll(target));
+    }
+
+    /**
+     * @return all positions that are read from a file
+     */
+    private static List<Position> readAll(File file) throws IOException {
+        PositionReader reader = new PositionReader(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            return reader.readAll();
+        } finally {
+            reader.close();
+        }
+    }
+
+}
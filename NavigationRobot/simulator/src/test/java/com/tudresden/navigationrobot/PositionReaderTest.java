@@ -0,0 +1,258 @@
+package com.tudresden.navigationrobot;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Writes positions with PositionWriter and reads them back with PositionReader, including the files
+ * of older versions and files that break off.
+ */
+public class PositionReaderTest {
+
+    /**
+     * The largest difference of a coordinate after the round trip in meters, half a fixed-point unit.
+     */
+    private static final double TOLERANCE = PositionWriter.UNIT / 1e6 / 2 + 1e-12;
+
+    /**
+     * The index of the version in the header, after the magic number.
+     */
+    private static final int VERSION_OFFSET = 4;
+
+    @Test
+    public void readsWrittenPositions() throws IOException {
+        List<Position> positions = randomPositions(new Random(1), 1000);
+        assertPositions(positions, readAll(write(positions)));
+    }
+
+    @Test
+    public void readsPositionsOneByOne() throws IOException {
+        List<Position> positions = randomPositions(new Random(2), 10);
+        PositionReader reader = new PositionReader(new ByteArrayInputStream(write(positions)));
+        for(Position position : positions) {
+            assertPosition(position, reader.read());
+            assertFalse(reader.wasReset());
+        }
+        assertNull(reader.read());
+        reader.close();
+    }
+
+    @Test
+    public void readsEmptyFile() throws IOException {
+        assertTrue(readAll(write(new ArrayList<Position>())).isEmpty());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOtherFiles() throws IOException {
+        readAll("[{\"x\":0.0,\"y\":0.0}]".getBytes("UTF-8"));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsNewerVersions() throws IOException {
+        byte[] bytes = write(randomPositions(new Random(3), 10));
+        bytes[VERSION_OFFSET] = PositionWriter.VERSION + 1;
+        readAll(bytes);
+    }
+
+    @Test
+    public void readsVersion1() throws IOException {
+        // Version 1 had the same positions, only without resets
+        List<Position> positions = randomPositions(new Random(4), 100);
+        byte[] bytes = write(positions);
+        bytes[VERSION_OFFSET] = 1;
+        assertPositions(positions, readAll(bytes));
+    }
+
+    @Test
+    public void migratesLegacyJson() throws IOException {
+        // positions.json of older versions, which had no timestamps
+        String json = "[{\"x\":0.0,\"y\":0.0,\"orientation\":\"FORWARD\"},"
+                + "{\"x\":0.5,\"y\":0.0,\"orientation\":\"FORWARD\"},"
+                + "{\"x\":0.5,\"y\":-0.75,\"orientation\":\"RIGHT\"},"
+                + "{\"x\":0.25,\"y\":-0.75}]";
+        LinkedList<Position> legacy = new PositionSerializer().fromJson(new StringReader(json));
+        assertEquals(4, legacy.size());
+        List<Position> positions = readAll(write(legacy));
+        assertPositions(legacy, positions);
+        assertEquals(Orientation.RIGHT, positions.get(2).getOrientation());
+        assertNull(positions.get(3).getOrientation());
+        assertEquals(0, positions.get(3).getTimestamp());
+    }
+
+    @Test
+    public void replacementDropsPreviousPositions() throws IOException {
+        Random random = new Random(5);
+        List<Position> first = randomPositions(random, 50);
+        List<Position> replacement = randomPositions(random, 30);
+        List<Position> appended = randomPositions(random, 20);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PositionWriter writer = new PositionWriter(bytes);
+        writer.writeAll(first);
+        writer.writeReplacement(replacement);
+        writer.writeAll(appended);
+        writer.close();
+
+        List<Position> expected = new ArrayList<>(replacement);
+        expected.addAll(appended);
+        assertPositions(expected, readAll(bytes.toByteArray()));
+
+        PositionReader reader = new PositionReader(new ByteArrayInputStream(bytes.toByteArray()));
+        for(int i = 0; i < first.size(); i++) {
+            reader.read();
+        }
+        assertPosition(replacement.get(0), reader.read());
+        assertTrue(reader.wasReset());
+        assertPosition(replacement.get(1), reader.read());
+        assertFalse(reader.wasReset());
+        reader.close();
+    }
+
+    @Test
+    public void emptyReplacementDropsAllPositions() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PositionWriter writer = new PositionWriter(bytes);
+        writer.writeAll(randomPositions(new Random(6), 10));
+        writer.writeReplacement(new ArrayList<Position>());
+        writer.close();
+        assertTrue(readAll(bytes.toByteArray()).isEmpty());
+    }
+
+    @Test
+    public void version2AppliesResetsRightAway() throws IOException {
+        // Version 2 had no end of a replacement, so a reset is applied even if nothing follows
+        Random random = new Random(7);
+        List<Position> first = randomPositions(random, 10);
+        List<Position> second = randomPositions(random, 5);
+        byte[] bytes = write(first);
+        int end = bytes.length;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PositionWriter writer = new PositionWriter(out);
+        writer.writeAll(first);
+        writer.writeReplacement(second);
+        writer.close();
+        byte[] replaced = out.toByteArray();
+        replaced[VERSION_OFFSET] = 2;
+        // Cut off within the replacement, right after the first replacing position
+        byte[] cut = Arrays.copyOf(replaced, end + 1 + (write(second.subList(0, 1)).length - headerLength()));
+        assertPositions(second.subList(0, 1), readAll(cut));
+    }
+
+    @Test
+    public void truncatedPositionIsDropped() throws IOException {
+        List<Position> positions = randomPositions(new Random(8), 20);
+        byte[] bytes = write(positions);
+        int complete = write(positions.subList(0, 19)).length;
+        for(int length = complete; length < bytes.length; length++) {
+            assertPositions(positions.subList(0, 19), readAll(Arrays.copyOf(bytes, length)));
+        }
+    }
+
+    @Test
+    public void truncatedReplacementKeepsPreviousPositions() throws IOException {
+        Random random = new Random(9);
+        List<Position> first = randomPositions(random, 40);
+        List<Position> replacement = randomPositions(random, 40);
+        byte[] bytes = write(first);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PositionWriter writer = new PositionWriter(out);
+        writer.writeAll(first);
+        writer.writeReplacement(replacement);
+        writer.close();
+        byte[] replaced = out.toByteArray();
+        for(int length = bytes.length; length < replaced.length; length++) {
+            assertPositions(first, readAll(Arrays.copyOf(replaced, length)));
+        }
+        assertPositions(replacement, readAll(replaced));
+    }
+
+    @Test
+    public void truncatedHeaderIsRejected() throws IOException {
+        byte[] bytes = write(new ArrayList<Position>());
+        for(int length = 0; length < VERSION_OFFSET; length++) {
+            try {
+                readAll(Arrays.copyOf(bytes, length));
+                throw new AssertionError("A header of " + length + " bytes was read");
+            } catch(IOException e) {
+                // Expected
+            }
+        }
+    }
+
+    /**
+     * @return the number of bytes of the header
+     */
+    private static int headerLength() throws IOException {
+        return write(new ArrayList<Position>()).length;
+    }
+
+    /**
+     * @return the positions written into a byte array
+     */
+    private static byte[] write(List<Position> positions) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PositionWriter writer = new PositionWriter(bytes);
+        writer.writeAll(positions);
+        writer.close();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @return all positions that are read from a byte array
+     */
+    private static LinkedList<Position> readAll(byte[] bytes) throws IOException {
+        PositionReader reader = new PositionReader(new ByteArrayInputStream(bytes));
+        try {
+            return reader.readAll();
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * @return positions that walk randomly in steps of up to a meter, some without an orientation
+     */
+    static List<Position> randomPositions(Random random, int count) {
+        List<Position> positions = new ArrayList<>();
+        double x = 0;
+        double y = 0;
+        long timestamp = random.nextInt(100000);
+        Orientation[] orientations = Orientation.values();
+        for(int i = 0; i < count; i++) {
+            x += random.nextDouble() * 2 - 1;
+            y += random.nextDouble() * 2 - 1;
+            timestamp += random.nextInt(5000);
+            Orientation orientation = random.nextInt(10) == 0 ? null : orientations[random.nextInt(orientations.length)];
+            positions.add(new Position(x, y, orientation, timestamp));
+        }
+        return positions;
+    }
+
+    static void assertPositions(List<Position> expected, List<Position> actual) {
+        assertEquals(expected.size(), actual.size());
+        for(int i = 0; i < expected.size(); i++) {
+            assertPosition(expected.get(i), actual.get(i));
+        }
+    }
+
+    private static void assertPosition(Position expected, Position actual) {
+        assertEquals(expected.getX(), actual.getX(), TOLERANCE);
+        assertEquals(expected.getY(), actual.getY(), TOLERANCE);
+        assertEquals(expected.getOrientation(), actual.getOrientation());
+        assertEquals(expected.getTimestamp(), actual.getTimestamp());
+    }
+
+}
@@ -0,0 +1,96 @@
+package com.tudresden.navigationrobot;
+
+import com.tudresden.navigationrobot.robot.RobotHead;
+import com.tudresden.navigationrobot.simulator.FloorPlan;
+import com.tudresden.navigationrobot.simulator.SimulatedBase;
+import com.tudresden.navigationrobot.simulator.SimulatedHead;
+import com.tudresden.navigationrobot.simulator.SimulatedScheduler;
+import com.tudresden.navigationrobot.simulator.SimulatedSensor;
+import com.tudresden.navigationrobot.simulator.Simulation;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Lets the wall follower walk along the walls of the simulated room, with and without the head
+ * watching the wall.
+ */
+public class WallFollowingStrategyTest {
+
+    /**
+     * The virtual time in milliseconds that the robot walks along the walls.
+     */
+    private static final long TIME_LIMIT = 10 * 60000;
+
+    /**
+     * A head that remembers the angles it was turned to and counts its readings.
+     */
+    private static class RecordingHead implements RobotHead {
+
+        private final RobotHead mHead;
+
+        private float mYaw = 0;
+
+        private int mTurnCount = 0;
+
+        private int mReadingCount = 0;
+
+        private RecordingHead(RobotHead head) {
+            this.mHead = head;
+        }
+
+        @Override
+        public void setYaw(float yaw) {
+            mYaw = yaw;
+            mTurnCount++;
+            mHead.setYaw(yaw);
+        }
+
+        @Override
+        public float getRangeDistance() {
+            mReadingCount++;
+            return mHead.getRangeDistance();
+        }
+    }
+
+    @Test
+    public void walksAlongWallsWithoutCollisions() throws IOException {
+        Simulation simulation = new Simulation(FrontierStrategyTest.readRoom(), "wall", 1);
+        simulation.run(TIME_LIMIT, null);
+        assertEquals(0, simulation.getBase().getCollisionCount());
+        assertEquals(0, simulation.getExploration().getCheckPointScheduler().getFailedCount());
+        // The walls around the room at least
+        assertTrue(simulation.getMappedArea(true) > 8);
+    }
+
+    @Test
+    public void headWatchesWallToTheRight() throws IOException {
+        FloorPlan room = FrontierStrategyTest.readRoom();
+        SimulatedScheduler scheduler = new SimulatedScheduler();
+        SimulatedBase base = new SimulatedBase(scheduler, room, 1);
+        SimulatedSensor sensor = new SimulatedSensor(room, base, 2);
+        base.setSensor(sensor);
+        RecordingHead head = new RecordingHead(new SimulatedHead(room, base, 3));
+        Exploration exploration = new Exploration(base, sensor, scheduler, null);
+        exploration.setHead(head);
+        exploration.setStrategy(new WallFollowingStrategy(exploration));
+        exploration.startExploration();
+        scheduler.runUntil(TIME_LIMIT / 2);
+
+        assertEquals(-Math.PI / 2, head.mYaw, 1e-6);
+        assertTrue(head.mReadingCount > 0);
+        assertEquals(0, base.getCollisionCount());
+        assertTrue(base.getDistanceDriven() > 5);
+
+        exploration.stopExploration();
+        scheduler.runUntil(TIME_LIMIT / 2 + 1000);
+        // The head looks ahead again when the exploration has stopped
+        assertEquals(0, head.mYaw, 0);
+        assertTrue(head.mTurnCount >= 2);
+    }
+
+}
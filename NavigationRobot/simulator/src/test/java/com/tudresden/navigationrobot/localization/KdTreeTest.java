@@ -0,0 +1,108 @@
+package com.tudresden.navigationrobot.localization;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the nearest neighbours that the k-d tree finds with a search through all points.
+ */
+public class KdTreeTest {
+
+    @Test
+    public void nearestMatchesBruteForce() {
+        Random random = new Random(1);
+        KdTree tree = new KdTree();
+        // More points than the initial capacity, so the arrays grow
+        double[] xs = new double[1000];
+        double[] ys = new double[xs.length];
+        for(int i = 0; i < xs.length; i++) {
+            xs[i] = random.nextDouble() * 10;
+            ys[i] = random.nextDouble() * 5;
+            assertEquals(i, tree.add(xs[i], ys[i]));
+        }
+        tree.build();
+        assertNearest(tree, xs, ys, random, 12, 1000);
+        // Most lookups find nothing within the short distance
+        assertNearest(tree, xs, ys, random, 0.1, 1000);
+    }
+
+    @Test
+    public void nearestMatchesBruteForceOnGridWithDuplicates() {
+        Random random = new Random(2);
+        KdTree tree = new KdTree();
+        // Cells of a grid share their coordinates, some points are added twice
+        double[] xs = new double[600];
+        double[] ys = new double[xs.length];
+        for(int i = 0; i < xs.length; i++) {
+            xs[i] = 0.05 * random.nextInt(20);
+            ys[i] = 0.05 * random.nextInt(20);
+            tree.add(xs[i], ys[i]);
+        }
+        tree.build();
+        assertNearest(tree, xs, ys, random, 0.3, 1000);
+    }
+
+    @Test
+    public void treeCanBeRebuilt() {
+        Random random = new Random(3);
+        KdTree tree = new KdTree();
+        for(int i = 0; i < 100; i++) {
+            tree.add(random.nextDouble(), random.nextDouble());
+        }
+        tree.build();
+        tree.clear();
+        assertEquals(-1, tree.nearest(0.5, 0.5, 10));
+        double[] xs = new double[50];
+        double[] ys = new double[xs.length];
+        for(int i = 0; i < xs.length; i++) {
+            xs[i] = random.nextDouble() + 5;
+            ys[i] = random.nextDouble();
+            tree.add(xs[i], ys[i]);
+        }
+        tree.build();
+        assertEquals(xs.length, tree.size());
+        assertNearest(tree, xs, ys, random, 10, 200);
+    }
+
+    /**
+     * Looks up random positions around the points and checks that the tree finds a point as near
+     * as the nearest one, ties may be broken differently.
+     */
+    private static void assertNearest(KdTree tree, double[] xs, double[] ys, Random random, double maxDistance,
+                                      int lookups) {
+        double minX = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        for(int i = 0; i < xs.length; i++) {
+            minX = Math.min(minX, xs[i]);
+            maxX = Math.max(maxX, xs[i]);
+            minY = Math.min(minY, ys[i]);
+            maxY = Math.max(maxY, ys[i]);
+        }
+        for(int lookup = 0; lookup < lookups; lookup++) {
+            double x = minX - 1 + random.nextDouble() * (maxX - minX + 2);
+            double y = minY - 1 + random.nextDouble() * (maxY - minY + 2);
+            int expected = -1;
+            double expectedDistance = maxDistance * maxDistance;
+            for(int i = 0; i < xs.length; i++) {
+                double distance = (xs[i] - x) * (xs[i] - x) + (ys[i] - y) * (ys[i] - y);
+                if(distance < expectedDistance) {
+                    expected = i;
+                    expectedDistance = distance;
+                }
+            }
+            int nearest = tree.nearest(x, y, maxDistance);
+            if(expected < 0) {
+                assertEquals(-1, nearest);
+            } else {
+                double distance = (xs[nearest] - x) * (xs[nearest] - x) + (ys[nearest] - y) * (ys[nearest] - y);
+                assertEquals(expectedDistance, distance, 0);
+            }
+        }
+    }
+
+}
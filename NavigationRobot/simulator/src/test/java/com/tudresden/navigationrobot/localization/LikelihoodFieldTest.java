@@ -0,0 +1,109 @@
+package com.tudresden.navigationrobot.localization;
+
+import com.tudresden.navigationrobot.map.OccupancyGrid;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the likelihood field of a room that spans several tiles of the occupancy grid, whose
+ * blocks are computed when they are first looked at.
+ */
+public class LikelihoodFieldTest {
+
+    /**
+     * The edge length of a cell in meters.
+     */
+    private static final double RESOLUTION = 0.05;
+
+    /**
+     * The radius of the robot in meters.
+     */
+    private static final double ROBOT_RADIUS = 0.3;
+
+    /**
+     * The edge length of the room in cells, so the room spans three tiles in each direction.
+     */
+    private static final int SIZE = 150;
+
+    @Test
+    public void likelihoodFadesWithDistanceToWalls() {
+        LikelihoodField field = new LikelihoodField(buildRoom(), ROBOT_RADIUS);
+        double wall = field.getLikelihood(0.025, 3.025);
+        double near = field.getLikelihood(0.125, 3.025);
+        double far = field.getLikelihood(1.025, 3.025);
+        assertTrue(wall > near);
+        assertTrue(near > far);
+        // Beyond the field nothing is explained by the map
+        assertEquals(far, field.getLikelihood(-100, 3.025), 1e-6);
+        // The pillar in the middle of the room lies on the corner of four tiles
+        assertEquals(wall, field.getLikelihood(3.225, 3.225), 0);
+        assertTrue(field.getLikelihood(3.025, 3.025) > far);
+    }
+
+    @Test
+    public void likelihoodsDoNotDependOnOrderOfLookups() {
+        OccupancyGrid map = buildRoom();
+        LikelihoodField forward = new LikelihoodField(map, ROBOT_RADIUS);
+        LikelihoodField shuffled = new LikelihoodField(map, ROBOT_RADIUS);
+        Random random = new Random(1);
+        double[] xs = new double[20000];
+        double[] ys = new double[xs.length];
+        for(int i = 0; i < xs.length; i++) {
+            xs[i] = (random.nextDouble() * 1.2 - 0.1) * SIZE * RESOLUTION;
+            ys[i] = (random.nextDouble() * 1.2 - 0.1) * SIZE * RESOLUTION;
+        }
+        double[] expected = new double[xs.length];
+        for(int i = 0; i < xs.length; i++) {
+            expected[i] = forward.getLikelihood(xs[i], ys[i]);
+        }
+        for(int i = xs.length - 1; i >= 0; i--) {
+            assertEquals(expected[i], shuffled.getLikelihood(xs[i], ys[i]), 0);
+        }
+    }
+
+    @Test
+    public void freeCellsKeepDistanceToWalls() {
+        LikelihoodField field = new LikelihoodField(buildRoom(), ROBOT_RADIUS);
+        assertTrue(field.getFreeCellCount() > 0);
+        double wall = SIZE * RESOLUTION;
+        for(int i = 0; i < field.getFreeCellCount(); i++) {
+            double x = field.getFreeCellX(i) + RESOLUTION / 2;
+            double y = field.getFreeCellY(i) + RESOLUTION / 2;
+            // The distance between the centers of the free cell and the closest occupied cell, which
+            // the chamfer distance overestimates by at most 6 %
+            double distance = Math.min(Math.min(x, y), Math.min(wall - x, wall - y)) - RESOLUTION / 2;
+            distance = Math.min(distance, Math.hypot(Math.max(Math.abs(x - 3.2) - 1.5 * RESOLUTION, 0),
+                    Math.max(Math.abs(y - 3.2) - 1.5 * RESOLUTION, 0)));
+            assertTrue("free cell at " + x + ", " + y, distance > ROBOT_RADIUS * 0.94 - RESOLUTION);
+        }
+    }
+
+    @Test
+    public void emptyMapHasNoFreeCells() {
+        LikelihoodField field = new LikelihoodField(
+                new OccupancyGrid(RESOLUTION, OccupancyGrid.DEFAULT_MEMORY_BUDGET, null), ROBOT_RADIUS);
+        assertEquals(0, field.getFreeCellCount());
+        assertTrue(field.getLikelihood(0, 0) > 0);
+    }
+
+    /**
+     * Builds a free square room with walls around it and a pillar of 4 x 4 cells in the middle.
+     */
+    private static OccupancyGrid buildRoom() {
+        OccupancyGrid map = new OccupancyGrid(RESOLUTION, OccupancyGrid.DEFAULT_MEMORY_BUDGET, null);
+        for(int y = 0; y < SIZE; y++) {
+            for(int x = 0; x < SIZE; x++) {
+                boolean wall = x == 0 || y == 0 || x == SIZE - 1 || y == SIZE - 1;
+                boolean pillar = x >= 62 && x < 66 && y >= 62 && y < 66;
+                map.addLogOdds(x, y, wall || pillar ? OccupancyGrid.LOG_ODDS_MAX : OccupancyGrid.LOG_ODDS_MIN);
+            }
+        }
+        return map;
+    }
+
+}
@@ -0,0 +1,164 @@
+package com.tudresden.navigationrobot.localization;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Optimizes small pose graphs whose solution is known and checks that the sparse decomposition
+ * doesn't depend on the numbering of the poses.
+ */
+public class PoseGraphTest {
+
+    @Test
+    public void keepsConsistentMeasurements() {
+        PoseGraph graph = new PoseGraph();
+        graph.addPose(0, 0, 0);
+        graph.addPose(1, 0, Math.PI / 2);
+        graph.addPose(1, 1, Math.PI);
+        graph.addEdge(0, 1, 1, 0, Math.PI / 2, 100, 100, 100);
+        graph.addEdge(1, 2, 1, 0, Math.PI / 2, 100, 100, 100);
+        graph.addEdge(0, 2, 1, 1, Math.PI, 100, 100, 100);
+        assertEquals(1, graph.optimize(10));
+        assertEquals(1, graph.getX(2), 1e-9);
+        assertEquals(1, graph.getY(2), 1e-9);
+        assertEquals(Math.PI, graph.getTheta(2), 1e-9);
+    }
+
+    @Test
+    public void spreadsDriftOverLoop() {
+        // A square of 4 x 4 steps whose odometry turns a little too far at every corner
+        PoseGraph graph = new PoseGraph();
+        double x = 0;
+        double y = 0;
+        double heading = 0;
+        graph.addPose(x, y, heading);
+        for(int i = 1; i <= 16; i++) {
+            double turn = i % 4 == 0 ? Math.PI / 2 + 0.05 : 0;
+            x += Math.cos(heading);
+            y += Math.sin(heading);
+            heading += turn;
+            graph.addPose(x, y, heading);
+            graph.addEdge(i - 1, i, 1, 0, turn, 100, 100, 100);
+        }
+        // The robot is back at the start
+        int closure = graph.addEdge(0, 16, 0, 0, 2 * Math.PI, 1000, 1000, 1000);
+        double before = Math.hypot(graph.getX(16), graph.getY(16));
+        assertTrue(graph.optimize(20) > 0);
+        double after = Math.hypot(graph.getX(16), graph.getY(16));
+        assertTrue(after < before / 10);
+        assertEquals(0, graph.getX(0), 1e-6);
+        assertEquals(0, graph.getY(0), 1e-6);
+        // The error is spread, so no single step takes all of it
+        for(int e = 0; e < closure; e++) {
+            assertTrue(graph.getChiSquared(e) < 1);
+        }
+    }
+
+    @Test
+    public void solutionDoesNotDependOnNumbering() {
+        Random random = new Random(1);
+        int poses = 300;
+        double[] odometry = new double[3 * poses];
+        int[][] edges = new int[poses - 1 + 100][];
+        double heading = 0;
+        for(int i = 1; i < poses; i++) {
+            heading += 0.1 + 0.05 * random.nextGaussian();
+            odometry[3 * i] = odometry[3 * (i - 1)] + Math.cos(heading);
+            odometry[3 * i + 1] = odometry[3 * (i - 1) + 1] + Math.sin(heading);
+            odometry[3 * i + 2] = heading;
+            edges[i - 1] = new int[] {i - 1, i};
+        }
+        for(int k = poses - 1; k < edges.length; k++) {
+            int from = random.nextInt(poses - 10);
+            edges[k] = new int[] {from, from + 10 + random.nextInt(poses - 10 - from)};
+        }
+        // The first pose keeps its number, since the prior holds it in place
+        int[] permutation = new int[poses];
+        for(int i = 0; i < poses; i++) {
+            permutation[i] = i;
+        }
+        for(int i = poses - 1; i > 1; i--) {
+            int j = 1 + random.nextInt(i);
+            int swap = permutation[i];
+            permutation[i] = permutation[j];
+            permutation[j] = swap;
+        }
+        PoseGraph ordered = build(odometry, edges, null);
+        PoseGraph shuffled = build(odometry, edges, permutation);
+        assertTrue(ordered.optimize(20) > 0);
+        assertTrue(shuffled.optimize(20) > 0);
+        for(int i = 0; i < poses; i++) {
+            assertEquals(ordered.getX(i), shuffled.getX(permutation[i]), 1e-6);
+            assertEquals(ordered.getY(i), shuffled.getY(permutation[i]), 1e-6);
+            assertEquals(ordered.getTheta(i), shuffled.getTheta(permutation[i]), 1e-6);
+        }
+    }
+
+    @Test
+    public void rejectsUnconnectedPose() {
+        PoseGraph graph = new PoseGraph();
+        graph.addPose(0, 0, 0);
+        graph.addPose(1, 0, 0);
+        graph.addPose(5, 5, 0);
+        graph.addEdge(0, 1, 1, 0, 0, 100, 100, 100);
+        assertEquals(-1, graph.optimize(10));
+    }
+
+    @Test
+    public void factorOfRepeatedLoopsStaysSparse() {
+        // 50 laps of 40 poses, every fourth pose is connected to the same pose of the previous lap
+        int lap = 40;
+        int poses = 50 * lap;
+        PoseGraph graph = new PoseGraph();
+        for(int i = 0; i < poses; i++) {
+            double angle = 2 * Math.PI * i / lap;
+            graph.addPose(Math.cos(angle), Math.sin(angle), angle + Math.PI / 2);
+            if(i > 0) {
+                graph.addEdge(i - 1, i, 2 * Math.sin(Math.PI / lap), 0, 2 * Math.PI / lap, 100, 100, 100);
+            }
+            if(i >= lap && i % 4 == 0) {
+                graph.addEdge(i - lap, i, 0, 0, 0, 100, 100, 100);
+            }
+        }
+        assertTrue(graph.optimize(5) > 0);
+        // A band one lap wide would have 3 * lap entries in each of the 3 * poses rows
+        assertTrue(graph.getFactorSize() < 3 * lap * 3 * poses / 4);
+    }
+
+    /**
+     * Builds a graph from the poses of the odometry, with the odometry of consecutive poses as
+     * measurements.
+     * @param permutation the new number of every pose or null to keep the numbers
+     */
+    private static PoseGraph build(double[] odometry, int[][] edges, int[] permutation) {
+        int poses = odometry.length / 3;
+        PoseGraph graph = new PoseGraph();
+        int[] original = new int[poses];
+        for(int i = 0; i < poses; i++) {
+            original[permutation != null ? permutation[i] : i] = i;
+        }
+        for(int k = 0; k < poses; k++) {
+            int i = original[k];
+            graph.addPose(odometry[3 * i], odometry[3 * i + 1], odometry[3 * i + 2]);
+        }
+        for(int[] edge : edges) {
+            int from = edge[0];
+            int to = edge[1];
+            double cos = Math.cos(odometry[3 * from + 2]);
+            double sin = Math.sin(odometry[3 * from + 2]);
+            double dx = odometry[3 * to] - odometry[3 * from];
+            double dy = odometry[3 * to + 1] - odometry[3 * from + 1];
+            // The loop closures measure a slightly different pose than the odometry
+            double noise = to - from > 1 ? 0.1 : 0;
+            graph.addEdge(permutation != null ? permutation[from] : from, permutation != null ? permutation[to] : to,
+                    cos * dx + sin * dy + noise, -sin * dx + cos * dy - noise,
+                    odometry[3 * to + 2] - odometry[3 * from + 2] + noise / 2, 100, 100, 400);
+        }
+        return graph;
+    }
+
+}
@@ -0,0 +1,124 @@
+package com.tudresden.navigationrobot.localization;
+
+import com.tudresden.navigationrobot.map.OccupancyGrid;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Matches batches of readings that were taken at a pose that is off by a known offset against
+ * walls of an occupancy grid.
+ */
+public class ScanMatcherTest {
+
+    /**
+     * The edge length of a cell in meters.
+     */
+    private static final double RESOLUTION = 0.05;
+
+    /**
+     * The length of the walls in cells.
+     */
+    private static final int WALL_LENGTH = 80;
+
+    /**
+     * The distance in meters between the sensor and the wall that it measures.
+     */
+    private static final double DISTANCE = 0.75;
+
+    /**
+     * The coordinate in meters of the center line of a wall along the edge of the grid.
+     */
+    private static final double WALL = RESOLUTION / 2;
+
+    /**
+     * The distance in meters that the sensors return if they don't hit anything.
+     */
+    private static final double NO_OBSTACLE = 1.5;
+
+    /**
+     * The largest difference in meters between the correction and the offset. The prior pulls the
+     * correction slightly towards zero.
+     */
+    private static final double TOLERANCE = 0.01;
+
+    @Test
+    public void matchRecoversOffsetInCorner() {
+        OccupancyGrid grid = buildWalls(true);
+        ScanMatcher matcher = new ScanMatcher();
+        double offsetX = 0.08;
+        double offsetY = -0.05;
+        // Half of the readings hit the lower wall, the other half the left wall
+        for(int i = 0; i < ScanMatcher.BATCH_SIZE / 2; i++) {
+            double along = 0.4 + 0.07 * i;
+            addReading(matcher, along, WALL + DISTANCE, -Math.PI / 2, DISTANCE, offsetX, offsetY);
+            addReading(matcher, WALL + DISTANCE, along, Math.PI, DISTANCE, offsetX, offsetY);
+        }
+
+        assertTrue(matcher.match(grid, 0.8, 0.8));
+        assertEquals(-offsetX, matcher.getCorrectionX(), TOLERANCE);
+        assertEquals(-offsetY, matcher.getCorrectionY(), TOLERANCE);
+        assertEquals(0, matcher.getCorrectionAngle(), 1e-3);
+        assertEquals(ScanMatcher.BATCH_SIZE, matcher.getPairCount());
+        assertTrue(matcher.getResidual() < 0.01);
+        assertEquals(1, matcher.getMatchCount());
+    }
+
+    @Test
+    public void priorKeepsCorrectionAlongLoneWallAtZero() {
+        OccupancyGrid grid = buildWalls(false);
+        ScanMatcher matcher = new ScanMatcher();
+        double offsetX = 0.1;
+        double offsetY = -0.05;
+        for(int i = 0; i < ScanMatcher.BATCH_SIZE; i++) {
+            addReading(matcher, 1.0 + 0.07 * i, WALL + DISTANCE, -Math.PI / 2, DISTANCE, offsetX, offsetY);
+        }
+
+        assertTrue(matcher.match(grid, 1.7, 0.8));
+        // The wall doesn't tell how far along it the robot is
+        assertEquals(0, matcher.getCorrectionX(), 1e-6);
+        assertEquals(-offsetY, matcher.getCorrectionY(), TOLERANCE);
+        assertEquals(0, matcher.getCorrectionAngle(), 1e-3);
+    }
+
+    @Test
+    public void readingsWithoutWallsAreNotMatched() {
+        OccupancyGrid grid = buildWalls(false);
+        ScanMatcher matcher = new ScanMatcher();
+        // The readings hit nothing, so there are no points
+        for(int i = 0; i < ScanMatcher.BATCH_SIZE; i++) {
+            addReading(matcher, 1.0 + 0.07 * i, 2.0, Math.PI / 2, NO_OBSTACLE, 0, 0);
+        }
+        assertEquals(ScanMatcher.BATCH_SIZE, matcher.getReadingCount());
+        assertFalse(matcher.match(grid, 1.7, 2.0));
+        assertEquals(0, matcher.getMatchCount());
+    }
+
+    /**
+     * Builds a wall along the lower edge of the grid and optionally one along the left edge, both one
+     * cell thick.
+     */
+    private static OccupancyGrid buildWalls(boolean corner) {
+        OccupancyGrid grid = new OccupancyGrid(RESOLUTION, OccupancyGrid.DEFAULT_MEMORY_BUDGET, null);
+        for(int i = 0; i < WALL_LENGTH; i++) {
+            grid.addLogOdds(i, 0, OccupancyGrid.LOG_ODDS_MAX);
+            if(corner) {
+                grid.addLogOdds(0, i, OccupancyGrid.LOG_ODDS_MAX);
+            }
+        }
+        return grid;
+    }
+
+    /**
+     * Adds a reading that the sensor takes at a pose, but with the pose off by an offset as if the
+     * odometry had drifted.
+     */
+    private static void addReading(ScanMatcher matcher, double x, double y, double heading, double distance,
+                                   double offsetX, double offsetY) {
+        matcher.addReading(x + offsetX, y + offsetY, heading, distance);
+    }
+
+}
@@ -0,0 +1,291 @@
+package com.tudresden.navigationrobot.map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Spills the tiles of occupancy grids whose memory budget is tiny and reads them back, and maps
+ * grids that were written to tile files.
+ */
+public class OccupancyGridTest {
+
+    /**
+     * A budget that a single tile with varied cells exceeds, so every other tile is spilled.
+     */
+    private static final long MEMORY_BUDGET = 1;
+
+    /**
+     * The number of tiles in each direction that the grids are filled with.
+     */
+    private static final int TILES = 4;
+
+    /**
+     * The size of the header of a tile file in bytes.
+     */
+    private static final int TILE_FILE_HEADER_BYTES = 40;
+
+    /**
+     * The size of an entry of the directory of a tile file in bytes.
+     */
+    private static final int TILE_FILE_ENTRY_BYTES = 16;
+
+    /**
+     * The directory that the grids spill to.
+     */
+    private File mDirectory;
+
+    @Before
+    public void createDirectory() throws IOException {
+        mDirectory = File.createTempFile("spill", "");
+        assertTrue(mDirectory.delete());
+        assertTrue(mDirectory.mkdir());
+    }
+
+    @After
+    public void deleteDirectory() {
+        assertTrue(mDirectory.delete());
+    }
+
+    @Test
+    public void spilledTilesAreReadBack() {
+        OccupancyGrid grid = fill(new OccupancyGrid(0.05, MEMORY_BUDGET, mDirectory), 1);
+        assertTrue(countFiles(mDirectory) > 0);
+        assertFilled(grid, 1);
+        grid.close();
+        assertEquals(0, countFiles(mDirectory));
+    }
+
+    @Test
+    public void gridsInSameDirectoryKeepTheirTiles() {
+        OccupancyGrid first = fill(new OccupancyGrid(0.05, MEMORY_BUDGET, mDirectory), 1);
+        OccupancyGrid second = fill(new OccupancyGrid(0.05, MEMORY_BUDGET, mDirectory), -1);
+        // Discarding one grid must not delete the tiles of the other
+        first.close();
+        assertFilled(second, -1);
+        second.close();
+        assertEquals(0, countFiles(mDirectory));
+    }
+
+    @Test
+    public void gridWithoutSpillDirectoryKeepsItsTiles() {
+        // Every tile is over the budget, which must not compact all tiles on every update
+        OccupancyGrid grid = fill(new OccupancyGrid(0.05, MEMORY_BUDGET, null), 1);
+        assertTrue(grid.getMemoryUsage() > MEMORY_BUDGET);
+        assertFilled(grid, 1);
+        assertEquals(0, mDirectory.listFiles().length);
+    }
+
+    @Test
+    public void unreadableTileIsReported() throws IOException {
+        OccupancyGrid grid = fill(new OccupancyGrid(0.05, MEMORY_BUDGET, mDirectory), 1);
+        for(File subdirectory : mDirectory.listFiles()) {
+            for(File file : subdirectory.listFiles()) {
+                new FileOutputStream(file).close();
+            }
+        }
+        try {
+            assertFilled(grid, 1);
+            fail("A truncated tile was read");
+        } catch(IllegalStateException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+        grid.close();
+        assertEquals(0, mDirectory.listFiles().length);
+    }
+
+    /**
+     * Fills the tiles with a checkerboard of cells, so their quadtrees can't collapse.
+     * @param sign 1 for occupied cells on the even squares, -1 for the odd ones
+     */
+    private static OccupancyGrid fill(OccupancyGrid grid, int sign) {
+        for(int y = 0; y < TILES * MapTile.TILE_SIZE; y++) {
+            for(int x = 0; x < TILES * MapTile.TILE_SIZE; x++) {
+                grid.addLogOdds(x, y, (x + y) % 2 == 0 ? sign : -sign);
+            }
+        }
+        return grid;
+    }
+
+    private static void assertFilled(OccupancyGrid grid, int sign) {
+        for(int y = 0; y < TILES * MapTile.TILE_SIZE; y++) {
+            for(int x = 0; x < TILES * MapTile.TILE_SIZE; x++) {
+                assertEquals((x + y) % 2 == 0 ? sign : -sign, grid.getLogOdds(x, y), 0);
+            }
+        }
+    }
+
+    /**
+     * @return the number of files in the subdirectories of the directory
+     */
+    private static int countFiles(File directory) {
+        int count = 0;
+        for(File subdirectory : directory.listFiles()) {
+            count += subdirectory.listFiles().length;
+        }
+        return count;
+    }
+
+    @Test
+    public void mappedTilesMatchWrittenGrid() throws IOException {
+        OccupancyGrid grid = mixedTiles();
+        File file = File.createTempFile("tiles", ".bin");
+        try {
+            grid.writeTiles(file);
+            OccupancyGrid mapped = OccupancyGrid.mapTiles(file, OccupancyGrid.DEFAULT_MEMORY_BUDGET, null);
+            assertEquals(grid.getTileCount(), mapped.getTileCount());
+            assertEquals(grid.getMinCellX(), mapped.getMinCellX());
+            assertEquals(grid.getMaxCellY(), mapped.getMaxCellY());
+            assertSameCells(grid, mapped);
+            assertArrayEquals(rasterize(grid), rasterize(mapped), 0);
+
+            // Updating the dense tile copies it into memory, the others are still read from the file
+            grid.addLogOdds(70, 3, 0.5f);
+            mapped.addLogOdds(70, 3, 0.5f);
+            assertEquals(grid.getTileCount(), mapped.getTileCount());
+            assertSameCells(grid, mapped);
+            assertArrayEquals(rasterize(grid), rasterize(mapped), 0);
+            mapped.close();
+        } finally {
+            assertTrue(file.delete());
+        }
+        grid.close();
+    }
+
+    @Test
+    public void corruptQuadtreeIsReported() throws IOException {
+        OccupancyGrid grid = new OccupancyGrid(0.05, OccupancyGrid.DEFAULT_MEMORY_BUDGET, null);
+        // A tile whose root is split into uniform quarters
+        grid.addLogOdds(MapTile.TILE_SIZE - 1, 0, 1f);
+        File file = File.createTempFile("tiles", ".bin");
+        try {
+            grid.writeTiles(file);
+            try(RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                // The offset of the second child of the root points beyond the end of the file
+                raf.seek(rootOffset(raf) + 1);
+                raf.writeInt(Integer.MAX_VALUE / 2);
+            }
+            OccupancyGrid mapped = OccupancyGrid.mapTiles(file, OccupancyGrid.DEFAULT_MEMORY_BUDGET, null);
+            try {
+                mapped.getLogOdds(MapTile.TILE_SIZE - 1, 0);
+                fail("A corrupt quadtree was read");
+            } catch(IllegalStateException e) {
+                assertTrue(e.getCause() instanceof IOException);
+            }
+            try {
+                mapped.visitRegions(new OccupancyGrid.RegionVisitor() {
+                    @Override
+                    public void visit(int cellX, int cellY, int size, float logOdds) {
+                    }
+                });
+                fail("A corrupt quadtree was visited");
+            } catch(IllegalStateException e) {
+                assertTrue(e.getCause() instanceof IOException);
+            }
+            mapped.close();
+        } finally {
+            assertTrue(file.delete());
+        }
+        grid.close();
+    }
+
+    @Test
+    public void truncatedTileFileIsRejected() throws IOException {
+        OccupancyGrid grid = mixedTiles();
+        File file = File.createTempFile("tiles", ".bin");
+        try {
+            grid.writeTiles(file);
+            try(RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(raf.length() - 1);
+            }
+            OccupancyGrid.mapTiles(file, OccupancyGrid.DEFAULT_MEMORY_BUDGET, null);
+            fail("A truncated tile file was mapped");
+        } catch(IOException e) {
+            // The directory refers to the missing end of the file
+        } finally {
+            assertTrue(file.delete());
+        }
+        grid.close();
+    }
+
+    /**
+     * Fills a grid with a uniform tile, a tile that is split into uniform regions, a dense tile and
+     * a tile of random cells at negative indices.
+     */
+    private static OccupancyGrid mixedTiles() {
+        OccupancyGrid grid = new OccupancyGrid(0.05, OccupancyGrid.DEFAULT_MEMORY_BUDGET, null);
+        int size = MapTile.TILE_SIZE;
+        for(int y = 0; y < size; y++) {
+            for(int x = 0; x < size; x++) {
+                // Uniform
+                grid.addLogOdds(x, y + size, 2f);
+                // Split into a quarter that is free and three unknown quarters
+                if(x < size / 2 && y < size / 2) {
+                    grid.addLogOdds(x + 2 * size, y + size, -1f);
+                }
+                // Dense
+                grid.addLogOdds(x + size, y, (x + y) % 2 == 0 ? 1f : -1f);
+            }
+        }
+        Random random = new Random(1);
+        for(int i = 0; i < 500; i++) {
+            grid.addLogOdds(-1 - random.nextInt(size), -1 - random.nextInt(size), random.nextFloat() - 0.5f);
+        }
+        return grid;
+    }
+
+    private static void assertSameCells(OccupancyGrid expected, OccupancyGrid actual) {
+        for(int y = expected.getMinCellY(); y <= expected.getMaxCellY(); y++) {
+            for(int x = expected.getMinCellX(); x <= expected.getMaxCellX(); x++) {
+                assertEquals(expected.getLogOdds(x, y), actual.getLogOdds(x, y), 0);
+            }
+        }
+    }
+
+    /**
+     * @return the log-odds of all cells of the grid as its regions report them, row by row
+     */
+    private static float[] rasterize(final OccupancyGrid grid) {
+        final int width = grid.getMaxCellX() - grid.getMinCellX() + 1;
+        final float[] cells = new float[width * (grid.getMaxCellY() - grid.getMinCellY() + 1)];
+        grid.visitRegions(new OccupancyGrid.RegionVisitor() {
+            @Override
+            public void visit(int cellX, int cellY, int size, float logOdds) {
+                for(int y = cellY; y < cellY + size; y++) {
+                    for(int x = cellX; x < cellX + size; x++) {
+                        cells[(y - grid.getMinCellY()) * width + x - grid.getMinCellX()] = logOdds;
+                    }
+                }
+            }
+        });
+        return cells;
+    }
+
+    /**
+     * @return the offset of the quadtree of the only tile of a tile file
+     */
+    private static int rootOffset(RandomAccessFile raf) throws IOException {
+        raf.seek(20);
+        int slots = raf.readInt();
+        for(int slot = 0; slot < slots; slot++) {
+            raf.seek(TILE_FILE_HEADER_BYTES + slot * TILE_FILE_ENTRY_BYTES + 8);
+            int offset = raf.readInt();
+            if(offset != 0) {
+                return offset;
+            }
+        }
+        throw new IOException("No tile in the file");
+    }
+
+}
@@ -0,0 +1,196 @@
+package com.tudresden.navigationrobot.planning;
+
+import com.tudresden.navigationrobot.Position;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the paths of the A* planner against a plain Dijkstra search with the same costs.
+ */
+public class AStarPlannerTest {
+
+    @Test
+    public void walksStraightInFreeSpace() {
+        PlanningGrid grid = new PlanningGrid(TestMaps.ROBOT_RADIUS);
+        grid.update(TestMaps.parse(
+                "..........",
+                "..........",
+                ".........."));
+        AStarPlanner planner = new AStarPlanner(grid);
+        LinkedList<Position> path = planner.plan(0.05, 0.15, 0.95, 0.15);
+        assertNotNull(path);
+        assertEquals(1, path.size());
+        assertEquals(0.95, path.getFirst().getX(), 1e-9);
+        assertEquals(0.15, path.getFirst().getY(), 1e-9);
+        assertEquals(9f, planner.getPathCost(), 1e-4f);
+    }
+
+    @Test
+    public void walksAroundWalls() {
+        PlanningGrid grid = new PlanningGrid(0);
+        grid.update(TestMaps.parse(
+                "###########",
+                "#.........#",
+                "#....#....#",
+                "#....#....#",
+                "#....#....#",
+                "#.........#",
+                "###########"));
+        AStarPlanner planner = new AStarPlanner(grid);
+        LinkedList<Position> path = planner.plan(0.15, 0.35, 0.95, 0.35);
+        assertNotNull(path);
+        assertTrue(path.size() > 1);
+        assertEquals(dijkstra(grid, grid.indexOf(0.15, 0.35), grid.indexOf(0.95, 0.35)), planner.getPathCost(), 1e-4f);
+        assertWaypointsVisible(grid, 0.15, 0.35, path);
+    }
+
+    @Test
+    public void avoidsUnknownSpace() {
+        PlanningGrid grid = new PlanningGrid(0);
+        grid.update(TestMaps.parse(
+                ".........",
+                ".........",
+                ".       .",
+                "........."));
+        AStarPlanner planner = new AStarPlanner(grid);
+        planner.plan(0.05, 0.15, 0.85, 0.15);
+        // Around the unknown cells instead of through them, which would cost 1 + 7 * UNKNOWN_COST
+        assertEquals(6f + 2 * (float) Math.sqrt(2), planner.getPathCost(), 1e-4f);
+    }
+
+    @Test
+    public void returnsNullWithoutPath() {
+        PlanningGrid grid = new PlanningGrid(0);
+        grid.update(TestMaps.parse(
+                "############",
+                "#.....#....#",
+                "#.....#....#",
+                "#.....#....#",
+                "############"));
+        AStarPlanner planner = new AStarPlanner(grid);
+        assertNull(planner.plan(0.15, 0.25, 1.05, 0.25));
+        assertEquals(Float.POSITIVE_INFINITY, planner.getPathCost(), 0f);
+        assertNull(planner.plan(0.15, 0.25, 100, 100));
+    }
+
+    @Test
+    public void snapsGoalInWall() {
+        PlanningGrid grid = new PlanningGrid(0);
+        grid.update(TestMaps.parse(
+                "......#####",
+                "......#####",
+                "......#####",
+                "......#####",
+                "......#####"));
+        AStarPlanner planner = new AStarPlanner(grid);
+        LinkedList<Position> path = planner.plan(0.05, 0.25, 0.75, 0.25);
+        assertNotNull(path);
+        assertEquals(0.55, path.getLast().getX(), 1e-9);
+        assertEquals(0.25, path.getLast().getY(), 1e-9);
+    }
+
+    @Test
+    public void findsCheapestPathsOnRandomMaps() {
+        Random random = new Random(1);
+        AStarPlanner planner = null;
+        PlanningGrid grid = new PlanningGrid(TestMaps.ROBOT_RADIUS);
+        for(int trial = 0; trial < 100; trial++) {
+            grid.update(TestMaps.random(random, 60, 8, trial % 2 == 0));
+            if(planner == null) {
+                // The planner is reused, so the reuse of the search arrays is tested as well
+                planner = new AStarPlanner(grid);
+            }
+            int start = TestMaps.randomTraversable(random, grid);
+            int goal = TestMaps.randomTraversable(random, grid);
+            LinkedList<Position> path = planner.plan(grid.worldX(start), grid.worldY(start),
+                    grid.worldX(goal), grid.worldY(goal));
+            float expected = dijkstra(grid, start, goal);
+            assertEquals("trial " + trial, expected, planner.getPathCost(), 1e-3f);
+            if(expected == Float.POSITIVE_INFINITY) {
+                assertNull(path);
+            } else {
+                assertNotNull(path);
+                assertWaypointsVisible(grid, grid.worldX(start), grid.worldY(start), path);
+                assertEquals(grid.worldX(goal), path.getLast().getX(), 1e-9);
+                assertEquals(grid.worldY(goal), path.getLast().getY(), 1e-9);
+            }
+        }
+    }
+
+    /**
+     * Checks that the robot can walk on straight lines from the start along the waypoints. Waypoints
+     * in neighbouring cells are always connected, since the planner may step diagonally past a more
+     * expensive cell that a longer line of sight would avoid.
+     */
+    static void assertWaypointsVisible(PlanningGrid grid, double startX, double startY, LinkedList<Position> path) {
+        int previous = grid.indexOf(startX, startY);
+        for(Position waypoint : path) {
+            int cell = grid.indexOf(waypoint.getX(), waypoint.getY());
+            assertTrue(grid.isTraversable(cell));
+            boolean neighbours = Math.abs(grid.cellX(cell) - grid.cellX(previous)) <= 1
+                    && Math.abs(grid.cellY(cell) - grid.cellY(previous)) <= 1;
+            assertTrue(neighbours || grid.lineOfSight(previous, cell));
+            previous = cell;
+        }
+    }
+
+    /**
+     * Searches the cheapest path with the costs of the A* planner: a step costs the cost of the cell
+     * that is entered and a diagonal step must not cut corners.
+     * @return the cost of the cheapest path or infinity if there is none
+     */
+    static float dijkstra(PlanningGrid grid, int start, int goal) {
+        final float[] costs = new float[grid.size()];
+        Arrays.fill(costs, Float.POSITIVE_INFINITY);
+        costs[start] = 0;
+        PriorityQueue<float[]> queue = new PriorityQueue<>(16, new java.util.Comparator<float[]>() {
+            @Override
+            public int compare(float[] a, float[] b) {
+                return Float.compare(a[0], b[0]);
+            }
+        });
+        queue.add(new float[] {0, start});
+        int width = grid.getWidth();
+        while(!queue.isEmpty()) {
+            float[] entry = queue.poll();
+            int cell = (int) entry[1];
+            if(entry[0] > costs[cell]) {
+                continue;
+            }
+            if(cell == goal) {
+                return costs[cell];
+            }
+            int x = grid.cellX(cell);
+            int y = grid.cellY(cell);
+            for(int direction = 0; direction < 8; direction++) {
+                int nx = x + PlanningGrid.NEIGHBOUR_X[direction];
+                int ny = y + PlanningGrid.NEIGHBOUR_Y[direction];
+                if(nx < 0 || ny < 0 || nx >= width || ny >= grid.getHeight()) {
+                    continue;
+                }
+                int neighbour = ny * width + nx;
+                if(!grid.isTraversable(neighbour) || (direction >= 4
+                        && (!grid.isTraversable(y * width + nx) || !grid.isTraversable(ny * width + x)))) {
+                    continue;
+                }
+                float cost = costs[cell] + grid.costOf(neighbour) * (direction >= 4 ? (float) Math.sqrt(2) : 1f);
+                if(cost < costs[neighbour]) {
+                    costs[neighbour] = cost;
+                    queue.add(new float[] {cost, neighbour});
+                }
+            }
+        }
+        return Float.POSITIVE_INFINITY;
+    }
+
+}
@@ -0,0 +1,115 @@
+package com.tudresden.navigationrobot.planning;
+
+import com.tudresden.navigationrobot.Position;
+
+import org.junit.Test;
+
+import java.util.LinkedList;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the paths which D* Lite repairs after new obstacles are as cheap as the paths of a
+ * new search on the changed grid.
+ */
+public class DStarLitePlannerTest {
+
+    @Test
+    public void findsCheapestPathsOnRandomMaps() {
+        Random random = new Random(1);
+        PlanningGrid grid = new PlanningGrid(TestMaps.ROBOT_RADIUS);
+        DStarLitePlanner planner = new DStarLitePlanner(grid);
+        for(int trial = 0; trial < 50; trial++) {
+            // Without unknown cells the costs of the edges are the costs of the entered cells
+            grid.update(TestMaps.random(random, 60, 8, false));
+            int start = TestMaps.randomTraversable(random, grid);
+            int goal = TestMaps.randomTraversable(random, grid);
+            LinkedList<Position> path = planner.plan(grid.worldX(start), grid.worldY(start),
+                    grid.worldX(goal), grid.worldY(goal));
+            float expected = AStarPlannerTest.dijkstra(grid, start, goal);
+            assertEquals("trial " + trial, expected, planner.getPathCost(), 1e-3f);
+            if(expected == Float.POSITIVE_INFINITY) {
+                assertNull(path);
+            } else {
+                assertNotNull(path);
+                AStarPlannerTest.assertWaypointsVisible(grid, grid.worldX(start), grid.worldY(start), path);
+            }
+        }
+    }
+
+    @Test
+    public void replanMatchesNewSearchAfterObstacles() {
+        Random random = new Random(2);
+        PlanningGrid grid = new PlanningGrid(TestMaps.ROBOT_RADIUS);
+        for(int trial = 0; trial < 50; trial++) {
+            grid.update(TestMaps.random(random, 60, 6, trial % 2 == 0));
+            DStarLitePlanner planner = new DStarLitePlanner(grid);
+            int start = TestMaps.randomTraversable(random, grid);
+            int goal = TestMaps.randomTraversable(random, grid);
+            double goalX = grid.worldX(goal);
+            double goalY = grid.worldY(goal);
+            LinkedList<Position> path = planner.plan(grid.worldX(start), grid.worldY(start), goalX, goalY);
+            double x = grid.worldX(start);
+            double y = grid.worldY(start);
+            for(int step = 0; step < 5 && path != null && !path.isEmpty(); step++) {
+                // The robot moves to the next waypoint and meets a few obstacles on the way
+                Position waypoint = path.getFirst();
+                x = waypoint.getX();
+                y = waypoint.getY();
+                for(int obstacle = 0; obstacle < 3; obstacle++) {
+                    int cell = random.nextInt(grid.size());
+                    grid.markOccupied(grid.worldX(cell), grid.worldY(cell));
+                }
+                path = planner.replan(x, y);
+                float repaired = planner.getPathCost();
+
+                DStarLitePlanner fresh = new DStarLitePlanner(grid);
+                LinkedList<Position> expected = fresh.plan(x, y, goalX, goalY);
+                assertEquals("trial " + trial + ", step " + step, fresh.getPathCost(), repaired, 1e-3f);
+                assertEquals(expected == null, path == null);
+                if(path != null) {
+                    assertEquals(expected.getLast().getX(), path.getLast().getX(), 1e-9);
+                    assertEquals(expected.getLast().getY(), path.getLast().getY(), 1e-9);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void replanSnapsGoalAgainWhenObstacleCoversIt() {
+        PlanningGrid grid = new PlanningGrid(TestMaps.ROBOT_RADIUS);
+        grid.update(TestMaps.parse(
+                "############",
+                "#..........#",
+                "#..........#",
+                "#..........#",
+                "#..........#",
+                "#..........#",
+                "############"));
+        DStarLitePlanner planner = new DStarLitePlanner(grid);
+        LinkedList<Position> path = planner.plan(0.25, 0.35, 0.85, 0.35);
+        assertNotNull(path);
+        assertEquals(0.85, path.getLast().getX(), 1e-9);
+
+        // The inflated obstacle covers the goal, so the path has to end next to it
+        assertTrue(grid.markOccupied(0.95, 0.35));
+        path = planner.replan(0.25, 0.35);
+        assertNotNull(path);
+        Position end = path.getLast();
+        int cell = grid.indexOf(end.getX(), end.getY());
+        assertTrue(grid.isTraversable(cell));
+        assertNotEquals(grid.indexOf(0.85, 0.35), cell);
+
+        DStarLitePlanner fresh = new DStarLitePlanner(grid);
+        LinkedList<Position> expected = fresh.plan(0.25, 0.35, 0.85, 0.35);
+        assertEquals(expected.getLast().getX(), end.getX(), 1e-9);
+        assertEquals(expected.getLast().getY(), end.getY(), 1e-9);
+        assertEquals(fresh.getPathCost(), planner.getPathCost(), 1e-3f);
+    }
+
+}
@@ -0,0 +1,116 @@
+package com.tudresden.navigationrobot.planning;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the heap of the planners against a plain array of keys.
+ */
+public class IndexedMinHeapTest {
+
+    @Test
+    public void popsInKeyOrder() {
+        IndexedMinHeap heap = new IndexedMinHeap(5);
+        heap.push(0, 3f, 0f);
+        heap.push(1, 1f, 2f);
+        heap.push(2, 2f, 0f);
+        heap.push(3, 1f, 1f);
+        heap.push(4, 5f, 0f);
+        assertEquals(5, heap.size());
+        assertEquals(3, heap.peek());
+        assertEquals(1f, heap.peekKey1(), 0f);
+        assertEquals(1f, heap.peekKey2(), 0f);
+        assertEquals(3, heap.pop());
+        assertEquals(1, heap.pop());
+        assertEquals(2, heap.pop());
+        assertEquals(0, heap.pop());
+        assertEquals(4, heap.pop());
+        assertTrue(heap.isEmpty());
+    }
+
+    @Test
+    public void changesAndRemovesKeys() {
+        IndexedMinHeap heap = new IndexedMinHeap(3);
+        heap.push(0, 1f, 0f);
+        heap.push(1, 2f, 0f);
+        heap.push(2, 3f, 0f);
+        heap.push(0, 4f, 0f);
+        assertEquals(1, heap.peek());
+        heap.push(2, 0f, 0f);
+        assertEquals(2, heap.peek());
+        heap.remove(2);
+        assertFalse(heap.contains(2));
+        heap.remove(2);
+        assertEquals(2, heap.size());
+        assertEquals(1, heap.pop());
+        assertEquals(0, heap.pop());
+    }
+
+    @Test
+    public void clearEmptiesTheHeap() {
+        IndexedMinHeap heap = new IndexedMinHeap(100);
+        for(int node = 0; node < 100; node++) {
+            heap.push(node, node, 0f);
+        }
+        heap.clear();
+        assertTrue(heap.isEmpty());
+        for(int node = 0; node < 100; node++) {
+            assertFalse(heap.contains(node));
+        }
+        heap.push(7, 1f, 0f);
+        assertEquals(7, heap.pop());
+    }
+
+    @Test
+    public void matchesReferenceForRandomOperations() {
+        Random random = new Random(1);
+        int nodes = 2000;
+        IndexedMinHeap heap = new IndexedMinHeap(nodes);
+        float[] keys1 = new float[nodes];
+        float[] keys2 = new float[nodes];
+        boolean[] contained = new boolean[nodes];
+        for(int operation = 0; operation < 100000; operation++) {
+            int node = random.nextInt(nodes);
+            int choice = random.nextInt(10);
+            if(choice < 6) {
+                // Few distinct first parts, so the second part decides often
+                keys1[node] = random.nextInt(50);
+                keys2[node] = random.nextInt(50);
+                heap.push(node, keys1[node], keys2[node]);
+                contained[node] = true;
+            } else if(choice < 8) {
+                heap.remove(node);
+                contained[node] = false;
+            } else if(!heap.isEmpty()) {
+                int smallest = -1;
+                for(int i = 0; i < nodes; i++) {
+                    if(contained[i] && (smallest < 0
+                            || IndexedMinHeap.less(keys1[i], keys2[i], keys1[smallest], keys2[smallest]))) {
+                        smallest = i;
+                    }
+                }
+                int popped = heap.pop();
+                // Nodes with equal keys may come in any order
+                assertEquals(keys1[smallest], keys1[popped], 0f);
+                assertEquals(keys2[smallest], keys2[popped], 0f);
+                assertTrue(contained[popped]);
+                contained[popped] = false;
+            }
+            if(operation % 1000 == 0) {
+                int size = 0;
+                for(int i = 0; i < nodes; i++) {
+                    if(contained[i]) {
+                        size++;
+                    }
+                }
+                assertEquals(size, heap.size());
+            }
+        }
+    }
+
+}
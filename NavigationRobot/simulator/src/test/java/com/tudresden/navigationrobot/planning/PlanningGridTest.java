@@ -0,0 +1,180 @@
+package com.tudresden.navigationrobot.planning;
+
+import com.tudresden.navigationrobot.map.OccupancyGrid;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the snapshot of the occupancy grid that the planners search: the classes of the cells, the
+ * inflation of the obstacles by the radius of the robot and the obstacles that are marked later.
+ */
+public class PlanningGridTest {
+
+    @Test
+    public void classifiesCells() {
+        PlanningGrid grid = new PlanningGrid(0);
+        grid.update(TestMaps.parse(
+                "#. ",
+                ".. "));
+        // The snapshot covers whole tiles of the occupancy grid
+        assertTrue(grid.getWidth() >= 3);
+        assertTrue(grid.getHeight() >= 2);
+        assertEquals(PlanningGrid.OCCUPIED, grid.classOf(grid.indexOf(0.05, 0.15)));
+        assertEquals(PlanningGrid.FREE, grid.classOf(grid.indexOf(0.15, 0.15)));
+        assertEquals(PlanningGrid.FREE, grid.classOf(grid.indexOf(0.05, 0.05)));
+        assertEquals(PlanningGrid.UNKNOWN, grid.classOf(grid.indexOf(0.25, 0.05)));
+        assertEquals(PlanningGrid.UNKNOWN, grid.classOf(grid.indexOf(0.35, 0.05)));
+        assertTrue(grid.isTraversable(grid.indexOf(0.25, 0.05)));
+        assertEquals(-1, grid.indexOf(0.05, -0.05));
+        assertEquals(-1, grid.indexOf(100, 0.05));
+    }
+
+    @Test
+    public void emptyMapHasNoCells() {
+        PlanningGrid grid = new PlanningGrid(TestMaps.ROBOT_RADIUS);
+        grid.update(new OccupancyGrid(TestMaps.RESOLUTION, OccupancyGrid.DEFAULT_MEMORY_BUDGET, null));
+        assertEquals(0, grid.size());
+        assertEquals(-1, grid.indexOf(0, 0));
+    }
+
+    @Test
+    public void inflatesObstaclesByTheRadiusOfTheRobot() {
+        PlanningGrid grid = new PlanningGrid(0.3);
+        String free = "...............";
+        grid.update(TestMaps.parse(free, free, free, free, free, free, free, ".......#.......",
+                free, free, free, free, free, free, free));
+        int obstacle = grid.indexOf(0.75, 0.75);
+        assertEquals(PlanningGrid.OCCUPIED, grid.classOf(obstacle));
+        for(int cell = 0; cell < grid.size(); cell++) {
+            if(cell == obstacle || grid.cellX(cell) >= 15 || grid.cellY(cell) >= 15) {
+                continue;
+            }
+            double distance = Math.hypot(grid.cellX(cell) - grid.cellX(obstacle), grid.cellY(cell) - grid.cellY(obstacle));
+            // The chamfer distance is within 6 % of the euclidean distance
+            if(distance < 3 * 0.94) {
+                assertEquals("cell at distance " + distance, PlanningGrid.INFLATED, grid.classOf(cell));
+                assertFalse(grid.isTraversable(cell));
+            } else if(distance > 3 * 1.06) {
+                assertEquals("cell at distance " + distance, PlanningGrid.FREE, grid.classOf(cell));
+                assertTrue(grid.isTraversable(cell));
+            }
+        }
+    }
+
+    @Test
+    public void markedObstacleMatchesNewSnapshot() {
+        Random random = new Random(1);
+        for(int trial = 0; trial < 50; trial++) {
+            OccupancyGrid map = TestMaps.random(random, 60, 6, true);
+            PlanningGrid marked = new PlanningGrid(0.3);
+            marked.update(map);
+            int cellX = 1 + random.nextInt(58);
+            int cellY = 1 + random.nextInt(58);
+            double x = (cellX + 0.5) * TestMaps.RESOLUTION;
+            double y = (cellY + 0.5) * TestMaps.RESOLUTION;
+            assertTrue(marked.markOccupied(x, y));
+
+            map.addLogOdds(cellX, cellY, 2 * OccupancyGrid.LOG_ODDS_MAX);
+            PlanningGrid updated = new PlanningGrid(0.3);
+            updated.update(map);
+            for(int cell = 0; cell < updated.size(); cell++) {
+                assertEquals("cell " + cell + " in trial " + trial, updated.classOf(cell), marked.classOf(cell));
+            }
+        }
+    }
+
+    @Test
+    public void windowMatchesWholeMap() {
+        Random random = new Random(3);
+        for(int trial = 0; trial < 20; trial++) {
+            // The map spans three tiles in each direction
+            OccupancyGrid map = TestMaps.random(random, 150, 20, true);
+            PlanningGrid whole = new PlanningGrid(0.3);
+            whole.update(map);
+            int minX = 10 + random.nextInt(60);
+            int minY = 10 + random.nextInt(60);
+            int maxX = minX + random.nextInt(70);
+            int maxY = minY + random.nextInt(70);
+            PlanningGrid window = new PlanningGrid(0.3);
+            window.update(map, minX, minY, maxX, maxY);
+            assertFalse(window.coversMap());
+            assertTrue(window.size() < whole.size());
+            for(int cellY = minY; cellY <= maxY; cellY++) {
+                for(int cellX = minX; cellX <= maxX; cellX++) {
+                    double x = (cellX + 0.5) * TestMaps.RESOLUTION;
+                    double y = (cellY + 0.5) * TestMaps.RESOLUTION;
+                    assertEquals("cell " + cellX + ", " + cellY + " in trial " + trial,
+                            whole.classOf(whole.indexOf(x, y)), window.classOf(window.indexOf(x, y)));
+                }
+            }
+            // Obstacles beyond the snapshot are missing, so the robot must not enter its edge
+            for(int cell = 0; cell < window.size(); cell++) {
+                if(window.cellX(cell) == 0 || window.cellY(cell) == 0 || window.cellX(cell) == window.getWidth() - 1
+                        || window.cellY(cell) == window.getHeight() - 1) {
+                    assertFalse(window.isTraversable(cell));
+                }
+            }
+            // A window that covers the map gives the same snapshot as the whole map
+            window.update(map, -10, -10, 200, 200);
+            assertTrue(window.coversMap());
+            assertEquals(whole.size(), window.size());
+            for(int cell = 0; cell < whole.size(); cell++) {
+                assertEquals(whole.classOf(cell), window.classOf(cell));
+            }
+        }
+    }
+
+    @Test
+    public void collectsChangedCells() {
+        PlanningGrid grid = new PlanningGrid(TestMaps.ROBOT_RADIUS);
+        grid.update(TestMaps.parse(
+                ".......",
+                ".......",
+                ".......",
+                ".......",
+                "......."));
+        assertEquals(0, grid.getChangedCount());
+        assertTrue(grid.markOccupied(0.35, 0.25));
+        // The obstacle and its 8 neighbours
+        assertEquals(9, grid.getChangedCount());
+        assertTrue(grid.markOccupied(0.35, 0.25));
+        assertEquals(9, grid.getChangedCount());
+        grid.clearChanges();
+        assertEquals(0, grid.getChangedCount());
+        assertFalse(grid.markOccupied(100, 0.25));
+    }
+
+    @Test
+    public void findsNearestTraversableCell() {
+        PlanningGrid grid = new PlanningGrid(0);
+        grid.update(TestMaps.parse(
+                "......",
+                "#####.",
+                "#####."));
+        int wall = grid.indexOf(0.05, 0.05);
+        assertEquals(-1, grid.nearestTraversable(wall, 1));
+        assertEquals(grid.indexOf(0.05, 0.25), grid.nearestTraversable(wall, 2));
+        int free = grid.indexOf(0.55, 0.05);
+        assertEquals(free, grid.nearestTraversable(free, 0));
+    }
+
+    @Test
+    public void lineOfSightStopsAtObstacles() {
+        PlanningGrid grid = new PlanningGrid(0);
+        grid.update(TestMaps.parse(
+                ".....",
+                "..#..",
+                "....."));
+        assertTrue(grid.lineOfSight(grid.indexOf(0.05, 0.05), grid.indexOf(0.45, 0.05)));
+        assertFalse(grid.lineOfSight(grid.indexOf(0.05, 0.15), grid.indexOf(0.45, 0.15)));
+        assertFalse(grid.lineOfSight(grid.indexOf(0.05, 0.05), grid.indexOf(0.45, 0.25)));
+        assertTrue(grid.lineOfSight(grid.indexOf(0.05, 0.25), grid.indexOf(0.45, 0.25)));
+    }
+
+}
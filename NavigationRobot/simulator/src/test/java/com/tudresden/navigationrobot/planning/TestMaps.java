@@ -0,0 +1,114 @@
+package com.tudresden.navigationrobot.planning;
+
+import com.tudresden.navigationrobot.map.OccupancyGrid;
+
+import java.util.Random;
+
+/**
+ * Builds occupancy grids for the tests of the planners.
+ */
+final class TestMaps {
+
+    /**
+     * The edge length of a cell of the maps in meters.
+     */
+    static final double RESOLUTION = 0.1;
+
+    /**
+     * The radius of the robot in meters that the maps are inflated with, one and a half cells.
+     */
+    static final double ROBOT_RADIUS = 0.15;
+
+    private TestMaps() {}
+
+    /**
+     * Builds a map from rows of characters: '#' is occupied, '.' is free and ' ' is unknown. The
+     * first row has the highest y-index, so the map looks like it is drawn.
+     * @param rows the rows of the map, which must have the same length
+     * @return the occupancy grid
+     */
+    static OccupancyGrid parse(String... rows) {
+        OccupancyGrid map = new OccupancyGrid(RESOLUTION, OccupancyGrid.DEFAULT_MEMORY_BUDGET, null);
+        for(int row = 0; row < rows.length; row++) {
+            int cellY = rows.length - 1 - row;
+            for(int cellX = 0; cellX < rows[row].length(); cellX++) {
+                char c = rows[row].charAt(cellX);
+                if(c == '#') {
+                    map.addLogOdds(cellX, cellY, OccupancyGrid.LOG_ODDS_MAX);
+                } else if(c == '.') {
+                    map.addLogOdds(cellX, cellY, OccupancyGrid.LOG_ODDS_MIN);
+                }
+            }
+        }
+        return map;
+    }
+
+    /**
+     * Builds a free square with a wall around it and random walls inside.
+     * @param random the random numbers
+     * @param size the edge length of the square in cells
+     * @param walls the number of walls inside
+     * @param unknown true if some patches of the square are left unknown
+     * @return the occupancy grid
+     */
+    static OccupancyGrid random(Random random, int size, int walls, boolean unknown) {
+        OccupancyGrid map = new OccupancyGrid(RESOLUTION, OccupancyGrid.DEFAULT_MEMORY_BUDGET, null);
+        boolean[] blocked = new boolean[size * size];
+        for(int i = 0; i < size; i++) {
+            blocked[i] = true;
+            blocked[(size - 1) * size + i] = true;
+            blocked[i * size] = true;
+            blocked[i * size + size - 1] = true;
+        }
+        for(int wall = 0; wall < walls; wall++) {
+            int x = random.nextInt(size);
+            int y = random.nextInt(size);
+            boolean horizontal = random.nextBoolean();
+            int length = size / 8 + random.nextInt(size / 3);
+            for(int i = 0; i < length && x < size && y < size; i++) {
+                blocked[y * size + x] = true;
+                if(horizontal) {
+                    x++;
+                } else {
+                    y++;
+                }
+            }
+        }
+        boolean[] hidden = new boolean[size * size];
+        if(unknown) {
+            for(int patch = 0; patch < 3; patch++) {
+                int x0 = random.nextInt(size);
+                int y0 = random.nextInt(size);
+                int edge = size / 10 + random.nextInt(size / 5);
+                for(int y = y0; y < Math.min(size, y0 + edge); y++) {
+                    for(int x = x0; x < Math.min(size, x0 + edge); x++) {
+                        hidden[y * size + x] = true;
+                    }
+                }
+            }
+        }
+        for(int y = 0; y < size; y++) {
+            for(int x = 0; x < size; x++) {
+                if(blocked[y * size + x]) {
+                    map.addLogOdds(x, y, OccupancyGrid.LOG_ODDS_MAX);
+                } else if(!hidden[y * size + x]) {
+                    map.addLogOdds(x, y, OccupancyGrid.LOG_ODDS_MIN);
+                }
+            }
+        }
+        return map;
+    }
+
+    /**
+     * @return a random cell that the robot may enter
+     */
+    static int randomTraversable(Random random, PlanningGrid grid) {
+        while(true) {
+            int cell = random.nextInt(grid.size());
+            if(grid.isTraversable(cell)) {
+                return cell;
+            }
+        }
+    }
+
+}
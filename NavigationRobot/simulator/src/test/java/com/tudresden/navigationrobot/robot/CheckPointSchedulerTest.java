@@ -0,0 +1,226 @@
+package com.tudresden.navigationrobot.robot;
+
+import com.tudresden.navigationrobot.simulator.FloorPlan;
+import com.tudresden.navigationrobot.simulator.SimulatedBase;
+import com.tudresden.navigationrobot.simulator.SimulatedScheduler;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Drives the simulated base with checkpoints: the lookahead, truncating the plan, stopping and
+ * retrying when the robot is blocked.
+ */
+public class CheckPointSchedulerTest {
+
+    /**
+     * The largest distance in meters between the true position of the robot and a checkpoint that it
+     * has reached, which allows for the noise of the odometry.
+     */
+    private static final double TOLERANCE = 0.3;
+
+    /**
+     * A base that counts the commands before handing them to the simulated base.
+     */
+    private static class CountingBase implements RobotBase {
+
+        private final RobotBase mBase;
+
+        private int mAddedCount = 0;
+
+        private int mClearedCount = 0;
+
+        private CountingBase(RobotBase base) {
+            this.mBase = base;
+        }
+
+        @Override
+        public void setListener(Listener listener) {
+            mBase.setListener(listener);
+        }
+
+        @Override
+        public void addCheckPoint(float x, float y) {
+            mAddedCount++;
+            mBase.addCheckPoint(x, y);
+        }
+
+        @Override
+        public void addCheckPoint(float x, float y, float theta) {
+            mAddedCount++;
+            mBase.addCheckPoint(x, y, theta);
+        }
+
+        @Override
+        public void clearCheckPointsAndStop() {
+            mClearedCount++;
+            mBase.clearCheckPointsAndStop();
+        }
+
+        @Override
+        public void setVelocity(float linear, float angular) {
+            mBase.setVelocity(linear, angular);
+        }
+
+        @Override
+        public void cleanOriginalPoint() {
+            mBase.cleanOriginalPoint();
+        }
+
+        @Override
+        public void setOriginalPoint(Pose pose) {
+            mBase.setOriginalPoint(pose);
+        }
+
+        @Override
+        public Pose getOdometryPose() {
+            return mBase.getOdometryPose();
+        }
+
+        @Override
+        public void setUltrasonicObstacleAvoidanceEnabled(boolean enabled) {
+            mBase.setUltrasonicObstacleAvoidanceEnabled(enabled);
+        }
+
+        @Override
+        public void setUltrasonicObstacleAvoidanceDistance(float distance) {
+            mBase.setUltrasonicObstacleAvoidanceDistance(distance);
+        }
+    }
+
+    private SimulatedScheduler mScheduler;
+
+    private SimulatedBase mSimulatedBase;
+
+    private CountingBase mBase;
+
+    private CheckPointScheduler mCheckPoints;
+
+    /**
+     * The isLast flags of the checkpoints that were reached.
+     */
+    private List<Boolean> mArrivals = new ArrayList<>();
+
+    private int mFailureCount = 0;
+
+    @Before
+    public void setUp() {
+        // An empty room of 10 x 10 meters, the robot starts at the left wall and faces to the right
+        FloorPlan room = new FloorPlan();
+        room.addPolygon(new double[] {0, 0, 10, 0, 10, 10, 0, 10});
+        room.setStart(1, 5, 0);
+        mScheduler = new SimulatedScheduler();
+        mSimulatedBase = new SimulatedBase(mScheduler, room, 1);
+        mBase = new CountingBase(mSimulatedBase);
+        mCheckPoints = new CheckPointScheduler(mBase, mScheduler);
+        mCheckPoints.setListener(new CheckPointScheduler.Listener() {
+            @Override
+            public void onCheckPointArrived(Pose realPose, boolean isLast) {
+                mArrivals.add(isLast);
+            }
+
+            @Override
+            public void onCheckPointFailed() {
+                mFailureCount++;
+            }
+
+            @Override
+            public void onObstacleStateChanged(boolean appeared) {
+            }
+        });
+        mCheckPoints.resetOriginalPoint();
+        mBase.mClearedCount = 0;
+    }
+
+    @Test
+    public void reachesCheckPointsInOrder() {
+        mCheckPoints.addCheckPoint(1, 0);
+        mCheckPoints.addCheckPoint(2, 0);
+        mCheckPoints.addCheckPoint(3, 0);
+        mCheckPoints.addCheckPoint(3, 1);
+        mCheckPoints.addCheckPoint(3, 2);
+        // The rest waits until the base has reached the first checkpoints
+        assertEquals(CheckPointScheduler.LOOKAHEAD, mBase.mAddedCount);
+        assertEquals(5, mCheckPoints.getPendingCount());
+
+        mScheduler.runUntil(120000);
+        assertEquals(5, mBase.mAddedCount);
+        assertEquals(5, mArrivals.size());
+        for(int i = 0; i < 4; i++) {
+            assertFalse(mArrivals.get(i));
+        }
+        assertTrue(mArrivals.get(4));
+        assertEquals(0, mCheckPoints.getPendingCount());
+        assertEquals(5, mCheckPoints.getCompletedCount());
+        assertEquals(0, mCheckPoints.getRetryCount());
+        assertTrue(mCheckPoints.getAverageLatency() > 0);
+        assertTrue(mCheckPoints.getMaxLatency() >= mCheckPoints.getAverageLatency());
+        assertPosition(4, 7);
+    }
+
+    @Test
+    public void truncateKeepsFirstCheckPoints() {
+        for(int i = 1; i <= 6; i++) {
+            mCheckPoints.addCheckPoint(i, 0);
+        }
+        // Only queued checkpoints are dropped, so the base keeps its checkpoints
+        mCheckPoints.truncate(4);
+        assertEquals(4, mCheckPoints.getPendingCount());
+        assertEquals(0, mBase.mClearedCount);
+        // The base has checkpoints that are dropped, so they are cleared and the kept one is set again
+        mCheckPoints.truncate(1);
+        assertEquals(1, mCheckPoints.getPendingCount());
+        assertEquals(1, mBase.mClearedCount);
+        assertEquals(CheckPointScheduler.LOOKAHEAD + 1, mBase.mAddedCount);
+
+        mScheduler.runUntil(60000);
+        assertEquals(1, mArrivals.size());
+        assertTrue(mArrivals.get(0));
+        assertPosition(2, 5);
+    }
+
+    @Test
+    public void stopDropsCheckPointsSilently() {
+        mCheckPoints.addCheckPoint(3, 0);
+        mCheckPoints.addCheckPoint(3, 3);
+        mScheduler.runUntil(1000);
+        mCheckPoints.stop();
+        assertEquals(0, mCheckPoints.getPendingCount());
+        mScheduler.runUntil(120000);
+        assertTrue(mArrivals.isEmpty());
+        assertEquals(0, mFailureCount);
+        assertFalse(mSimulatedBase.isMoving());
+        // The timeout was cancelled as well
+        assertEquals(0, mCheckPoints.getRetryCount());
+    }
+
+    @Test
+    public void failsAfterRetriesWhenBlocked() {
+        mCheckPoints.setObstacleAvoidance(true, 0.5f);
+        // Behind the wall on the right
+        mCheckPoints.addCheckPoint(12, 0);
+        mScheduler.runUntil(600000);
+        assertEquals(1, mFailureCount);
+        assertEquals(1, mCheckPoints.getFailedCount());
+        assertEquals(3, mCheckPoints.getRetryCount());
+        assertEquals(0, mCheckPoints.getPendingCount());
+        assertTrue(mArrivals.isEmpty());
+        assertEquals(0, mSimulatedBase.getCollisionCount());
+    }
+
+    /**
+     * Checks that the robot stands at a position, given in the coordinates of the room.
+     */
+    private void assertPosition(double x, double y) {
+        assertEquals(x, mSimulatedBase.getTrueX(), TOLERANCE);
+        assertEquals(y, mSimulatedBase.getTrueY(), TOLERANCE);
+    }
+
+}
@@ -1,21 +1,49 @@
 package com.tudresden.navigationrobot;
 
-import android.content.Context;
-import android.os.Handler;
-import android.util.Log;
-
-import com.segway.robot.algo.Pose2D;
-import com.segway.robot.algo.minicontroller.CheckPoint;
-import com.segway.robot.algo.minicontroller.CheckPointStateListener;
-import com.segway.robot.algo.minicontroller.ObstacleStateChangedListener;
-import com.segway.robot.sdk.base.bind.ServiceBinder;
-import com.segway.robot.sdk.locomotion.sbv.Base;
-import com.segway.robot.sdk.perception.sensor.Sensor;
+import com.tudresden.navigationrobot.control.PurePursuitFollower;
+import com.tudresden.navigationrobot.control.Trajectory;
+import com.tudresden.navigationrobot.localization.LoopCloser;
+import com.tudresden.navigationrobot.localization.ManhattanHeadingCorrector;
+import com.tudresden.navigationrobot.localization.ScanMatcher;
+import com.tudresden.navigationrobot.map.OccupancyGrid;
+import com.tudresden.navigationrobot.robot.CheckPointScheduler;
+import com.tudresden.navigationrobot.robot.Pose;
+import com.tudresden.navigationrobot.robot.PoseTracker;
+import com.tudresden.navigationrobot.robot.RangeSampler;
+import com.tudresden.navigationrobot.robot.RobotLog;
+import com.tudresden.navigationrobot.robot.RobotBase;
+import com.tudresden.navigationrobot.robot.RobotHead;
+import com.tudresden.navigationrobot.robot.RobotSensor;
+import com.tudresden.navigationrobot.robot.Scheduler;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
 import java.util.LinkedList;
+import java.util.ListIterator;
 
 /**
- * This class handles the exploration process.
+ * This class handles the exploration process. It owns the base, the sensor, the map and the
+ * position of the robot, while an ExplorationStrategy decides where the robot goes next.
+ * It doesn't depend on Android or the Segway SDK, so the same code runs on the robot and in the
+ * simulator. All interaction with the base goes through a CheckPointScheduler, which hands the
+ * events of the base to the scheduler, so the strategy only ever runs on the thread of the
+ * scheduler.
+ * The pose of the robot is taken from the odometry, which a PoseTracker fuses with the IMU of the
+ * base and keeps for the last seconds. The map pose is the estimated pose moved by a fixed offset
+ * that is only changed when a strategy corrects the pose, e.g. when the wall that the robot follows
+ * shows that the heading has drifted away from the axes of the building. The recorded positions
+ * form a pose graph, and when the robot walks along a wall that it has walked along before, the
+ * loop is closed and the positions and the map pose are moved to the optimized poses. The range
+ * readings are matched against the occupancy grid in batches before they are integrated into it,
+ * which corrects the map pose as well.
+ * <p>
+ * The map, the map pose and the state of the strategy can be saved as a session while the
+ * exploration runs. An interrupted exploration is resumed from the session: the robot is assumed to
+ * stand where the session was saved, and the scan matcher localizes it in the saved map from there.
  */
 public class Exploration {
 
@@ -25,105 +53,133 @@ public class Exploration {
     private static final String TAG = "Exploration";
 
     /**
-     * Indicates that a left turn is about to be performed.
+     * The maximum return value of the ultrasonic sensor. The ultrasonic sensor jas a range between
+     * 250 an 1500 millimeters. If no obstacle is detected within that range, the function
+     * getDistance() returns the value 1500.
      */
-    private static final String LEFT_TURN = "left turn";
+    static final float ULTRASONIC_MAX = 1.5f;
 
     /**
-     * Indicates that a right turn is about to be performed.
+     * The distance that the robot keeps to obstacles.
      */
-    private static final String RIGHT_TURN = "right turn";
+    static final float OBSTACLE_AVOIDANCE_DISTANCE = 1f;
 
     /**
-     * A delay of 300 milliseconds that is used for double-checking the ultrasonic distance.
+     * The edge length of a cell of the occupancy grid (5 centimeters).
      */
-    private static final int DELAY = 300;
+    private static final double MAP_RESOLUTION = 0.05;
 
     /**
-     * The maximum return value of the ultrasonic sensor. The ultrasonic sensor jas a range between
-     * 250 an 1500 millimeters. If no obstacle is detected within that range, the function
-     * getDistance() returns the value 1500.
+     * The largest angle in radians between a side sensor and the normal of the wall that it hits
+     * for which the distance across the wall is kept (20°).
      */
-    private static final float ULTRASONIC_MAX = 1.5f;
+    private static final double MAX_WALL_ANGLE = Math.toRadians(20);
 
     /**
-     * The distance that the robot keeps to obstacles.
+     * The longest distance in meters that the robot may have walked since the last reading of the
+     * wall for the distance across the wall to be kept for a recorded position.
+     */
+    private static final double MAX_WALL_TRAVEL = 1.0;
+
+    /**
+     * The first four bytes of a session, "NRSE".
      */
-    private static final float OBSTACLE_AVOIDANCE_DISTANCE = 1f;
+    private static final int SESSION_MAGIC = 0x4E525345;
 
     /**
-     * The minimal distance that the robot should have to the wall that it is following. If the
-     * robot gets closer to the wall than this threshold, the distance needs to be increased in
-     * order to avoid the robot getting stuck at the wall.
+     * The version of the format of a session.
      */
-    private static final float WALL_DISTANCE = 0.8f;
+    private static final int SESSION_VERSION = 1;
 
     /**
-     * Correction constant for increasing the robot's distance to the wall. When this constant is
-     * used as the y coordinate for setting a new checkpoint, the robot moves forward and slightly
-     * left.
+     * The scheduler for delaying the execution of code, e.g. in order to reduce the number of false
+     * positives in obstacle detection.
      */
-    private static final float WALL_DISTANCE_CORRECTION = 0.1f;
+    private Scheduler mScheduler;
 
     /**
-     * Correction constant for avoiding that the robot moves too far away from the wall when walking
-     * around a corner. When this constant is used as the y coordinate for setting a new checkpoint,
-     * the robot moves forward and slightly right.
+     * Hands the checkpoints to the base that is used for controlling the robots movements and
+     * waits for them.
      */
-    private static final float CORNER_CORRECTION = -0.25f;
+    private CheckPointScheduler mCheckPoints;
 
     /**
-     * The distance that the robot walks from one checkpoint to the next.
+     * Keeps the recent odometry poses, so the pose at the time of an event can be looked up.
      */
-    private static final float WALKING_DISTANCE = 0.5f;
+    private PoseTracker mPoseTracker;
 
     /**
-     * The distance that the robot walks when passing a corner. 1 meter needs to be walked in order
-     * bypass the obstacle avoidance distance of 1 meter. The further 35 centimeters make sure that
-     * the robot definitely passes the corner.
+     * The time in milliseconds at which the base reported the last checkpoint that was reached.
      */
-    private static final float CORNER_WALKING_DISTANCE = 1.35f;
+    private long mArrivalTime = 0;
 
     /**
-     * The theta value for adding a checkpoint that makes the robot rotate 90° to the left.
+     * Corrects the heading of the map with the walls that the robot follows.
      */
-    private static final float LEFT_90 = (float) (Math.PI / 2);
+    private ManhattanHeadingCorrector mHeadingCorrector = new ManhattanHeadingCorrector();
 
     /**
-     * The theta value for adding a checkpoint that makes the robot rotate 90° to the right.
+     * The distance in meters across the wall that the robot follows, measured by the last reading of
+     * a side sensor, or NaN if it doesn't follow a wall.
      */
-    private static final float RIGHT_90 = (float) -(Math.PI / 2);
+    private double mWallDistance = Double.NaN;
 
     /**
-     * A handler for delaying the execution of the code in #obstacleDetected() in order to reduce
-     * the number of false positives in obstacle detection.
+     * The direction in radians of the wall that the robot follows, in which it runs with the wall
+     * on the right.
      */
-    private Handler mHandler = new Handler();
+    private double mWallDirection = 0;
 
     /**
-     * The listener for the bind status of the base instance.
+     * The x-coordinate in the map where the robot was at the last reading of the wall.
      */
-    private ServiceBinder.BindStateListener mBaseBindStateListener;
+    private double mWallX = 0;
 
     /**
-     * The listener for the bind status of the sensor instance.
+     * The y-coordinate in the map where the robot was at the last reading of the wall.
      */
-    private ServiceBinder.BindStateListener mSensorBindStateListener;
+    private double mWallY = 0;
 
     /**
-     * The base instance that is used for controlling the robots movements.
+     * Keeps the recorded positions in a pose graph and closes loops.
      */
-    private Base mBase = null;
+    private LoopCloser mLoopCloser = new LoopCloser();
 
     /**
-     * The sensor instance that is used for actions related to the ultrasonic sensor.
+     * Collects the readings of the ultrasonic sensors and matches them against the occupancy grid
+     * before they are integrated into it.
      */
-    private Sensor mSensor = null;
+    private ScanMatcher mScanMatcher = new ScanMatcher();
 
     /**
-     * Indicates whether the robot is currently in the process of checking the wall on its right.
+     * Drives the robot along smoothed paths with velocity commands instead of checkpoints.
      */
-    private boolean mCheckingWall = false;
+    private PurePursuitFollower mFollower;
+
+    /**
+     * The sensor that is used for actions related to the ultrasonic sensor.
+     */
+    private RobotSensor mSensor;
+
+    /**
+     * Polls the sensor while the exploration is running and decides whether obstacles are real.
+     */
+    private RangeSampler mSampler;
+
+    /**
+     * The head of the robot or null if the strategies can't use it.
+     */
+    private RobotHead mHead = null;
+
+    /**
+     * The angle in radians by which the head is turned to the left of the base.
+     */
+    private float mHeadYaw = 0;
+
+    /**
+     * The strategy that decides where the robot goes next.
+     */
+    private ExplorationStrategy mStrategy;
 
     /**
      * Indicates whether after starting the exploration the first checkpoints are successfully reached.
@@ -133,26 +189,30 @@ public class Exploration {
     private boolean mReachedFirstCheckpoint = false;
 
     /**
-     * The current state of the robot.
+     * The odometry pose of the robot when the original point was last set.
      */
-    private State mState = State.START;
+    private Pose mOriginalPoint = null;
 
     /**
-     * The current orientation (respectively the direction of movement) of the robot. At the
-     * starting point the orientation is always FORWARD.
+     * The pose that the PoseTracker had estimated when the original point was last set. The map pose
+     * follows the estimated pose from there.
      */
-    private Orientation mOrientation = Orientation.FORWARD;
+    private Pose mOriginalEstimate = null;
 
     /**
-     * The current distance to the next obstacle in front of the robot. If no obstacle is detected,
-     * this value is set to 1500 (the maximum return value of getDistance()).
+     * The x-coordinate of the robot in the map when the original point was last set.
      */
-    private double mDistanceFront = 0.0;
+    private double mOriginX = 0.0;
 
     /**
-     * The current distance from the wall to the robot's right (the wall that the robot is following).
+     * The y-coordinate of the robot in the map when the original point was last set.
      */
-    private double mDistanceWall = 0.0;
+    private double mOriginY = 0.0;
+
+    /**
+     * The heading of the robot in the map when the original point was last set.
+     */
+    private double mOriginHeading = 0.0;
 
     /**
      * The current x-coordinate of the robot.
@@ -164,407 +224,898 @@ public class Exploration {
      */
     private double mYCoordinate = 0.0;
 
+    /**
+     * The current heading of the robot in radians. At the starting point the heading is always 0
+     * (Orientation.FORWARD).
+     */
+    private double mHeading = 0.0;
+
+    /**
+     * The time in milliseconds of the odometry pose that the current coordinates were computed from.
+     */
+    private long mPoseTime = 0;
+
     /**
      * All the positions that the robot has reached so far.
      */
     private LinkedList<Position> mPositions = new LinkedList<>();
 
     /**
-     * The application context.
+     * The journal that every change of the positions is written to or null.
+     */
+    private PositionJournal mJournal = null;
+
+    /**
+     * The occupancy grid that every ultrasonic reading is integrated into.
+     */
+    private OccupancyGrid mMap;
+
+    /**
+     * The directory that tiles of the occupancy grid are spilled to or null.
+     */
+    private File mMapSpillDirectory;
+
+    /**
+     * Receives the result of the exploration on the thread of the scheduler.
+     */
+    public interface ResultListener {
+
+        /**
+         * Called on the thread of the scheduler, so the map doesn't change while it is used.
+         * @param positions a copy of the positions that the robot has reached so far
+         * @param map the occupancy grid
+         */
+        void onResult(LinkedList<Position> positions, OccupancyGrid map);
+    }
+
+    /**
+     * Creates the exploration with the frontier-based strategy and registers it as the listener of
+     * the base.
+     * @param base the base that is used for controlling the robots movements
+     * @param sensor the sensor that is used for reading the distance to obstacles
+     * @param scheduler the scheduler that all events and delayed code are run on
+     * @param mapSpillDirectory the directory that tiles of the occupancy grid are spilled to or null
+     *                          to keep all tiles in memory
      */
-    private Context mContext;
+    public Exploration(RobotBase base, RobotSensor sensor, Scheduler scheduler, File mapSpillDirectory) {
+        this.mSensor = sensor;
+        this.mScheduler = scheduler;
+        this.mSampler = new RangeSampler(sensor, scheduler);
+        this.mMapSpillDirectory = mapSpillDirectory;
+        this.mMap = new OccupancyGrid(MAP_RESOLUTION, OccupancyGrid.DEFAULT_MEMORY_BUDGET, mapSpillDirectory);
+        this.mStrategy = new FrontierStrategy(this);
+        this.mCheckPoints = new CheckPointScheduler(base, scheduler);
+        this.mFollower = new PurePursuitFollower(base, scheduler);
+        this.mPoseTracker = new PoseTracker(base, sensor, scheduler);
+        mCheckPoints.setListener(new CheckPointScheduler.Listener() {
+            @Override
+            public void onCheckPointArrived(Pose realPose, boolean isLast) {
+                mArrivalTime = mCheckPoints.getLastArrivalTime();
+                // Strategies that queue several checkpoints are told about every single one, the
+                // checkpoints of #startExploration() only count once they are all reached
+                if(isLast || mReachedFirstCheckpoint) {
+                    arrivedAtCheckpoint();
+                }
+            }
+
+            @Override
+            public void onCheckPointFailed() {
+                if(!mReachedFirstCheckpoint) {
+                    RobotLog.d(TAG, "The robot didn't start moving, the exploration is stopped");
+                } else {
+                    mStrategy.checkpointFailed();
+                }
+            }
 
-    public Exploration(Context context) {
-        this.mContext = context;
+            @Override
+            public void onObstacleStateChanged(boolean appeared) {
+                if(appeared) {
+                    mStrategy.obstacleDetected();
+                }
+            }
+        });
     }
 
+    /**
+     * Must only be called on the thread of the scheduler, use #collectResult(ResultListener) from
+     * other threads.
+     * @return the positions that the robot has reached so far
+     */
     public LinkedList<Position> getPositions() {
         return mPositions;
     }
 
     /**
-     * Prepares the exploration process by configuring the automatic obstacle avoidance and setting
-     * the first checkpoints.
-     * When those checkpoints are reached, CheckPointStateListener is called and the next checkpoint
-     * is set and so on.
-     * If an obstacle appears, ObstacleStateChangeListener is called and the next checkpoint is set.
+     * Must only be called on the thread of the scheduler, use #collectResult(ResultListener) from
+     * other threads. The readings that wait for the scan matcher aren't in the grid yet, call
+     * #flushScanMatch() first where they are needed.
+     * @return the occupancy grid
      */
-    public void startExploration() {
-        mBase.clearCheckPointsAndStop();
-        mBase.cleanOriginalPoint();
-        Pose2D pos = mBase.getOdometryPose(-1);
-        mBase.setOriginalPoint(pos);
-        mBase.setUltrasonicObstacleAvoidanceEnabled(true);
-        mBase.setUltrasonicObstacleAvoidanceDistance(OBSTACLE_AVOIDANCE_DISTANCE);
-        // Sometimes it happens that the robot doesn't actually start moving after the start button
-        // is clicked. This check makes sure that the checkpoints are set again and again until the
-        // robot actually reached them. mReachedFirstCheckpoint is set to false as soon as those
-        // checkpoints are reached (see arrivedAtCheckpoint() case START).
-        while(!mReachedFirstCheckpoint) {
-            // It is necessary to set 2 checkpoints in the beginning
-            // With just one checkpoint, the OnCheckPointArrivedListener is not called correctly
-            mBase.addCheckPoint(0, 0);
-            mBase.addCheckPoint(0, 0);
+    public OccupancyGrid getMap() {
+        return mMap;
+    }
+
+    /**
+     * Matches the readings that wait for the scan matcher right away instead of once its batch is
+     * full and integrates them into the occupancy grid. The map pose may be moved by the match.
+     * Must only be called on the thread of the scheduler.
+     */
+    public void flushScanMatch() {
+        matchScan();
+    }
+
+    /**
+     * Hands the positions and the map to the listener once all events that were posted before have
+     * been handled, e.g. after #stopExploration().
+     * @param listener the listener that is called on the thread of the scheduler
+     */
+    public void collectResult(final ResultListener listener) {
+        mScheduler.post(new Runnable() {
+            @Override
+            public void run() {
+                flushScanMatch();
+                listener.onResult(new LinkedList<>(mPositions), mMap);
+            }
+        });
+    }
+
+    /**
+     * @return the scheduler that the checkpoints are handed to the base with, e.g. for its statistics
+     */
+    public CheckPointScheduler getCheckPointScheduler() {
+        return mCheckPoints;
+    }
+
+    /**
+     * @return the follower that drives the robot along paths, e.g. for its statistics
+     */
+    public PurePursuitFollower getFollower() {
+        return mFollower;
+    }
+
+    /**
+     * @return the tracker of the odometry poses, e.g. for its statistics
+     */
+    public PoseTracker getPoseTracker() {
+        return mPoseTracker;
+    }
+
+    /**
+     * @return the corrector of the heading, e.g. for its statistics
+     */
+    public ManhattanHeadingCorrector getHeadingCorrector() {
+        return mHeadingCorrector;
+    }
+
+    /**
+     * @return the loop closer of the recorded positions, e.g. for its statistics
+     */
+    public LoopCloser getLoopCloser() {
+        return mLoopCloser;
+    }
+
+    /**
+     * @return the scan matcher of the ultrasonic readings, e.g. for its statistics
+     */
+    public ScanMatcher getScanMatcher() {
+        return mScanMatcher;
+    }
+
+    /**
+     * @return the current pose in the coordinates of the map, e.g. for comparing it with the true
+     * pose in the simulator
+     */
+    public Pose getMapPose() {
+        Pose pose = mPoseTracker.getLatest();
+        if(mOriginalEstimate == null || pose == null) {
+            return new Pose((float) mXCoordinate, (float) mYCoordinate, (float) mHeading, mPoseTime);
         }
+        return new Pose((float) toMapX(pose), (float) toMapY(pose), (float) toMapHeading(pose), pose.getTimestamp());
     }
 
     /**
-     * Makes the robot stop its movements.
+     * @return the sampler of the distance sensors, e.g. for its statistics
      */
-    public void stopExploration() {
-        mBase.clearCheckPointsAndStop();
-    }
-
-    /**
-     * Sets a new checkpoint depending on the current state of the robot.
-     * The strategy for setting a new checkpoint is as follows:
-     * In the initial phase of the exploration process (before the first wall is found) the new
-     * checkpoint is set to make the robot walk forward in order to eventually reach the first wall.
-     * In case an obstacle was detected and the left turn was performed ({@see #obstacleDetected()}),
-     * the new checkpoint needs to be set to make the robot walk forward in order to reach the next
-     * wall.
-     * After every meter that the robot walks in search of the next wall, it needs to rotate 90° to
-     * the right in order to check if the wall on its right has ended.
-     * If the wall has not ended, the robot rotates back 90° to the left and continues to walk
-     * forward along the wall.
-     * If the wall has ended, the robot does not turn back but instead follows the new wall.
-     * Before walking around a corner, the distance to the corner is increased to make sure that the
-     * robot doesn't get stuck at the corner with its right wheel.
-     */
-    public void arrivedAtCheckpoint() {
-        mBase.clearCheckPointsAndStop();
-        mBase.cleanOriginalPoint();
-        Pose2D pos = mBase.getOdometryPose(-1);
-        mBase.setOriginalPoint(pos);
-        switch(mState) {
-            case START:
-                mReachedFirstCheckpoint = true;
-                // As long as no wall has been found yet, keep walking forward
-                mBase.addCheckPoint(WALKING_DISTANCE, 0);
-                break;
-            case WALKING:
-                if(mCheckingWall) {
-                    mCheckingWall = false;
-                }
-                updateCoordinates();
-                mState = State.CHECKING_WALL;
-                mDistanceFront = mSensor.getUltrasonicDistance().getDistance() / 1000; // convert mm to m
-                updateOrientation(RIGHT_TURN);
-                // Rotate 90° to the right to check the wall
-                mBase.addCheckPoint(0, 0, RIGHT_90);
-                break;
-            case CHECKING_WALL:
-                // In case after the right turn no obstacle is detected, that means that the wall
-                // next to the robot has ended and it needs to walk forward to follow the new wall.
-                // In case after the right turn an obstacle is detected, the ObstacleStateChangeListener
-                // is triggered (after the code in this switch case is executed) and the robot
-                // performs a left turn so that it looks forward again and keeps following the wall.
-                // The boolean mCheckingWall is only relevant for the second scenario, because in that
-                // case in the ObstacleStateChangeListener the coordinates are not supposed to be
-                // updated. mCheckingWall allows to distinguish between the following cases:
-                // 1. The robot is walking towards a new wall and an obstacle appears in front of it
-                // 2. An obstacle appears while checking the wall next to the robot
-                // In both cases the state of the robot is WALKING, but in the ObstacleStateChangeListener
-                // different things need to happen.
-                // Without setting the state to WALKING in this switch case, the robot would not continue
-                // walking if after the right turn no obstacle is found.
-                mCheckingWall = true;
-                mHandler.postDelayed(new Runnable() {
-                    public void run() {
-                        mDistanceWall = mSensor.getUltrasonicDistance().getDistance() / 1000;
-                        if(mDistanceWall == ULTRASONIC_MAX) {
-                            // No obstacle detected, this means the wall has ended and the robot needs
-                            // walk around a corner
-                            mState = State.CORNER_LEFT;
-                            updateOrientation(LEFT_TURN);
-                            mBase.addCheckPoint(0, 0, LEFT_90);
-                        } else {
-                            // In case the robot is further away from the wall than OBSTACLE_AVOIDANCE_DISTANCE
-                            // this code makes it approach the wall again.
-                            mState = State.WALKING;
-                            mBase.addCheckPoint(WALKING_DISTANCE, 0);
-                        }
-                    }
-                }, DELAY);
-                break;
-            case OBSTACLE_DETECTED:
-                mDistanceFront = mSensor.getUltrasonicDistance().getDistance() / 1000; // convert mm to m
-                if(mDistanceFront <= OBSTACLE_AVOIDANCE_DISTANCE) {
-                    // Obstacle right after obstacle --> Turn left
-                    updateOrientation(LEFT_TURN);
-                    mBase.addCheckPoint(0, 0, LEFT_90);
-                } else {
-                    mState = State.WALKING;
-                    if(mDistanceWall <= WALL_DISTANCE) {
-                        // Increase the distance to the wall to the robot's right
-                        mBase.addCheckPoint(WALKING_DISTANCE, WALL_DISTANCE_CORRECTION);
-                    } else {
-                        // Keep the distance to the wall to the robot's right
-                        mBase.addCheckPoint(WALKING_DISTANCE, 0);
-                    }
-                }
-                break;
-            case CORNER_LEFT:
-                // Increase distance to the corner to make sure that the robot doesn't get stuck with
-                // its right wheel when passing the corner
-                mDistanceFront = mSensor.getUltrasonicDistance().getDistance() / 1000; // convert mm to m
-                mState = State.CORNER_FORWARD;
-                mBase.addCheckPoint(WALKING_DISTANCE, 0);
-                break;
-            case CORNER_FORWARD:
-                mDistanceFront = mSensor.getUltrasonicDistance().getDistance() / 1000; // convert mm to m
-                updateCoordinates();
-                mState = State.CORNER_RIGHT;
-                updateOrientation(RIGHT_TURN);
-                mBase.addCheckPoint(0, 0, RIGHT_90);
-                break;
-            case CORNER_RIGHT:
-                mDistanceFront = mSensor.getUltrasonicDistance().getDistance() / 1000; // convert mm to m
-                // In case an obstacle appears it needs to be determined whether to increase distance
-                // Therefore, update mDistanceWall
-                mDistanceWall = mDistanceFront;
-                mState = State.CORNER_DONE;
-                // Walk around the corner
-                mBase.addCheckPoint(CORNER_WALKING_DISTANCE, CORNER_CORRECTION);
-                break;
-            case CORNER_DONE:
-                // Approach the new wall
-                mDistanceFront = mSensor.getUltrasonicDistance().getDistance() / 1000; // convert mm to m
-                updateCoordinates();
-                mState = State.START;
-                updateOrientation(RIGHT_TURN);
-                mBase.addCheckPoint(0, 0, RIGHT_90);
-            default:
-                // All possible cases are handled above
+    public RangeSampler getRangeSampler() {
+        return mSampler;
+    }
+
+    /**
+     * Lets the strategies use the head, e.g. for tracking the wall while walking. Must not be called
+     * while the exploration is running.
+     * @param head the head or null
+     */
+    public void setHead(RobotHead head) {
+        this.mHead = head;
+        mSampler.setHead(head);
+    }
+
+    /**
+     * Writes every change of the positions to a journal, starting with the positions so far. Must be
+     * called on the thread of the scheduler.
+     * @param journal the journal or null to stop writing to it
+     */
+    public void setJournal(PositionJournal journal) {
+        this.mJournal = journal;
+        if(journal != null && !mPositions.isEmpty()) {
+            journal.replaceAll(mPositions);
         }
     }
 
     /**
-     * Sets a new checkpoint to make the robot rotate 90° to the left in case an obstacle was detected.
+     * Replaces the strategy. Must not be called while the exploration is running.
+     * @param strategy the strategy that decides where the robot goes next
      */
-    public void obstacleDetected() {
-        // Delay the execution of the code for 300 milliseconds, then check if there really is an obstacle
-        mHandler.postDelayed(new Runnable() {
+    public void setStrategy(ExplorationStrategy strategy) {
+        this.mStrategy = strategy;
+    }
+
+    /**
+     * Prepares the exploration process by configuring the automatic obstacle avoidance and setting
+     * the first checkpoints.
+     * When those checkpoints are reached, the strategy is started. From then on the strategy is
+     * called whenever a checkpoint is reached or an obstacle appears.
+     */
+    public void startExploration() {
+        mScheduler.post(new Runnable() {
+            @Override
             public void run() {
-                if(mSensor.getUltrasonicDistance().getDistance() / 1000 <= OBSTACLE_AVOIDANCE_DISTANCE) {
-                    // The robot detects an obstacle before it reaches the current checkpoint. When an obstacle
-                    // is detected, a new checkpoint is set for the left turn but the robot still tries to reach
-                    // the last checkpoint first. That checkpoint obviously can't be reached, because there is an
-                    // obstacle in front of the robot, so the robot just stops walking completely.
-                    // Therefore the last checkpoint needs to be deleted before the new one is set.
-                    mBase.clearCheckPointsAndStop();
-                    mBase.cleanOriginalPoint();
-                    Pose2D pos = mBase.getOdometryPose(-1);
-                    mBase.setOriginalPoint(pos);
-                    if(mState == State.START) {
-                        // This is the first obstacle that the robot has detected (the coordinates are 0.0)
-                        Log.d(TAG, "State: " + mState +
-                                " | Orientation: " + mOrientation +
-                                " | Position: (" + mXCoordinate + " , " + mYCoordinate + ")");
-                        mPositions.add(new Position(mXCoordinate, mYCoordinate, mOrientation));
-                        mDistanceWall = mSensor.getUltrasonicDistance().getDistance() / 1000;
-                        mState = State.OBSTACLE_DETECTED;
-                        updateOrientation(LEFT_TURN);
-                        mBase.addCheckPoint(0, 0, LEFT_90);
-                        // When the turn is finished, {@see #arrivedAtCheckpoint()} is called and the robot walks
-                        // forward to the next wall
-                    } else if(mState == State.WALKING) {
-                        mState = State.OBSTACLE_DETECTED;
-                        // Concerning mCheckingWall see explanation in arrivedAtCheckpoint() (case CHECKING_WALL)
-                        if(!mCheckingWall) {
-                            updateCoordinates();
-                        } else {
-                            mCheckingWall = false;
-                        }
-                        updateOrientation(LEFT_TURN);
-                        mBase.addCheckPoint(0, 0, LEFT_90);
-                        // When the turn is finished, {@see #arrivedAtCheckpoint()} is called and the robot walks
-                        // forward to the next wall
-                    } else if(mState == State.CORNER_FORWARD) {
-                        mState = State.CORNER_RIGHT;
-                        updateOrientation(RIGHT_TURN);
-                        mBase.addCheckPoint(0, 0, RIGHT_90);
-                    } else if(mState == State.CORNER_RIGHT) {
-                        mState = State.OBSTACLE_DETECTED;
-                        updateOrientation(LEFT_TURN);
-                        mBase.addCheckPoint(0, 0, LEFT_90);
-                    } else if(mState == State.CORNER_DONE) {
-                        mState = State.OBSTACLE_DETECTED;
-                        updateCoordinates();
-                        updateOrientation(LEFT_TURN);
-                        mBase.addCheckPoint(0, 0, LEFT_90);
-                    } else if(mState == State.OBSTACLE_DETECTED) {
-                        mState = State.OBSTACLE_DETECTED;
-                        updateOrientation(LEFT_TURN);
-                        mBase.addCheckPoint(0, 0, LEFT_90);
-                    }
-                }
-            }
-        }, DELAY);
-    }
-
-    /**
-     * Sets the x- or y-coordinate according to the current orientation and state of the robot.
-     */
-    public void updateCoordinates() {
-        if(mState == State.WALKING || mState == State.CORNER_FORWARD) {
-            switch(mOrientation) {
-                case FORWARD:
-                    mXCoordinate += WALKING_DISTANCE;
-                    break;
-                case BACKWARD:
-                    mXCoordinate -= WALKING_DISTANCE;
-                    break;
-                case LEFT:
-                    mYCoordinate += WALKING_DISTANCE;
-                    break;
-                case RIGHT:
-                    mYCoordinate -= WALKING_DISTANCE;
-                    break;
-                default:
-                    // All possible cases are handled above
+                start();
             }
-        } else if(mState == State.OBSTACLE_DETECTED) {
-            switch(mOrientation) {
-                case FORWARD:
-                    mXCoordinate += (mDistanceFront - mSensor.getUltrasonicDistance().getDistance() / 1000); // convert mm to m
-                    break;
-                case BACKWARD:
-                    mXCoordinate -= (mDistanceFront - mSensor.getUltrasonicDistance().getDistance() / 1000); // convert mm to m
-                    break;
-                case LEFT:
-                    mYCoordinate += (mDistanceFront - mSensor.getUltrasonicDistance().getDistance() / 1000); // convert mm to m
-                    break;
-                case RIGHT:
-                    mYCoordinate -= (mDistanceFront - mSensor.getUltrasonicDistance().getDistance() / 1000); // convert mm to m
-                    break;
-                default:
-                    // All possible cases are handled above
+        });
+    }
+
+    /**
+     * Continues an exploration that was stopped, e.g. because the services of the robot were
+     * unbound, or that was read with #readSession(DataInputStream, LinkedList). The odometry starts
+     * anew, so the robot is assumed to stand at the last pose of the map. The scan matcher corrects
+     * that pose against the map with the first readings, in case the robot was pushed aside a little.
+     */
+    public void resumeExploration() {
+        mScheduler.post(new Runnable() {
+            @Override
+            public void run() {
+                // The odometry of the base starts from zero once it is bound again
+                mOriginalPoint = null;
+                mOriginalEstimate = null;
+                mPoseTracker.clear();
+                start();
             }
-        } else if(mState == State.CORNER_DONE) {
-            switch (mOrientation) {
-                case FORWARD:
-                    mXCoordinate += CORNER_WALKING_DISTANCE;
-                    break;
-                case BACKWARD:
-                    mXCoordinate -= CORNER_WALKING_DISTANCE;
-                    break;
-                case LEFT:
-                    mYCoordinate += CORNER_WALKING_DISTANCE;
-                    break;
-                case RIGHT:
-                    mYCoordinate -= CORNER_WALKING_DISTANCE;
-                    break;
-                default:
-                    // All possible cases are handled above
+        });
+    }
+
+    /**
+     * Starts the robot with the checkpoints that are set until it actually moves.
+     */
+    private void start() {
+        mCheckPoints.setObstacleAvoidance(true, OBSTACLE_AVOIDANCE_DISTANCE);
+        mPoseTracker.start();
+        mSampler.start();
+        mReachedFirstCheckpoint = false;
+        resetOriginalPoint();
+        // Sometimes it happens that the robot doesn't actually start moving after the start
+        // button is clicked. The CheckPointScheduler sets the checkpoints again until the
+        // robot actually reached them.
+        // It is necessary to set 2 checkpoints in the beginning
+        // With just one checkpoint, the OnCheckPointArrivedListener is not called correctly
+        mCheckPoints.addCheckPoint(0, 0);
+        mCheckPoints.addCheckPoint(0, 0);
+    }
+
+    /**
+     * Makes the robot stop its movements.
+     */
+    public void stopExploration() {
+        mScheduler.post(new Runnable() {
+            @Override
+            public void run() {
+                // The pose is kept for #resumeExploration()
+                updatePoseFromOdometry();
+                mFollower.stop();
+                mCheckPoints.stop();
+                mSampler.stop();
+                mPoseTracker.stop();
+                mStrategy.stop();
             }
+        });
+    }
+
+    /**
+     * Writes the session of the exploration: the map pose, the state of the strategy and the
+     * occupancy grid. The positions aren't part of it, they are in the journal. Must be called on
+     * the thread of the scheduler.
+     * @param out the stream that the session is written to
+     * @throws IOException if the stream couldn't be written
+     */
+    public void writeSession(DataOutputStream out) throws IOException {
+        updatePoseFromOdometry();
+        flushScanMatch();
+        out.writeInt(SESSION_MAGIC);
+        out.writeInt(SESSION_VERSION);
+        out.writeDouble(mXCoordinate);
+        out.writeDouble(mYCoordinate);
+        out.writeDouble(mHeading);
+        // The state is only read back by the same strategy, so it is skipped otherwise
+        ByteArrayOutputStream state = new ByteArrayOutputStream();
+        mStrategy.writeState(new DataOutputStream(state));
+        out.writeUTF(mStrategy.getClass().getName());
+        out.writeInt(state.size());
+        state.writeTo(out);
+        mMap.writeTo(out);
+    }
+
+    /**
+     * Reads a session that #writeSession(DataOutputStream) has written, so the exploration
+     * continues with #resumeExploration(). Must be called on the thread of the scheduler before
+     * the exploration is started.
+     * @param in the stream that the session is read from
+     * @param positions the positions that the interrupted exploration had reached, from its journal
+     * @throws IOException if the stream couldn't be read or doesn't start with a session of a
+     * supported version
+     */
+    public void readSession(DataInputStream in, LinkedList<Position> positions) throws IOException {
+        if(in.readInt() != SESSION_MAGIC) {
+            throw new IOException("Not a session of an exploration");
         }
-        Log.d(TAG, "State: " + mState +
-                " | Orientation: " + mOrientation +
-                " | Position: (" + mXCoordinate + " , " + mYCoordinate + ")");
-        mPositions.add(new Position(mXCoordinate, mYCoordinate, mOrientation));
-    }
-
-    /**
-     * Sets the orientation of the robot. The new orientation of the robot depends on whether a left
-     * or a right turn is to be performed.
-     * @param direction indicates whether the turn to be performed is a left turn or a right turn
-     */
-    public void updateOrientation(String direction) {
-        if(direction.equals(LEFT_TURN)) {
-            switch(mOrientation) {
-                case FORWARD:
-                    mOrientation = Orientation.LEFT;
-                    break;
-                case BACKWARD:
-                    mOrientation = Orientation.RIGHT;
-                    break;
-                case LEFT:
-                    mOrientation = Orientation.BACKWARD;
-                    break;
-                case RIGHT:
-                    mOrientation = Orientation.FORWARD;
-                    break;
-                default:
-                    // All possible cases are handled above
-            }
+        int version = in.readInt();
+        if(version != SESSION_VERSION) {
+            throw new IOException("Unsupported session version " + version);
+        }
+        double x = in.readDouble();
+        double y = in.readDouble();
+        double heading = in.readDouble();
+        String strategy = in.readUTF();
+        byte[] state = new byte[in.readInt()];
+        in.readFully(state);
+        OccupancyGrid map = OccupancyGrid.readFrom(in, OccupancyGrid.DEFAULT_MEMORY_BUDGET, mMapSpillDirectory);
+        if(strategy.equals(mStrategy.getClass().getName())) {
+            mStrategy.readState(new DataInputStream(new ByteArrayInputStream(state)));
         } else {
-            switch(mOrientation) {
-                case FORWARD:
-                    mOrientation = Orientation.RIGHT;
-                    break;
-                case BACKWARD:
-                    mOrientation = Orientation.LEFT;
-                    break;
-                case LEFT:
-                    mOrientation = Orientation.FORWARD;
-                    break;
-                case RIGHT:
-                    mOrientation = Orientation.BACKWARD;
-                    break;
-                default:
-                    // All possible cases are handled above
-            }
+            RobotLog.d(TAG, "The session was saved by " + strategy + ", its state is dropped");
+        }
+        // The files that the replaced grid has spilled aren't needed anymore
+        mMap.close();
+        mMap = map;
+        mXCoordinate = x;
+        mYCoordinate = y;
+        mHeading = heading;
+        mOriginalPoint = null;
+        mOriginalEstimate = null;
+        // The earlier positions have no poses in the graph, so loops are only closed with new ones
+        mLoopCloser.clear();
+        mPositions = positions;
+        if(mJournal != null) {
+            mJournal.replaceAll(mPositions);
         }
     }
 
     /**
-     * Initializes the listeners for the base instance and the sensor instance. For the base
-     * instance the CheckPointStateListener is registered and the ObstacleStateChangeListener is registered.
+     * Hands a reached checkpoint to the strategy. The first checkpoints that are reached were set
+     * by #startExploration(), so the strategy is started instead.
      */
-    public void initListeners() {
-        mBaseBindStateListener = new ServiceBinder.BindStateListener() {
-            @Override
-            public void onBind() {
-                mBase.setControlMode(Base.CONTROL_MODE_NAVIGATION);
-                mBase.setOnCheckPointArrivedListener(new CheckPointStateListener() {
-                    @Override
-                    public void onCheckPointArrived(final CheckPoint checkPoint, Pose2D realPose, boolean isLast) {
-                        arrivedAtCheckpoint();
-                    }
-
-                    @Override
-                    public void onCheckPointMiss(CheckPoint checkPoint, Pose2D realPose, boolean isLast, int reason) {}
-                });
-                mBase.setObstacleStateChangeListener(new ObstacleStateChangedListener() {
-                    @Override
-                    public void onObstacleStateChanged(int ObstacleAppearance) {
-                        if(ObstacleAppearance == ObstacleStateChangedListener.OBSTACLE_APPEARED) {
-                            obstacleDetected();
-                        }
-                    }
-                });
+    private void arrivedAtCheckpoint() {
+        if(!mReachedFirstCheckpoint) {
+            mReachedFirstCheckpoint = true;
+            resetOriginalPoint();
+            mStrategy.start();
+        } else {
+            mStrategy.arrivedAtCheckpoint();
+        }
+    }
+
+    /**
+     * Deletes all checkpoints, stops the robot and sets the original point to the current pose of
+     * the robot. New checkpoints are relative to that pose. The coordinates are brought up to date
+     * with the odometry first, so the map pose stays continuous.
+     */
+    void resetOriginalPoint() {
+        mFollower.stop();
+        updatePoseFromOdometry();
+        mOriginalPoint = mCheckPoints.resetOriginalPoint();
+        mOriginalEstimate = mPoseTracker.sample();
+        mOriginX = mXCoordinate;
+        mOriginY = mYCoordinate;
+        mOriginHeading = mHeading;
+    }
+
+    /**
+     * Adds a checkpoint relative to the original point.
+     * @param x the distance in meters to walk forward
+     * @param y the distance in meters to walk to the left
+     */
+    void addCheckPoint(float x, float y) {
+        mCheckPoints.addCheckPoint(x, y);
+    }
+
+    /**
+     * Adds a checkpoint relative to the original point.
+     * @param x the distance in meters to walk forward
+     * @param y the distance in meters to walk to the left
+     * @param theta the angle in radians by which the robot is turned to the left at the checkpoint
+     */
+    void addCheckPoint(float x, float y, float theta) {
+        mCheckPoints.addCheckPoint(x, y, theta);
+    }
+
+    /**
+     * Adds a checkpoint at a position of the map. The position is converted to the coordinates of
+     * the original point, so it stays right while the robot passes the checkpoints before it.
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     */
+    void addCheckPointAt(double x, double y) {
+        double cos = Math.cos(mOriginHeading);
+        double sin = Math.sin(mOriginHeading);
+        mCheckPoints.addCheckPoint((float) (cos * (x - mOriginX) + sin * (y - mOriginY)),
+                (float) (-sin * (x - mOriginX) + cos * (y - mOriginY)));
+    }
+
+    /**
+     * Drives the robot along a path without stopping at the waypoints. The corners of the path are
+     * rounded off and the robot drives from its current pose with velocity commands. A path that is
+     * currently followed is replaced, the robot keeps moving. The original point is kept, so
+     * #updatePoseFromOdometry() tracks the position on the way.
+     * @param path the waypoints in the coordinates of the map, without the current position
+     * @param listener the listener that is told about the progress on the thread of the scheduler
+     */
+    void followPath(LinkedList<Position> path, PurePursuitFollower.Listener listener) {
+        if(mOriginalPoint == null) {
+            resetOriginalPoint();
+        }
+        Pose pose = mCheckPoints.getOdometryPose();
+        if(pose == null || mOriginalPoint == null) {
+            // The base can't be read, e.g. because its service was unbound while stopping
+            return;
+        }
+        double[] x = new double[path.size() + 1];
+        double[] y = new double[path.size() + 1];
+        x[0] = pose.getX();
+        y[0] = pose.getY();
+        // From the map to the robot at the original point and from there to the odometry
+        double cos = Math.cos(mOriginHeading);
+        double sin = Math.sin(mOriginHeading);
+        double originalCos = Math.cos(mOriginalPoint.getTheta());
+        double originalSin = Math.sin(mOriginalPoint.getTheta());
+        int i = 1;
+        for(Position waypoint : path) {
+            double forward = cos * (waypoint.getX() - mOriginX) + sin * (waypoint.getY() - mOriginY);
+            double left = -sin * (waypoint.getX() - mOriginX) + cos * (waypoint.getY() - mOriginY);
+            x[i] = mOriginalPoint.getX() + originalCos * forward - originalSin * left;
+            y[i] = mOriginalPoint.getY() + originalSin * forward + originalCos * left;
+            i++;
+        }
+        mFollower.follow(Trajectory.fromPolyline(x, y, mFollower.getVelocity()), listener);
+    }
+
+    /**
+     * @return true while the robot follows a path
+     */
+    boolean isFollowingPath() {
+        return mFollower.isFollowing();
+    }
+
+    /**
+     * @return the number of checkpoints that the robot hasn't reached yet
+     */
+    int getPendingCheckPointCount() {
+        return mCheckPoints.getPendingCount();
+    }
+
+    /**
+     * Deletes all but the first pending checkpoints. The original point is kept.
+     * @param keep the number of checkpoints to keep
+     */
+    void truncateCheckPoints(int keep) {
+        mCheckPoints.truncate(keep);
+    }
+
+    /**
+     * Sets the position of the robot to the pose that the odometry has measured since the original
+     * point was set. Useful when the robot was stopped before it reached its checkpoint or when it
+     * passes checkpoints without stopping, so it faces wherever it turned on the way. The movement
+     * is added to the position at the original point, which isn't changed.
+     */
+    void updatePoseFromOdometry() {
+        Pose pose = mPoseTracker.sample();
+        if(mOriginalEstimate == null || pose == null) {
+            return;
+        }
+        mXCoordinate = toMapX(pose);
+        mYCoordinate = toMapY(pose);
+        mHeading = toMapHeading(pose);
+        mPoseTime = pose.getTimestamp();
+    }
+
+    /**
+     * Looks up where the robot was at a time in the recent past, e.g. when it passed a checkpoint
+     * without stopping. The pose is interpolated between the odometry poses that were tracked.
+     * @param time the time in milliseconds on the clock of the scheduler
+     * @return the position in the coordinates of the map, or the current position if the time
+     * isn't tracked
+     */
+    Position getPositionAt(long time) {
+        Pose pose = mPoseTracker.getPoseAt(time);
+        if(mOriginalEstimate == null || pose == null) {
+            return getPosition();
+        }
+        return new Position(toMapX(pose), toMapY(pose), Orientation.closestTo(toMapHeading(pose)), time);
+    }
+
+    /**
+     * @return the current position in the coordinates of the map, stamped with the time of the
+     * odometry pose that it was computed from
+     */
+    Position getPosition() {
+        return new Position(mXCoordinate, mYCoordinate, Orientation.closestTo(mHeading), mPoseTime);
+    }
+
+    /**
+     * @return the time in milliseconds at which the base reported the last checkpoint that was
+     * reached, on the clock of the scheduler
+     */
+    long getArrivalTime() {
+        return mArrivalTime;
+    }
+
+    /**
+     * @return the x-coordinate in the map of an estimated pose, through the original point
+     */
+    private double toMapX(Pose pose) {
+        double forward = forwardOf(pose);
+        double left = leftOf(pose);
+        return mOriginX + Math.cos(mOriginHeading) * forward - Math.sin(mOriginHeading) * left;
+    }
+
+    /**
+     * @return the y-coordinate in the map of an estimated pose, through the original point
+     */
+    private double toMapY(Pose pose) {
+        double forward = forwardOf(pose);
+        double left = leftOf(pose);
+        return mOriginY + Math.sin(mOriginHeading) * forward + Math.cos(mOriginHeading) * left;
+    }
+
+    /**
+     * @return the heading in the map of an estimated pose in radians between -pi and pi
+     */
+    private double toMapHeading(Pose pose) {
+        return Math.IEEEremainder(mOriginHeading + pose.getTheta() - mOriginalEstimate.getTheta(), 2 * Math.PI);
+    }
+
+    /**
+     * @return the distance in meters that the pose lies ahead of the original point
+     */
+    private double forwardOf(Pose pose) {
+        return Math.cos(mOriginalEstimate.getTheta()) * (pose.getX() - mOriginalEstimate.getX())
+                + Math.sin(mOriginalEstimate.getTheta()) * (pose.getY() - mOriginalEstimate.getY());
+    }
+
+    /**
+     * @return the distance in meters that the pose lies to the left of the original point
+     */
+    private double leftOf(Pose pose) {
+        return -Math.sin(mOriginalEstimate.getTheta()) * (pose.getX() - mOriginalEstimate.getX())
+                + Math.cos(mOriginalEstimate.getTheta()) * (pose.getY() - mOriginalEstimate.getY());
+    }
+
+    /**
+     * Tells the heading corrector that the robot follows another wall from now on, so the points of
+     * the last one are dropped.
+     */
+    void startWall() {
+        mHeadingCorrector.startWall();
+        mWallDistance = Double.NaN;
+    }
+
+    /**
+     * Adds a reading of a side sensor that hit the wall that the robot follows to the heading
+     * corrector, at the latest pose. If the wall shows that the heading has drifted, the map pose
+     * is turned around the current position. The distance across the wall and its direction are kept
+     * for the next recorded position.
+     * @param distance the distance in meters to the wall
+     * @param angle the angle in radians of the sensor to the left of the base
+     */
+    void observeWall(double distance, double angle) {
+        mWallDistance = Double.NaN;
+        Pose pose = mPoseTracker.getLatest();
+        if(mOriginalEstimate == null || pose == null) {
+            return;
+        }
+        double x = toMapX(pose);
+        double y = toMapY(pose);
+        double heading = toMapHeading(pose) + angle;
+        double axis = mHeadingCorrector.getAxis();
+        double offset = Double.isNaN(axis) ? 0 : Math.IEEEremainder(heading - axis, Math.PI / 2);
+        if(Math.abs(offset) <= MAX_WALL_ANGLE) {
+            // The robot doesn't walk exactly parallel to the wall, so the ray hits it at an angle
+            mWallDistance = distance * Math.cos(offset);
+            mWallDirection = heading - offset + Math.PI / 2;
+            mWallX = x;
+            mWallY = y;
+        }
+        double correction = mHeadingCorrector.addPoint(x + distance * Math.cos(heading), y + distance * Math.sin(heading));
+        if(correction != 0) {
+            moveMapPose(correction, x, y, 0, 0);
+            RobotLog.d(TAG, "Heading corrected by " + Math.toDegrees(correction) + " degrees at (" + x + " , " + y + ")");
+        }
+    }
+
+    /**
+     * Turns the map pose around a position and then moves it. The original point is moved along
+     * with it, so the checkpoints relative to it stay where they are, and so are the readings that
+     * wait for the scan matcher.
+     * @param angle the angle in radians to turn to the left
+     * @param x the x-coordinate of the center of the rotation
+     * @param y the y-coordinate
+     * @param dx the distance to move along the x-axis after the rotation
+     * @param dy the distance to move along the y-axis
+     */
+    private void moveMapPose(double angle, double x, double y, double dx, double dy) {
+        double cos = Math.cos(angle);
+        double sin = Math.sin(angle);
+        double originX = mOriginX - x;
+        double originY = mOriginY - y;
+        mOriginX = x + cos * originX - sin * originY + dx;
+        mOriginY = y + sin * originX + cos * originY + dy;
+        mOriginHeading += angle;
+        double currentX = mXCoordinate - x;
+        double currentY = mYCoordinate - y;
+        mXCoordinate = x + cos * currentX - sin * currentY + dx;
+        mYCoordinate = y + sin * currentX + cos * currentY + dy;
+        mHeading = Math.IEEEremainder(mHeading + angle, 2 * Math.PI);
+        mScanMatcher.moveReadings(angle, x, y, dx, dy);
+    }
+
+    /**
+     * @return the distance in meters that the robot has walked forward since the original point was
+     * set, according to the odometry
+     */
+    double getDistanceTravelled() {
+        Pose pose = mPoseTracker.sample();
+        if(mOriginalEstimate == null || pose == null) {
+            return 0;
+        }
+        return forwardOf(pose);
+    }
+
+    /**
+     * @return the filtered distance in meters to the next obstacle in front of the robot, at most
+     * ULTRASONIC_MAX
+     */
+    double getFrontClearance() {
+        double distance = Math.min(mSampler.getUltrasonicDistance(), mSampler.getInfraredDistance());
+        if(Double.isNaN(distance)) {
+            // The sampler hasn't taken a sample yet
+            return readUltrasonicDistance();
+        }
+        return Math.min(distance, ULTRASONIC_MAX);
+    }
+
+    /**
+     * @return true if the robot has a head whose depth camera is sampled
+     */
+    boolean hasHead() {
+        return mHead != null;
+    }
+
+    /**
+     * Turns the head relative to the base. Does nothing if there is no head.
+     * @param yaw the angle in radians, positive to the left
+     */
+    void setHeadYaw(float yaw) {
+        if(mHead != null) {
+            mHeadYaw = yaw;
+            mHead.setYaw(yaw);
+        }
+    }
+
+    /**
+     * @return the filtered distance in meters that the depth camera of the head measures or NaN if
+     * there is no head
+     */
+    double getHeadDistance() {
+        return mSampler.getHeadDistance();
+    }
+
+    /**
+     * Waits until the depth camera of the head sees nothing within a distance anymore.
+     * @param distance the distance in meters
+     * @param listener the listener that is called once on the thread of the scheduler
+     */
+    void watchWallEnd(double distance, RangeSampler.WallListener listener) {
+        mSampler.watchWallEnd(distance, listener);
+    }
+
+    /**
+     * Stops waiting for the end of the wall.
+     */
+    void stopWatchingWallEnd() {
+        mSampler.stopWatchingWallEnd();
+    }
+
+    /**
+     * Integrates a reading of the depth camera of the head into the occupancy grid at the current
+     * pose, in the direction that the head is turned to. The reading is treated like one of the
+     * ultrasonic sensor, so it is only used up to the range of that sensor.
+     * @param distance the distance in meters
+     */
+    void integrateHeadDistance(double distance) {
+        integrateReading(mHeading + mHeadYaw, distance);
+    }
+
+    /**
+     * @return the current x-coordinate of the robot
+     */
+    double getXCoordinate() {
+        return mXCoordinate;
+    }
+
+    /**
+     * @return the current y-coordinate of the robot
+     */
+    double getYCoordinate() {
+        return mYCoordinate;
+    }
+
+    /**
+     * @return the current heading of the robot in radians
+     */
+    double getHeading() {
+        return mHeading;
+    }
+
+    /**
+     * Adds a position to the positions that the robot has reached. If it closes a loop, all
+     * positions are moved to the optimized poses and the map pose follows the last one.
+     * @param position the position
+     */
+    void addPosition(Position position) {
+        mPositions.add(position);
+        if(mJournal != null) {
+            mJournal.append(position);
+        }
+        double heading = headingAt(position);
+        if(!mLoopCloser.addPose(position.getX(), position.getY(), heading, wallDistanceAt(position), mWallDirection)) {
+            return;
+        }
+        int last = mLoopCloser.getPoseCount() - 1;
+        double angle = Math.IEEEremainder(mLoopCloser.getHeading(last) - heading, 2 * Math.PI);
+        moveMapPose(angle, position.getX(), position.getY(),
+                mLoopCloser.getX(last) - position.getX(), mLoopCloser.getY(last) - position.getY());
+        // The points of the wall were measured before the map pose moved
+        mHeadingCorrector.startWall();
+        int index = mLoopCloser.getPoseCount() - mPositions.size();
+        ListIterator<Position> iterator = mPositions.listIterator();
+        while(iterator.hasNext()) {
+            Position old = iterator.next();
+            if(index >= 0) {
+                iterator.set(new Position(mLoopCloser.getX(index), mLoopCloser.getY(index),
+                        Orientation.closestTo(mLoopCloser.getHeading(index)), old.getTimestamp()));
             }
+            index++;
+        }
+        if(mJournal != null) {
+            mJournal.replaceAll(mPositions);
+        }
+        RobotLog.d(TAG, "Loop closed, moved by (" + (mLoopCloser.getX(last) - position.getX()) + " , "
+                + (mLoopCloser.getY(last) - position.getY()) + ") and " + Math.toDegrees(angle) + " degrees");
+    }
 
-            @Override
-            public void onUnbind(String reason) {}
-        };
+    /**
+     * @return the distance in meters across the wall at a position, the last reading moved by the
+     * distance that the robot has walked towards the wall since, or NaN if the reading is too old
+     */
+    private double wallDistanceAt(Position position) {
+        double dx = position.getX() - mWallX;
+        double dy = position.getY() - mWallY;
+        if(Double.isNaN(mWallDistance) || dx * dx + dy * dy > MAX_WALL_TRAVEL * MAX_WALL_TRAVEL) {
+            return Double.NaN;
+        }
+        // The wall lies to the right of its direction
+        return mWallDistance - Math.sin(mWallDirection) * dx + Math.cos(mWallDirection) * dy;
+    }
 
-        mSensorBindStateListener = new ServiceBinder.BindStateListener() {
-            @Override
-            public void onBind() {}
+    /**
+     * Removes the positions that the robot has reached so far, together with their pose graph.
+     */
+    void clearPositions() {
+        mPositions.clear();
+        mLoopCloser.clear();
+        if(mJournal != null) {
+            mJournal.replaceAll(mPositions);
+        }
+    }
 
-            @Override
-            public void onUnbind(String reason) {}
-        };
+    /**
+     * @return the heading in the map in radians at the time of a position, from the tracked poses if
+     * they reach back that far, otherwise from the orientation of the position
+     */
+    private double headingAt(Position position) {
+        Pose pose = mPoseTracker.getPoseAt(position.getTimestamp());
+        if(mOriginalEstimate != null && pose != null && position.getTimestamp() >= mPoseTracker.getOldestTime()) {
+            return toMapHeading(pose);
+        }
+        return position.getOrientation() != null ? position.getOrientation().getHeading() : 0;
+    }
+
+    /**
+     * Decides whether there really is an obstacle within OBSTACLE_AVOIDANCE_DISTANCE in front of the
+     * robot, as soon as enough fresh samples agree.
+     * @param listener the listener that is called on the thread of the scheduler
+     */
+    void confirmObstacle(RangeSampler.ObstacleListener listener) {
+        mSampler.confirmObstacle(OBSTACLE_AVOIDANCE_DISTANCE, listener);
+    }
+
+    /**
+     * Takes a filtered reading of the ultrasonic sensor from fresh samples, e.g. after a turn,
+     * without integrating it.
+     * @param listener the listener that is called on the thread of the scheduler
+     */
+    void awaitUltrasonicDistance(RangeSampler.ReadingListener listener) {
+        mSampler.awaitReading(listener);
     }
 
     /**
-     * Binds the base instance and the sensor instance to the respective services.
+     * Reads the distance to the next obstacle in front of the robot without integrating it.
+     * @return the distance in meters
      */
-    public void bindServices() {
-        mSensor = Sensor.getInstance();
-        mSensor.bindService(mContext, mSensorBindStateListener);
-        mBase = Base.getInstance();
-        mBase.bindService(mContext, mBaseBindStateListener);
+    double readUltrasonicDistance() {
+        return mSensor.getUltrasonicDistance() / 1000; // convert mm to m
+    }
+
+    /**
+     * Integrates a reading of the ultrasonic sensor into the occupancy grid at the current pose,
+     * once the scan matcher has matched it.
+     * @param distance the distance in meters
+     */
+    void integrateUltrasonicDistance(double distance) {
+        integrateReading(mHeading, distance);
+    }
+
+    /**
+     * Adds a reading at the current position to the batch of the scan matcher and matches the batch
+     * once it is full.
+     * @param heading the heading of the sensor in radians
+     * @param distance the distance in meters
+     */
+    private void integrateReading(double heading, double distance) {
+        if(mScanMatcher.addReading(mXCoordinate, mYCoordinate, heading, distance)) {
+            matchScan();
+        }
+    }
+
+    /**
+     * Matches the readings of the scan matcher against the occupancy grid, moves the map pose by the
+     * correction if the match is accepted and integrates the readings into the grid.
+     */
+    private void matchScan() {
+        if(mScanMatcher.getReadingCount() == 0) {
+            return;
+        }
+        double x = mXCoordinate;
+        double y = mYCoordinate;
+        if(mScanMatcher.match(mMap, x, y)) {
+            double angle = mScanMatcher.getCorrectionAngle();
+            double dx = mScanMatcher.getCorrectionX();
+            double dy = mScanMatcher.getCorrectionY();
+            moveMapPose(angle, x, y, dx, dy);
+            RobotLog.d(TAG, "Scan matched, moved by (" + dx + " , " + dy + ") and " + Math.toDegrees(angle)
+                    + " degrees at (" + x + " , " + y + ")");
+        }
+        mScanMatcher.integrateReadings(mMap);
     }
 
     /**
-     * Binds the base instance and the sensor instance to the respective services.
+     * Reads the distance to the next obstacle in front of the robot and integrates the reading into
+     * the occupancy grid at the current position. Must only be called when the coordinates and the
+     * heading match the actual pose of the robot.
+     * @return the distance in meters
      */
-    public void unbindServices() {
-        mBase.unbindService();
-        mSensor.unbindService();
+    double measureUltrasonicDistance() {
+        double distance = readUltrasonicDistance();
+        integrateUltrasonicDistance(distance);
+        return distance;
     }
 
 }
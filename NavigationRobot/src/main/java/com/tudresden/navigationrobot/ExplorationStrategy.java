@@ -0,0 +1,59 @@
+package com.tudresden.navigationrobot;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Decides where the robot goes next during the exploration. The Exploration instance owns the base,
+ * the sensor, the map and the position of the robot and hands the events of the base to the
+ * strategy. The strategy reacts by setting new checkpoints through the Exploration instance.
+ * All methods are called on the thread of the scheduler of the Exploration instance.
+ */
+public interface ExplorationStrategy {
+
+    /**
+     * Called once the robot has reached the first checkpoints after the exploration was started.
+     * The original point is already set to the current pose of the robot.
+     */
+    void start();
+
+    /**
+     * Called when the robot has reached the last checkpoint that was set.
+     */
+    void arrivedAtCheckpoint();
+
+    /**
+     * Called when the base reports an obstacle in front of the robot.
+     */
+    void obstacleDetected();
+
+    /**
+     * Called when the robot couldn't reach the last checkpoint that was set, even though it was set
+     * again several times. The robot has already been stopped and the checkpoints are deleted, but
+     * the original point is still set.
+     */
+    void checkpointFailed();
+
+    /**
+     * Called when the exploration is stopped. The robot has already been stopped.
+     */
+    void stop();
+
+    /**
+     * Writes what the strategy needs to continue an interrupted exploration, e.g. the places that
+     * it has given up. Called while the exploration is saved.
+     * @param out the stream that the state is written to
+     * @throws IOException if the stream couldn't be written
+     */
+    void writeState(DataOutputStream out) throws IOException;
+
+    /**
+     * Reads the state that #writeState(DataOutputStream) has written, before the exploration is
+     * resumed. #start() is called afterwards once the robot has reached the first checkpoints.
+     * @param in the stream that the state is read from
+     * @throws IOException if the stream couldn't be read
+     */
+    void readState(DataInputStream in) throws IOException;
+
+}
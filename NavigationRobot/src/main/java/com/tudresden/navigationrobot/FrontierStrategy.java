@@ -0,0 +1,611 @@
+package com.tudresden.navigationrobot;
+
+import com.tudresden.navigationrobot.control.PurePursuitFollower;
+import com.tudresden.navigationrobot.map.OccupancyGrid;
+import com.tudresden.navigationrobot.planning.FrontierFinder;
+import com.tudresden.navigationrobot.planning.PlanningGrid;
+import com.tudresden.navigationrobot.robot.RangeSampler;
+import com.tudresden.navigationrobot.robot.RobotLog;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * An exploration strategy that drives the robot to the frontiers between known free space and
+ * unknown space. At every frontier the robot turns around once to look in all directions, then it
+ * picks the next frontier by the number of unknown cells it can see there per meter of travel.
+ * Unlike the wall follower this covers the interior of the room and isn't confused by obstacles
+ * that stand away from the walls.
+ * <p>
+ * On the way the steps are queued ahead, so the robot drives through the checkpoints without
+ * stopping. Every reading can reveal an obstacle on the queued steps, in that case the steps behind
+ * it are cancelled and the rest of the path is planned again.
+ * <p>
+ * In continuous mode the robot follows the whole path as one smoothed curve with velocity commands
+ * instead, so it doesn't turn in place at the waypoints. The map is updated and the rest of the path
+ * is checked every time the follower reports progress.
+ */
+public class FrontierStrategy implements ExplorationStrategy {
+
+    /**
+     * The tag that is used for log messages.
+     */
+    private static final String TAG = "FrontierStrategy";
+
+    /**
+     * The angle by which the robot turns between two readings while it looks around. A single
+     * reading is only confident enough to mark cells as free near the axis of its 30° cone, so the
+     * cones need to overlap by half to leave no unknown wedges, which would otherwise show up as
+     * frontiers right next to the robot.
+     */
+    private static final float SCAN_ANGLE = (float) (Math.PI / 12);
+
+    /**
+     * The number of turns while looking around. Together with the reading before the first turn
+     * the robot looks in 24 directions.
+     */
+    private static final int SCAN_STEPS = 23;
+
+    /**
+     * The longest distance that the robot walks from one checkpoint to the next, so that the map is
+     * updated regularly on the way.
+     */
+    private static final double STEP_LENGTH = 0.5;
+
+    /**
+     * Waypoints that are closer than this distance in meters count as reached.
+     */
+    private static final double WAYPOINT_TOLERANCE = 0.05;
+
+    /**
+     * The distance in meters around a queued step that has to stay free of occupied cells, the same
+     * that the path keeps to the obstacles that were known when it was planned.
+     */
+    private static final double STEP_CLEARANCE = PlanningGrid.ROBOT_RADIUS;
+
+    /**
+     * A step of the path that was handed to the robot.
+     */
+    private static class Step {
+
+        /**
+         * The x-coordinate of the end of the step.
+         */
+        private final double mX;
+
+        /**
+         * The y-coordinate of the end of the step.
+         */
+        private final double mY;
+
+        private Step(double x, double y) {
+            this.mX = x;
+            this.mY = y;
+        }
+    }
+
+    /**
+     * The phases of the strategy.
+     */
+    private enum Phase {
+
+        /**
+         * The strategy hasn't been started or the exploration is finished.
+         */
+        IDLE,
+
+        /**
+         * The robot turns around in place and takes a reading after every turn.
+         */
+        SCANNING,
+
+        /**
+         * The robot walks along the path to a frontier.
+         */
+        TRAVELLING
+    }
+
+    /**
+     * The exploration that this strategy controls the robot for.
+     */
+    private Exploration mExploration;
+
+    /**
+     * The snapshot of the map that frontiers are searched on.
+     */
+    private PlanningGrid mPlanningGrid = new PlanningGrid(PlanningGrid.ROBOT_RADIUS);
+
+    /**
+     * Finds the next frontier on mPlanningGrid.
+     */
+    private FrontierFinder mFrontierFinder = new FrontierFinder(mPlanningGrid, Exploration.ULTRASONIC_MAX);
+
+    /**
+     * The current phase.
+     */
+    private Phase mPhase = Phase.IDLE;
+
+    /**
+     * The number of turns that are left while scanning.
+     */
+    private int mScanStepsLeft = 0;
+
+    /**
+     * The remaining waypoints of the path to the current frontier.
+     */
+    private LinkedList<Position> mWaypoints = new LinkedList<>();
+
+    /**
+     * The current frontier.
+     */
+    private Position mTarget = null;
+
+    /**
+     * The steps that were handed to the robot and haven't been reached yet, in the same order as the
+     * pending checkpoints.
+     */
+    private ArrayDeque<Step> mSteps = new ArrayDeque<>();
+
+    /**
+     * The x-coordinate of the end of the last queued step or of the robot if there is none.
+     */
+    private double mPlanX;
+
+    /**
+     * The y-coordinate of the end of the last queued step or of the robot if there is none.
+     */
+    private double mPlanY;
+
+    /**
+     * The x-coordinate where the robot last stopped in front of an obstacle.
+     */
+    private double mObstacleX = Double.NaN;
+
+    /**
+     * The y-coordinate where the robot last stopped in front of an obstacle.
+     */
+    private double mObstacleY = Double.NaN;
+
+    /**
+     * True if the robot follows the paths as smoothed curves instead of walking from checkpoint to
+     * checkpoint.
+     */
+    private boolean mContinuous = false;
+
+    /**
+     * Receives the progress of the robot on the path in continuous mode.
+     */
+    private PurePursuitFollower.Listener mFollowerListener = new PurePursuitFollower.Listener() {
+        @Override
+        public void onProgress() {
+            if(mPhase != Phase.TRAVELLING) {
+                return;
+            }
+            mExploration.updatePoseFromOdometry();
+            recordPosition(mExploration.getPosition());
+            if(!isFrontier(mTarget)) {
+                // The readings on the way have already explored the frontier
+                planPath();
+            } else if(isPathBlocked()) {
+                RobotLog.d(TAG, "The path is blocked, it is planned again");
+                planPath();
+            }
+        }
+
+        @Override
+        public void onGoalReached() {
+            if(mPhase != Phase.TRAVELLING) {
+                return;
+            }
+            mExploration.updatePoseFromOdometry();
+            recordPosition(mExploration.getPosition());
+            mFrontierFinder.addVisited(mTarget.getX(), mTarget.getY());
+            startScan();
+        }
+
+        @Override
+        public void onBlocked() {
+            checkpointFailed();
+        }
+    };
+
+    /**
+     * Creates the strategy.
+     * @param exploration the exploration that this strategy controls the robot for
+     */
+    public FrontierStrategy(Exploration exploration) {
+        this.mExploration = exploration;
+    }
+
+    /**
+     * Must not be called while the exploration is running.
+     * @param continuous true if the robot follows the paths as smoothed curves with velocity
+     *                   commands, false if it walks from checkpoint to checkpoint
+     */
+    public void setContinuous(boolean continuous) {
+        this.mContinuous = continuous;
+    }
+
+    @Override
+    public void start() {
+        recordPosition(mExploration.getPosition());
+        startScan();
+    }
+
+    @Override
+    public void stop() {
+        mPhase = Phase.IDLE;
+        mWaypoints.clear();
+        mSteps.clear();
+    }
+
+    /**
+     * Writes the frontiers that were visited or given up, so a resumed exploration doesn't try them
+     * again.
+     */
+    @Override
+    public void writeState(DataOutputStream out) throws IOException {
+        out.writeInt(mFrontierFinder.getVisited().size());
+        for(Position visited : mFrontierFinder.getVisited()) {
+            out.writeDouble(visited.getX());
+            out.writeDouble(visited.getY());
+        }
+    }
+
+    @Override
+    public void readState(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        for(int i = 0; i < count; i++) {
+            mFrontierFinder.addVisited(in.readDouble(), in.readDouble());
+        }
+    }
+
+    @Override
+    public void arrivedAtCheckpoint() {
+        switch(mPhase) {
+            case SCANNING:
+                mExploration.updatePoseFromOdometry();
+                mExploration.measureUltrasonicDistance();
+                if(mScanStepsLeft > 0) {
+                    turn();
+                } else {
+                    planPath();
+                }
+                break;
+            case TRAVELLING:
+                if(mSteps.pollFirst() == null) {
+                    break;
+                }
+                // The robot didn't stop at the checkpoint, so it faces wherever it has turned to and
+                // has already moved on since the base reported the checkpoint
+                mExploration.updatePoseFromOdometry();
+                recordPosition(mExploration.getPositionAt(mExploration.getArrivalTime()));
+                if(mSteps.isEmpty() && mWaypoints.isEmpty()) {
+                    // Arrived at the frontier
+                    mFrontierFinder.addVisited(mTarget.getX(), mTarget.getY());
+                    startScan();
+                } else if(!isFrontier(mTarget)) {
+                    // The readings on the way have already explored the frontier
+                    planPath();
+                } else {
+                    checkQueuedSteps();
+                }
+                break;
+            default:
+                // Nothing to do while idle
+        }
+    }
+
+    /**
+     * Stops the robot and plans a new path from where it stopped if there really is an obstacle.
+     */
+    @Override
+    public void obstacleDetected() {
+        if(mPhase != Phase.TRAVELLING) {
+            // The robot only turns in place while scanning, so obstacles don't matter
+            return;
+        }
+        // Check with the next samples if there really is an obstacle
+        mExploration.confirmObstacle(new RangeSampler.ObstacleListener() {
+            @Override
+            public void onResult(boolean obstacle) {
+                if(obstacle && mPhase == Phase.TRAVELLING && mContinuous && mExploration.isFollowingPath()) {
+                    // The robot sweeps past walls in curves, so only an obstacle on the rest of the path
+                    // counts. Otherwise the base holds the robot until it has turned away.
+                    mExploration.updatePoseFromOdometry();
+                    recordPosition(mExploration.getPosition());
+                    if(isPathBlocked()) {
+                        RobotLog.d(TAG, "The obstacle blocks the path, it is planned again");
+                        planPath();
+                    }
+                } else if(obstacle && mPhase == Phase.TRAVELLING) {
+                    mExploration.updatePoseFromOdometry();
+                    mExploration.resetOriginalPoint();
+                    mSteps.clear();
+                    recordPosition(mExploration.getPosition());
+                    if(distanceTo(mTarget) < Exploration.ULTRASONIC_MAX) {
+                        // The robot can't get any closer to the frontier, but it is within the range
+                        // of the sensor, so it would be chosen again and again
+                        mFrontierFinder.addVisited(mTarget.getX(), mTarget.getY());
+                    } else if(Math.hypot(mExploration.getXCoordinate() - mObstacleX,
+                            mExploration.getYCoordinate() - mObstacleY) < WAYPOINT_TOLERANCE) {
+                        // The obstacle stopped the robot at the same place before, so the new path
+                        // leads into it again
+                        mFrontierFinder.addVisited(mTarget.getX(), mTarget.getY());
+                    }
+                    mObstacleX = mExploration.getXCoordinate();
+                    mObstacleY = mExploration.getYCoordinate();
+                    planPath();
+                }
+            }
+        });
+    }
+
+    /**
+     * Plans a new path from where the robot stopped. The current frontier is given up, because the
+     * robot might not be able to reach it.
+     */
+    @Override
+    public void checkpointFailed() {
+        if(mPhase == Phase.IDLE) {
+            return;
+        }
+        mExploration.updatePoseFromOdometry();
+        mExploration.resetOriginalPoint();
+        mSteps.clear();
+        recordPosition(mExploration.getPosition());
+        if(mTarget != null) {
+            mFrontierFinder.addVisited(mTarget.getX(), mTarget.getY());
+        }
+        planPath();
+    }
+
+    /**
+     * Starts turning around in place.
+     */
+    private void startScan() {
+        mPhase = Phase.SCANNING;
+        mScanStepsLeft = SCAN_STEPS;
+        turn();
+    }
+
+    /**
+     * Turns the robot by SCAN_ANGLE to the left.
+     */
+    private void turn() {
+        mScanStepsLeft--;
+        mExploration.resetOriginalPoint();
+        mExploration.addCheckPoint(0, 0, SCAN_ANGLE);
+    }
+
+    /**
+     * Searches for the best frontier and starts walking there. Stops the exploration if there are
+     * no reachable frontiers left. Pending checkpoints are deleted.
+     */
+    private void planPath() {
+        if(!mContinuous || !mExploration.isFollowingPath()) {
+            // A path that is followed is replaced while the robot keeps moving
+            mExploration.resetOriginalPoint();
+        }
+        mSteps.clear();
+        mPlanX = mExploration.getXCoordinate();
+        mPlanY = mExploration.getYCoordinate();
+        LinkedList<Position> path = findPath(mPlanX, mPlanY);
+        if(path == null) {
+            RobotLog.d(TAG, "No frontiers left, the exploration is finished");
+            mExploration.resetOriginalPoint();
+            mPhase = Phase.IDLE;
+            return;
+        }
+        mPhase = Phase.TRAVELLING;
+        mWaypoints = path;
+        mTarget = path.getLast();
+        if(mContinuous) {
+            if(distanceTo(mTarget) < WAYPOINT_TOLERANCE) {
+                mFrontierFinder.addVisited(mTarget.getX(), mTarget.getY());
+                startScan();
+            } else {
+                mExploration.followPath(path, mFollowerListener);
+            }
+            return;
+        }
+        queueSteps();
+        if(mSteps.isEmpty()) {
+            // The robot already stands at the frontier
+            mFrontierFinder.addVisited(mTarget.getX(), mTarget.getY());
+            startScan();
+        }
+    }
+
+    /**
+     * Searches for the best frontier on the current map.
+     * @param x the x-coordinate where the path starts
+     * @param y the y-coordinate where the path starts
+     * @return the waypoints of the path to the frontier or null if there are no reachable frontiers
+     */
+    private LinkedList<Position> findPath(double x, double y) {
+        long start = System.nanoTime();
+        mExploration.flushScanMatch();
+        mPlanningGrid.update(mExploration.getMap());
+        LinkedList<Position> path = mFrontierFinder.find(x, y);
+        RobotLog.d(TAG, "Searched " + mFrontierFinder.getFrontierCount() + " frontiers in "
+                + (System.nanoTime() - start) / 1000 + " us, gain " + mFrontierFinder.getGain()
+                + " cells at " + mFrontierFinder.getDistance() + " m");
+        return path;
+    }
+
+    /**
+     * Splits the remaining waypoints into steps of at most STEP_LENGTH meters and queues them as
+     * checkpoints. The checkpoints have no heading, the robot turns towards each step before it
+     * walks, so the ultrasonic sensor looks in the direction of travel. Only the first
+     * CheckPointScheduler.LOOKAHEAD steps are handed to the base at once, the others wait in the
+     * queue.
+     */
+    private void queueSteps() {
+        while(!mWaypoints.isEmpty()) {
+            Position waypoint = mWaypoints.getFirst();
+            double dx = waypoint.getX() - mPlanX;
+            double dy = waypoint.getY() - mPlanY;
+            double distance = Math.sqrt(dx * dx + dy * dy);
+            if(distance < WAYPOINT_TOLERANCE) {
+                mWaypoints.removeFirst();
+                continue;
+            }
+            if(distance > STEP_LENGTH) {
+                mPlanX += dx / distance * STEP_LENGTH;
+                mPlanY += dy / distance * STEP_LENGTH;
+            } else {
+                mPlanX = waypoint.getX();
+                mPlanY = waypoint.getY();
+                mWaypoints.removeFirst();
+            }
+            mSteps.addLast(new Step(mPlanX, mPlanY));
+            mExploration.addCheckPointAt(mPlanX, mPlanY);
+        }
+    }
+
+    /**
+     * Checks the queued steps against the readings that were taken since they were planned. If an
+     * occupied cell has appeared on a step, that step and all after it are cancelled and the rest
+     * of the path is planned again from the end of the last free step.
+     */
+    private void checkQueuedSteps() {
+        mExploration.flushScanMatch();
+        double fromX = mExploration.getXCoordinate();
+        double fromY = mExploration.getYCoordinate();
+        int keep = 0;
+        Iterator<Step> iterator = mSteps.iterator();
+        while(iterator.hasNext()) {
+            Step step = iterator.next();
+            if(isBlocked(fromX, fromY, step.mX, step.mY)) {
+                break;
+            }
+            fromX = step.mX;
+            fromY = step.mY;
+            keep++;
+        }
+        if(keep == mSteps.size()) {
+            return;
+        }
+        RobotLog.d(TAG, "Step " + keep + " of " + mSteps.size() + " is blocked, the path is planned again");
+        if(keep == 0) {
+            // The next step is blocked, so the robot has to stop anyway
+            planPath();
+            return;
+        }
+        mExploration.truncateCheckPoints(keep);
+        while(mSteps.size() > keep) {
+            mSteps.removeLast();
+        }
+        mPlanX = fromX;
+        mPlanY = fromY;
+        LinkedList<Position> path = findPath(mPlanX, mPlanY);
+        if(path == null) {
+            // The robot walks to the end of the free steps, which then count as the frontier
+            mWaypoints.clear();
+            return;
+        }
+        mWaypoints = path;
+        mTarget = path.getLast();
+        queueSteps();
+    }
+
+    /**
+     * Drops the waypoints that the robot has passed and checks the rest of the path in continuous
+     * mode against the readings that were taken since it was planned.
+     * @return true if there is an occupied cell on the rest of the path
+     */
+    private boolean isPathBlocked() {
+        mExploration.flushScanMatch();
+        double x = mExploration.getXCoordinate();
+        double y = mExploration.getYCoordinate();
+        while(mWaypoints.size() > 1) {
+            // The robot has passed a waypoint once it is closer to the next one than the waypoint
+            Position first = mWaypoints.get(0);
+            Position second = mWaypoints.get(1);
+            if(Math.hypot(second.getX() - x, second.getY() - y)
+                    >= Math.hypot(second.getX() - first.getX(), second.getY() - first.getY())) {
+                break;
+            }
+            mWaypoints.removeFirst();
+        }
+        double fromX = x;
+        double fromY = y;
+        for(Position waypoint : mWaypoints) {
+            if(isBlocked(fromX, fromY, waypoint.getX(), waypoint.getY())) {
+                return true;
+            }
+            fromX = waypoint.getX();
+            fromY = waypoint.getY();
+        }
+        return false;
+    }
+
+    /**
+     * @return true if there is an occupied cell within STEP_CLEARANCE of the line between the two
+     * positions in the current map
+     */
+    private boolean isBlocked(double fromX, double fromY, double toX, double toY) {
+        OccupancyGrid map = mExploration.getMap();
+        double resolution = map.getResolution();
+        double dx = toX - fromX;
+        double dy = toY - fromY;
+        int samples = (int) Math.ceil(Math.sqrt(dx * dx + dy * dy) / resolution);
+        int radius = (int) Math.ceil(STEP_CLEARANCE / resolution);
+        int radiusSquared = radius * radius;
+        for(int i = 1; i <= samples; i++) {
+            int centerX = map.toCellX(fromX + dx * i / samples);
+            int centerY = map.toCellY(fromY + dy * i / samples);
+            for(int y = -radius; y <= radius; y++) {
+                for(int x = -radius; x <= radius; x++) {
+                    if(x * x + y * y <= radiusSquared && map.isOccupied(centerX + x, centerY + y)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Marks the cells below the robot as free, takes a reading and adds a position to the positions
+     * of the exploration.
+     * @param reached the position that the robot has reached, usually the current one
+     */
+    private void recordPosition(Position reached) {
+        double x = mExploration.getXCoordinate();
+        double y = mExploration.getYCoordinate();
+        double heading = mExploration.getHeading();
+        mExploration.flushScanMatch();
+        mExploration.getMap().integrateFootprint(x, y, PlanningGrid.ROBOT_RADIUS);
+        mExploration.measureUltrasonicDistance();
+        RobotLog.d(TAG, "Phase: " + mPhase + " | Heading: " + heading + " | Position: (" + x + " , " + y + ")");
+        mExploration.addPosition(reached);
+    }
+
+    /**
+     * @return the distance from the current position of the robot to the position in meters
+     */
+    private double distanceTo(Position position) {
+        double dx = position.getX() - mExploration.getXCoordinate();
+        double dy = position.getY() - mExploration.getYCoordinate();
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    /**
+     * @return true if the position is free and next to unknown space in the current map
+     */
+    private boolean isFrontier(Position position) {
+        mExploration.flushScanMatch();
+        OccupancyGrid map = mExploration.getMap();
+        int cellX = map.toCellX(position.getX());
+        int cellY = map.toCellY(position.getY());
+        return map.isFree(cellX, cellY) && (map.isUnknown(cellX + 1, cellY) || map.isUnknown(cellX - 1, cellY)
+                || map.isUnknown(cellX, cellY + 1) || map.isUnknown(cellX, cellY - 1));
+    }
+
+}
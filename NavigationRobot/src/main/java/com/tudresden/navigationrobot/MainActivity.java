@@ -11,8 +11,129 @@ import android.view.inputmethod.InputMethodManager;
 import android.widget.Button;
 import android.widget.Toast;
 
+import com.tudresden.navigationrobot.loomo.LogcatSink;
+import com.tudresden.navigationrobot.loomo.LoomoBase;
+import com.tudresden.navigationrobot.loomo.LoomoHead;
+import com.tudresden.navigationrobot.loomo.LoomoSensor;
+import com.tudresden.navigationrobot.map.OccupancyGrid;
+import com.tudresden.navigationrobot.robot.EventLoop;
+import com.tudresden.navigationrobot.robot.RobotLog;
+import com.tudresden.navigationrobot.robot.TraceRecorder;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+
 public class MainActivity extends de.tud.loomospeech.MainActivity implements View.OnClickListener {
 
+    /**
+     * The name of the directory in the cache that tiles of the occupancy grid are spilled to.
+     */
+    private static final String MAP_SPILL_DIRECTORY = "map_tiles";
+
+    /**
+     * The tag that is used for log messages.
+     */
+    private static final String TAG = "MainActivity";
+
+    /**
+     * The start of the names of the trace files.
+     */
+    private static final String TRACE_PREFIX = "exploration-";
+
+    /**
+     * The end of the names of the trace files.
+     */
+    private static final String TRACE_SUFFIX = ".trace";
+
+    /**
+     * The time in milliseconds between two saves of the session of a running exploration.
+     */
+    private static final long SESSION_INTERVAL = 30000;
+
+    /**
+     * The base of the robot that the exploration controls.
+     */
+    private LoomoBase mBase;
+
+    /**
+     * The sensors of the robot that the exploration reads.
+     */
+    private LoomoSensor mSensor;
+
+    /**
+     * The head of the robot, which watches the wall while the robot follows it.
+     */
+    private LoomoHead mHead;
+
+    /**
+     * The thread that all events of the exploration are handled on, so the UI thread is never
+     * blocked by planning and the positions are only ever changed by a single thread.
+     */
+    private EventLoop mEventLoop;
+
+    /**
+     * Records the readings and events of every exploration into a trace in the external files
+     * directory of the app, which the simulator can play back, unless R.bool.record_traces is off.
+     */
+    private TraceRecorder mRecorder;
+
+    /**
+     * The journal that the positions of the running exploration are written to or null. Only used
+     * on the thread of the exploration.
+     */
+    private PositionJournal mJournal;
+
+    /**
+     * True if the session of an interrupted exploration was read when the app was started, so the
+     * start button resumes it. Only used on the thread of the exploration.
+     */
+    private boolean mSessionRestored = false;
+
+    /**
+     * True while an exploration runs, from the start button to the stop button.
+     */
+    private boolean mExploring = false;
+
+    /**
+     * True while the activity is started, from onStart() to onStop().
+     */
+    private boolean mStarted = false;
+
+    /**
+     * True if the running exploration was stopped because the activity was stopped, so it is
+     * resumed when the activity is started again.
+     */
+    private boolean mInterrupted = false;
+
+    /**
+     * True while the session of the running exploration is saved periodically. Only used on the
+     * thread of the exploration.
+     */
+    private boolean mSavingSession = false;
+
+    /**
+     * Saves the session of the running exploration on its thread and saves it again after
+     * SESSION_INTERVAL.
+     */
+    private Runnable mSaveSession = new Runnable() {
+        @Override
+        public void run() {
+            if(mSavingSession) {
+                mFileHelper.storeSession(mExploration);
+                mEventLoop.postDelayed(this, SESSION_INTERVAL);
+            }
+        }
+    };
+
     /**
      * The Exploration instance that is used for starting and stopping the exploration process and
      * collecting the positions of the robot.
@@ -51,55 +172,342 @@ public class MainActivity extends de.tud.loomospeech.MainActivity implements Vie
         stopButton.setOnClickListener(this);
 
         if(mExploration == null) {
-            mExploration = new Exploration(this);
+            RobotLog.setSink(new LogcatSink());
+            mBase = new LoomoBase(this);
+            mSensor = new LoomoSensor(this);
+            mHead = new LoomoHead(this);
+            mEventLoop = new EventLoop("Exploration");
+            mEventLoop.start();
+            mRecorder = new TraceRecorder(mEventLoop);
+            mExploration = new Exploration(mRecorder.wrapBase(mBase), mRecorder.wrapSensor(mSensor), mEventLoop,
+                    new File(getCacheDir(), MAP_SPILL_DIRECTORY));
+            mExploration.setHead(mRecorder.wrapHead(mHead));
         }
 
         if(mFileHelper == null) {
             mFileHelper = new StorageHelper(this);
+            if(mFileHelper.sessionExists()) {
+                restoreSession();
+            } else if(mFileHelper.recoverJournal()) {
+                Toast.makeText(this, "The positions of the interrupted exploration were kept", Toast.LENGTH_SHORT).show();
+            }
         }
 
-        mExploration.initListeners();
-        mExploration.bindServices();
+        mBase.bindService();
+        mSensor.bindService();
+        mHead.bindService();
     }
 
     @Override
     public void onStart() {
         super.onStart();
-        mExploration.initListeners();
-        mExploration.bindServices();
+        mStarted = true;
+        mBase.bindService();
+        mSensor.bindService();
+        mHead.bindService();
+        if(mInterrupted) {
+            mInterrupted = false;
+            mExploration.resumeExploration();
+            startSessionSaving();
+        }
     }
 
     @Override
     public void onStop() {
         super.onStop();
-        mExploration.unbindServices();
+        mStarted = false;
+        if(mExploring) {
+            // The services are unbound, so the exploration is stopped and resumed from its session.
+            // Both read the odometry on the thread of the exploration, so the services are only
+            // unbound once they are done.
+            mInterrupted = true;
+            mExploration.stopExploration();
+            stopSessionSaving(true);
+            mEventLoop.post(new Runnable() {
+                @Override
+                public void run() {
+                    runOnUiThread(new Runnable() {
+                        @Override
+                        public void run() {
+                            if(!mStarted) {
+                                unbindServices();
+                            }
+                        }
+                    });
+                }
+            });
+        } else {
+            unbindServices();
+        }
+    }
+
+    /**
+     * Unbinds the base, the sensors and the head from their services.
+     */
+    private void unbindServices() {
+        mBase.unbindService();
+        mSensor.unbindService();
+        mHead.unbindService();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if(mEventLoop != null) {
+            // The trace and the journal are written on the loop, so it quits after closing them
+            stopRecording();
+            closeJournal();
+            closeMap();
+            mEventLoop.quitSafely();
+        }
+    }
+
+    /**
+     * Starts recording a new trace on the thread of the exploration, right before the exploration
+     * is started, so the times in the trace count from the start of the exploration. Nothing is
+     * recorded if R.bool.record_traces is false. The oldest traces are deleted, so at most
+     * R.integer.max_traces are kept.
+     */
+    private void startRecording() {
+        if(!getResources().getBoolean(R.bool.record_traces)) {
+            return;
+        }
+        File directory = getExternalFilesDir(null);
+        if(directory == null) {
+            directory = getFilesDir();
+        }
+        final File traceDirectory = directory;
+        final int maxTraces = getResources().getInteger(R.integer.max_traces);
+        String name = TRACE_PREFIX + new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.ROOT).format(new Date()) + TRACE_SUFFIX;
+        final File trace = new File(directory, name);
+        mEventLoop.post(new Runnable() {
+            @Override
+            public void run() {
+                deleteOldTraces(traceDirectory, maxTraces - 1);
+                try {
+                    mRecorder.start(new BufferedOutputStream(new FileOutputStream(trace)));
+                    RobotLog.d(TAG, "Recording the trace " + trace);
+                } catch(IOException e) {
+                    RobotLog.d(TAG, "The trace couldn't be created: " + e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Deletes the oldest traces in a directory until only the given number is left. The names of
+     * the traces start with the time of the recording, so they are ordered by their names.
+     * @param directory the directory of the traces
+     * @param keep the number of traces that are kept
+     */
+    private static void deleteOldTraces(File directory, int keep) {
+        File[] files = directory.listFiles();
+        if(files == null) {
+            return;
+        }
+        List<File> traces = new ArrayList<>();
+        for(File file : files) {
+            if(file.getName().startsWith(TRACE_PREFIX) && file.getName().endsWith(TRACE_SUFFIX)) {
+                traces.add(file);
+            }
+        }
+        Collections.sort(traces);
+        for(int i = 0; i < traces.size() - Math.max(keep, 0); i++) {
+            if(!traces.get(i).delete()) {
+                RobotLog.d(TAG, "The trace " + traces.get(i) + " couldn't be deleted");
+            }
+        }
+    }
+
+    /**
+     * Stops the recording once the events that were posted before have been handled, so the trace
+     * is written on the thread of the exploration.
+     */
+    private void stopRecording() {
+        mEventLoop.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mRecorder.stop();
+                } catch(IOException e) {
+                    RobotLog.d(TAG, "The trace couldn't be written: " + e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Starts the journal of the positions on the thread of the exploration, unless it is already
+     * running because the exploration is started again.
+     */
+    private void openJournal() {
+        mEventLoop.post(new Runnable() {
+            @Override
+            public void run() {
+                if(mJournal == null) {
+                    mJournal = mFileHelper.openJournal();
+                    mExploration.setJournal(mJournal);
+                }
+            }
+        });
+    }
+
+    /**
+     * Closes the journal of the positions once the positions that were added before have been
+     * handed to it. It stays positions.journal, so it is recovered when the app is started again.
+     */
+    private void closeJournal() {
+        mEventLoop.post(new Runnable() {
+            @Override
+            public void run() {
+                if(mJournal != null) {
+                    mExploration.setJournal(null);
+                    try {
+                        mJournal.close();
+                    } catch(IOException e) {
+                        RobotLog.d(TAG, "The journal couldn't be written: " + e);
+                    }
+                    mJournal = null;
+                }
+            }
+        });
+    }
+
+    /**
+     * Deletes the tiles that the occupancy grid of the exploration has spilled to the cache, on the
+     * thread of the exploration once it is done with the grid.
+     */
+    private void closeMap() {
+        mEventLoop.post(new Runnable() {
+            @Override
+            public void run() {
+                mExploration.getMap().close();
+            }
+        });
+    }
+
+    /**
+     * Reads the session of an interrupted exploration on the thread of the exploration, so the
+     * start button resumes it. If it can't be read, the positions of its journal are kept.
+     */
+    private void restoreSession() {
+        mEventLoop.post(new Runnable() {
+            @Override
+            public void run() {
+                mSessionRestored = mFileHelper.restoreSession(mExploration);
+                if(!mSessionRestored) {
+                    mFileHelper.recoverJournal();
+                }
+            }
+        });
+        Toast.makeText(this, "The interrupted exploration is resumed when it is started", Toast.LENGTH_SHORT).show();
+    }
+
+    /**
+     * Starts the exploration on its thread, or resumes it if the session of an interrupted
+     * exploration was read.
+     */
+    private void startExploration() {
+        mEventLoop.post(new Runnable() {
+            @Override
+            public void run() {
+                if(mSessionRestored) {
+                    mSessionRestored = false;
+                    mExploration.resumeExploration();
+                } else {
+                    mExploration.startExploration();
+                }
+            }
+        });
+    }
+
+    /**
+     * Saves the session of the running exploration every SESSION_INTERVAL from now on.
+     */
+    private void startSessionSaving() {
+        mEventLoop.post(new Runnable() {
+            @Override
+            public void run() {
+                mSavingSession = true;
+                mEventLoop.cancel(mSaveSession);
+                mEventLoop.postDelayed(mSaveSession, SESSION_INTERVAL);
+            }
+        });
+    }
+
+    /**
+     * Stops saving the session of the exploration once the events that were posted before have been
+     * handled.
+     * @param save true if the session is saved a last time, so the exploration can be resumed;
+     * false if it is deleted because the exploration is over
+     */
+    private void stopSessionSaving(final boolean save) {
+        mEventLoop.post(new Runnable() {
+            @Override
+            public void run() {
+                mSavingSession = false;
+                mEventLoop.cancel(mSaveSession);
+                if(save) {
+                    mFileHelper.storeSession(mExploration);
+                } else {
+                    mFileHelper.deleteSession();
+                }
+            }
+        });
     }
 
     /**
      * Starts a new MapActivity that displays a map of the last executed exploration, if existent.
+     * The positions and the map are collected and stored on the thread of the exploration, so they
+     * can't change while they are stored. The positions are already in the journal, which only
+     * needs to be renamed. The activity is started on the UI thread afterwards.
      */
     public void startMapActivity() {
-        if(mExploration.getPositions().size() == 0) {
-            // If no new exploration was performed and no positions from a previous
-            // exploration can be found, tell the user to perform an exploration in order
-            // to be able to create the map
-            if(!mFileHelper.fileExists()) {
-                AlertDialog.Builder builder = new AlertDialog.Builder(this);
-                builder.setTitle("No map could be created!");
-                builder.setMessage("Please run the exploration process first.");
-                builder.setPositiveButton("OK", null);
-                AlertDialog dialog = builder.create();
-                dialog.show();
-            } else {
-                // If no new exploration was performed but positions from a previous exploration were
-                // found, use the positions from the previous exploration to create the map
-                Intent intent = new Intent(this, MapActivity.class);
-                startActivity(intent);
+        mExploration.collectResult(new Exploration.ResultListener() {
+            @Override
+            public void onResult(LinkedList<Position> positions, OccupancyGrid map) {
+                final boolean mapExists;
+                if(positions.size() == 0) {
+                    // If no new exploration was performed, the positions from a previous
+                    // exploration are used if they can be found
+                    mapExists = mFileHelper.fileExists();
+                } else {
+                    // An exploration was performed
+                    // Store the new positions and use those to create the map
+                    if(mJournal != null) {
+                        mExploration.setJournal(null);
+                        mFileHelper.finishJournal(mJournal);
+                        mJournal = null;
+                    } else {
+                        mFileHelper.storePositions(positions);
+                    }
+                    mFileHelper.storeMap(map);
+                    mapExists = true;
+                }
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        showMap(mapExists);
+                    }
+                });
             }
+        });
+    }
+
+    /**
+     * Starts the MapActivity or tells the user to perform an exploration in order to be able to
+     * create the map.
+     * @param mapExists true if positions were stored by this or a previous exploration
+     */
+    private void showMap(boolean mapExists) {
+        if(!mapExists) {
+            AlertDialog.Builder builder = new AlertDialog.Builder(this);
+            builder.setTitle("No map could be created!");
+            builder.setMessage("Please run the exploration process first.");
+            builder.setPositiveButton("OK", null);
+            AlertDialog dialog = builder.create();
+            dialog.show();
         } else {
-            // An exploration was performed
-            // Store the new positions and use those to create the map
-            mFileHelper.storePositions(mExploration.getPositions());
             Intent intent = new Intent(this, MapActivity.class);
             startActivity(intent);
         }
@@ -109,10 +517,17 @@ public class MainActivity extends de.tud.loomospeech.MainActivity implements Vie
     public void onClick(View v) {
         switch(v.getId()) {
             case R.id.buttonStart:
-                mExploration.startExploration();
+                startRecording();
+                openJournal();
+                startExploration();
+                startSessionSaving();
+                mExploring = true;
                 break;
             case R.id.buttonStop:
+                mExploring = false;
                 mExploration.stopExploration();
+                stopSessionSaving(false);
+                stopRecording();
                 startMapActivity();
                 break;
 
@@ -6,6 +6,11 @@ import android.os.Bundle;
 import android.view.ViewTreeObserver;
 import android.widget.FrameLayout;
 
+import com.tudresden.navigationrobot.loomo.LoomoBase;
+import com.tudresden.navigationrobot.loomo.LoomoSensor;
+import com.tudresden.navigationrobot.map.OccupancyGrid;
+import com.tudresden.navigationrobot.robot.EventLoop;
+
 import java.util.LinkedList;
 
 /**
@@ -25,11 +30,38 @@ public class MapActivity extends Activity {
      */
     private LinkedList<Position> mInputPositions = new LinkedList<>();
 
+    /**
+     * The occupancy grid that was built during the exploration phase or null if there is none.
+     */
+    private OccupancyGrid mMap;
+
     /**
      * The StorageHelper instance that is used for storing an retrieving data.
      */
     private StorageHelper mFileHelper;
 
+    /**
+     * The Navigation instance that is used for driving to the positions that are selected on the
+     * map or null if there is no occupancy grid to plan on.
+     */
+    private Navigation mNavigation;
+
+    /**
+     * The base of the robot that the navigation controls.
+     */
+    private LoomoBase mBase;
+
+    /**
+     * The sensors of the robot that the particle filter of the navigation reads.
+     */
+    private LoomoSensor mSensor;
+
+    /**
+     * The thread that the paths are planned on and that all events of the navigation are handled
+     * on, so the UI thread is never blocked by planning.
+     */
+    private EventLoop mEventLoop;
+
     /**
      * Retrieves the width and the height of the layout that contains the map as soon as said layout
      * is created.
@@ -46,11 +78,83 @@ public class MapActivity extends Activity {
                 int width = layout.getWidth();
                 int height = layout.getHeight();
 
-                mFrameLayout.addView(new MapView(MapActivity.this, mInputPositions, width, height));
+                final MapView mapView = new MapView(MapActivity.this, mInputPositions, mMap, width, height);
+                mFrameLayout.addView(mapView);
+
+                if(mMap != null) {
+                    // The map view has finished reading the occupancy grid, from now on it belongs to
+                    // the navigation
+                    initNavigation(mapView);
+                }
+            }
+        });
+    }
+
+    /**
+     * Creates the Navigation instance and connects it to the map view, so that the robot drives to
+     * every position that is selected on the map.
+     * The particle filter of the navigation starts around the last position that was reached during
+     * the exploration phase, where the robot usually still is.
+     * @param mapView the view that displays the map
+     */
+    private void initNavigation(final MapView mapView) {
+        Position robotPosition = mInputPositions.isEmpty() ? new Position(0.0, 0.0, Orientation.FORWARD)
+                : mInputPositions.getLast();
+        mBase = new LoomoBase(this);
+        mSensor = new LoomoSensor(this);
+        mEventLoop = new EventLoop("Navigation");
+        mEventLoop.start();
+        mNavigation = new Navigation(mBase, mSensor, mEventLoop, mMap, robotPosition);
+        mBase.bindService();
+        mSensor.bindService();
+        mapView.setOnTargetSelectedListener(new MapView.OnTargetSelectedListener() {
+            @Override
+            public void onTargetSelected(Position target) {
+                mNavigation.navigateTo(target, new Navigation.PathListener() {
+                    @Override
+                    public void onPathPlanned(final Position start, final LinkedList<Position> path) {
+                        runOnUiThread(new Runnable() {
+                            @Override
+                            public void run() {
+                                mapView.setPath(start, path);
+                            }
+                        });
+                    }
+                });
             }
         });
     }
 
+    @Override
+    protected void onStart() {
+        super.onStart();
+        if(mNavigation != null) {
+            mBase.bindService();
+            mSensor.bindService();
+        }
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        if(mNavigation != null) {
+            mBase.unbindService();
+            mSensor.unbindService();
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if(mNavigation != null) {
+            // The navigation stops on the loop, so the loop quits after it
+            mNavigation.quit();
+            mEventLoop.quitSafely();
+        } else if(mMap != null) {
+            mMap.close();
+        }
+    }
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -71,6 +175,10 @@ public class MapActivity extends Activity {
             mInputPositions = mFileHelper.convertPositions();
         }
 
+        if(mFileHelper.mapExists()) {
+            mMap = mFileHelper.retrieveMap();
+        }
+
         initFrameLayoutListener();
     }
 }
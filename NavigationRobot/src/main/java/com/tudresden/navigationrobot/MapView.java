@@ -8,27 +8,36 @@ import android.graphics.Paint;
 import android.view.MotionEvent;
 import android.view.View;
 
+import com.tudresden.navigationrobot.map.OccupancyGrid;
+
 import java.text.DecimalFormat;
 import java.text.DecimalFormatSymbols;
 import java.util.LinkedList;
 
 /**
  * This View draws a map of the positions that the robot has reached during the exploration
- * phase.
+ * phase on top of the occupancy grid that was built during the exploration phase.
  *
  * @author Nadja Konrad
  */
 public class MapView extends View implements View.OnTouchListener {
 
     /**
-     * The radius for the circles that represent the positions.
+     * Receives the target positions that the user selects on the map.
      */
-    private static final int RADIUS = 10;
+    public interface OnTargetSelectedListener {
+
+        /**
+         * Called when the user has selected a target position.
+         * @param target the real position in the room
+         */
+        void onTargetSelected(Position target);
+    }
 
     /**
-     * The padding for the map.
+     * The radius for the circles that represent the positions.
      */
-    private static final int PADDING = 30;
+    private static final int RADIUS = 10;
 
     /**
      * The canvas that contains the Bitmap that contains the map.
@@ -71,27 +80,56 @@ public class MapView extends View implements View.OnTouchListener {
     private Paint mPaintText = new Paint();
 
     /**
-     * All the positions that need to be marked with a circle.
+     * Green paint for the path to the selected target position.
      */
-    private LinkedList<Position> mScreenPositions = new LinkedList<>();
+    private Paint mPaintPath = new Paint();
+
+    /**
+     * Light gray paint for the cells of the occupancy grid that are free.
+     */
+    private Paint mPaintFree = new Paint();
+
+    /**
+     * Dark gray paint for the cells of the occupancy grid that are occupied.
+     */
+    private Paint mPaintOccupied = new Paint();
 
     /**
-     * The position that marks the starting point on the screen. Not the real coordinates of the
-     * starting point!
+     * All the positions that need to be marked with a circle.
      */
-    private Position mStartPosition;
+    private LinkedList<Position> mScreenPositions = new LinkedList<>();
 
     /**
-     * The distance between the points on the screen (if assumed that the points are evenly
-     * distributed across the screen).
+     * Converts between real positions and positions on the screen.
      */
-    private double mDistanceBetweenPoints;
+    private ScreenTransform mTransform = new ScreenTransform();
 
     /**
      * All the positions that the robot has reached during the exploration phase.
      */
     private LinkedList<Position> mInputPositions = new LinkedList<>();
 
+    /**
+     * The occupancy grid that was built during the exploration phase or null if there is none.
+     */
+    private OccupancyGrid mMap;
+
+    /**
+     * The bitmap that contains the occupancy grid. The grid does not change while the map is
+     * displayed, so it is only drawn once.
+     */
+    private Bitmap mMapLayer;
+
+    /**
+     * The screen positions of the path to the selected target position.
+     */
+    private LinkedList<Position> mScreenPath = new LinkedList<>();
+
+    /**
+     * The listener that is informed when the user has selected a target position or null.
+     */
+    private OnTargetSelectedListener mTargetListener;
+
     /**
      * The width of this view and the bitmap.
      */
@@ -114,10 +152,12 @@ public class MapView extends View implements View.OnTouchListener {
     /**
      * Creates a MapView and initializes the different paint objects.
      * @param context the activity that contains this view
+     * @param inputPositions the positions that the robot has reached during the exploration phase
+     * @param map the occupancy grid that was built during the exploration phase or null
      * @param width the width of this view and the contained bitmap
      * @param height the height of this view and the contained bitmap
      */
-    public MapView(Context context, LinkedList<Position> inputPositions, int width, int height){
+    public MapView(Context context, LinkedList<Position> inputPositions, OccupancyGrid map, int width, int height){
         this(context);
 
         setFocusable(true);
@@ -125,6 +165,7 @@ public class MapView extends View implements View.OnTouchListener {
         setOnTouchListener(this);
 
         mInputPositions = inputPositions;
+        mMap = map;
 
         calculateScreenPositions(width, height);
 
@@ -153,6 +194,46 @@ public class MapView extends View implements View.OnTouchListener {
         mPaintLine.setAntiAlias(true);
         mPaintText.setColor(Color.BLACK);
         mPaintText.setTextSize(20);
+
+        mPaintPath.setAntiAlias(true);
+        mPaintPath.setStyle(Paint.Style.STROKE);
+        mPaintPath.setColor(Color.GREEN);
+        mPaintPath.setStrokeWidth(5);
+
+        mPaintFree.setStyle(Paint.Style.FILL);
+        mPaintFree.setColor(Color.LTGRAY);
+
+        mPaintOccupied.setStyle(Paint.Style.FILL);
+        mPaintOccupied.setColor(Color.DKGRAY);
+
+        initMapLayer();
+    }
+
+    /**
+     * @param listener the listener that is informed when the user has selected a target position
+     */
+    public void setOnTargetSelectedListener(OnTargetSelectedListener listener) {
+        mTargetListener = listener;
+    }
+
+    /**
+     * Displays the path to the selected target position. Must be called on the UI thread.
+     * @param start the real position that the path starts at
+     * @param path the real positions of the waypoints of the path or null to remove the path
+     */
+    public void setPath(Position start, LinkedList<Position> path) {
+        mScreenPath.clear();
+        if(path != null && !mTransform.isEmpty()) {
+            mScreenPath.add(mTransform.toScreen(start));
+            for(Position p : path) {
+                mScreenPath.add(mTransform.toScreen(p));
+            }
+        }
+        // Draw the path on top of the current map instead of redrawing the whole map, so the green
+        // circle for the selected target position stays visible
+        drawPath();
+        mTouchEvent = true;
+        invalidate();
     }
 
     /**
@@ -162,125 +243,117 @@ public class MapView extends View implements View.OnTouchListener {
      * @param height the height of the layout that contains the map
      */
     public void calculateScreenPositions(int width, int height) {
-        double greatestPosX = 0.0;
-        double greatestNegX = 0.0;
-        double greatestPosY = 0.0;
-        double greatestNegY = 0.0;
-
-        for(Position p : mInputPositions) {
-            double x = p.getX();
-            double y = p.getY();
-
-            // Find the greatest positive and negative values for x and y amongst all the positions
-            if(Double.compare(x, 0.0) > 0) {
-                if(Double.compare(x, greatestPosX) > 0) {
-                    greatestPosX = x;
-                }
-            } else {
-                if(Double.compare(Math.abs(x), greatestNegX) > 0) {
-                    greatestNegX = Math.abs(x);
-                }
-            }
-            if(Double.compare(y, 0.0) > 0) {
-                if(Double.compare(y, greatestPosY) > 0) {
-                    greatestPosY = y;
-                }
-            } else {
-                if(Double.compare(Math.abs(y), greatestNegY) > 0) {
-                    greatestNegY = Math.abs(y);
+        mTransform.fit(mInputPositions, calculateMapBounds(), width, height);
+        mScreenPositions = mTransform.toScreen(mInputPositions);
+    }
+
+    /**
+     * Finds the area of the occupancy grid that contains all cells that are known to be free or
+     * occupied.
+     * @return the smallest x, the greatest x, the smallest y and the greatest y in meters or null if
+     * there is no occupancy grid or no known cell
+     */
+    private double[] calculateMapBounds() {
+        if(mMap == null || mMap.isEmpty()) {
+            return null;
+        }
+        final int[] cellBounds = {Integer.MAX_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MIN_VALUE};
+        OccupancyGrid.RegionVisitor visitor = new OccupancyGrid.RegionVisitor() {
+            @Override
+            public void visit(int cellX, int cellY, int size, float logOdds) {
+                if(logOdds < OccupancyGrid.FREE_THRESHOLD || logOdds > OccupancyGrid.OCCUPIED_THRESHOLD) {
+                    cellBounds[0] = Math.min(cellBounds[0], cellX);
+                    cellBounds[1] = Math.max(cellBounds[1], cellX + size);
+                    cellBounds[2] = Math.min(cellBounds[2], cellY);
+                    cellBounds[3] = Math.max(cellBounds[3], cellY + size);
                 }
             }
+        };
+        // Strips of one tile are visited from every side of the grid inwards until they contain a
+        // known cell, so the inside of the map is not looked at. A strip is only skipped if a
+        // known cell beyond it has been found, which makes the bounds exact.
+        int minX = mMap.getMinCellX();
+        int maxX = mMap.getMaxCellX();
+        int minY = mMap.getMinCellY();
+        int maxY = mMap.getMaxCellY();
+        int tile = OccupancyGrid.TILE_SIZE;
+        for(int x = minX; x <= maxX && cellBounds[0] >= x; x += tile) {
+            mMap.visitRegions(x, minY, x + tile - 1, maxY, visitor);
         }
-
-        // Find out how many points need to fit in the width and height
-        double sumX = greatestPosX + greatestNegX;
-        double sumY = greatestPosY + greatestNegY;
-
-        // Choose the distance between the points as big as possible in order to make the map as big
-        // as possible but also make sure that all the points fit on the screen
-        if(Double.compare(sumX, 0.0) == 0 && Double.compare(sumY, 0.0) == 0) {
-            // Only the starting point was in the list
-            mDistanceBetweenPoints = 0.0;
-        } else if(Double.compare(sumX, 0.0) == 0) {
-            // No vertical space needed
-            mDistanceBetweenPoints = (width - PADDING) / sumY;
-        } else if(Double.compare(sumY, 0.0) == 0) {
-            // No horizontal space needed
-            mDistanceBetweenPoints = (height - PADDING) / sumX;
-        } else if(Double.compare((height - PADDING) / sumX, (width - PADDING) / sumY) > 0) {
-            mDistanceBetweenPoints = (width - PADDING) / sumY;
-        } else {
-            mDistanceBetweenPoints = (height - PADDING) / sumX;
+        if(cellBounds[0] == Integer.MAX_VALUE) {
+            return null;
+        }
+        for(int x = maxX - tile + 1; cellBounds[1] <= x; x -= tile) {
+            mMap.visitRegions(x, minY, x + tile - 1, maxY, visitor);
         }
+        for(int y = minY; cellBounds[2] >= y; y += tile) {
+            mMap.visitRegions(minX, y, maxX, y + tile - 1, visitor);
+        }
+        for(int y = maxY - tile + 1; cellBounds[3] <= y; y -= tile) {
+            mMap.visitRegions(minX, y, maxX, y + tile - 1, visitor);
+        }
+        double resolution = mMap.getResolution();
+        return new double[] {cellBounds[0] * resolution, cellBounds[1] * resolution,
+                cellBounds[2] * resolution, cellBounds[3] * resolution};
+    }
 
-        // Calculate the screen position of the starting point (0,0)
-        double startX = mDistanceBetweenPoints * greatestPosY + (PADDING / 2);
-        double startY = mDistanceBetweenPoints * greatestPosX + (PADDING / 2);
-
-        mStartPosition = new Position(startX, startY);
-
-        for(Position p : mInputPositions) {
-            double inX = p.getX();
-            double inY = p.getY();
-            double outX;
-            double outY;
-            if(Double.compare(mDistanceBetweenPoints, 0.0) == 0) {
-                // Only the starting point was in the list so it needs to be displayed in the center
-                // of the screen
-                outX = width / 2;
-                outY = height / 2;
-            } else {
-                // Convert the coordinates of the real positions to the coordinates on the screen.
-                // Be aware that the coordinate system of the robot is exactly the opposite of the
-                // coordinate system of the screen:
-                // Robot: Positive x --> forward, positive y --> left
-                // Screen: Positive x --> width, positive y --> height (origin in the left upper
-                // corner of the screen)
-                if(Double.compare(inX, 0.0) > 0) {
-                    outY = startY - (inX * mDistanceBetweenPoints);
-                } else {
-                    outY = startY + (Math.abs(inX) * mDistanceBetweenPoints);
-                }
-                if(Double.compare(inY, 0.0) > 0) {
-                    outX = startX - (inY * mDistanceBetweenPoints);
+    /**
+     * Draws the free and occupied cells of the occupancy grid into a separate bitmap that is
+     * reused every time the map is drawn.
+     */
+    private void initMapLayer() {
+        if(mMap == null || mTransform.isEmpty()) {
+            return;
+        }
+        mMapLayer = Bitmap.createBitmap(mWidth, mHeight, Bitmap.Config.RGB_565);
+        final Canvas canvas = new Canvas(mMapLayer);
+        canvas.drawPaint(mPaintBackground);
+        final double resolution = mMap.getResolution();
+        final double startX = mTransform.getStartX();
+        final double startY = mTransform.getStartY();
+        final double distanceBetweenPoints = mTransform.getDistanceBetweenPoints();
+        // Only the cells that end up on the bitmap are visited, see the conversion below
+        double cellsPerPixel = 1 / (resolution * distanceBetweenPoints);
+        int minCellX = (int) Math.floor((startY - mHeight) * cellsPerPixel);
+        int maxCellX = (int) Math.ceil(startY * cellsPerPixel);
+        int minCellY = (int) Math.floor((startX - mWidth) * cellsPerPixel);
+        int maxCellY = (int) Math.ceil(startX * cellsPerPixel);
+        mMap.visitRegions(minCellX, minCellY, maxCellX, maxCellY, new OccupancyGrid.RegionVisitor() {
+            @Override
+            public void visit(int cellX, int cellY, int size, float logOdds) {
+                Paint paint;
+                if(logOdds > OccupancyGrid.OCCUPIED_THRESHOLD) {
+                    paint = mPaintOccupied;
+                } else if(logOdds < OccupancyGrid.FREE_THRESHOLD) {
+                    paint = mPaintFree;
                 } else {
-                    outX = startX + (Math.abs(inY) * mDistanceBetweenPoints);
+                    // Unknown cells stay white
+                    return;
                 }
+                // Same conversion as in ScreenTransform: The real x-axis points up on the screen and
+                // the real y-axis points left
+                float left = (float) (startX - (cellY + size) * resolution * distanceBetweenPoints);
+                float right = (float) (startX - cellY * resolution * distanceBetweenPoints);
+                float top = (float) (startY - (cellX + size) * resolution * distanceBetweenPoints);
+                float bottom = (float) (startY - cellX * resolution * distanceBetweenPoints);
+                canvas.drawRect(left, top, right, bottom, paint);
             }
-            mScreenPositions.add(new Position(outX, outY));
-        }
+        });
     }
 
     /**
      * Converts a position on the screen to a real position in the room. Inverts the calculations of
-     * {@see #calculateScreenPositions(int width, int height)}.
+     * {@see #calculateScreenPositions(int width, int height)} and rounds to centimeters.
      * @param x the x-coordinate of the selected position on the screen
      * @param y the y-coordinate of the selected position on the screen
      * @return the real position in the room
      */
     public Position calculateRealPosition(float x, float y) {
-        double targetX = 0.0;
-        double targetY = 0.0;
-
         // If only the starting point is displayed on the map, all selected positions around the
-        // starting point should be treated as point (0,0) because in this case no navigation is
-        // possible
-        if(Double.compare(mDistanceBetweenPoints, 0.0) != 0) {
-            if(Double.compare(x, mStartPosition.getX()) == 0) {
-                targetY = 0;
-            } else if(Double.compare(x, mStartPosition.getX()) < 0) {
-                targetY = -((x - mStartPosition.getX()) / mDistanceBetweenPoints);
-            } else {
-                targetY = (mStartPosition.getX() - x) / mDistanceBetweenPoints;
-            }
-            if(Double.compare(y, mStartPosition.getY()) == 0) {
-                targetX = 0;
-            } else if(Double.compare(y, mStartPosition.getY()) < 0) {
-                targetX = -((y - mStartPosition.getY()) / mDistanceBetweenPoints);
-            } else {
-                targetX = (mStartPosition.getY() - y) / mDistanceBetweenPoints;
-            }
-        }
+        // starting point are treated as point (0,0) because in this case no navigation is possible
+        Position real = mTransform.toReal(x, y);
+        double targetX = real.getX();
+        double targetY = real.getY();
 
         // Set decimal separator as '.' instead of ','
         DecimalFormatSymbols dfs = DecimalFormatSymbols.getInstance();
@@ -299,8 +372,13 @@ public class MapView extends View implements View.OnTouchListener {
         mBitmap = Bitmap.createBitmap(mWidth, mHeight, Bitmap.Config.RGB_565);
         mCanvas = new Canvas(mBitmap);
 
-        // Draw white background
-        mCanvas.drawPaint(mPaintBackground);
+        if(mMapLayer != null) {
+            // Draw the occupancy grid on a white background
+            mCanvas.drawBitmap(mMapLayer, 0, 0, mPaintBackground);
+        } else {
+            // Draw white background
+            mCanvas.drawPaint(mPaintBackground);
+        }
 
         for(Position p : mScreenPositions) {
             if(mScreenPositions.indexOf(p) == 0) {
@@ -314,6 +392,21 @@ public class MapView extends View implements View.OnTouchListener {
                 mCanvas.drawLine((float)start.getX(), (float)start.getY(), (float)p.getX(), (float)p.getY(), mPaintLine);
             }
         }
+
+        drawPath();
+    }
+
+    /**
+     * Draws green lines along the path to the selected target position.
+     */
+    private void drawPath() {
+        Position previous = null;
+        for(Position p : mScreenPath) {
+            if(previous != null) {
+                mCanvas.drawLine((float)previous.getX(), (float)previous.getY(), (float)p.getX(), (float)p.getY(), mPaintPath);
+            }
+            previous = p;
+        }
     }
 
     @Override
@@ -341,6 +434,10 @@ public class MapView extends View implements View.OnTouchListener {
         mCanvas.drawText("(" + p.getX() + " , " + p.getY() + ")", event.getX() + RADIUS, event.getY() + 6, mPaintText);
         // Force the view to draw (onDraw() is called)
         invalidate();
+        if(event.getAction() == MotionEvent.ACTION_UP && mTargetListener != null) {
+            // Only navigate once the user has lifted the finger, not for every move in between
+            mTargetListener.onTargetSelected(p);
+        }
         return true;
     }
 }
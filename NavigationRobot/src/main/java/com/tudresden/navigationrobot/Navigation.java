@@ -0,0 +1,596 @@
+package com.tudresden.navigationrobot;
+
+import com.tudresden.navigationrobot.localization.LikelihoodField;
+import com.tudresden.navigationrobot.localization.Localizer;
+import com.tudresden.navigationrobot.localization.ParticleFilter;
+import com.tudresden.navigationrobot.map.OccupancyGrid;
+import com.tudresden.navigationrobot.planning.DStarLitePlanner;
+import com.tudresden.navigationrobot.planning.PlanningGrid;
+import com.tudresden.navigationrobot.robot.CheckPointScheduler;
+import com.tudresden.navigationrobot.robot.Pose;
+import com.tudresden.navigationrobot.robot.RobotBase;
+import com.tudresden.navigationrobot.robot.RobotLog;
+import com.tudresden.navigationrobot.robot.RobotSensor;
+import com.tudresden.navigationrobot.robot.Scheduler;
+
+import java.util.LinkedList;
+
+/**
+ * This class handles the navigation to a target position on the map of a previously explored room.
+ * Paths are planned with D* Lite on the thread of the scheduler and then handed to the base as a
+ * sequence of checkpoints through a CheckPointScheduler. When the base reports an obstacle on the
+ * way, the obstacle is added to the planning grid and the path is repaired from the current position
+ * of the robot. Like the Exploration, it doesn't depend on Android or the Segway SDK, so the same
+ * code drives the robot and the simulator.
+ * The robot localizes itself in the map with a ParticleFilter that a Localizer feeds with the
+ * odometry and the ultrasonic sensor. The filter starts around the position that the
+ * robot is believed to be at and turns the robot around once, so it finds the robot within seconds
+ * without exploring the room again. Whenever the robot stands or a new path is planned, its position
+ * is replaced by the estimate of the filter.
+ */
+public class Navigation {
+
+    /**
+     * The tag that is used for log messages.
+     */
+    private static final String TAG = "Navigation";
+
+    /**
+     * The distance that the robot keeps to obstacles.
+     */
+    private static final float OBSTACLE_AVOIDANCE_DISTANCE = 0.5f;
+
+    /**
+     * Half the opening angle of the ultrasonic sensor, which determines how wide an obstacle that
+     * was reported by the base is assumed to be.
+     */
+    private static final double OBSTACLE_HALF_ANGLE = Math.toRadians(15);
+
+    /**
+     * The distance in meters that the planning grid reaches beyond the robot and the target. Paths
+     * that have to make a wider detour are found by planning on the whole map.
+     */
+    private static final double PLANNING_MARGIN = 3.0;
+
+    /**
+     * The standard deviation in meters of the position that the robot is believed to be at when the
+     * navigation starts.
+     */
+    private static final double START_POSITION_SIGMA = 0.5;
+
+    /**
+     * The standard deviation of the heading that the robot is believed to have when the navigation
+     * starts.
+     */
+    private static final double START_HEADING_SIGMA = Math.toRadians(20);
+
+    /**
+     * Receives the result of planning a path.
+     */
+    public interface PathListener {
+
+        /**
+         * Called on the thread of the scheduler when a path was planned.
+         * @param start the position that the path starts at
+         * @param path the waypoints of the path or null if there is no path to the target
+         */
+        void onPathPlanned(Position start, LinkedList<Position> path);
+    }
+
+    /**
+     * The scheduler that paths are planned on and that all state of this class is accessed from.
+     */
+    private final Scheduler mScheduler;
+
+    /**
+     * Hands the checkpoints of the paths to the base and tells about their progress.
+     */
+    private final CheckPointScheduler mCheckPoints;
+
+    /**
+     * The base that the particle filter reads the odometry from.
+     */
+    private final RobotBase mBase;
+
+    /**
+     * The sensor that the particle filter reads the ultrasonic distances from.
+     */
+    private final RobotSensor mSensor;
+
+    /**
+     * Feeds the particle filter that localizes the robot in the map or null until it is prepared.
+     */
+    private Localizer mLocalizer = null;
+
+    /**
+     * True if the particle filter agrees on the pose of the robot.
+     */
+    private boolean mLocalized = false;
+
+    /**
+     * True if the robot has turned around once to localize itself.
+     */
+    private boolean mLookedAround = false;
+
+    /**
+     * True while the robot turns around on the spot to localize itself rather than following a
+     * planned path.
+     */
+    private boolean mLookingAround = false;
+
+    /**
+     * Reads the odometry and the ultrasonic sensor for the particle filter every
+     * Localizer.INTERVAL milliseconds.
+     */
+    private final Runnable mLocalizationTask = new Runnable() {
+        @Override
+        public void run() {
+            localize();
+            mScheduler.postDelayed(this, Localizer.INTERVAL);
+        }
+    };
+
+    /**
+     * The occupancy grid that paths are planned on.
+     */
+    private OccupancyGrid mMap;
+
+    /**
+     * The snapshot of the occupancy grid that the planner searches on.
+     */
+    private PlanningGrid mPlanningGrid = new PlanningGrid(PlanningGrid.ROBOT_RADIUS);
+
+    /**
+     * The planner.
+     */
+    private DStarLitePlanner mPlanner = new DStarLitePlanner(mPlanningGrid);
+
+    /**
+     * The listener for the path to the current target.
+     */
+    private PathListener mPathListener = null;
+
+    /**
+     * The odometry pose of the robot when the checkpoints of the current path were set.
+     */
+    private Pose mOdometryOrigin = null;
+
+    /**
+     * The x-coordinate of the robot when the checkpoints of the current path were set.
+     */
+    private double mOriginX;
+
+    /**
+     * The y-coordinate of the robot when the checkpoints of the current path were set.
+     */
+    private double mOriginY;
+
+    /**
+     * The heading of the robot when the checkpoints of the current path were set.
+     */
+    private double mOriginHeading;
+
+    /**
+     * The current x-coordinate of the robot.
+     */
+    private double mXCoordinate;
+
+    /**
+     * The current y-coordinate of the robot.
+     */
+    private double mYCoordinate;
+
+    /**
+     * The current heading of the robot in radians.
+     */
+    private double mHeading;
+
+    /**
+     * The position that the robot is currently driving to or null if it is not driving.
+     */
+    private Position mTarget = null;
+
+    /**
+     * The heading that the robot will have when it has reached the target.
+     */
+    private double mTargetHeading;
+
+    /**
+     * Creates the navigation and prepares the planner for the given map. The map must not be
+     * accessed by anyone else after it was handed to this class.
+     * @param base the base that is used for controlling the robots movements
+     * @param sensor the sensor that the particle filter reads the ultrasonic distances from
+     * @param scheduler the scheduler that the planning, the localization and the events of the base
+     *                  run on
+     * @param map the occupancy grid of the room
+     * @param robotPosition the position that the robot is believed to be at, which the particle
+     *                      filter starts from; the orientation may be null
+     */
+    public Navigation(RobotBase base, RobotSensor sensor, Scheduler scheduler, final OccupancyGrid map,
+                      Position robotPosition) {
+        this(base, sensor, scheduler, map, robotPosition, System.nanoTime());
+    }
+
+    /**
+     * Creates the navigation with a particle filter whose noise is seeded, so a simulated run can be
+     * repeated.
+     * @param seed the seed of the noise of the particle filter
+     */
+    Navigation(RobotBase base, RobotSensor sensor, Scheduler scheduler, final OccupancyGrid map,
+               Position robotPosition, final long seed) {
+        this.mBase = base;
+        this.mSensor = sensor;
+        this.mScheduler = scheduler;
+        this.mMap = map;
+        this.mXCoordinate = robotPosition.getX();
+        this.mYCoordinate = robotPosition.getY();
+        this.mHeading = robotPosition.getOrientation() != null ? robotPosition.getOrientation().getHeading() : 0.0;
+        final double headingSigma = robotPosition.getOrientation() != null ? START_HEADING_SIGMA : Double.NaN;
+        mCheckPoints = new CheckPointScheduler(base, scheduler);
+        mCheckPoints.setObstacleAvoidance(true, OBSTACLE_AVOIDANCE_DISTANCE);
+        mCheckPoints.setListener(new CheckPointScheduler.Listener() {
+            @Override
+            public void onCheckPointArrived(Pose realPose, boolean isLast) {
+                if(isLast) {
+                    arrivedAtTarget();
+                }
+            }
+
+            @Override
+            public void onCheckPointFailed() {
+                targetFailed();
+            }
+
+            @Override
+            public void onObstacleStateChanged(boolean appeared) {
+                if(appeared) {
+                    obstacleAppeared();
+                }
+            }
+        });
+        mScheduler.post(new Runnable() {
+            @Override
+            public void run() {
+                long start = System.nanoTime();
+                LikelihoodField field = new LikelihoodField(mMap, PlanningGrid.ROBOT_RADIUS);
+                ParticleFilter filter = new ParticleFilter(field, seed);
+                filter.initialize(mXCoordinate, mYCoordinate, mHeading, START_POSITION_SIGMA, headingSigma);
+                mLocalizer = new Localizer(filter, mBase, mSensor);
+                RobotLog.d(TAG, "Particle filter prepared in " + (System.nanoTime() - start) / 1000000 + " ms");
+                mScheduler.postDelayed(mLocalizationTask, Localizer.INTERVAL);
+            }
+        });
+    }
+
+    /**
+     * Plans a path from the current position of the robot to the target and makes the robot follow
+     * it. Returns immediately, the planning happens on the thread of the scheduler.
+     * @param target the real position to drive to
+     * @param listener the listener that receives the planned path or null
+     */
+    public void navigateTo(final Position target, final PathListener listener) {
+        mScheduler.post(new Runnable() {
+            @Override
+            public void run() {
+                mPathListener = listener;
+                // The robot may still be driving to the previous target
+                updatePosition();
+                applyLocalization();
+                long start = System.nanoTime();
+                // A new snapshot also removes the obstacles that the base reported on the way to
+                // the previous target, which are usually people
+                mPlanningGrid.update(mMap,
+                        mMap.toCellX(Math.min(mXCoordinate, target.getX()) - PLANNING_MARGIN),
+                        mMap.toCellY(Math.min(mYCoordinate, target.getY()) - PLANNING_MARGIN),
+                        mMap.toCellX(Math.max(mXCoordinate, target.getX()) + PLANNING_MARGIN),
+                        mMap.toCellY(Math.max(mYCoordinate, target.getY()) + PLANNING_MARGIN));
+                LinkedList<Position> path = mPlanner.plan(mXCoordinate, mYCoordinate, target.getX(), target.getY());
+                if(path == null && !mPlanningGrid.coversMap()) {
+                    mPlanningGrid.update(mMap);
+                    path = mPlanner.plan(mXCoordinate, mYCoordinate, target.getX(), target.getY());
+                }
+                RobotLog.d(TAG, "Planned path to (" + target.getX() + " , " + target.getY() + ") on "
+                        + mPlanningGrid.size() + " cells in " + (System.nanoTime() - start) / 1000 + " us, "
+                        + mPlanner.getExpandedCount() + " cells expanded, "
+                        + (path == null ? "no path" : path.size() + " waypoints"));
+                pathPlanned(path);
+            }
+        });
+    }
+
+    /**
+     * Adds the obstacle that the base has reported to the planning grid and repairs the path to the
+     * current target. The obstacle is assumed to be at the obstacle avoidance distance in front of
+     * the robot and as wide as the cone of the ultrasonic sensor. D* Lite only expands the cells
+     * whose cost to the target is changed by the obstacle, so the robot gets a new path before it
+     * has come to a halt in most cases.
+     * While the robot turns around on the spot nothing was planned, so the obstacle is ignored; it
+     * is usually a wall that the robot stands next to and the turn doesn't move the robot towards it.
+     */
+    private void obstacleAppeared() {
+        if(mTarget == null || mLookingAround) {
+            return;
+        }
+        long start = System.nanoTime();
+        updatePosition();
+        double cos = Math.cos(mHeading);
+        double sin = Math.sin(mHeading);
+        double halfWidth = OBSTACLE_AVOIDANCE_DISTANCE * Math.tan(OBSTACLE_HALF_ANGLE);
+        double step = mPlanningGrid.getResolution() / 2;
+        for(double offset = -halfWidth; offset <= halfWidth; offset += step) {
+            mPlanningGrid.markOccupied(mXCoordinate + OBSTACLE_AVOIDANCE_DISTANCE * cos - offset * sin,
+                    mYCoordinate + OBSTACLE_AVOIDANCE_DISTANCE * sin + offset * cos);
+        }
+        LinkedList<Position> path = mPlanner.replan(mXCoordinate, mYCoordinate);
+        RobotLog.d(TAG, "Repaired path at (" + mXCoordinate + " , " + mYCoordinate + ") in "
+                + (System.nanoTime() - start) / 1000 + " us, " + mPlanner.getExpandedCount()
+                + " cells expanded, " + (path == null ? "no path" : path.size() + " waypoints"));
+        pathPlanned(path);
+    }
+
+    /**
+     * Makes the robot follow a new path and hands it to the listener. Stops the robot if there is no
+     * path.
+     * @param path the waypoints or null if there is no path to the target
+     */
+    private void pathPlanned(LinkedList<Position> path) {
+        Position robotPosition = new Position(mXCoordinate, mYCoordinate);
+        if(path != null) {
+            followPath(path);
+        } else {
+            mCheckPoints.stop();
+            mTarget = null;
+            mLookingAround = false;
+            mOdometryOrigin = null;
+        }
+        if(mPathListener != null) {
+            mPathListener.onPathPlanned(robotPosition, path);
+        }
+    }
+
+    /**
+     * Updates the position of the robot while it follows a path. The odometry of the base has its
+     * own coordinate system, so only the movement since the checkpoints were set is taken from it.
+     */
+    private void updatePosition() {
+        if(mOdometryOrigin == null) {
+            return;
+        }
+        Pose pose = mCheckPoints.getOdometryPose();
+        if(pose == null) {
+            return;
+        }
+        double dx = pose.getX() - mOdometryOrigin.getX();
+        double dy = pose.getY() - mOdometryOrigin.getY();
+        // Movement in the coordinate system of the robot at the origin
+        double originCos = Math.cos(mOdometryOrigin.getTheta());
+        double originSin = Math.sin(mOdometryOrigin.getTheta());
+        double forward = originCos * dx + originSin * dy;
+        double left = -originSin * dx + originCos * dy;
+        double cos = Math.cos(mOriginHeading);
+        double sin = Math.sin(mOriginHeading);
+        mXCoordinate = mOriginX + cos * forward - sin * left;
+        mYCoordinate = mOriginY + sin * forward + cos * left;
+        mHeading = normalizeAngle(mOriginHeading + pose.getTheta() - mOdometryOrigin.getTheta());
+    }
+
+    /**
+     * Lets the localizer move the particle filter by the odometry and add a reading of the
+     * ultrasonic sensor. The robot turns around once as soon as the base can be read, so the sensor
+     * sees the walls around it.
+     */
+    private void localize() {
+        if(!mLookedAround && mTarget == null && mCheckPoints.getOdometryPose() != null) {
+            lookAround();
+        }
+        if(!mLocalizer.step()) {
+            return;
+        }
+        ParticleFilter filter = mLocalizer.getFilter();
+        if(filter.isConverged() != mLocalized) {
+            mLocalized = filter.isConverged();
+            RobotLog.d(TAG, (mLocalized ? "Localized at (" + filter.getX() + " , " + filter.getY() + ") with "
+                    : "Lost the position with ") + filter.getParticleCount() + " particles, update took "
+                    + filter.getMaxUpdateTime() + " ms max");
+        }
+        if(mTarget == null) {
+            applyLocalization();
+        }
+    }
+
+    /**
+     * Turns the robot around on the spot in four quarter turns.
+     */
+    private void lookAround() {
+        mLookedAround = true;
+        resetOriginalPoint();
+        mCheckPoints.addCheckPoint(0, 0, (float) (Math.PI / 2));
+        mCheckPoints.addCheckPoint(0, 0, (float) Math.PI);
+        mCheckPoints.addCheckPoint(0, 0, (float) (-Math.PI / 2));
+        mCheckPoints.addCheckPoint(0, 0, 0);
+        mLookingAround = true;
+        mTarget = new Position(mXCoordinate, mYCoordinate);
+        mTargetHeading = mHeading;
+    }
+
+    /**
+     * Replaces the position of the robot with the estimate of the particle filter if the filter
+     * agrees on the pose. Must not be called while the robot follows a path, because the
+     * checkpoints of the path are relative to the position at which they were set.
+     */
+    private void applyLocalization() {
+        if(mLocalizer == null || !mLocalizer.getFilter().isConverged()) {
+            return;
+        }
+        ParticleFilter filter = mLocalizer.getFilter();
+        mXCoordinate = filter.getX();
+        mYCoordinate = filter.getY();
+        mHeading = filter.getHeading();
+    }
+
+    /**
+     * Makes the robot stop its movements.
+     */
+    public void stopNavigation() {
+        mScheduler.post(new Runnable() {
+            @Override
+            public void run() {
+                mCheckPoints.stop();
+                updatePosition();
+                mTarget = null;
+                mLookingAround = false;
+                mOdometryOrigin = null;
+            }
+        });
+    }
+
+    /**
+     * Hands the waypoints of a path to the base. The checkpoints of the base are relative to the
+     * original point, which is set to the current pose of the robot, so every waypoint needs to be
+     * transformed into the coordinate system of the robot. The last checkpoint keeps the heading of
+     * the last segment, so the heading of the robot is known when it arrives.
+     * @param path the waypoints
+     */
+    private void followPath(LinkedList<Position> path) {
+        if(!resetOriginalPoint()) {
+            RobotLog.d(TAG, "Base can't be read, can't follow the path");
+            mTarget = null;
+            return;
+        }
+        double cos = Math.cos(mHeading);
+        double sin = Math.sin(mHeading);
+        double previousX = mXCoordinate;
+        double previousY = mYCoordinate;
+        int remaining = path.size();
+        for(Position p : path) {
+            double dx = p.getX() - mXCoordinate;
+            double dy = p.getY() - mYCoordinate;
+            float localX = (float) (cos * dx + sin * dy);
+            float localY = (float) (-sin * dx + cos * dy);
+            remaining--;
+            if(remaining == 0) {
+                mTargetHeading = Math.atan2(p.getY() - previousY, p.getX() - previousX);
+                mCheckPoints.addCheckPoint(localX, localY, (float) normalizeAngle(mTargetHeading - mHeading));
+            } else {
+                mCheckPoints.addCheckPoint(localX, localY);
+            }
+            previousX = p.getX();
+            previousY = p.getY();
+        }
+        mTarget = path.getLast();
+    }
+
+    /**
+     * Deletes all checkpoints, stops the robot and makes its current pose the original point that
+     * new checkpoints are relative to.
+     * @return false if the base can't be read, e.g. because its service isn't bound
+     */
+    private boolean resetOriginalPoint() {
+        mLookingAround = false;
+        mOdometryOrigin = mCheckPoints.resetOriginalPoint();
+        mOriginX = mXCoordinate;
+        mOriginY = mYCoordinate;
+        mOriginHeading = mHeading;
+        return mOdometryOrigin != null;
+    }
+
+    /**
+     * Updates the position of the robot when it has reached the last checkpoint of a path.
+     */
+    private void arrivedAtTarget() {
+        if(mTarget == null) {
+            return;
+        }
+        mXCoordinate = mTarget.getX();
+        mYCoordinate = mTarget.getY();
+        mHeading = mTargetHeading;
+        mTarget = null;
+        mLookingAround = false;
+        mOdometryOrigin = null;
+        applyLocalization();
+        RobotLog.d(TAG, "Arrived at (" + mXCoordinate + " , " + mYCoordinate + ")");
+    }
+
+    /**
+     * Gives up the target when the base couldn't reach a checkpoint of the path. The robot has
+     * already been stopped.
+     */
+    private void targetFailed() {
+        if(mTarget == null) {
+            return;
+        }
+        updatePosition();
+        RobotLog.d(TAG, "Gave up the target at (" + mXCoordinate + " , " + mYCoordinate + ")");
+        mTarget = null;
+        mLookingAround = false;
+        mOdometryOrigin = null;
+    }
+
+    /**
+     * @return the angle mapped to the range from -pi to pi
+     */
+    private static double normalizeAngle(double angle) {
+        while(angle > Math.PI) {
+            angle -= 2 * Math.PI;
+        }
+        while(angle < -Math.PI) {
+            angle += 2 * Math.PI;
+        }
+        return angle;
+    }
+
+    /**
+     * @return the position that the robot believes to be at; must only be called on the thread of
+     * the scheduler
+     */
+    public Position getPosition() {
+        updatePosition();
+        return new Position(mXCoordinate, mYCoordinate);
+    }
+
+    /**
+     * @return true while the robot drives to a target or turns around to localize itself; must only
+     * be called on the thread of the scheduler
+     */
+    public boolean isDriving() {
+        return mTarget != null;
+    }
+
+    /**
+     * @return the particle filter or null until it is prepared; must only be called on the thread
+     * of the scheduler
+     */
+    public ParticleFilter getFilter() {
+        return mLocalizer != null ? mLocalizer.getFilter() : null;
+    }
+
+    /**
+     * @return the scheduler that hands the checkpoints to the base, e.g. for its statistics
+     */
+    public CheckPointScheduler getCheckPointScheduler() {
+        return mCheckPoints;
+    }
+
+    /**
+     * Stops the robot, the localization and the threads of the particle filter and closes the map.
+     * The instance can't be used afterwards. The scheduler keeps running, its owner quits it once
+     * the posted task has run.
+     */
+    public void quit() {
+        mScheduler.post(new Runnable() {
+            @Override
+            public void run() {
+                mScheduler.cancel(mLocalizationTask);
+                mCheckPoints.stop();
+                mTarget = null;
+                mLookingAround = false;
+                mOdometryOrigin = null;
+                if(mLocalizer != null) {
+                    mLocalizer.getFilter().shutdown();
+                }
+                mMap.close();
+            }
+        });
+    }
+
+}
@@ -8,8 +8,42 @@ package com.tudresden.navigationrobot;
  */
 
 public enum Orientation {
-    FORWARD,
-    BACKWARD,
-    LEFT,
-    RIGHT
+    FORWARD(0.0),
+    BACKWARD(Math.PI),
+    LEFT(Math.PI / 2),
+    RIGHT(-Math.PI / 2);
+
+    /**
+     * The heading that belongs to this orientation in radians. The heading is measured
+     * counterclockwise from the x-axis (positive x --> forward, positive y --> left).
+     */
+    private final double heading;
+
+    Orientation(double heading) {
+        this.heading = heading;
+    }
+
+    /**
+     * @return the heading that belongs to this orientation in radians
+     */
+    public double getHeading() {
+        return heading;
+    }
+
+    /**
+     * @param heading a heading in radians
+     * @return the orientation whose heading is closest to the given heading
+     */
+    public static Orientation closestTo(double heading) {
+        Orientation closest = FORWARD;
+        double smallest = Double.MAX_VALUE;
+        for(Orientation orientation : values()) {
+            double difference = Math.abs(Math.IEEEremainder(heading - orientation.heading, 2 * Math.PI));
+            if(difference < smallest) {
+                smallest = difference;
+                closest = orientation;
+            }
+        }
+        return closest;
+    }
 }
@@ -23,16 +23,34 @@ public class Position {
      */
     private Orientation orientation;
 
+    /**
+     * The time in milliseconds at which the robot was at this position, on the clock of the
+     * scheduler of the exploration, or 0 if it isn't known.
+     */
+    private long timestamp;
+
     /**
      * Creates a new position.
      * @param x the x-coordinate of this position
      * @param y the y-coordinate of this position
      * @param orientation the orientation of the robot at this position
+     * @param timestamp the time in milliseconds at which the robot was at this position
      */
-    public Position(double x, double y, Orientation orientation) {
+    public Position(double x, double y, Orientation orientation, long timestamp) {
         this.x = x;
         this.y = y;
         this.orientation = orientation;
+        this.timestamp = timestamp;
+    }
+
+    /**
+     * Creates a new position without time.
+     * @param x the x-coordinate of this position
+     * @param y the y-coordinate of this position
+     * @param orientation the orientation of the robot at this position
+     */
+    public Position(double x, double y, Orientation orientation) {
+        this(x, y, orientation, 0);
     }
 
     /**
@@ -65,4 +83,12 @@ public class Position {
         return orientation;
     }
 
+    /**
+     * @return the time in milliseconds at which the robot was at this position or 0 if it isn't
+     * known
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
 }
@@ -0,0 +1,341 @@
+package com.tudresden.navigationrobot;
+
+import com.tudresden.navigationrobot.robot.RobotLog;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * An append-only journal of the positions of an exploration in the format of positions.bin, so a
+ * crash, an unbound service or an empty battery loses at most the last second of the run. The
+ * exploration hands every new position to the journal without blocking: it is appended to a
+ * lock-free queue and written by a thread of the journal. The thread waits up to COMMIT_DELAY for
+ * more positions and commits them together with a single fsync.
+ * <p>
+ * When a loop closure corrects the earlier positions, a replacement with the corrected positions is
+ * appended instead of rewriting the file. It only takes effect once it is written completely, so a
+ * crash in the middle of it keeps the previous positions. Once the journal has grown large and most
+ * of it has been dropped by replacements, the next correction is compacted into a new file that
+ * replaces the journal.
+ * Since the journal is always a valid file of positions, saving a finished exploration is just
+ * renaming it, see #finish(File).
+ */
+public class PositionJournal {
+
+    /**
+     * The tag that is used for log messages.
+     */
+    private static final String TAG = "PositionJournal";
+
+    /**
+     * The longest time in milliseconds that a position waits for others to be committed with.
+     */
+    static final long COMMIT_DELAY = 1000;
+
+    /**
+     * The smallest size of the journal in bytes that is compacted.
+     */
+    static final long MIN_COMPACTION_SIZE = 64 * 1024;
+
+    /**
+     * The journal is compacted when it is this many times larger than the positions that weren't
+     * dropped by a replacement.
+     */
+    static final int COMPACTION_RATIO = 4;
+
+    /**
+     * A position that is appended or the positions that replace all previous ones.
+     */
+    private static class Entry {
+
+        /**
+         * The position that is appended or null.
+         */
+        final Position position;
+
+        /**
+         * The positions that replace all previous ones or null.
+         */
+        final List<Position> positions;
+
+        Entry(Position position, List<Position> positions) {
+            this.position = position;
+            this.positions = positions;
+        }
+    }
+
+    /**
+     * The file of the journal.
+     */
+    private final File mFile;
+
+    /**
+     * The entries that haven't been taken by the thread of the journal yet.
+     */
+    private final ConcurrentLinkedQueue<Entry> mInbound = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The thread that writes and commits the entries.
+     */
+    private final Thread mThread;
+
+    /**
+     * True once #close() was called. The pending entries are committed right away then instead of
+     * waiting for more.
+     */
+    private volatile boolean mClosing = false;
+
+    /**
+     * The first error of the journal. Nothing is written after it.
+     */
+    private volatile IOException mError = null;
+
+    /**
+     * The stream of the file. Only used on the thread of the journal.
+     */
+    private FileOutputStream mOut;
+
+    /**
+     * The writer that encodes the positions into the stream. Only used on the thread of the journal.
+     */
+    private PositionWriter mWriter;
+
+    /**
+     * The offset in the file where the positions start that weren't dropped by a replacement. Only used
+     * on the thread of the journal.
+     */
+    private long mLiveStart = 0;
+
+    /**
+     * The number of positions that were committed.
+     */
+    private volatile long mCommitCount = 0;
+
+    /**
+     * The number of batches that were committed, each with a single fsync.
+     */
+    private volatile long mBatchCount = 0;
+
+    /**
+     * The number of times that the journal was compacted.
+     */
+    private volatile int mCompactionCount = 0;
+
+    /**
+     * Creates the journal and starts its thread, which replaces the file with an empty journal.
+     * @param file the file of the journal
+     */
+    public PositionJournal(File file) {
+        this.mFile = file;
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop();
+            }
+        }, "PositionJournal");
+        mThread.setDaemon(true);
+        mThread.start();
+    }
+
+    /**
+     * Appends a position. Never blocks.
+     * @param position the position
+     */
+    public void append(Position position) {
+        enqueue(new Entry(position, null));
+    }
+
+    /**
+     * Replaces all positions, e.g. after they were corrected. The list is copied, so it can be
+     * changed afterwards.
+     * @param positions the positions
+     */
+    public void replaceAll(List<Position> positions) {
+        enqueue(new Entry(null, new ArrayList<>(positions)));
+    }
+
+    /**
+     * Commits the pending positions, closes the file and stops the thread. Blocks until the
+     * positions are on the disk.
+     * @throws IOException if the journal couldn't be written
+     */
+    public void close() throws IOException {
+        mClosing = true;
+        LockSupport.unpark(mThread);
+        boolean interrupted = false;
+        while(mThread.isAlive()) {
+            try {
+                mThread.join();
+            } catch(InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if(interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if(mError != null) {
+            throw mError;
+        }
+    }
+
+    /**
+     * Closes the journal and renames it, so it replaces a file of positions in a single step
+     * however many positions it holds.
+     * @param target the file of positions that is replaced
+     * @throws IOException if the journal couldn't be written or renamed
+     */
+    public void finish(File target) throws IOException {
+        close();
+        if(!mFile.renameTo(target)) {
+            throw new IOException("The journal couldn't be renamed to " + target);
+        }
+    }
+
+    /**
+     * @return the number of positions that were committed
+     */
+    public long getCommitCount() {
+        return mCommitCount;
+    }
+
+    /**
+     * @return the number of batches that were committed, each with a single fsync
+     */
+    public long getBatchCount() {
+        return mBatchCount;
+    }
+
+    /**
+     * @return the number of times that the journal was compacted
+     */
+    public int getCompactionCount() {
+        return mCompactionCount;
+    }
+
+    /**
+     * Hands an entry to the thread of the journal.
+     */
+    private void enqueue(Entry entry) {
+        mInbound.add(entry);
+        LockSupport.unpark(mThread);
+    }
+
+    /**
+     * Creates the file and commits the entries until the journal is closed.
+     */
+    private void loop() {
+        try {
+            mOut = new FileOutputStream(mFile);
+            mWriter = new PositionWriter(mOut);
+            mWriter.flush();
+            mLiveStart = mWriter.getByteCount();
+        } catch(IOException e) {
+            fail(e);
+        }
+        while(true) {
+            if(mInbound.isEmpty()) {
+                if(mClosing) {
+                    break;
+                }
+                LockSupport.park(this);
+                continue;
+            }
+            // Give the next positions the chance to be committed with the same fsync
+            long deadline = System.nanoTime() + COMMIT_DELAY * 1000000;
+            long remaining;
+            while(!mClosing && (remaining = deadline - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(this, remaining);
+            }
+            commit();
+        }
+        if(mWriter != null) {
+            try {
+                mWriter.close();
+            } catch(IOException e) {
+                fail(e);
+            }
+        }
+        RobotLog.d(TAG, "Committed " + mCommitCount + " positions in " + mBatchCount + " batches, "
+                + mCompactionCount + " compactions");
+    }
+
+    /**
+     * Writes the pending entries and forces them to the disk.
+     */
+    private void commit() {
+        int count = 0;
+        Entry entry;
+        try {
+            while((entry = mInbound.poll()) != null) {
+                if(mError != null) {
+                    continue;
+                }
+                if(entry.position != null) {
+                    mWriter.write(entry.position);
+                    count++;
+                } else if(mWriter.getByteCount() >= MIN_COMPACTION_SIZE
+                        && mWriter.getByteCount() >= COMPACTION_RATIO * (mWriter.getByteCount() - mLiveStart)) {
+                    compact(entry.positions);
+                    count += entry.positions.size();
+                } else {
+                    mLiveStart = mWriter.getByteCount();
+                    mWriter.writeReplacement(entry.positions);
+                    count += entry.positions.size();
+                }
+            }
+            if(mError == null) {
+                mWriter.flush();
+                mOut.getChannel().force(false);
+                mCommitCount += count;
+                mBatchCount++;
+            }
+        } catch(IOException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Writes the positions to a new file that replaces the journal. If the process dies in between,
+     * the old journal is still complete.
+     * @param positions the positions that replace all previous ones
+     */
+    private void compact(List<Position> positions) throws IOException {
+        File compacted = new File(mFile.getPath() + ".compact");
+        FileOutputStream out = new FileOutputStream(compacted);
+        PositionWriter writer = new PositionWriter(out);
+        long start = writer.getByteCount();
+        try {
+            writer.writeAll(positions);
+            writer.flush();
+            out.getChannel().force(false);
+        } catch(IOException e) {
+            writer.close();
+            throw e;
+        }
+        // The positions of the old journal that weren't flushed yet are dropped by the new ones
+        mWriter.close();
+        mOut = out;
+        mWriter = writer;
+        mLiveStart = start;
+        if(!compacted.renameTo(mFile)) {
+            throw new IOException("The compacted journal couldn't be renamed to " + mFile);
+        }
+        mCompactionCount++;
+    }
+
+    /**
+     * Stops writing the journal after an error.
+     */
+    private void fail(IOException e) {
+        if(mError == null) {
+            mError = e;
+            RobotLog.d(TAG, "The journal couldn't be written, it is stopped: " + e);
+        }
+    }
+
+}
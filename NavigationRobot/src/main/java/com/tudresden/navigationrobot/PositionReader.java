@@ -0,0 +1,312 @@
+package com.tudresden.navigationrobot;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.LinkedList;
+
+/**
+ * Reads positions one by one from the binary format that PositionWriter writes. The stream is read
+ * in blocks into a buffer of the reader, so it doesn't need to be buffered. A file that breaks off
+ * in the middle of a position is read up to the last complete position, and one that breaks off
+ * within a replacement up to the position before it. The files of version 1, which have no resets,
+ * and of version 2, whose resets take effect right away, are read as well.
+ */
+public class PositionReader implements Closeable {
+
+    /**
+     * The size of the buffer in bytes.
+     */
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * The orientations in the order of their codes, which are their ordinals plus one.
+     */
+    private static final Orientation[] ORIENTATIONS = Orientation.values();
+
+    /**
+     * #next() has read a position.
+     */
+    private static final int POSITION = 0;
+
+    /**
+     * #next() has read a reset.
+     */
+    private static final int RESET = 1;
+
+    /**
+     * #next() has read the end of a replacement.
+     */
+    private static final int REPLACEMENT_END = 2;
+
+    /**
+     * #next() has reached the end of the stream or a record that breaks off.
+     */
+    private static final int END = 3;
+
+    /**
+     * The stream that the positions are read from.
+     */
+    private final InputStream mIn;
+
+    /**
+     * The buffer that the stream is read into.
+     */
+    private final byte[] mBuffer = new byte[BUFFER_SIZE];
+
+    /**
+     * The index of the next byte in the buffer.
+     */
+    private int mPosition = 0;
+
+    /**
+     * The number of bytes in the buffer.
+     */
+    private int mLimit = 0;
+
+    /**
+     * The version of the format of the file.
+     */
+    private final long mVersion;
+
+    /**
+     * The number of meters per fixed-point unit of the file.
+     */
+    private final double mMetersPerUnit;
+
+    /**
+     * The position that #next() has read last.
+     */
+    private Position mNext = null;
+
+    /**
+     * The positions of a replacement that was read completely and that #read() hasn't returned yet.
+     */
+    private final ArrayDeque<Position> mReplacement = new ArrayDeque<>();
+
+    /**
+     * The x-coordinate of the previous position in fixed-point units.
+     */
+    private long mLastX = 0;
+
+    /**
+     * The y-coordinate of the previous position in fixed-point units.
+     */
+    private long mLastY = 0;
+
+    /**
+     * The timestamp of the previous position.
+     */
+    private long mLastTimestamp = 0;
+
+    /**
+     * True if a reset came before the position that #read() returned last.
+     */
+    private boolean mReset = false;
+
+    /**
+     * Creates the reader and reads the header.
+     * @param in the stream that the positions are read from; it is closed with the reader
+     * @throws IOException if the stream couldn't be read or doesn't start with a header of a
+     * supported version
+     */
+    public PositionReader(InputStream in) throws IOException {
+        this.mIn = in;
+        int magic = 0;
+        for(int i = 0; i < 4; i++) {
+            int b = readByte();
+            if(b < 0) {
+                throw new EOFException("The positions have no header");
+            }
+            magic = magic << 8 | b;
+        }
+        if(magic != PositionWriter.MAGIC) {
+            throw new IOException("Not a file of positions");
+        }
+        mVersion = readVarint();
+        if(mVersion < 1 || mVersion > PositionWriter.VERSION) {
+            throw new IOException("Unsupported version " + mVersion + " of the positions");
+        }
+        long unit = readVarint();
+        if(unit <= 0) {
+            throw new IOException("Invalid unit " + unit + " of the positions");
+        }
+        mMetersPerUnit = unit / 1e6;
+    }
+
+    /**
+     * Reads the next position. Resets are skipped, #wasReset() tells whether the positions that
+     * were read before are dropped.
+     * @return the next position or null if there are no more positions
+     * @throws IOException if the stream couldn't be read
+     */
+    public Position read() throws IOException {
+        mReset = false;
+        if(!mReplacement.isEmpty()) {
+            return mReplacement.poll();
+        }
+        while(true) {
+            int record = next();
+            if(record == POSITION) {
+                return mNext;
+            } else if(record == END) {
+                return null;
+            } else if(record == RESET) {
+                if(mVersion >= 3 && !readReplacement()) {
+                    // The replacement wasn't written completely, so the previous positions are kept
+                    return null;
+                }
+                mReset = true;
+                if(!mReplacement.isEmpty()) {
+                    return mReplacement.poll();
+                }
+            }
+            // The end of a replacement without a reset before it is skipped
+        }
+    }
+
+    /**
+     * Reads the positions after a reset up to the end of the replacement.
+     * @return true if the replacement was read completely; false if the stream ends before
+     */
+    private boolean readReplacement() throws IOException {
+        mReplacement.clear();
+        while(true) {
+            int record = next();
+            if(record == POSITION) {
+                mReplacement.add(mNext);
+            } else if(record == REPLACEMENT_END) {
+                return true;
+            } else if(record == RESET) {
+                // A replacement that was started again
+                mReplacement.clear();
+            } else {
+                mReplacement.clear();
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Reads the next record of the stream. A position is stored in mNext.
+     * @return POSITION, RESET, REPLACEMENT_END or END
+     */
+    private int next() throws IOException {
+        int first = readByte();
+        if(first < 0) {
+            return END;
+        }
+        try {
+            long tag = readVarint(first);
+            int code = (int) (tag & ((1 << PositionWriter.ORIENTATION_BITS) - 1));
+            if(code == PositionWriter.RESET) {
+                if(tag >>> PositionWriter.ORIENTATION_BITS == PositionWriter.REPLACEMENT_END) {
+                    return REPLACEMENT_END;
+                }
+                mLastX = 0;
+                mLastY = 0;
+                mLastTimestamp = 0;
+                return RESET;
+            }
+            if(code > ORIENTATIONS.length) {
+                throw new IOException("Invalid orientation " + code + " in the positions");
+            }
+            mLastX += unzigzag(tag >>> PositionWriter.ORIENTATION_BITS);
+            mLastY += unzigzag(readVarint());
+            mLastTimestamp += unzigzag(readVarint());
+            mNext = new Position(mLastX * mMetersPerUnit, mLastY * mMetersPerUnit,
+                    code > 0 ? ORIENTATIONS[code - 1] : null, mLastTimestamp);
+            return POSITION;
+        } catch(EOFException e) {
+            // The last position wasn't written completely
+            return END;
+        }
+    }
+
+    /**
+     * @return true if the positions that were read before the last call of #read() are dropped by
+     * a reset, even if it returned null
+     */
+    public boolean wasReset() {
+        return mReset;
+    }
+
+    /**
+     * @return all remaining positions that aren't dropped by a reset
+     * @throws IOException if the stream couldn't be read
+     */
+    public LinkedList<Position> readAll() throws IOException {
+        LinkedList<Position> positions = new LinkedList<>();
+        while(true) {
+            Position position = read();
+            if(mReset) {
+                positions.clear();
+            }
+            if(position == null) {
+                return positions;
+            }
+            positions.add(position);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        mIn.close();
+    }
+
+    /**
+     * @return the next byte of the stream or -1 at its end
+     */
+    private int readByte() throws IOException {
+        if(mPosition == mLimit) {
+            mLimit = mIn.read(mBuffer, 0, BUFFER_SIZE);
+            mPosition = 0;
+            if(mLimit <= 0) {
+                mLimit = 0;
+                return -1;
+            }
+        }
+        return mBuffer[mPosition++] & 0xFF;
+    }
+
+    /**
+     * @return the next number that was written with seven bits per byte
+     */
+    private long readVarint() throws IOException {
+        int first = readByte();
+        if(first < 0) {
+            throw new EOFException();
+        }
+        return readVarint(first);
+    }
+
+    /**
+     * @param first the first byte of the number, which was already read
+     * @return the number that was written with seven bits per byte
+     */
+    private long readVarint(int first) throws IOException {
+        long value = first & 0x7F;
+        int b = first;
+        for(int shift = 7; (b & 0x80) != 0; shift += 7) {
+            if(shift >= 64) {
+                throw new IOException("Malformed varint in the positions");
+            }
+            b = readByte();
+            if(b < 0) {
+                throw new EOFException();
+            }
+            value |= (long) (b & 0x7F) << shift;
+        }
+        return value;
+    }
+
+    /**
+     * @return the difference that was mapped to a number that is not negative
+     */
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+}
@@ -0,0 +1,54 @@
+package com.tudresden.navigationrobot;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import java.io.Reader;
+import java.lang.reflect.Type;
+import java.util.LinkedList;
+
+/**
+ * Converts lists of positions to JSON and back with Gson. The positions are stored with
+ * PositionWriter now, JSON is only read to migrate the positions of older versions.
+ */
+public class PositionSerializer {
+
+    /**
+     * The Gson instance for serialization and deserialization.
+     */
+    private Gson mGson = new Gson();
+
+    /**
+     * The Type LinkedList<Position> that is needed for serialization and deserialization with Gson.
+     */
+    private Type mListType = new TypeToken<LinkedList<Position>>(){}.getType();
+
+    /**
+     * Converts a list of positions to its JSON String representation.
+     * @param positions the positions
+     * @return the JSON String
+     */
+    public String toJson(LinkedList<Position> positions) {
+        return mGson.toJson(positions, mListType);
+    }
+
+    /**
+     * Converts a JSON String representation of a LinkedList<Position> to an actual LinkedList<Position>.
+     * @param json the JSON String
+     * @return a LinkedList<Position> or null if the String is empty
+     */
+    public LinkedList<Position> fromJson(String json) {
+        return mGson.fromJson(json, mListType);
+    }
+
+    /**
+     * Parses a JSON representation of a LinkedList<Position> while it is read, without collecting
+     * it in a String first.
+     * @param json the reader of the JSON
+     * @return a LinkedList<Position> or null if the reader is empty
+     */
+    public LinkedList<Position> fromJson(Reader json) {
+        return mGson.fromJson(json, mListType);
+    }
+
+}
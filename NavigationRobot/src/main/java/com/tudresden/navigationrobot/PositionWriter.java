@@ -0,0 +1,251 @@
+package com.tudresden.navigationrobot;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes positions one by one in the binary format of positions.bin, which PositionReader reads
+ * back. The file starts with a header: the magic number "NRPS", the version of the format and the
+ * length of the fixed-point unit of the coordinates in micrometers. Every position follows as
+ * three zigzag varints: the difference of the x-coordinate to the previous position in fixed-point
+ * units with the orientation packed into its lowest three bits, the difference of the
+ * y-coordinate and the difference of the timestamp. A step of half a meter along an axis takes six
+ * bytes at most, while Gson needs about 60 characters for it.
+ * Since version 2 a position can be followed by a reset, the orientation code 7 on its own: the
+ * positions before it are dropped and the differences start from zero again. PositionJournal uses
+ * it to append corrected positions instead of rewriting the file. Since version 3 the positions
+ * after a reset are followed by the end of the replacement, the orientation code 7 with the value
+ * 1, and a reset only takes effect with it. So a file that breaks off within a replacement still
+ * holds the positions before it.
+ * The positions are collected in a buffer of the writer, so the stream doesn't need to be
+ * buffered.
+ */
+public class PositionWriter implements Closeable {
+
+    /**
+     * The first four bytes of the file, "NRPS".
+     */
+    static final int MAGIC = 0x4E525053;
+
+    /**
+     * The version of the format that is written.
+     */
+    static final int VERSION = 3;
+
+    /**
+     * The length of the fixed-point unit of the coordinates in micrometers. A tenth of a millimeter
+     * is far below the accuracy of the odometry.
+     */
+    static final int UNIT = 100;
+
+    /**
+     * The number of bits of the first varint of a position that hold the orientation.
+     */
+    static final int ORIENTATION_BITS = 3;
+
+    /**
+     * The orientation code of a reset, which the orientations never reach.
+     */
+    static final int RESET = (1 << ORIENTATION_BITS) - 1;
+
+    /**
+     * The value of the orientation code RESET that ends a replacement. A reset itself has the
+     * value 0.
+     */
+    static final int REPLACEMENT_END = 1;
+
+    /**
+     * The size of the buffer in bytes.
+     */
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * More than the largest position takes: three varints of at most ten bytes.
+     */
+    private static final int MAX_POSITION_SIZE = 32;
+
+    /**
+     * The number of fixed-point units per meter.
+     */
+    private static final double UNITS_PER_METER = 1e6 / UNIT;
+
+    /**
+     * The stream that the positions are written to.
+     */
+    private final OutputStream mOut;
+
+    /**
+     * The buffer that the positions are collected in.
+     */
+    private final byte[] mBuffer = new byte[BUFFER_SIZE];
+
+    /**
+     * The number of bytes in the buffer.
+     */
+    private int mPosition = 0;
+
+    /**
+     * The x-coordinate of the previous position in fixed-point units.
+     */
+    private long mLastX = 0;
+
+    /**
+     * The y-coordinate of the previous position in fixed-point units.
+     */
+    private long mLastY = 0;
+
+    /**
+     * The timestamp of the previous position.
+     */
+    private long mLastTimestamp = 0;
+
+    /**
+     * The number of positions that were written.
+     */
+    private int mCount = 0;
+
+    /**
+     * The number of bytes that were handed to the stream.
+     */
+    private long mByteCount = 0;
+
+    /**
+     * Creates the writer and writes the header.
+     * @param out the stream that the positions are written to; it is closed with the writer
+     */
+    public PositionWriter(OutputStream out) {
+        this.mOut = out;
+        mBuffer[mPosition++] = (byte) (MAGIC >>> 24);
+        mBuffer[mPosition++] = (byte) (MAGIC >>> 16);
+        mBuffer[mPosition++] = (byte) (MAGIC >>> 8);
+        mBuffer[mPosition++] = (byte) MAGIC;
+        writeVarint(VERSION);
+        writeVarint(UNIT);
+    }
+
+    /**
+     * Writes a position after the previous ones.
+     * @param position the position
+     * @throws IOException if the stream couldn't be written
+     */
+    public void write(Position position) throws IOException {
+        if(mPosition > BUFFER_SIZE - MAX_POSITION_SIZE) {
+            flushBuffer();
+        }
+        long x = Math.round(position.getX() * UNITS_PER_METER);
+        long y = Math.round(position.getY() * UNITS_PER_METER);
+        Orientation orientation = position.getOrientation();
+        int code = orientation != null ? orientation.ordinal() + 1 : 0;
+        writeVarint(zigzag(x - mLastX) << ORIENTATION_BITS | code);
+        writeVarint(zigzag(y - mLastY));
+        writeVarint(zigzag(position.getTimestamp() - mLastTimestamp));
+        mLastX = x;
+        mLastY = y;
+        mLastTimestamp = position.getTimestamp();
+        mCount++;
+    }
+
+    /**
+     * Writes all positions of a list after the previous ones.
+     * @param positions the positions
+     * @throws IOException if the stream couldn't be written
+     */
+    public void writeAll(Iterable<Position> positions) throws IOException {
+        for(Position position : positions) {
+            write(position);
+        }
+    }
+
+    /**
+     * Replaces all positions that were written so far: a reader returns only these positions and
+     * the ones that are written afterwards. If the stream breaks off before the replacement is
+     * written completely, a reader returns the previous positions instead.
+     * @param positions the positions
+     * @throws IOException if the stream couldn't be written
+     */
+    public void writeReplacement(Iterable<Position> positions) throws IOException {
+        writeMark(0);
+        mLastX = 0;
+        mLastY = 0;
+        mLastTimestamp = 0;
+        writeAll(positions);
+        writeMark(REPLACEMENT_END);
+    }
+
+    /**
+     * @return the number of positions that were written
+     */
+    public int getCount() {
+        return mCount;
+    }
+
+    /**
+     * @return the number of bytes that were written, including the header and the buffered ones
+     */
+    public long getByteCount() {
+        return mByteCount + mPosition;
+    }
+
+    /**
+     * Hands the buffered positions to the stream and flushes it.
+     * @throws IOException if the stream couldn't be written
+     */
+    public void flush() throws IOException {
+        flushBuffer();
+        mOut.flush();
+    }
+
+    /**
+     * Hands the buffered positions to the stream and closes it.
+     * @throws IOException if the stream couldn't be written or closed
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flushBuffer();
+        } finally {
+            mOut.close();
+        }
+    }
+
+    /**
+     * Writes the orientation code RESET with a value in place of the difference of the x-coordinate.
+     */
+    private void writeMark(int value) throws IOException {
+        if(mPosition > BUFFER_SIZE - MAX_POSITION_SIZE) {
+            flushBuffer();
+        }
+        writeVarint((long) value << ORIENTATION_BITS | RESET);
+    }
+
+    /**
+     * Hands the buffer to the stream.
+     */
+    private void flushBuffer() throws IOException {
+        mOut.write(mBuffer, 0, mPosition);
+        mByteCount += mPosition;
+        mPosition = 0;
+    }
+
+    /**
+     * Writes a number that is not negative with seven bits per byte, the lowest bits first. The
+     * highest bit of a byte is set if another byte follows.
+     */
+    private void writeVarint(long value) {
+        while((value & ~0x7FL) != 0) {
+            mBuffer[mPosition++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        mBuffer[mPosition++] = (byte) value;
+    }
+
+    /**
+     * @return the difference mapped to a number that is not negative, so small differences of both
+     * signs take few bytes: 0, -1, 1, -2, 2 ... become 0, 1, 2, 3, 4 ...
+     */
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+}
@@ -0,0 +1,197 @@
+package com.tudresden.navigationrobot;
+
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Converts between real positions in the room and positions on the screen. The scale is chosen as
+ * big as possible so that all positions that the robot has reached and the known part of the
+ * occupancy grid fit on the screen.
+ * Be aware that the coordinate system of the robot is exactly the opposite of the coordinate system
+ * of the screen:
+ * Robot: Positive x --> forward, positive y --> left
+ * Screen: Positive x --> width, positive y --> height (origin in the left upper corner of the screen)
+ */
+public class ScreenTransform {
+
+    /**
+     * The padding for the map.
+     */
+    static final int PADDING = 30;
+
+    /**
+     * The distance between the points on the screen (if assumed that the points are evenly
+     * distributed across the screen), i.e. the number of pixels per meter.
+     */
+    private double mDistanceBetweenPoints = 0.0;
+
+    /**
+     * The x-coordinate of the starting point (0,0) on the screen.
+     */
+    private double mStartX = 0.0;
+
+    /**
+     * The y-coordinate of the starting point (0,0) on the screen.
+     */
+    private double mStartY = 0.0;
+
+    /**
+     * The width of the screen.
+     */
+    private int mWidth = 0;
+
+    /**
+     * The height of the screen.
+     */
+    private int mHeight = 0;
+
+    /**
+     * Chooses the scale and the screen position of the starting point.
+     * @param positions the real positions that need to fit on the screen
+     * @param mapBounds the smallest x, the greatest x, the smallest y and the greatest y of the known
+     *                  part of the occupancy grid in meters or null
+     * @param width the width of the layout that contains the map
+     * @param height the height of the layout that contains the map
+     */
+    public void fit(List<Position> positions, double[] mapBounds, int width, int height) {
+        double greatestPosX = 0.0;
+        double greatestNegX = 0.0;
+        double greatestPosY = 0.0;
+        double greatestNegY = 0.0;
+
+        for(Position p : positions) {
+            double x = p.getX();
+            double y = p.getY();
+
+            // Find the greatest positive and negative values for x and y amongst all the positions
+            if(Double.compare(x, 0.0) > 0) {
+                if(Double.compare(x, greatestPosX) > 0) {
+                    greatestPosX = x;
+                }
+            } else {
+                if(Double.compare(Math.abs(x), greatestNegX) > 0) {
+                    greatestNegX = Math.abs(x);
+                }
+            }
+            if(Double.compare(y, 0.0) > 0) {
+                if(Double.compare(y, greatestPosY) > 0) {
+                    greatestPosY = y;
+                }
+            } else {
+                if(Double.compare(Math.abs(y), greatestNegY) > 0) {
+                    greatestNegY = Math.abs(y);
+                }
+            }
+        }
+
+        // Make sure that the known part of the occupancy grid fits on the screen as well
+        if(mapBounds != null) {
+            greatestNegX = Math.max(greatestNegX, -mapBounds[0]);
+            greatestPosX = Math.max(greatestPosX, mapBounds[1]);
+            greatestNegY = Math.max(greatestNegY, -mapBounds[2]);
+            greatestPosY = Math.max(greatestPosY, mapBounds[3]);
+        }
+
+        // Find out how many points need to fit in the width and height
+        double sumX = greatestPosX + greatestNegX;
+        double sumY = greatestPosY + greatestNegY;
+
+        // Choose the distance between the points as big as possible in order to make the map as big
+        // as possible but also make sure that all the points fit on the screen
+        if(Double.compare(sumX, 0.0) == 0 && Double.compare(sumY, 0.0) == 0) {
+            // Only the starting point was in the list
+            mDistanceBetweenPoints = 0.0;
+        } else if(Double.compare(sumX, 0.0) == 0) {
+            // No vertical space needed
+            mDistanceBetweenPoints = (width - PADDING) / sumY;
+        } else if(Double.compare(sumY, 0.0) == 0) {
+            // No horizontal space needed
+            mDistanceBetweenPoints = (height - PADDING) / sumX;
+        } else if(Double.compare((height - PADDING) / sumX, (width - PADDING) / sumY) > 0) {
+            mDistanceBetweenPoints = (width - PADDING) / sumY;
+        } else {
+            mDistanceBetweenPoints = (height - PADDING) / sumX;
+        }
+
+        // Calculate the screen position of the starting point (0,0)
+        mStartX = mDistanceBetweenPoints * greatestPosY + (PADDING / 2);
+        mStartY = mDistanceBetweenPoints * greatestPosX + (PADDING / 2);
+        mWidth = width;
+        mHeight = height;
+    }
+
+    /**
+     * @return true if only the starting point needs to be displayed, so there is no scale
+     */
+    public boolean isEmpty() {
+        return Double.compare(mDistanceBetweenPoints, 0.0) == 0;
+    }
+
+    /**
+     * @return the number of pixels per meter
+     */
+    public double getDistanceBetweenPoints() {
+        return mDistanceBetweenPoints;
+    }
+
+    /**
+     * @return the x-coordinate of the starting point (0,0) on the screen
+     */
+    public double getStartX() {
+        return mStartX;
+    }
+
+    /**
+     * @return the y-coordinate of the starting point (0,0) on the screen
+     */
+    public double getStartY() {
+        return mStartY;
+    }
+
+    /**
+     * Converts a single real position to a position on the screen.
+     * @param p the real position
+     * @return the position on the screen
+     */
+    public Position toScreen(Position p) {
+        // Robot: Positive x --> forward, positive y --> left
+        // Screen: Positive x --> width, positive y --> height
+        return new Position(mStartX - p.getY() * mDistanceBetweenPoints,
+                mStartY - p.getX() * mDistanceBetweenPoints);
+    }
+
+    /**
+     * Converts real positions to positions that can be displayed on the screen. If there is no scale,
+     * all positions are displayed in the center of the screen.
+     * @param positions the real positions
+     * @return the positions on the screen
+     */
+    public LinkedList<Position> toScreen(List<Position> positions) {
+        LinkedList<Position> screenPositions = new LinkedList<>();
+        for(Position p : positions) {
+            if(isEmpty()) {
+                // Only the starting point was in the list so it needs to be displayed in the center
+                // of the screen
+                screenPositions.add(new Position(mWidth / 2, mHeight / 2));
+            } else {
+                screenPositions.add(toScreen(p));
+            }
+        }
+        return screenPositions;
+    }
+
+    /**
+     * Converts a position on the screen to a real position in the room. If there is no scale, every
+     * position on the screen is the starting point.
+     * @param x the x-coordinate of the position on the screen
+     * @param y the y-coordinate of the position on the screen
+     * @return the real position in the room
+     */
+    public Position toReal(double x, double y) {
+        if(isEmpty()) {
+            return new Position(0.0, 0.0);
+        }
+        return new Position((mStartY - y) / mDistanceBetweenPoints, (mStartX - x) / mDistanceBetweenPoints);
+    }
+
+}
@@ -1,18 +1,24 @@
 package com.tudresden.navigationrobot;
 
 import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
 import android.widget.Toast;
 
-import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
+import com.tudresden.navigationrobot.map.OccupancyGrid;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.lang.reflect.Type;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
 import java.util.LinkedList;
 
 /**
@@ -23,85 +29,379 @@ import java.util.LinkedList;
 public class StorageHelper {
 
     /**
-     * The name of the file that the positions are stored in.
+     * The name of the file that the positions are stored in, in the format of PositionWriter.
      */
-    private static final String FILENAME = "positions.json";
+    private static final String FILENAME = "positions.bin";
 
     /**
-     * The Gson instance for serialization and deserialization.
+     * The name of the file that older versions stored the positions in as JSON. It is converted to
+     * FILENAME when the positions are read the first time.
      */
-    private Gson mGson = new Gson();
+    private static final String LEGACY_FILENAME = "positions.json";
 
     /**
-     * The Type LinkedList<Position> that is needed for serialization and deserialization with Gson.
+     * The name of the file that PositionJournal writes the positions of a running exploration to.
+     * It replaces FILENAME when the exploration is stopped.
      */
-    private Type mListType = new TypeToken<LinkedList<Position>>(){}.getType();
+    private static final String JOURNAL_FILENAME = "positions.journal";
+
+    /**
+     * The name of the file that the session of a running exploration is saved in, so it can be
+     * resumed after an interruption. The positions of the session are in JOURNAL_FILENAME.
+     */
+    private static final String SESSION_FILENAME = "session.bin";
+
+    /**
+     * The name of the file that a session is written to before it replaces SESSION_FILENAME.
+     */
+    private static final String SESSION_TEMP_FILENAME = "session.bin.tmp";
+
+    /**
+     * The name of the file that the occupancy grid is stored in, as a tile file that is mapped into
+     * memory instead of being read, see OccupancyGrid#mapTiles(File, long, File).
+     */
+    private static final String MAP_FILENAME = "map.tiles";
+
+    /**
+     * The name of the file that a map is written to before it replaces MAP_FILENAME. A map that is
+     * still mapped keeps the old content, so it isn't changed while it is displayed.
+     */
+    private static final String MAP_TEMP_FILENAME = "map.tiles.tmp";
+
+    /**
+     * The name of the file that older versions stored the occupancy grid in as a stream. It is
+     * converted to MAP_FILENAME when the map is read the first time.
+     */
+    private static final String LEGACY_MAP_FILENAME = "map.bin";
+
+    /**
+     * The name of the directory in the cache that tiles of a retrieved occupancy grid are spilled to.
+     */
+    private static final String MAP_SPILL_DIRECTORY = "stored_map_tiles";
+
+    /**
+     * Reads the positions from the JSON of older versions.
+     */
+    private PositionSerializer mSerializer = new PositionSerializer();
 
     /**
      * The application context.
      */
     private Context mContext;
 
+    /**
+     * The handler of the UI thread that error messages are shown on, because the positions and the
+     * map are stored on the thread of the exploration.
+     */
+    private Handler mMainHandler = new Handler(Looper.getMainLooper());
+
     public StorageHelper(Context context) {
         this.mContext = context;
     }
 
     /**
-     * Checks whether the file with the filename positions.json already exists.
-     * @return true if the file already exists; false otherwise
+     * Checks whether positions were stored, by this or by an older version.
+     * @return true if the file positions.bin or positions.json already exists; false otherwise
      */
     public boolean fileExists() {
-        String path = mContext.getFilesDir().getAbsolutePath() + "/" + FILENAME;
-        File file = new File(path);
-        return file.exists();
+        return new File(mContext.getFilesDir(), FILENAME).exists()
+                || new File(mContext.getFilesDir(), LEGACY_FILENAME).exists();
+    }
+
+    /**
+     * Checks whether a map was stored, by this or by an older version.
+     * @return true if the file map.tiles or map.bin already exists; false otherwise
+     */
+    public boolean mapExists() {
+        return new File(mContext.getFilesDir(), MAP_FILENAME).exists()
+                || new File(mContext.getFilesDir(), LEGACY_MAP_FILENAME).exists();
+    }
+
+    /**
+     * Writes an occupancy grid to the file map.tiles in the internal storage. The map of an older
+     * version in map.bin is deleted afterwards.
+     */
+    public void storeMap(OccupancyGrid map) {
+        File temp = new File(mContext.getFilesDir(), MAP_TEMP_FILENAME);
+        try {
+            map.writeTiles(temp);
+            if(!temp.renameTo(new File(mContext.getFilesDir(), MAP_FILENAME))) {
+                throw new IOException("The map couldn't be renamed");
+            }
+            mContext.deleteFile(LEGACY_MAP_FILENAME);
+        } catch(IOException e) {
+            e.printStackTrace();
+            temp.delete();
+            showToast("Map could not be stored!");
+        }
+    }
+
+    /**
+     * Opens the occupancy grid in the file map.tiles by mapping it into memory, which takes a few
+     * milliseconds for any size of the map: the tiles are read from the file when they are
+     * accessed. If only an older version has stored a map, it is read from map.bin and stored in
+     * map.tiles first.
+     * @return the occupancy grid or null if it could not be read
+     */
+    public OccupancyGrid retrieveMap() {
+        File file = new File(mContext.getFilesDir(), MAP_FILENAME);
+        if(!file.exists()) {
+            OccupancyGrid map = retrieveLegacyMap();
+            if(map == null) {
+                return null;
+            }
+            storeMap(map);
+            if(!file.exists()) {
+                return map;
+            }
+            map.close();
+        }
+        try {
+            return OccupancyGrid.mapTiles(file, OccupancyGrid.DEFAULT_MEMORY_BUDGET,
+                    new File(mContext.getCacheDir(), MAP_SPILL_DIRECTORY));
+        } catch(IOException e) {
+            e.printStackTrace();
+            showToast("Map could not be read!");
+            return null;
+        }
     }
 
     /**
-     * Serializes a list of positions with Gson and writes the resulting String to the file
-     * positions.json in the internal storage.
+     * Reads the occupancy grid that an older version stored in map.bin. Tiles that exceed the
+     * default memory budget are spilled to the cache.
+     * @return the occupancy grid or null if it could not be read
+     */
+    private OccupancyGrid retrieveLegacyMap() {
+        try {
+            DataInputStream inputStream = new DataInputStream(new BufferedInputStream(
+                    mContext.openFileInput(LEGACY_MAP_FILENAME)));
+            try {
+                return OccupancyGrid.readFrom(inputStream, OccupancyGrid.DEFAULT_MEMORY_BUDGET,
+                        new File(mContext.getCacheDir(), MAP_SPILL_DIRECTORY));
+            } finally {
+                inputStream.close();
+            }
+        } catch(IOException e) {
+            e.printStackTrace();
+            showToast("Map could not be read!");
+            return null;
+        }
+    }
+
+    /**
+     * Writes a list of positions to the file positions.bin in the internal storage. The positions
+     * of an older version in positions.json are deleted afterwards.
      */
     public void storePositions(LinkedList<Position> positions) {
-        String json = mGson.toJson(positions, mListType);
         try {
-            FileOutputStream fileOutputStream = mContext.openFileOutput(FILENAME, Context.MODE_PRIVATE);
-            if(json != null) {
-                fileOutputStream.write(json.getBytes());
+            PositionWriter writer = new PositionWriter(mContext.openFileOutput(FILENAME, Context.MODE_PRIVATE));
+            try {
+                writer.writeAll(positions);
+            } finally {
+                writer.close();
             }
-            fileOutputStream.close();
+            mContext.deleteFile(LEGACY_FILENAME);
         } catch(IOException e) {
             e.printStackTrace();
-            Toast.makeText(mContext, "File not found!", Toast.LENGTH_SHORT).show();
+            showToast("Positions could not be stored!");
         }
     }
 
     /**
-     * Reads the content of a file.
-     * @return a String containing the content of the file
+     * Starts a journal of the positions of an exploration in the file positions.journal.
+     * @return the journal, which writes on its own thread
      */
-    public String retrieveContent() {
+    public PositionJournal openJournal() {
+        return new PositionJournal(new File(mContext.getFilesDir(), JOURNAL_FILENAME));
+    }
+
+    /**
+     * Closes a journal and makes it the file positions.bin, which only waits for the last batch of
+     * positions instead of writing all of them. The positions of an older version in
+     * positions.json are deleted afterwards.
+     * @param journal the journal that was started with #openJournal()
+     */
+    public void finishJournal(PositionJournal journal) {
+        try {
+            journal.finish(new File(mContext.getFilesDir(), FILENAME));
+            mContext.deleteFile(LEGACY_FILENAME);
+        } catch(IOException e) {
+            e.printStackTrace();
+            showToast("Positions could not be stored!");
+        }
+    }
+
+    /**
+     * Keeps the positions of an exploration that was interrupted by a crash or an empty battery: if
+     * the journal of an exploration was left behind and holds positions, it becomes the file
+     * positions.bin and the map of an older exploration is deleted, because it doesn't
+     * match the positions. Must be called before a new journal is opened.
+     * @return true if positions were recovered
+     */
+    public boolean recoverJournal() {
+        File journal = new File(mContext.getFilesDir(), JOURNAL_FILENAME);
+        if(!journal.exists()) {
+            return false;
+        }
+        boolean empty = true;
+        try {
+            PositionReader reader = new PositionReader(new FileInputStream(journal));
+            try {
+                empty = reader.readAll().isEmpty();
+            } finally {
+                reader.close();
+            }
+        } catch(IOException e) {
+            // A journal that broke off within its header holds no positions
+            e.printStackTrace();
+        }
+        if(empty || !journal.renameTo(new File(mContext.getFilesDir(), FILENAME))) {
+            journal.delete();
+            return false;
+        }
+        mContext.deleteFile(LEGACY_FILENAME);
+        mContext.deleteFile(MAP_FILENAME);
+        mContext.deleteFile(LEGACY_MAP_FILENAME);
+        return true;
+    }
+
+    /**
+     * Checks whether the session of an interrupted exploration was saved.
+     * @return true if the file session.bin exists; false otherwise
+     */
+    public boolean sessionExists() {
+        return new File(mContext.getFilesDir(), SESSION_FILENAME).exists();
+    }
+
+    /**
+     * Saves the session of a running exploration to the file session.bin. It is written to another
+     * file and forced to the disk first, so an interruption in between leaves the previous session
+     * intact. Must be called on the thread of the exploration.
+     * @param exploration the exploration
+     */
+    public void storeSession(Exploration exploration) {
+        File temp = new File(mContext.getFilesDir(), SESSION_TEMP_FILENAME);
         try {
-            FileInputStream fileInputStream = mContext.openFileInput(FILENAME);
-            InputStreamReader inputStreamReader = new InputStreamReader(fileInputStream);
-            BufferedReader bufferedReader = new BufferedReader(inputStreamReader);
-            StringBuilder stringBuilder = new StringBuilder();
-            String line;
-            while((line = bufferedReader.readLine()) != null) {
-                stringBuilder.append(line);
+            FileOutputStream fileStream = new FileOutputStream(temp);
+            try {
+                DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(fileStream));
+                exploration.writeSession(outputStream);
+                outputStream.flush();
+                fileStream.getFD().sync();
+            } finally {
+                fileStream.close();
+            }
+            if(!temp.renameTo(new File(mContext.getFilesDir(), SESSION_FILENAME))) {
+                throw new IOException("The session couldn't be renamed");
             }
-            return stringBuilder.toString();
         } catch(IOException e) {
             e.printStackTrace();
-            Toast.makeText(mContext, "File not found!", Toast.LENGTH_SHORT).show();
-            return "Error!";
+            temp.delete();
+            showToast("Session could not be stored!");
         }
     }
 
     /**
-     * Converts a JSON String representation of a LinkedList<Position> to an actual LinkedList<Position>
-     * @return a LinkedList<Position>
+     * Reads the session of an interrupted exploration from the file session.bin and its positions
+     * from the journal, so the exploration can be resumed. A session that can't be read is deleted.
+     * Must be called on the thread of the exploration before a new journal is opened.
+     * @param exploration the exploration that the session is read into
+     * @return true if the session was read
+     */
+    public boolean restoreSession(Exploration exploration) {
+        try {
+            LinkedList<Position> positions = new LinkedList<>();
+            File journal = new File(mContext.getFilesDir(), JOURNAL_FILENAME);
+            if(journal.exists()) {
+                PositionReader reader = new PositionReader(new FileInputStream(journal));
+                try {
+                    positions = reader.readAll();
+                } finally {
+                    reader.close();
+                }
+            }
+            DataInputStream inputStream = new DataInputStream(new BufferedInputStream(
+                    mContext.openFileInput(SESSION_FILENAME)));
+            try {
+                exploration.readSession(inputStream, positions);
+            } finally {
+                inputStream.close();
+            }
+            return true;
+        } catch(IOException e) {
+            e.printStackTrace();
+            showToast("Session could not be read!");
+            deleteSession();
+            return false;
+        }
+    }
+
+    /**
+     * Deletes the session, e.g. because the exploration was stopped by the user.
+     */
+    public void deleteSession() {
+        mContext.deleteFile(SESSION_FILENAME);
+        mContext.deleteFile(SESSION_TEMP_FILENAME);
+    }
+
+    /**
+     * Reads the positions from the file positions.bin. If only an older version has stored
+     * positions, they are read from positions.json and stored in positions.bin first.
+     * @return the positions or an empty list if they could not be read
      */
     public LinkedList<Position> convertPositions() {
-        return mGson.fromJson(retrieveContent(), mListType);
+        if(!new File(mContext.getFilesDir(), FILENAME).exists()) {
+            LinkedList<Position> positions = retrieveLegacyPositions();
+            if(positions != null) {
+                storePositions(positions);
+            }
+            return positions != null ? positions : new LinkedList<Position>();
+        }
+        try {
+            PositionReader reader = new PositionReader(mContext.openFileInput(FILENAME));
+            try {
+                return reader.readAll();
+            } finally {
+                reader.close();
+            }
+        } catch(IOException e) {
+            e.printStackTrace();
+            showToast("Positions could not be read!");
+            return new LinkedList<>();
+        }
+    }
+
+    /**
+     * Parses the positions that an older version stored as JSON straight from the file.
+     * @return the positions or null if there are none or they could not be read
+     */
+    private LinkedList<Position> retrieveLegacyPositions() {
+        try {
+            Reader reader = new BufferedReader(new InputStreamReader(
+                    mContext.openFileInput(LEGACY_FILENAME), StandardCharsets.UTF_8));
+            try {
+                return mSerializer.fromJson(reader);
+            } finally {
+                reader.close();
+            }
+        } catch(IOException | RuntimeException e) {
+            e.printStackTrace();
+            showToast("Positions could not be read!");
+            return null;
+        }
+    }
+
+    /**
+     * Shows a short message on the UI thread.
+     * @param text the message
+     */
+    private void showToast(final String text) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                Toast.makeText(mContext, text, Toast.LENGTH_SHORT).show();
+            }
+        });
     }
 
 }
@@ -0,0 +1,755 @@
+package com.tudresden.navigationrobot;
+
+import com.tudresden.navigationrobot.robot.RangeSampler;
+import com.tudresden.navigationrobot.robot.RobotLog;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * The original exploration strategy: the robot follows the wall to its right around the room. It
+ * only ever turns by 90°, but its position is taken from the odometry, so the distance that it
+ * actually walked and the heading that it actually turned to are used rather than the planned ones.
+ * If the exploration has a head, the head looks at the wall to the right all the time and the
+ * robot walks along the wall until the depth camera sees it end. Otherwise the robot turns to the
+ * right between its steps to check the wall with the ultrasonic sensor, unless the wall was straight
+ * and the next wall ahead is already in sensor range.
+ * Straight runs of steps are queued one step ahead, so the robot walks through the checkpoints
+ * without stopping.
+ * Every reading of the wall that the robot follows is handed to the heading corrector of the
+ * exploration, which turns the map back to the axes of the building when the heading has drifted.
+ */
+public class WallFollowingStrategy implements ExplorationStrategy {
+
+    /**
+     * The tag that is used for log messages.
+     */
+    private static final String TAG = "WallFollowingStrategy";
+
+    /**
+     * Indicates that a left turn is about to be performed.
+     */
+    static final String LEFT_TURN = "left turn";
+
+    /**
+     * Indicates that a right turn is about to be performed.
+     */
+    static final String RIGHT_TURN = "right turn";
+
+    /**
+     * The minimal distance that the robot should have to the wall that it is following. If the
+     * robot gets closer to the wall than this threshold, the distance needs to be increased in
+     * order to avoid the robot getting stuck at the wall.
+     */
+    private static final float WALL_DISTANCE = 0.8f;
+
+    /**
+     * Correction constant for increasing the robot's distance to the wall. When this constant is
+     * used as the y coordinate for setting a new checkpoint, the robot moves forward and slightly
+     * left.
+     */
+    private static final float WALL_DISTANCE_CORRECTION = 0.1f;
+
+    /**
+     * Correction constant for avoiding that the robot moves too far away from the wall when walking
+     * around a corner. When this constant is used as the y coordinate for setting a new checkpoint,
+     * the robot moves forward and slightly right.
+     */
+    private static final float CORNER_CORRECTION = -0.25f;
+
+    /**
+     * The distance that the robot walks from one checkpoint to the next if there is an obstacle in
+     * front of it or the wall next to it hasn't been straight.
+     */
+    private static final float WALKING_DISTANCE = 0.5f;
+
+    /**
+     * The longest distance that the robot walks from one checkpoint to the next. The wall is only
+     * checked at the checkpoints, so the robot may walk up to this distance past the end of a wall.
+     */
+    private static final float MAX_WALKING_DISTANCE = 1.5f;
+
+    /**
+     * The largest change of the distance to the wall in meters between two checks for which the
+     * wall still counts as straight.
+     */
+    private static final double WALL_TOLERANCE = 0.15;
+
+    /**
+     * The distance that the robot walks when passing a corner. 1 meter needs to be walked in order
+     * bypass the obstacle avoidance distance of 1 meter. The further 35 centimeters make sure that
+     * the robot definitely passes the corner.
+     */
+    private static final float CORNER_WALKING_DISTANCE = 1.35f;
+
+    /**
+     * The longest distance that the robot walks from one checkpoint to the next while the head
+     * watches the wall. The end of the wall is noticed on the way, so the robot doesn't need to
+     * stop to check it.
+     */
+    private static final float HEAD_WALKING_DISTANCE = 3.0f;
+
+    /**
+     * The distance in meters beyond which the depth camera of the head doesn't see the wall anymore,
+     * i.e. the wall has ended.
+     */
+    private static final double WALL_END_DISTANCE = 1.5;
+
+    /**
+     * The distance in meters to the wall beyond which the robot moves closer to it again while the
+     * head watches the wall.
+     */
+    private static final double WALL_FAR_DISTANCE = 1.2;
+
+    /**
+     * The angle of the head relative to the base while it watches the wall to the right.
+     */
+    private static final float HEAD_YAW = (float) -(Math.PI / 2);
+
+    /**
+     * The theta value for adding a checkpoint that makes the robot rotate 90° to the left.
+     */
+    private static final float LEFT_90 = (float) (Math.PI / 2);
+
+    /**
+     * The theta value for adding a checkpoint that makes the robot rotate 90° to the right.
+     */
+    private static final float RIGHT_90 = (float) -(Math.PI / 2);
+
+    /**
+     * The exploration that this strategy controls the robot for.
+     */
+    private Exploration mExploration;
+
+    /**
+     * Indicates whether the robot is currently in the process of checking the wall on its right.
+     */
+    private boolean mCheckingWall = false;
+
+    /**
+     * The current state of the robot.
+     */
+    private State mState = State.START;
+
+    /**
+     * The direction that the robot is meant to move in after the turns that were planned so far. At
+     * the starting point the orientation is always FORWARD.
+     */
+    private Orientation mOrientation = Orientation.FORWARD;
+
+    /**
+     * The current distance to the next obstacle in front of the robot. If no obstacle is detected,
+     * this value is set to 1500 (the maximum return value of getDistance()).
+     */
+    private double mDistanceFront = 0.0;
+
+    /**
+     * The current distance from the wall to the robot's right (the wall that the robot is following).
+     */
+    private double mDistanceWall = 0.0;
+
+    /**
+     * The distance to the wall at the previous check or NaN if the wall had ended.
+     */
+    private double mPreviousDistanceWall = Double.NaN;
+
+    /**
+     * The distance that the robot walks between two checks of the wall while there is nothing in
+     * front of it. It doubles every time the wall is found where it was expected, up to
+     * MAX_WALKING_DISTANCE.
+     */
+    private float mWallCheckInterval = WALKING_DISTANCE;
+
+    /**
+     * Indicates whether the robot is on a straight run of steps, of which the next one is already
+     * queued when a checkpoint is reached.
+     */
+    private boolean mWalkingStraight = false;
+
+    /**
+     * The end of the last step of the straight run, relative to the original point. The run ends
+     * at the same distance to the side, so the correction of its first step is kept.
+     */
+    private float mRunX = 0;
+
+    /**
+     * The distance to the side of the straight run, relative to the original point.
+     */
+    private float mRunY = 0;
+
+    /**
+     * The distance in meters that the robot has walked along the wall since it last checked it.
+     */
+    private float mDistanceSinceCheck = 0;
+
+    /**
+     * The current x-coordinate of the robot.
+     */
+    private double mXCoordinate = 0.0;
+
+    /**
+     * The current y-coordinate of the robot.
+     */
+    private double mYCoordinate = 0.0;
+
+    /**
+     * Creates the strategy.
+     * @param exploration the exploration that this strategy controls the robot for
+     */
+    public WallFollowingStrategy(Exploration exploration) {
+        this.mExploration = exploration;
+    }
+
+    /**
+     * Sets the state of the strategy without moving the robot, e.g. for benchmarks.
+     * @param state the state
+     */
+    void setState(State state) {
+        this.mState = state;
+    }
+
+    /**
+     * Starts searching for a wall or, if the exploration was resumed after a wall had been found,
+     * checks the wall to the right of the robot as after a step along it.
+     */
+    @Override
+    public void start() {
+        mExploration.setHeadYaw(HEAD_YAW);
+        // A resumed exploration doesn't start facing forward
+        mOrientation = Orientation.closestTo(mExploration.getHeading());
+        if(mState != State.START) {
+            checkWall();
+            return;
+        }
+        // As long as no wall has been found yet, keep walking forward
+        walkStraight(chooseStepLength(), 0);
+    }
+
+    /**
+     * Writes whether a wall has been found. The steps of the state machine aren't written, because
+     * the robot has stopped in between and may have been moved.
+     */
+    @Override
+    public void writeState(DataOutputStream out) throws IOException {
+        out.writeBoolean(mState != State.START);
+    }
+
+    @Override
+    public void readState(DataInputStream in) throws IOException {
+        mState = in.readBoolean() ? State.WALKING : State.START;
+    }
+
+    @Override
+    public void stop() {
+        mExploration.stopWatchingWallEnd();
+        mExploration.setHeadYaw(0);
+    }
+
+    /**
+     * Turns the robot 90° to the right to check with the ultrasonic sensor whether the wall that it
+     * follows has ended.
+     */
+    private void checkWall() {
+        mState = State.CHECKING_WALL;
+        mDistanceSinceCheck = 0;
+        mDistanceFront = mExploration.measureUltrasonicDistance();
+        updateOrientation(RIGHT_TURN);
+        mExploration.addCheckPoint(0, 0, RIGHT_90);
+    }
+
+    /**
+     * The robot doesn't know where the wall is after the base gave up a checkpoint, so the strategy
+     * can't continue.
+     */
+    @Override
+    public void checkpointFailed() {
+        RobotLog.d(TAG, "Checkpoint failed in state " + mState + ", the exploration is stopped");
+    }
+
+    /**
+     * Sets a new checkpoint depending on the current state of the robot.
+     * The strategy for setting a new checkpoint is as follows:
+     * In the initial phase of the exploration process (before the first wall is found) the new
+     * checkpoint is set to make the robot walk forward in order to eventually reach the first wall.
+     * In case an obstacle was detected and the left turn was performed ({@see #obstacleDetected()}),
+     * the new checkpoint needs to be set to make the robot walk forward in order to reach the next
+     * wall.
+     * After every meter that the robot walks in search of the next wall, it needs to rotate 90° to
+     * the right in order to check if the wall on its right has ended.
+     * If the wall has not ended, the robot rotates back 90° to the left and continues to walk
+     * forward along the wall.
+     * If the wall has ended, the robot does not turn back but instead follows the new wall.
+     * Before walking around a corner, the distance to the corner is increased to make sure that the
+     * robot doesn't get stuck at the corner with its right wheel.
+     * On a straight run the robot is already on its way to the next step, see #walkOn().
+     */
+    @Override
+    public void arrivedAtCheckpoint() {
+        if(mWalkingStraight) {
+            walkOn();
+            return;
+        }
+        if(mExploration.getPendingCheckPointCount() > 0) {
+            // The robot is on its way around a corner, the next checkpoints are already queued
+            handleCornerCheckpoint();
+            return;
+        }
+        mExploration.resetOriginalPoint();
+        switch(mState) {
+            case START:
+                // As long as no wall has been found yet, keep walking forward
+                walkStraight(chooseStepLength(), 0);
+                break;
+            case WALKING:
+                if(mCheckingWall) {
+                    mCheckingWall = false;
+                }
+                updateCoordinates();
+                if(mExploration.hasHead()) {
+                    // The head has watched the wall on the way
+                    mExploration.stopWatchingWallEnd();
+                    mDistanceWall = mExploration.getHeadDistance();
+                    mExploration.integrateHeadDistance(mDistanceWall);
+                    mDistanceFront = mExploration.measureUltrasonicDistance();
+                    if(mDistanceWall > WALL_END_DISTANCE) {
+                        passCorner();
+                    } else {
+                        walkAlongWall();
+                    }
+                    break;
+                }
+                checkWall();
+                break;
+            case CHECKING_WALL:
+                // In case after the right turn no obstacle is detected, that means that the wall
+                // next to the robot has ended and it needs to walk forward to follow the new wall.
+                // In case after the right turn an obstacle is detected, the ObstacleStateChangeListener
+                // is triggered (after the code in this switch case is executed) and the robot
+                // performs a left turn so that it looks forward again and keeps following the wall.
+                // The boolean mCheckingWall is only relevant for the second scenario, because in that
+                // case in the ObstacleStateChangeListener the coordinates are not supposed to be
+                // updated. mCheckingWall allows to distinguish between the following cases:
+                // 1. The robot is walking towards a new wall and an obstacle appears in front of it
+                // 2. An obstacle appears while checking the wall next to the robot
+                // In both cases the state of the robot is WALKING, but in the ObstacleStateChangeListener
+                // different things need to happen.
+                // Without setting the state to WALKING in this switch case, the robot would not continue
+                // walking if after the right turn no obstacle is found.
+                mCheckingWall = true;
+                mExploration.awaitUltrasonicDistance(new RangeSampler.ReadingListener() {
+                    @Override
+                    public void onReading(double distance) {
+                        mDistanceWall = distance;
+                        mExploration.integrateUltrasonicDistance(distance);
+                        updateWallCheckInterval();
+                        if(mDistanceWall < Exploration.ULTRASONIC_MAX) {
+                            // The robot faces the wall that it follows
+                            mExploration.observeWall(distance, 0);
+                        }
+                        if(mDistanceWall >= Exploration.ULTRASONIC_MAX) {
+                            // No obstacle detected, this means the wall has ended and the robot needs
+                            // walk around a corner
+                            updateOrientation(LEFT_TURN);
+                            queueCorner(State.CORNER_LEFT);
+                        } else {
+                            // In case the robot is further away from the wall than OBSTACLE_AVOIDANCE_DISTANCE
+                            // this code makes it approach the wall again.
+                            mState = State.WALKING;
+                            walk(WALKING_DISTANCE, 0);
+                        }
+                    }
+                });
+                break;
+            case OBSTACLE_DETECTED:
+                mDistanceFront = mExploration.measureUltrasonicDistance();
+                if(mDistanceFront <= Exploration.OBSTACLE_AVOIDANCE_DISTANCE) {
+                    // Obstacle right after obstacle --> Turn left
+                    mExploration.startWall();
+                    updateOrientation(LEFT_TURN);
+                    mExploration.addCheckPoint(0, 0, LEFT_90);
+                } else if(mExploration.hasHead()) {
+                    walkAlongWall();
+                } else {
+                    mState = State.WALKING;
+                    // Increase the distance to the wall to the robot's right or keep it
+                    float correction = mDistanceWall <= WALL_DISTANCE ? WALL_DISTANCE_CORRECTION : 0;
+                    if(canSkipWallCheck(WALKING_DISTANCE)) {
+                        // The wall leads up to the next wall ahead, which makes the robot turn left
+                        walkStraight(WALKING_DISTANCE, correction);
+                    } else {
+                        walk(chooseStepLength(), correction);
+                    }
+                }
+                break;
+            default:
+                // The corner states are handled in handleCornerCheckpoint(), the last checkpoint of a
+                // corner is the turn towards the new wall, after which the state is START
+        }
+    }
+
+    /**
+     * Takes the readings at a checkpoint on the way around a corner and moves on to the next state.
+     * The checkpoints of the corner were queued together by {@see #queueCorner(State)}, so the robot
+     * is already on its way to the next one.
+     */
+    private void handleCornerCheckpoint() {
+        // The robot is already on its way to the next checkpoint
+        mExploration.updatePoseFromOdometry();
+        switch(mState) {
+            case CORNER_LEFT:
+                // Increase distance to the corner to make sure that the robot doesn't get stuck with
+                // its right wheel when passing the corner
+                mDistanceFront = mExploration.measureUltrasonicDistance();
+                mState = State.CORNER_FORWARD;
+                break;
+            case CORNER_FORWARD:
+                recordPosition(mExploration.getPositionAt(mExploration.getArrivalTime()));
+                mDistanceFront = mExploration.measureUltrasonicDistance();
+                mState = State.CORNER_RIGHT;
+                updateOrientation(RIGHT_TURN);
+                break;
+            case CORNER_RIGHT:
+                mDistanceFront = mExploration.measureUltrasonicDistance();
+                // In case an obstacle appears it needs to be determined whether to increase distance
+                // Therefore, update mDistanceWall
+                mDistanceWall = mDistanceFront;
+                mState = State.CORNER_DONE;
+                break;
+            case CORNER_DONE:
+                // Approach the new wall
+                recordPosition(mExploration.getPositionAt(mExploration.getArrivalTime()));
+                mDistanceFront = mExploration.measureUltrasonicDistance();
+                mState = State.START;
+                updateOrientation(RIGHT_TURN);
+                break;
+            default:
+                RobotLog.d(TAG, "Unexpected queued checkpoint in state " + mState);
+        }
+    }
+
+    /**
+     * Queues the rest of the way around a corner at once: turn left, walk forward, turn right, walk
+     * around the corner and turn right towards the new wall. The plan is fixed, so the robot doesn't
+     * have to wait for the strategy at every checkpoint. If an obstacle appears on the way, the
+     * original point is reset, which deletes the rest of the corner.
+     * @param state the state at which the corner is entered, CORNER_LEFT, CORNER_FORWARD or
+     *              CORNER_RIGHT
+     */
+    private void queueCorner(State state) {
+        if(state != State.CORNER_LEFT && state != State.CORNER_FORWARD && state != State.CORNER_RIGHT) {
+            RobotLog.d(TAG, "A corner can't be entered in state " + state);
+            return;
+        }
+        mState = state;
+        // Around the corner the robot follows another wall
+        mExploration.startWall();
+        // The checkpoints are relative to the current original point, so the movements add up
+        float x = 0;
+        float y = 0;
+        float theta = 0;
+        if(state == State.CORNER_LEFT) {
+            theta += LEFT_90;
+            mExploration.addCheckPoint(x, y, theta);
+        }
+        if(state != State.CORNER_RIGHT) {
+            x += WALKING_DISTANCE * Math.cos(theta);
+            y += WALKING_DISTANCE * Math.sin(theta);
+            mExploration.addCheckPoint(x, y);
+        }
+        theta += RIGHT_90;
+        mExploration.addCheckPoint(x, y, theta);
+        x += CORNER_WALKING_DISTANCE * Math.cos(theta) - CORNER_CORRECTION * Math.sin(theta);
+        y += CORNER_WALKING_DISTANCE * Math.sin(theta) + CORNER_CORRECTION * Math.cos(theta);
+        mExploration.addCheckPoint(x, y);
+        // The robot faces the direction that it walked in, which includes the correction
+        theta += Math.atan2(CORNER_CORRECTION, CORNER_WALKING_DISTANCE) + RIGHT_90;
+        mExploration.addCheckPoint(x, y, theta);
+    }
+
+    /**
+     * Sets a new checkpoint to make the robot rotate 90° to the left in case an obstacle was detected.
+     */
+    @Override
+    public void obstacleDetected() {
+        // Check with the next samples if there really is an obstacle
+        mExploration.confirmObstacle(new RangeSampler.ObstacleListener() {
+            @Override
+            public void onResult(boolean obstacle) {
+                // In the state OBSTACLE_DETECTED the robot is turning left in place. The obstacle is
+                // still the one that made it turn, and whether there is another one is checked when
+                // the turn is finished. Turning again would count the turn twice in mOrientation.
+                if(obstacle && mState != State.OBSTACLE_DETECTED) {
+                    mExploration.stopWatchingWallEnd();
+                    mWalkingStraight = false;
+                    // The robot detects an obstacle before it reaches the current checkpoint. When an obstacle
+                    // is detected, a new checkpoint is set for the left turn but the robot still tries to reach
+                    // the last checkpoint first. That checkpoint obviously can't be reached, because there is an
+                    // obstacle in front of the robot, so the robot just stops walking completely.
+                    // Therefore the last checkpoint needs to be deleted before the new one is set.
+                    mExploration.resetOriginalPoint();
+                    if(mState == State.START) {
+                        // This is the first obstacle that the robot has detected (the coordinates are 0.0)
+                        recordPosition(mExploration.getPosition());
+                        mDistanceWall = mExploration.measureUltrasonicDistance();
+                        mExploration.startWall();
+                        mState = State.OBSTACLE_DETECTED;
+                        updateOrientation(LEFT_TURN);
+                        mExploration.addCheckPoint(0, 0, LEFT_90);
+                        // When the turn is finished, {@see #arrivedAtCheckpoint()} is called and the robot walks
+                        // forward to the next wall
+                    } else if(mState == State.WALKING) {
+                        mState = State.OBSTACLE_DETECTED;
+                        // Concerning mCheckingWall see explanation in arrivedAtCheckpoint() (case CHECKING_WALL)
+                        if(!mCheckingWall) {
+                            updateCoordinates();
+                            // The wall in front is the one to follow from now on
+                            mExploration.startWall();
+                        } else {
+                            mCheckingWall = false;
+                        }
+                        updateOrientation(LEFT_TURN);
+                        mExploration.addCheckPoint(0, 0, LEFT_90);
+                        // When the turn is finished, {@see #arrivedAtCheckpoint()} is called and the robot walks
+                        // forward to the next wall
+                    } else if(mState == State.CORNER_FORWARD) {
+                        updateOrientation(RIGHT_TURN);
+                        queueCorner(State.CORNER_RIGHT);
+                    } else if(mState == State.CORNER_RIGHT) {
+                        mExploration.startWall();
+                        mState = State.OBSTACLE_DETECTED;
+                        updateOrientation(LEFT_TURN);
+                        mExploration.addCheckPoint(0, 0, LEFT_90);
+                    } else if(mState == State.CORNER_DONE) {
+                        mExploration.startWall();
+                        mState = State.OBSTACLE_DETECTED;
+                        updateCoordinates();
+                        updateOrientation(LEFT_TURN);
+                        mExploration.addCheckPoint(0, 0, LEFT_90);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Walks on at a checkpoint of a straight run. The robot is already on its way to the next step,
+     * so the run only stops when the strategy didn't queue another step. Before the first wall is
+     * found the run goes on until an obstacle appears. Along a wall another step is queued as long
+     * as the wall check can still be skipped at its end, and when the run has ended the robot
+     * turns to check the wall.
+     */
+    private void walkOn() {
+        mExploration.updatePoseFromOdometry();
+        if(mState == State.START) {
+            queueStep(chooseStepLength());
+            return;
+        }
+        mDistanceSinceCheck += WALKING_DISTANCE;
+        recordPosition(mExploration.getPosition());
+        if(mExploration.getPendingCheckPointCount() == 0) {
+            mWalkingStraight = false;
+            mExploration.resetOriginalPoint();
+            checkWall();
+        } else if(canSkipWallCheck(2 * WALKING_DISTANCE)) {
+            queueStep(WALKING_DISTANCE);
+        }
+    }
+
+    /**
+     * Decides whether the robot can walk on without turning to check the wall to its right. That is
+     * the case if the wall was found where it was expected at the last check and the filtered front
+     * clearance shows the next wall within sensor range: the wall to the right then leads up to that
+     * wall, where the robot turns left anyway. Doorways on the way are found by checking the wall
+     * at least every MAX_WALKING_DISTANCE.
+     * @param distance the distance in meters that the robot walks before the next check
+     * @return true if the check can be skipped
+     */
+    private boolean canSkipWallCheck(float distance) {
+        return !mExploration.hasHead() && mWallCheckInterval > WALKING_DISTANCE
+                && mDistanceSinceCheck + distance <= MAX_WALKING_DISTANCE
+                && mExploration.getFrontClearance() < Exploration.ULTRASONIC_MAX;
+    }
+
+    /**
+     * Starts a straight run of steps and queues the step after the first one, so the robot doesn't
+     * stop at the first checkpoint. Along a wall the second step is only queued if the wall check
+     * can be skipped at its end.
+     * @param distance the length in meters of the first step
+     * @param correction the distance in meters to shift to the left
+     */
+    private void walkStraight(float distance, float correction) {
+        mWalkingStraight = true;
+        mRunX = 0;
+        mRunY = correction;
+        queueStep(distance);
+        if(mState == State.START) {
+            queueStep(chooseStepLength());
+        } else if(canSkipWallCheck(distance + WALKING_DISTANCE)) {
+            queueStep(WALKING_DISTANCE);
+        }
+    }
+
+    /**
+     * Queues the next step of the straight run behind the steps that were queued before.
+     * @param distance the length of the step in meters
+     */
+    private void queueStep(float distance) {
+        mRunX += distance;
+        mExploration.addCheckPoint(mRunX, mRunY);
+    }
+
+    /**
+     * Chooses the length of the next walking checkpoint from the filtered distance to the next
+     * obstacle in front of the robot. If nothing is in sensor range, the robot walks until the wall
+     * needs to be checked again or, if the head watches the wall, HEAD_WALKING_DISTANCE. Otherwise
+     * it takes short steps.
+     * @return the distance in meters
+     */
+    private float chooseStepLength() {
+        if(mExploration.getFrontClearance() < Exploration.ULTRASONIC_MAX) {
+            return WALKING_DISTANCE;
+        }
+        if(mExploration.hasHead()) {
+            return HEAD_WALKING_DISTANCE;
+        }
+        return mWallCheckInterval;
+    }
+
+    /**
+     * Doubles the distance between two checks of the wall if the wall was found where it was
+     * expected and resets it otherwise.
+     */
+    private void updateWallCheckInterval() {
+        if(mDistanceWall < Exploration.ULTRASONIC_MAX && !Double.isNaN(mPreviousDistanceWall)
+                && Math.abs(mDistanceWall - mPreviousDistanceWall) <= WALL_TOLERANCE) {
+            mWallCheckInterval = Math.min(2 * mWallCheckInterval, MAX_WALKING_DISTANCE);
+        } else {
+            mWallCheckInterval = WALKING_DISTANCE;
+        }
+        mPreviousDistanceWall = mDistanceWall < Exploration.ULTRASONIC_MAX ? mDistanceWall : Double.NaN;
+    }
+
+    /**
+     * Walks along the wall to the right while the head watches it. The robot moves away from the
+     * wall or closer to it if the head measured that it is too close or too far away.
+     */
+    private void walkAlongWall() {
+        mState = State.WALKING;
+        if(mDistanceWall <= WALL_DISTANCE) {
+            walk(chooseStepLength(), WALL_DISTANCE_CORRECTION);
+        } else if(mDistanceWall > WALL_FAR_DISTANCE) {
+            walk(chooseStepLength(), -WALL_DISTANCE_CORRECTION);
+        } else {
+            walk(chooseStepLength(), 0);
+        }
+        mExploration.watchWallEnd(WALL_END_DISTANCE, new RangeSampler.WallListener() {
+            @Override
+            public void onWallSample(double distance) {
+                mExploration.observeWall(distance, HEAD_YAW);
+            }
+
+            @Override
+            public void onWallEnded() {
+                if(mState != State.WALKING) {
+                    return;
+                }
+                // Stop where the wall ended
+                mExploration.resetOriginalPoint();
+                updateCoordinates();
+                mExploration.integrateHeadDistance(mExploration.getHeadDistance());
+                passCorner();
+            }
+        });
+    }
+
+    /**
+     * Walks past the end of the wall that the head has seen, before the robot turns around the
+     * corner. Unlike after a check with the ultrasonic sensor the robot still faces forward, so it
+     * doesn't need to turn back first.
+     */
+    private void passCorner() {
+        queueCorner(State.CORNER_FORWARD);
+    }
+
+    /**
+     * Sets a checkpoint straight ahead, slightly shifted to the side.
+     * @param distance the distance in meters to walk forward
+     * @param correction the distance in meters to shift to the left
+     */
+    private void walk(float distance, float correction) {
+        mExploration.addCheckPoint(distance, correction);
+    }
+
+    /**
+     * Sets the coordinates to the current pose that the odometry has measured and adds them to the
+     * positions of the exploration. In the state OBSTACLE_DETECTED the reading that stopped the
+     * robot is integrated at that pose.
+     */
+    public void updateCoordinates() {
+        mExploration.updatePoseFromOdometry();
+        recordPosition(mExploration.getPosition());
+    }
+
+    /**
+     * Sets the coordinates to a position that the robot has reached and adds it to the positions of
+     * the exploration.
+     * @param position the position, taken from the odometry
+     */
+    private void recordPosition(Position position) {
+        if(mState == State.OBSTACLE_DETECTED) {
+            mExploration.integrateUltrasonicDistance(mExploration.readUltrasonicDistance());
+        }
+        mXCoordinate = position.getX();
+        mYCoordinate = position.getY();
+        RobotLog.d(TAG, "State: " + mState +
+                " | Orientation: " + mOrientation +
+                " | Position: (" + mXCoordinate + " , " + mYCoordinate + ")");
+        mExploration.addPosition(position);
+    }
+
+    /**
+     * Sets the direction that the robot is meant to move in. The new orientation of the robot
+     * depends on whether a left or a right turn is to be performed. The pose itself is updated from
+     * the odometry once the turn is done.
+     * @param direction indicates whether the turn to be performed is a left turn or a right turn
+     */
+    public void updateOrientation(String direction) {
+        if(direction.equals(LEFT_TURN)) {
+            switch(mOrientation) {
+                case FORWARD:
+                    mOrientation = Orientation.LEFT;
+                    break;
+                case BACKWARD:
+                    mOrientation = Orientation.RIGHT;
+                    break;
+                case LEFT:
+                    mOrientation = Orientation.BACKWARD;
+                    break;
+                case RIGHT:
+                    mOrientation = Orientation.FORWARD;
+                    break;
+                default:
+                    // All possible cases are handled above
+            }
+        } else {
+            switch(mOrientation) {
+                case FORWARD:
+                    mOrientation = Orientation.RIGHT;
+                    break;
+                case BACKWARD:
+                    mOrientation = Orientation.LEFT;
+                    break;
+                case LEFT:
+                    mOrientation = Orientation.FORWARD;
+                    break;
+                case RIGHT:
+                    mOrientation = Orientation.BACKWARD;
+                    break;
+                default:
+                    // All possible cases are handled above
+            }
+        }
+    }
+
+}
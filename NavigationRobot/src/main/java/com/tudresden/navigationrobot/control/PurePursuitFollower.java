@@ -0,0 +1,375 @@
+package com.tudresden.navigationrobot.control;
+
+import com.tudresden.navigationrobot.robot.Pose;
+import com.tudresden.navigationrobot.robot.RobotBase;
+import com.tudresden.navigationrobot.robot.RobotLog;
+import com.tudresden.navigationrobot.robot.Scheduler;
+
+/**
+ * Drives the robot along a trajectory with velocity commands instead of checkpoints, so it doesn't
+ * stop and turn in place at every corner. A control loop runs every CONTROL_PERIOD milliseconds on
+ * the scheduler: it reads the odometry pose, finds the closest sample of the trajectory and steers
+ * towards the sample that lies one lookahead distance further on (pure pursuit). The lookahead
+ * grows with the velocity, so the robot cuts fewer corners when it is slow. The velocity follows the
+ * profile of the trajectory.
+ * The loop is scheduled at fixed times rather than with a fixed delay after every run, so it
+ * doesn't drift. How late every run starts is recorded as jitter.
+ * The trajectory is given in the coordinate system of the odometry. All methods must be called on
+ * the thread of the scheduler.
+ */
+public class PurePursuitFollower {
+
+    /**
+     * The tag that is used for log messages.
+     */
+    private static final String TAG = "PurePursuitFollower";
+
+    /**
+     * The time in milliseconds between two runs of the control loop (25 Hz).
+     */
+    public static final long CONTROL_PERIOD = 40;
+
+    /**
+     * The shortest lookahead distance in meters.
+     */
+    private static final double MIN_LOOKAHEAD = 0.15;
+
+    /**
+     * The longest lookahead distance in meters.
+     */
+    private static final double MAX_LOOKAHEAD = 0.6;
+
+    /**
+     * The time in seconds that the robot looks ahead at its current velocity.
+     */
+    private static final double LOOKAHEAD_TIME = 1.0;
+
+    /**
+     * The slowest velocity in meters per second at which the robot drives on, so it doesn't creep
+     * towards the goal where the profile reaches 0.
+     */
+    private static final double MIN_VELOCITY = 0.05;
+
+    /**
+     * The angle in radians to the lookahead point above which the robot turns in place first.
+     */
+    private static final double TURN_IN_PLACE_ANGLE = Math.toRadians(30);
+
+    /**
+     * The angular velocity per radian of heading error while the robot turns in place.
+     */
+    private static final double TURN_GAIN = 2.0;
+
+    /**
+     * The distance in meters to the end of the trajectory at which the goal counts as reached.
+     */
+    private static final double GOAL_TOLERANCE = 0.05;
+
+    /**
+     * The distance in meters along the trajectory that is searched for the closest sample.
+     */
+    private static final double SEARCH_WINDOW = 0.5;
+
+    /**
+     * The distance in meters along the trajectory between two progress reports.
+     */
+    private static final double PROGRESS_INTERVAL = 0.5;
+
+    /**
+     * The time in milliseconds without progress after which the robot counts as blocked.
+     */
+    private static final long BLOCKED_TIMEOUT = 5000;
+
+    /**
+     * The distance in meters that counts as progress.
+     */
+    private static final double BLOCKED_DISTANCE = 0.02;
+
+    /**
+     * Receives the progress of the robot along the trajectory. Called on the thread of the
+     * scheduler.
+     */
+    public interface Listener {
+
+        /**
+         * Called every PROGRESS_INTERVAL meters along the trajectory. The robot keeps driving.
+         */
+        void onProgress();
+
+        /**
+         * Called when the robot has reached the end of the trajectory and has stopped.
+         */
+        void onGoalReached();
+
+        /**
+         * Called when the robot hasn't moved for BLOCKED_TIMEOUT milliseconds, e.g. because the
+         * obstacle avoidance holds it. The robot has been stopped.
+         */
+        void onBlocked();
+    }
+
+    /**
+     * The base that the velocities are sent to.
+     */
+    private final RobotBase mBase;
+
+    /**
+     * The scheduler that the control loop runs on.
+     */
+    private final Scheduler mScheduler;
+
+    /**
+     * The trajectory that is followed or null if the robot isn't following one.
+     */
+    private Trajectory mTrajectory = null;
+
+    /**
+     * The listener of the current trajectory.
+     */
+    private Listener mListener = null;
+
+    /**
+     * The index of the sample that was closest to the robot in the last run.
+     */
+    private int mIndex = 0;
+
+    /**
+     * The distance along the trajectory at which the next progress report is due.
+     */
+    private double mNextProgress = 0;
+
+    /**
+     * The linear velocity that was sent last in meters per second.
+     */
+    private double mVelocity = 0;
+
+    /**
+     * The time at which the next run of the control loop is due in milliseconds.
+     */
+    private long mDueTime = 0;
+
+    /**
+     * The odometry pose at which the robot last made progress.
+     */
+    private Pose mProgressPose = null;
+
+    /**
+     * The time at which the robot last made progress in milliseconds.
+     */
+    private long mProgressTime = 0;
+
+    /**
+     * The number of runs of the control loop.
+     */
+    private long mTickCount = 0;
+
+    /**
+     * The number of runs that started so late that the next one was due already.
+     */
+    private long mOverrunCount = 0;
+
+    /**
+     * The sum of the delays of all runs in milliseconds.
+     */
+    private long mTotalJitter = 0;
+
+    /**
+     * The sum of the squared delays of all runs.
+     */
+    private double mSquaredJitter = 0;
+
+    /**
+     * The longest delay of a run in milliseconds.
+     */
+    private long mMaxJitter = 0;
+
+    /**
+     * A run of the control loop.
+     */
+    private Runnable mTick = new Runnable() {
+        @Override
+        public void run() {
+            long now = mScheduler.uptimeMillis();
+            long jitter = Math.max(0, now - mDueTime);
+            mTickCount++;
+            mTotalJitter += jitter;
+            mSquaredJitter += (double) jitter * jitter;
+            mMaxJitter = Math.max(mMaxJitter, jitter);
+            mDueTime += CONTROL_PERIOD;
+            if(mDueTime <= now) {
+                // Skip the runs that were missed instead of catching up with a burst
+                mOverrunCount++;
+                mDueTime = now + CONTROL_PERIOD;
+            }
+            control(now);
+            if(mTrajectory != null) {
+                mScheduler.postDelayed(this, mDueTime - now);
+            }
+        }
+    };
+
+    /**
+     * @param base the base that the velocities are sent to
+     * @param scheduler the scheduler that the control loop runs on
+     */
+    public PurePursuitFollower(RobotBase base, Scheduler scheduler) {
+        this.mBase = base;
+        this.mScheduler = scheduler;
+    }
+
+    /**
+     * Starts following a trajectory. A trajectory that is currently followed is replaced without
+     * stopping the robot, so the new one should start where the robot is.
+     * @param trajectory the trajectory in the coordinate system of the odometry
+     * @param listener the listener of the trajectory
+     */
+    public void follow(Trajectory trajectory, Listener listener) {
+        boolean running = mTrajectory != null;
+        mTrajectory = trajectory;
+        mListener = listener;
+        mIndex = 0;
+        mNextProgress = PROGRESS_INTERVAL;
+        mProgressPose = mBase.getOdometryPose();
+        mProgressTime = mScheduler.uptimeMillis();
+        if(!running) {
+            mDueTime = mScheduler.uptimeMillis();
+            mScheduler.post(mTick);
+        }
+    }
+
+    /**
+     * Stops the robot and the control loop. The listener isn't called anymore.
+     */
+    public void stop() {
+        if(mTrajectory == null) {
+            return;
+        }
+        mTrajectory = null;
+        mListener = null;
+        mScheduler.cancel(mTick);
+        mVelocity = 0;
+        mBase.setVelocity(0, 0);
+    }
+
+    /**
+     * @return true while the robot follows a trajectory
+     */
+    public boolean isFollowing() {
+        return mTrajectory != null;
+    }
+
+    /**
+     * @return the linear velocity that was sent last in meters per second
+     */
+    public double getVelocity() {
+        return mVelocity;
+    }
+
+    /**
+     * @return the number of runs of the control loop
+     */
+    public long getTickCount() {
+        return mTickCount;
+    }
+
+    /**
+     * @return the number of runs that started after the next one was due already
+     */
+    public long getOverrunCount() {
+        return mOverrunCount;
+    }
+
+    /**
+     * @return the average delay of a run after its due time in milliseconds
+     */
+    public double getAverageJitter() {
+        return mTickCount > 0 ? (double) mTotalJitter / mTickCount : 0;
+    }
+
+    /**
+     * @return the standard deviation of the delay of a run in milliseconds
+     */
+    public double getJitterDeviation() {
+        if(mTickCount == 0) {
+            return 0;
+        }
+        double average = getAverageJitter();
+        return Math.sqrt(Math.max(0, mSquaredJitter / mTickCount - average * average));
+    }
+
+    /**
+     * @return the longest delay of a run after its due time in milliseconds
+     */
+    public long getMaxJitter() {
+        return mMaxJitter;
+    }
+
+    /**
+     * Computes and sends the velocities for the current pose.
+     * @param now the current time in milliseconds
+     */
+    private void control(long now) {
+        Trajectory trajectory = mTrajectory;
+        Listener listener = mListener;
+        Pose pose = mBase.getOdometryPose();
+        if(pose == null) {
+            // The base can't be read, e.g. because its service was unbound, so the run is skipped
+            return;
+        }
+        if(mProgressPose == null) {
+            mProgressPose = pose;
+        }
+        mIndex = trajectory.findClosest(pose.getX(), pose.getY(), mIndex, SEARCH_WINDOW);
+        int last = trajectory.size() - 1;
+        double goalDistance = Math.hypot(trajectory.getX(last) - pose.getX(), trajectory.getY(last) - pose.getY());
+        if(goalDistance < GOAL_TOLERANCE || (mIndex == last && goalDistance < 2 * GOAL_TOLERANCE)) {
+            stop();
+            listener.onGoalReached();
+            return;
+        }
+        if(Math.hypot(pose.getX() - mProgressPose.getX(), pose.getY() - mProgressPose.getY()) > BLOCKED_DISTANCE
+                || mVelocity == 0) {
+            mProgressPose = pose;
+            mProgressTime = now;
+        } else if(now - mProgressTime > BLOCKED_TIMEOUT) {
+            RobotLog.d(TAG, "No progress for " + BLOCKED_TIMEOUT + " ms, the robot is blocked");
+            stop();
+            listener.onBlocked();
+            return;
+        }
+        // The profile is 0 at the start if the robot stands, so it is read one sample ahead
+        double velocity = Math.max(MIN_VELOCITY, trajectory.getVelocity(Math.min(mIndex + 1, last)));
+        // Don't overshoot the goal if the robot is off the trajectory
+        velocity = Math.min(velocity, Math.max(MIN_VELOCITY, Math.sqrt(2 * Trajectory.MAX_ACCELERATION * goalDistance)));
+        double lookahead = Math.max(MIN_LOOKAHEAD, Math.min(MAX_LOOKAHEAD, LOOKAHEAD_TIME * velocity));
+        int target = trajectory.findAhead(mIndex, lookahead);
+        double dx = trajectory.getX(target) - pose.getX();
+        double dy = trajectory.getY(target) - pose.getY();
+        double cos = Math.cos(pose.getTheta());
+        double sin = Math.sin(pose.getTheta());
+        double forward = cos * dx + sin * dy;
+        double left = -sin * dx + cos * dy;
+        double angle = Math.atan2(left, forward);
+        double angular;
+        if(Math.abs(angle) > TURN_IN_PLACE_ANGLE) {
+            velocity = 0;
+            angular = Math.max(-Trajectory.MAX_ANGULAR_VELOCITY, Math.min(Trajectory.MAX_ANGULAR_VELOCITY, TURN_GAIN * angle));
+        } else {
+            // The arc through the lookahead point
+            double curvature = 2 * left / (forward * forward + left * left);
+            angular = velocity * curvature;
+            if(Math.abs(angular) > Trajectory.MAX_ANGULAR_VELOCITY) {
+                // Slow down instead of leaving the arc
+                velocity *= Trajectory.MAX_ANGULAR_VELOCITY / Math.abs(angular);
+                angular = Math.signum(angular) * Trajectory.MAX_ANGULAR_VELOCITY;
+            }
+        }
+        mVelocity = velocity;
+        mBase.setVelocity((float) velocity, (float) angular);
+        if(trajectory.getDistance(mIndex) >= mNextProgress) {
+            mNextProgress = trajectory.getDistance(mIndex) + PROGRESS_INTERVAL;
+            listener.onProgress();
+        }
+    }
+
+}
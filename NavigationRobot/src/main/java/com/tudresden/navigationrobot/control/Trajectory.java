@@ -0,0 +1,300 @@
+package com.tudresden.navigationrobot.control;
+
+import java.util.Arrays;
+
+/**
+ * A smoothed path with a velocity profile. The corners of the planned polyline are rounded off
+ * (Chaikin's corner cutting, limited to MAX_CORNER_CUT so the curve stays close to the obstacle-free
+ * polyline), then the curve is sampled every SPACING meters. The velocity at every sample is
+ * limited by the curvature, so the robot neither slides nor turns faster than it can, and by the
+ * acceleration and deceleration from the previous and towards the next samples. The profile ends
+ * with a velocity of 0 at the goal.
+ * All samples are stored in primitive arrays that are filled once, a trajectory is immutable.
+ */
+public class Trajectory {
+
+    /**
+     * The distance in meters between two samples.
+     */
+    public static final double SPACING = 0.05;
+
+    /**
+     * The highest linear velocity in meters per second.
+     */
+    public static final double MAX_VELOCITY = 0.5;
+
+    /**
+     * The highest angular velocity in radians per second.
+     */
+    public static final double MAX_ANGULAR_VELOCITY = 1.0;
+
+    /**
+     * The highest acceleration and deceleration along the path in meters per second squared.
+     */
+    public static final double MAX_ACCELERATION = 0.5;
+
+    /**
+     * The highest acceleration towards the center of a curve in meters per second squared.
+     */
+    private static final double MAX_LATERAL_ACCELERATION = 0.3;
+
+    /**
+     * The number of corner cutting passes. Every pass replaces each corner by two new ones.
+     */
+    private static final int SMOOTHING_PASSES = 3;
+
+    /**
+     * The longest distance in meters from a corner at which it is cut, so that a curve doesn't leave
+     * the corridor that the planner has left between the obstacles.
+     */
+    private static final double MAX_CORNER_CUT = 0.1;
+
+    /**
+     * The x-coordinates of the samples.
+     */
+    private final double[] mX;
+
+    /**
+     * The y-coordinates of the samples.
+     */
+    private final double[] mY;
+
+    /**
+     * The distance in meters along the curve from the first sample to every sample.
+     */
+    private final double[] mDistance;
+
+    /**
+     * The signed curvature at every sample in 1/m, positive in left turns.
+     */
+    private final double[] mCurvature;
+
+    /**
+     * The velocity at every sample in meters per second.
+     */
+    private final double[] mVelocity;
+
+    private Trajectory(double[] x, double[] y, double[] distance, double[] curvature, double[] velocity) {
+        this.mX = x;
+        this.mY = y;
+        this.mDistance = distance;
+        this.mCurvature = curvature;
+        this.mVelocity = velocity;
+    }
+
+    /**
+     * Smooths a polyline and computes the velocity profile.
+     * @param x the x-coordinates of the corners, starting with the position of the robot
+     * @param y the y-coordinates of the corners
+     * @param startVelocity the velocity in meters per second that the robot has at the start
+     * @return the trajectory, which has at least one sample
+     */
+    public static Trajectory fromPolyline(double[] x, double[] y, double startVelocity) {
+        double[][] smoothed = smooth(x, y);
+        double[][] samples = resample(smoothed[0], smoothed[1]);
+        double[] sampleX = samples[0];
+        double[] sampleY = samples[1];
+        int size = sampleX.length;
+        double[] distance = new double[size];
+        for(int i = 1; i < size; i++) {
+            distance[i] = distance[i - 1] + Math.hypot(sampleX[i] - sampleX[i - 1], sampleY[i] - sampleY[i - 1]);
+        }
+        double[] curvature = new double[size];
+        for(int i = 1; i < size - 1; i++) {
+            curvature[i] = curvature(sampleX[i - 1], sampleY[i - 1], sampleX[i], sampleY[i], sampleX[i + 1], sampleY[i + 1]);
+        }
+        double[] velocity = new double[size];
+        for(int i = 0; i < size; i++) {
+            double limit = MAX_VELOCITY;
+            double absCurvature = Math.abs(curvature[i]);
+            if(absCurvature > 1e-6) {
+                limit = Math.min(limit, Math.sqrt(MAX_LATERAL_ACCELERATION / absCurvature));
+                limit = Math.min(limit, MAX_ANGULAR_VELOCITY / absCurvature);
+            }
+            velocity[i] = limit;
+        }
+        // Accelerate from the start and decelerate towards the goal
+        velocity[0] = Math.min(velocity[0], Math.max(startVelocity, 0));
+        for(int i = 1; i < size; i++) {
+            double ds = distance[i] - distance[i - 1];
+            velocity[i] = Math.min(velocity[i], Math.sqrt(velocity[i - 1] * velocity[i - 1] + 2 * MAX_ACCELERATION * ds));
+        }
+        velocity[size - 1] = 0;
+        for(int i = size - 2; i >= 0; i--) {
+            double ds = distance[i + 1] - distance[i];
+            velocity[i] = Math.min(velocity[i], Math.sqrt(velocity[i + 1] * velocity[i + 1] + 2 * MAX_ACCELERATION * ds));
+        }
+        return new Trajectory(sampleX, sampleY, distance, curvature, velocity);
+    }
+
+    /**
+     * Rounds off the corners of a polyline. The first and the last corner are kept.
+     * @return the x- and the y-coordinates of the smoothed polyline
+     */
+    private static double[][] smooth(double[] x, double[] y) {
+        for(int pass = 0; pass < SMOOTHING_PASSES && x.length > 2; pass++) {
+            int size = x.length;
+            double[] newX = new double[2 * (size - 1)];
+            double[] newY = new double[2 * (size - 1)];
+            int count = 0;
+            newX[count] = x[0];
+            newY[count++] = y[0];
+            for(int i = 0; i < size - 1; i++) {
+                double dx = x[i + 1] - x[i];
+                double dy = y[i + 1] - y[i];
+                double length = Math.hypot(dx, dy);
+                if(length < 1e-9) {
+                    continue;
+                }
+                double cut = Math.min(0.25, MAX_CORNER_CUT / length);
+                if(i > 0) {
+                    newX[count] = x[i] + cut * dx;
+                    newY[count++] = y[i] + cut * dy;
+                }
+                if(i < size - 2) {
+                    newX[count] = x[i + 1] - cut * dx;
+                    newY[count++] = y[i + 1] - cut * dy;
+                }
+            }
+            newX[count] = x[size - 1];
+            newY[count++] = y[size - 1];
+            x = Arrays.copyOf(newX, count);
+            y = Arrays.copyOf(newY, count);
+        }
+        return new double[][] {x, y};
+    }
+
+    /**
+     * Samples a polyline every SPACING meters. The last corner is always a sample.
+     * @return the x- and the y-coordinates of the samples
+     */
+    private static double[][] resample(double[] x, double[] y) {
+        double length = 0;
+        for(int i = 1; i < x.length; i++) {
+            length += Math.hypot(x[i] - x[i - 1], y[i] - y[i - 1]);
+        }
+        int size = (int) Math.ceil(length / SPACING) + 1;
+        double[] sampleX = new double[size];
+        double[] sampleY = new double[size];
+        sampleX[0] = x[0];
+        sampleY[0] = y[0];
+        int segment = 0;
+        double segmentStart = 0;
+        double segmentLength = x.length > 1 ? Math.hypot(x[1] - x[0], y[1] - y[0]) : 0;
+        for(int i = 1; i < size - 1; i++) {
+            double target = i * SPACING;
+            while(segment < x.length - 2 && segmentStart + segmentLength < target) {
+                segmentStart += segmentLength;
+                segment++;
+                segmentLength = Math.hypot(x[segment + 1] - x[segment], y[segment + 1] - y[segment]);
+            }
+            double fraction = segmentLength > 0 ? Math.min(1, (target - segmentStart) / segmentLength) : 0;
+            sampleX[i] = x[segment] + fraction * (x[segment + 1] - x[segment]);
+            sampleY[i] = y[segment] + fraction * (y[segment + 1] - y[segment]);
+        }
+        sampleX[size - 1] = x[x.length - 1];
+        sampleY[size - 1] = y[y.length - 1];
+        return new double[][] {sampleX, sampleY};
+    }
+
+    /**
+     * @return the signed curvature of the circle through three points in 1/m, positive if the
+     * points turn to the left
+     */
+    private static double curvature(double x1, double y1, double x2, double y2, double x3, double y3) {
+        double cross = (x2 - x1) * (y3 - y2) - (y2 - y1) * (x3 - x2);
+        double product = Math.hypot(x2 - x1, y2 - y1) * Math.hypot(x3 - x2, y3 - y2) * Math.hypot(x3 - x1, y3 - y1);
+        return product > 1e-12 ? 2 * cross / product : 0;
+    }
+
+    /**
+     * @return the number of samples
+     */
+    public int size() {
+        return mX.length;
+    }
+
+    /**
+     * @return the length of the curve in meters
+     */
+    public double getLength() {
+        return mDistance[mDistance.length - 1];
+    }
+
+    /**
+     * @return the x-coordinate of the sample
+     */
+    public double getX(int index) {
+        return mX[index];
+    }
+
+    /**
+     * @return the y-coordinate of the sample
+     */
+    public double getY(int index) {
+        return mY[index];
+    }
+
+    /**
+     * @return the distance in meters along the curve from the first sample to the sample
+     */
+    public double getDistance(int index) {
+        return mDistance[index];
+    }
+
+    /**
+     * @return the signed curvature at the sample in 1/m, positive in left turns
+     */
+    public double getCurvature(int index) {
+        return mCurvature[index];
+    }
+
+    /**
+     * @return the planned velocity at the sample in meters per second
+     */
+    public double getVelocity(int index) {
+        return mVelocity[index];
+    }
+
+    /**
+     * Searches for the sample that is closest to a position, starting from a sample that was
+     * closest before. Only the samples within the given distance ahead are searched, so the robot
+     * can't skip to a later part of the curve that passes close by.
+     * @param x the x-coordinate of the position
+     * @param y the y-coordinate of the position
+     * @param from the index of the sample to start from
+     * @param window the distance in meters ahead of the start sample that is searched
+     * @return the index of the closest sample
+     */
+    public int findClosest(double x, double y, int from, double window) {
+        int best = from;
+        double bestDistance = Double.MAX_VALUE;
+        double limit = mDistance[from] + window;
+        for(int i = from; i < mX.length && mDistance[i] <= limit; i++) {
+            double dx = mX[i] - x;
+            double dy = mY[i] - y;
+            double distance = dx * dx + dy * dy;
+            if(distance < bestDistance) {
+                bestDistance = distance;
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @param from the index of a sample
+     * @param distance the distance in meters along the curve
+     * @return the index of the first sample that lies at least the distance ahead of the given one
+     * or the last sample
+     */
+    public int findAhead(int from, double distance) {
+        double target = mDistance[from] + distance;
+        int index = from;
+        while(index < mX.length - 1 && mDistance[index] < target) {
+            index++;
+        }
+        return index;
+    }
+
+}
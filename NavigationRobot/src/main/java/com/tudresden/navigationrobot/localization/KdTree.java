@@ -0,0 +1,223 @@
+package com.tudresden.navigationrobot.localization;
+
+import java.util.Arrays;
+
+/**
+ * A two-dimensional k-d tree for nearest neighbour lookups. The points are added first and the
+ * tree is then built in place: the points are reordered so that the median of every range along
+ * its split axis sits in the middle of the range, with the smaller points before it and the larger
+ * points after it. The tree needs no nodes besides the points and the split axes, and neither
+ * building it nor looking up a point allocates once the arrays have grown to their working size.
+ */
+class KdTree {
+
+    /**
+     * The capacity of the arrays of a new tree.
+     */
+    private static final int INITIAL_CAPACITY = 256;
+
+    /**
+     * The x-coordinates of the points.
+     */
+    private double[] mX = new double[INITIAL_CAPACITY];
+
+    /**
+     * The y-coordinates of the points.
+     */
+    private double[] mY = new double[INITIAL_CAPACITY];
+
+    /**
+     * The number that every point was added with.
+     */
+    private int[] mIndex = new int[INITIAL_CAPACITY];
+
+    /**
+     * True if the range that has the point in its middle is split along the x-axis, false if along
+     * the y-axis.
+     */
+    private boolean[] mSplitX = new boolean[INITIAL_CAPACITY];
+
+    /**
+     * The number of points.
+     */
+    private int mSize = 0;
+
+    /**
+     * The position of the nearest point found so far by #nearest(double, double, double).
+     */
+    private int mBest;
+
+    /**
+     * The squared distance to the nearest point found so far.
+     */
+    private double mBestDistance;
+
+    /**
+     * Removes all points.
+     */
+    void clear() {
+        mSize = 0;
+    }
+
+    /**
+     * Adds a point. The tree has to be built again before it is searched.
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     * @return the number of the point, which #nearest(double, double, double) returns
+     */
+    int add(double x, double y) {
+        if(mSize == mX.length) {
+            mX = Arrays.copyOf(mX, 2 * mSize);
+            mY = Arrays.copyOf(mY, 2 * mSize);
+            mIndex = Arrays.copyOf(mIndex, 2 * mSize);
+            mSplitX = Arrays.copyOf(mSplitX, 2 * mSize);
+        }
+        mX[mSize] = x;
+        mY[mSize] = y;
+        mIndex[mSize] = mSize;
+        return mSize++;
+    }
+
+    /**
+     * @return the number of points
+     */
+    int size() {
+        return mSize;
+    }
+
+    /**
+     * Builds the tree from the points that were added.
+     */
+    void build() {
+        build(0, mSize);
+    }
+
+    /**
+     * Builds the tree of a range of points. The range is split along the axis in which its points
+     * are spread most.
+     * @param from the first point of the range
+     * @param to the end of the range (exclusive)
+     */
+    private void build(int from, int to) {
+        if(to - from <= 1) {
+            if(to > from) {
+                mSplitX[from] = true;
+            }
+            return;
+        }
+        double minX = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        for(int i = from; i < to; i++) {
+            minX = Math.min(minX, mX[i]);
+            maxX = Math.max(maxX, mX[i]);
+            minY = Math.min(minY, mY[i]);
+            maxY = Math.max(maxY, mY[i]);
+        }
+        boolean splitX = maxX - minX >= maxY - minY;
+        int middle = (from + to) >>> 1;
+        select(from, to - 1, middle, splitX);
+        mSplitX[middle] = splitX;
+        build(from, middle);
+        build(middle + 1, to);
+    }
+
+    /**
+     * Moves the k-th smallest point of a range along an axis to position k, the smaller points
+     * before it and the larger points after it (quickselect).
+     * @param left the first point of the range
+     * @param right the last point of the range (inclusive)
+     * @param k the position of the point
+     * @param splitX true to compare the x-coordinates, false for the y-coordinates
+     */
+    private void select(int left, int right, int k, boolean splitX) {
+        double[] keys = splitX ? mX : mY;
+        while(left < right) {
+            double pivot = keys[(left + right) >>> 1];
+            int i = left;
+            int j = right;
+            while(i <= j) {
+                while(keys[i] < pivot) {
+                    i++;
+                }
+                while(keys[j] > pivot) {
+                    j--;
+                }
+                if(i <= j) {
+                    swap(i, j);
+                    i++;
+                    j--;
+                }
+            }
+            if(k <= j) {
+                right = j;
+            } else if(k >= i) {
+                left = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Swaps two points.
+     */
+    private void swap(int i, int j) {
+        double x = mX[i];
+        mX[i] = mX[j];
+        mX[j] = x;
+        double y = mY[i];
+        mY[i] = mY[j];
+        mY[j] = y;
+        int index = mIndex[i];
+        mIndex[i] = mIndex[j];
+        mIndex[j] = index;
+    }
+
+    /**
+     * Looks up the point that is nearest to a position.
+     * @param x the x-coordinate of the position
+     * @param y the y-coordinate
+     * @param maxDistance the distance beyond which points are ignored
+     * @return the number of the nearest point or -1 if there is no point within maxDistance
+     */
+    int nearest(double x, double y, double maxDistance) {
+        mBest = -1;
+        mBestDistance = maxDistance * maxDistance;
+        nearest(0, mSize, x, y);
+        return mBest < 0 ? -1 : mIndex[mBest];
+    }
+
+    /**
+     * Searches a range of points for a point that is nearer than the nearest one found so far. The
+     * half of the range on the side of the position is searched first, the other half only if the
+     * splitting line is nearer than the nearest point.
+     */
+    private void nearest(int from, int to, double x, double y) {
+        if(from >= to) {
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        double dx = x - mX[middle];
+        double dy = y - mY[middle];
+        double distance = dx * dx + dy * dy;
+        if(distance < mBestDistance) {
+            mBestDistance = distance;
+            mBest = middle;
+        }
+        double side = mSplitX[middle] ? dx : dy;
+        if(side < 0) {
+            nearest(from, middle, x, y);
+            if(side * side < mBestDistance) {
+                nearest(middle + 1, to, x, y);
+            }
+        } else {
+            nearest(middle + 1, to, x, y);
+            if(side * side < mBestDistance) {
+                nearest(from, middle, x, y);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,427 @@
+package com.tudresden.navigationrobot.localization;
+
+import com.tudresden.navigationrobot.map.OccupancyGrid;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The likelihood field of a stored occupancy grid, which the ParticleFilter weighs its particles
+ * with. A reading is likely if the point where it hit an obstacle lies close to an occupied cell, so
+ * the field holds the likelihood of a hit in every cell, computed from the distance of the cell to
+ * the closest occupied cell. The field reaches a little beyond the known cells of the grid, so a
+ * point just outside the outer walls is still close to them.
+ * The field is computed lazily in blocks that match the tiles of the occupancy grid. The first
+ * lookup within a block takes a snapshot of the tile plus the cells around it that can still
+ * influence its likelihoods and runs a chamfer distance transform over it, so only the part of the
+ * map that the particles actually look at is ever computed. Blocks that no obstacle is close to
+ * share one array.
+ * The field also keeps the free cells that the center of the robot fits into, which are the places
+ * that the robot may be at when nothing is known about its pose. They are collected from all blocks
+ * the first time that they are needed.
+ * The field can be read from several threads at once. The occupancy grid must not be changed while
+ * the field is in use.
+ */
+public class LikelihoodField {
+
+    /**
+     * The standard deviation in meters of the distance between the point where a reading hit an
+     * obstacle and the closest occupied cell. The cone of the ultrasonic sensor is 30 degrees wide,
+     * so the closest obstacle in it may lie well beside the axis of the sensor.
+     */
+    private static final double HIT_SIGMA = 0.12;
+
+    /**
+     * The weight of the part of the likelihood that explains a reading by an obstacle of the map.
+     */
+    private static final double HIT_WEIGHT = 0.9;
+
+    /**
+     * The likelihood of a reading that no obstacle of the map explains, e.g. a person or a chair
+     * that was moved. It keeps a single such reading from ruling out the right pose.
+     */
+    private static final double RANDOM_LIKELIHOOD = 0.05;
+
+    /**
+     * The distance in meters by which the snapshot reaches beyond the known cells of the grid.
+     */
+    private static final double MARGIN = 0.5;
+
+    /**
+     * The cost of an orthogonal step in the chamfer distance transform.
+     */
+    private static final int CHAMFER_ORTHOGONAL = 3;
+
+    /**
+     * The cost of a diagonal step in the chamfer distance transform.
+     */
+    private static final int CHAMFER_DIAGONAL = 4;
+
+    /**
+     * The likelihoods of a block that no occupied cell is close to.
+     */
+    private static final float[] UNEXPLAINED_BLOCK = new float[OccupancyGrid.TILE_SIZE * OccupancyGrid.TILE_SIZE];
+
+    static {
+        Arrays.fill(UNEXPLAINED_BLOCK, (float) RANDOM_LIKELIHOOD);
+    }
+
+    /**
+     * The occupancy grid that the blocks are computed from.
+     */
+    private final OccupancyGrid mMap;
+
+    /**
+     * The edge length of a cell in meters.
+     */
+    private final double mResolution;
+
+    /**
+     * The x-index (in the occupancy grid) of the first cell of the field.
+     */
+    private final int mOriginX;
+
+    /**
+     * The y-index (in the occupancy grid) of the first cell of the field.
+     */
+    private final int mOriginY;
+
+    /**
+     * The number of cells of the field in x-direction.
+     */
+    private final int mWidth;
+
+    /**
+     * The number of cells of the field in y-direction.
+     */
+    private final int mHeight;
+
+    /**
+     * The x-index of the tile of the first block.
+     */
+    private final int mFirstBlockX;
+
+    /**
+     * The y-index of the tile of the first block.
+     */
+    private final int mFirstBlockY;
+
+    /**
+     * The number of blocks in x-direction.
+     */
+    private final int mBlockColumns;
+
+    /**
+     * The likelihood of a hit in every cell of every block, addressed by y * TILE_SIZE + x within
+     * the block, or null for blocks that were not computed yet. Blocks are addressed by
+     * row * mBlockColumns + column.
+     */
+    private final AtomicReferenceArray<float[]> mBlocks;
+
+    /**
+     * The likelihood of a hit for every chamfer distance up to mReach.
+     */
+    private final float[] mTable;
+
+    /**
+     * The greatest chamfer distance whose likelihood differs from RANDOM_LIKELIHOOD.
+     */
+    private final int mReach;
+
+    /**
+     * The smallest chamfer distance of a free cell to an occupied cell that the robot fits into.
+     */
+    private final int mRobotDistance;
+
+    /**
+     * The number of cells by which the snapshot of a block reaches beyond the block. An occupied
+     * cell at a chamfer distance of d is at most d / CHAMFER_ORTHOGONAL cells away in x and y, so
+     * the distances that matter are the same as on the whole grid.
+     */
+    private final int mSnapshotMargin;
+
+    /**
+     * The edge length of the snapshot of a block in cells.
+     */
+    private final int mSnapshotSize;
+
+    /**
+     * The class of every cell of the snapshot of a block: 1 for occupied cells, -1 for free cells,
+     * 0 for unknown cells. Only used while the lock of the field is held.
+     */
+    private final byte[] mCells;
+
+    /**
+     * The chamfer distances of the snapshot of a block. Only used while the lock of the field is
+     * held.
+     */
+    private final int[] mDistances;
+
+    /**
+     * The indices (y * mWidth + x) of the free cells that the center of the robot fits into or null
+     * if they were not collected yet.
+     */
+    private volatile int[] mFreeCells;
+
+    /**
+     * Prepares the likelihood field of an occupancy grid. The blocks are computed when they are
+     * first looked at.
+     * @param map the occupancy grid; it must not be changed while the field is in use
+     * @param robotRadius the radius of the robot in meters; free cells that are closer to an
+     *                    occupied cell are not counted as places that the robot may be at
+     */
+    public LikelihoodField(OccupancyGrid map, double robotRadius) {
+        mMap = map;
+        mResolution = map.getResolution();
+        // The likelihood only depends on the distance, so it is computed once per distance
+        mReach = (int) Math.ceil(4 * HIT_SIGMA / mResolution * CHAMFER_ORTHOGONAL);
+        mTable = new float[mReach + 1];
+        for(int distance = 0; distance <= mReach; distance++) {
+            double meters = distance * mResolution / CHAMFER_ORTHOGONAL;
+            mTable[distance] = (float) (HIT_WEIGHT * Math.exp(-meters * meters / (2 * HIT_SIGMA * HIT_SIGMA))
+                    + RANDOM_LIKELIHOOD);
+        }
+        mRobotDistance = (int) Math.ceil(robotRadius / mResolution * CHAMFER_ORTHOGONAL);
+        mSnapshotMargin = (Math.max(mReach, mRobotDistance) + CHAMFER_ORTHOGONAL - 1) / CHAMFER_ORTHOGONAL;
+        mSnapshotSize = OccupancyGrid.TILE_SIZE + 2 * mSnapshotMargin;
+        if(map.isEmpty()) {
+            mOriginX = 0;
+            mOriginY = 0;
+            mWidth = 0;
+            mHeight = 0;
+            mFirstBlockX = 0;
+            mFirstBlockY = 0;
+            mBlockColumns = 0;
+            mBlocks = new AtomicReferenceArray<>(0);
+            mCells = new byte[0];
+            mDistances = new int[0];
+            mFreeCells = new int[0];
+            return;
+        }
+        int margin = (int) Math.ceil(MARGIN / mResolution);
+        mOriginX = map.getMinCellX() - margin;
+        mOriginY = map.getMinCellY() - margin;
+        mWidth = map.getMaxCellX() - map.getMinCellX() + 1 + 2 * margin;
+        mHeight = map.getMaxCellY() - map.getMinCellY() + 1 + 2 * margin;
+        mFirstBlockX = mOriginX >> OccupancyGrid.TILE_SHIFT;
+        mFirstBlockY = mOriginY >> OccupancyGrid.TILE_SHIFT;
+        mBlockColumns = ((mOriginX + mWidth - 1) >> OccupancyGrid.TILE_SHIFT) - mFirstBlockX + 1;
+        int blockRows = ((mOriginY + mHeight - 1) >> OccupancyGrid.TILE_SHIFT) - mFirstBlockY + 1;
+        mBlocks = new AtomicReferenceArray<>(mBlockColumns * blockRows);
+        mCells = new byte[mSnapshotSize * mSnapshotSize];
+        mDistances = new int[mSnapshotSize * mSnapshotSize];
+    }
+
+    /**
+     * Computes the likelihoods of a block unless another thread has done so in the meantime.
+     * @param block the index of the block
+     * @return the likelihoods of the block
+     */
+    private synchronized float[] computeBlock(int block) {
+        float[] likelihoods = mBlocks.get(block);
+        if(likelihoods != null) {
+            return likelihoods;
+        }
+        takeSnapshot(block);
+        likelihoods = new float[OccupancyGrid.TILE_SIZE * OccupancyGrid.TILE_SIZE];
+        boolean explained = false;
+        for(int y = 0; y < OccupancyGrid.TILE_SIZE; y++) {
+            for(int x = 0; x < OccupancyGrid.TILE_SIZE; x++) {
+                int distance = mDistances[(y + mSnapshotMargin) * mSnapshotSize + x + mSnapshotMargin];
+                if(distance <= mReach) {
+                    likelihoods[(y << OccupancyGrid.TILE_SHIFT) + x] = mTable[distance];
+                    explained = true;
+                } else {
+                    likelihoods[(y << OccupancyGrid.TILE_SHIFT) + x] = (float) RANDOM_LIKELIHOOD;
+                }
+            }
+        }
+        if(!explained) {
+            likelihoods = UNEXPLAINED_BLOCK;
+        }
+        mBlocks.set(block, likelihoods);
+        return likelihoods;
+    }
+
+    /**
+     * Collects the free cells that the center of the robot fits into from all blocks, unless
+     * another thread has done so in the meantime.
+     * @return the indices of the free cells
+     */
+    private synchronized int[] collectFreeCells() {
+        if(mFreeCells != null) {
+            return mFreeCells;
+        }
+        int[] free = new int[64];
+        int freeCount = 0;
+        for(int block = 0; block < mBlocks.length(); block++) {
+            takeSnapshot(block);
+            int blockX = (block % mBlockColumns + mFirstBlockX) << OccupancyGrid.TILE_SHIFT;
+            int blockY = (block / mBlockColumns + mFirstBlockY) << OccupancyGrid.TILE_SHIFT;
+            for(int y = 0; y < OccupancyGrid.TILE_SIZE; y++) {
+                for(int x = 0; x < OccupancyGrid.TILE_SIZE; x++) {
+                    int index = (y + mSnapshotMargin) * mSnapshotSize + x + mSnapshotMargin;
+                    // Free cells are known, so they are within the field
+                    if(mCells[index] < 0 && mDistances[index] >= mRobotDistance) {
+                        if(freeCount == free.length) {
+                            free = Arrays.copyOf(free, freeCount * 2);
+                        }
+                        free[freeCount++] = (blockY + y - mOriginY) * mWidth + blockX + x - mOriginX;
+                    }
+                }
+            }
+        }
+        mFreeCells = Arrays.copyOf(free, freeCount);
+        return mFreeCells;
+    }
+
+    /**
+     * Copies a block and the cells around it from the occupancy grid into mCells and computes their
+     * distances to the closest occupied cell into mDistances.
+     * @param block the index of the block
+     */
+    private void takeSnapshot(int block) {
+        final int originX = ((block % mBlockColumns + mFirstBlockX) << OccupancyGrid.TILE_SHIFT) - mSnapshotMargin;
+        final int originY = ((block / mBlockColumns + mFirstBlockY) << OccupancyGrid.TILE_SHIFT) - mSnapshotMargin;
+        final int size = mSnapshotSize;
+        final byte[] cells = mCells;
+        Arrays.fill(cells, (byte) 0);
+        OccupancyGrid.RegionVisitor visitor = new OccupancyGrid.RegionVisitor() {
+            @Override
+            public void visit(int cellX, int cellY, int regionSize, float logOdds) {
+                byte value;
+                if(logOdds > OccupancyGrid.OCCUPIED_THRESHOLD) {
+                    value = 1;
+                } else if(logOdds < OccupancyGrid.FREE_THRESHOLD) {
+                    value = -1;
+                } else {
+                    return;
+                }
+                int fromX = Math.max(cellX - originX, 0);
+                int toX = Math.min(cellX + regionSize - originX, size);
+                int fromY = Math.max(cellY - originY, 0);
+                int toY = Math.min(cellY + regionSize - originY, size);
+                for(int row = fromY; row < toY; row++) {
+                    Arrays.fill(cells, row * size + fromX, row * size + toX, value);
+                }
+            }
+        };
+        mMap.visitRegions(originX, originY, originX + size - 1, originY + size - 1, visitor);
+        computeDistances(cells, mDistances, size, size);
+    }
+
+    /**
+     * Computes the chamfer distance of every cell of a snapshot to the closest occupied cell with
+     * two passes over the snapshot.
+     * @param cells the class of every cell, 1 for occupied cells
+     * @param distances receives the distances in units of 1/CHAMFER_ORTHOGONAL cells
+     * @param width the number of cells of the snapshot in x-direction
+     * @param height the number of cells of the snapshot in y-direction
+     */
+    private static void computeDistances(byte[] cells, int[] distances, int width, int height) {
+        // Forward pass: top left to bottom right
+        for(int y = 0; y < height; y++) {
+            for(int x = 0; x < width; x++) {
+                int index = y * width + x;
+                if(cells[index] > 0) {
+                    distances[index] = 0;
+                    continue;
+                }
+                int distance = Integer.MAX_VALUE / 2;
+                if(x > 0) {
+                    distance = Math.min(distance, distances[index - 1] + CHAMFER_ORTHOGONAL);
+                }
+                if(y > 0) {
+                    distance = Math.min(distance, distances[index - width] + CHAMFER_ORTHOGONAL);
+                    if(x > 0) {
+                        distance = Math.min(distance, distances[index - width - 1] + CHAMFER_DIAGONAL);
+                    }
+                    if(x < width - 1) {
+                        distance = Math.min(distance, distances[index - width + 1] + CHAMFER_DIAGONAL);
+                    }
+                }
+                distances[index] = distance;
+            }
+        }
+        // Backward pass: bottom right to top left
+        for(int y = height - 1; y >= 0; y--) {
+            for(int x = width - 1; x >= 0; x--) {
+                int index = y * width + x;
+                int distance = distances[index];
+                if(x < width - 1) {
+                    distance = Math.min(distance, distances[index + 1] + CHAMFER_ORTHOGONAL);
+                }
+                if(y < height - 1) {
+                    distance = Math.min(distance, distances[index + width] + CHAMFER_ORTHOGONAL);
+                    if(x < width - 1) {
+                        distance = Math.min(distance, distances[index + width + 1] + CHAMFER_DIAGONAL);
+                    }
+                    if(x > 0) {
+                        distance = Math.min(distance, distances[index + width - 1] + CHAMFER_DIAGONAL);
+                    }
+                }
+                distances[index] = distance;
+            }
+        }
+    }
+
+    /**
+     * @param x the real x-coordinate of the point where a reading hit an obstacle
+     * @param y the real y-coordinate
+     * @return the likelihood of the hit; points outside the field are not explained by the map
+     */
+    public double getLikelihood(double x, double y) {
+        int cellX = (int) Math.floor(x / mResolution);
+        int cellY = (int) Math.floor(y / mResolution);
+        if(cellX < mOriginX || cellY < mOriginY || cellX >= mOriginX + mWidth || cellY >= mOriginY + mHeight) {
+            return RANDOM_LIKELIHOOD;
+        }
+        int block = ((cellY >> OccupancyGrid.TILE_SHIFT) - mFirstBlockY) * mBlockColumns
+                + (cellX >> OccupancyGrid.TILE_SHIFT) - mFirstBlockX;
+        float[] likelihoods = mBlocks.get(block);
+        if(likelihoods == null) {
+            likelihoods = computeBlock(block);
+        }
+        int mask = OccupancyGrid.TILE_SIZE - 1;
+        return likelihoods[((cellY & mask) << OccupancyGrid.TILE_SHIFT) + (cellX & mask)];
+    }
+
+    /**
+     * @return the free cells, which are collected on the first call
+     */
+    private int[] freeCells() {
+        int[] free = mFreeCells;
+        return free != null ? free : collectFreeCells();
+    }
+
+    /**
+     * @return the number of free cells that the center of the robot fits into
+     */
+    public int getFreeCellCount() {
+        return freeCells().length;
+    }
+
+    /**
+     * @param i a number between 0 and getFreeCellCount() - 1
+     * @return the real x-coordinate of the corner of the free cell with the smallest coordinates
+     */
+    public double getFreeCellX(int i) {
+        return (mOriginX + freeCells()[i] % mWidth) * mResolution;
+    }
+
+    /**
+     * @param i a number between 0 and getFreeCellCount() - 1
+     * @return the real y-coordinate of the corner of the free cell with the smallest coordinates
+     */
+    public double getFreeCellY(int i) {
+        return (mOriginY + freeCells()[i] / mWidth) * mResolution;
+    }
+
+    /**
+     * @return the edge length of a cell in meters
+     */
+    public double getResolution() {
+        return mResolution;
+    }
+
+}
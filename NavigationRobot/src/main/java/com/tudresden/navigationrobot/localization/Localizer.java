@@ -0,0 +1,96 @@
+package com.tudresden.navigationrobot.localization;
+
+import com.tudresden.navigationrobot.robot.Pose;
+import com.tudresden.navigationrobot.robot.RobotBase;
+import com.tudresden.navigationrobot.robot.RobotSensor;
+
+/**
+ * Feeds a ParticleFilter with the odometry of the base and the ultrasonic sensor. The owner calls
+ * #step() every INTERVAL milliseconds on the thread that it reads the base on, e.g. from a task of
+ * its scheduler or from the loop of a benchmark. It doesn't depend on Android or the Segway SDK, so
+ * the navigation on the robot and the benchmarks in the simulator localize the robot the same way.
+ */
+public class Localizer {
+
+    /**
+     * The time in milliseconds between two steps.
+     */
+    public static final long INTERVAL = 100;
+
+    /**
+     * The filter that is fed.
+     */
+    private final ParticleFilter mFilter;
+
+    /**
+     * The base that the odometry is read from.
+     */
+    private final RobotBase mBase;
+
+    /**
+     * The sensor that the ultrasonic distances are read from.
+     */
+    private final RobotSensor mSensor;
+
+    /**
+     * The odometry pose at the previous step or null.
+     */
+    private Pose mPrevious = null;
+
+    /**
+     * @param filter the filter that is fed
+     * @param base the base that the odometry is read from
+     * @param sensor the sensor that the ultrasonic distances are read from
+     */
+    public Localizer(ParticleFilter filter, RobotBase base, RobotSensor sensor) {
+        this.mFilter = filter;
+        this.mBase = base;
+        this.mSensor = sensor;
+    }
+
+    /**
+     * Moves the particles by the movement of the odometry since the previous step and adds a
+     * reading of the ultrasonic sensor. Once enough readings were collected, the particles are
+     * weighed with them. While the base can't be read, e.g. because its service isn't bound, the
+     * steps are skipped and the movement in the meantime is lost.
+     * @return true if the particles were weighed in this step
+     */
+    public boolean step() {
+        Pose pose = mBase.getOdometryPose();
+        if(pose == null) {
+            mPrevious = null;
+            return false;
+        }
+        if(mPrevious != null) {
+            double dx = pose.getX() - mPrevious.getX();
+            double dy = pose.getY() - mPrevious.getY();
+            double cos = Math.cos(mPrevious.getTheta());
+            double sin = Math.sin(mPrevious.getTheta());
+            mFilter.move(cos * dx + sin * dy, -sin * dx + cos * dy,
+                    normalizeAngle(pose.getTheta() - mPrevious.getTheta()));
+        }
+        mPrevious = pose;
+        return mFilter.addReading(mSensor.getUltrasonicDistance() / 1000.0) && mFilter.update();
+    }
+
+    /**
+     * @return the filter that is fed
+     */
+    public ParticleFilter getFilter() {
+        return mFilter;
+    }
+
+    /**
+     * @return the angle mapped to the range from -pi to pi
+     */
+    private static double normalizeAngle(double angle) {
+        while(angle > Math.PI) {
+            angle -= 2 * Math.PI;
+        }
+        while(angle < -Math.PI) {
+            angle += 2 * Math.PI;
+        }
+        return angle;
+    }
+
+}
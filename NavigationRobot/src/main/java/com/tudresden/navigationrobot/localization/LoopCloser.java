@@ -0,0 +1,368 @@
+package com.tudresden.navigationrobot.localization;
+
+import java.util.Arrays;
+
+/**
+ * Closes the loops of the trajectory that the robot walks along the walls. Every recorded pose
+ * becomes a pose of a PoseGraph, connected to the one before by the odometry between them. When
+ * the robot walks along a wall that it has walked along before, in the same direction, the new pose
+ * is connected to the old one by a loop closure: the distances to the wall tell how far apart the
+ * two poses are across the wall, only the distance along the wall is unknown. The headings are
+ * already kept along the axes of the building by the ManhattanHeadingCorrector, so the turn
+ * between the two poses is taken as it is. The graph is then optimized, so the drift that the gap
+ * between the two poses reveals is spread over the whole loop.
+ * A loop closure that doesn't fit the rest of the graph after the optimization is dropped again,
+ * e.g. if the robot walked along a parallel wall.
+ */
+public class LoopCloser {
+
+    /**
+     * The shortest distance in meters that the robot must have walked between two poses before they
+     * can close a loop. Closer poses are already connected well by the odometry.
+     */
+    private static final double MIN_LOOP_LENGTH = 8.0;
+
+    /**
+     * The shortest distance in meters that the robot must have walked since the last loop closure
+     * before it closes the next one. The poses right after a loop closure add little to it.
+     */
+    private static final double CLOSURE_SPACING = 2.0;
+
+    /**
+     * The longest distance in meters along the wall between two poses that close a loop.
+     */
+    private static final double ALONG_GATE = 1.0;
+
+    /**
+     * The largest angle in radians between the walls of two poses that close a loop (20°).
+     */
+    private static final double WALL_GATE = Math.toRadians(20);
+
+    /**
+     * The largest distance in meters across the wall between where a pose is and where the
+     * distances to the wall put it, right after the previous loop closure.
+     */
+    private static final double ACROSS_GATE = 0.3;
+
+    /**
+     * The growth of ACROSS_GATE per meter that the robot walked between the two poses, because the
+     * drift grows with the distance.
+     */
+    private static final double ACROSS_GATE_GROWTH = 0.03;
+
+    /**
+     * The largest distance in meters across the wall for a loop closure.
+     */
+    private static final double MAX_ACROSS_GATE = 1.0;
+
+    /**
+     * The standard deviation of the odometry between two poses in meters.
+     */
+    private static final double ODOMETRY_NOISE = 0.02;
+
+    /**
+     * The standard deviation of the odometry relative to the distance between two poses.
+     */
+    private static final double ODOMETRY_DISTANCE_NOISE = 0.05;
+
+    /**
+     * The standard deviation of the turn between two poses in radians.
+     */
+    private static final double TURN_NOISE = 0.01;
+
+    /**
+     * The standard deviation of the turn between two poses in radians per meter and per radian
+     * turned.
+     */
+    private static final double TURN_DRIFT_NOISE = 0.02;
+
+    /**
+     * The standard deviation of a loop closure along the wall in meters. The distance along the wall
+     * isn't measured, so the constraint is weak.
+     */
+    private static final double LOOP_ALONG_NOISE = 1.0;
+
+    /**
+     * The standard deviation of a loop closure across the wall in meters.
+     */
+    private static final double LOOP_ACROSS_NOISE = 0.05;
+
+    /**
+     * The standard deviation of the turn between two poses that close a loop in radians.
+     */
+    private static final double LOOP_TURN_NOISE = 0.05;
+
+    /**
+     * The largest weighted squared error of a loop closure after the optimization, the 99 %
+     * quantile of the chi-squared distribution with three degrees of freedom.
+     */
+    private static final double MAX_CHI_SQUARED = 11.34;
+
+    /**
+     * The largest number of Gauss-Newton steps per optimization.
+     */
+    private static final int MAX_ITERATIONS = 10;
+
+    /**
+     * The graph of the poses.
+     */
+    private final PoseGraph mGraph = new PoseGraph();
+
+    /**
+     * The distance in meters that the robot had walked at every pose.
+     */
+    private double[] mPathLength = new double[64];
+
+    /**
+     * The distance in meters to the wall on the right at every pose or NaN if it wasn't known.
+     */
+    private double[] mWallDistance = new double[64];
+
+    /**
+     * The direction in radians of the wall at every pose, in which it runs with the wall on the right.
+     */
+    private double[] mWallDirection = new double[64];
+
+    /**
+     * The poses before the last optimization, three values per pose, so they can be restored if the
+     * loop closure doesn't fit.
+     */
+    private double[] mBackup = new double[0];
+
+    /**
+     * The path length at the last loop closure. The gate across the wall grows from there.
+     */
+    private double mLastClosureLength = 0;
+
+    /**
+     * The number of loop closures that were kept.
+     */
+    private int mClosureCount = 0;
+
+    /**
+     * The number of loop closures that didn't fit and were dropped.
+     */
+    private int mRejectedCount = 0;
+
+    /**
+     * The longest time in nanoseconds that an optimization took.
+     */
+    private long mMaxOptimizationTime = 0;
+
+    /**
+     * Adds a pose of the trajectory and closes a loop if the robot walks along a wall that it has
+     * walked along before.
+     * @param x the x-coordinate in the map
+     * @param y the y-coordinate
+     * @param heading the heading in radians
+     * @param wallDistance the distance in meters across the wall on the right that the robot follows
+     *                     or NaN if it doesn't follow a wall
+     * @param wallDirection the direction of the wall in radians, in which it runs with the wall on
+     *                      the right
+     * @return true if a loop was closed and the poses were moved
+     */
+    public boolean addPose(double x, double y, double heading, double wallDistance, double wallDirection) {
+        int count = mGraph.getPoseCount();
+        if(count == mPathLength.length) {
+            mPathLength = Arrays.copyOf(mPathLength, 2 * count);
+            mWallDistance = Arrays.copyOf(mWallDistance, 2 * count);
+            mWallDirection = Arrays.copyOf(mWallDirection, 2 * count);
+        }
+        int index = mGraph.addPose(x, y, heading);
+        mWallDistance[index] = wallDistance;
+        mWallDirection[index] = wallDirection;
+        if(index == 0) {
+            mPathLength[index] = 0;
+            return false;
+        }
+        // The odometry from the previous pose, which the last optimization may have moved
+        int previous = index - 1;
+        double cos = Math.cos(mGraph.getTheta(previous));
+        double sin = Math.sin(mGraph.getTheta(previous));
+        double dx = x - mGraph.getX(previous);
+        double dy = y - mGraph.getY(previous);
+        double distance = Math.sqrt(dx * dx + dy * dy);
+        double turn = Math.IEEEremainder(heading - mGraph.getTheta(previous), 2 * Math.PI);
+        double linearNoise = ODOMETRY_NOISE + ODOMETRY_DISTANCE_NOISE * distance;
+        double turnNoise = TURN_NOISE + TURN_DRIFT_NOISE * (distance + Math.abs(turn));
+        mGraph.addEdge(previous, index, cos * dx + sin * dy, -sin * dx + cos * dy, turn,
+                1 / (linearNoise * linearNoise), 1 / (linearNoise * linearNoise), 1 / (turnNoise * turnNoise));
+        mPathLength[index] = mPathLength[previous] + distance;
+        if(Double.isNaN(wallDistance) || mClosureCount > 0 && mPathLength[index] - mLastClosureLength < CLOSURE_SPACING) {
+            return false;
+        }
+        int match = findLoop(index);
+        if(match < 0) {
+            return false;
+        }
+        return closeLoop(match, index);
+    }
+
+    /**
+     * Looks for an earlier pose along the same wall in the same direction. The latest pass along the
+     * wall is preferred, so the loop closures connect poses that are close in time and the Cholesky
+     * factor of the PoseGraph stays sparse.
+     * @param index the index of the new pose
+     * @return the index of the earlier pose of the latest pass that is closest along the wall or -1
+     */
+    private int findLoop(int index) {
+        double gate = Math.min(MAX_ACROSS_GATE,
+                ACROSS_GATE + ACROSS_GATE_GROWTH * (mPathLength[index] - mLastClosureLength));
+        int match = -1;
+        double closest = ALONG_GATE;
+        int i = index - 1;
+        while(i >= 0 && mPathLength[index] - mPathLength[i] < MIN_LOOP_LENGTH) {
+            i--;
+        }
+        for(; i >= 0; i--) {
+            if(match >= 0 && mPathLength[match] - mPathLength[i] > 2 * ALONG_GATE) {
+                // The pass along the wall that matched is over
+                break;
+            }
+            if(Double.isNaN(mWallDistance[i])) {
+                continue;
+            }
+            double turn = Math.IEEEremainder(mWallDirection[index] - mWallDirection[i], 2 * Math.PI);
+            if(Math.abs(turn) > WALL_GATE) {
+                continue;
+            }
+            double along = alongWall(i, index);
+            if(Math.abs(along) > closest) {
+                continue;
+            }
+            // The wall lies to the right of both poses
+            double across = mWallDistance[index] - mWallDistance[i];
+            if(Math.abs(acrossWall(i, index) - across) > gate) {
+                continue;
+            }
+            closest = Math.abs(along);
+            match = i;
+        }
+        return match;
+    }
+
+    /**
+     * Connects two poses by a loop closure and optimizes the graph. Drops the loop closure again if
+     * it doesn't fit.
+     * @param match the index of the earlier pose
+     * @param index the index of the new pose
+     * @return true if the loop closure was kept
+     */
+    private boolean closeLoop(int match, int index) {
+        int count = mGraph.getPoseCount();
+        if(mBackup.length < 3 * count) {
+            mBackup = new double[6 * count];
+        }
+        for(int i = 0; i < count; i++) {
+            mBackup[3 * i] = mGraph.getX(i);
+            mBackup[3 * i + 1] = mGraph.getY(i);
+            mBackup[3 * i + 2] = mGraph.getTheta(i);
+        }
+        // Along the wall the measurement is where the pose already is, only its weight is small. The
+        // measurement is turned from the direction of the wall to the heading of the earlier pose.
+        double along = alongWall(match, index);
+        double across = mWallDistance[index] - mWallDistance[match];
+        double axis = mWallDirection[match] - mGraph.getTheta(match);
+        double cos = Math.cos(axis);
+        double sin = Math.sin(axis);
+        double turn = Math.IEEEremainder(mGraph.getTheta(index) - mGraph.getTheta(match), 2 * Math.PI);
+        int edge = mGraph.addEdge(match, index, cos * along - sin * across, sin * along + cos * across, turn, axis,
+                1 / (LOOP_ALONG_NOISE * LOOP_ALONG_NOISE), 1 / (LOOP_ACROSS_NOISE * LOOP_ACROSS_NOISE),
+                1 / (LOOP_TURN_NOISE * LOOP_TURN_NOISE));
+        long start = System.nanoTime();
+        int iterations = mGraph.optimize(MAX_ITERATIONS);
+        mMaxOptimizationTime = Math.max(mMaxOptimizationTime, System.nanoTime() - start);
+        if(iterations < 0 || mGraph.getChiSquared(edge) > MAX_CHI_SQUARED) {
+            mGraph.removeLastEdge();
+            for(int i = 0; i < count; i++) {
+                mGraph.setPose(i, mBackup[3 * i], mBackup[3 * i + 1], mBackup[3 * i + 2]);
+            }
+            mRejectedCount++;
+            return false;
+        }
+        mLastClosureLength = mPathLength[index];
+        mClosureCount++;
+        return true;
+    }
+
+    /**
+     * @return the distance in meters that a pose lies ahead of another one along the wall of the
+     * other one
+     */
+    private double alongWall(int from, int to) {
+        double direction = mWallDirection[from];
+        return Math.cos(direction) * (mGraph.getX(to) - mGraph.getX(from))
+                + Math.sin(direction) * (mGraph.getY(to) - mGraph.getY(from));
+    }
+
+    /**
+     * @return the distance in meters that a pose lies to the left of another one across the wall of
+     * the other one
+     */
+    private double acrossWall(int from, int to) {
+        double direction = mWallDirection[from];
+        return -Math.sin(direction) * (mGraph.getX(to) - mGraph.getX(from))
+                + Math.cos(direction) * (mGraph.getY(to) - mGraph.getY(from));
+    }
+
+    /**
+     * Removes all poses, e.g. when the recorded positions are cleared.
+     */
+    public void clear() {
+        mGraph.clear();
+        mLastClosureLength = 0;
+    }
+
+    /**
+     * @return the number of poses
+     */
+    public int getPoseCount() {
+        return mGraph.getPoseCount();
+    }
+
+    /**
+     * @param index the index of the pose
+     * @return the x-coordinate of the pose after the last optimization
+     */
+    public double getX(int index) {
+        return mGraph.getX(index);
+    }
+
+    /**
+     * @param index the index of the pose
+     * @return the y-coordinate of the pose after the last optimization
+     */
+    public double getY(int index) {
+        return mGraph.getY(index);
+    }
+
+    /**
+     * @param index the index of the pose
+     * @return the heading of the pose in radians after the last optimization
+     */
+    public double getHeading(int index) {
+        return mGraph.getTheta(index);
+    }
+
+    /**
+     * @return the number of loop closures that were kept
+     */
+    public int getClosureCount() {
+        return mClosureCount;
+    }
+
+    /**
+     * @return the number of loop closures that didn't fit and were dropped
+     */
+    public int getRejectedCount() {
+        return mRejectedCount;
+    }
+
+    /**
+     * @return the longest time in milliseconds that an optimization took
+     */
+    public double getMaxOptimizationTime() {
+        return mMaxOptimizationTime / 1e6;
+    }
+
+}
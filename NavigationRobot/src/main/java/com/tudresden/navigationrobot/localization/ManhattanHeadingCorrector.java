@@ -0,0 +1,246 @@
+package com.tudresden.navigationrobot.localization;
+
+/**
+ * Corrects the drift of the heading with the walls that the robot follows. Most buildings are
+ * rectilinear, so all long straight walls point along one of two perpendicular axes. The points
+ * where the side sensor hits the wall are collected while the robot walks along it and a line is
+ * fitted through them. If the heading has drifted, the whole wall appears rotated by the drift, so
+ * the angle between the line and the nearest axis is the error of the heading.
+ * The axes are taken from the first wall that is long and straight enough. The line is fitted by
+ * total least squares from running sums, so a point costs a few additions and no allocation.
+ */
+public class ManhattanHeadingCorrector {
+
+    /**
+     * The length in meters that the points of a wall must cover before its direction is trusted.
+     */
+    private static final double MIN_WALL_LENGTH = 1.0;
+
+    /**
+     * The least number of points that a line is fitted through.
+     */
+    private static final int MIN_POINTS = 3;
+
+    /**
+     * The largest root mean square distance in meters of the points from the fitted line for which
+     * the wall still counts as straight.
+     */
+    private static final double MAX_RESIDUAL = 0.03;
+
+    /**
+     * The distance in meters from the line beyond which a point belongs to another wall, e.g. a
+     * cupboard in front of the wall. The points before it are dropped.
+     */
+    private static final double OUTLIER_DISTANCE = 0.15;
+
+    /**
+     * The largest angle in radians between a wall and the nearest axis that is taken as drift of the
+     * heading (15°). Walls that are further off don't point along the axes at all.
+     */
+    private static final double MAX_CORRECTION = Math.toRadians(15);
+
+    /**
+     * The direction of the axes in radians between -pi/4 and pi/4 or NaN before the first wall.
+     */
+    private double mAxis = Double.NaN;
+
+    /**
+     * The number of points of the current wall.
+     */
+    private int mCount = 0;
+
+    /**
+     * The first point of the current wall. The sums are taken relative to it, so they stay precise
+     * far away from the starting point.
+     */
+    private double mFirstX = 0;
+
+    /**
+     * The y-coordinate of the first point.
+     */
+    private double mFirstY = 0;
+
+    /**
+     * The sum of the x-coordinates relative to the first point.
+     */
+    private double mSumX = 0;
+
+    /**
+     * The sum of the y-coordinates relative to the first point.
+     */
+    private double mSumY = 0;
+
+    /**
+     * The sum of the squared x-coordinates.
+     */
+    private double mSumXX = 0;
+
+    /**
+     * The sum of the products of the coordinates.
+     */
+    private double mSumXY = 0;
+
+    /**
+     * The sum of the squared y-coordinates.
+     */
+    private double mSumYY = 0;
+
+    /**
+     * The number of corrections that were handed out.
+     */
+    private long mCorrectionCount = 0;
+
+    /**
+     * The sum of all corrections in radians.
+     */
+    private double mTotalCorrection = 0;
+
+    /**
+     * Drops the points of the current wall, e.g. because the robot turned to follow another wall.
+     * The axes are kept.
+     */
+    public void startWall() {
+        mCount = 0;
+        mSumX = 0;
+        mSumY = 0;
+        mSumXX = 0;
+        mSumXY = 0;
+        mSumYY = 0;
+    }
+
+    /**
+     * Adds a point of the wall that the robot follows. Once the points cover enough of a straight
+     * wall, its direction is compared to the axes and the points are dropped, so the next
+     * correction only uses points that were measured with the corrected heading.
+     * @param x the x-coordinate in meters in the map where the side sensor hit the wall
+     * @param y the y-coordinate
+     * @return the angle in radians by which the heading of the map has to be turned to the left, 0
+     * if there is no correction
+     */
+    public double addPoint(double x, double y) {
+        if(mCount >= MIN_POINTS && getLength() >= MIN_WALL_LENGTH / 2
+                && Math.abs(distanceFromLine(x, y)) > OUTLIER_DISTANCE) {
+            // Another wall, start over from this point
+            startWall();
+        }
+        if(mCount == 0) {
+            mFirstX = x;
+            mFirstY = y;
+        }
+        double dx = x - mFirstX;
+        double dy = y - mFirstY;
+        mCount++;
+        mSumX += dx;
+        mSumY += dy;
+        mSumXX += dx * dx;
+        mSumXY += dx * dy;
+        mSumYY += dy * dy;
+        if(mCount < MIN_POINTS || getLength() < MIN_WALL_LENGTH || getResidual() > MAX_RESIDUAL) {
+            return 0;
+        }
+        double direction = getDirection();
+        startWall();
+        if(Double.isNaN(mAxis)) {
+            // The first wall defines the axes
+            mAxis = Math.IEEEremainder(direction, Math.PI / 2);
+            return 0;
+        }
+        double error = Math.IEEEremainder(direction - mAxis, Math.PI / 2);
+        if(Math.abs(error) > MAX_CORRECTION) {
+            return 0;
+        }
+        mCorrectionCount++;
+        mTotalCorrection -= error;
+        return -error;
+    }
+
+    /**
+     * @return the variance of the points along the x-axis
+     */
+    private double varianceX() {
+        double meanX = mSumX / mCount;
+        return mSumXX / mCount - meanX * meanX;
+    }
+
+    /**
+     * @return the variance of the points along the y-axis
+     */
+    private double varianceY() {
+        double meanY = mSumY / mCount;
+        return mSumYY / mCount - meanY * meanY;
+    }
+
+    /**
+     * @return the covariance of the coordinates of the points
+     */
+    private double covariance() {
+        return mSumXY / mCount - (mSumX / mCount) * (mSumY / mCount);
+    }
+
+    /**
+     * @return the direction of the line through the points in radians, the principal axis of their
+     * covariance
+     */
+    private double getDirection() {
+        return 0.5 * Math.atan2(2 * covariance(), varianceX() - varianceY());
+    }
+
+    /**
+     * @return half the difference between the variance along the line and the variance across it,
+     * the distance of the eigenvalues of the covariance from their mean
+     */
+    private double halfSpread() {
+        double difference = (varianceX() - varianceY()) / 2;
+        return Math.sqrt(difference * difference + covariance() * covariance());
+    }
+
+    /**
+     * @return the length in meters of the wall that the points cover, assuming that they are spread
+     * evenly along it
+     */
+    private double getLength() {
+        double along = (varianceX() + varianceY()) / 2 + halfSpread();
+        return Math.sqrt(12 * Math.max(0, along));
+    }
+
+    /**
+     * @return the root mean square distance in meters of the points from the line
+     */
+    private double getResidual() {
+        double across = (varianceX() + varianceY()) / 2 - halfSpread();
+        return Math.sqrt(Math.max(0, across));
+    }
+
+    /**
+     * @return the signed distance in meters of a point from the line through the points
+     */
+    private double distanceFromLine(double x, double y) {
+        double direction = getDirection();
+        double dx = x - mFirstX - mSumX / mCount;
+        double dy = y - mFirstY - mSumY / mCount;
+        return -Math.sin(direction) * dx + Math.cos(direction) * dy;
+    }
+
+    /**
+     * @return the direction of the axes in radians between -pi/4 and pi/4 or NaN before the first
+     * wall
+     */
+    public double getAxis() {
+        return mAxis;
+    }
+
+    /**
+     * @return the number of corrections that were handed out
+     */
+    public long getCorrectionCount() {
+        return mCorrectionCount;
+    }
+
+    /**
+     * @return the sum of all corrections in radians
+     */
+    public double getTotalCorrection() {
+        return mTotalCorrection;
+    }
+
+}
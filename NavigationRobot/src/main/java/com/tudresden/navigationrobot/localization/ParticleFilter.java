@@ -0,0 +1,771 @@
+package com.tudresden.navigationrobot.localization;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Monte Carlo localization of the robot in a stored map. Every particle is a guess of the pose of
+ * the robot in the map. The particles are moved with the odometry and some noise, and once enough
+ * readings of the ultrasonic sensor were collected, every particle is weighed by how well the
+ * readings fit the LikelihoodField from its pose. Weighing all particles against all readings is
+ * the expensive part, so it is split into ranges of particles that are weighed in parallel on a
+ * ForkJoinPool. The particles are then drawn again in proportion to their weights.
+ * The number of particles that are drawn adapts to the spread of the particles (KLD sampling):
+ * drawing stops as soon as the particles are enough to approximate the distribution within a bound
+ * on the Kullback-Leibler divergence, which depends on the number of bins of the pose space that the
+ * particles fall into. Thousands of particles spread over the whole map shrink to a few hundred
+ * once they agree on the pose.
+ * When the readings fit the particles worse than they used to, some particles are drawn at random
+ * free places of the map instead, so the filter recovers if it has settled on a wrong pose or the
+ * robot was carried elsewhere.
+ * All arrays are allocated up front, so moving, weighing and drawing the particles doesn't allocate.
+ * The filter is not thread-safe, it has to be used from one thread.
+ */
+public class ParticleFilter {
+
+    /**
+     * The least number of particles.
+     */
+    public static final int MIN_PARTICLES = 200;
+
+    /**
+     * The greatest number of particles.
+     */
+    public static final int MAX_PARTICLES = 5000;
+
+    /**
+     * The number of readings that the particles are weighed with at once.
+     */
+    public static final int UPDATE_READINGS = 10;
+
+    /**
+     * The shortest distance in meters that the ultrasonic sensor measures.
+     */
+    private static final double MIN_RANGE = 0.25;
+
+    /**
+     * The longest distance in meters of a reading that hit an obstacle. The sensor returns 1.5
+     * meters if it doesn't hit anything.
+     */
+    private static final double MAX_RANGE = 1.45;
+
+    /**
+     * The angles from the axis of the ultrasonic sensor at which a reading may have hit the closest
+     * obstacle. The cone of the sensor is 30 degrees wide, and close to a wall the closest obstacle
+     * is usually at the edge of the cone rather than on its axis.
+     */
+    private static final double[] CONE_ANGLES = {Math.toRadians(-10), 0, Math.toRadians(10)};
+
+    /**
+     * The variance in square meters per meter driven of the distance that a particle moves forward.
+     */
+    private static final double FORWARD_VARIANCE = 0.004;
+
+    /**
+     * The variance in square meters per meter driven of the distance that a particle moves sideways.
+     */
+    private static final double SIDE_VARIANCE = 0.002;
+
+    /**
+     * The variance in square radians per radian turned of the angle that a particle turns.
+     */
+    private static final double TURN_VARIANCE = 0.004;
+
+    /**
+     * The variance in square radians per meter driven of the angle that a particle turns.
+     */
+    private static final double DRIFT_VARIANCE = 0.004;
+
+    /**
+     * The exponent that the product of the likelihoods of the readings of an update is raised to.
+     * The readings are taken a tenth of a second apart and mostly hit the same obstacle, so they
+     * are far from independent, and their plain product would make the particles collapse onto the
+     * few that fit best.
+     */
+    private static final double LIKELIHOOD_EXPONENT = 0.3;
+
+    /**
+     * The particles are only drawn again once the effective number of particles has fallen below
+     * this share of the number of particles, which keeps the variety of the particles while the
+     * readings don't tell them apart.
+     */
+    private static final double RESAMPLE_SHARE = 0.5;
+
+    /**
+     * The edge length in meters of a bin of the pose space for KLD sampling.
+     */
+    private static final double BIN_SIZE = 0.25;
+
+    /**
+     * The angle of a bin of the pose space for KLD sampling.
+     */
+    private static final double BIN_ANGLE = Math.toRadians(15);
+
+    /**
+     * The bound on the Kullback-Leibler divergence between the particles and the distribution that
+     * they approximate.
+     */
+    private static final double KLD_ERROR = 0.05;
+
+    /**
+     * The upper 1% quantile of the standard normal distribution: the number of particles stays
+     * within the bound with a probability of 99%.
+     */
+    private static final double KLD_QUANTILE = 2.326;
+
+    /**
+     * The weight of a new average likelihood in the slowly moving average.
+     */
+    private static final double SLOW_AVERAGE_RATE = 0.01;
+
+    /**
+     * The weight of a new average likelihood in the quickly moving average.
+     */
+    private static final double FAST_AVERAGE_RATE = 0.1;
+
+    /**
+     * Particles are only drawn at random free places once the quickly moving average of the
+     * likelihood has fallen below this share of the slowly moving one. The likelihood varies a lot
+     * from update to update, e.g. when the robot turns from a wall to open space.
+     */
+    private static final double RECOVERY_THRESHOLD = 0.5;
+
+    /**
+     * The greatest share of particles that are drawn at random free places.
+     */
+    private static final double MAX_RANDOM_SHARE = 0.05;
+
+    /**
+     * The greatest distance in meters of the particles from their mean at which the filter counts
+     * as converged.
+     */
+    private static final double MAX_POSITION_SPREAD = 0.3;
+
+    /**
+     * The greatest angular spread of the particles at which the filter counts as converged.
+     */
+    private static final double MAX_HEADING_SPREAD = Math.toRadians(15);
+
+    /**
+     * The least number of particles that a task weighs. Smaller ranges aren't worth the overhead of
+     * forking.
+     */
+    private static final int TASK_SIZE = 256;
+
+    /**
+     * The capacity of the table of the occupied bins, a power of two that is more than twice the
+     * greatest number of particles.
+     */
+    private static final int BIN_CAPACITY = Integer.highestOneBit(4 * MAX_PARTICLES);
+
+    /**
+     * Weighs a range of particles, splitting it in halves that are weighed in parallel as long as
+     * it is larger than TASK_SIZE.
+     */
+    private class WeighTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * The first particle of the range.
+         */
+        private final int mFrom;
+
+        /**
+         * The end of the range (exclusive).
+         */
+        private final int mTo;
+
+        WeighTask(int from, int to) {
+            this.mFrom = from;
+            this.mTo = to;
+        }
+
+        @Override
+        protected void compute() {
+            if(mTo - mFrom <= TASK_SIZE) {
+                weigh(mFrom, mTo);
+                return;
+            }
+            int middle = (mFrom + mTo) >>> 1;
+            invokeAll(new WeighTask(mFrom, middle), new WeighTask(middle, mTo));
+        }
+    }
+
+    /**
+     * The map that the particles are weighed against.
+     */
+    private final LikelihoodField mField;
+
+    /**
+     * The source of the noise of the motion and of the drawing of the particles.
+     */
+    private final Random mRandom;
+
+    /**
+     * The threads that weigh the particles.
+     */
+    private final ForkJoinPool mPool;
+
+    /**
+     * The x-coordinates of the particles.
+     */
+    private double[] mX = new double[MAX_PARTICLES];
+
+    /**
+     * The y-coordinates of the particles.
+     */
+    private double[] mY = new double[MAX_PARTICLES];
+
+    /**
+     * The headings of the particles in radians.
+     */
+    private double[] mTheta = new double[MAX_PARTICLES];
+
+    /**
+     * The weights of the particles, which add up to 1.
+     */
+    private final double[] mWeight = new double[MAX_PARTICLES];
+
+    /**
+     * The likelihoods of the readings of the current update from the pose of every particle.
+     */
+    private final double[] mLikelihood = new double[MAX_PARTICLES];
+
+    /**
+     * The cumulative weights of the particles while they are drawn again.
+     */
+    private final double[] mCumulative = new double[MAX_PARTICLES];
+
+    /**
+     * The x-coordinates of the particles that are drawn, swapped with mX afterwards.
+     */
+    private double[] mNextX = new double[MAX_PARTICLES];
+
+    /**
+     * The y-coordinates of the particles that are drawn.
+     */
+    private double[] mNextY = new double[MAX_PARTICLES];
+
+    /**
+     * The headings of the particles that are drawn.
+     */
+    private double[] mNextTheta = new double[MAX_PARTICLES];
+
+    /**
+     * The number of particles.
+     */
+    private int mCount = 0;
+
+    /**
+     * The x-coordinates in the coordinate system of the robot of the points where the collected
+     * readings may have hit an obstacle, one per angle of CONE_ANGLES and reading. They are moved
+     * with the odometry, so they are always relative to the current pose.
+     */
+    private final double[] mReadingX = new double[UPDATE_READINGS * CONE_ANGLES.length];
+
+    /**
+     * The y-coordinates in the coordinate system of the robot of the points where the collected
+     * readings may have hit an obstacle.
+     */
+    private final double[] mReadingY = new double[UPDATE_READINGS * CONE_ANGLES.length];
+
+    /**
+     * The number of collected readings.
+     */
+    private int mReadingCount = 0;
+
+    /**
+     * The packed indices of the occupied bins, see #occupyBin(double, double, double).
+     */
+    private final long[] mBinKeys = new long[BIN_CAPACITY];
+
+    /**
+     * The number of the drawing in which every entry of mBinKeys was set. Entries of earlier
+     * drawings are empty, so the table doesn't need to be cleared.
+     */
+    private final int[] mBinStamps = new int[BIN_CAPACITY];
+
+    /**
+     * The number of the current drawing.
+     */
+    private int mStamp = 0;
+
+    /**
+     * The slowly moving average of the average likelihood of the particles.
+     */
+    private double mSlowAverage = 0;
+
+    /**
+     * The quickly moving average of the average likelihood of the particles.
+     */
+    private double mFastAverage = 0;
+
+    /**
+     * The x-coordinate of the mean of the particles.
+     */
+    private double mMeanX;
+
+    /**
+     * The y-coordinate of the mean of the particles.
+     */
+    private double mMeanY;
+
+    /**
+     * The mean heading of the particles.
+     */
+    private double mMeanTheta;
+
+    /**
+     * The root mean square distance of the particles from their mean in meters.
+     */
+    private double mPositionSpread = Double.POSITIVE_INFINITY;
+
+    /**
+     * The angular standard deviation of the headings of the particles in radians.
+     */
+    private double mHeadingSpread = Double.POSITIVE_INFINITY;
+
+    /**
+     * The number of times that the particles were weighed.
+     */
+    private int mUpdateCount = 0;
+
+    /**
+     * The longest time in nanoseconds that weighing and drawing the particles took.
+     */
+    private long mMaxUpdateTime = 0;
+
+    /**
+     * Creates a filter without particles, see #initialize(double, double, double, double, double)
+     * and #initializeGlobally().
+     * @param field the likelihood field of the map
+     * @param seed the seed of the noise
+     */
+    public ParticleFilter(LikelihoodField field, long seed) {
+        this(field, seed, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a filter without particles.
+     * @param field the likelihood field of the map
+     * @param seed the seed of the noise
+     * @param parallelism the number of threads that weigh the particles
+     */
+    public ParticleFilter(LikelihoodField field, long seed, int parallelism) {
+        this.mField = field;
+        this.mRandom = new Random(seed);
+        this.mPool = new ForkJoinPool(parallelism);
+    }
+
+    /**
+     * Spreads the particles around a pose that the robot is believed to be at, e.g. the last pose of
+     * the exploration.
+     * @param x the x-coordinate in the map
+     * @param y the y-coordinate
+     * @param heading the heading in radians
+     * @param positionSigma the standard deviation of the position in meters
+     * @param headingSigma the standard deviation of the heading in radians or NaN if the heading is
+     *                     not known at all
+     */
+    public void initialize(double x, double y, double heading, double positionSigma, double headingSigma) {
+        mCount = MAX_PARTICLES;
+        for(int i = 0; i < mCount; i++) {
+            mX[i] = x + positionSigma * mRandom.nextGaussian();
+            mY[i] = y + positionSigma * mRandom.nextGaussian();
+            mTheta[i] = Double.isNaN(headingSigma) ? randomHeading()
+                    : normalizeAngle(heading + headingSigma * mRandom.nextGaussian());
+        }
+        reset();
+    }
+
+    /**
+     * Spreads the particles evenly over the free places of the map, for when nothing is known about
+     * the pose of the robot.
+     */
+    public void initializeGlobally() {
+        mCount = mField.getFreeCellCount() > 0 ? MAX_PARTICLES : 0;
+        for(int i = 0; i < mCount; i++) {
+            drawRandomPose(mX, mY, mTheta, i);
+        }
+        reset();
+    }
+
+    /**
+     * Forgets the readings and the averages of the likelihood after the particles were spread anew.
+     */
+    private void reset() {
+        for(int i = 0; i < mCount; i++) {
+            mWeight[i] = 1.0 / mCount;
+        }
+        mReadingCount = 0;
+        mSlowAverage = 0;
+        mFastAverage = 0;
+        computeMean();
+    }
+
+    /**
+     * Moves all particles by a movement of the odometry plus noise that grows with the movement.
+     * The collected readings are moved along, so they stay relative to the robot.
+     * @param forward the distance in meters that the robot moved forward, relative to its previous
+     *                pose
+     * @param left the distance in meters that the robot moved to the left
+     * @param turn the angle in radians that the robot turned counterclockwise
+     */
+    public void move(double forward, double left, double turn) {
+        if(forward == 0 && left == 0 && turn == 0) {
+            return;
+        }
+        double distance = Math.sqrt(forward * forward + left * left);
+        double forwardSigma = Math.sqrt(FORWARD_VARIANCE * distance);
+        double sideSigma = Math.sqrt(SIDE_VARIANCE * distance);
+        double turnSigma = Math.sqrt(TURN_VARIANCE * Math.abs(turn) + DRIFT_VARIANCE * distance);
+        for(int i = 0; i < mCount; i++) {
+            double f = forward + forwardSigma * mRandom.nextGaussian();
+            double l = left + sideSigma * mRandom.nextGaussian();
+            double cos = Math.cos(mTheta[i]);
+            double sin = Math.sin(mTheta[i]);
+            mX[i] += cos * f - sin * l;
+            mY[i] += sin * f + cos * l;
+            mTheta[i] = normalizeAngle(mTheta[i] + turn + turnSigma * mRandom.nextGaussian());
+        }
+        double cos = Math.cos(turn);
+        double sin = Math.sin(turn);
+        for(int k = 0; k < mReadingCount * CONE_ANGLES.length; k++) {
+            double x = mReadingX[k] - forward;
+            double y = mReadingY[k] - left;
+            mReadingX[k] = cos * x + sin * y;
+            mReadingY[k] = -sin * x + cos * y;
+        }
+        computeMean();
+    }
+
+    /**
+     * Collects a reading of the ultrasonic sensor, which looks forward from the center of the robot.
+     * Readings that didn't hit anything are dropped.
+     * @param distance the distance in meters
+     * @return true if enough readings were collected for #update()
+     */
+    public boolean addReading(double distance) {
+        if(distance < MIN_RANGE || distance > MAX_RANGE) {
+            return false;
+        }
+        if(mReadingCount < UPDATE_READINGS) {
+            for(int r = 0; r < CONE_ANGLES.length; r++) {
+                mReadingX[mReadingCount * CONE_ANGLES.length + r] = distance * Math.cos(CONE_ANGLES[r]);
+                mReadingY[mReadingCount * CONE_ANGLES.length + r] = distance * Math.sin(CONE_ANGLES[r]);
+            }
+            mReadingCount++;
+        }
+        return mReadingCount == UPDATE_READINGS;
+    }
+
+    /**
+     * Weighs the particles with the collected readings and draws them again if the weights have
+     * become too uneven or the readings fit worse than on average.
+     * @return true if the particles were weighed, false if there were no readings or particles
+     */
+    public boolean update() {
+        if(mReadingCount == 0 || mCount == 0) {
+            return false;
+        }
+        long start = System.nanoTime();
+        mPool.invoke(new WeighTask(0, mCount));
+        mReadingCount = 0;
+        // The weights add up to 1, so this is the average likelihood of the readings
+        double average = 0;
+        for(int i = 0; i < mCount; i++) {
+            mWeight[i] *= mLikelihood[i];
+            average += mWeight[i];
+        }
+        double squares = 0;
+        for(int i = 0; i < mCount; i++) {
+            mWeight[i] /= average;
+            squares += mWeight[i] * mWeight[i];
+        }
+        if(mSlowAverage == 0) {
+            mSlowAverage = average;
+            mFastAverage = average;
+        } else {
+            mSlowAverage += SLOW_AVERAGE_RATE * (average - mSlowAverage);
+            mFastAverage += FAST_AVERAGE_RATE * (average - mFastAverage);
+        }
+        double randomShare = Math.min(MAX_RANDOM_SHARE,
+                Math.max(0, 1 - mFastAverage / (RECOVERY_THRESHOLD * mSlowAverage)));
+        // The free cells are only collected when particles are drawn at random for the first time
+        if(randomShare > 0 && mField.getFreeCellCount() == 0) {
+            randomShare = 0;
+        }
+        if(randomShare > 0 || 1 / squares < RESAMPLE_SHARE * mCount) {
+            resample(randomShare);
+        }
+        computeMean();
+        mUpdateCount++;
+        mMaxUpdateTime = Math.max(mMaxUpdateTime, System.nanoTime() - start);
+        return true;
+    }
+
+    /**
+     * Computes the likelihood of all collected readings for a range of particles.
+     * @param from the first particle
+     * @param to the end of the range (exclusive)
+     */
+    private void weigh(int from, int to) {
+        double[] xs = mX;
+        double[] ys = mY;
+        double[] thetas = mTheta;
+        for(int i = from; i < to; i++) {
+            double cos = Math.cos(thetas[i]);
+            double sin = Math.sin(thetas[i]);
+            double likelihood = 1;
+            int k = 0;
+            for(int reading = 0; reading < mReadingCount; reading++) {
+                // The reading is explained by the most likely point of its cone
+                double best = 0;
+                for(int r = 0; r < CONE_ANGLES.length; r++, k++) {
+                    best = Math.max(best, mField.getLikelihood(xs[i] + cos * mReadingX[k] - sin * mReadingY[k],
+                            ys[i] + sin * mReadingX[k] + cos * mReadingY[k]));
+                }
+                likelihood *= best;
+            }
+            mLikelihood[i] = Math.pow(likelihood, LIKELIHOOD_EXPONENT);
+        }
+    }
+
+    /**
+     * Draws the particles again in proportion to their weights until the number of particles
+     * satisfies the KLD bound for the number of bins that they occupy. While the readings fit worse
+     * than on average, a share of the particles is drawn at random free places instead.
+     * @param randomShare the share of the particles that are drawn at random free places
+     */
+    private void resample(double randomShare) {
+        double total = 0;
+        for(int i = 0; i < mCount; i++) {
+            total += mWeight[i];
+            mCumulative[i] = total;
+        }
+        mStamp++;
+        int bins = 0;
+        int target = MIN_PARTICLES;
+        int count = 0;
+        while(count < target && count < MAX_PARTICLES) {
+            if(randomShare > 0 && mRandom.nextDouble() < randomShare) {
+                drawRandomPose(mNextX, mNextY, mNextTheta, count);
+            } else {
+                int i = search(mRandom.nextDouble() * total);
+                mNextX[count] = mX[i];
+                mNextY[count] = mY[i];
+                mNextTheta[count] = mTheta[i];
+            }
+            if(occupyBin(mNextX[count], mNextY[count], mNextTheta[count])) {
+                bins++;
+                target = Math.max(MIN_PARTICLES, requiredParticles(bins));
+            }
+            count++;
+        }
+        double[] swap = mX;
+        mX = mNextX;
+        mNextX = swap;
+        swap = mY;
+        mY = mNextY;
+        mNextY = swap;
+        swap = mTheta;
+        mTheta = mNextTheta;
+        mNextTheta = swap;
+        mCount = count;
+        for(int i = 0; i < mCount; i++) {
+            mWeight[i] = 1.0 / mCount;
+        }
+    }
+
+    /**
+     * @param value a value between 0 and the sum of all weights
+     * @return the first particle whose cumulative weight is greater than the value
+     */
+    private int search(double value) {
+        int low = 0;
+        int high = mCount - 1;
+        while(low < high) {
+            int middle = (low + high) >>> 1;
+            if(mCumulative[middle] > value) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Marks the bin of the pose space that a pose falls into as occupied in the current drawing.
+     * @return true if the bin wasn't occupied yet
+     */
+    private boolean occupyBin(double x, double y, double theta) {
+        long binX = (long) Math.floor(x / BIN_SIZE) & 0xFFFFFL;
+        long binY = (long) Math.floor(y / BIN_SIZE) & 0xFFFFFL;
+        long binTheta = (long) Math.floor((theta + Math.PI) / BIN_ANGLE);
+        long key = binX << 40 | binY << 20 | binTheta;
+        int slot = (int) (key * 0x9E3779B97F4A7C15L >>> 40) & (BIN_CAPACITY - 1);
+        while(mBinStamps[slot] == mStamp) {
+            if(mBinKeys[slot] == key) {
+                return false;
+            }
+            slot = (slot + 1) & (BIN_CAPACITY - 1);
+        }
+        mBinStamps[slot] = mStamp;
+        mBinKeys[slot] = key;
+        return true;
+    }
+
+    /**
+     * Computes the number of particles that keeps the Kullback-Leibler divergence between the
+     * particles and the true distribution below KLD_ERROR, with the Wilson-Hilferty approximation of
+     * the chi-squared distribution.
+     * @param bins the number of occupied bins
+     * @return the number of particles
+     */
+    private static int requiredParticles(int bins) {
+        if(bins < 2) {
+            return 1;
+        }
+        double a = 2.0 / (9 * (bins - 1));
+        double b = 1 - a + Math.sqrt(a) * KLD_QUANTILE;
+        return (int) Math.ceil((bins - 1) / (2 * KLD_ERROR) * b * b * b);
+    }
+
+    /**
+     * Puts a particle at a random place within a random free cell with a random heading.
+     */
+    private void drawRandomPose(double[] xs, double[] ys, double[] thetas, int i) {
+        int cell = mRandom.nextInt(mField.getFreeCellCount());
+        xs[i] = mField.getFreeCellX(cell) + mRandom.nextDouble() * mField.getResolution();
+        ys[i] = mField.getFreeCellY(cell) + mRandom.nextDouble() * mField.getResolution();
+        thetas[i] = randomHeading();
+    }
+
+    /**
+     * @return a heading between -pi and pi
+     */
+    private double randomHeading() {
+        return (2 * mRandom.nextDouble() - 1) * Math.PI;
+    }
+
+    /**
+     * Computes the weighted mean pose of the particles and how far they are spread around it.
+     */
+    private void computeMean() {
+        if(mCount == 0) {
+            mPositionSpread = Double.POSITIVE_INFINITY;
+            mHeadingSpread = Double.POSITIVE_INFINITY;
+            return;
+        }
+        double sumX = 0;
+        double sumY = 0;
+        double sumCos = 0;
+        double sumSin = 0;
+        for(int i = 0; i < mCount; i++) {
+            sumX += mWeight[i] * mX[i];
+            sumY += mWeight[i] * mY[i];
+            sumCos += mWeight[i] * Math.cos(mTheta[i]);
+            sumSin += mWeight[i] * Math.sin(mTheta[i]);
+        }
+        mMeanX = sumX;
+        mMeanY = sumY;
+        mMeanTheta = Math.atan2(sumSin, sumCos);
+        double variance = 0;
+        for(int i = 0; i < mCount; i++) {
+            double dx = mX[i] - mMeanX;
+            double dy = mY[i] - mMeanY;
+            variance += mWeight[i] * (dx * dx + dy * dy);
+        }
+        mPositionSpread = Math.sqrt(variance);
+        // The length of the mean direction shrinks from 1 as the headings spread
+        double length = Math.min(1, Math.sqrt(sumCos * sumCos + sumSin * sumSin));
+        mHeadingSpread = length > 0 ? Math.sqrt(-2 * Math.log(length)) : Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * @return true if the particles agree on the pose of the robot
+     */
+    public boolean isConverged() {
+        return mPositionSpread <= MAX_POSITION_SPREAD && mHeadingSpread <= MAX_HEADING_SPREAD;
+    }
+
+    /**
+     * @return the x-coordinate of the mean of the particles
+     */
+    public double getX() {
+        return mMeanX;
+    }
+
+    /**
+     * @return the y-coordinate of the mean of the particles
+     */
+    public double getY() {
+        return mMeanY;
+    }
+
+    /**
+     * @return the mean heading of the particles in radians
+     */
+    public double getHeading() {
+        return mMeanTheta;
+    }
+
+    /**
+     * @return the root mean square distance of the particles from their mean in meters
+     */
+    public double getPositionSpread() {
+        return mPositionSpread;
+    }
+
+    /**
+     * @return the angular standard deviation of the headings of the particles in radians
+     */
+    public double getHeadingSpread() {
+        return mHeadingSpread;
+    }
+
+    /**
+     * @return the number of particles
+     */
+    public int getParticleCount() {
+        return mCount;
+    }
+
+    /**
+     * @return the number of times that the particles were weighed
+     */
+    public int getUpdateCount() {
+        return mUpdateCount;
+    }
+
+    /**
+     * @return the longest time in milliseconds that weighing and drawing the particles took
+     */
+    public double getMaxUpdateTime() {
+        return mMaxUpdateTime / 1e6;
+    }
+
+    /**
+     * Stops the threads that weigh the particles. The filter can't be updated afterwards.
+     */
+    public void shutdown() {
+        mPool.shutdown();
+    }
+
+    /**
+     * @return the angle mapped to the range from -pi to pi
+     */
+    private static double normalizeAngle(double angle) {
+        while(angle > Math.PI) {
+            angle -= 2 * Math.PI;
+        }
+        while(angle < -Math.PI) {
+            angle += 2 * Math.PI;
+        }
+        return angle;
+    }
+
+}
@@ -0,0 +1,335 @@
+package com.tudresden.navigationrobot.localization;
+
+/**
+ * An extended Kalman filter that fuses the wheel odometry with the yaw of the IMU of the base. The
+ * odometry measures the distance driven well, but its heading drifts whenever a wheel slips or the
+ * wheels aren't quite the same size, which bends long corridors in the map. The gyroscope of the
+ * IMU measures turns well, but has a bias that slowly changes. The filter estimates the pose, the
+ * yaw rate and the bias of the gyroscope:
+ * <p>
+ * state = (x, y, heading, yaw rate, gyroscope bias)
+ * <p>
+ * The yaw rate is the average rate over the last step. Every step first predicts it, corrects it
+ * with the rate that the odometry has turned and with the rate that the gyroscope has measured, and
+ * only then moves the pose by the distance that the odometry has driven along the arc of the
+ * corrected rate, so the heading doesn't lag behind the turns. While the robot stands, the odometry
+ * pins down the bias of the gyroscope; while it moves, the gyroscope decides the heading. Without a
+ * gyroscope the filter follows the odometry.
+ * The pose is in the coordinate system of the odometry and the heading is continuous. All matrices
+ * are row-major arrays of fixed size that are allocated once, so a step doesn't allocate.
+ */
+public class PoseFilter {
+
+    /**
+     * The number of variables of the state.
+     */
+    private static final int SIZE = 5;
+
+    /**
+     * The index of the x-coordinate in the state.
+     */
+    private static final int X = 0;
+
+    /**
+     * The index of the y-coordinate.
+     */
+    private static final int Y = 1;
+
+    /**
+     * The index of the heading.
+     */
+    private static final int HEADING = 2;
+
+    /**
+     * The index of the yaw rate.
+     */
+    private static final int RATE = 3;
+
+    /**
+     * The index of the bias of the gyroscope.
+     */
+    private static final int BIAS = 4;
+
+    /**
+     * The standard deviation of the distance driven relative to the distance.
+     */
+    private static final double LINEAR_NOISE = 0.02;
+
+    /**
+     * The standard deviation of the yaw rate of the odometry in radians per second when the robot
+     * stands.
+     */
+    private static final double ODOMETRY_RATE_NOISE = 0.01;
+
+    /**
+     * The standard deviation of the yaw rate of the odometry relative to the rate, for the slip of
+     * the wheels in turns. The errors of the odometry are systematic rather than random, so they are
+     * assumed large enough that the gyroscope decides the heading while the robot moves.
+     */
+    private static final double ODOMETRY_TURN_NOISE = 0.1;
+
+    /**
+     * The standard deviation of the yaw rate of the odometry in radians per meter driven, for the
+     * drift of the heading while the robot drives straight.
+     */
+    private static final double ODOMETRY_DRIFT_NOISE = 0.2;
+
+    /**
+     * The noise density of the gyroscope in radians per second per square root of a hertz. The
+     * standard deviation of a single rate grows with the sample rate.
+     */
+    private static final double GYRO_NOISE_DENSITY = 0.0005;
+
+    /**
+     * The standard deviation of the change of the yaw rate in radians per second squared, how
+     * quickly the robot can start or stop turning.
+     */
+    private static final double ANGULAR_ACCELERATION_NOISE = 3.0;
+
+    /**
+     * The standard deviation of the change of the bias of the gyroscope in radians per second per
+     * square root of a second.
+     */
+    private static final double BIAS_DRIFT_NOISE = 1e-4;
+
+    /**
+     * The standard deviation of the bias of the gyroscope before it has been estimated in radians
+     * per second.
+     */
+    private static final double INITIAL_BIAS_NOISE = 0.01;
+
+    /**
+     * The state.
+     */
+    private final double[] mState = new double[SIZE];
+
+    /**
+     * The covariance of the state.
+     */
+    private final double[] mCovariance = new double[SIZE * SIZE];
+
+    /**
+     * The Jacobian of the prediction.
+     */
+    private final double[] mJacobian = new double[SIZE * SIZE];
+
+    /**
+     * The product of the Jacobian and the covariance.
+     */
+    private final double[] mProduct = new double[SIZE * SIZE];
+
+    /**
+     * The gain of a correction.
+     */
+    private final double[] mGain = new double[SIZE];
+
+    /**
+     * The row of the covariance that a correction subtracts, scaled by the gain.
+     */
+    private final double[] mRow = new double[SIZE];
+
+    /**
+     * True once the filter has been started at a pose.
+     */
+    private boolean mInitialized = false;
+
+    /**
+     * The number of corrections with the gyroscope.
+     */
+    private long mGyroUpdateCount = 0;
+
+    /**
+     * Starts the filter at a pose. The yaw rate is 0 and the bias of the gyroscope unknown.
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     * @param heading the heading in radians
+     */
+    public void reset(double x, double y, double heading) {
+        mState[X] = x;
+        mState[Y] = y;
+        mState[HEADING] = heading;
+        mState[RATE] = 0;
+        mState[BIAS] = 0;
+        for(int i = 0; i < SIZE * SIZE; i++) {
+            mCovariance[i] = 0;
+        }
+        mCovariance[BIAS * SIZE + BIAS] = INITIAL_BIAS_NOISE * INITIAL_BIAS_NOISE;
+        mInitialized = true;
+    }
+
+    /**
+     * @return true once the filter has been started at a pose
+     */
+    public boolean isInitialized() {
+        return mInitialized;
+    }
+
+    /**
+     * Advances the filter by one step of the sensors.
+     * @param distance the distance in meters that the odometry has driven forward since the last step
+     * @param odometryTurn the angle in radians that the odometry has turned since the last step
+     * @param gyroTurn the angle in radians that the gyroscope has turned since the last step or NaN
+     *                 if there is no reading
+     * @param dt the time since the last step in seconds
+     */
+    public void update(double distance, double odometryTurn, double gyroTurn, double dt) {
+        if(dt <= 0) {
+            return;
+        }
+        // The rate may have changed since the last step and the bias may have drifted
+        mCovariance[RATE * SIZE + RATE] += square(ANGULAR_ACCELERATION_NOISE * dt);
+        mCovariance[BIAS * SIZE + BIAS] += BIAS_DRIFT_NOISE * BIAS_DRIFT_NOISE * dt;
+        double odometryRate = odometryTurn / dt;
+        double odometryNoise = ODOMETRY_RATE_NOISE * ODOMETRY_RATE_NOISE;
+        if(!Double.isNaN(gyroTurn)) {
+            double speed = Math.abs(distance) / dt;
+            odometryNoise += square(ODOMETRY_TURN_NOISE * odometryRate) + square(ODOMETRY_DRIFT_NOISE * speed);
+        }
+        correct(odometryRate, false, odometryNoise);
+        if(!Double.isNaN(gyroTurn)) {
+            correct(gyroTurn / dt, true, GYRO_NOISE_DENSITY * GYRO_NOISE_DENSITY / dt);
+            mGyroUpdateCount++;
+        }
+        predict(distance, dt);
+    }
+
+    /**
+     * Moves the pose by a step: the robot drives the distance along the arc that the estimated yaw
+     * rate describes.
+     * P = F P F^T + Q
+     */
+    private void predict(double distance, double dt) {
+        double turn = mState[RATE] * dt;
+        double middle = mState[HEADING] + turn / 2;
+        double cos = Math.cos(middle);
+        double sin = Math.sin(middle);
+        mState[X] += distance * cos;
+        mState[Y] += distance * sin;
+        mState[HEADING] += turn;
+        // The Jacobian is the identity except for the dependencies on the heading and the yaw rate
+        for(int i = 0; i < SIZE * SIZE; i++) {
+            mJacobian[i] = 0;
+        }
+        for(int i = 0; i < SIZE; i++) {
+            mJacobian[i * SIZE + i] = 1;
+        }
+        mJacobian[X * SIZE + HEADING] = -distance * sin;
+        mJacobian[X * SIZE + RATE] = -distance * sin * dt / 2;
+        mJacobian[Y * SIZE + HEADING] = distance * cos;
+        mJacobian[Y * SIZE + RATE] = distance * cos * dt / 2;
+        mJacobian[HEADING * SIZE + RATE] = dt;
+        // F P
+        for(int i = 0; i < SIZE; i++) {
+            for(int j = 0; j < SIZE; j++) {
+                double sum = 0;
+                for(int k = 0; k < SIZE; k++) {
+                    sum += mJacobian[i * SIZE + k] * mCovariance[k * SIZE + j];
+                }
+                mProduct[i * SIZE + j] = sum;
+            }
+        }
+        // (F P) F^T
+        for(int i = 0; i < SIZE; i++) {
+            for(int j = 0; j < SIZE; j++) {
+                double sum = 0;
+                for(int k = 0; k < SIZE; k++) {
+                    sum += mProduct[i * SIZE + k] * mJacobian[j * SIZE + k];
+                }
+                mCovariance[i * SIZE + j] = sum;
+            }
+        }
+        // The error of the distance lies along the direction of travel
+        double linear = square(LINEAR_NOISE * distance);
+        mCovariance[X * SIZE + X] += linear * cos * cos;
+        mCovariance[X * SIZE + Y] += linear * cos * sin;
+        mCovariance[Y * SIZE + X] += linear * cos * sin;
+        mCovariance[Y * SIZE + Y] += linear * sin * sin;
+    }
+
+    /**
+     * Corrects the state with a measured yaw rate. The odometry measures the yaw rate, the
+     * gyroscope the yaw rate plus its bias, so the row of the measurement is e_rate or
+     * e_rate + e_bias and the update only needs one or two columns of the covariance.
+     * @param rate the measured yaw rate in radians per second
+     * @param gyro true if the rate was measured by the gyroscope
+     * @param noise the variance of the measurement
+     */
+    private void correct(double rate, boolean gyro, double noise) {
+        // P H^T
+        for(int i = 0; i < SIZE; i++) {
+            mGain[i] = mCovariance[i * SIZE + RATE] + (gyro ? mCovariance[i * SIZE + BIAS] : 0);
+        }
+        double predicted = mState[RATE] + (gyro ? mState[BIAS] : 0);
+        double innovationVariance = mGain[RATE] + (gyro ? mGain[BIAS] : 0) + noise;
+        double innovation = rate - predicted;
+        // H P is the transpose of P H^T, because P is symmetric
+        for(int i = 0; i < SIZE; i++) {
+            mRow[i] = mGain[i];
+            mGain[i] /= innovationVariance;
+            mState[i] += mGain[i] * innovation;
+        }
+        // P = P - K H P
+        for(int i = 0; i < SIZE; i++) {
+            for(int j = 0; j < SIZE; j++) {
+                mCovariance[i * SIZE + j] -= mGain[i] * mRow[j];
+            }
+        }
+    }
+
+    /**
+     * @return the estimated x-coordinate in the coordinate system of the odometry
+     */
+    public double getX() {
+        return mState[X];
+    }
+
+    /**
+     * @return the estimated y-coordinate
+     */
+    public double getY() {
+        return mState[Y];
+    }
+
+    /**
+     * @return the estimated continuous heading in radians
+     */
+    public double getHeading() {
+        return mState[HEADING];
+    }
+
+    /**
+     * @return the estimated yaw rate in radians per second
+     */
+    public double getYawRate() {
+        return mState[RATE];
+    }
+
+    /**
+     * @return the estimated bias of the gyroscope in radians per second
+     */
+    public double getGyroBias() {
+        return mState[BIAS];
+    }
+
+    /**
+     * @return the standard deviation of the heading in radians
+     */
+    public double getHeadingDeviation() {
+        return Math.sqrt(Math.max(0, mCovariance[HEADING * SIZE + HEADING]));
+    }
+
+    /**
+     * @return the number of corrections with the gyroscope
+     */
+    public long getGyroUpdateCount() {
+        return mGyroUpdateCount;
+    }
+
+    /**
+     * @return the square of the value
+     */
+    private static double square(double value) {
+        return value * value;
+    }
+
+}
@@ -0,0 +1,865 @@
+package com.tudresden.navigationrobot.localization;
+
+import java.util.Arrays;
+
+/**
+ * A graph of the poses that the robot has passed, connected by measurements of their relative
+ * poses: the odometry between consecutive poses and loop closures between poses at the same place.
+ * The poses are moved so that they fit all measurements best in the least-squares sense, which
+ * spreads the drift that a loop closure reveals over the whole loop.
+ * <p>
+ * The least-squares problem is solved with Gauss-Newton. The normal equations are sparse: every
+ * measurement only couples two poses. They are solved with a sparse Cholesky decomposition in
+ * blocks of 3 x 3, one block row and column per pose. The poses are eliminated in minimum degree
+ * order, which always eliminates the pose with the fewest neighbours next and so keeps the fill-in
+ * of the factor small. The same elimination gives the non-zero blocks of the factor, so the
+ * numeric decomposition only touches blocks that are stored. When the robot walks the same loop
+ * many times, the graph looks like a strip whose width is one loop. A banded factor of such a strip
+ * grows with the square of the loop length per pose. With the minimum degree order the factor
+ * stays close to the size of the graph itself. The arrays of the numeric decomposition grow with
+ * the graph and are reused.
+ */
+public class PoseGraph {
+
+    /**
+     * The number of variables of a pose: x, y and heading.
+     */
+    private static final int DIMENSION = 3;
+
+    /**
+     * The information of the prior that keeps the first pose in place. Without it the whole graph
+     * could be moved freely and the normal equations would be singular.
+     */
+    private static final double PRIOR_INFORMATION = 1e6;
+
+    /**
+     * The change of a variable below which Gauss-Newton has converged.
+     */
+    private static final double CONVERGENCE = 1e-6;
+
+    /**
+     * The capacity of the arrays of a new graph.
+     */
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * The x-coordinates of the poses.
+     */
+    private double[] mX = new double[INITIAL_CAPACITY];
+
+    /**
+     * The y-coordinates of the poses.
+     */
+    private double[] mY = new double[INITIAL_CAPACITY];
+
+    /**
+     * The headings of the poses in radians.
+     */
+    private double[] mTheta = new double[INITIAL_CAPACITY];
+
+    /**
+     * The number of poses.
+     */
+    private int mPoseCount = 0;
+
+    /**
+     * The poses that the edges start from.
+     */
+    private int[] mFrom = new int[INITIAL_CAPACITY];
+
+    /**
+     * The poses that the edges end at.
+     */
+    private int[] mTo = new int[INITIAL_CAPACITY];
+
+    /**
+     * The measured poses of the ends relative to the starts of the edges, three values per edge: the
+     * distance forward, the distance to the left and the turn.
+     */
+    private double[] mMeasurements = new double[DIMENSION * INITIAL_CAPACITY];
+
+    /**
+     * The information matrices of the measurements, the inverses of their covariances, nine
+     * values per edge in row-major order.
+     */
+    private double[] mInformation = new double[DIMENSION * DIMENSION * INITIAL_CAPACITY];
+
+    /**
+     * The number of edges.
+     */
+    private int mEdgeCount = 0;
+
+    /**
+     * True if the edges have changed since the order and the structure of the factor were computed.
+     */
+    private boolean mStructureChanged = true;
+
+    /**
+     * The position of every pose in the order of elimination.
+     */
+    private int[] mRank = new int[0];
+
+    /**
+     * The index in mRowBlocks of the first block below the diagonal of every block column of the
+     * factor, with one more entry for the end of the last column.
+     */
+    private int[] mColumnStart = new int[0];
+
+    /**
+     * The block rows of the blocks below the diagonal of the factor, ascending within every column.
+     */
+    private int[] mRowBlocks = new int[0];
+
+    /**
+     * The blocks below the diagonal of the normal equations, nine values per block in row-major
+     * order, replaced by the blocks of the Cholesky factor.
+     */
+    private double[] mBlocks = new double[0];
+
+    /**
+     * The blocks on the diagonal of the normal equations, nine values per pose in row-major order,
+     * replaced by the lower triangles of the Cholesky factor.
+     */
+    private double[] mDiagonal = new double[0];
+
+    /**
+     * The index in mBlocks of the block that every edge adds to, or -1 if the edge connects a pose
+     * with itself.
+     */
+    private int[] mEdgeBlocks = new int[0];
+
+    /**
+     * The right-hand side of the normal equations, replaced by the solution.
+     */
+    private double[] mVector = new double[0];
+
+    /**
+     * For every block column, the first column to the left whose next block lies in its row, or -1.
+     */
+    private int[] mFirstLink = new int[0];
+
+    /**
+     * For every block column, the next column in the same list of mFirstLink, or -1.
+     */
+    private int[] mNextLink = new int[0];
+
+    /**
+     * For every block column, the index in mRowBlocks of the next block that updates a column to the
+     * right.
+     */
+    private int[] mNextBlock = new int[0];
+
+    /**
+     * For every block row, the index in mRowBlocks of the block in the column that is decomposed.
+     */
+    private int[] mPosition = new int[0];
+
+    /**
+     * The error of the edge that was evaluated last.
+     */
+    private final double[] mError = new double[DIMENSION];
+
+    /**
+     * The Jacobian of the error of an edge by its start pose.
+     */
+    private final double[] mJacobianFrom = new double[DIMENSION * DIMENSION];
+
+    /**
+     * The Jacobian of the error of an edge by its end pose.
+     */
+    private final double[] mJacobianTo = new double[DIMENSION * DIMENSION];
+
+    /**
+     * The product of the transposed Jacobian of the start pose and the information.
+     */
+    private final double[] mWeightedFrom = new double[DIMENSION * DIMENSION];
+
+    /**
+     * The product of the transposed Jacobian of the end pose and the information.
+     */
+    private final double[] mWeightedTo = new double[DIMENSION * DIMENSION];
+
+    /**
+     * A block of the normal equations.
+     */
+    private final double[] mBlock = new double[DIMENSION * DIMENSION];
+
+    /**
+     * Adds a pose.
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     * @param theta the heading in radians
+     * @return the index of the pose
+     */
+    public int addPose(double x, double y, double theta) {
+        if(mPoseCount == mX.length) {
+            mX = Arrays.copyOf(mX, 2 * mPoseCount);
+            mY = Arrays.copyOf(mY, 2 * mPoseCount);
+            mTheta = Arrays.copyOf(mTheta, 2 * mPoseCount);
+        }
+        mX[mPoseCount] = x;
+        mY[mPoseCount] = y;
+        mTheta[mPoseCount] = theta;
+        mStructureChanged = true;
+        return mPoseCount++;
+    }
+
+    /**
+     * Moves a pose, e.g. back to where it was before an optimization.
+     * @param index the index of the pose
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     * @param theta the heading in radians
+     */
+    public void setPose(int index, double x, double y, double theta) {
+        mX[index] = x;
+        mY[index] = y;
+        mTheta[index] = theta;
+    }
+
+    /**
+     * Adds a measurement of the pose of one pose relative to another one. The information matrix is
+     * diagonal in the coordinate system of the start pose.
+     * @param from the index of the start pose
+     * @param to the index of the end pose
+     * @param forward the measured distance of the end pose in front of the start pose
+     * @param left the measured distance of the end pose to the left of the start pose
+     * @param turn the measured angle in radians that the end pose is turned to the left
+     * @param forwardInformation the inverse of the variance of the forward distance
+     * @param leftInformation the inverse of the variance of the distance to the left
+     * @param turnInformation the inverse of the variance of the angle
+     * @return the index of the edge
+     */
+    public int addEdge(int from, int to, double forward, double left, double turn,
+                       double forwardInformation, double leftInformation, double turnInformation) {
+        int edge = addEdge(from, to, forward, left, turn);
+        int information = DIMENSION * DIMENSION * edge;
+        mInformation[information] = forwardInformation;
+        mInformation[information + 4] = leftInformation;
+        mInformation[information + 8] = turnInformation;
+        return edge;
+    }
+
+    /**
+     * Adds a measurement of the pose of one pose relative to another one whose position is known
+     * along two perpendicular axes with different accuracy, e.g. across a wall but hardly along it.
+     * @param from the index of the start pose
+     * @param to the index of the end pose
+     * @param forward the measured distance of the end pose in front of the start pose
+     * @param left the measured distance of the end pose to the left of the start pose
+     * @param turn the measured angle in radians that the end pose is turned to the left
+     * @param axis the angle in radians of the first axis to the left of the start pose
+     * @param axisInformation the inverse of the variance along the first axis
+     * @param normalInformation the inverse of the variance along the second axis
+     * @param turnInformation the inverse of the variance of the angle
+     * @return the index of the edge
+     */
+    public int addEdge(int from, int to, double forward, double left, double turn, double axis,
+                       double axisInformation, double normalInformation, double turnInformation) {
+        int edge = addEdge(from, to, forward, left, turn);
+        int information = DIMENSION * DIMENSION * edge;
+        // R diag(axis, normal) R^T
+        double cos = Math.cos(axis);
+        double sin = Math.sin(axis);
+        mInformation[information] = cos * cos * axisInformation + sin * sin * normalInformation;
+        mInformation[information + 1] = cos * sin * (axisInformation - normalInformation);
+        mInformation[information + 3] = mInformation[information + 1];
+        mInformation[information + 4] = sin * sin * axisInformation + cos * cos * normalInformation;
+        mInformation[information + 8] = turnInformation;
+        return edge;
+    }
+
+    /**
+     * Adds an edge without information.
+     * @return the index of the edge
+     */
+    private int addEdge(int from, int to, double forward, double left, double turn) {
+        if(mEdgeCount == mFrom.length) {
+            mFrom = Arrays.copyOf(mFrom, 2 * mEdgeCount);
+            mTo = Arrays.copyOf(mTo, 2 * mEdgeCount);
+            mMeasurements = Arrays.copyOf(mMeasurements, 2 * DIMENSION * mEdgeCount);
+            mInformation = Arrays.copyOf(mInformation, 2 * DIMENSION * DIMENSION * mEdgeCount);
+        }
+        mFrom[mEdgeCount] = from;
+        mTo[mEdgeCount] = to;
+        int measurement = DIMENSION * mEdgeCount;
+        mMeasurements[measurement] = forward;
+        mMeasurements[measurement + 1] = left;
+        mMeasurements[measurement + 2] = turn;
+        int information = DIMENSION * DIMENSION * mEdgeCount;
+        Arrays.fill(mInformation, information, information + DIMENSION * DIMENSION, 0);
+        mStructureChanged = true;
+        return mEdgeCount++;
+    }
+
+    /**
+     * Removes the edge that was added last, e.g. a loop closure that didn't fit.
+     */
+    public void removeLastEdge() {
+        if(mEdgeCount > 0) {
+            mEdgeCount--;
+            mStructureChanged = true;
+        }
+    }
+
+    /**
+     * Removes all poses and edges.
+     */
+    public void clear() {
+        mPoseCount = 0;
+        mEdgeCount = 0;
+        mStructureChanged = true;
+    }
+
+    /**
+     * Moves the poses so that they fit the measurements best. The first pose stays where it is.
+     * @param maxIterations the largest number of Gauss-Newton steps
+     * @return the number of steps taken, or -1 if the normal equations were singular, e.g. because
+     * a pose isn't connected to the first one
+     */
+    public int optimize(int maxIterations) {
+        if(mPoseCount < 2) {
+            return 0;
+        }
+        if(mStructureChanged) {
+            computeStructure();
+            mStructureChanged = false;
+        }
+        for(int iteration = 1; iteration <= maxIterations; iteration++) {
+            buildNormalEquations();
+            if(!decompose()) {
+                return -1;
+            }
+            solve();
+            double largest = 0;
+            for(int i = 0; i < mPoseCount; i++) {
+                int row = DIMENSION * mRank[i];
+                mX[i] += mVector[row];
+                mY[i] += mVector[row + 1];
+                mTheta[i] += mVector[row + 2];
+                largest = Math.max(largest, Math.max(Math.abs(mVector[row]),
+                        Math.max(Math.abs(mVector[row + 1]), Math.abs(mVector[row + 2]))));
+            }
+            if(largest < CONVERGENCE) {
+                return iteration;
+            }
+        }
+        return maxIterations;
+    }
+
+    /**
+     * Numbers the poses in minimum degree order and computes which blocks of the Cholesky factor
+     * are non-zero. The poses are eliminated from a graph of their neighbours one by one, always the
+     * pose with the fewest neighbours first. The neighbours of an eliminated pose become neighbours
+     * of each other, which is the fill-in of the factor, and they are the rows of the non-zero blocks
+     * in the column of the pose.
+     */
+    private void computeStructure() {
+        int poses = mPoseCount;
+        // The graph of the neighbours, whose lists grow with the fill-in
+        int[][] neighbours = new int[poses][];
+        int[] degree = new int[poses];
+        for(int e = 0; e < mEdgeCount; e++) {
+            if(mFrom[e] != mTo[e]) {
+                degree[mFrom[e]]++;
+                degree[mTo[e]]++;
+            }
+        }
+        for(int i = 0; i < poses; i++) {
+            neighbours[i] = new int[Math.max(4, degree[i])];
+            degree[i] = 0;
+        }
+        // Stamps that tell whether a pose is already in a list, so parallel edges only count once
+        int[] mark = new int[poses];
+        Arrays.fill(mark, -1);
+        for(int e = 0; e < mEdgeCount; e++) {
+            int from = mFrom[e];
+            int to = mTo[e];
+            if(from != to) {
+                neighbours[from][degree[from]++] = to;
+                neighbours[to][degree[to]++] = from;
+            }
+        }
+        for(int i = 0; i < poses; i++) {
+            int count = 0;
+            for(int k = 0; k < degree[i]; k++) {
+                int neighbour = neighbours[i][k];
+                if(mark[neighbour] != i) {
+                    mark[neighbour] = i;
+                    neighbours[i][count++] = neighbour;
+                }
+            }
+            degree[i] = count;
+        }
+        // The poses that haven't been eliminated in doubly linked lists by their degree
+        int[] bucket = new int[poses];
+        int[] next = new int[poses];
+        int[] previous = new int[poses];
+        Arrays.fill(bucket, -1);
+        for(int i = poses - 1; i >= 0; i--) {
+            insert(i, degree[i], bucket, next, previous);
+        }
+        if(mRank.length < poses) {
+            mRank = new int[mX.length];
+            mColumnStart = new int[mX.length + 1];
+        }
+        int blockCount = 0;
+        int minDegree = 0;
+        int stamp = poses;
+        for(int step = 0; step < poses; step++) {
+            while(bucket[minDegree] < 0) {
+                minDegree++;
+            }
+            int pose = bucket[minDegree];
+            remove(pose, degree[pose], bucket, next, previous);
+            mRank[pose] = step;
+            int[] clique = neighbours[pose];
+            int cliqueSize = degree[pose];
+            // The rows of the column are ranked when all poses have been eliminated
+            mColumnStart[step] = blockCount;
+            if(mRowBlocks.length < blockCount + cliqueSize) {
+                mRowBlocks = Arrays.copyOf(mRowBlocks, Math.max(2 * mRowBlocks.length, blockCount + cliqueSize));
+            }
+            System.arraycopy(clique, 0, mRowBlocks, blockCount, cliqueSize);
+            blockCount += cliqueSize;
+            for(int k = 0; k < cliqueSize; k++) {
+                int neighbour = clique[k];
+                remove(neighbour, degree[neighbour], bucket, next, previous);
+                int[] list = neighbours[neighbour];
+                int count = 0;
+                stamp++;
+                mark[neighbour] = stamp;
+                for(int m = 0; m < degree[neighbour]; m++) {
+                    if(list[m] != pose) {
+                        mark[list[m]] = stamp;
+                        list[count++] = list[m];
+                    }
+                }
+                for(int m = 0; m < cliqueSize; m++) {
+                    if(mark[clique[m]] != stamp) {
+                        if(count == list.length) {
+                            list = Arrays.copyOf(list, 2 * count);
+                            neighbours[neighbour] = list;
+                        }
+                        mark[clique[m]] = stamp;
+                        list[count++] = clique[m];
+                    }
+                }
+                degree[neighbour] = count;
+                insert(neighbour, count, bucket, next, previous);
+                minDegree = Math.min(minDegree, count);
+            }
+            neighbours[pose] = null;
+        }
+        mColumnStart[poses] = blockCount;
+        for(int column = 0; column < poses; column++) {
+            for(int k = mColumnStart[column]; k < mColumnStart[column + 1]; k++) {
+                mRowBlocks[k] = mRank[mRowBlocks[k]];
+            }
+            Arrays.sort(mRowBlocks, mColumnStart[column], mColumnStart[column + 1]);
+        }
+        if(mEdgeBlocks.length < mEdgeCount) {
+            mEdgeBlocks = new int[mFrom.length];
+        }
+        for(int e = 0; e < mEdgeCount; e++) {
+            int from = mRank[mFrom[e]];
+            int to = mRank[mTo[e]];
+            int column = Math.min(from, to);
+            mEdgeBlocks[e] = from == to ? -1
+                    : Arrays.binarySearch(mRowBlocks, mColumnStart[column], mColumnStart[column + 1], Math.max(from, to));
+        }
+        if(mBlocks.length < DIMENSION * DIMENSION * blockCount) {
+            mBlocks = new double[DIMENSION * DIMENSION * (blockCount + blockCount / 2)];
+        }
+        if(mDiagonal.length < DIMENSION * DIMENSION * poses) {
+            mDiagonal = new double[DIMENSION * DIMENSION * mX.length];
+            mVector = new double[DIMENSION * mX.length];
+            mFirstLink = new int[mX.length];
+            mNextLink = new int[mX.length];
+            mNextBlock = new int[mX.length];
+            mPosition = new int[mX.length];
+        }
+    }
+
+    /**
+     * Adds a pose to the front of the list of its degree.
+     */
+    private static void insert(int pose, int degree, int[] bucket, int[] next, int[] previous) {
+        next[pose] = bucket[degree];
+        previous[pose] = -1;
+        if(bucket[degree] >= 0) {
+            previous[bucket[degree]] = pose;
+        }
+        bucket[degree] = pose;
+    }
+
+    /**
+     * Removes a pose from the list of its degree.
+     */
+    private static void remove(int pose, int degree, int[] bucket, int[] next, int[] previous) {
+        if(previous[pose] >= 0) {
+            next[previous[pose]] = next[pose];
+        } else {
+            bucket[degree] = next[pose];
+        }
+        if(next[pose] >= 0) {
+            previous[next[pose]] = previous[pose];
+        }
+    }
+
+    /**
+     * Linearizes all edges at the current poses and adds them up to the normal equations
+     * H dx = -b, H = sum J^T Omega J and b = sum J^T Omega e.
+     */
+    private void buildNormalEquations() {
+        Arrays.fill(mBlocks, 0, DIMENSION * DIMENSION * mColumnStart[mPoseCount], 0);
+        Arrays.fill(mDiagonal, 0, DIMENSION * DIMENSION * mPoseCount, 0);
+        Arrays.fill(mVector, 0, DIMENSION * mPoseCount, 0);
+        for(int e = 0; e < mEdgeCount; e++) {
+            linearize(e);
+            int information = DIMENSION * DIMENSION * e;
+            // J^T Omega for both poses
+            for(int i = 0; i < DIMENSION; i++) {
+                for(int j = 0; j < DIMENSION; j++) {
+                    double from = 0;
+                    double to = 0;
+                    for(int k = 0; k < DIMENSION; k++) {
+                        double omega = mInformation[information + k * DIMENSION + j];
+                        from += mJacobianFrom[k * DIMENSION + i] * omega;
+                        to += mJacobianTo[k * DIMENSION + i] * omega;
+                    }
+                    mWeightedFrom[i * DIMENSION + j] = from;
+                    mWeightedTo[i * DIMENSION + j] = to;
+                }
+            }
+            int from = mRank[mFrom[e]];
+            int to = mRank[mTo[e]];
+            multiply(mWeightedFrom, mJacobianFrom);
+            add(mDiagonal, DIMENSION * DIMENSION * from, false);
+            multiply(mWeightedTo, mJacobianTo);
+            add(mDiagonal, DIMENSION * DIMENSION * to, false);
+            if(mEdgeBlocks[e] >= 0) {
+                // The block of the row of the pose that is eliminated later, the transpose of the other
+                multiply(mWeightedFrom, mJacobianTo);
+                add(mBlocks, DIMENSION * DIMENSION * mEdgeBlocks[e], from < to);
+            }
+            for(int i = 0; i < DIMENSION; i++) {
+                double bFrom = 0;
+                double bTo = 0;
+                for(int k = 0; k < DIMENSION; k++) {
+                    bFrom += mWeightedFrom[i * DIMENSION + k] * mError[k];
+                    bTo += mWeightedTo[i * DIMENSION + k] * mError[k];
+                }
+                mVector[DIMENSION * from + i] -= bFrom;
+                mVector[DIMENSION * to + i] -= bTo;
+            }
+        }
+        int first = DIMENSION * DIMENSION * mRank[0];
+        for(int k = 0; k < DIMENSION; k++) {
+            mDiagonal[first + k * DIMENSION + k] += PRIOR_INFORMATION;
+        }
+    }
+
+    /**
+     * Computes the error of an edge and its Jacobians at the current poses. The error is the
+     * measured pose subtracted from the pose of the end in the coordinate system of the start.
+     * @param edge the index of the edge
+     */
+    private void linearize(int edge) {
+        int from = mFrom[edge];
+        int to = mTo[edge];
+        double cos = Math.cos(mTheta[from]);
+        double sin = Math.sin(mTheta[from]);
+        double dx = mX[to] - mX[from];
+        double dy = mY[to] - mY[from];
+        int measurement = DIMENSION * edge;
+        mError[0] = cos * dx + sin * dy - mMeasurements[measurement];
+        mError[1] = -sin * dx + cos * dy - mMeasurements[measurement + 1];
+        mError[2] = Math.IEEEremainder(mTheta[to] - mTheta[from] - mMeasurements[measurement + 2], 2 * Math.PI);
+        mJacobianFrom[0] = -cos;
+        mJacobianFrom[1] = -sin;
+        mJacobianFrom[2] = -sin * dx + cos * dy;
+        mJacobianFrom[3] = sin;
+        mJacobianFrom[4] = -cos;
+        mJacobianFrom[5] = -cos * dx - sin * dy;
+        mJacobianFrom[6] = 0;
+        mJacobianFrom[7] = 0;
+        mJacobianFrom[8] = -1;
+        mJacobianTo[0] = cos;
+        mJacobianTo[1] = sin;
+        mJacobianTo[2] = 0;
+        mJacobianTo[3] = -sin;
+        mJacobianTo[4] = cos;
+        mJacobianTo[5] = 0;
+        mJacobianTo[6] = 0;
+        mJacobianTo[7] = 0;
+        mJacobianTo[8] = 1;
+    }
+
+    /**
+     * Computes the block (J_row^T Omega) J_column of the normal equations into mBlock.
+     * @param weighted J_row^T Omega
+     * @param jacobian J_column
+     */
+    private void multiply(double[] weighted, double[] jacobian) {
+        for(int i = 0; i < DIMENSION; i++) {
+            for(int j = 0; j < DIMENSION; j++) {
+                double sum = 0;
+                for(int k = 0; k < DIMENSION; k++) {
+                    sum += weighted[i * DIMENSION + k] * jacobian[k * DIMENSION + j];
+                }
+                mBlock[i * DIMENSION + j] = sum;
+            }
+        }
+    }
+
+    /**
+     * Adds mBlock to a block of the normal equations.
+     * @param blocks mDiagonal or mBlocks
+     * @param offset the index of the first value of the block
+     * @param transposed true to add the transpose of mBlock
+     */
+    private void add(double[] blocks, int offset, boolean transposed) {
+        for(int i = 0; i < DIMENSION; i++) {
+            for(int j = 0; j < DIMENSION; j++) {
+                blocks[offset + i * DIMENSION + j] += transposed ? mBlock[j * DIMENSION + i] : mBlock[i * DIMENSION + j];
+            }
+        }
+    }
+
+    /**
+     * Replaces the normal equations with their Cholesky factor L, H = L L^T, column by column. Every
+     * column is first updated by the columns to its left that have a block in its row, which are
+     * kept in linked lists by the row of their next block. Fill-in only happens in blocks that the
+     * elimination has found, so the factor has the same storage.
+     * @return false if the matrix isn't positive definite
+     */
+    private boolean decompose() {
+        int poses = mPoseCount;
+        Arrays.fill(mFirstLink, 0, poses, -1);
+        for(int column = 0; column < poses; column++) {
+            int end = mColumnStart[column + 1];
+            for(int k = mColumnStart[column]; k < end; k++) {
+                mPosition[mRowBlocks[k]] = k;
+            }
+            int diagonal = DIMENSION * DIMENSION * column;
+            int left = mFirstLink[column];
+            while(left >= 0) {
+                int nextLeft = mNextLink[left];
+                int block = mNextBlock[left];
+                int leftEnd = mColumnStart[left + 1];
+                int source = DIMENSION * DIMENSION * block;
+                subtractProduct(mDiagonal, diagonal, mBlocks, source, source);
+                for(int k = block + 1; k < leftEnd; k++) {
+                    subtractProduct(mBlocks, DIMENSION * DIMENSION * mPosition[mRowBlocks[k]],
+                            mBlocks, DIMENSION * DIMENSION * k, source);
+                }
+                block++;
+                mNextBlock[left] = block;
+                if(block < leftEnd) {
+                    link(left, mRowBlocks[block]);
+                }
+                left = nextLeft;
+            }
+            if(!decomposeBlock(diagonal)) {
+                return false;
+            }
+            for(int k = mColumnStart[column]; k < end; k++) {
+                divideBlock(DIMENSION * DIMENSION * k, diagonal);
+            }
+            if(mColumnStart[column] < end) {
+                mNextBlock[column] = mColumnStart[column];
+                link(column, mRowBlocks[mColumnStart[column]]);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds a column to the list of the columns that update a row.
+     */
+    private void link(int column, int row) {
+        mNextLink[column] = mFirstLink[row];
+        mFirstLink[row] = column;
+    }
+
+    /**
+     * Subtracts A B^T from a block, all blocks in row-major order.
+     * @param target the array of the block that is updated
+     * @param offset the index of the first value of the block that is updated
+     * @param blocks the array of A and B
+     * @param a the index of the first value of A
+     * @param b the index of the first value of B
+     */
+    private static void subtractProduct(double[] target, int offset, double[] blocks, int a, int b) {
+        for(int i = 0; i < DIMENSION; i++) {
+            for(int j = 0; j < DIMENSION; j++) {
+                double sum = 0;
+                for(int k = 0; k < DIMENSION; k++) {
+                    sum += blocks[a + i * DIMENSION + k] * blocks[b + j * DIMENSION + k];
+                }
+                target[offset + i * DIMENSION + j] -= sum;
+            }
+        }
+    }
+
+    /**
+     * Replaces a block on the diagonal with its Cholesky factor, a lower triangle.
+     * @param offset the index of the first value of the block in mDiagonal
+     * @return false if the block isn't positive definite
+     */
+    private boolean decomposeBlock(int offset) {
+        double[] d = mDiagonal;
+        for(int j = 0; j < DIMENSION; j++) {
+            double sum = d[offset + j * DIMENSION + j];
+            for(int k = 0; k < j; k++) {
+                sum -= d[offset + j * DIMENSION + k] * d[offset + j * DIMENSION + k];
+            }
+            if(sum <= 0) {
+                return false;
+            }
+            double pivot = Math.sqrt(sum);
+            d[offset + j * DIMENSION + j] = pivot;
+            for(int i = j + 1; i < DIMENSION; i++) {
+                sum = d[offset + i * DIMENSION + j];
+                for(int k = 0; k < j; k++) {
+                    sum -= d[offset + i * DIMENSION + k] * d[offset + j * DIMENSION + k];
+                }
+                d[offset + i * DIMENSION + j] = sum / pivot;
+                d[offset + j * DIMENSION + i] = 0;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Replaces a block below the diagonal with X, X L^T = B, where L is the factor of the diagonal
+     * block of its column.
+     * @param offset the index of the first value of the block in mBlocks
+     * @param diagonal the index of the first value of L in mDiagonal
+     */
+    private void divideBlock(int offset, int diagonal) {
+        for(int i = 0; i < DIMENSION; i++) {
+            for(int j = 0; j < DIMENSION; j++) {
+                double sum = mBlocks[offset + i * DIMENSION + j];
+                for(int k = 0; k < j; k++) {
+                    sum -= mBlocks[offset + i * DIMENSION + k] * mDiagonal[diagonal + j * DIMENSION + k];
+                }
+                mBlocks[offset + i * DIMENSION + j] = sum / mDiagonal[diagonal + j * DIMENSION + j];
+            }
+        }
+    }
+
+    /**
+     * Solves L L^T x = v with the Cholesky factor, in place in mVector.
+     */
+    private void solve() {
+        int poses = mPoseCount;
+        for(int column = 0; column < poses; column++) {
+            int diagonal = DIMENSION * DIMENSION * column;
+            int row = DIMENSION * column;
+            for(int i = 0; i < DIMENSION; i++) {
+                double sum = mVector[row + i];
+                for(int k = 0; k < i; k++) {
+                    sum -= mDiagonal[diagonal + i * DIMENSION + k] * mVector[row + k];
+                }
+                mVector[row + i] = sum / mDiagonal[diagonal + i * DIMENSION + i];
+            }
+            for(int k = mColumnStart[column]; k < mColumnStart[column + 1]; k++) {
+                int block = DIMENSION * DIMENSION * k;
+                int target = DIMENSION * mRowBlocks[k];
+                for(int i = 0; i < DIMENSION; i++) {
+                    for(int j = 0; j < DIMENSION; j++) {
+                        mVector[target + i] -= mBlocks[block + i * DIMENSION + j] * mVector[row + j];
+                    }
+                }
+            }
+        }
+        for(int column = poses - 1; column >= 0; column--) {
+            int diagonal = DIMENSION * DIMENSION * column;
+            int row = DIMENSION * column;
+            for(int k = mColumnStart[column]; k < mColumnStart[column + 1]; k++) {
+                int block = DIMENSION * DIMENSION * k;
+                int source = DIMENSION * mRowBlocks[k];
+                for(int i = 0; i < DIMENSION; i++) {
+                    for(int j = 0; j < DIMENSION; j++) {
+                        mVector[row + j] -= mBlocks[block + i * DIMENSION + j] * mVector[source + i];
+                    }
+                }
+            }
+            for(int i = DIMENSION - 1; i >= 0; i--) {
+                double sum = mVector[row + i];
+                for(int k = i + 1; k < DIMENSION; k++) {
+                    sum -= mDiagonal[diagonal + k * DIMENSION + i] * mVector[row + k];
+                }
+                mVector[row + i] = sum / mDiagonal[diagonal + i * DIMENSION + i];
+            }
+        }
+    }
+
+    /**
+     * @param edge the index of the edge
+     * @return the squared error of the edge weighted by its information, e^T Omega e
+     */
+    public double getChiSquared(int edge) {
+        linearize(edge);
+        int information = DIMENSION * DIMENSION * edge;
+        double sum = 0;
+        for(int i = 0; i < DIMENSION; i++) {
+            for(int j = 0; j < DIMENSION; j++) {
+                sum += mError[i] * mInformation[information + i * DIMENSION + j] * mError[j];
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * @return the number of poses
+     */
+    public int getPoseCount() {
+        return mPoseCount;
+    }
+
+    /**
+     * @return the number of edges
+     */
+    public int getEdgeCount() {
+        return mEdgeCount;
+    }
+
+    /**
+     * @param index the index of the pose
+     * @return the x-coordinate of the pose
+     */
+    public double getX(int index) {
+        return mX[index];
+    }
+
+    /**
+     * @param index the index of the pose
+     * @return the y-coordinate of the pose
+     */
+    public double getY(int index) {
+        return mY[index];
+    }
+
+    /**
+     * @param index the index of the pose
+     * @return the heading of the pose in radians
+     */
+    public double getTheta(int index) {
+        return mTheta[index];
+    }
+
+    /**
+     * @return the number of non-zero entries of the Cholesky factor, e.g. for checking that the order
+     * keeps the fill-in small, or 0 if the structure hasn't been computed for the current edges
+     */
+    public int getFactorSize() {
+        if(mStructureChanged || mColumnStart.length == 0) {
+            return 0;
+        }
+        return DIMENSION * (DIMENSION + 1) / 2 * mPoseCount + DIMENSION * DIMENSION * mColumnStart[mPoseCount];
+    }
+
+}
@@ -0,0 +1,613 @@
+package com.tudresden.navigationrobot.localization;
+
+import com.tudresden.navigationrobot.map.OccupancyGrid;
+
+import java.util.Arrays;
+
+/**
+ * Corrects the drift of the map pose by matching the range readings of the ultrasonic sensor and
+ * the head against the occupancy grid. The readings that are taken while the robot moves are collected into a batch
+ * and kept out of the grid. Once the batch is full, the points where the readings hit an obstacle
+ * are aligned with the occupied cells of the grid around them by point-to-line ICP: every point is
+ * paired with the nearest occupied cell, found with a KdTree, and the batch is moved so that the
+ * points lie on the lines through the cells. The lines come from the occupied neighbours of every
+ * cell, so a point may slide along a wall but not into it.
+ * A single wall doesn't tell how far along it the robot is, so the correction is pulled towards
+ * zero by a weak prior, which keeps it at zero in every direction that the points don't constrain.
+ * A match that leaves too many points without a partner or far from their lines is rejected.
+ * All arrays are allocated up front or grow to their working size, so matching a batch doesn't
+ * allocate.
+ */
+public class ScanMatcher {
+
+    /**
+     * The number of readings in a batch.
+     */
+    public static final int BATCH_SIZE = 20;
+
+    /**
+     * The shortest distance in meters that the sensors measure.
+     */
+    private static final double MIN_RANGE = 0.25;
+
+    /**
+     * The longest distance in meters of a reading that hit an obstacle. The sensors return 1.5
+     * meters if they don't hit anything.
+     */
+    private static final double MAX_RANGE = 1.45;
+
+    /**
+     * The least number of points that a match needs.
+     */
+    private static final int MIN_POINTS = 8;
+
+    /**
+     * The longest distance in meters between a point and the occupied cell that it is paired with.
+     */
+    private static final double MAX_PAIR_DISTANCE = 0.3;
+
+    /**
+     * The distance in cells around an occupied cell within which its neighbours give the direction
+     * of its line.
+     */
+    private static final int NORMAL_RADIUS = 2;
+
+    /**
+     * The least number of occupied neighbours that a cell needs for a line.
+     */
+    private static final int MIN_NEIGHBOURS = 3;
+
+    /**
+     * The largest ratio of the spread across the line to the spread along it for which the
+     * neighbours of a cell form a line.
+     */
+    private static final double MAX_LINE_SPREAD = 0.3;
+
+    /**
+     * The edge length in cells of the largest part of the grid that a batch is matched against.
+     */
+    private static final int MAX_WINDOW = 160;
+
+    /**
+     * The standard deviation in meters of a point across its line.
+     */
+    private static final double POINT_NOISE = 0.05;
+
+    /**
+     * The standard deviation in meters of the prior of the translation.
+     */
+    private static final double PRIOR_TRANSLATION = 0.1;
+
+    /**
+     * The standard deviation in radians of the prior of the rotation. The heading is already held
+     * by the gyroscope and the walls, so the matches mostly correct the position.
+     */
+    private static final double PRIOR_ROTATION = 0.01;
+
+    /**
+     * The largest number of ICP iterations.
+     */
+    private static final int MAX_ITERATIONS = 15;
+
+    /**
+     * The change of the translation in meters and of the rotation in radians below which ICP stops.
+     */
+    private static final double CONVERGENCE = 1e-4;
+
+    /**
+     * The least fraction of the points that must be paired with a cell.
+     */
+    private static final double MIN_PAIRED_RATIO = 0.7;
+
+    /**
+     * The largest root mean square distance in meters of the paired points from their lines.
+     */
+    private static final double MAX_RESIDUAL = 0.05;
+
+    /**
+     * The largest translation in meters that is accepted as a correction.
+     */
+    private static final double MAX_TRANSLATION = 0.25;
+
+    /**
+     * The largest rotation in radians that is accepted as a correction (5°).
+     */
+    private static final double MAX_ROTATION = Math.toRadians(5);
+
+    /**
+     * The x-coordinates in the map of the sensor at every reading of the batch.
+     */
+    private final double[] mReadingX = new double[BATCH_SIZE];
+
+    /**
+     * The y-coordinates of the sensor.
+     */
+    private final double[] mReadingY = new double[BATCH_SIZE];
+
+    /**
+     * The headings of the sensor in radians.
+     */
+    private final double[] mReadingHeading = new double[BATCH_SIZE];
+
+    /**
+     * The measured distances in meters.
+     */
+    private final double[] mReadingDistance = new double[BATCH_SIZE];
+
+    /**
+     * The number of readings in the batch.
+     */
+    private int mReadingCount = 0;
+
+    /**
+     * The x-coordinates of the points where the readings hit an obstacle, relative to the pivot.
+     */
+    private final double[] mPointX = new double[BATCH_SIZE];
+
+    /**
+     * The y-coordinates of the points relative to the pivot.
+     */
+    private final double[] mPointY = new double[BATCH_SIZE];
+
+    /**
+     * The occupied cells of the part of the grid around the points, row by row.
+     */
+    private final boolean[] mWindow = new boolean[MAX_WINDOW * MAX_WINDOW];
+
+    /**
+     * The occupied cells that have a line, in the order they were added to the tree.
+     */
+    private final KdTree mTree = new KdTree();
+
+    /**
+     * The x-coordinates of the cells in the tree.
+     */
+    private double[] mCellX = new double[256];
+
+    /**
+     * The y-coordinates of the cells in the tree.
+     */
+    private double[] mCellY = new double[256];
+
+    /**
+     * The x-components of the normals of the lines through the cells.
+     */
+    private double[] mNormalX = new double[256];
+
+    /**
+     * The y-components of the normals.
+     */
+    private double[] mNormalY = new double[256];
+
+    /**
+     * The normal equations of an ICP iteration, the upper triangle of the symmetric 3x3 matrix in
+     * row-major order, followed by the right-hand side.
+     */
+    private final double[] mEquations = new double[9];
+
+    /**
+     * The translation along the x-axis of the last accepted match in meters.
+     */
+    private double mCorrectionX = 0;
+
+    /**
+     * The translation along the y-axis of the last accepted match.
+     */
+    private double mCorrectionY = 0;
+
+    /**
+     * The rotation of the last accepted match around the pivot in radians.
+     */
+    private double mCorrectionAngle = 0;
+
+    /**
+     * The number of paired points of the last match.
+     */
+    private int mPairCount = 0;
+
+    /**
+     * The root mean square distance in meters of the paired points from their lines.
+     */
+    private double mResidual = 0;
+
+    /**
+     * The number of accepted matches.
+     */
+    private int mMatchCount = 0;
+
+    /**
+     * The number of rejected matches.
+     */
+    private int mRejectedCount = 0;
+
+    /**
+     * The longest time in nanoseconds that a match took.
+     */
+    private long mMaxMatchTime = 0;
+
+    /**
+     * Adds a reading to the batch.
+     * @param x the x-coordinate of the sensor in the map
+     * @param y the y-coordinate of the sensor
+     * @param heading the heading of the sensor in radians
+     * @param distance the measured distance in meters
+     * @return true if the batch is full
+     */
+    public boolean addReading(double x, double y, double heading, double distance) {
+        if(mReadingCount < BATCH_SIZE) {
+            mReadingX[mReadingCount] = x;
+            mReadingY[mReadingCount] = y;
+            mReadingHeading[mReadingCount] = heading;
+            mReadingDistance[mReadingCount] = distance;
+            mReadingCount++;
+        }
+        return mReadingCount == BATCH_SIZE;
+    }
+
+    /**
+     * Turns all readings of the batch around a position and then moves them, like the map pose.
+     * @param angle the angle in radians to turn to the left
+     * @param x the x-coordinate of the center of the rotation
+     * @param y the y-coordinate
+     * @param dx the distance to move along the x-axis after the rotation
+     * @param dy the distance to move along the y-axis
+     */
+    public void moveReadings(double angle, double x, double y, double dx, double dy) {
+        double cos = Math.cos(angle);
+        double sin = Math.sin(angle);
+        for(int i = 0; i < mReadingCount; i++) {
+            double readingX = mReadingX[i] - x;
+            double readingY = mReadingY[i] - y;
+            mReadingX[i] = x + cos * readingX - sin * readingY + dx;
+            mReadingY[i] = y + sin * readingX + cos * readingY + dy;
+            mReadingHeading[i] += angle;
+        }
+    }
+
+    /**
+     * Integrates all readings of the batch into the grid and starts a new batch.
+     * @param grid the grid
+     */
+    public void integrateReadings(OccupancyGrid grid) {
+        for(int i = 0; i < mReadingCount; i++) {
+            grid.integrateUltrasonic(mReadingX[i], mReadingY[i], mReadingHeading[i], mReadingDistance[i]);
+        }
+        mReadingCount = 0;
+    }
+
+    /**
+     * Drops the readings of the batch without integrating them.
+     */
+    public void clearReadings() {
+        mReadingCount = 0;
+    }
+
+    /**
+     * @return the number of readings in the batch
+     */
+    public int getReadingCount() {
+        return mReadingCount;
+    }
+
+    /**
+     * Aligns the points of the batch with the grid. If the match is accepted, the correction is
+     * meant to be applied to the map pose and to the readings with #moveReadings(double, double,
+     * double, double, double), with the same pivot.
+     * @param grid the grid, which mustn't contain the readings of the batch yet
+     * @param pivotX the x-coordinate of the center of the rotation, e.g. the current position
+     * @param pivotY the y-coordinate
+     * @return true if the match was accepted
+     */
+    public boolean match(OccupancyGrid grid, double pivotX, double pivotY) {
+        long start = System.nanoTime();
+        int pointCount = collectPoints(pivotX, pivotY);
+        if(pointCount < MIN_POINTS || collectCells(grid, pivotX, pivotY, pointCount) < MIN_POINTS) {
+            return false;
+        }
+        boolean accepted = align(pointCount);
+        mMaxMatchTime = Math.max(mMaxMatchTime, System.nanoTime() - start);
+        if(!accepted) {
+            mRejectedCount++;
+            return false;
+        }
+        mMatchCount++;
+        return true;
+    }
+
+    /**
+     * Computes the points where the readings of the batch hit an obstacle.
+     * @return the number of points
+     */
+    private int collectPoints(double pivotX, double pivotY) {
+        int count = 0;
+        for(int i = 0; i < mReadingCount; i++) {
+            double distance = mReadingDistance[i];
+            if(distance >= MIN_RANGE && distance <= MAX_RANGE) {
+                mPointX[count] = mReadingX[i] + distance * Math.cos(mReadingHeading[i]) - pivotX;
+                mPointY[count] = mReadingY[i] + distance * Math.sin(mReadingHeading[i]) - pivotY;
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Puts the occupied cells around the points that have a line into the tree.
+     * @return the number of cells in the tree, 0 if the points are spread too far
+     */
+    private int collectCells(OccupancyGrid grid, double pivotX, double pivotY, int pointCount) {
+        double minX = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        for(int i = 0; i < pointCount; i++) {
+            minX = Math.min(minX, mPointX[i]);
+            maxX = Math.max(maxX, mPointX[i]);
+            minY = Math.min(minY, mPointY[i]);
+            maxY = Math.max(maxY, mPointY[i]);
+        }
+        double margin = MAX_PAIR_DISTANCE + MAX_TRANSLATION;
+        int firstX = grid.toCellX(pivotX + minX - margin) - NORMAL_RADIUS;
+        int firstY = grid.toCellY(pivotY + minY - margin) - NORMAL_RADIUS;
+        int width = grid.toCellX(pivotX + maxX + margin) + NORMAL_RADIUS + 1 - firstX;
+        int height = grid.toCellY(pivotY + maxY + margin) + NORMAL_RADIUS + 1 - firstY;
+        mTree.clear();
+        if(width > MAX_WINDOW || height > MAX_WINDOW) {
+            return 0;
+        }
+        for(int y = 0; y < height; y++) {
+            for(int x = 0; x < width; x++) {
+                mWindow[y * width + x] = grid.isOccupied(firstX + x, firstY + y);
+            }
+        }
+        for(int y = NORMAL_RADIUS; y < height - NORMAL_RADIUS; y++) {
+            for(int x = NORMAL_RADIUS; x < width - NORMAL_RADIUS; x++) {
+                if(mWindow[y * width + x]) {
+                    addCell(grid, width, firstX, firstY, x, y, pivotX, pivotY);
+                }
+            }
+        }
+        mTree.build();
+        return mTree.size();
+    }
+
+    /**
+     * Fits a line through the occupied neighbours of a cell and adds the cell to the tree if they
+     * form one.
+     */
+    private void addCell(OccupancyGrid grid, int width, int firstX, int firstY, int x, int y,
+                         double pivotX, double pivotY) {
+        int count = 0;
+        double sumX = 0;
+        double sumY = 0;
+        double sumXX = 0;
+        double sumXY = 0;
+        double sumYY = 0;
+        for(int dy = -NORMAL_RADIUS; dy <= NORMAL_RADIUS; dy++) {
+            for(int dx = -NORMAL_RADIUS; dx <= NORMAL_RADIUS; dx++) {
+                if(mWindow[(y + dy) * width + x + dx]) {
+                    count++;
+                    sumX += dx;
+                    sumY += dy;
+                    sumXX += dx * dx;
+                    sumXY += dx * dy;
+                    sumYY += dy * dy;
+                }
+            }
+        }
+        // The cell itself is counted as well
+        if(count - 1 < MIN_NEIGHBOURS) {
+            return;
+        }
+        double meanX = sumX / count;
+        double meanY = sumY / count;
+        double varianceX = sumXX / count - meanX * meanX;
+        double varianceY = sumYY / count - meanY * meanY;
+        double covariance = sumXY / count - meanX * meanY;
+        double mean = (varianceX + varianceY) / 2;
+        double difference = (varianceX - varianceY) / 2;
+        double spread = Math.sqrt(difference * difference + covariance * covariance);
+        if(mean - spread > MAX_LINE_SPREAD * (mean + spread)) {
+            return;
+        }
+        double direction = 0.5 * Math.atan2(2 * covariance, varianceX - varianceY);
+        int index = mTree.add(grid.toWorldX(firstX + x) - pivotX, grid.toWorldY(firstY + y) - pivotY);
+        if(index == mCellX.length) {
+            mCellX = Arrays.copyOf(mCellX, 2 * index);
+            mCellY = Arrays.copyOf(mCellY, 2 * index);
+            mNormalX = Arrays.copyOf(mNormalX, 2 * index);
+            mNormalY = Arrays.copyOf(mNormalY, 2 * index);
+        }
+        mCellX[index] = grid.toWorldX(firstX + x) - pivotX;
+        mCellY[index] = grid.toWorldY(firstY + y) - pivotY;
+        mNormalX[index] = -Math.sin(direction);
+        mNormalY[index] = Math.cos(direction);
+    }
+
+    /**
+     * Runs ICP on the points and checks the result.
+     * @return true if the match is accepted
+     */
+    private boolean align(int pointCount) {
+        double tx = 0;
+        double ty = 0;
+        double angle = 0;
+        double pointInformation = 1 / (POINT_NOISE * POINT_NOISE);
+        double translationInformation = 1 / (PRIOR_TRANSLATION * PRIOR_TRANSLATION);
+        double rotationInformation = 1 / (PRIOR_ROTATION * PRIOR_ROTATION);
+        for(int iteration = 0; iteration < MAX_ITERATIONS; iteration++) {
+            double cos = Math.cos(angle);
+            double sin = Math.sin(angle);
+            for(int i = 0; i < mEquations.length; i++) {
+                mEquations[i] = 0;
+            }
+            // J^T J and J^T r of the residuals n * (R p + t - q) in (tx, ty, angle)
+            for(int i = 0; i < pointCount; i++) {
+                double x = cos * mPointX[i] - sin * mPointY[i];
+                double y = sin * mPointX[i] + cos * mPointY[i];
+                int cell = mTree.nearest(x + tx, y + ty, MAX_PAIR_DISTANCE);
+                if(cell < 0) {
+                    continue;
+                }
+                double normalX = mNormalX[cell];
+                double normalY = mNormalY[cell];
+                double residual = normalX * (x + tx - mCellX[cell]) + normalY * (y + ty - mCellY[cell]);
+                double turn = normalY * x - normalX * y;
+                accumulate(normalX, normalY, turn, residual, pointInformation);
+            }
+            // The prior pulls the correction towards zero
+            mEquations[0] += translationInformation;
+            mEquations[3] += translationInformation;
+            mEquations[5] += rotationInformation;
+            mEquations[6] += translationInformation * tx;
+            mEquations[7] += translationInformation * ty;
+            mEquations[8] += rotationInformation * angle;
+            if(!solve()) {
+                return false;
+            }
+            tx -= mEquations[6];
+            ty -= mEquations[7];
+            angle -= mEquations[8];
+            if(Math.abs(mEquations[6]) < CONVERGENCE && Math.abs(mEquations[7]) < CONVERGENCE
+                    && Math.abs(mEquations[8]) < CONVERGENCE) {
+                break;
+            }
+        }
+        evaluate(pointCount, tx, ty, angle);
+        if(mPairCount < MIN_POINTS || mPairCount < MIN_PAIRED_RATIO * pointCount || mResidual > MAX_RESIDUAL
+                || tx * tx + ty * ty > MAX_TRANSLATION * MAX_TRANSLATION || Math.abs(angle) > MAX_ROTATION) {
+            return false;
+        }
+        mCorrectionX = tx;
+        mCorrectionY = ty;
+        mCorrectionAngle = angle;
+        return true;
+    }
+
+    /**
+     * Adds a residual with the Jacobian (a, b, c) to the normal equations.
+     */
+    private void accumulate(double a, double b, double c, double residual, double information) {
+        mEquations[0] += information * a * a;
+        mEquations[1] += information * a * b;
+        mEquations[2] += information * a * c;
+        mEquations[3] += information * b * b;
+        mEquations[4] += information * b * c;
+        mEquations[5] += information * c * c;
+        mEquations[6] += information * a * residual;
+        mEquations[7] += information * b * residual;
+        mEquations[8] += information * c * residual;
+    }
+
+    /**
+     * Solves the normal equations with a Cholesky decomposition, in place in the right-hand side.
+     * @return false if the equations are singular
+     */
+    private boolean solve() {
+        double l00 = mEquations[0];
+        if(l00 <= 0) {
+            return false;
+        }
+        l00 = Math.sqrt(l00);
+        double l10 = mEquations[1] / l00;
+        double l20 = mEquations[2] / l00;
+        double l11 = mEquations[3] - l10 * l10;
+        if(l11 <= 0) {
+            return false;
+        }
+        l11 = Math.sqrt(l11);
+        double l21 = (mEquations[4] - l20 * l10) / l11;
+        double l22 = mEquations[5] - l20 * l20 - l21 * l21;
+        if(l22 <= 0) {
+            return false;
+        }
+        l22 = Math.sqrt(l22);
+        double z0 = mEquations[6] / l00;
+        double z1 = (mEquations[7] - l10 * z0) / l11;
+        double z2 = (mEquations[8] - l20 * z0 - l21 * z1) / l22;
+        mEquations[8] = z2 / l22;
+        mEquations[7] = (z1 - l21 * mEquations[8]) / l11;
+        mEquations[6] = (z0 - l10 * mEquations[7] - l20 * mEquations[8]) / l00;
+        return true;
+    }
+
+    /**
+     * Counts the points that are paired with a cell after the match and their distance from the
+     * lines.
+     */
+    private void evaluate(int pointCount, double tx, double ty, double angle) {
+        double cos = Math.cos(angle);
+        double sin = Math.sin(angle);
+        double sum = 0;
+        mPairCount = 0;
+        for(int i = 0; i < pointCount; i++) {
+            double x = cos * mPointX[i] - sin * mPointY[i] + tx;
+            double y = sin * mPointX[i] + cos * mPointY[i] + ty;
+            int cell = mTree.nearest(x, y, MAX_PAIR_DISTANCE);
+            if(cell >= 0) {
+                double residual = mNormalX[cell] * (x - mCellX[cell]) + mNormalY[cell] * (y - mCellY[cell]);
+                sum += residual * residual;
+                mPairCount++;
+            }
+        }
+        mResidual = mPairCount > 0 ? Math.sqrt(sum / mPairCount) : Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * @return the translation along the x-axis of the last accepted match in meters
+     */
+    public double getCorrectionX() {
+        return mCorrectionX;
+    }
+
+    /**
+     * @return the translation along the y-axis of the last accepted match in meters
+     */
+    public double getCorrectionY() {
+        return mCorrectionY;
+    }
+
+    /**
+     * @return the rotation of the last accepted match around the pivot in radians
+     */
+    public double getCorrectionAngle() {
+        return mCorrectionAngle;
+    }
+
+    /**
+     * @return the number of paired points of the last match
+     */
+    public int getPairCount() {
+        return mPairCount;
+    }
+
+    /**
+     * @return the root mean square distance in meters of the paired points of the last match from
+     * their lines
+     */
+    public double getResidual() {
+        return mResidual;
+    }
+
+    /**
+     * @return the number of accepted matches
+     */
+    public int getMatchCount() {
+        return mMatchCount;
+    }
+
+    /**
+     * @return the number of rejected matches
+     */
+    public int getRejectedCount() {
+        return mRejectedCount;
+    }
+
+    /**
+     * @return the longest time in milliseconds that a match took
+     */
+    public double getMaxMatchTime() {
+        return mMaxMatchTime / 1e6;
+    }
+
+}
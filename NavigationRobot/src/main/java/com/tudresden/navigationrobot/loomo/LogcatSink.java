@@ -0,0 +1,17 @@
+package com.tudresden.navigationrobot.loomo;
+
+import android.util.Log;
+
+import com.tudresden.navigationrobot.robot.RobotLog;
+
+/**
+ * Writes the messages of RobotLog to the Android log.
+ */
+public class LogcatSink implements RobotLog.Sink {
+
+    @Override
+    public void log(String tag, String message) {
+        Log.d(tag, message);
+    }
+
+}
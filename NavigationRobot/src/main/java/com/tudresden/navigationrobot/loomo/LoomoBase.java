@@ -0,0 +1,249 @@
+package com.tudresden.navigationrobot.loomo;
+
+import android.content.Context;
+
+import com.segway.robot.algo.Pose2D;
+import com.segway.robot.algo.minicontroller.CheckPoint;
+import com.segway.robot.algo.minicontroller.CheckPointStateListener;
+import com.segway.robot.algo.minicontroller.ObstacleStateChangedListener;
+import com.segway.robot.sdk.base.bind.ServiceBinder;
+import com.segway.robot.sdk.locomotion.sbv.Base;
+import com.tudresden.navigationrobot.robot.Pose;
+import com.tudresden.navigationrobot.robot.RobotBase;
+
+/**
+ * The base of the Loomo. Wraps the Base instance of the Segway SDK, which puts the robot in
+ * navigation mode and forwards the checkpoint and obstacle events when it is bound. The settings of
+ * the obstacle avoidance are kept until the service is bound. The events are delivered on the
+ * thread of the SDK, while the methods are called on the thread of the exploration. While the
+ * service isn't bound, commands are ignored and there is no odometry pose.
+ */
+public class LoomoBase implements RobotBase {
+
+    /**
+     * The application context.
+     */
+    private Context mContext;
+
+    /**
+     * The base instance of the SDK or null if the service isn't bound.
+     */
+    private volatile Base mBase = null;
+
+    /**
+     * True while the base instance is bound to its service.
+     */
+    private volatile boolean mBound = false;
+
+    /**
+     * The listener that receives the events of the base or null.
+     */
+    private volatile Listener mListener = null;
+
+    /**
+     * True if the robot stops in front of obstacles.
+     */
+    private volatile boolean mObstacleAvoidanceEnabled = false;
+
+    /**
+     * The distance in meters at which the robot stops in front of obstacles or 0 for the default.
+     */
+    private volatile float mObstacleAvoidanceDistance = 0;
+
+    /**
+     * True if the base is driven with velocities instead of checkpoints.
+     */
+    private volatile boolean mVelocityMode = false;
+
+    /**
+     * The listener for the bind status of the base instance.
+     */
+    private ServiceBinder.BindStateListener mBindStateListener = new ServiceBinder.BindStateListener() {
+        @Override
+        public void onBind() {
+            mBase.setControlMode(mVelocityMode ? Base.CONTROL_MODE_RAW : Base.CONTROL_MODE_NAVIGATION);
+            mBase.setUltrasonicObstacleAvoidanceEnabled(mObstacleAvoidanceEnabled);
+            if(mObstacleAvoidanceDistance > 0) {
+                mBase.setUltrasonicObstacleAvoidanceDistance(mObstacleAvoidanceDistance);
+            }
+            mBase.setOnCheckPointArrivedListener(new CheckPointStateListener() {
+                @Override
+                public void onCheckPointArrived(CheckPoint checkPoint, Pose2D realPose, boolean isLast) {
+                    Listener listener = mListener;
+                    if(listener != null) {
+                        listener.onCheckPointArrived(toPose(realPose), isLast);
+                    }
+                }
+
+                @Override
+                public void onCheckPointMiss(CheckPoint checkPoint, Pose2D realPose, boolean isLast, int reason) {
+                    Listener listener = mListener;
+                    if(listener != null) {
+                        listener.onCheckPointMiss(toPose(realPose), isLast);
+                    }
+                }
+            });
+            mBase.setObstacleStateChangeListener(new ObstacleStateChangedListener() {
+                @Override
+                public void onObstacleStateChanged(int ObstacleAppearance) {
+                    Listener listener = mListener;
+                    if(listener != null) {
+                        listener.onObstacleStateChanged(
+                                ObstacleAppearance == ObstacleStateChangedListener.OBSTACLE_APPEARED);
+                    }
+                }
+            });
+            mBound = true;
+        }
+
+        @Override
+        public void onUnbind(String reason) {
+            mBound = false;
+        }
+    };
+
+    /**
+     * @param context the application context
+     */
+    public LoomoBase(Context context) {
+        this.mContext = context;
+    }
+
+    /**
+     * Binds the base instance to the respective service.
+     */
+    public void bindService() {
+        mBase = Base.getInstance();
+        mBase.bindService(mContext, mBindStateListener);
+    }
+
+    /**
+     * Unbinds the base instance from the respective service.
+     */
+    public void unbindService() {
+        mBound = false;
+        if(mBase != null) {
+            mBase.unbindService();
+        }
+    }
+
+    /**
+     * @return true if the base instance is bound to its service and can be driven
+     */
+    public boolean isBound() {
+        return mBound;
+    }
+
+    @Override
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    @Override
+    public void addCheckPoint(float x, float y) {
+        if(!mBound) {
+            return;
+        }
+        setNavigationMode();
+        mBase.addCheckPoint(x, y);
+    }
+
+    @Override
+    public void addCheckPoint(float x, float y, float theta) {
+        if(!mBound) {
+            return;
+        }
+        setNavigationMode();
+        mBase.addCheckPoint(x, y, theta);
+    }
+
+    @Override
+    public void clearCheckPointsAndStop() {
+        if(!mBound) {
+            return;
+        }
+        if(mVelocityMode) {
+            mBase.setLinearVelocity(0);
+            mBase.setAngularVelocity(0);
+        } else {
+            mBase.clearCheckPointsAndStop();
+        }
+    }
+
+    @Override
+    public void setVelocity(float linear, float angular) {
+        if(!mBound) {
+            return;
+        }
+        if(!mVelocityMode) {
+            mBase.clearCheckPointsAndStop();
+            mBase.setControlMode(Base.CONTROL_MODE_RAW);
+            mVelocityMode = true;
+        }
+        mBase.setLinearVelocity(linear);
+        mBase.setAngularVelocity(angular);
+    }
+
+    /**
+     * Stops the robot and switches the base back to the checkpoint navigation if it is driven with
+     * velocities.
+     */
+    private void setNavigationMode() {
+        if(mVelocityMode) {
+            mBase.setLinearVelocity(0);
+            mBase.setAngularVelocity(0);
+            mBase.setControlMode(Base.CONTROL_MODE_NAVIGATION);
+            mVelocityMode = false;
+        }
+    }
+
+    @Override
+    public void cleanOriginalPoint() {
+        if(mBound) {
+            mBase.cleanOriginalPoint();
+        }
+    }
+
+    @Override
+    public void setOriginalPoint(Pose pose) {
+        if(!mBound || pose == null) {
+            return;
+        }
+        mBase.setOriginalPoint(new Pose2D(pose.getX(), pose.getY(), pose.getTheta(), 0, 0, pose.getTimestamp()));
+    }
+
+    @Override
+    public Pose getOdometryPose() {
+        if(!mBound) {
+            return null;
+        }
+        return toPose(mBase.getOdometryPose(-1));
+    }
+
+    @Override
+    public void setUltrasonicObstacleAvoidanceEnabled(boolean enabled) {
+        mObstacleAvoidanceEnabled = enabled;
+        if(mBound) {
+            mBase.setUltrasonicObstacleAvoidanceEnabled(enabled);
+        }
+    }
+
+    @Override
+    public void setUltrasonicObstacleAvoidanceDistance(float distance) {
+        mObstacleAvoidanceDistance = distance;
+        if(mBound) {
+            mBase.setUltrasonicObstacleAvoidanceDistance(distance);
+        }
+    }
+
+    /**
+     * @return the pose of the SDK converted to a Pose or null if there is none
+     */
+    private static Pose toPose(Pose2D pose) {
+        if(pose == null) {
+            return null;
+        }
+        return new Pose(pose.getX(), pose.getY(), pose.getTheta(), pose.getTimestamp());
+    }
+
+}
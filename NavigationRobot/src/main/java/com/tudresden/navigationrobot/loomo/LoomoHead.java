@@ -0,0 +1,192 @@
+package com.tudresden.navigationrobot.loomo;
+
+import android.content.Context;
+
+import com.segway.robot.sdk.base.bind.ServiceBinder;
+import com.segway.robot.sdk.locomotion.head.Head;
+import com.segway.robot.sdk.vision.Vision;
+import com.segway.robot.sdk.vision.frame.Frame;
+import com.segway.robot.sdk.vision.stream.StreamInfo;
+import com.segway.robot.sdk.vision.stream.StreamType;
+import com.tudresden.navigationrobot.robot.RobotHead;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * The head of the Loomo. Wraps the Head instance of the Segway SDK, which turns the head relative to
+ * the base, and the Vision instance, whose depth frames give the distance in the middle of the view.
+ * The depth frames are delivered on the thread of the SDK, the latest distance is kept until it is
+ * read.
+ */
+public class LoomoHead implements RobotHead {
+
+    /**
+     * The shortest distance that is returned in millimeters.
+     */
+    private static final float MIN_DISTANCE = 300;
+
+    /**
+     * The longest distance that is returned in millimeters.
+     */
+    private static final float MAX_DISTANCE = 3000;
+
+    /**
+     * Half the edge length in pixels of the square in the middle of the depth frame that the
+     * distance is taken from.
+     */
+    private static final int PATCH_HALF_SIZE = 8;
+
+    /**
+     * The application context.
+     */
+    private Context mContext;
+
+    /**
+     * The head instance of the SDK or null if the service isn't bound.
+     */
+    private volatile Head mHead = null;
+
+    /**
+     * The vision instance of the SDK or null if the service isn't bound.
+     */
+    private volatile Vision mVision = null;
+
+    /**
+     * The angle of the head relative to the base in radians, kept until the service is bound.
+     */
+    private volatile float mYaw = 0;
+
+    /**
+     * The width of the depth frames in pixels.
+     */
+    private volatile int mDepthWidth = 0;
+
+    /**
+     * The height of the depth frames in pixels.
+     */
+    private volatile int mDepthHeight = 0;
+
+    /**
+     * The distance in the middle of the latest depth frame in millimeters.
+     */
+    private volatile float mRangeDistance = MAX_DISTANCE;
+
+    /**
+     * The valid depths of the patch of the latest frame, only used on the thread of the SDK.
+     */
+    private final int[] mPatch = new int[(2 * PATCH_HALF_SIZE) * (2 * PATCH_HALF_SIZE)];
+
+    /**
+     * The listener for the bind status of the head instance.
+     */
+    private ServiceBinder.BindStateListener mHeadBindStateListener = new ServiceBinder.BindStateListener() {
+        @Override
+        public void onBind() {
+            mHead.setMode(Head.MODE_SMOOTH_TACKING);
+            mHead.setWorldPitch(0);
+            mHead.setHeadJointYaw(mYaw);
+        }
+
+        @Override
+        public void onUnbind(String reason) {}
+    };
+
+    /**
+     * The listener for the bind status of the vision instance.
+     */
+    private ServiceBinder.BindStateListener mVisionBindStateListener = new ServiceBinder.BindStateListener() {
+        @Override
+        public void onBind() {
+            StreamInfo[] infos = mVision.getActivatedStreamInfo();
+            if(infos != null) {
+                for(StreamInfo info : infos) {
+                    if(info.getStreamType() == StreamType.DEPTH) {
+                        mDepthWidth = info.getWidth();
+                        mDepthHeight = info.getHeight();
+                    }
+                }
+            }
+            mVision.startListenFrame(StreamType.DEPTH, mFrameListener);
+        }
+
+        @Override
+        public void onUnbind(String reason) {}
+    };
+
+    /**
+     * Takes the median of the valid depths in the middle of every depth frame.
+     */
+    private Vision.FrameListener mFrameListener = new Vision.FrameListener() {
+        @Override
+        public void onNewFrame(int streamType, Frame frame) {
+            int width = mDepthWidth;
+            int height = mDepthHeight;
+            if(width < 2 * PATCH_HALF_SIZE || height < 2 * PATCH_HALF_SIZE) {
+                return;
+            }
+            // The depth is stored as unsigned 16 bit millimeters, 0 means no reading
+            ByteBuffer buffer = frame.getByteBuffer().order(ByteOrder.LITTLE_ENDIAN);
+            int count = 0;
+            for(int y = height / 2 - PATCH_HALF_SIZE; y < height / 2 + PATCH_HALF_SIZE; y++) {
+                for(int x = width / 2 - PATCH_HALF_SIZE; x < width / 2 + PATCH_HALF_SIZE; x++) {
+                    int depth = buffer.getShort(2 * (y * width + x)) & 0xffff;
+                    if(depth > 0) {
+                        mPatch[count++] = depth;
+                    }
+                }
+            }
+            if(count == 0) {
+                mRangeDistance = MAX_DISTANCE;
+                return;
+            }
+            Arrays.sort(mPatch, 0, count);
+            mRangeDistance = Math.max(MIN_DISTANCE, Math.min(MAX_DISTANCE, mPatch[count / 2]));
+        }
+    };
+
+    /**
+     * @param context the application context
+     */
+    public LoomoHead(Context context) {
+        this.mContext = context;
+    }
+
+    /**
+     * Binds the head and the vision instance to the respective services.
+     */
+    public void bindService() {
+        mHead = Head.getInstance();
+        mHead.bindService(mContext, mHeadBindStateListener);
+        mVision = Vision.getInstance();
+        mVision.bindService(mContext, mVisionBindStateListener);
+    }
+
+    /**
+     * Unbinds the head and the vision instance from the respective services.
+     */
+    public void unbindService() {
+        if(mVision != null) {
+            mVision.stopListenFrame(StreamType.DEPTH);
+            mVision.unbindService();
+        }
+        if(mHead != null) {
+            mHead.unbindService();
+        }
+    }
+
+    @Override
+    public void setYaw(float yaw) {
+        mYaw = yaw;
+        if(mHead != null) {
+            mHead.setHeadJointYaw(yaw);
+        }
+    }
+
+    @Override
+    public float getRangeDistance() {
+        return mRangeDistance;
+    }
+
+}
@@ -0,0 +1,143 @@
+package com.tudresden.navigationrobot.loomo;
+
+import android.content.Context;
+
+import com.segway.robot.sdk.base.bind.ServiceBinder;
+import com.segway.robot.sdk.perception.sensor.InfraredData;
+import com.segway.robot.sdk.perception.sensor.Sensor;
+import com.segway.robot.sdk.perception.sensor.SensorData;
+import com.tudresden.navigationrobot.robot.RobotSensor;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The sensors of the Loomo. Wraps the Sensor instance of the Segway SDK. While the service isn't
+ * bound, the distance sensors see nothing and there is no yaw.
+ */
+public class LoomoSensor implements RobotSensor {
+
+    /**
+     * The distance in millimeters that is returned if the ultrasonic sensor can't be read.
+     */
+    private static final float ULTRASONIC_MAX = 1500;
+
+    /**
+     * The distance in millimeters that is returned if the infrared sensors don't see anything.
+     */
+    private static final float INFRARED_MAX = 1500;
+
+    /**
+     * The sensors that are queried for the yaw of the base.
+     */
+    private static final List<Integer> BASE_IMU = Collections.singletonList(Sensor.BASE_IMU);
+
+    /**
+     * The index of the yaw in the float data of the IMU of the base, after the pitch and the roll.
+     */
+    private static final int YAW_INDEX = 2;
+
+    /**
+     * The application context.
+     */
+    private Context mContext;
+
+    /**
+     * The sensor instance of the SDK or null if the service isn't bound.
+     */
+    private volatile Sensor mSensor = null;
+
+    /**
+     * True while the sensor instance is bound to its service.
+     */
+    private volatile boolean mBound = false;
+
+    /**
+     * The listener for the bind status of the sensor instance.
+     */
+    private ServiceBinder.BindStateListener mBindStateListener = new ServiceBinder.BindStateListener() {
+        @Override
+        public void onBind() {
+            mBound = true;
+        }
+
+        @Override
+        public void onUnbind(String reason) {
+            mBound = false;
+        }
+    };
+
+    /**
+     * @param context the application context
+     */
+    public LoomoSensor(Context context) {
+        this.mContext = context;
+    }
+
+    /**
+     * Binds the sensor instance to the respective service.
+     */
+    public void bindService() {
+        mSensor = Sensor.getInstance();
+        mSensor.bindService(mContext, mBindStateListener);
+    }
+
+    /**
+     * Unbinds the sensor instance from the respective service.
+     */
+    public void unbindService() {
+        mBound = false;
+        if(mSensor != null) {
+            mSensor.unbindService();
+        }
+    }
+
+    /**
+     * @return true if the sensor instance is bound to its service and can be read
+     */
+    public boolean isBound() {
+        return mBound;
+    }
+
+    @Override
+    public float getUltrasonicDistance() {
+        if(!mBound) {
+            return ULTRASONIC_MAX;
+        }
+        return mSensor.getUltrasonicDistance().getDistance();
+    }
+
+    /**
+     * The Loomo has two infrared sensors in front, the closer reading of both is returned.
+     */
+    @Override
+    public float getInfraredDistance() {
+        if(!mBound) {
+            return INFRARED_MAX;
+        }
+        InfraredData data = mSensor.getInfraredDistance();
+        float distance = Math.min(data.getLeftDistance(), data.getRightDistance());
+        if(distance <= 0 || distance > INFRARED_MAX) {
+            return INFRARED_MAX;
+        }
+        return distance;
+    }
+
+    /**
+     * The IMU of the base reports its pitch, roll and yaw in radians.
+     */
+    @Override
+    public float getBaseYaw() {
+        Sensor sensor = mSensor;
+        if(sensor == null || !mBound) {
+            return Float.NaN;
+        }
+        List<SensorData> data = sensor.querySensorData(BASE_IMU);
+        if(data == null || data.isEmpty() || data.get(0).getFloatData() == null
+                || data.get(0).getFloatData().length <= YAW_INDEX) {
+            return Float.NaN;
+        }
+        return data.get(0).getFloatData()[YAW_INDEX];
+    }
+
+}
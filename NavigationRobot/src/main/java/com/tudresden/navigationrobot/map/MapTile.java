@@ -0,0 +1,369 @@
+package com.tudresden.navigationrobot.map;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A square tile of TILE_SIZE x TILE_SIZE cells of the occupancy grid. The cells of a tile are stored
+ * in a quadtree: A node whose cells all have the same log-odds is stored as a single value, only
+ * nodes with differing cells are split into four children. At the lowest level the cells are stored
+ * in a dense block of LEAF_SIZE x LEAF_SIZE floats.
+ * Large free areas and walls that have been observed often enough saturate at the bounds of the
+ * log-odds and therefore collapse into a handful of nodes.
+ */
+class MapTile {
+
+    /**
+     * The binary logarithm of the edge length of a tile in cells.
+     */
+    static final int TILE_SHIFT = 6;
+
+    /**
+     * The edge length of a tile in cells.
+     */
+    static final int TILE_SIZE = 1 << TILE_SHIFT;
+
+    /**
+     * The binary logarithm of the edge length of a dense block in cells.
+     */
+    static final int LEAF_SHIFT = 3;
+
+    /**
+     * The edge length of a dense block in cells.
+     */
+    static final int LEAF_SIZE = 1 << LEAF_SHIFT;
+
+    /**
+     * The approximate number of bytes that a dense block occupies on the heap.
+     */
+    static final int LEAF_BYTES = LEAF_SIZE * LEAF_SIZE * 4 + 16 + 24;
+
+    /**
+     * The approximate number of bytes that a split node occupies on the heap (without its children).
+     */
+    static final int NODE_BYTES = 4 * 4 + 16 + 24;
+
+    /**
+     * The approximate number of bytes that a tile occupies on the heap without any nodes.
+     */
+    static final int TILE_BYTES = 64;
+
+    /**
+     * Marks a node whose cells all have the same value in the binary format.
+     */
+    private static final byte TAG_UNIFORM = 0;
+
+    /**
+     * Marks a node that is split into four children in the binary format.
+     */
+    private static final byte TAG_SPLIT = 1;
+
+    /**
+     * Marks a dense block in the binary format.
+     */
+    private static final byte TAG_DENSE = 2;
+
+    /**
+     * A node of the quadtree. Exactly one of the following holds: cells != null (dense block),
+     * children != null (split node) or both are null (uniform node, all cells have the given value).
+     */
+    static final class Node {
+
+        float value;
+
+        Node[] children;
+
+        float[] cells;
+
+        Node(float value) {
+            this.value = value;
+        }
+    }
+
+    /**
+     * The x-index of this tile (the x-index of its first cell divided by TILE_SIZE).
+     */
+    final int mTileX;
+
+    /**
+     * The y-index of this tile (the y-index of its first cell divided by TILE_SIZE).
+     */
+    final int mTileY;
+
+    /**
+     * The root of the quadtree or null if the tile has been spilled to disk.
+     */
+    Node mRoot;
+
+    /**
+     * The number of dense blocks in the quadtree.
+     */
+    int mLeafCount = 0;
+
+    /**
+     * The number of split nodes in the quadtree.
+     */
+    int mSplitCount = 0;
+
+    /**
+     * The value of the access clock of the map when this tile was last accessed.
+     */
+    long mLastAccess = 0;
+
+    /**
+     * Indicates whether the tile was modified since it was last written to disk.
+     */
+    boolean mDirty = true;
+
+    /**
+     * Creates a new tile in which all cells are unknown.
+     * @param tileX the x-index of the tile
+     * @param tileY the y-index of the tile
+     */
+    MapTile(int tileX, int tileY) {
+        this.mTileX = tileX;
+        this.mTileY = tileY;
+        this.mRoot = new Node(0f);
+    }
+
+    /**
+     * @return the approximate number of bytes that this tile occupies on the heap
+     */
+    long memoryUsage() {
+        return TILE_BYTES + (long) mLeafCount * LEAF_BYTES + (long) mSplitCount * NODE_BYTES;
+    }
+
+    /**
+     * @param localX the x-index of a cell within this tile
+     * @param localY the y-index of a cell within this tile
+     * @return the log-odds of the cell
+     */
+    float get(int localX, int localY) {
+        Node node = mRoot;
+        int half = TILE_SIZE >> 1;
+        while(true) {
+            if(node.cells != null) {
+                return node.cells[((localY & (LEAF_SIZE - 1)) << LEAF_SHIFT) + (localX & (LEAF_SIZE - 1))];
+            }
+            if(node.children == null) {
+                return node.value;
+            }
+            node = node.children[childIndex(localX, localY, half)];
+            half >>= 1;
+        }
+    }
+
+    /**
+     * Adds a log-odds update to a cell and clamps the result to the given bounds. Nodes along the
+     * way are split if necessary.
+     * @param localX the x-index of the cell within this tile
+     * @param localY the y-index of the cell within this tile
+     * @param delta the log-odds that are added to the cell
+     * @param min the lower bound of the log-odds
+     * @param max the upper bound of the log-odds
+     */
+    void add(int localX, int localY, float delta, float min, float max) {
+        Node node = mRoot;
+        int size = TILE_SIZE;
+        while(node.cells == null) {
+            if(node.children == null) {
+                float value = node.value + delta;
+                if(value > max) {
+                    value = max;
+                } else if(value < min) {
+                    value = min;
+                }
+                if(value == node.value) {
+                    // Saturated, nothing changes
+                    return;
+                }
+                split(node, size);
+                if(node.cells != null) {
+                    break;
+                }
+            }
+            int half = size >> 1;
+            node = node.children[childIndex(localX, localY, half)];
+            size = half;
+        }
+        int index = ((localY & (LEAF_SIZE - 1)) << LEAF_SHIFT) + (localX & (LEAF_SIZE - 1));
+        float value = node.cells[index] + delta;
+        if(value > max) {
+            value = max;
+        } else if(value < min) {
+            value = min;
+        }
+        node.cells[index] = value;
+        mDirty = true;
+    }
+
+    /**
+     * Turns a uniform node into a split node with four uniform children or, at the lowest level,
+     * into a dense block.
+     */
+    private void split(Node node, int size) {
+        if(size == LEAF_SIZE) {
+            float[] cells = new float[LEAF_SIZE * LEAF_SIZE];
+            if(node.value != 0f) {
+                Arrays.fill(cells, node.value);
+            }
+            node.cells = cells;
+            mLeafCount++;
+        } else {
+            node.children = new Node[] {
+                    new Node(node.value), new Node(node.value), new Node(node.value), new Node(node.value)
+            };
+            mSplitCount++;
+        }
+    }
+
+    /**
+     * Collapses all nodes whose cells have the same value.
+     * @return true if the whole tile is uniform afterwards
+     */
+    boolean compact() {
+        return compact(mRoot);
+    }
+
+    private boolean compact(Node node) {
+        if(node.cells != null) {
+            float[] cells = node.cells;
+            float first = cells[0];
+            for(int i = 1; i < cells.length; i++) {
+                if(cells[i] != first) {
+                    return false;
+                }
+            }
+            node.cells = null;
+            node.value = first;
+            mLeafCount--;
+            return true;
+        }
+        if(node.children == null) {
+            return true;
+        }
+        boolean uniform = true;
+        for(Node child : node.children) {
+            // Compact every child, even if an earlier one is not uniform
+            uniform &= compact(child);
+        }
+        if(!uniform) {
+            return false;
+        }
+        float first = node.children[0].value;
+        for(int i = 1; i < 4; i++) {
+            if(node.children[i].value != first) {
+                return false;
+            }
+        }
+        node.children = null;
+        node.value = first;
+        mSplitCount--;
+        return true;
+    }
+
+    /**
+     * Reports the uniform regions and the cells of dense blocks of this tile that overlap a window
+     * of cells. Nodes outside of the window are skipped.
+     * @param minCellX the smallest x-index of the window
+     * @param minCellY the smallest y-index of the window
+     * @param maxCellX the greatest x-index of the window
+     * @param maxCellY the greatest y-index of the window
+     * @param visitor the visitor that the regions are reported to
+     */
+    void visit(int minCellX, int minCellY, int maxCellX, int maxCellY, OccupancyGrid.RegionVisitor visitor) {
+        visit(mRoot, mTileX << TILE_SHIFT, mTileY << TILE_SHIFT, TILE_SIZE,
+                minCellX, minCellY, maxCellX, maxCellY, visitor);
+    }
+
+    private static void visit(Node node, int cellX, int cellY, int size, int minCellX, int minCellY,
+                              int maxCellX, int maxCellY, OccupancyGrid.RegionVisitor visitor) {
+        if(cellX > maxCellX || cellY > maxCellY || cellX + size - 1 < minCellX || cellY + size - 1 < minCellY) {
+            return;
+        }
+        if(node.cells != null) {
+            for(int y = Math.max(minCellY - cellY, 0); y < Math.min(maxCellY - cellY + 1, LEAF_SIZE); y++) {
+                for(int x = Math.max(minCellX - cellX, 0); x < Math.min(maxCellX - cellX + 1, LEAF_SIZE); x++) {
+                    visitor.visit(cellX + x, cellY + y, 1, node.cells[(y << LEAF_SHIFT) + x]);
+                }
+            }
+        } else if(node.children == null) {
+            visitor.visit(cellX, cellY, size, node.value);
+        } else {
+            int half = size >> 1;
+            visit(node.children[0], cellX, cellY, half, minCellX, minCellY, maxCellX, maxCellY, visitor);
+            visit(node.children[1], cellX + half, cellY, half, minCellX, minCellY, maxCellX, maxCellY, visitor);
+            visit(node.children[2], cellX, cellY + half, half, minCellX, minCellY, maxCellX, maxCellY, visitor);
+            visit(node.children[3], cellX + half, cellY + half, half, minCellX, minCellY, maxCellX, maxCellY,
+                    visitor);
+        }
+    }
+
+    /**
+     * Writes the quadtree of this tile in preorder.
+     * @param out the output that the tile is written to
+     */
+    void write(DataOutput out) throws IOException {
+        write(mRoot, out);
+    }
+
+    private static void write(Node node, DataOutput out) throws IOException {
+        if(node.cells != null) {
+            out.writeByte(TAG_DENSE);
+            for(float cell : node.cells) {
+                out.writeFloat(cell);
+            }
+        } else if(node.children == null) {
+            out.writeByte(TAG_UNIFORM);
+            out.writeFloat(node.value);
+        } else {
+            out.writeByte(TAG_SPLIT);
+            for(Node child : node.children) {
+                write(child, out);
+            }
+        }
+    }
+
+    /**
+     * Replaces the quadtree of this tile with a quadtree that was written by #write(DataOutput).
+     * @param in the input that the tile is read from
+     */
+    void read(DataInput in) throws IOException {
+        mLeafCount = 0;
+        mSplitCount = 0;
+        mRoot = read(in, TILE_SIZE);
+    }
+
+    private Node read(DataInput in, int size) throws IOException {
+        byte tag = in.readByte();
+        Node node = new Node(0f);
+        if(tag == TAG_UNIFORM) {
+            node.value = in.readFloat();
+        } else if(tag == TAG_DENSE && size == LEAF_SIZE) {
+            node.cells = new float[LEAF_SIZE * LEAF_SIZE];
+            for(int i = 0; i < node.cells.length; i++) {
+                node.cells[i] = in.readFloat();
+            }
+            mLeafCount++;
+        } else if(tag == TAG_SPLIT && size > LEAF_SIZE) {
+            int half = size >> 1;
+            node.children = new Node[] {
+                    read(in, half), read(in, half), read(in, half), read(in, half)
+            };
+            mSplitCount++;
+        } else {
+            throw new IOException("Corrupt tile " + mTileX + "," + mTileY);
+        }
+        return node;
+    }
+
+    /**
+     * @return the index of the child of a node with the given half edge length that contains the cell
+     */
+    private static int childIndex(int localX, int localY, int half) {
+        return ((localY & half) != 0 ? 2 : 0) + ((localX & half) != 0 ? 1 : 0);
+    }
+
+}
@@ -0,0 +1,643 @@
+package com.tudresden.navigationrobot.map;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A file of tiles of the occupancy grid that is mapped into memory with FileChannel.map(), so a
+ * large map opens without reading its quadtrees and only the pages of the tiles that are actually
+ * read are faulted in. Nothing is copied onto the heap: the cells are read straight from the mapped buffer.
+ * <p>
+ * The file starts with a header: the magic number "LMPT", the version, the resolution, the number
+ * of tiles, the number of slots of the directory and the bounds of the tiles. The directory follows
+ * with a fixed size of DIRECTORY_ENTRY_BYTES per slot. It is an open addressing hash table like
+ * TileIndex, so a tile is found without reading the whole directory: every entry holds the
+ * coordinates of a tile and the offset of its quadtree, or an offset of 0 for an empty slot.
+ * The quadtrees follow in preorder like in MapTile#write(DataOutput), except that a split node
+ * holds the offsets of its last three children relative to itself, so a cell is found by skipping
+ * the other children instead of parsing them.
+ * <p>
+ * The store is read-only. Changing a mapped tile copies it into a MapTile first, see
+ * #readTile(int).
+ * <p>
+ * The directory is checked when the file is opened, so a truncated file is rejected right away.
+ * The quadtrees are only checked while they are read: every node has to lie within the quadtree of
+ * its tile and every child behind its parent. A corrupt quadtree makes the accessors throw an
+ * IllegalStateException with an IOException as its cause, like a spilled tile that can't be read.
+ */
+class MappedTileStore {
+
+    /**
+     * The first four bytes of the file, "LMPT".
+     */
+    private static final int MAGIC = 0x4C4D5054;
+
+    /**
+     * The version of the file format.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * The size of the header in bytes.
+     */
+    private static final int HEADER_BYTES = 40;
+
+    /**
+     * The size of an entry of the directory in bytes: the x-index, the y-index and the offset of a
+     * tile and the length of its quadtree.
+     */
+    private static final int DIRECTORY_ENTRY_BYTES = 16;
+
+    /**
+     * The size of a uniform node in bytes: the tag and the value.
+     */
+    private static final int UNIFORM_BYTES = 1 + 4;
+
+    /**
+     * The size of a dense block in bytes: the tag and the cells.
+     */
+    private static final int DENSE_BYTES = 1 + MapTile.LEAF_SIZE * MapTile.LEAF_SIZE * 4;
+
+    /**
+     * The size of a split node without its children in bytes: the tag and the offsets of the last
+     * three children. The first child follows right after it.
+     */
+    private static final int SPLIT_BYTES = 1 + 3 * 4;
+
+    /**
+     * Marks a node whose cells all have the same value.
+     */
+    private static final byte TAG_UNIFORM = 0;
+
+    /**
+     * Marks a node that is split into four children.
+     */
+    private static final byte TAG_SPLIT = 1;
+
+    /**
+     * Marks a dense block.
+     */
+    private static final byte TAG_DENSE = 2;
+
+    /**
+     * The mapped file.
+     */
+    private final ByteBuffer mBuffer;
+
+    /**
+     * The edge length of a cell in meters.
+     */
+    private final double mResolution;
+
+    /**
+     * The number of tiles in the file.
+     */
+    private final int mTileCount;
+
+    /**
+     * The number of slots of the directory. A power of two.
+     */
+    private final int mSlotCount;
+
+    /**
+     * The smallest x-index of all tiles.
+     */
+    final int mMinTileX;
+
+    /**
+     * The smallest y-index of all tiles.
+     */
+    final int mMinTileY;
+
+    /**
+     * The greatest x-index of all tiles.
+     */
+    final int mMaxTileX;
+
+    /**
+     * The greatest y-index of all tiles.
+     */
+    final int mMaxTileY;
+
+    /**
+     * The x-index of the tile that was looked up last.
+     */
+    private int mLastTileX = Integer.MIN_VALUE;
+
+    /**
+     * The y-index of the tile that was looked up last.
+     */
+    private int mLastTileY = Integer.MIN_VALUE;
+
+    /**
+     * The offset of the quadtree of the tile that was looked up last or 0 if it doesn't exist.
+     * Consecutive reads mostly hit the same tile, so this saves most of the lookups in the
+     * directory.
+     */
+    private int mLastOffset = 0;
+
+    /**
+     * The offset of the end of the quadtree of the tile that was looked up last.
+     */
+    private int mLastEnd = 0;
+
+    /**
+     * @param buffer the mapped file, positioned at its start
+     */
+    private MappedTileStore(ByteBuffer buffer) throws IOException {
+        this.mBuffer = buffer;
+        if(buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a tile file of an occupancy grid");
+        }
+        int version = buffer.getInt(4);
+        if(version != VERSION) {
+            throw new IOException("Unsupported tile file version " + version);
+        }
+        mResolution = buffer.getDouble(8);
+        mTileCount = buffer.getInt(16);
+        mSlotCount = buffer.getInt(20);
+        mMinTileX = buffer.getInt(24);
+        mMinTileY = buffer.getInt(28);
+        mMaxTileX = buffer.getInt(32);
+        mMaxTileY = buffer.getInt(36);
+        if(mTileCount < 0 || mSlotCount <= mTileCount || Integer.bitCount(mSlotCount) != 1
+                || (long) HEADER_BYTES + (long) mSlotCount * DIRECTORY_ENTRY_BYTES > buffer.capacity()) {
+            throw new IOException("Corrupt directory of the tile file");
+        }
+        int directoryEnd = entry(mSlotCount);
+        int tiles = 0;
+        for(int slot = 0; slot < mSlotCount; slot++) {
+            int offset = buffer.getInt(entry(slot) + 8);
+            if(offset == 0) {
+                continue;
+            }
+            int length = buffer.getInt(entry(slot) + 12);
+            if(offset < directoryEnd || length < UNIFORM_BYTES || (long) offset + length > buffer.capacity()) {
+                throw new IOException("Corrupt directory entry " + slot + " of the tile file");
+            }
+            tiles++;
+        }
+        if(tiles != mTileCount) {
+            throw new IOException("Expected " + mTileCount + " tiles in the tile file but found " + tiles);
+        }
+    }
+
+    /**
+     * Maps a file that a Writer has written. Only the header and the directory are read, so this
+     * takes a time that depends on the number of tiles rather than on the size of their quadtrees. The file may be replaced or deleted
+     * afterwards, the mapping keeps the old content.
+     * @param file the file
+     * @return the store
+     * @throws IOException if the file couldn't be mapped or isn't a tile file
+     */
+    static MappedTileStore open(File file) throws IOException {
+        try(RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            if(raf.length() > Integer.MAX_VALUE) {
+                throw new IOException("The tile file is too large to be mapped");
+            }
+            // The mapping stays valid after the channel is closed
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+            return new MappedTileStore(buffer);
+        }
+    }
+
+    /**
+     * @return the edge length of a cell in meters
+     */
+    double getResolution() {
+        return mResolution;
+    }
+
+    /**
+     * @return the number of tiles in the file
+     */
+    int getTileCount() {
+        return mTileCount;
+    }
+
+    /**
+     * @return the number of slots of the directory; slots are numbered from 0 to slotCount() - 1
+     */
+    int slotCount() {
+        return mSlotCount;
+    }
+
+    /**
+     * @param slot the number of a slot
+     * @return true if the slot holds a tile
+     */
+    boolean hasTileAt(int slot) {
+        return mBuffer.getInt(entry(slot) + 8) != 0;
+    }
+
+    /**
+     * @param slot the number of a slot that holds a tile
+     * @return the x-index of the tile
+     */
+    int tileXAt(int slot) {
+        return mBuffer.getInt(entry(slot));
+    }
+
+    /**
+     * @param slot the number of a slot that holds a tile
+     * @return the y-index of the tile
+     */
+    int tileYAt(int slot) {
+        return mBuffer.getInt(entry(slot) + 4);
+    }
+
+    /**
+     * @param tileX the x-index of a tile
+     * @param tileY the y-index of a tile
+     * @return the number of the slot of the tile or -1 if the file doesn't contain it
+     */
+    int findSlot(int tileX, int tileY) {
+        int mask = mSlotCount - 1;
+        int slot = TileIndex.hash(TileIndex.pack(tileX, tileY)) & mask;
+        while(hasTileAt(slot)) {
+            if(tileXAt(slot) == tileX && tileYAt(slot) == tileY) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Reads a cell straight from the mapped file.
+     * @param cellX the x-index of the cell
+     * @param cellY the y-index of the cell
+     * @return the log-odds of the cell; 0 (unknown) if the file doesn't contain its tile
+     */
+    float get(int cellX, int cellY) {
+        int tileX = cellX >> MapTile.TILE_SHIFT;
+        int tileY = cellY >> MapTile.TILE_SHIFT;
+        if(tileX != mLastTileX || tileY != mLastTileY) {
+            int slot = findSlot(tileX, tileY);
+            mLastTileX = tileX;
+            mLastTileY = tileY;
+            mLastOffset = slot >= 0 ? mBuffer.getInt(entry(slot) + 8) : 0;
+            mLastEnd = slot >= 0 ? mLastOffset + mBuffer.getInt(entry(slot) + 12) : 0;
+        }
+        if(mLastOffset == 0) {
+            return 0f;
+        }
+        int localX = cellX & (MapTile.TILE_SIZE - 1);
+        int localY = cellY & (MapTile.TILE_SIZE - 1);
+        int node = mLastOffset;
+        int size = MapTile.TILE_SIZE;
+        while(true) {
+            byte tag = checkNode(node, size, mLastEnd, tileX, tileY);
+            if(tag == TAG_UNIFORM) {
+                return mBuffer.getFloat(node + 1);
+            }
+            if(tag == TAG_DENSE) {
+                int index = ((localY & (MapTile.LEAF_SIZE - 1)) << MapTile.LEAF_SHIFT)
+                        + (localX & (MapTile.LEAF_SIZE - 1));
+                return mBuffer.getFloat(node + 1 + 4 * index);
+            }
+            size >>= 1;
+            int child = ((localY & size) != 0 ? 2 : 0) + ((localX & size) != 0 ? 1 : 0);
+            node = child(node, child, mLastEnd, tileX, tileY);
+        }
+    }
+
+    /**
+     * Reports the uniform regions and the cells of dense blocks of a tile that overlap a window of
+     * cells, straight from the mapped file. Nodes outside of the window are skipped.
+     * @param slot the number of a slot that holds a tile
+     * @param minCellX the smallest x-index of the window
+     * @param minCellY the smallest y-index of the window
+     * @param maxCellX the greatest x-index of the window
+     * @param maxCellY the greatest y-index of the window
+     * @param visitor the visitor that the regions are reported to
+     */
+    void visit(int slot, int minCellX, int minCellY, int maxCellX, int maxCellY,
+               OccupancyGrid.RegionVisitor visitor) {
+        int offset = mBuffer.getInt(entry(slot) + 8);
+        visit(offset, offset + mBuffer.getInt(entry(slot) + 12), tileXAt(slot), tileYAt(slot),
+                tileXAt(slot) << MapTile.TILE_SHIFT, tileYAt(slot) << MapTile.TILE_SHIFT, MapTile.TILE_SIZE,
+                minCellX, minCellY, maxCellX, maxCellY, visitor);
+    }
+
+    private void visit(int node, int end, int tileX, int tileY, int cellX, int cellY, int size,
+                       int minCellX, int minCellY, int maxCellX, int maxCellY,
+                       OccupancyGrid.RegionVisitor visitor) {
+        if(cellX > maxCellX || cellY > maxCellY || cellX + size - 1 < minCellX || cellY + size - 1 < minCellY) {
+            return;
+        }
+        byte tag = checkNode(node, size, end, tileX, tileY);
+        if(tag == TAG_DENSE) {
+            for(int y = Math.max(minCellY - cellY, 0); y < Math.min(maxCellY - cellY + 1, MapTile.LEAF_SIZE); y++) {
+                for(int x = Math.max(minCellX - cellX, 0); x < Math.min(maxCellX - cellX + 1, MapTile.LEAF_SIZE); x++) {
+                    visitor.visit(cellX + x, cellY + y, 1,
+                            mBuffer.getFloat(node + 1 + 4 * ((y << MapTile.LEAF_SHIFT) + x)));
+                }
+            }
+        } else if(tag == TAG_UNIFORM) {
+            visitor.visit(cellX, cellY, size, mBuffer.getFloat(node + 1));
+        } else {
+            int half = size >> 1;
+            for(int i = 0; i < 4; i++) {
+                visit(child(node, i, end, tileX, tileY), end, tileX, tileY,
+                        cellX + ((i & 1) != 0 ? half : 0), cellY + ((i & 2) != 0 ? half : 0), half,
+                        minCellX, minCellY, maxCellX, maxCellY, visitor);
+            }
+        }
+    }
+
+    /**
+     * Copies a tile from the mapped file onto the heap, e.g. because it is changed.
+     * @param slot the number of a slot that holds a tile
+     * @return the tile
+     */
+    MapTile readTile(int slot) {
+        MapTile tile = new MapTile(tileXAt(slot), tileYAt(slot));
+        tile.mLeafCount = 0;
+        tile.mSplitCount = 0;
+        int offset = mBuffer.getInt(entry(slot) + 8);
+        tile.mRoot = readNode(tile, offset, offset + mBuffer.getInt(entry(slot) + 12), MapTile.TILE_SIZE);
+        return tile;
+    }
+
+    private MapTile.Node readNode(MapTile tile, int node, int end, int size) {
+        byte tag = checkNode(node, size, end, tile.mTileX, tile.mTileY);
+        MapTile.Node result = new MapTile.Node(0f);
+        if(tag == TAG_UNIFORM) {
+            result.value = mBuffer.getFloat(node + 1);
+        } else if(tag == TAG_DENSE) {
+            result.cells = new float[MapTile.LEAF_SIZE * MapTile.LEAF_SIZE];
+            for(int i = 0; i < result.cells.length; i++) {
+                result.cells[i] = mBuffer.getFloat(node + 1 + 4 * i);
+            }
+            tile.mLeafCount++;
+        } else {
+            result.children = new MapTile.Node[4];
+            for(int i = 0; i < 4; i++) {
+                result.children[i] = readNode(tile, child(node, i, end, tile.mTileX, tile.mTileY), end, size >> 1);
+            }
+            tile.mSplitCount++;
+        }
+        return result;
+    }
+
+    /**
+     * Checks that a node lies within the quadtree of its tile and fits the size of its cells: dense
+     * blocks hold exactly LEAF_SIZE cells in each direction and only larger nodes are split.
+     * @param node the offset of the node
+     * @param size the edge length of the node in cells
+     * @param end the offset of the end of the quadtree
+     * @return the tag of the node
+     * @throws IllegalStateException if the node is corrupt
+     */
+    private byte checkNode(int node, int size, int end, int tileX, int tileY) {
+        if(node < 0 || node >= end) {
+            throw corrupt(node, tileX, tileY);
+        }
+        byte tag = mBuffer.get(node);
+        int bytes;
+        if(tag == TAG_UNIFORM) {
+            bytes = UNIFORM_BYTES;
+        } else if(tag == TAG_DENSE && size == MapTile.LEAF_SIZE) {
+            bytes = DENSE_BYTES;
+        } else if(tag == TAG_SPLIT && size > MapTile.LEAF_SIZE) {
+            bytes = SPLIT_BYTES;
+        } else {
+            throw corrupt(node, tileX, tileY);
+        }
+        if(bytes > end - node) {
+            throw corrupt(node, tileX, tileY);
+        }
+        return tag;
+    }
+
+    /**
+     * @param node the offset of a split node that was checked with #checkNode(int, int, int, int, int)
+     * @param child the number of the child, 0 to 3
+     * @param end the offset of the end of the quadtree
+     * @return the offset of the child, which lies behind the split node
+     * @throws IllegalStateException if the offset of the child is corrupt
+     */
+    private int child(int node, int child, int end, int tileX, int tileY) {
+        if(child == 0) {
+            return node + SPLIT_BYTES;
+        }
+        int offset = mBuffer.getInt(node + 1 + 4 * (child - 1));
+        if(offset < SPLIT_BYTES || offset >= end - node) {
+            throw corrupt(node, tileX, tileY);
+        }
+        return node + offset;
+    }
+
+    /**
+     * @return the exception that the accessors of cells throw when a quadtree is corrupt
+     */
+    private static IllegalStateException corrupt(int node, int tileX, int tileY) {
+        return new IllegalStateException("Cannot read mapped tile (" + tileX + " , " + tileY + ")",
+                new IOException("Corrupt quadtree node at offset " + node + " of the tile file"));
+    }
+
+    /**
+     * @return the offset of the entry of a slot in the file
+     */
+    private static int entry(int slot) {
+        return HEADER_BYTES + slot * DIRECTORY_ENTRY_BYTES;
+    }
+
+    /**
+     * Writes the tiles of a grid to a tile file one by one, so they don't need to be in memory at
+     * the same time. The quadtrees are written first, right after the space of the directory, and
+     * the header and the directory are written at the start of the file by #finish(double), once
+     * the offsets of the tiles are known.
+     */
+    static final class Writer implements Closeable {
+
+        /**
+         * The file that is written.
+         */
+        private final RandomAccessFile mFile;
+
+        /**
+         * The stream that the quadtrees are written to, after the directory.
+         */
+        private final DataOutputStream mOut;
+
+        /**
+         * The header and the directory, which are written last.
+         */
+        private final ByteBuffer mDirectory;
+
+        /**
+         * The number of tiles that are written.
+         */
+        private final int mTileCount;
+
+        /**
+         * The number of slots of the directory.
+         */
+        private final int mSlotCount;
+
+        /**
+         * The offset of the first quadtree in the file.
+         */
+        private final int mDirectoryEnd;
+
+        /**
+         * The number of tiles that were added.
+         */
+        private int mCount = 0;
+
+        /**
+         * The smallest x-index of the tiles that were added.
+         */
+        private int mMinTileX = Integer.MAX_VALUE;
+
+        /**
+         * The smallest y-index of the tiles that were added.
+         */
+        private int mMinTileY = Integer.MAX_VALUE;
+
+        /**
+         * The greatest x-index of the tiles that were added.
+         */
+        private int mMaxTileX = Integer.MIN_VALUE;
+
+        /**
+         * The greatest y-index of the tiles that were added.
+         */
+        private int mMaxTileY = Integer.MIN_VALUE;
+
+        /**
+         * Creates the file, replacing its previous content.
+         * @param file the file that is written
+         * @param tileCount the number of tiles that are added
+         * @throws IOException if the file couldn't be created
+         */
+        Writer(File file, int tileCount) throws IOException {
+            this.mTileCount = tileCount;
+            // Keeps the load factor of the directory at 0.5 at most, like TileIndex
+            this.mSlotCount = Integer.highestOneBit(Math.max(1, tileCount * 2 - 1)) << 1;
+            this.mDirectoryEnd = HEADER_BYTES + mSlotCount * DIRECTORY_ENTRY_BYTES;
+            this.mDirectory = ByteBuffer.allocate(mDirectoryEnd);
+            this.mFile = new RandomAccessFile(file, "rw");
+            mFile.setLength(0);
+            mFile.seek(mDirectoryEnd);
+            // The stream shares the position of the file
+            this.mOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(mFile.getFD())));
+        }
+
+        /**
+         * Writes the quadtree of a tile and adds it to the directory.
+         * @param tile the tile, loaded into memory
+         * @throws IOException if the file couldn't be written
+         */
+        void add(MapTile tile) throws IOException {
+            if(mCount == mTileCount) {
+                throw new IOException("More than " + mTileCount + " tiles");
+            }
+            int offset = mDirectoryEnd + mOut.size();
+            writeNode(tile.mRoot, mOut);
+            int length = mDirectoryEnd + mOut.size() - offset;
+            if(offset < mDirectoryEnd || length < 0) {
+                throw new IOException("The tiles don't fit into a tile file");
+            }
+            int mask = mSlotCount - 1;
+            int slot = TileIndex.hash(TileIndex.pack(tile.mTileX, tile.mTileY)) & mask;
+            while(mDirectory.getInt(entry(slot) + 8) != 0) {
+                slot = (slot + 1) & mask;
+            }
+            mDirectory.putInt(entry(slot), tile.mTileX);
+            mDirectory.putInt(entry(slot) + 4, tile.mTileY);
+            mDirectory.putInt(entry(slot) + 8, offset);
+            mDirectory.putInt(entry(slot) + 12, length);
+            mMinTileX = Math.min(mMinTileX, tile.mTileX);
+            mMinTileY = Math.min(mMinTileY, tile.mTileY);
+            mMaxTileX = Math.max(mMaxTileX, tile.mTileX);
+            mMaxTileY = Math.max(mMaxTileY, tile.mTileY);
+            mCount++;
+        }
+
+        /**
+         * Writes the header and the directory and forces the file to the disk.
+         * @param resolution the edge length of a cell in meters
+         * @throws IOException if the file couldn't be written or not all tiles were added
+         */
+        void finish(double resolution) throws IOException {
+            mOut.flush();
+            if(mCount != mTileCount) {
+                throw new IOException("Expected " + mTileCount + " tiles but got " + mCount);
+            }
+            mDirectory.putInt(0, MAGIC);
+            mDirectory.putInt(4, VERSION);
+            mDirectory.putDouble(8, resolution);
+            mDirectory.putInt(16, mTileCount);
+            mDirectory.putInt(20, mSlotCount);
+            mDirectory.putInt(24, mMinTileX);
+            mDirectory.putInt(28, mMinTileY);
+            mDirectory.putInt(32, mMaxTileX);
+            mDirectory.putInt(36, mMaxTileY);
+            FileChannel channel = mFile.getChannel();
+            long position = 0;
+            while(mDirectory.hasRemaining()) {
+                position += channel.write(mDirectory, position);
+            }
+            channel.force(false);
+        }
+
+        @Override
+        public void close() throws IOException {
+            mFile.close();
+        }
+    }
+
+    /**
+     * Writes a node of a quadtree and its children in preorder.
+     */
+    private static void writeNode(MapTile.Node node, DataOutputStream out) throws IOException {
+        if(node.cells != null) {
+            out.writeByte(TAG_DENSE);
+            for(float cell : node.cells) {
+                out.writeFloat(cell);
+            }
+        } else if(node.children == null) {
+            out.writeByte(TAG_UNIFORM);
+            out.writeFloat(node.value);
+        } else {
+            out.writeByte(TAG_SPLIT);
+            int offset = SPLIT_BYTES;
+            for(int i = 0; i < 3; i++) {
+                offset += nodeBytes(node.children[i]);
+                out.writeInt(offset);
+            }
+            for(MapTile.Node child : node.children) {
+                writeNode(child, out);
+            }
+        }
+    }
+
+    /**
+     * @return the number of bytes that a node and its children take in the file
+     */
+    private static int nodeBytes(MapTile.Node node) {
+        if(node.cells != null) {
+            return DENSE_BYTES;
+        }
+        if(node.children == null) {
+            return UNIFORM_BYTES;
+        }
+        int bytes = SPLIT_BYTES;
+        for(MapTile.Node child : node.children) {
+            bytes += nodeBytes(child);
+        }
+        return bytes;
+    }
+
+}
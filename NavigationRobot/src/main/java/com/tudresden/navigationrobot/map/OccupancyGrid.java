@@ -0,0 +1,846 @@
+package com.tudresden.navigationrobot.map;
+
+import com.tudresden.navigationrobot.robot.RobotLog;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * A probabilistic occupancy grid of the explored area. Every cell stores the log-odds of being
+ * occupied: 0 means unknown, positive values mean occupied and negative values mean free.
+ * The grid uses the coordinate system of the robot (positive x --> forward, positive y --> left)
+ * with the starting point of the exploration in the corner of cell (0,0).
+ *
+ * The grid is unbounded and sparse: Cells are grouped into tiles ({@see MapTile}) which are only
+ * allocated when a cell within them is updated for the first time, and uniform parts of a tile
+ * collapse into single quadtree nodes. If the tiles take more memory than the memory budget, the
+ * least recently used tiles are spilled to disk and loaded again as soon as they are accessed.
+ * Every grid spills into its own subdirectory of the spill directory, which #close() deletes. If a
+ * tile can't be spilled or read back, the access throws an IllegalStateException with the
+ * IOException as its cause; a tile that couldn't be spilled stays in memory.
+ *
+ * A grid that was written with #writeTiles(File) can be opened with #mapTiles(File, long, File)
+ * without reading it: the tiles stay in the mapped file ({@see MappedTileStore}) and are read from
+ * there until a cell within them is updated, which copies the tile into memory.
+ *
+ * The grid is not thread-safe.
+ */
+public class OccupancyGrid {
+
+    /**
+     * The tag that is used for log messages.
+     */
+    private static final String TAG = "OccupancyGrid";
+
+    /**
+     * The upper bound for the log-odds of a cell. Clamping keeps the grid able to react to changes
+     * (e.g. a person that walks away) within a few readings.
+     */
+    public static final float LOG_ODDS_MAX = 3.5f;
+
+    /**
+     * The lower bound for the log-odds of a cell.
+     */
+    public static final float LOG_ODDS_MIN = -2.0f;
+
+    /**
+     * Cells with log-odds above this threshold are treated as occupied (p > 0.6).
+     */
+    public static final float OCCUPIED_THRESHOLD = 0.4f;
+
+    /**
+     * Cells with log-odds below this threshold are treated as free (p < 0.4).
+     */
+    public static final float FREE_THRESHOLD = -0.4f;
+
+    /**
+     * The edge length of a tile in cells. Tiles start at multiples of it, so a window that is
+     * aligned to tiles is visited without looking at the neighbouring tiles.
+     */
+    public static final int TILE_SIZE = MapTile.TILE_SIZE;
+
+    /**
+     * The binary logarithm of TILE_SIZE; shifting a cell index by it gives the index of its tile.
+     */
+    public static final int TILE_SHIFT = MapTile.TILE_SHIFT;
+
+    /**
+     * The default memory budget for the tiles (4 megabytes). A fully dense tile takes about 20
+     * kilobytes, so this is enough for about 2000 square meters of cluttered space at 5 centimeters.
+     */
+    public static final long DEFAULT_MEMORY_BUDGET = 4L * 1024 * 1024;
+
+    /**
+     * Identifies a file that was written by #writeTo(DataOutputStream).
+     */
+    private static final int FILE_MAGIC = 0x4C4D4150;
+
+    /**
+     * The version of the file format.
+     */
+    private static final int FILE_VERSION = 1;
+
+    /**
+     * When the budget is exceeded, tiles are spilled until the memory usage falls below this fraction
+     * of the budget. This avoids spilling a tile on every single update once the budget is reached.
+     */
+    private static final double SPILL_TARGET = 0.75;
+
+    /**
+     * When the memory usage is still over the budget after compacting and spilling, the tiles are
+     * only compacted again once the usage has grown by this fraction. Compacting all tiles again
+     * right away would hardly free anything.
+     */
+    private static final double COMPACTION_MARGIN = 0.25;
+
+    /**
+     * Receives the regions of the grid, see #visitRegions(RegionVisitor).
+     */
+    public interface RegionVisitor {
+
+        /**
+         * Called for every region of cells that have the same log-odds.
+         * @param cellX the x-index of the first cell of the region
+         * @param cellY the y-index of the first cell of the region
+         * @param size the edge length of the region in cells
+         * @param logOdds the log-odds of all cells in the region
+         */
+        void visit(int cellX, int cellY, int size, float logOdds);
+    }
+
+    /**
+     * The edge length of a cell in meters.
+     */
+    private final double mResolution;
+
+    /**
+     * The maximum number of bytes that the tiles should occupy on the heap.
+     */
+    private final long mMemoryBudget;
+
+    /**
+     * The directory that the subdirectory of this grid is created in or null if tiles must not be
+     * spilled.
+     */
+    private final File mSpillDirectory;
+
+    /**
+     * The subdirectory that the tiles of this grid are spilled to or null until the first tile is
+     * spilled. Grids that share a spill directory, e.g. one that replaces another, never see each
+     * other's files.
+     */
+    private File mSpillFiles = null;
+
+    /**
+     * All tiles of the grid, including the ones that are spilled to disk.
+     */
+    private final TileIndex mTiles = new TileIndex();
+
+    /**
+     * The mapped file of tiles that the grid was opened from or null. Its tiles are only part of
+     * the grid as long as they haven't been copied into mTiles.
+     */
+    private MappedTileStore mMapped;
+
+    /**
+     * The number of tiles that were copied from mMapped into mTiles.
+     */
+    private int mCopiedCount = 0;
+
+    /**
+     * The tile that was accessed last. Consecutive accesses mostly hit the same tile, so this saves
+     * most of the lookups in the index.
+     */
+    private MapTile mLastTile;
+
+    /**
+     * Counts the tile accesses, used for finding the least recently used tiles.
+     */
+    private long mClock = 0;
+
+    /**
+     * The approximate number of bytes that the tiles in memory currently occupy.
+     */
+    private long mMemoryUsage = 0;
+
+    /**
+     * The memory usage above which the tiles are compacted (and spilled) again, see #enforceBudget().
+     * It is the budget unless the usage could not be brought below the budget.
+     */
+    private long mCompactionLimit;
+
+    /**
+     * The smallest x-index of all tiles.
+     */
+    private int mMinTileX = Integer.MAX_VALUE;
+
+    /**
+     * The smallest y-index of all tiles.
+     */
+    private int mMinTileY = Integer.MAX_VALUE;
+
+    /**
+     * The greatest x-index of all tiles.
+     */
+    private int mMaxTileX = Integer.MIN_VALUE;
+
+    /**
+     * The greatest y-index of all tiles.
+     */
+    private int mMaxTileY = Integer.MIN_VALUE;
+
+    /**
+     * The sensor model that is used for integrating ultrasonic readings.
+     */
+    private final UltrasonicSensorModel mSensorModel = new UltrasonicSensorModel();
+
+    /**
+     * Creates a new occupancy grid in which all cells are unknown.
+     * @param resolution the edge length of a cell in meters
+     * @param memoryBudget the maximum number of bytes that the tiles should occupy on the heap
+     * @param spillDirectory the directory that tiles are spilled to when the memory budget is
+     *                       exceeded or null if the grid may exceed the budget instead; call
+     *                       #close() when the grid is discarded
+     */
+    public OccupancyGrid(double resolution, long memoryBudget, File spillDirectory) {
+        this.mResolution = resolution;
+        this.mMemoryBudget = memoryBudget;
+        this.mCompactionLimit = memoryBudget;
+        this.mSpillDirectory = spillDirectory;
+        if(spillDirectory != null && !spillDirectory.exists() && !spillDirectory.mkdirs()) {
+            throw new IllegalArgumentException("Cannot create " + spillDirectory);
+        }
+    }
+
+    /**
+     * @return the edge length of a cell in meters
+     */
+    public double getResolution() {
+        return mResolution;
+    }
+
+    /**
+     * @return the approximate number of bytes that the tiles in memory currently occupy
+     */
+    public long getMemoryUsage() {
+        return mMemoryUsage;
+    }
+
+    /**
+     * @return the number of tiles, including the ones that are spilled to disk or mapped
+     */
+    public int getTileCount() {
+        return mTiles.size() + (mMapped != null ? mMapped.getTileCount() - mCopiedCount : 0);
+    }
+
+    /**
+     * @return true if no cell of the grid has been updated yet
+     */
+    public boolean isEmpty() {
+        return getTileCount() == 0;
+    }
+
+    /**
+     * @return the smallest x-index of all allocated cells
+     */
+    public int getMinCellX() {
+        return mMinTileX << MapTile.TILE_SHIFT;
+    }
+
+    /**
+     * @return the smallest y-index of all allocated cells
+     */
+    public int getMinCellY() {
+        return mMinTileY << MapTile.TILE_SHIFT;
+    }
+
+    /**
+     * @return the greatest x-index of all allocated cells
+     */
+    public int getMaxCellX() {
+        return ((mMaxTileX + 1) << MapTile.TILE_SHIFT) - 1;
+    }
+
+    /**
+     * @return the greatest y-index of all allocated cells
+     */
+    public int getMaxCellY() {
+        return ((mMaxTileY + 1) << MapTile.TILE_SHIFT) - 1;
+    }
+
+    /**
+     * Converts a real x-coordinate to the x-index of the cell that contains it.
+     * @param x the x-coordinate in meters
+     * @return the x-index of the cell
+     */
+    public int toCellX(double x) {
+        return (int) Math.floor(x / mResolution);
+    }
+
+    /**
+     * Converts a real y-coordinate to the y-index of the cell that contains it.
+     * @param y the y-coordinate in meters
+     * @return the y-index of the cell
+     */
+    public int toCellY(double y) {
+        return (int) Math.floor(y / mResolution);
+    }
+
+    /**
+     * @param cellX the x-index of a cell
+     * @return the real x-coordinate of the center of the cell
+     */
+    public double toWorldX(int cellX) {
+        return (cellX + 0.5) * mResolution;
+    }
+
+    /**
+     * @param cellY the y-index of a cell
+     * @return the real y-coordinate of the center of the cell
+     */
+    public double toWorldY(int cellY) {
+        return (cellY + 0.5) * mResolution;
+    }
+
+    /**
+     * @param cellX the x-index of a cell
+     * @param cellY the y-index of a cell
+     * @return the log-odds of the cell; 0 (unknown) for cells that were never updated
+     */
+    public float getLogOdds(int cellX, int cellY) {
+        MapTile tile = findTile(cellX >> MapTile.TILE_SHIFT, cellY >> MapTile.TILE_SHIFT, false);
+        if(tile == null) {
+            // Read straight from the mapped file, if the tile is there
+            return mMapped != null ? mMapped.get(cellX, cellY) : 0f;
+        }
+        return tile.get(cellX & (MapTile.TILE_SIZE - 1), cellY & (MapTile.TILE_SIZE - 1));
+    }
+
+    /**
+     * Adds a log-odds update to a cell.
+     * @param cellX the x-index of the cell
+     * @param cellY the y-index of the cell
+     * @param delta the log-odds that are added to the cell
+     */
+    public void addLogOdds(int cellX, int cellY, float delta) {
+        MapTile tile = findTile(cellX >> MapTile.TILE_SHIFT, cellY >> MapTile.TILE_SHIFT, true);
+        long before = tile.memoryUsage();
+        tile.add(cellX & (MapTile.TILE_SIZE - 1), cellY & (MapTile.TILE_SIZE - 1), delta,
+                LOG_ODDS_MIN, LOG_ODDS_MAX);
+        long after = tile.memoryUsage();
+        if(after != before) {
+            mMemoryUsage += after - before;
+            if(mMemoryUsage > mCompactionLimit) {
+                enforceBudget();
+            }
+        }
+    }
+
+    /**
+     * @param cellX the x-index of a cell
+     * @param cellY the y-index of a cell
+     * @return the probability that the cell is occupied
+     */
+    public double getProbability(int cellX, int cellY) {
+        return 1.0 - 1.0 / (1.0 + Math.exp(getLogOdds(cellX, cellY)));
+    }
+
+    /**
+     * @param cellX the x-index of a cell
+     * @param cellY the y-index of a cell
+     * @return true if the cell is known to be free; false otherwise
+     */
+    public boolean isFree(int cellX, int cellY) {
+        return getLogOdds(cellX, cellY) < FREE_THRESHOLD;
+    }
+
+    /**
+     * @param cellX the x-index of a cell
+     * @param cellY the y-index of a cell
+     * @return true if the cell is known to be occupied; false otherwise
+     */
+    public boolean isOccupied(int cellX, int cellY) {
+        return getLogOdds(cellX, cellY) > OCCUPIED_THRESHOLD;
+    }
+
+    /**
+     * @param cellX the x-index of a cell
+     * @param cellY the y-index of a cell
+     * @return true if it is neither known that the cell is free nor that it is occupied
+     */
+    public boolean isUnknown(int cellX, int cellY) {
+        float logOdds = getLogOdds(cellX, cellY);
+        return logOdds >= FREE_THRESHOLD && logOdds <= OCCUPIED_THRESHOLD;
+    }
+
+    /**
+     * Integrates an ultrasonic reading into the grid.
+     * @param x the x-coordinate of the robot when the reading was taken
+     * @param y the y-coordinate of the robot when the reading was taken
+     * @param heading the heading of the robot in radians when the reading was taken
+     * @param distance the measured distance in meters
+     */
+    public void integrateUltrasonic(double x, double y, double heading, double distance) {
+        mSensorModel.integrate(this, x, y, heading, distance);
+    }
+
+    /**
+     * Marks the cells that the base of the robot stands on as free. The ultrasonic sensor can't see
+     * anything closer than 25 centimeters, so those cells would stay unknown otherwise.
+     * @param x the real x-coordinate of the robot
+     * @param y the real y-coordinate of the robot
+     * @param radius the radius of the base of the robot in meters
+     */
+    public void integrateFootprint(double x, double y, double radius) {
+        int minX = toCellX(x - radius);
+        int maxX = toCellX(x + radius);
+        int minY = toCellY(y - radius);
+        int maxY = toCellY(y + radius);
+        for(int cellY = minY; cellY <= maxY; cellY++) {
+            for(int cellX = minX; cellX <= maxX; cellX++) {
+                double dx = toWorldX(cellX) - x;
+                double dy = toWorldY(cellY) - y;
+                if(dx * dx + dy * dy <= radius * radius) {
+                    addLogOdds(cellX, cellY, UltrasonicSensorModel.LOG_ODDS_FREE);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reports the whole grid as regions of cells with the same log-odds. Uniform quadtree nodes are
+     * reported as one region, so drawing the map does not need to look at every single cell.
+     * Spilled tiles are read from disk for the visit but not kept in memory, mapped tiles are read
+     * straight from the mapped file.
+     * @param visitor the visitor that the regions are reported to
+     */
+    public void visitRegions(RegionVisitor visitor) {
+        if(!isEmpty()) {
+            visitRegions(getMinCellX(), getMinCellY(), getMaxCellX(), getMaxCellY(), visitor);
+        }
+    }
+
+    /**
+     * Reports the regions of the grid that overlap a window of cells, see
+     * #visitRegions(RegionVisitor). Only the tiles and quadtree nodes that overlap the window are
+     * looked at, so the cost depends on the size of the window rather than on the size of the map.
+     * Uniform regions are reported whole and may reach beyond the window.
+     * @param minCellX the smallest x-index of the window
+     * @param minCellY the smallest y-index of the window
+     * @param maxCellX the greatest x-index of the window
+     * @param maxCellY the greatest y-index of the window
+     * @param visitor the visitor that the regions are reported to
+     */
+    public void visitRegions(int minCellX, int minCellY, int maxCellX, int maxCellY, RegionVisitor visitor) {
+        if(isEmpty()) {
+            return;
+        }
+        int minTileX = Math.max(minCellX >> MapTile.TILE_SHIFT, mMinTileX);
+        int minTileY = Math.max(minCellY >> MapTile.TILE_SHIFT, mMinTileY);
+        int maxTileX = Math.min(maxCellX >> MapTile.TILE_SHIFT, mMaxTileX);
+        int maxTileY = Math.min(maxCellY >> MapTile.TILE_SHIFT, mMaxTileY);
+        if(minTileX > maxTileX || minTileY > maxTileY) {
+            return;
+        }
+        long windowTiles = (long) (maxTileX - minTileX + 1) * (maxTileY - minTileY + 1);
+        if(windowTiles < mTiles.capacity() + (mMapped != null ? mMapped.slotCount() : 0)) {
+            // Looking up the tiles of a small window is cheaper than going through all slots
+            for(int tileY = minTileY; tileY <= maxTileY; tileY++) {
+                for(int tileX = minTileX; tileX <= maxTileX; tileX++) {
+                    MapTile tile = mTiles.get(tileX, tileY);
+                    if(tile != null) {
+                        loadedView(tile).visit(minCellX, minCellY, maxCellX, maxCellY, visitor);
+                    } else if(mMapped != null) {
+                        int slot = mMapped.findSlot(tileX, tileY);
+                        if(slot >= 0) {
+                            mMapped.visit(slot, minCellX, minCellY, maxCellX, maxCellY, visitor);
+                        }
+                    }
+                }
+            }
+            return;
+        }
+        for(int slot = 0; slot < mTiles.capacity(); slot++) {
+            MapTile tile = mTiles.tileAt(slot);
+            if(tile != null && isInTileRange(tile.mTileX, tile.mTileY, minTileX, minTileY, maxTileX, maxTileY)) {
+                loadedView(tile).visit(minCellX, minCellY, maxCellX, maxCellY, visitor);
+            }
+        }
+        if(mMapped != null) {
+            for(int slot = 0; slot < mMapped.slotCount(); slot++) {
+                if(isMappedOnly(slot) && isInTileRange(mMapped.tileXAt(slot), mMapped.tileYAt(slot),
+                        minTileX, minTileY, maxTileX, maxTileY)) {
+                    mMapped.visit(slot, minCellX, minCellY, maxCellX, maxCellY, visitor);
+                }
+            }
+        }
+    }
+
+    private static boolean isInTileRange(int tileX, int tileY, int minTileX, int minTileY, int maxTileX,
+                                         int maxTileY) {
+        return tileX >= minTileX && tileX <= maxTileX && tileY >= minTileY && tileY <= maxTileY;
+    }
+
+    /**
+     * Looks up a tile and marks it as used.
+     * @param tileX the x-index of the tile
+     * @param tileY the y-index of the tile
+     * @param create whether to create the tile if it does not exist
+     * @return the tile (loaded into memory) or null if it does not exist and create is false
+     */
+    private MapTile findTile(int tileX, int tileY, boolean create) {
+        MapTile tile = mLastTile;
+        if(tile == null || tile.mTileX != tileX || tile.mTileY != tileY) {
+            tile = mTiles.get(tileX, tileY);
+            if(tile == null) {
+                if(!create) {
+                    return null;
+                }
+                int slot = mMapped != null ? mMapped.findSlot(tileX, tileY) : -1;
+                if(slot >= 0) {
+                    // The mapped file is read-only, so the tile is changed in a copy
+                    tile = mMapped.readTile(slot);
+                    mCopiedCount++;
+                } else {
+                    tile = new MapTile(tileX, tileY);
+                }
+                addTile(tile);
+            } else if(tile.mRoot == null) {
+                load(tile);
+            }
+            mLastTile = tile;
+            tile.mLastAccess = ++mClock;
+            if(mMemoryUsage > mCompactionLimit) {
+                enforceBudget();
+            }
+            return tile;
+        }
+        tile.mLastAccess = ++mClock;
+        return tile;
+    }
+
+    /**
+     * Adds a new tile to the index and updates the bounds and the memory usage.
+     */
+    private void addTile(MapTile tile) {
+        mTiles.put(tile);
+        mMinTileX = Math.min(mMinTileX, tile.mTileX);
+        mMinTileY = Math.min(mMinTileY, tile.mTileY);
+        mMaxTileX = Math.max(mMaxTileX, tile.mTileX);
+        mMaxTileY = Math.max(mMaxTileY, tile.mTileY);
+        mMemoryUsage += tile.memoryUsage();
+    }
+
+    /**
+     * Brings the memory usage below the budget. First all tiles are compacted, which often is
+     * enough. If not, the least recently used tiles are spilled to disk. If the usage is still over
+     * the budget, e.g. without a spill directory, the next call is put off until the usage has
+     * grown by the compaction margin.
+     */
+    private void enforceBudget() {
+        long usage = 0;
+        int loaded = 0;
+        for(int slot = 0; slot < mTiles.capacity(); slot++) {
+            MapTile tile = mTiles.tileAt(slot);
+            if(tile != null && tile.mRoot != null) {
+                tile.compact();
+                usage += tile.memoryUsage();
+                loaded++;
+            }
+        }
+        mMemoryUsage = usage;
+        if(mMemoryUsage > mMemoryBudget && mSpillDirectory != null) {
+            spillLeastRecentlyUsed(loaded);
+        }
+        mCompactionLimit = Math.max(mMemoryBudget, (long) (mMemoryUsage * (1 + COMPACTION_MARGIN)));
+    }
+
+    /**
+     * Spills the least recently used tiles until the memory usage falls below the spill target.
+     * @param loaded the number of tiles in memory
+     */
+    private void spillLeastRecentlyUsed(int loaded) {
+        // Collect the tiles in memory and spill the least recently used ones. The tile that was
+        // accessed last is never spilled because it is about to be used.
+        MapTile[] candidates = new MapTile[loaded];
+        int count = 0;
+        for(int slot = 0; slot < mTiles.capacity(); slot++) {
+            MapTile tile = mTiles.tileAt(slot);
+            if(tile != null && tile.mRoot != null && tile != mLastTile) {
+                candidates[count++] = tile;
+            }
+        }
+        Arrays.sort(candidates, 0, count, new Comparator<MapTile>() {
+            @Override
+            public int compare(MapTile a, MapTile b) {
+                return Long.compare(a.mLastAccess, b.mLastAccess);
+            }
+        });
+        long target = (long) (mMemoryBudget * SPILL_TARGET);
+        for(int i = 0; i < count && mMemoryUsage > target; i++) {
+            spill(candidates[i]);
+        }
+    }
+
+    /**
+     * Writes a tile to disk (if it changed since it was last written) and drops its quadtree.
+     * @throws IllegalStateException if the tile can't be written, it is kept in memory then
+     */
+    private void spill(MapTile tile) {
+        File file = null;
+        try {
+            file = spillFile(tile);
+            if(tile.mDirty || !file.exists()) {
+                try(DataOutputStream out = new DataOutputStream(
+                        new BufferedOutputStream(new FileOutputStream(file)))) {
+                    tile.write(out);
+                }
+            }
+        } catch(IOException e) {
+            // Keep the tile in memory rather than losing it, a partial file must not be read back
+            if(file != null && file.exists() && !file.delete()) {
+                RobotLog.d(TAG, "Cannot delete " + file);
+            }
+            RobotLog.d(TAG, "Cannot spill tile (" + tile.mTileX + " , " + tile.mTileY + "): " + e);
+            throw new IllegalStateException("Cannot spill tile (" + tile.mTileX + " , " + tile.mTileY + ")", e);
+        }
+        mMemoryUsage -= tile.memoryUsage();
+        tile.mRoot = null;
+        tile.mLeafCount = 0;
+        tile.mSplitCount = 0;
+        tile.mDirty = false;
+    }
+
+    /**
+     * Reads the quadtree of a spilled tile from disk.
+     * @throws IllegalStateException if the file can't be read, the tile stays spilled then
+     */
+    private void load(MapTile tile) {
+        try {
+            readSpilled(tile);
+        } catch(IOException e) {
+            throw cannotRead(tile, e);
+        }
+        tile.mDirty = false;
+        mMemoryUsage += tile.memoryUsage();
+    }
+
+    /**
+     * @return the tile itself if it is in memory or a temporary copy that is read from disk
+     * @throws IllegalStateException if the file of a spilled tile can't be read
+     */
+    private MapTile loadedView(MapTile tile) {
+        try {
+            return readView(tile);
+        } catch(IOException e) {
+            throw cannotRead(tile, e);
+        }
+    }
+
+    /**
+     * Like #loadedView(MapTile), for the methods that report failures as IOException.
+     * @return the tile itself if it is in memory or a temporary copy that is read from disk
+     * @throws IOException if the file of a spilled tile can't be read
+     */
+    private MapTile readView(MapTile tile) throws IOException {
+        if(tile.mRoot != null) {
+            return tile;
+        }
+        MapTile copy = new MapTile(tile.mTileX, tile.mTileY);
+        readSpilled(copy);
+        return copy;
+    }
+
+    /**
+     * Reads the quadtree of a tile from its spill file. If the file can't be read, the tile is left
+     * spilled rather than silently becoming unknown.
+     * @throws IOException if the file can't be read
+     */
+    private void readSpilled(MapTile tile) throws IOException {
+        try(DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(spillFile(tile))))) {
+            tile.read(in);
+        } catch(IOException e) {
+            tile.mRoot = null;
+            tile.mLeafCount = 0;
+            tile.mSplitCount = 0;
+            RobotLog.d(TAG, "Cannot read spilled tile (" + tile.mTileX + " , " + tile.mTileY + "): " + e);
+            throw e;
+        }
+    }
+
+    /**
+     * @return the exception that the accessors of cells throw when a spilled tile can't be read
+     */
+    private static IllegalStateException cannotRead(MapTile tile, IOException cause) {
+        return new IllegalStateException("Cannot read spilled tile (" + tile.mTileX + " , " + tile.mTileY + ")", cause);
+    }
+
+    /**
+     * @param slot the number of a slot of mMapped
+     * @return true if the slot holds a tile that wasn't copied into memory
+     */
+    private boolean isMappedOnly(int slot) {
+        return mMapped.hasTileAt(slot) && mTiles.get(mMapped.tileXAt(slot), mMapped.tileYAt(slot)) == null;
+    }
+
+    /**
+     * @return the file that a tile is spilled to
+     * @throws IOException if the subdirectory of the grid can't be created
+     */
+    private File spillFile(MapTile tile) throws IOException {
+        if(mSpillFiles == null) {
+            File directory = File.createTempFile("grid", "", mSpillDirectory);
+            if(!directory.delete() || !directory.mkdir()) {
+                throw new IOException("Cannot create " + directory);
+            }
+            mSpillFiles = directory;
+        }
+        return new File(mSpillFiles, "tile_" + tile.mTileX + "_" + tile.mTileY);
+    }
+
+    /**
+     * Deletes the files of the spilled tiles. Must be called when the grid is discarded, otherwise
+     * they stay in the spill directory. The grid can't be used afterwards.
+     */
+    public void close() {
+        if(mSpillFiles == null) {
+            return;
+        }
+        File[] files = mSpillFiles.listFiles();
+        if(files != null) {
+            for(File file : files) {
+                if(!file.delete()) {
+                    RobotLog.d(TAG, "Cannot delete " + file);
+                }
+            }
+        }
+        if(!mSpillFiles.delete()) {
+            RobotLog.d(TAG, "Cannot delete " + mSpillFiles);
+        }
+        mSpillFiles = null;
+    }
+
+    /**
+     * Writes the whole grid, including the spilled tiles.
+     * @param out the stream that the grid is written to
+     */
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(FILE_MAGIC);
+        out.writeInt(FILE_VERSION);
+        out.writeDouble(mResolution);
+        out.writeInt(getTileCount());
+        for(int slot = 0; slot < mTiles.capacity(); slot++) {
+            MapTile tile = mTiles.tileAt(slot);
+            if(tile != null) {
+                MapTile loaded = readView(tile);
+                loaded.compact();
+                out.writeInt(tile.mTileX);
+                out.writeInt(tile.mTileY);
+                loaded.write(out);
+            }
+        }
+        if(mMapped != null) {
+            for(int slot = 0; slot < mMapped.slotCount(); slot++) {
+                if(isMappedOnly(slot)) {
+                    out.writeInt(mMapped.tileXAt(slot));
+                    out.writeInt(mMapped.tileYAt(slot));
+                    mMapped.readTile(slot).write(out);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the whole grid, including the spilled and the mapped tiles, to a file that
+     * #mapTiles(File, long, File) opens. Only one tile is copied into memory at a time. The file is
+     * replaced, so it mustn't be the file that this grid was opened from; a grid that maps the
+     * file keeps the old content though once the file was written elsewhere and renamed.
+     * @param file the file that the grid is written to
+     */
+    public void writeTiles(File file) throws IOException {
+        try(MappedTileStore.Writer writer = new MappedTileStore.Writer(file, getTileCount())) {
+            for(int slot = 0; slot < mTiles.capacity(); slot++) {
+                MapTile tile = mTiles.tileAt(slot);
+                if(tile != null) {
+                    MapTile loaded = readView(tile);
+                    loaded.compact();
+                    writer.add(loaded);
+                }
+            }
+            if(mMapped != null) {
+                for(int slot = 0; slot < mMapped.slotCount(); slot++) {
+                    if(isMappedOnly(slot)) {
+                        writer.add(mMapped.readTile(slot));
+                    }
+                }
+            }
+            writer.finish(mResolution);
+        }
+    }
+
+    /**
+     * Opens a grid that was written by #writeTiles(File) by mapping the file into memory. Only the
+     * header and the directory of the file are read, so the quadtrees of the tiles aren't touched,
+     * and the tiles are read straight from the file when they are accessed. Tiles that are updated
+     * are copied into memory and count towards the memory budget. If a quadtree turns out to be
+     * corrupt, the access throws an IllegalStateException with an IOException as its cause.
+     * @param file the file that the grid is read from
+     * @param memoryBudget the maximum number of bytes that the tiles in memory should occupy
+     * @param spillDirectory the directory that tiles are spilled to or null
+     * @return the grid
+     * @throws IOException if the file can't be mapped or its header or directory is corrupt
+     */
+    public static OccupancyGrid mapTiles(File file, long memoryBudget, File spillDirectory) throws IOException {
+        MappedTileStore mapped = MappedTileStore.open(file);
+        OccupancyGrid grid = new OccupancyGrid(mapped.getResolution(), memoryBudget, spillDirectory);
+        grid.mMapped = mapped;
+        if(mapped.getTileCount() > 0) {
+            grid.mMinTileX = mapped.mMinTileX;
+            grid.mMinTileY = mapped.mMinTileY;
+            grid.mMaxTileX = mapped.mMaxTileX;
+            grid.mMaxTileY = mapped.mMaxTileY;
+        }
+        return grid;
+    }
+
+    /**
+     * Reads a grid that was written by #writeTo(DataOutputStream). The memory budget is enforced
+     * while reading, so maps that are larger than the budget can be read as well.
+     * @param in the stream that the grid is read from
+     * @param memoryBudget the maximum number of bytes that the tiles should occupy on the heap
+     * @param spillDirectory the directory that tiles are spilled to or null
+     * @return the grid
+     */
+    public static OccupancyGrid readFrom(DataInputStream in, long memoryBudget, File spillDirectory)
+            throws IOException {
+        if(in.readInt() != FILE_MAGIC) {
+            throw new IOException("Not an occupancy grid");
+        }
+        int version = in.readInt();
+        if(version != FILE_VERSION) {
+            throw new IOException("Unsupported occupancy grid version " + version);
+        }
+        OccupancyGrid grid = new OccupancyGrid(in.readDouble(), memoryBudget, spillDirectory);
+        int tiles = in.readInt();
+        for(int i = 0; i < tiles; i++) {
+            MapTile tile = new MapTile(in.readInt(), in.readInt());
+            tile.read(in);
+            tile.mLastAccess = ++grid.mClock;
+            grid.addTile(tile);
+            if(grid.mMemoryUsage > grid.mCompactionLimit) {
+                grid.enforceBudget();
+            }
+        }
+        return grid;
+    }
+
+}
@@ -0,0 +1,123 @@
+package com.tudresden.navigationrobot.map;
+
+/**
+ * An open addressing hash map from tile coordinates to tiles. The tile coordinates are packed into a
+ * single long, so looking up a tile neither boxes nor allocates.
+ * Tiles are never removed from the index; tiles that are spilled to disk stay in the index without
+ * their quadtree.
+ */
+class TileIndex {
+
+    /**
+     * The initial number of slots. Needs to be a power of two.
+     */
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * The packed coordinates of the tile in each slot.
+     */
+    private long[] mKeys = new long[INITIAL_CAPACITY];
+
+    /**
+     * The tile in each slot or null if the slot is empty.
+     */
+    private MapTile[] mTiles = new MapTile[INITIAL_CAPACITY];
+
+    /**
+     * The number of tiles in the index.
+     */
+    private int mSize = 0;
+
+    /**
+     * @return the number of tiles in the index
+     */
+    int size() {
+        return mSize;
+    }
+
+    /**
+     * @return the number of slots; slots are numbered from 0 to capacity() - 1
+     */
+    int capacity() {
+        return mTiles.length;
+    }
+
+    /**
+     * @param slot the number of a slot
+     * @return the tile in the slot or null if the slot is empty
+     */
+    MapTile tileAt(int slot) {
+        return mTiles[slot];
+    }
+
+    /**
+     * @param tileX the x-index of a tile
+     * @param tileY the y-index of a tile
+     * @return the tile or null if there is no tile with the given coordinates
+     */
+    MapTile get(int tileX, int tileY) {
+        long key = pack(tileX, tileY);
+        int mask = mTiles.length - 1;
+        int slot = hash(key) & mask;
+        while(mTiles[slot] != null) {
+            if(mKeys[slot] == key) {
+                return mTiles[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * Adds a tile to the index. There must not be a tile with the same coordinates in the index.
+     * @param tile the tile that is added
+     */
+    void put(MapTile tile) {
+        if((mSize + 1) * 2 > mTiles.length) {
+            grow();
+        }
+        insert(pack(tile.mTileX, tile.mTileY), tile);
+        mSize++;
+    }
+
+    private void insert(long key, MapTile tile) {
+        int mask = mTiles.length - 1;
+        int slot = hash(key) & mask;
+        while(mTiles[slot] != null) {
+            slot = (slot + 1) & mask;
+        }
+        mKeys[slot] = key;
+        mTiles[slot] = tile;
+    }
+
+    /**
+     * Doubles the number of slots, which keeps the load factor below 0.5.
+     */
+    private void grow() {
+        long[] keys = mKeys;
+        MapTile[] tiles = mTiles;
+        mKeys = new long[keys.length * 2];
+        mTiles = new MapTile[tiles.length * 2];
+        for(int i = 0; i < tiles.length; i++) {
+            if(tiles[i] != null) {
+                insert(keys[i], tiles[i]);
+            }
+        }
+    }
+
+    /**
+     * @return the coordinates of a tile packed into a single key
+     */
+    static long pack(int tileX, int tileY) {
+        return ((long) tileX << 32) | (tileY & 0xffffffffL);
+    }
+
+    /**
+     * @return the hash of a key, which is also used by the directory of MappedTileStore
+     */
+    static int hash(long key) {
+        key *= 0x9E3779B97F4A7C15L;
+        return (int) (key ^ (key >>> 32));
+    }
+
+}
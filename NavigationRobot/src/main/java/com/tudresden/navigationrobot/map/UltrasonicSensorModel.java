@@ -0,0 +1,174 @@
+package com.tudresden.navigationrobot.map;
+
+import java.util.Arrays;
+
+/**
+ * The inverse sensor model of the ultrasonic sensor. The ultrasonic sensor does not measure along a
+ * thin ray but returns the distance to the closest echo within a cone. A reading is therefore
+ * integrated by casting a fan of rays across the cone: Cells in front of the measured distance are
+ * made more likely to be free, cells on the arc at the measured distance are made more likely to be
+ * occupied. Updates are weighted by the angle to the axis of the cone because the sensor is most
+ * sensitive along its axis.
+ * Each cell is updated at most once per reading. All scratch memory is allocated up front, so
+ * integrating a reading does not allocate.
+ */
+class UltrasonicSensorModel {
+
+    /**
+     * Half of the opening angle of the ultrasonic cone (15°).
+     */
+    static final double HALF_ANGLE = Math.toRadians(15);
+
+    /**
+     * The minimal distance that the ultrasonic sensor can measure in meters.
+     */
+    static final double RANGE_MIN = 0.25;
+
+    /**
+     * The maximal distance that the ultrasonic sensor can measure in meters. If no obstacle is
+     * detected within that range, the sensor returns exactly this value.
+     */
+    static final double RANGE_MAX = 1.5;
+
+    /**
+     * The log-odds that are added to a cell on the arc of the measured distance.
+     */
+    static final float LOG_ODDS_OCCUPIED = 0.85f;
+
+    /**
+     * The log-odds that are added to a cell in front of the measured distance.
+     */
+    static final float LOG_ODDS_FREE = -0.5f;
+
+    /**
+     * The size of the hash set that remembers the cells updated by the current reading. Needs to be
+     * a power of two and considerably larger than the number of cells within the cone.
+     */
+    private static final int VISITED_CAPACITY = 2048;
+
+    /**
+     * The cell keys of the visited set.
+     */
+    private final long[] mVisitedKeys = new long[VISITED_CAPACITY];
+
+    /**
+     * The reading in which the corresponding entry of the visited set was written. Entries of older
+     * readings count as empty, so the set never needs to be cleared.
+     */
+    private final int[] mVisitedStamps = new int[VISITED_CAPACITY];
+
+    /**
+     * The number of the current reading.
+     */
+    private int mStamp = 0;
+
+    /**
+     * Integrates an ultrasonic reading into a grid.
+     * @param grid the grid that is updated
+     * @param x the x-coordinate of the sensor in meters
+     * @param y the y-coordinate of the sensor in meters
+     * @param heading the heading of the sensor in radians
+     * @param distance the measured distance in meters
+     */
+    void integrate(OccupancyGrid grid, double x, double y, double heading, double distance) {
+        if(distance < RANGE_MIN) {
+            // Readings below the minimal range carry no usable information
+            return;
+        }
+        nextStamp();
+        double resolution = grid.getResolution();
+        boolean hit = distance < RANGE_MAX;
+        double range = Math.min(distance, RANGE_MAX);
+        double halfThickness = resolution / 2;
+        // Choose the angle between two rays so that neighbouring rays are at most one cell apart at
+        // the end of the cone
+        int rays = (int) Math.ceil(2 * HALF_ANGLE * range / resolution) + 1;
+        double angleStep = 2 * HALF_ANGLE / (rays - 1);
+        double step = resolution / 2;
+
+        // First pass: mark the arc of the measured distance. Doing this first makes sure that no
+        // cell on the arc is marked as free by a neighbouring ray.
+        if(hit) {
+            for(int i = 0; i < rays; i++) {
+                double offset = -HALF_ANGLE + i * angleStep;
+                float weight = weight(offset);
+                double cos = Math.cos(heading + offset);
+                double sin = Math.sin(heading + offset);
+                for(double t = range - halfThickness; t <= range + halfThickness; t += step) {
+                    int cellX = grid.toCellX(x + t * cos);
+                    int cellY = grid.toCellY(y + t * sin);
+                    if(visit(cellX, cellY)) {
+                        grid.addLogOdds(cellX, cellY, weight * LOG_ODDS_OCCUPIED);
+                    }
+                }
+            }
+        }
+
+        // Second pass: mark the cells in front of the measured distance as free
+        double freeRange = hit ? range - halfThickness : range;
+        for(int i = 0; i < rays; i++) {
+            double offset = -HALF_ANGLE + i * angleStep;
+            float weight = weight(offset);
+            double cos = Math.cos(heading + offset);
+            double sin = Math.sin(heading + offset);
+            for(double t = 0; t < freeRange; t += step) {
+                int cellX = grid.toCellX(x + t * cos);
+                int cellY = grid.toCellY(y + t * sin);
+                if(visit(cellX, cellY)) {
+                    grid.addLogOdds(cellX, cellY, weight * LOG_ODDS_FREE);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param offset the angle between a ray and the axis of the cone
+     * @return the weight of the updates along the ray, 1 on the axis and 0.25 at the border of the cone
+     */
+    private static float weight(double offset) {
+        double ratio = offset / HALF_ANGLE;
+        return (float) (1.0 - ratio * ratio * 0.75);
+    }
+
+    /**
+     * Starts a new reading, which empties the visited set.
+     */
+    private void nextStamp() {
+        mStamp++;
+        if(mStamp == 0) {
+            // The counter overflowed, so old entries could be mistaken for current ones
+            Arrays.fill(mVisitedStamps, 0);
+            mStamp = 1;
+        }
+    }
+
+    /**
+     * Adds a cell to the visited set.
+     * @param cellX the x-index of the cell
+     * @param cellY the y-index of the cell
+     * @return true if the cell was not yet visited during the current reading; false otherwise
+     */
+    private boolean visit(int cellX, int cellY) {
+        long key = ((long) cellX << 32) | (cellY & 0xffffffffL);
+        int mask = VISITED_CAPACITY - 1;
+        int index = (int) (mix(key) & mask);
+        while(mVisitedStamps[index] == mStamp) {
+            if(mVisitedKeys[index] == key) {
+                return false;
+            }
+            index = (index + 1) & mask;
+        }
+        mVisitedStamps[index] = mStamp;
+        mVisitedKeys[index] = key;
+        return true;
+    }
+
+    /**
+     * Spreads the bits of a cell key for use as a hash code.
+     */
+    private static long mix(long key) {
+        key *= 0x9E3779B97F4A7C15L;
+        return key ^ (key >>> 29);
+    }
+
+}
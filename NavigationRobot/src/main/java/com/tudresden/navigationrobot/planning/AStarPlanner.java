@@ -0,0 +1,280 @@
+package com.tudresden.navigationrobot.planning;
+
+import com.tudresden.navigationrobot.Position;
+
+import java.util.Arrays;
+import java.util.LinkedList;
+
+/**
+ * Plans shortest paths on a PlanningGrid with A*. The robot may move to all 8 neighbours of a cell
+ * but must not cut corners of cells that it can't enter. The octile distance is used as heuristic,
+ * which is the exact path length on an empty 8-connected grid and therefore admissible.
+ * All search state is stored in primitive arrays that are reused for every search, so a search
+ * only allocates the resulting list of waypoints.
+ */
+public class AStarPlanner {
+
+    /**
+     * The cost of a diagonal step.
+     */
+    private static final float SQRT_2 = (float) Math.sqrt(2);
+
+    /**
+     * The maximal distance in cells by which the goal is moved if it can't be entered (e.g. because
+     * the user tapped on a wall).
+     */
+    private static final int GOAL_SNAP_RADIUS = 10;
+
+    /**
+     * Marks a cell without predecessor in mParents.
+     */
+    private static final byte NO_PARENT = -1;
+
+    /**
+     * The grid that is searched.
+     */
+    private final PlanningGrid mGrid;
+
+    /**
+     * The cost of the cheapest known path from the start to every cell.
+     */
+    private float[] mCosts = new float[0];
+
+    /**
+     * The direction (index into PlanningGrid.NEIGHBOUR_X/Y) from which every cell was reached.
+     */
+    private byte[] mParents = new byte[0];
+
+    /**
+     * The search in which mCosts and mParents of a cell were last written (mSearch for open cells,
+     * mSearch + 1 for closed cells). Older values count as unvisited, so the arrays never need to be
+     * cleared.
+     */
+    private int[] mVisits = new int[0];
+
+    /**
+     * The number of the current search. Increased by 2 for every search.
+     */
+    private int mSearch = 0;
+
+    /**
+     * The open list.
+     */
+    private IndexedMinHeap mOpen = new IndexedMinHeap(0);
+
+    /**
+     * The cells of the last path from the goal back to the start.
+     */
+    private int[] mPath = new int[256];
+
+    /**
+     * The number of cells that were expanded during the last search.
+     */
+    private int mExpanded = 0;
+
+    /**
+     * The cost of the path that was found by the last search or infinity if there was none.
+     */
+    private float mPathCost = Float.POSITIVE_INFINITY;
+
+    /**
+     * Creates a planner.
+     * @param grid the grid that is searched
+     */
+    public AStarPlanner(PlanningGrid grid) {
+        this.mGrid = grid;
+    }
+
+    /**
+     * @return the number of cells that were expanded during the last search
+     */
+    public int getExpandedCount() {
+        return mExpanded;
+    }
+
+    /**
+     * @return the cost of the path of the last call of #plan(double, double, double, double) in
+     * cells, or infinity if there was no path
+     */
+    float getPathCost() {
+        return mPathCost;
+    }
+
+    /**
+     * Plans a path between two positions.
+     * @param startX the real x-coordinate of the start
+     * @param startY the real y-coordinate of the start
+     * @param goalX the real x-coordinate of the goal
+     * @param goalY the real y-coordinate of the goal
+     * @return the waypoints of the path without the start or null if there is no path
+     */
+    public LinkedList<Position> plan(double startX, double startY, double goalX, double goalY) {
+        mExpanded = 0;
+        mPathCost = Float.POSITIVE_INFINITY;
+        int start = mGrid.indexOf(startX, startY);
+        int goal = mGrid.indexOf(goalX, goalY);
+        if(start < 0 || goal < 0) {
+            return null;
+        }
+        int snapped = mGrid.nearestTraversable(goal, GOAL_SNAP_RADIUS);
+        if(snapped < 0) {
+            return null;
+        }
+        if(snapped != goal) {
+            goal = snapped;
+            goalX = mGrid.worldX(goal);
+            goalY = mGrid.worldY(goal);
+        }
+        int length = search(start, goal);
+        if(length == 0) {
+            return null;
+        }
+        // mPath goes from the goal to the start, the waypoints need the opposite order
+        for(int i = 0, j = length - 1; i < j; i++, j--) {
+            int cell = mPath[i];
+            mPath[i] = mPath[j];
+            mPath[j] = cell;
+        }
+        return mGrid.toWaypoints(mPath, length, goalX, goalY);
+    }
+
+    /**
+     * Runs A* from the start cell to the goal cell.
+     * @return the number of cells of the path (stored in mPath from the goal to the start) or 0 if
+     * there is no path
+     */
+    private int search(int start, int goal) {
+        prepare();
+        int width = mGrid.getWidth();
+        int height = mGrid.getHeight();
+        byte[] cells = mGrid.cells();
+        float[] costs = mCosts;
+        int[] visits = mVisits;
+        int goalX = mGrid.cellX(goal);
+        int goalY = mGrid.cellY(goal);
+        int open = mSearch;
+        int closed = mSearch + 1;
+
+        costs[start] = 0f;
+        mParents[start] = NO_PARENT;
+        visits[start] = open;
+        mOpen.push(start, heuristic(mGrid.cellX(start), mGrid.cellY(start), goalX, goalY), 0f);
+
+        while(!mOpen.isEmpty()) {
+            int cell = mOpen.pop();
+            if(cell == goal) {
+                mPathCost = costs[goal];
+                return tracePath(goal);
+            }
+            visits[cell] = closed;
+            mExpanded++;
+            int y = cell / width;
+            int x = cell - y * width;
+            // The robot may start within the inflated area next to a wall. In that case it may only
+            // move away from the wall until it has left the inflated area.
+            boolean escaping = cells[cell] > PlanningGrid.UNKNOWN;
+            boolean border = x == 0 || y == 0 || x == width - 1 || y == height - 1;
+            float cost = costs[cell];
+            for(int direction = 0; direction < 8; direction++) {
+                int nx = x + PlanningGrid.NEIGHBOUR_X[direction];
+                int ny = y + PlanningGrid.NEIGHBOUR_Y[direction];
+                if(border && (nx < 0 || ny < 0 || nx >= width || ny >= height)) {
+                    continue;
+                }
+                int neighbour = ny * width + nx;
+                if(visits[neighbour] == closed) {
+                    continue;
+                }
+                byte type = cells[neighbour];
+                if(type > PlanningGrid.UNKNOWN && !(escaping && canEscape(cell, neighbour))) {
+                    continue;
+                }
+                boolean diagonal = direction >= 4;
+                if(diagonal && (!canEnter(cells, cell, y * width + nx, escaping)
+                        || !canEnter(cells, cell, ny * width + x, escaping))) {
+                    // Don't cut corners
+                    continue;
+                }
+                float step = type == PlanningGrid.FREE ? 1f : PlanningGrid.UNKNOWN_COST;
+                float newCost = cost + (diagonal ? SQRT_2 * step : step);
+                if(visits[neighbour] != open || newCost < costs[neighbour]) {
+                    costs[neighbour] = newCost;
+                    mParents[neighbour] = (byte) direction;
+                    visits[neighbour] = open;
+                    // Ties are broken towards the higher cost, which prefers cells close to the goal
+                    mOpen.push(neighbour, newCost + heuristic(nx, ny, goalX, goalY), -newCost);
+                }
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return true if the robot may move from the first cell into the second cell
+     */
+    private boolean canEnter(byte[] cells, int from, int to, boolean escaping) {
+        return cells[to] <= PlanningGrid.UNKNOWN || (escaping && canEscape(from, to));
+    }
+
+    /**
+     * @return true if the second cell is not occupied and further away from obstacles than the first
+     */
+    private boolean canEscape(int from, int to) {
+        return mGrid.classOf(to) != PlanningGrid.OCCUPIED && mGrid.distanceOf(to) >= mGrid.distanceOf(from);
+    }
+
+    /**
+     * Makes sure the search arrays fit the grid and starts a new search.
+     */
+    private void prepare() {
+        int size = mGrid.size();
+        if(mCosts.length < size) {
+            mCosts = new float[size];
+            mParents = new byte[size];
+            mVisits = new int[size];
+            mSearch = 0;
+        }
+        if(mOpen.nodeCount() < size) {
+            mOpen = new IndexedMinHeap(size);
+        } else {
+            mOpen.clear();
+        }
+        mSearch += 2;
+        if(mSearch < 0) {
+            // The counter overflowed, so old visits could be mistaken for current ones
+            Arrays.fill(mVisits, 0);
+            mSearch = 2;
+        }
+    }
+
+    /**
+     * Follows the parents from the goal back to the start and stores the cells in mPath.
+     * @return the number of cells of the path
+     */
+    private int tracePath(int goal) {
+        int width = mGrid.getWidth();
+        int length = 0;
+        int cell = goal;
+        while(true) {
+            if(length == mPath.length) {
+                mPath = Arrays.copyOf(mPath, length * 2);
+            }
+            mPath[length++] = cell;
+            byte direction = mParents[cell];
+            if(direction == NO_PARENT) {
+                return length;
+            }
+            cell -= PlanningGrid.NEIGHBOUR_Y[direction] * width + PlanningGrid.NEIGHBOUR_X[direction];
+        }
+    }
+
+    /**
+     * @return the octile distance between two cells
+     */
+    private static float heuristic(int x, int y, int goalX, int goalY) {
+        int dx = Math.abs(x - goalX);
+        int dy = Math.abs(y - goalY);
+        return (dx + dy) + (SQRT_2 - 2f) * Math.min(dx, dy);
+    }
+
+}
@@ -0,0 +1,499 @@
+package com.tudresden.navigationrobot.planning;
+
+import com.tudresden.navigationrobot.Position;
+
+import java.util.Arrays;
+import java.util.LinkedList;
+
+/**
+ * Plans shortest paths on a PlanningGrid with D* Lite (Koenig and Likhachev, 2002). The search runs
+ * backwards from the goal to the robot, so the costs of all expanded cells stay valid when the robot
+ * moves. When cells of the grid change, only the cells whose cost to the goal is affected are
+ * expanded again, which is usually a small fraction of the initial search.
+ * The robot may move to all 8 neighbours of a cell but must not cut corners of cells that it can't
+ * enter. Moving between two cells costs the average cost of both cells times the length of the step,
+ * so the costs are the same in both directions. All search state is stored in primitive arrays that
+ * are reused for every search.
+ */
+public class DStarLitePlanner {
+
+    /**
+     * The cost of a diagonal step.
+     */
+    private static final float SQRT_2 = (float) Math.sqrt(2);
+
+    /**
+     * The cost of an edge that can't be used and the cost of an unreachable cell.
+     */
+    private static final float INFINITY = Float.POSITIVE_INFINITY;
+
+    /**
+     * The maximal distance in cells by which the start or the goal is moved if it can't be entered
+     * (e.g. because the user tapped on a wall or the robot stopped close to an obstacle).
+     */
+    private static final int SNAP_RADIUS = 10;
+
+    /**
+     * The tolerance for comparing costs that were summed up in a different order.
+     */
+    private static final float EPSILON = 1e-3f;
+
+    /**
+     * The factor by which the heuristic is scaled down. On an empty grid the octile distance equals
+     * the real cost, so keys of cells on the path tie with the key of the start. Rounding errors could
+     * then stop the search too early, which is avoided by keeping the heuristic slightly lower.
+     */
+    private static final float HEURISTIC_WEIGHT = 0.999f;
+
+    /**
+     * The grid that is searched.
+     */
+    private final PlanningGrid mGrid;
+
+    /**
+     * The cost of the cheapest known path from every cell to the goal.
+     */
+    private float[] mG = new float[0];
+
+    /**
+     * The one-step lookahead of mG: the cheapest cost of moving to a neighbour plus its cost to the
+     * goal. A cell is consistent if both values are equal.
+     */
+    private float[] mRhs = new float[0];
+
+    /**
+     * The search in which mG and mRhs of a cell were last written. Older values count as infinite,
+     * so the arrays never need to be cleared.
+     */
+    private int[] mVisits = new int[0];
+
+    /**
+     * The number of the current search.
+     */
+    private int mSearch = 0;
+
+    /**
+     * The inconsistent cells, ordered by their two-part key.
+     */
+    private IndexedMinHeap mOpen = new IndexedMinHeap(0);
+
+    /**
+     * The cell that the robot is in.
+     */
+    private int mStart = -1;
+
+    /**
+     * The cell that the robot was in when the keys were last adjusted with mKeyModifier.
+     */
+    private int mLastStart = -1;
+
+    /**
+     * The goal cell or -1 if there is no search.
+     */
+    private int mGoal = -1;
+
+    /**
+     * The real x-coordinate of the goal that was requested, before it was moved to a cell that can
+     * be entered.
+     */
+    private double mRequestedGoalX;
+
+    /**
+     * The real y-coordinate of the goal that was requested.
+     */
+    private double mRequestedGoalY;
+
+    /**
+     * The real x-coordinate of the goal.
+     */
+    private double mGoalX;
+
+    /**
+     * The real y-coordinate of the goal.
+     */
+    private double mGoalY;
+
+    /**
+     * The sum of the heuristic distances that the robot has moved since the search started. Added to
+     * new keys instead of updating all keys in the open list when the robot moves.
+     */
+    private float mKeyModifier = 0f;
+
+    /**
+     * The cells of the current path from the start to the goal.
+     */
+    private int[] mPath = new int[256];
+
+    /**
+     * The number of cells that were expanded since the last call of #plan() or #replan().
+     */
+    private int mExpanded = 0;
+
+    /**
+     * Creates a planner.
+     * @param grid the grid that is searched
+     */
+    public DStarLitePlanner(PlanningGrid grid) {
+        this.mGrid = grid;
+    }
+
+    /**
+     * @return the number of cells that were expanded during the last call of #plan() or #replan()
+     */
+    public int getExpandedCount() {
+        return mExpanded;
+    }
+
+    /**
+     * @return the cost of the path of the last call of #plan(double, double, double, double) or
+     * #replan(double, double) in cells, or infinity if there was no path
+     */
+    float getPathCost() {
+        return mGoal < 0 ? INFINITY : g(mStart);
+    }
+
+    /**
+     * Starts a new search between two positions. Must be called again whenever the grid got a new
+     * snapshot.
+     * @param startX the real x-coordinate of the start
+     * @param startY the real y-coordinate of the start
+     * @param goalX the real x-coordinate of the goal
+     * @param goalY the real y-coordinate of the goal
+     * @return the waypoints of the path without the start or null if there is no path
+     */
+    public LinkedList<Position> plan(double startX, double startY, double goalX, double goalY) {
+        mExpanded = 0;
+        mGoal = -1;
+        mRequestedGoalX = goalX;
+        mRequestedGoalY = goalY;
+        mGrid.clearChanges();
+        int start = snap(mGrid.indexOf(startX, startY));
+        int goal = snap(mGrid.indexOf(goalX, goalY));
+        if(start < 0 || goal < 0) {
+            return null;
+        }
+        prepare();
+        mStart = start;
+        mLastStart = start;
+        mGoal = goal;
+        if(goal != mGrid.indexOf(goalX, goalY)) {
+            goalX = mGrid.worldX(goal);
+            goalY = mGrid.worldY(goal);
+        }
+        mGoalX = goalX;
+        mGoalY = goalY;
+        mKeyModifier = 0f;
+        setRhs(goal, 0f);
+        mOpen.push(goal, heuristic(start, goal), 0f);
+        computeShortestPath();
+        return path();
+    }
+
+    /**
+     * Repairs the path of the current search after the robot has moved and cells of the grid were
+     * changed with PlanningGrid#markOccupied(double, double). If the changes moved the goal to
+     * another cell that can be entered, e.g. because an obstacle was inflated over it, the search
+     * starts again like #plan(double, double, double, double).
+     * @param startX the real x-coordinate of the robot
+     * @param startY the real y-coordinate of the robot
+     * @return the waypoints of the repaired path without the start or null if there is no path
+     */
+    public LinkedList<Position> replan(double startX, double startY) {
+        mExpanded = 0;
+        if(mGoal < 0) {
+            return null;
+        }
+        int start = snap(mGrid.indexOf(startX, startY));
+        if(start < 0) {
+            return null;
+        }
+        if(snap(mGrid.indexOf(mRequestedGoalX, mRequestedGoalY)) != mGoal) {
+            return plan(startX, startY, mRequestedGoalX, mRequestedGoalY);
+        }
+        mStart = start;
+        // Instead of lowering the keys of all cells in the open list, the keys of new cells are raised
+        mKeyModifier += heuristic(mLastStart, start);
+        mLastStart = start;
+        int width = mGrid.getWidth();
+        int height = mGrid.getHeight();
+        for(int i = 0; i < mGrid.getChangedCount(); i++) {
+            int cell = mGrid.getChangedCell(i);
+            int x = mGrid.cellX(cell);
+            int y = mGrid.cellY(cell);
+            updateRhs(cell);
+            // The edges of the neighbours change too, including diagonal edges that pass the corner
+            for(int direction = 0; direction < 8; direction++) {
+                int nx = x + PlanningGrid.NEIGHBOUR_X[direction];
+                int ny = y + PlanningGrid.NEIGHBOUR_Y[direction];
+                if(nx >= 0 && ny >= 0 && nx < width && ny < height) {
+                    updateRhs(ny * width + nx);
+                }
+            }
+        }
+        mGrid.clearChanges();
+        computeShortestPath();
+        return path();
+    }
+
+    /**
+     * Expands inconsistent cells until the cost of the start is known.
+     */
+    private void computeShortestPath() {
+        while(!mOpen.isEmpty()) {
+            float startKey2 = Math.min(g(mStart), rhs(mStart));
+            float startKey1 = startKey2 + mKeyModifier;
+            if(!IndexedMinHeap.less(mOpen.peekKey1(), mOpen.peekKey2(), startKey1, startKey2)
+                    && rhs(mStart) == g(mStart)) {
+                break;
+            }
+            int cell = mOpen.peek();
+            float oldKey1 = mOpen.peekKey1();
+            float oldKey2 = mOpen.peekKey2();
+            float key2 = Math.min(g(cell), rhs(cell));
+            float key1 = key2 + heuristic(mStart, cell) + mKeyModifier;
+            if(IndexedMinHeap.less(oldKey1, oldKey2, key1, key2)) {
+                // The key was computed for an older start
+                mOpen.push(cell, key1, key2);
+                continue;
+            }
+            mExpanded++;
+            mOpen.pop();
+            int width = mGrid.getWidth();
+            int height = mGrid.getHeight();
+            int x = mGrid.cellX(cell);
+            int y = mGrid.cellY(cell);
+            if(g(cell) > rhs(cell)) {
+                // The cell got cheaper, which may make its neighbours cheaper
+                float g = rhs(cell);
+                setG(cell, g);
+                for(int direction = 0; direction < 8; direction++) {
+                    int nx = x + PlanningGrid.NEIGHBOUR_X[direction];
+                    int ny = y + PlanningGrid.NEIGHBOUR_Y[direction];
+                    if(nx < 0 || ny < 0 || nx >= width || ny >= height) {
+                        continue;
+                    }
+                    int neighbour = ny * width + nx;
+                    float rhs = edgeCost(x, y, direction) + g;
+                    if(neighbour != mGoal && rhs < rhs(neighbour)) {
+                        setRhs(neighbour, rhs);
+                        updateVertex(neighbour);
+                    }
+                }
+            } else {
+                // The cell got more expensive, so all neighbours that relied on it need a new lookahead
+                float oldG = g(cell);
+                setG(cell, INFINITY);
+                updateRhs(cell);
+                for(int direction = 0; direction < 8; direction++) {
+                    int nx = x + PlanningGrid.NEIGHBOUR_X[direction];
+                    int ny = y + PlanningGrid.NEIGHBOUR_Y[direction];
+                    if(nx < 0 || ny < 0 || nx >= width || ny >= height) {
+                        continue;
+                    }
+                    int neighbour = ny * width + nx;
+                    if(rhs(neighbour) >= edgeCost(x, y, direction) + oldG - EPSILON) {
+                        updateRhs(neighbour);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Recomputes the lookahead of a cell from its neighbours and updates its place in the open list.
+     * @param cell the index of the cell
+     */
+    private void updateRhs(int cell) {
+        if(cell != mGoal) {
+            int width = mGrid.getWidth();
+            int height = mGrid.getHeight();
+            int x = mGrid.cellX(cell);
+            int y = mGrid.cellY(cell);
+            float best = INFINITY;
+            for(int direction = 0; direction < 8; direction++) {
+                int nx = x + PlanningGrid.NEIGHBOUR_X[direction];
+                int ny = y + PlanningGrid.NEIGHBOUR_Y[direction];
+                if(nx < 0 || ny < 0 || nx >= width || ny >= height) {
+                    continue;
+                }
+                int neighbour = ny * width + nx;
+                best = Math.min(best, edgeCost(x, y, direction) + g(neighbour));
+            }
+            setRhs(cell, best);
+        }
+        updateVertex(cell);
+    }
+
+    /**
+     * Puts a cell into the open list if it is inconsistent and removes it otherwise.
+     * @param cell the index of the cell
+     */
+    private void updateVertex(int cell) {
+        float g = g(cell);
+        float rhs = rhs(cell);
+        if(g != rhs) {
+            float key2 = Math.min(g, rhs);
+            mOpen.push(cell, key2 + heuristic(mStart, cell) + mKeyModifier, key2);
+        } else {
+            mOpen.remove(cell);
+        }
+    }
+
+    /**
+     * Follows the cheapest neighbours from the start to the goal.
+     * @return the waypoints of the path without the start or null if there is no path
+     */
+    private LinkedList<Position> path() {
+        if(g(mStart) == INFINITY && rhs(mStart) == INFINITY) {
+            return null;
+        }
+        int width = mGrid.getWidth();
+        int height = mGrid.getHeight();
+        int length = 0;
+        int cell = mStart;
+        mPath[length++] = cell;
+        while(cell != mGoal) {
+            int x = mGrid.cellX(cell);
+            int y = mGrid.cellY(cell);
+            int next = -1;
+            float best = INFINITY;
+            for(int direction = 0; direction < 8; direction++) {
+                int nx = x + PlanningGrid.NEIGHBOUR_X[direction];
+                int ny = y + PlanningGrid.NEIGHBOUR_Y[direction];
+                if(nx < 0 || ny < 0 || nx >= width || ny >= height) {
+                    continue;
+                }
+                int neighbour = ny * width + nx;
+                float cost = edgeCost(x, y, direction) + g(neighbour);
+                if(cost < best) {
+                    best = cost;
+                    next = neighbour;
+                }
+            }
+            if(next < 0 || length >= mGrid.size()) {
+                // Can only happen if the costs are not consistent, which would be a bug
+                return null;
+            }
+            if(length == mPath.length) {
+                mPath = Arrays.copyOf(mPath, length * 2);
+            }
+            mPath[length++] = next;
+            cell = next;
+        }
+        return mGrid.toWaypoints(mPath, length, mGoalX, mGoalY);
+    }
+
+    /**
+     * The costs are the same in both directions, so this is also the cost of moving from the
+     * neighbour to the cell.
+     * @param x the x-index of a cell
+     * @param y the y-index of a cell
+     * @param direction the direction of a neighbour of the cell, which must be within the grid
+     * @return the cost of moving from the cell to the neighbour or INFINITY if the robot can't
+     */
+    private float edgeCost(int x, int y, int direction) {
+        byte[] cells = mGrid.cells();
+        int width = mGrid.getWidth();
+        int nx = x + PlanningGrid.NEIGHBOUR_X[direction];
+        int ny = y + PlanningGrid.NEIGHBOUR_Y[direction];
+        byte from = cells[y * width + x];
+        byte to = cells[ny * width + nx];
+        if(from > PlanningGrid.UNKNOWN || to > PlanningGrid.UNKNOWN) {
+            return INFINITY;
+        }
+        float cost = ((from == PlanningGrid.FREE ? 1f : PlanningGrid.UNKNOWN_COST)
+                + (to == PlanningGrid.FREE ? 1f : PlanningGrid.UNKNOWN_COST)) * 0.5f;
+        if(direction < 4) {
+            return cost;
+        }
+        // Don't cut corners
+        if(cells[y * width + nx] > PlanningGrid.UNKNOWN || cells[ny * width + x] > PlanningGrid.UNKNOWN) {
+            return INFINITY;
+        }
+        return SQRT_2 * cost;
+    }
+
+    /**
+     * @return the cost to the goal of a cell
+     */
+    private float g(int cell) {
+        return mVisits[cell] == mSearch ? mG[cell] : INFINITY;
+    }
+
+    /**
+     * @return the lookahead of a cell
+     */
+    private float rhs(int cell) {
+        return mVisits[cell] == mSearch ? mRhs[cell] : INFINITY;
+    }
+
+    /**
+     * Sets the cost to the goal of a cell.
+     */
+    private void setG(int cell, float g) {
+        touch(cell);
+        mG[cell] = g;
+    }
+
+    /**
+     * Sets the lookahead of a cell.
+     */
+    private void setRhs(int cell, float rhs) {
+        touch(cell);
+        mRhs[cell] = rhs;
+    }
+
+    /**
+     * Initializes both values of a cell with INFINITY if they are from an older search.
+     */
+    private void touch(int cell) {
+        if(mVisits[cell] != mSearch) {
+            mVisits[cell] = mSearch;
+            mG[cell] = INFINITY;
+            mRhs[cell] = INFINITY;
+        }
+    }
+
+    /**
+     * @param cell the index of a cell or -1
+     * @return the closest traversable cell or -1 if there is none
+     */
+    private int snap(int cell) {
+        return cell < 0 ? -1 : mGrid.nearestTraversable(cell, SNAP_RADIUS);
+    }
+
+    /**
+     * Makes sure the search arrays fit the grid and starts a new search.
+     */
+    private void prepare() {
+        int size = mGrid.size();
+        if(mG.length < size) {
+            mG = new float[size];
+            mRhs = new float[size];
+            mVisits = new int[size];
+            mSearch = 0;
+        }
+        if(mOpen.nodeCount() < size) {
+            mOpen = new IndexedMinHeap(size);
+        } else {
+            mOpen.clear();
+        }
+        mSearch++;
+        if(mSearch < 0) {
+            // The counter overflowed, so old values could be mistaken for current ones
+            Arrays.fill(mVisits, 0);
+            mSearch = 1;
+        }
+    }
+
+    /**
+     * @return the scaled octile distance between two cells, which never overestimates the cost
+     * between them
+     */
+    private float heuristic(int from, int to) {
+        int dx = Math.abs(mGrid.cellX(from) - mGrid.cellX(to));
+        int dy = Math.abs(mGrid.cellY(from) - mGrid.cellY(to));
+        return HEURISTIC_WEIGHT * ((dx + dy) + (SQRT_2 - 2f) * Math.min(dx, dy));
+    }
+
+}
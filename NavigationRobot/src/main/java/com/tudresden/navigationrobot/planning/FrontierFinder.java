@@ -0,0 +1,449 @@
+package com.tudresden.navigationrobot.planning;
+
+import com.tudresden.navigationrobot.Position;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Finds the frontier that is most worth exploring next. Frontier cells are known free cells next to
+ * unknown cells; connected frontier cells form a frontier. A single Dijkstra search from the robot
+ * yields the travel distance to every frontier, and the number of unknown cells within the range of
+ * the sensor around the closest cell of a frontier estimates how much the robot learns there. The
+ * frontier with the greatest gain per meter of travel is chosen.
+ * All search state is stored in primitive arrays that are reused for every search.
+ */
+public class FrontierFinder {
+
+    /**
+     * The cost of a diagonal step.
+     */
+    private static final float SQRT_2 = (float) Math.sqrt(2);
+
+    /**
+     * The smallest number of cells of a frontier. Smaller frontiers are usually gaps between the
+     * cones of two readings that are not worth the trip.
+     */
+    private static final int MIN_FRONTIER_SIZE = 4;
+
+    /**
+     * The travel distance in meters that is assumed for frontiers that are closer, so that a tiny
+     * frontier right next to the robot doesn't win just because it costs nothing to get there.
+     */
+    private static final double MIN_TRAVEL_DISTANCE = 0.5;
+
+    /**
+     * The distance in meters around a visited target within which frontier cells are ignored. Some
+     * unknown cells can't be seen from anywhere (e.g. behind glass), so the robot would otherwise
+     * return to them forever.
+     */
+    private static final double VISITED_RADIUS = 0.5;
+
+    /**
+     * The maximal distance in cells by which the start is moved if the robot stands within the
+     * inflated area around an obstacle.
+     */
+    private static final int START_SNAP_RADIUS = 10;
+
+    /**
+     * Marks a cell without predecessor in mParents.
+     */
+    private static final byte NO_PARENT = -1;
+
+    /**
+     * The grid that is searched.
+     */
+    private final PlanningGrid mGrid;
+
+    /**
+     * The range of the sensor in meters.
+     */
+    private final double mSensorRange;
+
+    /**
+     * The cost of the cheapest path from the start to every cell.
+     */
+    private float[] mCosts = new float[0];
+
+    /**
+     * The direction (index into PlanningGrid.NEIGHBOUR_X/Y) from which every cell was reached.
+     */
+    private byte[] mParents = new byte[0];
+
+    /**
+     * The search in which a cell was last reached (mSearch for open cells, mSearch + 1 for closed
+     * cells, mSearch + 2 for closed cells that belong to an evaluated frontier).
+     */
+    private int[] mVisits = new int[0];
+
+    /**
+     * The number of the current search. Increased by 3 for every search.
+     */
+    private int mSearch = 0;
+
+    /**
+     * The open list.
+     */
+    private IndexedMinHeap mOpen = new IndexedMinHeap(0);
+
+    /**
+     * The closed cells in the order of their cost.
+     */
+    private int[] mClosed = new int[256];
+
+    /**
+     * The queue for collecting the cells of a frontier.
+     */
+    private int[] mQueue = new int[256];
+
+    /**
+     * The cells of the last path from the target back to the start.
+     */
+    private int[] mPath = new int[256];
+
+    /**
+     * The targets that were already visited.
+     */
+    private LinkedList<Position> mVisited = new LinkedList<>();
+
+    /**
+     * The number of frontiers that were found in the last search.
+     */
+    private int mFrontierCount = 0;
+
+    /**
+     * The number of unknown cells around the chosen frontier.
+     */
+    private int mGain = 0;
+
+    /**
+     * The travel distance in meters to the chosen frontier.
+     */
+    private double mDistance = 0.0;
+
+    /**
+     * Creates a finder.
+     * @param grid the grid that is searched
+     * @param sensorRange the range of the sensor in meters
+     */
+    public FrontierFinder(PlanningGrid grid, double sensorRange) {
+        this.mGrid = grid;
+        this.mSensorRange = sensorRange;
+    }
+
+    /**
+     * @return the number of frontiers that were found in the last search
+     */
+    public int getFrontierCount() {
+        return mFrontierCount;
+    }
+
+    /**
+     * @return the number of unknown cells within the range of the sensor around the chosen frontier
+     */
+    public int getGain() {
+        return mGain;
+    }
+
+    /**
+     * @return the travel distance in meters to the chosen frontier
+     */
+    public double getDistance() {
+        return mDistance;
+    }
+
+    /**
+     * Excludes the frontiers around a position from all following searches.
+     * @param x the real x-coordinate of the position
+     * @param y the real y-coordinate of the position
+     */
+    public void addVisited(double x, double y) {
+        mVisited.add(new Position(x, y));
+    }
+
+    /**
+     * @return the positions whose frontiers are excluded from the searches, oldest first
+     */
+    public List<Position> getVisited() {
+        return Collections.unmodifiableList(mVisited);
+    }
+
+    /**
+     * Searches for the frontier with the greatest gain per meter of travel.
+     * @param robotX the real x-coordinate of the robot
+     * @param robotY the real y-coordinate of the robot
+     * @return the waypoints of the path to the frontier without the start or null if there is no
+     * reachable frontier left
+     */
+    public LinkedList<Position> find(double robotX, double robotY) {
+        mFrontierCount = 0;
+        mGain = 0;
+        mDistance = 0.0;
+        int start = mGrid.indexOf(robotX, robotY);
+        if(start < 0) {
+            return null;
+        }
+        start = mGrid.nearestTraversable(start, START_SNAP_RADIUS);
+        if(start < 0) {
+            return null;
+        }
+        int closedCount = search(start);
+        int target = chooseFrontier(closedCount);
+        if(target < 0) {
+            return null;
+        }
+        int length = tracePath(target);
+        // mPath goes from the target to the start, the waypoints need the opposite order
+        for(int i = 0, j = length - 1; i < j; i++, j--) {
+            int cell = mPath[i];
+            mPath[i] = mPath[j];
+            mPath[j] = cell;
+        }
+        return mGrid.toWaypoints(mPath, length, mGrid.worldX(target), mGrid.worldY(target));
+    }
+
+    /**
+     * Runs Dijkstra from the start cell over all reachable cells and stores them in mClosed.
+     * @return the number of reachable cells
+     */
+    private int search(int start) {
+        prepare();
+        int width = mGrid.getWidth();
+        int height = mGrid.getHeight();
+        byte[] cells = mGrid.cells();
+        int open = mSearch;
+        int closed = mSearch + 1;
+        int closedCount = 0;
+
+        mCosts[start] = 0f;
+        mParents[start] = NO_PARENT;
+        mVisits[start] = open;
+        mOpen.push(start, 0f, 0f);
+        while(!mOpen.isEmpty()) {
+            int cell = mOpen.pop();
+            mVisits[cell] = closed;
+            if(closedCount == mClosed.length) {
+                mClosed = Arrays.copyOf(mClosed, closedCount * 2);
+            }
+            mClosed[closedCount++] = cell;
+            int y = cell / width;
+            int x = cell - y * width;
+            float cost = mCosts[cell];
+            for(int direction = 0; direction < 8; direction++) {
+                int nx = x + PlanningGrid.NEIGHBOUR_X[direction];
+                int ny = y + PlanningGrid.NEIGHBOUR_Y[direction];
+                if(nx < 0 || ny < 0 || nx >= width || ny >= height) {
+                    continue;
+                }
+                int neighbour = ny * width + nx;
+                byte type = cells[neighbour];
+                if(mVisits[neighbour] == closed || type > PlanningGrid.UNKNOWN) {
+                    continue;
+                }
+                boolean diagonal = direction >= 4;
+                if(diagonal && (cells[y * width + nx] > PlanningGrid.UNKNOWN
+                        || cells[ny * width + x] > PlanningGrid.UNKNOWN)) {
+                    // Don't cut corners
+                    continue;
+                }
+                float step = type == PlanningGrid.FREE ? 1f : PlanningGrid.UNKNOWN_COST;
+                float newCost = cost + (diagonal ? SQRT_2 * step : step);
+                if(mVisits[neighbour] != open || newCost < mCosts[neighbour]) {
+                    mCosts[neighbour] = newCost;
+                    mParents[neighbour] = (byte) direction;
+                    mVisits[neighbour] = open;
+                    mOpen.push(neighbour, newCost, 0f);
+                }
+            }
+        }
+        return closedCount;
+    }
+
+    /**
+     * Groups the reachable frontier cells into frontiers and rates every frontier.
+     * @param closedCount the number of reachable cells in mClosed
+     * @return the cell of the best frontier that is closest to the start or -1 if there is none
+     */
+    private int chooseFrontier(int closedCount) {
+        int width = mGrid.getWidth();
+        int height = mGrid.getHeight();
+        int closed = mSearch + 1;
+        int grouped = mSearch + 2;
+        int best = -1;
+        double bestScore = 0.0;
+        excludeVisited(closed, grouped);
+        // The closed cells are ordered by cost, so the first cell of every frontier is its closest one
+        for(int i = 0; i < closedCount; i++) {
+            int seed = mClosed[i];
+            if(mVisits[seed] != closed || !isFrontier(seed)) {
+                continue;
+            }
+            // Collect all connected frontier cells
+            int size = 0;
+            int tail = 0;
+            mVisits[seed] = grouped;
+            mQueue[tail++] = seed;
+            while(size < tail) {
+                int cell = mQueue[size++];
+                int x = mGrid.cellX(cell);
+                int y = mGrid.cellY(cell);
+                for(int direction = 0; direction < 8; direction++) {
+                    int nx = x + PlanningGrid.NEIGHBOUR_X[direction];
+                    int ny = y + PlanningGrid.NEIGHBOUR_Y[direction];
+                    if(nx < 0 || ny < 0 || nx >= width || ny >= height) {
+                        continue;
+                    }
+                    int neighbour = ny * width + nx;
+                    if(mVisits[neighbour] == closed && isFrontier(neighbour)) {
+                        mVisits[neighbour] = grouped;
+                        if(tail == mQueue.length) {
+                            mQueue = Arrays.copyOf(mQueue, tail * 2);
+                        }
+                        mQueue[tail++] = neighbour;
+                    }
+                }
+            }
+            if(size < MIN_FRONTIER_SIZE) {
+                continue;
+            }
+            mFrontierCount++;
+            int gain = countUnknown(seed);
+            double distance = mCosts[seed] * mGrid.getResolution();
+            double score = gain / Math.max(distance, MIN_TRAVEL_DISTANCE);
+            if(score > bestScore) {
+                best = seed;
+                bestScore = score;
+                mGain = gain;
+                mDistance = distance;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return true if the cell is free and at least one of its orthogonal neighbours is unknown
+     */
+    private boolean isFrontier(int cell) {
+        if(mGrid.classOf(cell) != PlanningGrid.FREE) {
+            return false;
+        }
+        int x = mGrid.cellX(cell);
+        int y = mGrid.cellY(cell);
+        for(int direction = 0; direction < 4; direction++) {
+            int nx = x + PlanningGrid.NEIGHBOUR_X[direction];
+            int ny = y + PlanningGrid.NEIGHBOUR_Y[direction];
+            if(nx < 0 || ny < 0 || nx >= mGrid.getWidth() || ny >= mGrid.getHeight()) {
+                // Everything outside the snapshot is unknown
+                return true;
+            }
+            if(mGrid.classOf(ny * mGrid.getWidth() + nx) == PlanningGrid.UNKNOWN) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Marks the reachable cells around all visited targets as if they already belonged to a
+     * frontier, so they are not grouped into frontiers again.
+     * @param closed the value of mVisits of reachable cells
+     * @param grouped the value of mVisits of cells that are not grouped anymore
+     */
+    private void excludeVisited(int closed, int grouped) {
+        int width = mGrid.getWidth();
+        int height = mGrid.getHeight();
+        int radius = (int) Math.ceil(VISITED_RADIUS / mGrid.getResolution());
+        for(Position p : mVisited) {
+            int center = mGrid.indexOf(p.getX(), p.getY());
+            if(center < 0) {
+                continue;
+            }
+            int centerX = mGrid.cellX(center);
+            int centerY = mGrid.cellY(center);
+            for(int y = Math.max(0, centerY - radius); y <= Math.min(height - 1, centerY + radius); y++) {
+                for(int x = Math.max(0, centerX - radius); x <= Math.min(width - 1, centerX + radius); x++) {
+                    int cell = y * width + x;
+                    int dx = x - centerX;
+                    int dy = y - centerY;
+                    if(mVisits[cell] == closed && dx * dx + dy * dy <= radius * radius) {
+                        mVisits[cell] = grouped;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of unknown cells within the range of the sensor around the cell
+     */
+    private int countUnknown(int cell) {
+        int width = mGrid.getWidth();
+        int height = mGrid.getHeight();
+        int radius = (int) (mSensorRange / mGrid.getResolution());
+        int centerX = mGrid.cellX(cell);
+        int centerY = mGrid.cellY(cell);
+        byte[] cells = mGrid.cells();
+        int count = 0;
+        for(int dy = -radius; dy <= radius; dy++) {
+            for(int dx = -radius; dx <= radius; dx++) {
+                if(dx * dx + dy * dy > radius * radius) {
+                    continue;
+                }
+                int x = centerX + dx;
+                int y = centerY + dy;
+                if(x < 0 || y < 0 || x >= width || y >= height || cells[y * width + x] == PlanningGrid.UNKNOWN) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Makes sure the search arrays fit the grid and starts a new search.
+     */
+    private void prepare() {
+        int size = mGrid.size();
+        if(mCosts.length < size) {
+            mCosts = new float[size];
+            mParents = new byte[size];
+            mVisits = new int[size];
+            mSearch = 0;
+        }
+        if(mOpen.nodeCount() < size) {
+            mOpen = new IndexedMinHeap(size);
+        } else {
+            mOpen.clear();
+        }
+        mSearch += 3;
+        if(mSearch < 0) {
+            // The counter overflowed, so old visits could be mistaken for current ones
+            Arrays.fill(mVisits, 0);
+            mSearch = 3;
+        }
+    }
+
+    /**
+     * Follows the parents from the target back to the start and stores the cells in mPath.
+     * @return the number of cells of the path
+     */
+    private int tracePath(int target) {
+        int width = mGrid.getWidth();
+        int length = 0;
+        int cell = target;
+        while(true) {
+            if(length == mPath.length) {
+                mPath = Arrays.copyOf(mPath, length * 2);
+            }
+            mPath[length++] = cell;
+            byte direction = mParents[cell];
+            if(direction == NO_PARENT) {
+                return length;
+            }
+            cell -= PlanningGrid.NEIGHBOUR_Y[direction] * width + PlanningGrid.NEIGHBOUR_X[direction];
+        }
+    }
+
+}
@@ -0,0 +1,257 @@
+package com.tudresden.navigationrobot.planning;
+
+import java.util.Arrays;
+
+/**
+ * A binary min-heap of node numbers with a two-part key that is compared lexicographically. The heap
+ * knows the position of every node, so the key of a node that is already in the heap can be changed
+ * in O(log n) without searching for it.
+ * Everything is stored in primitive arrays; pushing and popping does not allocate once the heap has
+ * grown to its working size.
+ */
+class IndexedMinHeap {
+
+    /**
+     * The node in each slot of the heap.
+     */
+    private int[] mNodes;
+
+    /**
+     * The first part of the key of the node in each slot.
+     */
+    private float[] mKeys1;
+
+    /**
+     * The second part of the key of the node in each slot.
+     */
+    private float[] mKeys2;
+
+    /**
+     * The slot of every node or -1 if the node is not in the heap.
+     */
+    private int[] mSlots;
+
+    /**
+     * The number of nodes in the heap.
+     */
+    private int mSize = 0;
+
+    /**
+     * Creates an empty heap.
+     * @param nodeCount the number of nodes; nodes are numbered from 0 to nodeCount - 1
+     */
+    IndexedMinHeap(int nodeCount) {
+        int initial = Math.max(16, Math.min(nodeCount, 1024));
+        mNodes = new int[initial];
+        mKeys1 = new float[initial];
+        mKeys2 = new float[initial];
+        mSlots = new int[nodeCount];
+        Arrays.fill(mSlots, -1);
+    }
+
+    /**
+     * @return the number of nodes the heap was created for
+     */
+    int nodeCount() {
+        return mSlots.length;
+    }
+
+    /**
+     * @return the number of nodes in the heap
+     */
+    int size() {
+        return mSize;
+    }
+
+    /**
+     * @return true if the heap is empty
+     */
+    boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    /**
+     * @param node a node
+     * @return true if the node is in the heap
+     */
+    boolean contains(int node) {
+        return mSlots[node] >= 0;
+    }
+
+    /**
+     * Removes all nodes. Takes time proportional to the number of nodes in the heap, not to the
+     * number of nodes the heap was created for.
+     */
+    void clear() {
+        for(int i = 0; i < mSize; i++) {
+            mSlots[mNodes[i]] = -1;
+        }
+        mSize = 0;
+    }
+
+    /**
+     * @return the node with the smallest key; the heap must not be empty
+     */
+    int peek() {
+        return mNodes[0];
+    }
+
+    /**
+     * @return the first part of the smallest key; the heap must not be empty
+     */
+    float peekKey1() {
+        return mKeys1[0];
+    }
+
+    /**
+     * @return the second part of the smallest key; the heap must not be empty
+     */
+    float peekKey2() {
+        return mKeys2[0];
+    }
+
+    /**
+     * Adds a node to the heap or changes its key if it is already in the heap.
+     * @param node the node
+     * @param key1 the first part of the key
+     * @param key2 the second part of the key
+     */
+    void push(int node, float key1, float key2) {
+        int slot = mSlots[node];
+        if(slot < 0) {
+            if(mSize == mNodes.length) {
+                grow();
+            }
+            slot = mSize++;
+            mNodes[slot] = node;
+            mKeys1[slot] = key1;
+            mKeys2[slot] = key2;
+            mSlots[node] = slot;
+            siftUp(slot);
+        } else {
+            boolean decreased = less(key1, key2, mKeys1[slot], mKeys2[slot]);
+            mKeys1[slot] = key1;
+            mKeys2[slot] = key2;
+            if(decreased) {
+                siftUp(slot);
+            } else {
+                siftDown(slot);
+            }
+        }
+    }
+
+    /**
+     * Removes the node with the smallest key.
+     * @return the removed node; the heap must not be empty
+     */
+    int pop() {
+        int node = mNodes[0];
+        removeAt(0);
+        return node;
+    }
+
+    /**
+     * Removes a node from the heap if it is in the heap.
+     * @param node the node
+     */
+    void remove(int node) {
+        int slot = mSlots[node];
+        if(slot >= 0) {
+            removeAt(slot);
+        }
+    }
+
+    /**
+     * Removes the node in a slot.
+     */
+    private void removeAt(int slot) {
+        mSlots[mNodes[slot]] = -1;
+        mSize--;
+        if(slot == mSize) {
+            return;
+        }
+        // Move the last node into the gap and restore the heap order
+        move(mSize, slot);
+        if(slot > 0 && less(mKeys1[slot], mKeys2[slot], mKeys1[(slot - 1) >> 1], mKeys2[(slot - 1) >> 1])) {
+            siftUp(slot);
+        } else {
+            siftDown(slot);
+        }
+    }
+
+    /**
+     * Moves the node in a slot up until its parent has a smaller key.
+     */
+    private void siftUp(int slot) {
+        int node = mNodes[slot];
+        float key1 = mKeys1[slot];
+        float key2 = mKeys2[slot];
+        while(slot > 0) {
+            int parent = (slot - 1) >> 1;
+            if(!less(key1, key2, mKeys1[parent], mKeys2[parent])) {
+                break;
+            }
+            move(parent, slot);
+            slot = parent;
+        }
+        place(node, key1, key2, slot);
+    }
+
+    /**
+     * Moves the node in a slot down until its children have larger keys.
+     */
+    private void siftDown(int slot) {
+        int node = mNodes[slot];
+        float key1 = mKeys1[slot];
+        float key2 = mKeys2[slot];
+        int half = mSize >> 1;
+        while(slot < half) {
+            int child = 2 * slot + 1;
+            int right = child + 1;
+            if(right < mSize && less(mKeys1[right], mKeys2[right], mKeys1[child], mKeys2[child])) {
+                child = right;
+            }
+            if(!less(mKeys1[child], mKeys2[child], key1, key2)) {
+                break;
+            }
+            move(child, slot);
+            slot = child;
+        }
+        place(node, key1, key2, slot);
+    }
+
+    /**
+     * Copies a node and its key from one slot to another.
+     */
+    private void move(int from, int to) {
+        place(mNodes[from], mKeys1[from], mKeys2[from], to);
+    }
+
+    /**
+     * Stores a node and its key in a slot.
+     */
+    private void place(int node, float key1, float key2, int slot) {
+        mNodes[slot] = node;
+        mKeys1[slot] = key1;
+        mKeys2[slot] = key2;
+        mSlots[node] = slot;
+    }
+
+    /**
+     * Doubles the capacity of the slot arrays.
+     */
+    private void grow() {
+        int capacity = Math.min(mNodes.length * 2, Math.max(mSlots.length, 16));
+        mNodes = Arrays.copyOf(mNodes, capacity);
+        mKeys1 = Arrays.copyOf(mKeys1, capacity);
+        mKeys2 = Arrays.copyOf(mKeys2, capacity);
+    }
+
+    /**
+     * @return true if the first key is smaller than the second key
+     */
+    static boolean less(float a1, float a2, float b1, float b2) {
+        return a1 < b1 || (a1 == b1 && a2 < b2);
+    }
+
+}
@@ -0,0 +1,616 @@
+package com.tudresden.navigationrobot.planning;
+
+import com.tudresden.navigationrobot.Position;
+import com.tudresden.navigationrobot.map.OccupancyGrid;
+
+import java.util.Arrays;
+import java.util.LinkedList;
+
+/**
+ * A dense snapshot of the occupancy grid that the planners search on. The snapshot covers all tiles
+ * of the occupancy grid or a window of them and classifies every cell as free, unknown, occupied or inflated. Inflated
+ * cells are closer to an obstacle than the radius of the robot, so the center of the robot must not
+ * enter them. This allows the planners to treat the robot as a point.
+ * Cells are addressed by their index (y * width + x) within the snapshot. All arrays are reused
+ * when the snapshot is updated, as long as the snapshot does not grow.
+ */
+public class PlanningGrid {
+
+    /**
+     * The radius of the circle that contains the base of the robot in meters.
+     */
+    public static final double ROBOT_RADIUS = 0.3;
+
+    /**
+     * The cell is known to be free.
+     */
+    static final byte FREE = 0;
+
+    /**
+     * It is not known whether the cell is free or occupied.
+     */
+    static final byte UNKNOWN = 1;
+
+    /**
+     * The cell is known to be occupied.
+     */
+    static final byte OCCUPIED = 2;
+
+    /**
+     * The cell is closer to an occupied cell than the radius of the robot.
+     */
+    static final byte INFLATED = 3;
+
+    /**
+     * The factor by which moving through an unknown cell is more expensive than moving through a
+     * free cell. Unknown cells are not forbidden because the ultrasonic sensor leaves many gaps in
+     * the map, but paths through known free space are preferred.
+     */
+    static final float UNKNOWN_COST = 3f;
+
+    /**
+     * The cost of an orthogonal step in the chamfer distance transform.
+     */
+    private static final int CHAMFER_ORTHOGONAL = 3;
+
+    /**
+     * The cost of a diagonal step in the chamfer distance transform. 4/3 is close to the square
+     * root of 2, so the distances are at most 8% off the euclidean distances.
+     */
+    private static final int CHAMFER_DIAGONAL = 4;
+
+    /**
+     * The greatest distance that is stored by the distance transform.
+     */
+    private static final short DISTANCE_MAX = Short.MAX_VALUE;
+
+    /**
+     * The x-offsets of the 8 neighbours of a cell. The first four are the orthogonal neighbours.
+     */
+    static final int[] NEIGHBOUR_X = {1, 0, -1, 0, 1, -1, -1, 1};
+
+    /**
+     * The y-offsets of the 8 neighbours of a cell. The first four are the orthogonal neighbours.
+     */
+    static final int[] NEIGHBOUR_Y = {0, 1, 0, -1, 1, 1, -1, -1};
+
+    /**
+     * The radius of the robot in meters.
+     */
+    private final double mRobotRadius;
+
+    /**
+     * The edge length of a cell in meters.
+     */
+    private double mResolution;
+
+    /**
+     * The x-index (in the occupancy grid) of the first cell of the snapshot.
+     */
+    private int mOriginX;
+
+    /**
+     * The y-index (in the occupancy grid) of the first cell of the snapshot.
+     */
+    private int mOriginY;
+
+    /**
+     * The number of cells of the snapshot in x-direction.
+     */
+    private int mWidth = 0;
+
+    /**
+     * The number of cells of the snapshot in y-direction.
+     */
+    private int mHeight = 0;
+
+    /**
+     * The class of every cell (FREE, UNKNOWN, OCCUPIED or INFLATED).
+     */
+    private byte[] mCells = new byte[0];
+
+    /**
+     * The chamfer distance of every cell to the closest occupied cell in units of
+     * 1/CHAMFER_ORTHOGONAL cells.
+     */
+    private short[] mDistances = new short[0];
+
+    /**
+     * True if the snapshot covers the whole occupancy grid.
+     */
+    private boolean mCoversMap = true;
+
+    /**
+     * The indices of the cells whose class was changed by #markOccupied(double, double) since the
+     * last call of #clearChanges().
+     */
+    private int[] mChanged = new int[64];
+
+    /**
+     * The number of entries in mChanged.
+     */
+    private int mChangedCount = 0;
+
+    /**
+     * Creates an empty snapshot.
+     * @param robotRadius the radius of the robot in meters
+     */
+    public PlanningGrid(double robotRadius) {
+        this.mRobotRadius = robotRadius;
+    }
+
+    /**
+     * Replaces the snapshot with the current state of the whole occupancy grid.
+     * @param map the occupancy grid
+     */
+    public void update(OccupancyGrid map) {
+        if(map.isEmpty()) {
+            update(map, 0, 0, -1, -1);
+        } else {
+            update(map, map.getMinCellX(), map.getMinCellY(), map.getMaxCellX(), map.getMaxCellY());
+        }
+    }
+
+    /**
+     * Replaces the snapshot with the current state of a window of the occupancy grid. Only the
+     * tiles that overlap the window are visited. The snapshot reaches one robot radius beyond the
+     * window, so the obstacles just outside of it still inflate the cells inside. The cells of that
+     * margin are not traversable where the window cuts the occupancy grid, since obstacles beyond
+     * the snapshot might be closer to them than the radius of the robot.
+     * @param map the occupancy grid
+     * @param minCellX the smallest x-index of the window
+     * @param minCellY the smallest y-index of the window
+     * @param maxCellX the greatest x-index of the window
+     * @param maxCellY the greatest y-index of the window
+     */
+    public void update(final OccupancyGrid map, int minCellX, int minCellY, int maxCellX, int maxCellY) {
+        mResolution = map.getResolution();
+        mChangedCount = 0;
+        mWidth = 0;
+        mHeight = 0;
+        mCoversMap = true;
+        if(map.isEmpty()) {
+            return;
+        }
+        int margin = (int) Math.ceil(mRobotRadius / mResolution);
+        mOriginX = Math.max(map.getMinCellX(), minCellX - margin);
+        mOriginY = Math.max(map.getMinCellY(), minCellY - margin);
+        int endX = Math.min(map.getMaxCellX(), maxCellX + margin);
+        int endY = Math.min(map.getMaxCellY(), maxCellY + margin);
+        if(endX < mOriginX || endY < mOriginY) {
+            mCoversMap = false;
+            return;
+        }
+        mWidth = endX - mOriginX + 1;
+        mHeight = endY - mOriginY + 1;
+        int count = mWidth * mHeight;
+        if(mCells.length < count) {
+            mCells = new byte[count];
+            mDistances = new short[count];
+        }
+        Arrays.fill(mCells, 0, count, UNKNOWN);
+        // Uniform regions of the occupancy grid are copied as a whole, as far as they are within the
+        // snapshot
+        map.visitRegions(mOriginX, mOriginY, endX, endY, new OccupancyGrid.RegionVisitor() {
+            @Override
+            public void visit(int cellX, int cellY, int size, float logOdds) {
+                byte value;
+                if(logOdds > OccupancyGrid.OCCUPIED_THRESHOLD) {
+                    value = OCCUPIED;
+                } else if(logOdds < OccupancyGrid.FREE_THRESHOLD) {
+                    value = FREE;
+                } else {
+                    return;
+                }
+                int fromX = Math.max(cellX - mOriginX, 0);
+                int toX = Math.min(cellX + size - mOriginX, mWidth);
+                int fromY = Math.max(cellY - mOriginY, 0);
+                int toY = Math.min(cellY + size - mOriginY, mHeight);
+                for(int row = fromY; row < toY; row++) {
+                    Arrays.fill(mCells, row * mWidth + fromX, row * mWidth + toX, value);
+                }
+            }
+        });
+        inflate();
+        if(mOriginX > map.getMinCellX()) {
+            block(0, 0, margin, mHeight);
+        }
+        if(mOriginY > map.getMinCellY()) {
+            block(0, 0, mWidth, margin);
+        }
+        if(endX < map.getMaxCellX()) {
+            block(mWidth - margin, 0, mWidth, mHeight);
+        }
+        if(endY < map.getMaxCellY()) {
+            block(0, mHeight - margin, mWidth, mHeight);
+        }
+    }
+
+    /**
+     * Marks the traversable cells of a rectangle of the snapshot as inflated.
+     * @param fromX the first x-index within the snapshot
+     * @param fromY the first y-index within the snapshot
+     * @param toX the x-index after the last one, may be beyond the snapshot
+     * @param toY the y-index after the last one, may be beyond the snapshot
+     */
+    private void block(int fromX, int fromY, int toX, int toY) {
+        mCoversMap = false;
+        for(int y = Math.max(fromY, 0); y < Math.min(toY, mHeight); y++) {
+            for(int x = Math.max(fromX, 0); x < Math.min(toX, mWidth); x++) {
+                int index = y * mWidth + x;
+                if(isTraversable(index)) {
+                    mCells[index] = INFLATED;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true if the last snapshot covers the whole occupancy grid, so a path that was not
+     * found on the snapshot does not exist on the occupancy grid either
+     */
+    public boolean coversMap() {
+        return mCoversMap;
+    }
+
+    /**
+     * Computes the chamfer distance of every cell to the closest occupied cell with two passes over
+     * the snapshot and marks all cells within the radius of the robot as inflated.
+     */
+    private void inflate() {
+        int width = mWidth;
+        int height = mHeight;
+        byte[] cells = mCells;
+        short[] distances = mDistances;
+        // Forward pass: top left to bottom right
+        for(int y = 0; y < height; y++) {
+            for(int x = 0; x < width; x++) {
+                int index = y * width + x;
+                if(cells[index] == OCCUPIED) {
+                    distances[index] = 0;
+                    continue;
+                }
+                int distance = DISTANCE_MAX;
+                if(x > 0) {
+                    distance = Math.min(distance, distances[index - 1] + CHAMFER_ORTHOGONAL);
+                }
+                if(y > 0) {
+                    distance = Math.min(distance, distances[index - width] + CHAMFER_ORTHOGONAL);
+                    if(x > 0) {
+                        distance = Math.min(distance, distances[index - width - 1] + CHAMFER_DIAGONAL);
+                    }
+                    if(x < width - 1) {
+                        distance = Math.min(distance, distances[index - width + 1] + CHAMFER_DIAGONAL);
+                    }
+                }
+                distances[index] = (short) Math.min(distance, DISTANCE_MAX);
+            }
+        }
+        // Backward pass: bottom right to top left
+        int radius = (int) Math.ceil(mRobotRadius / mResolution * CHAMFER_ORTHOGONAL);
+        for(int y = height - 1; y >= 0; y--) {
+            for(int x = width - 1; x >= 0; x--) {
+                int index = y * width + x;
+                int distance = distances[index];
+                if(x < width - 1) {
+                    distance = Math.min(distance, distances[index + 1] + CHAMFER_ORTHOGONAL);
+                }
+                if(y < height - 1) {
+                    distance = Math.min(distance, distances[index + width] + CHAMFER_ORTHOGONAL);
+                    if(x < width - 1) {
+                        distance = Math.min(distance, distances[index + width + 1] + CHAMFER_DIAGONAL);
+                    }
+                    if(x > 0) {
+                        distance = Math.min(distance, distances[index + width - 1] + CHAMFER_DIAGONAL);
+                    }
+                }
+                distances[index] = (short) Math.min(distance, DISTANCE_MAX);
+                if(distance > 0 && distance < radius) {
+                    cells[index] = INFLATED;
+                }
+            }
+        }
+    }
+
+    /**
+     * Marks the cell at the given position as occupied without taking a new snapshot, e.g. when the
+     * base reports an obstacle that is not on the map. The cells around it that are closer than the
+     * radius of the robot are inflated. Distances are only updated within that radius, which is all
+     * that the planners need. The changed cells are collected until #clearChanges() is called.
+     * @param x the real x-coordinate of the obstacle in meters
+     * @param y the real y-coordinate of the obstacle in meters
+     * @return true if the position is within the snapshot
+     */
+    public boolean markOccupied(double x, double y) {
+        int index = indexOf(x, y);
+        if(index < 0) {
+            return false;
+        }
+        if(mCells[index] == OCCUPIED) {
+            return true;
+        }
+        int radius = (int) Math.ceil(mRobotRadius / mResolution * CHAMFER_ORTHOGONAL);
+        int reach = radius / CHAMFER_ORTHOGONAL + 1;
+        int centerX = cellX(index);
+        int centerY = cellY(index);
+        for(int cellY = Math.max(0, centerY - reach); cellY <= Math.min(mHeight - 1, centerY + reach); cellY++) {
+            for(int cellX = Math.max(0, centerX - reach); cellX <= Math.min(mWidth - 1, centerX + reach); cellX++) {
+                int dx = Math.abs(cellX - centerX);
+                int dy = Math.abs(cellY - centerY);
+                // The chamfer distance between two cells without obstacles in between
+                int distance = CHAMFER_ORTHOGONAL * Math.max(dx, dy)
+                        + (CHAMFER_DIAGONAL - CHAMFER_ORTHOGONAL) * Math.min(dx, dy);
+                int cell = cellY * mWidth + cellX;
+                if(distance >= mDistances[cell]) {
+                    continue;
+                }
+                mDistances[cell] = (short) distance;
+                byte value = distance == 0 ? OCCUPIED : distance < radius ? INFLATED : mCells[cell];
+                if(value != mCells[cell] && mCells[cell] != OCCUPIED) {
+                    mCells[cell] = value;
+                    if(mChangedCount == mChanged.length) {
+                        mChanged = Arrays.copyOf(mChanged, mChangedCount * 2);
+                    }
+                    mChanged[mChangedCount++] = cell;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of cells that were changed by #markOccupied(double, double)
+     */
+    int getChangedCount() {
+        return mChangedCount;
+    }
+
+    /**
+     * @param i a number between 0 and getChangedCount() - 1
+     * @return the index of the changed cell
+     */
+    int getChangedCell(int i) {
+        return mChanged[i];
+    }
+
+    /**
+     * Forgets the changed cells after a planner has taken them into account.
+     */
+    void clearChanges() {
+        mChangedCount = 0;
+    }
+
+    /**
+     * @return the number of cells of the snapshot
+     */
+    public int size() {
+        return mWidth * mHeight;
+    }
+
+    /**
+     * @return the number of cells of the snapshot in x-direction
+     */
+    public int getWidth() {
+        return mWidth;
+    }
+
+    /**
+     * @return the number of cells of the snapshot in y-direction
+     */
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * @return the edge length of a cell in meters
+     */
+    public double getResolution() {
+        return mResolution;
+    }
+
+    /**
+     * @param x a real x-coordinate in meters
+     * @param y a real y-coordinate in meters
+     * @return the index of the cell that contains the coordinates or -1 if they are outside
+     */
+    public int indexOf(double x, double y) {
+        int cellX = (int) Math.floor(x / mResolution) - mOriginX;
+        int cellY = (int) Math.floor(y / mResolution) - mOriginY;
+        if(cellX < 0 || cellY < 0 || cellX >= mWidth || cellY >= mHeight) {
+            return -1;
+        }
+        return cellY * mWidth + cellX;
+    }
+
+    /**
+     * @param index the index of a cell
+     * @return the x-index of the cell within the snapshot
+     */
+    int cellX(int index) {
+        return index % mWidth;
+    }
+
+    /**
+     * @param index the index of a cell
+     * @return the y-index of the cell within the snapshot
+     */
+    int cellY(int index) {
+        return index / mWidth;
+    }
+
+    /**
+     * @param index the index of a cell
+     * @return the real x-coordinate of the center of the cell
+     */
+    public double worldX(int index) {
+        return (mOriginX + cellX(index) + 0.5) * mResolution;
+    }
+
+    /**
+     * @param index the index of a cell
+     * @return the real y-coordinate of the center of the cell
+     */
+    public double worldY(int index) {
+        return (mOriginY + cellY(index) + 0.5) * mResolution;
+    }
+
+    /**
+     * @return the classes of all cells, for the inner loops of the planners; must not be modified
+     */
+    byte[] cells() {
+        return mCells;
+    }
+
+    /**
+     * @param index the index of a cell
+     * @return the class of the cell
+     */
+    byte classOf(int index) {
+        return mCells[index];
+    }
+
+    /**
+     * @param index the index of a cell
+     * @return the chamfer distance of the cell to the closest occupied cell
+     */
+    int distanceOf(int index) {
+        return mDistances[index];
+    }
+
+    /**
+     * @param index the index of a cell
+     * @return true if the center of the robot may enter the cell
+     */
+    public boolean isTraversable(int index) {
+        return mCells[index] <= UNKNOWN;
+    }
+
+    /**
+     * @param index the index of a cell
+     * @return the cost of moving one cell within the given cell
+     */
+    float costOf(int index) {
+        return mCells[index] == FREE ? 1f : UNKNOWN_COST;
+    }
+
+    /**
+     * Searches for the traversable cell that is closest to the given cell, in square rings around it.
+     * @param index the index of a cell
+     * @param maxRadius the maximal distance in cells
+     * @return the index of the closest traversable cell or -1 if there is none within the distance
+     */
+    public int nearestTraversable(int index, int maxRadius) {
+        if(isTraversable(index)) {
+            return index;
+        }
+        int centerX = cellX(index);
+        int centerY = cellY(index);
+        for(int radius = 1; radius <= maxRadius; radius++) {
+            int best = -1;
+            int bestDistance = Integer.MAX_VALUE;
+            for(int y = centerY - radius; y <= centerY + radius; y++) {
+                for(int x = centerX - radius; x <= centerX + radius; x++) {
+                    if((Math.abs(x - centerX) != radius && Math.abs(y - centerY) != radius)
+                            || x < 0 || y < 0 || x >= mWidth || y >= mHeight) {
+                        // Only look at the ring itself
+                        continue;
+                    }
+                    int candidate = y * mWidth + x;
+                    int distance = (x - centerX) * (x - centerX) + (y - centerY) * (y - centerY);
+                    if(isTraversable(candidate) && distance < bestDistance) {
+                        best = candidate;
+                        bestDistance = distance;
+                    }
+                }
+            }
+            if(best >= 0) {
+                return best;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Checks whether the robot can move on a straight line between the centers of two cells. All
+     * cells that the line touches need to be traversable and must not be more expensive than the
+     * more expensive one of the two cells. This makes sure that shortcuts don't lead through
+     * unknown space that a path carefully avoided.
+     * @param from the index of the first cell
+     * @param to the index of the second cell
+     * @return true if the line is free
+     */
+    boolean lineOfSight(int from, int to) {
+        float maxCost = Math.max(costOf(from), costOf(to));
+        int x0 = cellX(from);
+        int y0 = cellY(from);
+        int x1 = cellX(to);
+        int y1 = cellY(to);
+        int dx = Math.abs(x1 - x0);
+        int dy = Math.abs(y1 - y0);
+        int stepX = x1 > x0 ? 1 : -1;
+        int stepY = y1 > y0 ? 1 : -1;
+        // Supercover traversal: visits every cell that the line touches
+        int error = dx - dy;
+        int x = x0;
+        int y = y0;
+        for(int n = dx + dy; n > 0; n--) {
+            int twice = 2 * error;
+            if(twice > -dy && twice < dx) {
+                // The line passes exactly through a corner, so both cells next to it count
+                if(!passable(x + stepX, y, maxCost) || !passable(x, y + stepY, maxCost)) {
+                    return false;
+                }
+                x += stepX;
+                y += stepY;
+                error += dx - dy;
+                n--;
+            } else if(twice > -dy) {
+                x += stepX;
+                error -= dy;
+            } else {
+                y += stepY;
+                error += dx;
+            }
+            if(!passable(x, y, maxCost)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the cell is traversable and not more expensive than the given cost
+     */
+    private boolean passable(int x, int y, float maxCost) {
+        int index = y * mWidth + x;
+        return isTraversable(index) && costOf(index) <= maxCost;
+    }
+
+    /**
+     * Converts a path of neighbouring cells into a compact list of waypoints. A cell only becomes a
+     * waypoint if the robot can't move on a straight line from the previous waypoint to the cell
+     * after it.
+     * @param path the indices of the cells of the path from the start to the goal
+     * @param length the number of cells of the path
+     * @param goalX the real x-coordinate of the goal
+     * @param goalY the real y-coordinate of the goal
+     * @return the waypoints without the start, ending with the goal
+     */
+    LinkedList<Position> toWaypoints(int[] path, int length, double goalX, double goalY) {
+        LinkedList<Position> waypoints = new LinkedList<>();
+        int anchor = 0;
+        int i = 1;
+        while(i < length - 1) {
+            if(lineOfSight(path[anchor], path[i + 1])) {
+                i++;
+            } else {
+                waypoints.add(new Position(worldX(path[i]), worldY(path[i])));
+                anchor = i;
+                i++;
+            }
+        }
+        waypoints.add(new Position(goalX, goalY));
+        return waypoints;
+    }
+
+}
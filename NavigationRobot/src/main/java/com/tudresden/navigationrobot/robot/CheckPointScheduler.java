@@ -0,0 +1,532 @@
+package com.tudresden.navigationrobot.robot;
+
+import java.util.ArrayDeque;
+
+/**
+ * Hands checkpoints to the base and waits for them without blocking. Every checkpoint is a command
+ * with a timeout that depends on how far the robot has to drive and turn. If the base reports a
+ * miss or the timeout expires, the remaining checkpoints are cleared and set again after a backoff
+ * that doubles with every attempt. The original point is kept, so the checkpoints still lead to the
+ * same positions. After MAX_ATTEMPTS attempts the command fails and the robot is stopped.
+ * Strategies can queue a whole plan at once: only the first LOOKAHEAD checkpoints are handed to
+ * the base, so the robot drives on without waiting for the next event, while the rest of the plan
+ * can still be dropped with #truncate(int) if it turns out to be wrong.
+ * The events of the base are posted to the scheduler, so the listener and all methods of this
+ * class run on the thread of the scheduler.
+ */
+public class CheckPointScheduler {
+
+    /**
+     * The tag that is used for log messages.
+     */
+    private static final String TAG = "CheckPointScheduler";
+
+    /**
+     * The number of checkpoints that are handed to the base at the same time.
+     */
+    public static final int LOOKAHEAD = 3;
+
+    /**
+     * The number of times that a checkpoint is set before it counts as failed.
+     */
+    private static final int MAX_ATTEMPTS = 4;
+
+    /**
+     * The delay before the second attempt in milliseconds. Doubles with every further attempt.
+     */
+    private static final long INITIAL_BACKOFF = 250;
+
+    /**
+     * The longest delay between two attempts in milliseconds.
+     */
+    private static final long MAX_BACKOFF = 4000;
+
+    /**
+     * The time in milliseconds that the base gets for a checkpoint on top of the time for driving
+     * and turning, e.g. for accelerating and for delivering the event.
+     */
+    private static final long BASE_TIMEOUT = 2000;
+
+    /**
+     * The speed in meters per second that the timeout assumes. Slower than the robot really is.
+     */
+    private static final double TIMEOUT_LINEAR_VELOCITY = 0.2;
+
+    /**
+     * The turning speed in radians per second that the timeout assumes.
+     */
+    private static final double TIMEOUT_ANGULAR_VELOCITY = 0.3;
+
+    /**
+     * Receives the results of the commands and the obstacle events of the base.
+     */
+    public interface Listener {
+
+        /**
+         * Called when the robot has reached a checkpoint.
+         * @param realPose the odometry pose of the robot at the checkpoint
+         * @param isLast true if there are no further checkpoints
+         */
+        void onCheckPointArrived(Pose realPose, boolean isLast);
+
+        /**
+         * Called when the robot couldn't reach a checkpoint after MAX_ATTEMPTS attempts. All
+         * checkpoints have been deleted and the robot has been stopped.
+         */
+        void onCheckPointFailed();
+
+        /**
+         * Called when an obstacle appears in front of the robot or disappears again.
+         * @param appeared true if an obstacle appeared, false if it disappeared
+         */
+        void onObstacleStateChanged(boolean appeared);
+    }
+
+    /**
+     * A checkpoint that was handed to the base.
+     */
+    private static class Command {
+
+        /**
+         * The distance in meters forward from the original point.
+         */
+        private final float mX;
+
+        /**
+         * The distance in meters to the left of the original point.
+         */
+        private final float mY;
+
+        /**
+         * The heading in radians relative to the original point or NaN if the heading doesn't matter.
+         */
+        private final float mTheta;
+
+        /**
+         * The time in milliseconds that the robot gets for the checkpoint.
+         */
+        private final long mTimeout;
+
+        /**
+         * The time at which the command was first handed to the base in milliseconds or -1 while it
+         * waits in the queue.
+         */
+        private long mIssueTime = -1;
+
+        private Command(float x, float y, float theta, long timeout) {
+            this.mX = x;
+            this.mY = y;
+            this.mTheta = theta;
+            this.mTimeout = timeout;
+        }
+    }
+
+    /**
+     * The base that the checkpoints are handed to.
+     */
+    private final RobotBase mBase;
+
+    /**
+     * The scheduler that the events and the timeouts run on.
+     */
+    private final Scheduler mScheduler;
+
+    /**
+     * The listener or null.
+     */
+    private Listener mListener = null;
+
+    /**
+     * The checkpoints that the robot hasn't reached yet, in the order in which they were set.
+     */
+    private ArrayDeque<Command> mCommands = new ArrayDeque<>();
+
+    /**
+     * The number of commands at the head of mCommands that have been handed to the base.
+     */
+    private int mSentCount = 0;
+
+    /**
+     * The number of times that the first command has been handed to the base.
+     */
+    private int mAttempts = 0;
+
+    /**
+     * True while the checkpoints are cleared and wait for the backoff to expire.
+     */
+    private boolean mBackingOff = false;
+
+    /**
+     * The number of commands that were completed.
+     */
+    private long mCompletedCount = 0;
+
+    /**
+     * The number of commands that failed.
+     */
+    private long mFailedCount = 0;
+
+    /**
+     * The number of times that checkpoints were set again.
+     */
+    private long mRetryCount = 0;
+
+    /**
+     * The sum of the latencies of all completed commands in milliseconds.
+     */
+    private long mTotalLatency = 0;
+
+    /**
+     * The longest latency of a completed command in milliseconds.
+     */
+    private long mMaxLatency = 0;
+
+    /**
+     * The time in milliseconds at which the base reported the last checkpoint that was reached.
+     */
+    private long mLastArrivalTime = 0;
+
+    /**
+     * Gives up waiting for the first command.
+     */
+    private Runnable mTimeout = new Runnable() {
+        @Override
+        public void run() {
+            RobotLog.d(TAG, "Checkpoint timed out after " + mCommands.peekFirst().mTimeout + " ms");
+            retry();
+        }
+    };
+
+    /**
+     * Sets the checkpoints again after the backoff.
+     */
+    private Runnable mReissue = new Runnable() {
+        @Override
+        public void run() {
+            mBackingOff = false;
+            mAttempts++;
+            mRetryCount++;
+            sendPending();
+            startTimeout();
+        }
+    };
+
+    /**
+     * Creates the scheduler and registers it as the listener of the base.
+     * @param base the base that the checkpoints are handed to
+     * @param scheduler the scheduler that the events and the timeouts run on
+     */
+    public CheckPointScheduler(RobotBase base, Scheduler scheduler) {
+        this.mBase = base;
+        this.mScheduler = scheduler;
+        mBase.setListener(new RobotBase.Listener() {
+            @Override
+            public void onCheckPointArrived(final Pose realPose, boolean isLast) {
+                // The time is taken on the thread of the base, before the event waits in the queue
+                final long time = mScheduler.uptimeMillis();
+                mScheduler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        arrived(realPose, time);
+                    }
+                });
+            }
+
+            @Override
+            public void onCheckPointMiss(Pose realPose, boolean isLast) {
+                mScheduler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if(!mCommands.isEmpty() && !mBackingOff) {
+                            RobotLog.d(TAG, "Checkpoint missed");
+                            retry();
+                        }
+                    }
+                });
+            }
+
+            @Override
+            public void onObstacleStateChanged(final boolean appeared) {
+                mScheduler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if(mListener != null) {
+                            mListener.onObstacleStateChanged(appeared);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * @param listener the listener that receives the results of the commands or null
+     */
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * @param enabled true if the robot stops in front of obstacles
+     * @param distance the distance in meters at which the robot stops in front of obstacles
+     */
+    public void setObstacleAvoidance(boolean enabled, float distance) {
+        mBase.setUltrasonicObstacleAvoidanceEnabled(enabled);
+        mBase.setUltrasonicObstacleAvoidanceDistance(distance);
+    }
+
+    /**
+     * @return the current pose of the robot in the coordinate system of the odometry
+     */
+    public Pose getOdometryPose() {
+        return mBase.getOdometryPose();
+    }
+
+    /**
+     * Deletes all checkpoints, stops the robot and sets the original point to the current pose of
+     * the robot. New checkpoints are relative to that pose.
+     * @return the new original point
+     */
+    public Pose resetOriginalPoint() {
+        stop();
+        mBase.cleanOriginalPoint();
+        Pose pose = mBase.getOdometryPose();
+        mBase.setOriginalPoint(pose);
+        return pose;
+    }
+
+    /**
+     * Adds a checkpoint that the robot drives to after all previously added checkpoints.
+     * @param x the distance in meters forward from the original point
+     * @param y the distance in meters to the left of the original point
+     */
+    public void addCheckPoint(float x, float y) {
+        addCheckPoint(x, y, Float.NaN);
+    }
+
+    /**
+     * Adds a checkpoint that the robot drives to after all previously added checkpoints and turns
+     * to the given heading when it has arrived.
+     * @param x the distance in meters forward from the original point
+     * @param y the distance in meters to the left of the original point
+     * @param theta the heading in radians relative to the original point or NaN if the heading
+     *              doesn't matter
+     */
+    public void addCheckPoint(float x, float y, float theta) {
+        Command previous = mCommands.peekLast();
+        float previousX = previous != null ? previous.mX : 0;
+        float previousY = previous != null ? previous.mY : 0;
+        Command command = new Command(x, y, theta, estimateTimeout(x - previousX, y - previousY, theta));
+        mCommands.addLast(command);
+        if(mBackingOff) {
+            // The checkpoint is set together with the others when the backoff has expired
+            return;
+        }
+        sendPending();
+        if(mCommands.size() == 1) {
+            mAttempts = 1;
+            startTimeout();
+        }
+    }
+
+    /**
+     * Deletes all checkpoints and stops the robot. Pending commands are dropped without notifying
+     * the listener.
+     */
+    public void stop() {
+        mScheduler.cancel(mTimeout);
+        mScheduler.cancel(mReissue);
+        mBackingOff = false;
+        mCommands.clear();
+        mSentCount = 0;
+        mBase.clearCheckPointsAndStop();
+    }
+
+    /**
+     * Deletes all but the first checkpoints, e.g. because an obstacle blocks the rest of the plan.
+     * Checkpoints that are still waiting in the queue are simply dropped. If the base already has
+     * some of them, all its checkpoints are cleared and the kept ones are set again, which stops
+     * the robot for a moment. The original point is kept.
+     * @param keep the number of checkpoints to keep
+     */
+    public void truncate(int keep) {
+        if(mCommands.size() <= keep) {
+            return;
+        }
+        while(mCommands.size() > keep) {
+            mCommands.removeLast();
+        }
+        if(mSentCount <= keep) {
+            return;
+        }
+        // The base can't delete single checkpoints
+        mBase.clearCheckPointsAndStop();
+        mSentCount = 0;
+        if(mCommands.isEmpty()) {
+            mScheduler.cancel(mTimeout);
+            mScheduler.cancel(mReissue);
+            mBackingOff = false;
+        } else if(!mBackingOff) {
+            sendPending();
+        }
+    }
+
+    /**
+     * @return the number of checkpoints that the robot hasn't reached yet
+     */
+    public int getPendingCount() {
+        return mCommands.size();
+    }
+
+    /**
+     * @return the time in milliseconds on the clock of the scheduler at which the base reported the
+     * last checkpoint that was reached
+     */
+    public long getLastArrivalTime() {
+        return mLastArrivalTime;
+    }
+
+    /**
+     * @return the number of checkpoints that were reached
+     */
+    public long getCompletedCount() {
+        return mCompletedCount;
+    }
+
+    /**
+     * @return the number of checkpoints that failed after MAX_ATTEMPTS attempts
+     */
+    public long getFailedCount() {
+        return mFailedCount;
+    }
+
+    /**
+     * @return the number of times that checkpoints were set again
+     */
+    public long getRetryCount() {
+        return mRetryCount;
+    }
+
+    /**
+     * @return the average time in milliseconds from handing a checkpoint to the base until the
+     * robot reached it or 0 if no checkpoint was reached
+     */
+    public long getAverageLatency() {
+        return mCompletedCount > 0 ? mTotalLatency / mCompletedCount : 0;
+    }
+
+    /**
+     * @return the longest time in milliseconds from handing a checkpoint to the base until the
+     * robot reached it
+     */
+    public long getMaxLatency() {
+        return mMaxLatency;
+    }
+
+    /**
+     * Completes the first command.
+     * @param realPose the odometry pose of the robot at the checkpoint
+     * @param time the time in milliseconds at which the base reported the checkpoint
+     */
+    private void arrived(Pose realPose, long time) {
+        if(mCommands.isEmpty() || mBackingOff) {
+            // A late event for checkpoints that were already deleted
+            return;
+        }
+        mScheduler.cancel(mTimeout);
+        Command command = mCommands.removeFirst();
+        mSentCount--;
+        sendPending();
+        long latency = mScheduler.uptimeMillis() - command.mIssueTime;
+        mCompletedCount++;
+        mTotalLatency += latency;
+        mMaxLatency = Math.max(mMaxLatency, latency);
+        if(mAttempts > 1) {
+            RobotLog.d(TAG, "Checkpoint reached after " + latency + " ms and " + mAttempts + " attempts");
+        }
+        boolean isLast = mCommands.isEmpty();
+        if(!isLast) {
+            mAttempts = 1;
+            startTimeout();
+        }
+        mLastArrivalTime = time;
+        if(mListener != null) {
+            mListener.onCheckPointArrived(realPose, isLast);
+        }
+    }
+
+    /**
+     * Clears the checkpoints and sets them again after the backoff, or gives up if the first command
+     * has had all its attempts.
+     */
+    private void retry() {
+        mScheduler.cancel(mTimeout);
+        mBase.clearCheckPointsAndStop();
+        mSentCount = 0;
+        if(mAttempts >= MAX_ATTEMPTS) {
+            RobotLog.d(TAG, "Giving up after " + mAttempts + " attempts");
+            mFailedCount++;
+            mCommands.clear();
+            if(mListener != null) {
+                mListener.onCheckPointFailed();
+            }
+            return;
+        }
+        mBackingOff = true;
+        mScheduler.postDelayed(mReissue, Math.min(MAX_BACKOFF, INITIAL_BACKOFF << (mAttempts - 1)));
+    }
+
+    /**
+     * Hands the next commands to the base until it has LOOKAHEAD of them.
+     */
+    private void sendPending() {
+        int index = 0;
+        for(Command command : mCommands) {
+            if(mSentCount >= LOOKAHEAD) {
+                return;
+            }
+            if(index >= mSentCount) {
+                if(command.mIssueTime < 0) {
+                    command.mIssueTime = mScheduler.uptimeMillis();
+                }
+                send(command);
+                mSentCount++;
+            }
+            index++;
+        }
+    }
+
+    /**
+     * Hands a command to the base.
+     */
+    private void send(Command command) {
+        if(Float.isNaN(command.mTheta)) {
+            mBase.addCheckPoint(command.mX, command.mY);
+        } else {
+            mBase.addCheckPoint(command.mX, command.mY, command.mTheta);
+        }
+    }
+
+    /**
+     * Starts the timeout of the first command.
+     */
+    private void startTimeout() {
+        mScheduler.cancel(mTimeout);
+        mScheduler.postDelayed(mTimeout, mCommands.peekFirst().mTimeout);
+    }
+
+    /**
+     * Estimates how long the robot may need for a checkpoint. The robot may have to turn around
+     * before it drives off and turn again at the checkpoint.
+     * @param dx the distance forward from the previous checkpoint
+     * @param dy the distance to the left of the previous checkpoint
+     * @param theta the heading at the checkpoint or NaN
+     * @return the timeout in milliseconds
+     */
+    private static long estimateTimeout(float dx, float dy, float theta) {
+        double distance = Math.sqrt(dx * dx + dy * dy);
+        double angle = (distance > 0 ? Math.PI : 0) + (Float.isNaN(theta) ? 0 : Math.PI);
+        return BASE_TIMEOUT + (long) (1000 * (distance / TIMEOUT_LINEAR_VELOCITY + angle / TIMEOUT_ANGULAR_VELOCITY));
+    }
+
+}
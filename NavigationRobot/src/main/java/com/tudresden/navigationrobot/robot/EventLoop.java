@@ -0,0 +1,238 @@
+package com.tudresden.navigationrobot.robot;
+
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A scheduler that runs all tasks on its own thread, one after the other. Any thread can post
+ * tasks without taking a lock: posts and cancellations are appended to a lock-free queue and the
+ * loop thread is woken up with LockSupport.unpark(). Only the loop thread touches the delayed
+ * tasks, so whatever runs on the loop never needs to be synchronized. Unlike a Handler it doesn't
+ * need a Looper, so it works on the robot and in plain Java alike.
+ */
+public class EventLoop implements Scheduler {
+
+    /**
+     * The tag that is used for log messages.
+     */
+    private static final String TAG = "EventLoop";
+
+    /**
+     * A task or a cancellation that is handed to the loop thread.
+     */
+    private static class Message implements Comparable<Message> {
+
+        /**
+         * The task that is run or cancelled.
+         */
+        final Runnable task;
+
+        /**
+         * The time in milliseconds at which the task is due.
+         */
+        final long dueTime;
+
+        /**
+         * The number of the message, so that tasks that are due at the same time run in the order
+         * that they were posted in. It is set by the loop thread.
+         */
+        long sequence;
+
+        /**
+         * True if all pending runs of the task are removed instead of running it.
+         */
+        final boolean cancel;
+
+        Message(Runnable task, long dueTime, boolean cancel) {
+            this.task = task;
+            this.dueTime = dueTime;
+            this.cancel = cancel;
+        }
+
+        @Override
+        public int compareTo(Message other) {
+            if(dueTime != other.dueTime) {
+                return dueTime < other.dueTime ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+
+    /**
+     * The messages that other threads have posted and the loop thread hasn't taken yet.
+     */
+    private final ConcurrentLinkedQueue<Message> mInbound = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The tasks that are waiting to run, ordered by their due time. Only used on the loop thread.
+     */
+    private final PriorityQueue<Message> mPending = new PriorityQueue<>();
+
+    /**
+     * The thread that the tasks run on.
+     */
+    private final Thread mThread;
+
+    /**
+     * True once #quit() was called.
+     */
+    private volatile boolean mQuit = false;
+
+    /**
+     * The number of the last message that was taken by the loop thread.
+     */
+    private long mSequence = 0;
+
+    /**
+     * The number of tasks that have run so far.
+     */
+    private volatile long mTaskCount = 0;
+
+    /**
+     * Creates the loop. The thread isn't started until #start() is called, but tasks can already
+     * be posted.
+     * @param name the name of the thread
+     */
+    public EventLoop(String name) {
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop();
+            }
+        }, name);
+        mThread.setDaemon(true);
+    }
+
+    /**
+     * Starts the thread of the loop.
+     */
+    public void start() {
+        mThread.start();
+    }
+
+    /**
+     * Stops the loop after the task that is currently running. Pending tasks are dropped and tasks
+     * that are posted afterwards are ignored.
+     */
+    public void quit() {
+        mQuit = true;
+        LockSupport.unpark(mThread);
+    }
+
+    /**
+     * Stops the loop once the tasks that were posted before are done, e.g. so a file that a task
+     * closes is written completely. It is posted like a task, so delayed tasks that aren't due by
+     * then are dropped like with #quit().
+     */
+    public void quitSafely() {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                mQuit = true;
+            }
+        });
+    }
+
+    /**
+     * @return true if the calling thread is the thread of the loop
+     */
+    public boolean isLoopThread() {
+        return Thread.currentThread() == mThread;
+    }
+
+    /**
+     * @return the number of tasks that have run so far
+     */
+    public long getTaskCount() {
+        return mTaskCount;
+    }
+
+    @Override
+    public void post(Runnable task) {
+        enqueue(new Message(task, uptimeMillis(), false));
+    }
+
+    @Override
+    public void postDelayed(Runnable task, long delayMillis) {
+        enqueue(new Message(task, uptimeMillis() + Math.max(delayMillis, 0), false));
+    }
+
+    /**
+     * Removes all pending runs of a task. The cancellation goes through the same queue as the
+     * posts, so runs that were posted before are removed, while later posts aren't affected.
+     * @param task the task
+     */
+    @Override
+    public void cancel(Runnable task) {
+        enqueue(new Message(task, 0, true));
+    }
+
+    @Override
+    public long uptimeMillis() {
+        return System.nanoTime() / 1000000;
+    }
+
+    /**
+     * Hands a message to the loop thread and wakes it up.
+     * @param message the message
+     */
+    private void enqueue(Message message) {
+        if(mQuit) {
+            return;
+        }
+        mInbound.offer(message);
+        LockSupport.unpark(mThread);
+    }
+
+    /**
+     * Runs the tasks until #quit() is called. Before every task all messages that were posted in
+     * the meantime are taken, so a cancellation is applied before the task can run.
+     */
+    private void loop() {
+        while(!mQuit) {
+            drainInbound();
+            Message next = mPending.peek();
+            long now = uptimeMillis();
+            if(next == null) {
+                LockSupport.park(this);
+            } else if(next.dueTime > now) {
+                // A post that arrives in the meantime unparks the thread, so it isn't delayed
+                LockSupport.parkNanos(this, (next.dueTime - now) * 1000000);
+            } else {
+                mPending.poll();
+                try {
+                    next.task.run();
+                } catch(RuntimeException e) {
+                    e.printStackTrace();
+                    RobotLog.d(TAG, "A task failed: " + e);
+                }
+                mTaskCount++;
+            }
+        }
+        mInbound.clear();
+        mPending.clear();
+    }
+
+    /**
+     * Moves the posted tasks to the pending tasks and applies the cancellations.
+     */
+    private void drainInbound() {
+        Message message;
+        while((message = mInbound.poll()) != null) {
+            if(message.cancel) {
+                Iterator<Message> iterator = mPending.iterator();
+                while(iterator.hasNext()) {
+                    if(iterator.next().task == message.task) {
+                        iterator.remove();
+                    }
+                }
+            } else {
+                message.sequence = ++mSequence;
+                mPending.add(message);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,53 @@
+package com.tudresden.navigationrobot.robot;
+
+/**
+ * An immutable pose of the robot in the plane: a position in meters and a heading in radians that
+ * is measured counterclockwise from the x-axis (positive x --> forward, positive y --> left).
+ * Mirrors the Pose2D of the Segway SDK, so code that uses it doesn't depend on the SDK.
+ */
+public class Pose {
+
+    /**
+     * The x-coordinate in meters.
+     */
+    private final float x;
+
+    /**
+     * The y-coordinate in meters.
+     */
+    private final float y;
+
+    /**
+     * The heading in radians.
+     */
+    private final float theta;
+
+    /**
+     * The time at which the pose was measured in milliseconds.
+     */
+    private final long timestamp;
+
+    public Pose(float x, float y, float theta, long timestamp) {
+        this.x = x;
+        this.y = y;
+        this.theta = theta;
+        this.timestamp = timestamp;
+    }
+
+    public float getX() {
+        return x;
+    }
+
+    public float getY() {
+        return y;
+    }
+
+    public float getTheta() {
+        return theta;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+}
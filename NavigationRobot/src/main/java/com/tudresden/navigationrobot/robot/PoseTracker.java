@@ -0,0 +1,339 @@
+package com.tudresden.navigationrobot.robot;
+
+import com.tudresden.navigationrobot.localization.PoseFilter;
+
+/**
+ * Keeps the recent odometry poses of the base, so the pose of the robot can be looked up for the
+ * time at which something happened, e.g. when a checkpoint was reached, instead of the time at
+ * which the event was handled. While started, the odometry is sampled every SAMPLE_PERIOD
+ * milliseconds on the scheduler. The poses are stored in a ring buffer of primitive arrays, so
+ * storing them doesn't allocate, and are stamped with the time of the scheduler. The periodic
+ * sampling only allocates the pose that the base returns. The lookups #sample(), #getLatest() and
+ * #getPoseAt(long) return a new Pose every call, since Pose is immutable, so they are meant for
+ * events like a checkpoint and not for loops over many poses.
+ * The heading is unwrapped into a continuous angle, so it can be interpolated across the jump from
+ * pi to -pi and the number of full turns is kept.
+ * Every sample also reads the yaw of the IMU and passes both to a PoseFilter, and the pose that the
+ * filter estimates is stored instead of the raw odometry. The estimate stays in the coordinate
+ * system of the odometry, but its heading doesn't drift with the wheels.
+ * All methods must be called on the thread of the scheduler.
+ */
+public class PoseTracker {
+
+    /**
+     * The time between two samples of the odometry in milliseconds.
+     */
+    public static final long SAMPLE_PERIOD = 20;
+
+    /**
+     * The number of poses that are kept, 10 seconds at SAMPLE_PERIOD.
+     */
+    public static final int CAPACITY = 512;
+
+    /**
+     * The base whose odometry is tracked.
+     */
+    private final RobotBase mBase;
+
+    /**
+     * The sensors whose IMU is fused with the odometry or null to use the odometry alone.
+     */
+    private final RobotSensor mSensor;
+
+    /**
+     * The scheduler that the odometry is sampled on.
+     */
+    private final Scheduler mScheduler;
+
+    /**
+     * The times of the poses in milliseconds.
+     */
+    private final long[] mTimes = new long[CAPACITY];
+
+    /**
+     * The x-coordinates of the poses in the coordinate system of the odometry.
+     */
+    private final double[] mX = new double[CAPACITY];
+
+    /**
+     * The y-coordinates of the poses.
+     */
+    private final double[] mY = new double[CAPACITY];
+
+    /**
+     * The continuous headings of the poses in radians.
+     */
+    private final double[] mHeadings = new double[CAPACITY];
+
+    /**
+     * Fuses the odometry with the IMU.
+     */
+    private final PoseFilter mFilter = new PoseFilter();
+
+    /**
+     * The x-coordinate of the odometry at the last step of the filter.
+     */
+    private double mLastOdometryX;
+
+    /**
+     * The y-coordinate of the odometry at the last step of the filter.
+     */
+    private double mLastOdometryY;
+
+    /**
+     * The heading of the odometry at the last step of the filter.
+     */
+    private double mLastOdometryHeading;
+
+    /**
+     * The yaw of the IMU at the last step of the filter or NaN if there was no reading.
+     */
+    private double mLastYaw = Double.NaN;
+
+    /**
+     * The time of the last step of the filter in milliseconds.
+     */
+    private long mLastStepTime;
+
+    /**
+     * The index of the oldest pose.
+     */
+    private int mFirst = 0;
+
+    /**
+     * The number of poses in the buffer.
+     */
+    private int mCount = 0;
+
+    /**
+     * The total number of poses that were added.
+     */
+    private long mSampleCount = 0;
+
+    /**
+     * True while the odometry is sampled.
+     */
+    private boolean mRunning = false;
+
+    /**
+     * Samples the odometry and schedules the next sample.
+     */
+    private Runnable mSample = new Runnable() {
+        @Override
+        public void run() {
+            track();
+            if(mRunning) {
+                mScheduler.postDelayed(this, SAMPLE_PERIOD);
+            }
+        }
+    };
+
+    /**
+     * @param base the base whose odometry is tracked
+     * @param sensor the sensors whose IMU is fused with the odometry or null to use the odometry alone
+     * @param scheduler the scheduler that the odometry is sampled on
+     */
+    public PoseTracker(RobotBase base, RobotSensor sensor, Scheduler scheduler) {
+        this.mBase = base;
+        this.mSensor = sensor;
+        this.mScheduler = scheduler;
+    }
+
+    /**
+     * Starts sampling the odometry. The poses that were tracked before are kept.
+     */
+    public void start() {
+        if(mRunning) {
+            return;
+        }
+        mRunning = true;
+        mScheduler.post(mSample);
+    }
+
+    /**
+     * Stops sampling the odometry.
+     */
+    public void stop() {
+        mRunning = false;
+        mScheduler.cancel(mSample);
+    }
+
+    /**
+     * Forgets the poses and starts the filter anew with the next sample, e.g. after the base was
+     * bound again and its odometry starts from zero.
+     */
+    public void clear() {
+        mFirst = 0;
+        mCount = 0;
+        mLastYaw = Double.NaN;
+    }
+
+    /**
+     * Reads the current odometry pose and the yaw of the IMU, advances the filter and adds the pose
+     * that it estimates. A second sample at the same time returns the pose of the first one.
+     * @return the estimated pose with a continuous heading, stamped with the time of the scheduler,
+     * or null if the base has no pose
+     */
+    public Pose sample() {
+        track();
+        return getLatest();
+    }
+
+    /**
+     * Reads the current odometry pose and the yaw of the IMU, advances the filter and adds the pose
+     * that it estimates, without handing out a Pose. Does nothing if there already is a pose of the
+     * current time or the base has no pose.
+     */
+    private void track() {
+        long time = mScheduler.uptimeMillis();
+        if(mCount > 0 && mTimes[index(mCount - 1)] == time) {
+            return;
+        }
+        Pose pose = mBase.getOdometryPose();
+        if(pose == null) {
+            return;
+        }
+        double yaw = mSensor != null ? mSensor.getBaseYaw() : Double.NaN;
+        if(!mFilter.isInitialized() || mCount == 0) {
+            mFilter.reset(pose.getX(), pose.getY(), pose.getTheta());
+        } else {
+            double turn = Math.IEEEremainder(pose.getTheta() - mLastOdometryHeading, 2 * Math.PI);
+            double middle = mLastOdometryHeading + turn / 2;
+            // The distance along the heading, so the robot can also drive backwards
+            double distance = Math.cos(middle) * (pose.getX() - mLastOdometryX)
+                    + Math.sin(middle) * (pose.getY() - mLastOdometryY);
+            double gyroTurn = Double.isNaN(yaw) || Double.isNaN(mLastYaw) ? Double.NaN
+                    : Math.IEEEremainder(yaw - mLastYaw, 2 * Math.PI);
+            mFilter.update(distance, turn, gyroTurn, (time - mLastStepTime) / 1000.0);
+        }
+        mLastOdometryX = pose.getX();
+        mLastOdometryY = pose.getY();
+        mLastOdometryHeading = pose.getTheta();
+        mLastYaw = yaw;
+        mLastStepTime = time;
+        add(mFilter.getX(), mFilter.getY(), mFilter.getHeading(), time);
+    }
+
+    /**
+     * Adds a pose. Poses that are older than the newest one are ignored.
+     * @param x the x-coordinate in the coordinate system of the odometry
+     * @param y the y-coordinate
+     * @param theta the heading in radians, in any range
+     * @param time the time of the pose in milliseconds on the clock of the scheduler
+     */
+    public void add(double x, double y, double theta, long time) {
+        double heading = theta;
+        if(mCount > 0) {
+            int last = index(mCount - 1);
+            if(time < mTimes[last]) {
+                return;
+            }
+            // Continue from the previous heading by the shortest turn
+            heading = mHeadings[last] + Math.IEEEremainder(theta - mHeadings[last], 2 * Math.PI);
+            if(time == mTimes[last]) {
+                // A newer reading of the same moment replaces the old one
+                mCount--;
+            }
+        }
+        int slot;
+        if(mCount < CAPACITY) {
+            slot = index(mCount);
+            mCount++;
+        } else {
+            slot = mFirst;
+            mFirst = index(1);
+        }
+        mTimes[slot] = time;
+        mX[slot] = x;
+        mY[slot] = y;
+        mHeadings[slot] = heading;
+        mSampleCount++;
+    }
+
+    /**
+     * @return a new Pose of the newest pose or null if there is none
+     */
+    public Pose getLatest() {
+        if(mCount == 0) {
+            return null;
+        }
+        int last = index(mCount - 1);
+        return new Pose((float) mX[last], (float) mY[last], (float) mHeadings[last], mTimes[last]);
+    }
+
+    /**
+     * Looks up the pose at a time. Between two poses the position and the heading are interpolated
+     * linearly. Before the oldest pose the oldest one is returned and after the newest pose the
+     * newest one, the pose is never extrapolated.
+     * @param time the time in milliseconds on the clock of the scheduler
+     * @return the pose with a continuous heading, stamped with the given time, or null if there is
+     * none
+     */
+    public Pose getPoseAt(long time) {
+        if(mCount == 0) {
+            return null;
+        }
+        int first = mFirst;
+        int last = index(mCount - 1);
+        if(time <= mTimes[first]) {
+            return new Pose((float) mX[first], (float) mY[first], (float) mHeadings[first], time);
+        }
+        if(time >= mTimes[last]) {
+            return new Pose((float) mX[last], (float) mY[last], (float) mHeadings[last], time);
+        }
+        // Binary search for the last pose that isn't newer than the time
+        int low = 0;
+        int high = mCount - 1;
+        while(high - low > 1) {
+            int middle = (low + high) >>> 1;
+            if(mTimes[index(middle)] <= time) {
+                low = middle;
+            } else {
+                high = middle;
+            }
+        }
+        int before = index(low);
+        int after = index(high);
+        double fraction = (double) (time - mTimes[before]) / (mTimes[after] - mTimes[before]);
+        return new Pose((float) (mX[before] + fraction * (mX[after] - mX[before])),
+                (float) (mY[before] + fraction * (mY[after] - mY[before])),
+                (float) (mHeadings[before] + fraction * (mHeadings[after] - mHeadings[before])), time);
+    }
+
+    /**
+     * @return the filter that fuses the odometry with the IMU, e.g. for its statistics
+     */
+    public PoseFilter getFilter() {
+        return mFilter;
+    }
+
+    /**
+     * @return the time of the oldest pose in milliseconds or -1 if there is none
+     */
+    public long getOldestTime() {
+        return mCount > 0 ? mTimes[mFirst] : -1;
+    }
+
+    /**
+     * @return the number of poses in the buffer
+     */
+    public int size() {
+        return mCount;
+    }
+
+    /**
+     * @return the total number of poses that were added
+     */
+    public long getSampleCount() {
+        return mSampleCount;
+    }
+
+    /**
+     * @param offset the position relative to the oldest pose
+     * @return the index in the arrays
+     */
+    private int index(int offset) {
+        return (mFirst + offset) % CAPACITY;
+    }
+
+}
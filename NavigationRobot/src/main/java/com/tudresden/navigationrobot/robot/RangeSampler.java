@@ -0,0 +1,529 @@
+package com.tudresden.navigationrobot.robot;
+
+import java.util.ArrayList;
+
+/**
+ * Polls the ultrasonic and the infrared sensor, and the depth camera of the head if there is one,
+ * at a fixed rate on the thread of a scheduler and keeps the recent samples in ring buffers. Each
+ * sensor has a filtered distance: the median of the last samples removes single spikes and a
+ * one-dimensional Kalman filter smooths the medians.
+ * Instead of waiting for a fixed time and then taking a single reading, the strategies ask for a
+ * decision and get it as soon as enough fresh samples agree. All methods must be called on the
+ * thread of the scheduler.
+ */
+public class RangeSampler {
+
+    /**
+     * The time in milliseconds between two samples.
+     */
+    public static final long SAMPLE_PERIOD = 20;
+
+    /**
+     * The number of samples in a row that have to agree before an obstacle is confirmed or
+     * rejected.
+     */
+    public static final int CONSISTENT_SAMPLES = 3;
+
+    /**
+     * The number of fresh samples whose median is handed out as a single reading.
+     */
+    public static final int READING_SAMPLES = 5;
+
+    /**
+     * The longest time in milliseconds that a decision waits for consistent samples. Afterwards
+     * the median of the samples that arrived in the meantime decides.
+     */
+    public static final long MAX_WAIT = 300;
+
+    /**
+     * The number of samples that are kept per sensor. Must be a power of two.
+     */
+    private static final int BUFFER_SIZE = 32;
+
+    /**
+     * The number of samples that the median for the filtered distance is taken of.
+     */
+    private static final int MEDIAN_WINDOW = 5;
+
+    /**
+     * The variance of the noise of a single median in square meters.
+     */
+    private static final double MEASUREMENT_VARIANCE = 0.02 * 0.02;
+
+    /**
+     * The growth of the variance of the distance per sample in square meters, because the robot or
+     * the obstacles might have moved.
+     */
+    private static final double PROCESS_VARIANCE = 0.03 * 0.03;
+
+    /**
+     * Receives the decision whether there is an obstacle.
+     */
+    public interface ObstacleListener {
+
+        /**
+         * @param obstacle true if the samples confirmed the obstacle
+         */
+        void onResult(boolean obstacle);
+    }
+
+    /**
+     * Receives the samples of the wall which the head looks at and the event that it has ended.
+     */
+    public interface WallListener {
+
+        /**
+         * Called for every sample of the depth camera that still sees the wall, e.g. for estimating
+         * the direction of the wall.
+         * @param distance the distance in meters
+         */
+        void onWallSample(double distance);
+
+        /**
+         * Called once when enough samples in a row are beyond the distance that was watched for.
+         */
+        void onWallEnded();
+    }
+
+    /**
+     * Receives a reading that consists of several fresh samples.
+     */
+    public interface ReadingListener {
+
+        /**
+         * @param distance the median of the samples of the ultrasonic sensor in meters
+         */
+        void onReading(double distance);
+    }
+
+    /**
+     * A decision or a reading that waits for samples.
+     */
+    private static class Request {
+
+        /**
+         * The number of samples that had been taken when the request was made. Only later samples
+         * are used.
+         */
+        final long firstSample;
+
+        /**
+         * The time in milliseconds when the request was made.
+         */
+        final long startTime;
+
+        /**
+         * The distance in meters at or below which a sample counts as an obstacle or NaN for a
+         * reading.
+         */
+        final double threshold;
+
+        /**
+         * The listener of a decision or null.
+         */
+        final ObstacleListener obstacleListener;
+
+        /**
+         * The listener of a reading or null.
+         */
+        final ReadingListener readingListener;
+
+        Request(long firstSample, long startTime, double threshold, ObstacleListener obstacleListener,
+                ReadingListener readingListener) {
+            this.firstSample = firstSample;
+            this.startTime = startTime;
+            this.threshold = threshold;
+            this.obstacleListener = obstacleListener;
+            this.readingListener = readingListener;
+        }
+    }
+
+    /**
+     * The sensor that is polled.
+     */
+    private RobotSensor mSensor;
+
+    /**
+     * The scheduler that the samples are taken on.
+     */
+    private Scheduler mScheduler;
+
+    /**
+     * The head whose depth camera is polled or null.
+     */
+    private RobotHead mHead = null;
+
+    /**
+     * The last samples of the ultrasonic sensor in meters.
+     */
+    private final float[] mUltrasonic = new float[BUFFER_SIZE];
+
+    /**
+     * The last samples of the infrared sensor in meters.
+     */
+    private final float[] mInfrared = new float[BUFFER_SIZE];
+
+    /**
+     * The last samples of the depth camera of the head in meters.
+     */
+    private final float[] mHeadRange = new float[BUFFER_SIZE];
+
+    /**
+     * The number of samples that have been taken so far. The newest sample is at index
+     * (mSampleCount - 1) % BUFFER_SIZE.
+     */
+    private long mSampleCount = 0;
+
+    /**
+     * Used for sorting the samples when a median is taken, so that no array is allocated per sample.
+     */
+    private final float[] mScratch = new float[BUFFER_SIZE];
+
+    /**
+     * The filtered distances of the ultrasonic sensor, the infrared sensor and the depth camera in
+     * meters, NaN before the first sample.
+     */
+    private final double[] mEstimate = {Double.NaN, Double.NaN, Double.NaN};
+
+    /**
+     * The variances of the filtered distances.
+     */
+    private final double[] mVariance = new double[3];
+
+    /**
+     * The listener that waits for the end of the wall or null.
+     */
+    private WallListener mWallListener = null;
+
+    /**
+     * The distance in meters beyond which the wall counts as ended.
+     */
+    private double mWallEndDistance = 0;
+
+    /**
+     * The number of samples in a row of the depth camera that were beyond mWallEndDistance.
+     */
+    private int mWallEndSamples = 0;
+
+    /**
+     * The decisions and readings that wait for samples.
+     */
+    private final ArrayList<Request> mRequests = new ArrayList<>();
+
+    /**
+     * True while the sensors are polled.
+     */
+    private boolean mRunning = false;
+
+    /**
+     * The number of decisions and readings that were handed out.
+     */
+    private long mResultCount = 0;
+
+    /**
+     * The total time in milliseconds that decisions and readings waited for samples.
+     */
+    private long mTotalWait = 0;
+
+    /**
+     * The longest time in milliseconds that a decision or a reading waited for samples.
+     */
+    private long mMaxWait = 0;
+
+    /**
+     * Takes a sample and schedules the next one.
+     */
+    private final Runnable mSample = new Runnable() {
+        @Override
+        public void run() {
+            if(!mRunning) {
+                return;
+            }
+            sample();
+            mScheduler.postDelayed(this, SAMPLE_PERIOD);
+        }
+    };
+
+    /**
+     * @param sensor the sensor that is polled
+     * @param scheduler the scheduler that the samples are taken on
+     */
+    public RangeSampler(RobotSensor sensor, Scheduler scheduler) {
+        this.mSensor = sensor;
+        this.mScheduler = scheduler;
+    }
+
+    /**
+     * Adds the depth camera of the head to the polled sensors.
+     * @param head the head or null
+     */
+    public void setHead(RobotHead head) {
+        this.mHead = head;
+    }
+
+    /**
+     * @return true if the depth camera of a head is polled
+     */
+    public boolean hasHead() {
+        return mHead != null;
+    }
+
+    /**
+     * Starts polling the sensors. Does nothing if they are already polled.
+     */
+    public void start() {
+        if(mRunning) {
+            return;
+        }
+        mRunning = true;
+        mScheduler.post(mSample);
+    }
+
+    /**
+     * Stops polling the sensors and drops the decisions and readings that are still waiting.
+     */
+    public void stop() {
+        mRunning = false;
+        mScheduler.cancel(mSample);
+        mRequests.clear();
+        mWallListener = null;
+    }
+
+    /**
+     * Decides whether there is an obstacle in front of the robot. The decision is made as soon as
+     * CONSISTENT_SAMPLES fresh samples in a row are on the same side of the threshold, or after
+     * MAX_WAIT by the median of the fresh samples. A sample is the shorter distance of the two
+     * sensors, so an obstacle that only one of them sees counts.
+     * @param threshold the distance in meters at or below which there is an obstacle
+     * @param listener the listener that is called on the thread of the scheduler
+     */
+    public void confirmObstacle(double threshold, ObstacleListener listener) {
+        mRequests.add(new Request(mSampleCount, mScheduler.uptimeMillis(), threshold, listener, null));
+    }
+
+    /**
+     * Takes a reading of the ultrasonic sensor that is the median of READING_SAMPLES fresh samples,
+     * e.g. after the robot turned. Falls back to the samples that arrived within MAX_WAIT.
+     * @param listener the listener that is called on the thread of the scheduler
+     */
+    public void awaitReading(ReadingListener listener) {
+        mRequests.add(new Request(mSampleCount, mScheduler.uptimeMillis(), Double.NaN, null, listener));
+    }
+
+    /**
+     * Waits until CONSISTENT_SAMPLES samples of the depth camera in a row are beyond a distance,
+     * e.g. because the wall next to the robot has ended. Replaces the listener that waited before.
+     * @param distance the distance in meters
+     * @param listener the listener that is called once on the thread of the scheduler
+     */
+    public void watchWallEnd(double distance, WallListener listener) {
+        mWallEndDistance = distance;
+        mWallEndSamples = 0;
+        mWallListener = listener;
+    }
+
+    /**
+     * Stops waiting for the end of the wall.
+     */
+    public void stopWatchingWallEnd() {
+        mWallListener = null;
+    }
+
+    /**
+     * @return the filtered distance of the ultrasonic sensor in meters or NaN before the first
+     * sample
+     */
+    public double getUltrasonicDistance() {
+        return mEstimate[0];
+    }
+
+    /**
+     * @return the filtered distance of the infrared sensor in meters or NaN before the first sample
+     */
+    public double getInfraredDistance() {
+        return mEstimate[1];
+    }
+
+    /**
+     * @return the filtered distance of the depth camera of the head in meters or NaN if there is no
+     * head or before the first sample
+     */
+    public double getHeadDistance() {
+        return mEstimate[2];
+    }
+
+    /**
+     * @return the number of samples that have been taken so far
+     */
+    public long getSampleCount() {
+        return mSampleCount;
+    }
+
+    /**
+     * @return the number of decisions and readings that were handed out
+     */
+    public long getResultCount() {
+        return mResultCount;
+    }
+
+    /**
+     * @return the average time in milliseconds that decisions and readings waited for samples
+     */
+    public double getAverageWait() {
+        return mResultCount == 0 ? 0 : (double) mTotalWait / mResultCount;
+    }
+
+    /**
+     * @return the longest time in milliseconds that a decision or a reading waited for samples
+     */
+    public long getMaxWait() {
+        return mMaxWait;
+    }
+
+    /**
+     * Reads both sensors, updates the filters and hands out the decisions and readings that have
+     * enough samples now.
+     */
+    private void sample() {
+        int index = (int) (mSampleCount & (BUFFER_SIZE - 1));
+        mUltrasonic[index] = mSensor.getUltrasonicDistance() / 1000; // convert mm to m
+        mInfrared[index] = mSensor.getInfraredDistance() / 1000;
+        if(mHead != null) {
+            mHeadRange[index] = mHead.getRangeDistance() / 1000;
+        }
+        mSampleCount++;
+
+        int window = (int) Math.min(mSampleCount, MEDIAN_WINDOW);
+        filter(0, median(mUltrasonic, window));
+        filter(1, median(mInfrared, window));
+        if(mHead != null) {
+            filter(2, median(mHeadRange, window));
+            if(mWallListener != null) {
+                if(mHeadRange[index] > mWallEndDistance) {
+                    mWallEndSamples++;
+                } else {
+                    mWallEndSamples = 0;
+                    mWallListener.onWallSample(mHeadRange[index]);
+                }
+                if(mWallListener != null && mWallEndSamples >= CONSISTENT_SAMPLES) {
+                    WallListener listener = mWallListener;
+                    mWallListener = null;
+                    listener.onWallEnded();
+                }
+            }
+        }
+
+        long now = mScheduler.uptimeMillis();
+        int i = 0;
+        while(i < mRequests.size()) {
+            Request request = mRequests.get(i);
+            if(!handle(request, now)) {
+                i++;
+            }
+        }
+    }
+
+    /**
+     * Updates the Kalman filter of a sensor with a new median.
+     * @param channel 0 for the ultrasonic sensor, 1 for the infrared sensor and 2 for the head
+     * @param measurement the median in meters
+     */
+    private void filter(int channel, double measurement) {
+        if(Double.isNaN(mEstimate[channel])) {
+            mEstimate[channel] = measurement;
+            mVariance[channel] = MEASUREMENT_VARIANCE;
+        } else {
+            mVariance[channel] += PROCESS_VARIANCE;
+            double gain = mVariance[channel] / (mVariance[channel] + MEASUREMENT_VARIANCE);
+            mEstimate[channel] += gain * (measurement - mEstimate[channel]);
+            mVariance[channel] *= 1 - gain;
+        }
+    }
+
+    /**
+     * Hands out a decision or a reading if there are enough fresh samples or it has waited too long.
+     * @return true if the request was handed out and removed
+     */
+    private boolean handle(Request request, long now) {
+        int fresh = (int) Math.min(mSampleCount - request.firstSample, BUFFER_SIZE);
+        boolean expired = now - request.startTime >= MAX_WAIT;
+        if(request.readingListener != null) {
+            if(fresh < READING_SAMPLES && !expired) {
+                return false;
+            }
+            double distance = median(mUltrasonic, Math.max(fresh, 1));
+            finish(request, now);
+            request.readingListener.onReading(distance);
+            return true;
+        }
+        if(fresh >= CONSISTENT_SAMPLES) {
+            int below = 0;
+            int above = 0;
+            for(int k = 0; k < CONSISTENT_SAMPLES; k++) {
+                if(frontDistance(mSampleCount - 1 - k) <= request.threshold) {
+                    below++;
+                } else {
+                    above++;
+                }
+            }
+            if(below == CONSISTENT_SAMPLES || above == CONSISTENT_SAMPLES) {
+                finish(request, now);
+                request.obstacleListener.onResult(below == CONSISTENT_SAMPLES);
+                return true;
+            }
+        }
+        if(!expired) {
+            return false;
+        }
+        // The samples kept changing sides, let the majority decide
+        int below = 0;
+        for(int k = 0; k < Math.max(fresh, 1); k++) {
+            if(frontDistance(mSampleCount - 1 - k) <= request.threshold) {
+                below++;
+            }
+        }
+        finish(request, now);
+        request.obstacleListener.onResult(2 * below > Math.max(fresh, 1));
+        return true;
+    }
+
+    /**
+     * Removes a request and records how long it waited.
+     */
+    private void finish(Request request, long now) {
+        mRequests.remove(request);
+        long wait = now - request.startTime;
+        mResultCount++;
+        mTotalWait += wait;
+        mMaxWait = Math.max(mMaxWait, wait);
+    }
+
+    /**
+     * @param sample the number of the sample
+     * @return the shorter distance of the two sensors in the sample in meters
+     */
+    private float frontDistance(long sample) {
+        int index = (int) (sample & (BUFFER_SIZE - 1));
+        return Math.min(mUltrasonic[index], mInfrared[index]);
+    }
+
+    /**
+     * @param buffer the ring buffer of a sensor
+     * @param count the number of the newest samples
+     * @return the median of the newest samples in the buffer
+     */
+    private float median(float[] buffer, int count) {
+        // Insertion sort, the windows are small
+        for(int k = 0; k < count; k++) {
+            float value = buffer[(int) ((mSampleCount - 1 - k) & (BUFFER_SIZE - 1))];
+            int j = k - 1;
+            while(j >= 0 && mScratch[j] > value) {
+                mScratch[j + 1] = mScratch[j];
+                j--;
+            }
+            mScratch[j + 1] = value;
+        }
+        return mScratch[count / 2];
+    }
+
+}
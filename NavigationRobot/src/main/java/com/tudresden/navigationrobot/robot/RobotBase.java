@@ -0,0 +1,98 @@
+package com.tudresden.navigationrobot.robot;
+
+/**
+ * The locomotion of the robot in navigation mode. Checkpoints are relative to the original point:
+ * x is the distance forward and y the distance to the left of the pose that the original point was
+ * set to, theta is the heading relative to that pose. Implemented by the Loomo base and by the
+ * simulator.
+ */
+public interface RobotBase {
+
+    /**
+     * Receives the events of the base. The thread on which the events are delivered depends on the
+     * implementation.
+     */
+    interface Listener {
+
+        /**
+         * Called when the robot has reached a checkpoint.
+         * @param realPose the odometry pose of the robot at the checkpoint
+         * @param isLast true if there are no further checkpoints
+         */
+        void onCheckPointArrived(Pose realPose, boolean isLast);
+
+        /**
+         * Called when the robot has given up reaching a checkpoint.
+         * @param realPose the odometry pose of the robot
+         * @param isLast true if there are no further checkpoints
+         */
+        void onCheckPointMiss(Pose realPose, boolean isLast);
+
+        /**
+         * Called when an obstacle appears in front of the robot or disappears again.
+         * @param appeared true if an obstacle appeared, false if it disappeared
+         */
+        void onObstacleStateChanged(boolean appeared);
+    }
+
+    /**
+     * @param listener the listener that receives the events of the base or null
+     */
+    void setListener(Listener listener);
+
+    /**
+     * Adds a checkpoint that the robot drives to after all previously added checkpoints.
+     * @param x the distance in meters forward from the original point
+     * @param y the distance in meters to the left of the original point
+     */
+    void addCheckPoint(float x, float y);
+
+    /**
+     * Adds a checkpoint that the robot drives to after all previously added checkpoints and turns
+     * to the given heading when it has arrived.
+     * @param x the distance in meters forward from the original point
+     * @param y the distance in meters to the left of the original point
+     * @param theta the heading in radians relative to the original point
+     */
+    void addCheckPoint(float x, float y, float theta);
+
+    /**
+     * Deletes all checkpoints and stops the robot.
+     */
+    void clearCheckPointsAndStop();
+
+    /**
+     * Drives the robot with the given velocities until new ones are set. Deletes all checkpoints.
+     * Adding a checkpoint hands the robot back to the checkpoint navigation.
+     * @param linear the linear velocity in meters per second, positive forward
+     * @param angular the angular velocity in radians per second, positive to the left
+     */
+    void setVelocity(float linear, float angular);
+
+    /**
+     * Forgets the original point.
+     */
+    void cleanOriginalPoint();
+
+    /**
+     * @param pose the odometry pose that new checkpoints are relative to
+     */
+    void setOriginalPoint(Pose pose);
+
+    /**
+     * @return the current pose of the robot in the coordinate system of the odometry, or null if
+     * the base can't be read, e.g. while its service isn't bound
+     */
+    Pose getOdometryPose();
+
+    /**
+     * @param enabled true if the robot stops in front of obstacles that the ultrasonic sensor detects
+     */
+    void setUltrasonicObstacleAvoidanceEnabled(boolean enabled);
+
+    /**
+     * @param distance the distance in meters at which the robot stops in front of obstacles
+     */
+    void setUltrasonicObstacleAvoidanceDistance(float distance);
+
+}
@@ -0,0 +1,21 @@
+package com.tudresden.navigationrobot.robot;
+
+/**
+ * The head of the robot, which can turn independently of the base and carries a depth camera.
+ * Implemented by the Loomo head and by the simulator.
+ */
+public interface RobotHead {
+
+    /**
+     * Turns the head relative to the base. The head keeps that angle while the base moves.
+     * @param yaw the angle in radians, positive to the left
+     */
+    void setYaw(float yaw);
+
+    /**
+     * @return the distance to the closest obstacle in the middle of the view of the depth camera in
+     * millimeters, between 300 and 3000, which is also returned if nothing is in range
+     */
+    float getRangeDistance();
+
+}
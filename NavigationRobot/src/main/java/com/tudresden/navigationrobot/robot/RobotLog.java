@@ -0,0 +1,48 @@
+package com.tudresden.navigationrobot.robot;
+
+/**
+ * Log messages of the code that runs both on the robot and in the simulator. The messages are
+ * handed to a sink, which writes them to the Android log on the robot. Without a sink they are
+ * dropped.
+ */
+public final class RobotLog {
+
+    /**
+     * Receives the log messages.
+     */
+    public interface Sink {
+
+        /**
+         * @param tag the tag of the class that wrote the message
+         * @param message the message
+         */
+        void log(String tag, String message);
+    }
+
+    /**
+     * The sink that receives the log messages or null.
+     */
+    private static volatile Sink sSink = null;
+
+    private RobotLog() {}
+
+    /**
+     * @param sink the sink that receives the log messages or null to drop them
+     */
+    public static void setSink(Sink sink) {
+        sSink = sink;
+    }
+
+    /**
+     * Writes a debug message.
+     * @param tag the tag of the class that writes the message
+     * @param message the message
+     */
+    public static void d(String tag, String message) {
+        Sink sink = sSink;
+        if(sink != null) {
+            sink.log(tag, message);
+        }
+    }
+
+}
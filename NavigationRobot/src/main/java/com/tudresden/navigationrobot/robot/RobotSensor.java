@@ -0,0 +1,27 @@
+package com.tudresden.navigationrobot.robot;
+
+/**
+ * The distance sensors and the IMU of the robot. Implemented by the Loomo sensor service and by the
+ * simulator.
+ */
+public interface RobotSensor {
+
+    /**
+     * @return the distance to the closest obstacle in the cone of the ultrasonic sensor in
+     * millimeters, between 250 and 1500
+     */
+    float getUltrasonicDistance();
+
+    /**
+     * @return the distance to the closest obstacle in front of the robot that the infrared sensors
+     * see in millimeters, between 100 and 1500, which is also returned if nothing is in range
+     */
+    float getInfraredDistance();
+
+    /**
+     * @return the yaw of the base that its IMU measures in radians, counterclockwise and relative to
+     * an arbitrary direction, or NaN if there is no reading
+     */
+    float getBaseYaw();
+
+}
@@ -0,0 +1,33 @@
+package com.tudresden.navigationrobot.robot;
+
+/**
+ * Runs code later on a single thread, like a Handler on Android. The simulator implements it with
+ * a virtual clock, so delays don't take real time there.
+ */
+public interface Scheduler {
+
+    /**
+     * Runs a task as soon as possible.
+     * @param task the task
+     */
+    void post(Runnable task);
+
+    /**
+     * Runs a task after a delay.
+     * @param task the task
+     * @param delayMillis the delay in milliseconds
+     */
+    void postDelayed(Runnable task, long delayMillis);
+
+    /**
+     * Removes all pending runs of a task.
+     * @param task the task
+     */
+    void cancel(Runnable task);
+
+    /**
+     * @return the current time of the scheduler in milliseconds
+     */
+    long uptimeMillis();
+
+}
@@ -0,0 +1,555 @@
+package com.tudresden.navigationrobot.robot;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Plays a trace of the TraceRecorder back to an exploration. The player stands in for the base,
+ * the sensor and the head: the events of the base are delivered to the listener at the times at
+ * which they were recorded, and every reading or odometry pose that the exploration asks for is
+ * the next one of its kind in the trace. The commands of the exploration are ignored, the robot
+ * in the trace has already moved.
+ * <p>
+ * With the scheduler of the simulator the exploration runs exactly as it did while it was recorded,
+ * because it decides on nothing but the readings and events, which all come from the trace, and the
+ * time of the scheduler. How fast the trace is played back only depends on how fast the clock of
+ * the scheduler is advanced. If the code of the exploration is changed, it may ask for readings at
+ * other times than while it was recorded. The player counts those reads, so the replay shows how
+ * far it strayed from the trace.
+ */
+public class TracePlayer implements RobotBase, RobotSensor, RobotHead {
+
+    /**
+     * The tag that is used for log messages.
+     */
+    private static final String TAG = "TracePlayer";
+
+    /**
+     * The distance in millimeters that is read from a sensor without any readings in the trace, the
+     * same that the sensors report when nothing is in range.
+     */
+    private static final float NO_DISTANCE = 1500;
+
+    /**
+     * The readings of one kind in the order in which they were taken.
+     */
+    private static class Channel {
+
+        /**
+         * The readings.
+         */
+        private float[] mValues = new float[1024];
+
+        /**
+         * The times in milliseconds since the start of the trace at which the readings were taken.
+         */
+        private long[] mTimes = new long[1024];
+
+        /**
+         * The number of readings.
+         */
+        private int mCount = 0;
+
+        /**
+         * The index of the reading that is read next.
+         */
+        private int mNext = 0;
+
+        /**
+         * The number of reads at another time than the reading was recorded at, or after the last
+         * reading.
+         */
+        private int mStrayCount = 0;
+
+        /**
+         * The value that is read if there are no readings.
+         */
+        private final float mDefault;
+
+        private Channel(float defaultValue) {
+            this.mDefault = defaultValue;
+        }
+
+        private void add(long time, float value) {
+            if(mCount == mValues.length) {
+                mValues = Arrays.copyOf(mValues, 2 * mCount);
+                mTimes = Arrays.copyOf(mTimes, 2 * mCount);
+            }
+            mTimes[mCount] = time;
+            mValues[mCount++] = value;
+        }
+
+        /**
+         * @param time the time in milliseconds since the start of the replay
+         * @return the next reading or the last one if all readings were read
+         */
+        private float next(long time) {
+            if(mNext == mCount) {
+                mStrayCount++;
+                return mCount > 0 ? mValues[mCount - 1] : mDefault;
+            }
+            if(mTimes[mNext] != time) {
+                mStrayCount++;
+            }
+            return mValues[mNext++];
+        }
+    }
+
+    /**
+     * The readings of the ultrasonic sensor.
+     */
+    private final Channel mUltrasonic = new Channel(NO_DISTANCE);
+
+    /**
+     * The readings of the infrared sensors.
+     */
+    private final Channel mInfrared = new Channel(NO_DISTANCE);
+
+    /**
+     * The yaws of the IMU of the base.
+     */
+    private final Channel mYaw = new Channel(Float.NaN);
+
+    /**
+     * The readings of the depth camera of the head.
+     */
+    private final Channel mHeadRange = new Channel(NO_DISTANCE);
+
+    /**
+     * The odometry poses in the order in which they were read, null where the base had none.
+     */
+    private Pose[] mPoses = new Pose[1024];
+
+    /**
+     * The times in milliseconds since the start of the trace at which the poses were read.
+     */
+    private long[] mPoseTimes = new long[1024];
+
+    /**
+     * The number of odometry poses.
+     */
+    private int mPoseCount = 0;
+
+    /**
+     * The index of the pose that is read next.
+     */
+    private int mNextPose = 0;
+
+    /**
+     * The number of odometry reads at another time than the pose was recorded at, or after the
+     * last pose.
+     */
+    private int mPoseStrayCount = 0;
+
+    /**
+     * The types of the events of the base.
+     */
+    private byte[] mEventTypes = new byte[256];
+
+    /**
+     * The flags of the events or whether the obstacle appeared.
+     */
+    private byte[] mEventFlags = new byte[256];
+
+    /**
+     * The poses that came with the events or null.
+     */
+    private Pose[] mEventPoses = new Pose[256];
+
+    /**
+     * The times in milliseconds since the start of the trace at which the events were delivered.
+     */
+    private long[] mEventTimes = new long[256];
+
+    /**
+     * The number of events.
+     */
+    private int mEventCount = 0;
+
+    /**
+     * The index of the event that is delivered next.
+     */
+    private int mNextEvent = 0;
+
+    /**
+     * The time in milliseconds since the start of the trace of the last record.
+     */
+    private long mDuration = 0;
+
+    /**
+     * The number of records in the trace.
+     */
+    private long mRecordCount = 0;
+
+    /**
+     * The number of commands of the exploration that were ignored.
+     */
+    private long mCommandCount = 0;
+
+    /**
+     * The scheduler that plays the trace or null before #start(Scheduler) is called.
+     */
+    private Scheduler mScheduler = null;
+
+    /**
+     * The time of the scheduler in milliseconds at which the replay started.
+     */
+    private long mStartTime = 0;
+
+    /**
+     * The listener that receives the events of the base or null.
+     */
+    private Listener mListener = null;
+
+    /**
+     * Delivers the next event of the base and waits for the one after it.
+     */
+    private final Runnable mDeliverEvent = new Runnable() {
+        @Override
+        public void run() {
+            int event = mNextEvent++;
+            Listener listener = mListener;
+            if(listener != null) {
+                Pose pose = mEventPoses[event];
+                boolean isLast = (mEventFlags[event] & TraceRecorder.FLAG_LAST) != 0;
+                switch(mEventTypes[event]) {
+                    case TraceRecorder.ARRIVED:
+                        listener.onCheckPointArrived(pose, isLast);
+                        break;
+                    case TraceRecorder.MISSED:
+                        listener.onCheckPointMiss(pose, isLast);
+                        break;
+                    default:
+                        listener.onObstacleStateChanged(mEventFlags[event] != 0);
+                }
+            }
+            scheduleNextEvent();
+        }
+    };
+
+    /**
+     * Reads a whole trace. The stream is not closed.
+     * @param in the stream that the TraceRecorder has written
+     * @return the player of the trace
+     * @throws IOException if the stream couldn't be read or doesn't hold a trace
+     */
+    public static TracePlayer read(InputStream in) throws IOException {
+        TracePlayer player = new TracePlayer();
+        player.decode(new DataInputStream(new BufferedInputStream(in)));
+        return player;
+    }
+
+    private TracePlayer() {}
+
+    /**
+     * Decodes the records of a trace. A trace that breaks off in the middle of a record, e.g.
+     * because the app was killed, is played up to the last complete record.
+     */
+    private void decode(DataInputStream in) throws IOException {
+        if(in.readInt() != TraceRecorder.MAGIC) {
+            throw new IOException("Not a trace");
+        }
+        int version = (int) readVarint(in);
+        if(version != TraceRecorder.VERSION) {
+            throw new IOException("Unsupported version " + version + " of the trace");
+        }
+        int ultrasonic = 0;
+        int infrared = 0;
+        int yaw = 0;
+        int headRange = 0;
+        int[] pose = new int[3];
+        long[] poseTime = new long[1];
+        long time = 0;
+        while(true) {
+            int type = in.read();
+            if(type < 0) {
+                break;
+            }
+            try {
+                time += readVarint(in);
+                switch(type) {
+                    case TraceRecorder.ULTRASONIC:
+                        ultrasonic += (int) readZigzag(in);
+                        mUltrasonic.add(time, Float.intBitsToFloat(ultrasonic));
+                        break;
+                    case TraceRecorder.INFRARED:
+                        infrared += (int) readZigzag(in);
+                        mInfrared.add(time, Float.intBitsToFloat(infrared));
+                        break;
+                    case TraceRecorder.BASE_YAW:
+                        yaw += (int) readZigzag(in);
+                        mYaw.add(time, Float.intBitsToFloat(yaw));
+                        break;
+                    case TraceRecorder.HEAD_RANGE:
+                        headRange += (int) readZigzag(in);
+                        mHeadRange.add(time, Float.intBitsToFloat(headRange));
+                        break;
+                    case TraceRecorder.ODOMETRY:
+                        addPose(time, readPose(in, pose, poseTime));
+                        break;
+                    case TraceRecorder.NO_ODOMETRY:
+                        addPose(time, null);
+                        break;
+                    case TraceRecorder.ARRIVED:
+                    case TraceRecorder.MISSED:
+                        int flags = in.readUnsignedByte();
+                        Pose eventPose = (flags & TraceRecorder.FLAG_POSE) != 0 ? readPose(in, pose, poseTime) : null;
+                        addEvent(time, type, flags, eventPose);
+                        break;
+                    case TraceRecorder.OBSTACLE:
+                        addEvent(time, type, in.readUnsignedByte(), null);
+                        break;
+                    default:
+                        throw new IOException("Unknown record type " + type + " in the trace");
+                }
+            } catch(EOFException e) {
+                RobotLog.d(TAG, "The trace breaks off after " + mRecordCount + " records");
+                break;
+            }
+            mRecordCount++;
+            mDuration = time;
+        }
+    }
+
+    /**
+     * Reads a pose that is stored as the differences to the previous pose.
+     * @param last the bits of the coordinates and the heading of the previous pose, which are
+     *             replaced by the ones of this pose
+     * @param lastTime the timestamp of the previous pose, which is replaced by the one of this pose
+     */
+    private static Pose readPose(DataInputStream in, int[] last, long[] lastTime) throws IOException {
+        last[0] += (int) readZigzag(in);
+        last[1] += (int) readZigzag(in);
+        last[2] += (int) readZigzag(in);
+        lastTime[0] += readZigzag(in);
+        return new Pose(Float.intBitsToFloat(last[0]), Float.intBitsToFloat(last[1]),
+                Float.intBitsToFloat(last[2]), lastTime[0]);
+    }
+
+    /**
+     * @return the next number that was written with seven bits per byte
+     */
+    private static long readVarint(DataInputStream in) throws IOException {
+        long value = 0;
+        for(int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint in the trace");
+    }
+
+    /**
+     * @return the next difference that was written as a zigzag varint
+     */
+    private static long readZigzag(DataInputStream in) throws IOException {
+        long value = readVarint(in);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private void addPose(long time, Pose pose) {
+        if(mPoseCount == mPoses.length) {
+            mPoses = Arrays.copyOf(mPoses, 2 * mPoseCount);
+            mPoseTimes = Arrays.copyOf(mPoseTimes, 2 * mPoseCount);
+        }
+        mPoseTimes[mPoseCount] = time;
+        mPoses[mPoseCount++] = pose;
+    }
+
+    private void addEvent(long time, int type, int flags, Pose pose) {
+        if(mEventCount == mEventTypes.length) {
+            mEventTypes = Arrays.copyOf(mEventTypes, 2 * mEventCount);
+            mEventFlags = Arrays.copyOf(mEventFlags, 2 * mEventCount);
+            mEventPoses = Arrays.copyOf(mEventPoses, 2 * mEventCount);
+            mEventTimes = Arrays.copyOf(mEventTimes, 2 * mEventCount);
+        }
+        mEventTypes[mEventCount] = (byte) type;
+        mEventFlags[mEventCount] = (byte) flags;
+        mEventPoses[mEventCount] = pose;
+        mEventTimes[mEventCount++] = time;
+    }
+
+    /**
+     * Starts delivering the events of the base. The times in the trace count from now, so the
+     * exploration should be started right afterwards, like while it was recorded.
+     * @param scheduler the scheduler that the exploration runs on
+     */
+    public void start(Scheduler scheduler) {
+        mScheduler = scheduler;
+        mStartTime = scheduler.uptimeMillis();
+        scheduleNextEvent();
+    }
+
+    /**
+     * Waits for the time of the next event.
+     */
+    private void scheduleNextEvent() {
+        if(mNextEvent < mEventCount) {
+            mScheduler.postDelayed(mDeliverEvent, mStartTime + mEventTimes[mNextEvent] - mScheduler.uptimeMillis());
+        }
+    }
+
+    /**
+     * @return the time in milliseconds since the start of the replay
+     */
+    private long now() {
+        return mScheduler != null ? mScheduler.uptimeMillis() - mStartTime : 0;
+    }
+
+    /**
+     * @return the time in milliseconds from the start of the trace to its last record
+     */
+    public long getDuration() {
+        return mDuration;
+    }
+
+    /**
+     * @return the number of records in the trace
+     */
+    public long getRecordCount() {
+        return mRecordCount;
+    }
+
+    /**
+     * @return true if the trace has readings of the head, so the exploration should get a head
+     */
+    public boolean hasHead() {
+        return mHeadRange.mCount > 0;
+    }
+
+    /**
+     * @return the number of events of the base that were delivered so far
+     */
+    public int getDeliveredEventCount() {
+        return mNextEvent;
+    }
+
+    /**
+     * @return the number of events of the base in the trace
+     */
+    public int getEventCount() {
+        return mEventCount;
+    }
+
+    /**
+     * @return the number of readings and odometry poses that were read so far
+     */
+    public long getReadCount() {
+        return mUltrasonic.mNext + mInfrared.mNext + mYaw.mNext + mHeadRange.mNext + mNextPose;
+    }
+
+    /**
+     * @return the number of readings and odometry poses in the trace
+     */
+    public long getReadingCount() {
+        return mUltrasonic.mCount + mInfrared.mCount + mYaw.mCount + mHeadRange.mCount + mPoseCount;
+    }
+
+    /**
+     * @return the number of reads at other times than they were recorded at or after the end of the
+     * trace; 0 if the exploration did exactly what it did while it was recorded
+     */
+    public long getStrayCount() {
+        return mUltrasonic.mStrayCount + mInfrared.mStrayCount + mYaw.mStrayCount
+                + mHeadRange.mStrayCount + mPoseStrayCount;
+    }
+
+    /**
+     * @return the number of commands of the exploration that were ignored
+     */
+    public long getCommandCount() {
+        return mCommandCount;
+    }
+
+    @Override
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    @Override
+    public void addCheckPoint(float x, float y) {
+        mCommandCount++;
+    }
+
+    @Override
+    public void addCheckPoint(float x, float y, float theta) {
+        mCommandCount++;
+    }
+
+    @Override
+    public void clearCheckPointsAndStop() {
+        mCommandCount++;
+    }
+
+    @Override
+    public void setVelocity(float linear, float angular) {
+        mCommandCount++;
+    }
+
+    @Override
+    public void cleanOriginalPoint() {
+        mCommandCount++;
+    }
+
+    @Override
+    public void setOriginalPoint(Pose pose) {
+        mCommandCount++;
+    }
+
+    /**
+     * @return the next odometry pose of the trace or the last one if all were read
+     */
+    @Override
+    public Pose getOdometryPose() {
+        if(mNextPose == mPoseCount) {
+            mPoseStrayCount++;
+            return mPoseCount > 0 ? mPoses[mPoseCount - 1] : null;
+        }
+        if(mPoseTimes[mNextPose] != now()) {
+            mPoseStrayCount++;
+        }
+        return mPoses[mNextPose++];
+    }
+
+    @Override
+    public void setUltrasonicObstacleAvoidanceEnabled(boolean enabled) {
+        mCommandCount++;
+    }
+
+    @Override
+    public void setUltrasonicObstacleAvoidanceDistance(float distance) {
+        mCommandCount++;
+    }
+
+    @Override
+    public float getUltrasonicDistance() {
+        return mUltrasonic.next(now());
+    }
+
+    @Override
+    public float getInfraredDistance() {
+        return mInfrared.next(now());
+    }
+
+    @Override
+    public float getBaseYaw() {
+        return mYaw.next(now());
+    }
+
+    @Override
+    public void setYaw(float yaw) {
+        mCommandCount++;
+    }
+
+    @Override
+    public float getRangeDistance() {
+        return mHeadRange.next(now());
+    }
+
+}
@@ -0,0 +1,584 @@
+package com.tudresden.navigationrobot.robot;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Records everything that the exploration learns from the robot into a compact binary trace: every
+ * reading of the sensors and the head, every odometry pose and every event of the base, stamped
+ * with the time of the scheduler. A TracePlayer feeds the trace back to a new exploration, so a run
+ * on the robot can be reproduced and profiled in the simulator.
+ * <p>
+ * The recorder wraps the base, the sensor and the head that are handed to the exploration and only
+ * records while a recording is running. The records are written into a buffer that is allocated
+ * once and handed to the stream whenever it is almost full. Every record starts with its type and
+ * the time since the previous record as a varint. The values are stored as the difference of their
+ * bits to the previous value of the same kind, which is small for values that change slowly, as a
+ * zigzag varint. So the trace is lossless and a reading of the ultrasonic sensor mostly takes three
+ * to four bytes.
+ * <p>
+ * Readings are recorded on the thread that takes them and events on the thread that delivers them,
+ * so all methods are synchronized.
+ */
+public class TraceRecorder {
+
+    /**
+     * The tag that is used for log messages.
+     */
+    private static final String TAG = "TraceRecorder";
+
+    /**
+     * The first four bytes of a trace, "NRTR".
+     */
+    static final int MAGIC = 0x4E525452;
+
+    /**
+     * The version of the format that is written.
+     */
+    static final int VERSION = 1;
+
+    /**
+     * A reading of the ultrasonic sensor.
+     */
+    static final int ULTRASONIC = 1;
+
+    /**
+     * A reading of the infrared sensors.
+     */
+    static final int INFRARED = 2;
+
+    /**
+     * A reading of the yaw of the IMU of the base.
+     */
+    static final int BASE_YAW = 3;
+
+    /**
+     * A reading of the depth camera of the head.
+     */
+    static final int HEAD_RANGE = 4;
+
+    /**
+     * An odometry pose that was read from the base.
+     */
+    static final int ODOMETRY = 5;
+
+    /**
+     * A read of the odometry while the base had no pose.
+     */
+    static final int NO_ODOMETRY = 6;
+
+    /**
+     * The base has reached a checkpoint.
+     */
+    static final int ARRIVED = 7;
+
+    /**
+     * The base has given up reaching a checkpoint.
+     */
+    static final int MISSED = 8;
+
+    /**
+     * An obstacle appeared in front of the robot or disappeared again.
+     */
+    static final int OBSTACLE = 9;
+
+    /**
+     * The flag of an event that was the last checkpoint.
+     */
+    static final int FLAG_LAST = 1;
+
+    /**
+     * The flag of an event that carries a pose.
+     */
+    static final int FLAG_POSE = 2;
+
+    /**
+     * The size of the buffer in bytes.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * More than the largest record takes: a type, a time, three floats and a timestamp.
+     */
+    private static final int MAX_RECORD_SIZE = 64;
+
+    /**
+     * The scheduler whose time the records are stamped with.
+     */
+    private final Scheduler mClock;
+
+    /**
+     * The buffer that the records are written into.
+     */
+    private final byte[] mBuffer = new byte[BUFFER_SIZE];
+
+    /**
+     * The number of bytes in the buffer.
+     */
+    private int mPosition = 0;
+
+    /**
+     * The stream that the trace is written to or null if nothing is recorded.
+     */
+    private OutputStream mOut = null;
+
+    /**
+     * The time of the scheduler in milliseconds at the previous record.
+     */
+    private long mLastTime;
+
+    /**
+     * The bits of the previous reading of the ultrasonic sensor.
+     */
+    private int mLastUltrasonic;
+
+    /**
+     * The bits of the previous reading of the infrared sensors.
+     */
+    private int mLastInfrared;
+
+    /**
+     * The bits of the previous yaw of the base.
+     */
+    private int mLastYaw;
+
+    /**
+     * The bits of the previous reading of the head.
+     */
+    private int mLastHeadRange;
+
+    /**
+     * The bits of the x-coordinate of the previous pose.
+     */
+    private int mLastX;
+
+    /**
+     * The bits of the y-coordinate of the previous pose.
+     */
+    private int mLastY;
+
+    /**
+     * The bits of the heading of the previous pose.
+     */
+    private int mLastTheta;
+
+    /**
+     * The timestamp of the previous pose in milliseconds.
+     */
+    private long mLastPoseTime;
+
+    /**
+     * The number of records of the current recording.
+     */
+    private long mRecordCount = 0;
+
+    /**
+     * The number of bytes of the current recording that were handed to the stream.
+     */
+    private long mByteCount = 0;
+
+    /**
+     * @param clock the scheduler that the exploration runs on, whose time the records are stamped
+     *              with
+     */
+    public TraceRecorder(Scheduler clock) {
+        this.mClock = clock;
+    }
+
+    /**
+     * Starts a new recording. The times in the trace count from now, so the exploration should be
+     * started right afterwards. A recording that is still running is stopped first.
+     * @param out the stream that the trace is written to; it is closed when the recording stops
+     * @throws IOException if the stream of the previous recording couldn't be closed
+     */
+    public synchronized void start(OutputStream out) throws IOException {
+        stop();
+        mOut = out;
+        mPosition = 0;
+        mRecordCount = 0;
+        mByteCount = 0;
+        mLastTime = mClock.uptimeMillis();
+        mLastUltrasonic = 0;
+        mLastInfrared = 0;
+        mLastYaw = 0;
+        mLastHeadRange = 0;
+        mLastX = 0;
+        mLastY = 0;
+        mLastTheta = 0;
+        mLastPoseTime = 0;
+        mBuffer[mPosition++] = (byte) (MAGIC >>> 24);
+        mBuffer[mPosition++] = (byte) (MAGIC >>> 16);
+        mBuffer[mPosition++] = (byte) (MAGIC >>> 8);
+        mBuffer[mPosition++] = (byte) MAGIC;
+        writeVarint(VERSION);
+    }
+
+    /**
+     * Writes the rest of the buffer and closes the stream. Does nothing if nothing is recorded.
+     * @throws IOException if the stream couldn't be written or closed
+     */
+    public synchronized void stop() throws IOException {
+        if(mOut == null) {
+            return;
+        }
+        OutputStream out = mOut;
+        mOut = null;
+        try {
+            out.write(mBuffer, 0, mPosition);
+            mByteCount += mPosition;
+            mPosition = 0;
+        } finally {
+            out.close();
+        }
+        RobotLog.d(TAG, "Recorded " + mRecordCount + " records in " + mByteCount + " bytes");
+    }
+
+    /**
+     * @return true while a recording is running
+     */
+    public synchronized boolean isRecording() {
+        return mOut != null;
+    }
+
+    /**
+     * @return the number of records of the current or the last recording
+     */
+    public synchronized long getRecordCount() {
+        return mRecordCount;
+    }
+
+    /**
+     * @return the number of bytes of the current or the last recording, including the buffered ones
+     */
+    public synchronized long getByteCount() {
+        return mByteCount + mPosition;
+    }
+
+    /**
+     * @param base the base that the exploration controls
+     * @return a base that behaves like the given one and records its poses and events
+     */
+    public RobotBase wrapBase(RobotBase base) {
+        return new RecordingBase(base);
+    }
+
+    /**
+     * @param sensor the sensor that the exploration reads
+     * @return a sensor that returns the readings of the given one and records them
+     */
+    public RobotSensor wrapSensor(RobotSensor sensor) {
+        return new RecordingSensor(sensor);
+    }
+
+    /**
+     * @param head the head that the exploration reads and turns
+     * @return a head that behaves like the given one and records its readings
+     */
+    public RobotHead wrapHead(RobotHead head) {
+        return new RecordingHead(head);
+    }
+
+    /**
+     * Records a reading of one of the distance sensors or the yaw.
+     * @param type the type of the record
+     * @param value the reading
+     */
+    private synchronized void recordReading(int type, float value) {
+        if(!beginRecord(type)) {
+            return;
+        }
+        int bits = Float.floatToIntBits(value);
+        switch(type) {
+            case ULTRASONIC:
+                writeVarint(zigzag(bits - mLastUltrasonic));
+                mLastUltrasonic = bits;
+                break;
+            case INFRARED:
+                writeVarint(zigzag(bits - mLastInfrared));
+                mLastInfrared = bits;
+                break;
+            case BASE_YAW:
+                writeVarint(zigzag(bits - mLastYaw));
+                mLastYaw = bits;
+                break;
+            default:
+                writeVarint(zigzag(bits - mLastHeadRange));
+                mLastHeadRange = bits;
+        }
+        endRecord();
+    }
+
+    /**
+     * Records an odometry pose that was read from the base.
+     * @param pose the pose or null if the base had none
+     */
+    private synchronized void recordOdometry(Pose pose) {
+        if(!beginRecord(pose != null ? ODOMETRY : NO_ODOMETRY)) {
+            return;
+        }
+        if(pose != null) {
+            writePose(pose);
+        }
+        endRecord();
+    }
+
+    /**
+     * Records an event of the base about a checkpoint.
+     * @param type ARRIVED or MISSED
+     * @param pose the pose that came with the event or null
+     * @param isLast true if there are no further checkpoints
+     */
+    private synchronized void recordCheckPoint(int type, Pose pose, boolean isLast) {
+        if(!beginRecord(type)) {
+            return;
+        }
+        mBuffer[mPosition++] = (byte) ((isLast ? FLAG_LAST : 0) | (pose != null ? FLAG_POSE : 0));
+        if(pose != null) {
+            writePose(pose);
+        }
+        endRecord();
+    }
+
+    /**
+     * Records a change of the obstacle state.
+     * @param appeared true if an obstacle appeared, false if it disappeared
+     */
+    private synchronized void recordObstacle(boolean appeared) {
+        if(!beginRecord(OBSTACLE)) {
+            return;
+        }
+        mBuffer[mPosition++] = (byte) (appeared ? 1 : 0);
+        endRecord();
+    }
+
+    /**
+     * Writes the type and the time of a record. Hands the buffer to the stream first if the record
+     * might not fit anymore.
+     * @param type the type of the record
+     * @return false if nothing is recorded
+     */
+    private boolean beginRecord(int type) {
+        if(mOut == null) {
+            return false;
+        }
+        if(mPosition > BUFFER_SIZE - MAX_RECORD_SIZE) {
+            try {
+                mOut.write(mBuffer, 0, mPosition);
+            } catch(IOException e) {
+                RobotLog.d(TAG, "The trace couldn't be written, the recording is stopped: " + e);
+                try {
+                    mOut.close();
+                } catch(IOException ignored) {
+                    // The recording is given up anyway
+                }
+                mOut = null;
+                return false;
+            }
+            mByteCount += mPosition;
+            mPosition = 0;
+        }
+        long time = mClock.uptimeMillis();
+        mBuffer[mPosition++] = (byte) type;
+        // The time can't run backwards, but a record may have been stamped on another thread
+        writeVarint(Math.max(0, time - mLastTime));
+        mLastTime = Math.max(mLastTime, time);
+        return true;
+    }
+
+    /**
+     * Counts a record once it is complete.
+     */
+    private void endRecord() {
+        mRecordCount++;
+    }
+
+    /**
+     * Writes a pose as the differences to the previous pose.
+     */
+    private void writePose(Pose pose) {
+        int x = Float.floatToIntBits(pose.getX());
+        int y = Float.floatToIntBits(pose.getY());
+        int theta = Float.floatToIntBits(pose.getTheta());
+        writeVarint(zigzag(x - mLastX));
+        writeVarint(zigzag(y - mLastY));
+        writeVarint(zigzag(theta - mLastTheta));
+        writeVarint(zigzag(pose.getTimestamp() - mLastPoseTime));
+        mLastX = x;
+        mLastY = y;
+        mLastTheta = theta;
+        mLastPoseTime = pose.getTimestamp();
+    }
+
+    /**
+     * Writes a number that is not negative with seven bits per byte, the lowest bits first. The
+     * highest bit of a byte is set if another byte follows.
+     */
+    private void writeVarint(long value) {
+        while((value & ~0x7FL) != 0) {
+            mBuffer[mPosition++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        mBuffer[mPosition++] = (byte) value;
+    }
+
+    /**
+     * @return the difference mapped to a number that is not negative, so small differences of both
+     * signs take few bytes: 0, -1, 1, -2, 2 ... become 0, 1, 2, 3, 4 ...
+     */
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    /**
+     * A base that records the poses that are read from it and the events that it delivers.
+     */
+    private class RecordingBase implements RobotBase {
+
+        /**
+         * The base that the calls are handed to.
+         */
+        private final RobotBase mBase;
+
+        private RecordingBase(RobotBase base) {
+            this.mBase = base;
+        }
+
+        @Override
+        public void setListener(final Listener listener) {
+            if(listener == null) {
+                mBase.setListener(null);
+                return;
+            }
+            mBase.setListener(new Listener() {
+                @Override
+                public void onCheckPointArrived(Pose realPose, boolean isLast) {
+                    recordCheckPoint(ARRIVED, realPose, isLast);
+                    listener.onCheckPointArrived(realPose, isLast);
+                }
+
+                @Override
+                public void onCheckPointMiss(Pose realPose, boolean isLast) {
+                    recordCheckPoint(MISSED, realPose, isLast);
+                    listener.onCheckPointMiss(realPose, isLast);
+                }
+
+                @Override
+                public void onObstacleStateChanged(boolean appeared) {
+                    recordObstacle(appeared);
+                    listener.onObstacleStateChanged(appeared);
+                }
+            });
+        }
+
+        @Override
+        public void addCheckPoint(float x, float y) {
+            mBase.addCheckPoint(x, y);
+        }
+
+        @Override
+        public void addCheckPoint(float x, float y, float theta) {
+            mBase.addCheckPoint(x, y, theta);
+        }
+
+        @Override
+        public void clearCheckPointsAndStop() {
+            mBase.clearCheckPointsAndStop();
+        }
+
+        @Override
+        public void setVelocity(float linear, float angular) {
+            mBase.setVelocity(linear, angular);
+        }
+
+        @Override
+        public void cleanOriginalPoint() {
+            mBase.cleanOriginalPoint();
+        }
+
+        @Override
+        public void setOriginalPoint(Pose pose) {
+            mBase.setOriginalPoint(pose);
+        }
+
+        @Override
+        public Pose getOdometryPose() {
+            Pose pose = mBase.getOdometryPose();
+            recordOdometry(pose);
+            return pose;
+        }
+
+        @Override
+        public void setUltrasonicObstacleAvoidanceEnabled(boolean enabled) {
+            mBase.setUltrasonicObstacleAvoidanceEnabled(enabled);
+        }
+
+        @Override
+        public void setUltrasonicObstacleAvoidanceDistance(float distance) {
+            mBase.setUltrasonicObstacleAvoidanceDistance(distance);
+        }
+    }
+
+    /**
+     * A sensor that records the readings that are taken from it.
+     */
+    private class RecordingSensor implements RobotSensor {
+
+        /**
+         * The sensor that the readings are taken from.
+         */
+        private final RobotSensor mSensor;
+
+        private RecordingSensor(RobotSensor sensor) {
+            this.mSensor = sensor;
+        }
+
+        @Override
+        public float getUltrasonicDistance() {
+            float distance = mSensor.getUltrasonicDistance();
+            recordReading(ULTRASONIC, distance);
+            return distance;
+        }
+
+        @Override
+        public float getInfraredDistance() {
+            float distance = mSensor.getInfraredDistance();
+            recordReading(INFRARED, distance);
+            return distance;
+        }
+
+        @Override
+        public float getBaseYaw() {
+            float yaw = mSensor.getBaseYaw();
+            recordReading(BASE_YAW, yaw);
+            return yaw;
+        }
+    }
+
+    /**
+     * A head that records the readings that are taken from it.
+     */
+    private class RecordingHead implements RobotHead {
+
+        /**
+         * The head that the calls are handed to.
+         */
+        private final RobotHead mHead;
+
+        private RecordingHead(RobotHead head) {
+            this.mHead = head;
+        }
+
+        @Override
+        public void setYaw(float yaw) {
+            mHead.setYaw(yaw);
+        }
+
+        @Override
+        public float getRangeDistance() {
+            float distance = mHead.getRangeDistance();
+            recordReading(HEAD_RANGE, distance);
+            return distance;
+        }
+    }
+
+}